@@ -0,0 +1,44 @@
+package xapi.annotation.inject;
+
+import xapi.constants.X_Namespace;
+
+/**
+ * The injection targets of one jar, as chosen by xapi.processor.inject.InjectionAnnotationProcessor
+ * from the {@link SingletonDefault}, {@link SingletonOverride}, {@link InstanceDefault} and {@link InstanceOverride}
+ * annotations it compiled.
+ * <p>
+ * The processor generates one implementation per compilation, and lists its name in
+ * {@link X_Namespace#DEFAULT_INJECTION_INDEX_LOCATION}; a jre injector can read every index on the classpath once,
+ * instead of looking for a manifest in META-INF/singletons or META-INF/instances for each type it is asked for,
+ * and create instances with {@link #create(int)} instead of reflection.
+ * <p>
+ * Within one index, each type has a single target, with priorities already resolved;
+ * when several jars index the same type, the injector chooses between them.
+ */
+public interface InjectionIndex {
+
+  interface Registry {
+    /**
+     * @param type The binary name of the type to inject.
+     * @param impl The binary name of the class to inject for it.
+     * @param id The id to pass to {@link InjectionIndex#create(int)} for a new impl.
+     */
+    void singleton(String type, String impl, int id);
+
+    /**
+     * @see #singleton(String, String, int)
+     */
+    void instance(String type, String impl, int id);
+  }
+
+  /**
+   * Tell the registry about every target in this index; nothing is loaded or created here.
+   */
+  void register(Registry registry);
+
+  /**
+   * @return a new instance of the impl registered with this id.
+   */
+  Object create(int id);
+
+}
@@ -1,5 +1,6 @@
 package xapi.processor.inject;
 
+import xapi.annotation.inject.InjectionIndex;
 import xapi.constants.X_Namespace;
 import xapi.fu.Out2;
 
@@ -11,13 +12,18 @@ import javax.lang.model.util.ElementFilter;
 import javax.lang.model.util.Elements;
 import javax.tools.Diagnostic;
 import javax.tools.FileObject;
+import javax.tools.JavaFileObject;
 import javax.tools.StandardLocation;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.io.PrintWriter;
+import java.io.Writer;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map.Entry;
 import java.util.Set;
+import java.util.TreeMap;
 
 ///
 /// This is the annotation processor for our injection library.
@@ -25,6 +31,9 @@ import java.util.Set;
 /// It scans for our injection annotations and writes manifests to speed up injection.
 /// default implementations go in META-INF/instances or META-INF/singletons.
 ///
+/// It also generates an [InjectionIndex] of every target it can construct directly,
+/// so a jre injector can skip both the manifests and reflection for them.
+///
 /// Platform specific injection types go into META-INF/$type/instances, META-INF/$type/singletons.
 ///
 /// It is included in the core api because it is run on the core api;
@@ -45,11 +54,23 @@ import java.util.Set;
 ///
 @SupportedAnnotationTypes({"xapi.annotation.inject.*"})
 @SupportedSourceVersion(SourceVersion.RELEASE_8)
+@SupportedOptions({InjectionAnnotationProcessor.OPTION_INDEX_NAME, "xapi.no.javac.plugin"})
 public class InjectionAnnotationProcessor extends AbstractProcessor{
 
+  /**
+   * The processor option to name the generated {@link InjectionIndex} class;
+   * by default, it goes in {@link #INDEX_PACKAGE}, named after a hash of its contents.
+   */
+  public static final String OPTION_INDEX_NAME = "xapi.inject.index.name";
+  public static final String INDEX_PACKAGE = "xapi.generated.inject";
+
   protected static class ManifestWriter {
     HashMap<String, Out2<Integer, String>> singletons = new HashMap<>();
     HashMap<String, Out2<Integer, String>> instances = new HashMap<>();
+    // source name -> binary name, for every type we have seen
+    HashMap<String, String> binaryNames = new HashMap<>();
+    // impls which generated code can create with a public no-arg constructor
+    Set<String> constructable = new HashSet<>();
     private final Messager messager;
 
       protected ManifestWriter(final Messager messager) {
@@ -88,7 +109,7 @@ public class InjectionAnnotationProcessor extends AbstractProcessor{
         }
       }
     }
-    void commit(final Filer filer) throws IOException {
+    void commit(final Filer filer, final String indexName) throws IOException {
       for (final String iface : singletons.keySet()) {
         final String impl = singletons.get(iface).out2();
         writeTo("singletons",iface, impl, filer);
@@ -97,6 +118,74 @@ public class InjectionAnnotationProcessor extends AbstractProcessor{
         final String impl = instances.get(iface).out2();
         writeTo("instances",iface, impl, filer);
       }
+      writeIndex(filer, indexName);
+    }
+
+    /**
+     * Writes an {@link InjectionIndex} of every winning impl we can construct directly,
+     * and lists it in {@link X_Namespace#DEFAULT_INJECTION_INDEX_LOCATION}.
+     * Anything else is still served from the manifests.
+     */
+    protected void writeIndex(final Filer filer, String indexName) throws IOException {
+      final TreeMap<String, String> singletonTargets = indexable(singletons);
+      final TreeMap<String, String> instanceTargets = indexable(instances);
+      if (singletonTargets.isEmpty() && instanceTargets.isEmpty()) {
+        return;
+      }
+      if (indexName == null) {
+        // name the index after what it holds, so every jar gets its own
+        indexName = INDEX_PACKAGE + ".InjectionIndex_" +
+            Integer.toHexString((singletonTargets.toString() + instanceTargets).hashCode());
+      }
+      final int dot = indexName.lastIndexOf('.');
+      final StringBuilder register = new StringBuilder();
+      final StringBuilder create = new StringBuilder();
+      int id = 0;
+      for (Entry<String, String> target : singletonTargets.entrySet()) {
+        register.append("    registry.singleton(\"").append(binaryNames.get(target.getKey()))
+            .append("\", \"").append(binaryNames.get(target.getValue())).append("\", ").append(id).append(");\n");
+        create.append("      case ").append(id++).append(": return new ").append(target.getValue()).append("();\n");
+      }
+      for (Entry<String, String> target : instanceTargets.entrySet()) {
+        register.append("    registry.instance(\"").append(binaryNames.get(target.getKey()))
+            .append("\", \"").append(binaryNames.get(target.getValue())).append("\", ").append(id).append(");\n");
+        create.append("      case ").append(id++).append(": return new ").append(target.getValue()).append("();\n");
+      }
+      final JavaFileObject source = filer.createSourceFile(indexName);
+      try (Writer out = source.openWriter()) {
+        if (dot != -1) {
+          out.append("package ").append(indexName, 0, dot).append(";\n\n");
+        }
+        out.append("public final class ").append(indexName.substring(dot + 1))
+            .append(" implements ").append(InjectionIndex.class.getCanonicalName()).append(" {\n\n")
+            .append("  @Override\n")
+            .append("  public void register(Registry registry) {\n")
+            .append(register)
+            .append("  }\n\n")
+            .append("  @Override\n")
+            .append("  public Object create(int id) {\n")
+            .append("    switch (id) {\n")
+            .append(create)
+            .append("      default: throw new IllegalArgumentException(\"No injection target \" + id);\n")
+            .append("    }\n")
+            .append("  }\n")
+            .append("}\n");
+      }
+      final FileObject list = filer.createResource(StandardLocation.CLASS_OUTPUT, "", X_Namespace.DEFAULT_INJECTION_INDEX_LOCATION);
+      try (Writer out = list.openWriter()) {
+        out.append(indexName).append('\n');
+      }
+    }
+
+    private TreeMap<String, String> indexable(final HashMap<String, Out2<Integer, String>> targets) {
+      final TreeMap<String, String> result = new TreeMap<>();
+      for (Entry<String, Out2<Integer, String>> target : targets.entrySet()) {
+        final String impl = target.getValue().out2();
+        if (constructable.contains(impl) && binaryNames.containsKey(target.getKey())) {
+          result.put(target.getKey(), impl);
+        }
+      }
+      return result;
     }
     protected void writeTo(final String location, final String iface, final String impl, final Filer filer) throws IOException {
       CharSequence existing;
@@ -172,6 +261,13 @@ public class InjectionAnnotationProcessor extends AbstractProcessor{
         }
         final DeclaredType cls = (DeclaredType) t.getValue();
         final Integer priority = getPriority(elements, mirror, priorityFor);
+        recordNames(elements, (TypeElement) cls.asElement());
+        if (element instanceof TypeElement) {
+          recordNames(elements, (TypeElement) element);
+          if (isConstructable((TypeElement) element)) {
+            writer.constructable.add(element.toString());
+          }
+        }
         if (anno.getSimpleName().contentEquals("SingletonDefault")) {
           for (final String platform : getPlatforms(element)) {
             writer.writeSingleton(cls.toString(), platform, null, element.toString());
@@ -193,7 +289,7 @@ public class InjectionAnnotationProcessor extends AbstractProcessor{
     }
     if (roundEnv.processingOver()) {
       try {
-        writer.commit(filer);
+        writer.commit(filer, processingEnv.getOptions().get(OPTION_INDEX_NAME));
       } catch (final Exception e) {
         e.printStackTrace();
         messager.printMessage(Diagnostic.Kind.ERROR, "Unable to write injection metadata.");
@@ -204,6 +300,39 @@ public class InjectionAnnotationProcessor extends AbstractProcessor{
     return true;
   }
 
+  private void recordNames(final Elements elements, final TypeElement type) {
+    writer.binaryNames.put(type.toString(), elements.getBinaryName(type).toString());
+  }
+
+  /**
+   * @return true if generated code in another package can call new on this type:
+   * a concrete, public, top-level or static nested class, with a public no-arg constructor.
+   */
+  protected boolean isConstructable(final TypeElement type) {
+    if (type.getKind() != ElementKind.CLASS || type.getModifiers().contains(Modifier.ABSTRACT)) {
+      return false;
+    }
+    Element e = type;
+    while (e instanceof TypeElement) {
+      if (!e.getModifiers().contains(Modifier.PUBLIC)) {
+        return false;
+      }
+      if (e.getEnclosingElement() instanceof TypeElement && !e.getModifiers().contains(Modifier.STATIC)) {
+        return false;
+      }
+      e = e.getEnclosingElement();
+    }
+    if (e instanceof PackageElement && ((PackageElement) e).isUnnamed()) {
+      return false;
+    }
+    for (ExecutableElement ctor : ElementFilter.constructorsIn(type.getEnclosedElements())) {
+      if (ctor.getParameters().isEmpty() && ctor.getModifiers().contains(Modifier.PUBLIC)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
   private Integer getPriority(final Elements elements, final AnnotationMirror mirror,
       final ExecutableElement priorityFor) {
     if (priorityFor == null)
@@ -0,0 +1,388 @@
+package xapi.jre.log;
+
+import xapi.annotation.inject.SingletonOverride;
+import xapi.collect.fifo.Fifo;
+import xapi.constants.X_Namespace;
+import xapi.log.api.LogLevel;
+import xapi.log.api.LogService;
+import xapi.log.impl.JreLog;
+import xapi.platform.JrePlatform;
+import xapi.prop.X_Properties;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A {@link JreLog} which never makes the thread that logs wait for the console (or a log file).
+ * <p>
+ * Each message is formatted to a String on the calling thread, exactly as {@link JreLog} would,
+ * so it shows what its objects were when it was logged (and a toString() that throws only fails its caller);
+ * the String is then published into a preallocated ring buffer (one CAS to claim a slot, one volatile write to publish it),
+ * and a single background thread writes everything waiting in the buffer in as few prints as it can,
+ * switching between the out and error streams in the order the messages were logged.
+ * <p>
+ * When the buffer is full, messages below ERROR are dropped (the background thread reports how many),
+ * and errors wait a little for room, then are written synchronously; no caller ever waits on the buffer for long.
+ * Set {@link X_Namespace#PROPERTY_LOG_BUFFER} large enough that this never happens.
+ * <p>
+ * Set {@link X_Namespace#PROPERTY_LOG_FILE} to write to a file (through a {@link FileChannel}) instead of the console;
+ * it is rotated when it grows past {@link X_Namespace#PROPERTY_LOG_FILE_SIZE}.
+ * Set {@link X_Namespace#PROPERTY_LOG_ASYNC} to false to log synchronously, exactly like {@link JreLog}.
+ * <p>
+ * Anything still in the buffer is written before the jvm exits.
+ */
+@JrePlatform
+@SingletonOverride(implFor = LogService.class, priority = Integer.MIN_VALUE + 3)
+public class AsyncJreLog extends JreLog {
+
+  // how long the background thread sleeps when idle, in case it misses a wakeup
+  private static final long IDLE_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+  // how long an error waits for room in a full buffer, before it is written synchronously instead
+  private static final long ERROR_WAIT_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+  private static final AtomicInteger logId = new AtomicInteger();
+
+  private final int mask;
+  private final LogLevel[] levels;
+  private final String[] messages;
+  // the sequence number held by each slot, once that message is ready to be read
+  private final AtomicLongArray published;
+  private final AtomicLong claimed = new AtomicLong();
+  private final AtomicLong dropped = new AtomicLong();
+  // the next sequence the background thread will read; slots before this one may be reused
+  private volatile long consumed;
+  // every sequence before this one has been written out
+  private volatile long written;
+  private volatile boolean idle;
+  private volatile Thread consumer;
+  // guarded by this
+  private boolean hooked;
+  private volatile LogFile file;
+  private final boolean async;
+
+  public AsyncJreLog() {
+    this(
+        !"false".equals(X_Properties.getProperty(X_Namespace.PROPERTY_LOG_ASYNC, "true")),
+        readLong(X_Namespace.PROPERTY_LOG_BUFFER, 8192),
+        X_Properties.getProperty(X_Namespace.PROPERTY_LOG_FILE),
+        readLong(X_Namespace.PROPERTY_LOG_FILE_SIZE, 10 * 1024 * 1024),
+        readLong(X_Namespace.PROPERTY_LOG_FILE_COUNT, 5)
+    );
+  }
+
+  public AsyncJreLog(boolean async, long capacity, String file, long maxFileSize, long maxFiles) {
+    this.async = async;
+    int size = 2;
+    while (size < capacity && size < 1 << 30) {
+      size <<= 1;
+    }
+    mask = size - 1;
+    levels = new LogLevel[size];
+    messages = new String[size];
+    published = new AtomicLongArray(size);
+    for (int i = 0; i < size; i++) {
+      // slot i first holds sequence i; nothing is published until it says so
+      published.set(i, -1);
+    }
+    if (file != null && !file.isEmpty()) {
+      this.file = new LogFile(new File(file), maxFileSize, (int) maxFiles);
+    }
+  }
+
+  @Override
+  public void doLog(LogLevel level, Fifo<Object> array) {
+    if (!async || Thread.currentThread() == consumer) {
+      // a stream we were writing to has logged something; just write it
+      writeNow(level, array);
+      return;
+    }
+    final StringBuilder b = new StringBuilder();
+    while (!array.isEmpty()) {
+      writeLog(level, b, array.take());
+    }
+    publish(level, b.toString());
+  }
+
+  /**
+   * Wait until every message logged before this call has been written.
+   *
+   * @return false if that took longer than the given number of milliseconds.
+   */
+  public boolean flush(long millis) {
+    final long target = claimed.get();
+    final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(millis);
+    while (written < target) {
+      if (System.nanoTime() - deadline > 0) {
+        return false;
+      }
+      wake();
+      LockSupport.parkNanos(this, 100_000);
+    }
+    return true;
+  }
+
+  /**
+   * @return how many messages were dropped because the buffer was full.
+   */
+  public long getDropped() {
+    return dropped.get();
+  }
+
+  private void writeNow(LogLevel level, Fifo<Object> array) {
+    final LogFile out = file;
+    if (out == null) {
+      super.doLog(level, array);
+    } else {
+      final StringBuilder b = new StringBuilder();
+      while (!array.isEmpty()) {
+        writeLog(level, b, array.take());
+      }
+      write(out, b.append('\n'));
+    }
+  }
+
+  private void publish(LogLevel level, String message) {
+    final int capacity = levels.length;
+    long seq;
+    long deadline = 0;
+    while (true) {
+      seq = claimed.get();
+      if (seq - consumed >= capacity) {
+        if (level != LogLevel.ERROR) {
+          dropped.incrementAndGet();
+          return;
+        }
+        // never lose an error; give the background thread a moment to make room, then write it ourselves
+        final long now = System.nanoTime();
+        if (deadline == 0) {
+          deadline = now + ERROR_WAIT_NANOS;
+        } else if (now - deadline > 0) {
+          writeDirect(level, message);
+          return;
+        }
+        wake();
+        LockSupport.parkNanos(this, 100_000);
+      } else if (claimed.compareAndSet(seq, seq + 1)) {
+        break;
+      }
+    }
+    final int slot = (int) seq & mask;
+    levels[slot] = level;
+    messages[slot] = message;
+    // this volatile write publishes the two plain writes above
+    published.set(slot, seq);
+    if (idle || consumer == null) {
+      wake();
+    }
+  }
+
+  private void writeDirect(LogLevel level, String message) {
+    final LogFile to = file;
+    if (to == null) {
+      printLogString(level, message);
+    } else {
+      write(to, new StringBuilder(message).append('\n'));
+    }
+  }
+
+  private void wake() {
+    Thread t = consumer;
+    if (t == null || !t.isAlive()) {
+      t = start();
+    }
+    LockSupport.unpark(t);
+  }
+
+  private synchronized Thread start() {
+    if (consumer == null || !consumer.isAlive()) {
+      final Thread t = new Thread(this::consume, "xapi-log-" + logId.incrementAndGet());
+      t.setDaemon(true);
+      consumer = t;
+      t.start();
+      if (!hooked) {
+        // a consumer restarted after dying shares the first one's hook
+        hooked = true;
+        Runtime.getRuntime().addShutdownHook(new Thread(()->flush(2_000), t.getName() + "-flush"));
+      }
+    }
+    return consumer;
+  }
+
+  private void consume() {
+    final StringBuilder b = new StringBuilder();
+    final int capacity = levels.length;
+    long reported = 0;
+    while (true) {
+      final long next = consumed;
+      long end = next;
+      while (end - next < capacity && published.get((int) end & mask) == end) {
+        end++;
+      }
+      if (end == next) {
+        idle = true;
+        // look again after saying we are idle, so a message published in between is not left waiting
+        if (published.get((int) next & mask) != next) {
+          LockSupport.parkNanos(this, IDLE_NANOS);
+        }
+        idle = false;
+        continue;
+      }
+      try {
+        final long lost = dropped.get() - reported;
+        if (lost > 0) {
+          reported += lost;
+          b.append("[WARN]\t").append(lost).append(" log messages dropped; the log buffer of ")
+              .append(capacity).append(" messages was full\n");
+        }
+        final LogFile to = file;
+        boolean toErr = false;
+        for (long seq = next; seq < end; seq++) {
+          final int slot = (int) seq & mask;
+          final boolean isErr = levels[slot] == LogLevel.ERROR;
+          if (isErr != toErr && to == null) {
+            // keep out and err in the order they were logged
+            print(toErr, b);
+            toErr = isErr;
+          }
+          b.append(messages[slot]).append('\n');
+          levels[slot] = null;
+          messages[slot] = null;
+          // free the slot as soon as we have its message, so callers can keep logging while we write
+          consumed = seq + 1;
+        }
+        if (to == null) {
+          print(toErr, b);
+        } else {
+          write(to, b);
+        }
+      } catch (Throwable t) {
+        // a broken stream must not stop us; the next batch may well get through
+        consumed = end;
+        try {
+          System.err.println("[ERROR]\tUnable to write log messages " + next + " to " + end + "\t" + t);
+        } catch (Throwable ignored) {
+        }
+      } finally {
+        written = end;
+        reset(b);
+      }
+    }
+  }
+
+  private void print(boolean toErr, StringBuilder b) {
+    if (b.length() > 0) {
+      final PrintStream stream = toErr ? errorStream() : logStream();
+      stream.print(b);
+      stream.flush();
+      reset(b);
+    }
+  }
+
+  private void write(LogFile to, StringBuilder b) {
+    try {
+      to.write(b);
+    } catch (IOException e) {
+      // fall back to the console, rather than lose everything from here on
+      file = null;
+      printLogString(LogLevel.ERROR, "[ERROR]\tUnable to write log file " + to.file + "; logging to console\t" + e);
+      print(false, b);
+    }
+  }
+
+  private static void reset(StringBuilder b) {
+    if (b.capacity() > 1 << 20) {
+      // don't hold onto the memory from one huge batch
+      b.setLength(0);
+      b.trimToSize();
+    } else {
+      b.setLength(0);
+    }
+  }
+
+  private static long readLong(String prop, long dflt) {
+    final String value = X_Properties.getProperty(prop);
+    if (value == null || value.isEmpty()) {
+      return dflt;
+    }
+    try {
+      return Long.parseLong(value.trim());
+    } catch (NumberFormatException e) {
+      // we can't log this; we are the logger, and are not yet constructed
+      System.err.println("Invalid number for " + prop + " : " + value + "; using " + dflt);
+      return dflt;
+    }
+  }
+
+  /**
+   * A log file, appended to through a {@link FileChannel}, and rotated to file.1, file.2... when it gets too big.
+   */
+  private static final class LogFile {
+    private final File file;
+    private final long maxSize;
+    private final int maxFiles;
+    private FileChannel channel;
+    private long size;
+
+    private LogFile(File file, long maxSize, int maxFiles) {
+      this.file = file;
+      this.maxSize = maxSize;
+      this.maxFiles = maxFiles;
+    }
+
+    private synchronized void write(CharSequence chars) throws IOException {
+      final ByteBuffer bytes = StandardCharsets.UTF_8.encode(CharBuffer.wrap(chars));
+      if (channel == null) {
+        open();
+      }
+      if (size > 0 && maxSize > 0 && size + bytes.remaining() > maxSize) {
+        rotate();
+      }
+      while (bytes.hasRemaining()) {
+        size += channel.write(bytes);
+      }
+    }
+
+    private void open() throws IOException {
+      final File dir = file.getAbsoluteFile().getParentFile();
+      if (dir != null && !dir.isDirectory() && !dir.mkdirs()) {
+        throw new IOException("Unable to create " + dir);
+      }
+      channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+      size = channel.size();
+    }
+
+    private void rotate() throws IOException {
+      channel.close();
+      channel = null;
+      if (maxFiles > 0) {
+        for (int i = maxFiles - 1; i > 0; i--) {
+          final File older = rotated(i);
+          if (older.exists()) {
+            Files.move(older.toPath(), rotated(i + 1).toPath(), StandardCopyOption.REPLACE_EXISTING);
+          }
+        }
+        Files.move(file.toPath(), rotated(1).toPath(), StandardCopyOption.REPLACE_EXISTING);
+      } else {
+        Files.delete(file.toPath());
+      }
+      open();
+    }
+
+    private File rotated(int i) {
+      return new File(file.getPath() + "." + i);
+    }
+  }
+
+}
@@ -0,0 +1,311 @@
+package xapi.jre.time;
+
+import xapi.annotation.inject.SingletonOverride;
+import xapi.constants.X_Namespace;
+import xapi.log.X_Log;
+import xapi.platform.JrePlatform;
+import xapi.prop.X_Properties;
+import xapi.time.service.TimeService;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A {@link TimeService} whose {@link #runLater(Runnable)} hands work to a shared executor,
+ * rather than creating and starting a brand new Thread for every task.
+ * <p>
+ * The backing executor is chosen by {@link X_Namespace#PROPERTY_TIME_EXECUTOR}:
+ * <ul>
+ *   <li>pool: a cached pool of reusable worker threads (default)</li>
+ *   <li>virtual: one virtual thread per task, when running on jdk 21+ (otherwise, pool)</li>
+ *   <li>thread: the legacy behavior of {@link xapi.time.impl.TimeServiceDefault}</li>
+ * </ul>
+ * The pool hands each task to an idle worker, and starts a new one whenever all workers are busy,
+ * up to {@link X_Namespace#PROPERTY_TIME_MAX_THREADS}, so tasks which block on io or latches cannot starve one another;
+ * idle workers exit after {@link #KEEP_ALIVE_MILLIS}.
+ * Once every worker is busy, tasks wait in a queue bounded by {@link X_Namespace#PROPERTY_TIME_QUEUE_LIMIT}.
+ * Workers are not daemon threads, just like the threads of the legacy behavior,
+ * so work handed to runLater still completes before the jvm exits.
+ * <p>
+ * When the queue is full, the {@link RejectionPolicy} from {@link X_Namespace#PROPERTY_TIME_REJECTION} is applied.
+ * The default, {@link RejectionPolicy#NEW_THREAD}, never throws to the caller and never runs the task on the caller
+ * (runLater is called from event loops, and callers have always relied on it to accept their work).
+ * <p>
+ * Callers which use captureScope() / RemovalHandler around their runnable keep working unchanged:
+ * the scope is restored at the start of the task and removed in its finally block,
+ * so a pooled thread is handed back in the same state it was borrowed.
+ * We additionally clear the interrupted flag after each task, so one task cannot poison the next.
+ */
+@JrePlatform
+@SingletonOverride(implFor=TimeService.class, priority=Integer.MIN_VALUE+5)
+public class JreTimeServicePooled extends JreTimeServiceHighPrecision {
+
+  private static final long serialVersionUID = -2379137211566404227L;
+
+  /**
+   * How long an idle pool worker waits for more work before it exits (and stops holding the jvm open).
+   */
+  public static final long KEEP_ALIVE_MILLIS = 1_000;
+
+  public enum ExecutorKind {
+    POOL, VIRTUAL, THREAD
+  }
+
+  public enum RejectionPolicy {
+    /** Run the task synchronously on the thread which called runLater; never use this from an event loop */
+    CALLER_RUNS,
+    /** Fall back to the legacy behavior, and start a new thread for the task */
+    NEW_THREAD,
+    /** Throw a {@link RejectedExecutionException} to the caller of runLater */
+    ABORT,
+    /** Log a warning and drop the task */
+    DISCARD
+  }
+
+  private static final AtomicInteger poolId = new AtomicInteger();
+
+  private final transient ExecutorService executor;
+  private final ExecutorKind kind;
+  private final RejectionPolicy rejection;
+  private final int maxThreads;
+  private final int queueLimit;
+  private final AtomicInteger pending = new AtomicInteger();
+  private final AtomicLong rejected = new AtomicLong();
+
+  public JreTimeServicePooled() {
+    this(
+        readEnum(X_Namespace.PROPERTY_TIME_EXECUTOR, ExecutorKind.class, ExecutorKind.POOL),
+        readInt(X_Namespace.PROPERTY_TIME_THREADS, Math.max(4, Runtime.getRuntime().availableProcessors() * 2)),
+        readInt(X_Namespace.PROPERTY_TIME_MAX_THREADS, 256),
+        readInt(X_Namespace.PROPERTY_TIME_QUEUE_LIMIT, 0x10000),
+        readEnum(X_Namespace.PROPERTY_TIME_REJECTION, RejectionPolicy.class, RejectionPolicy.NEW_THREAD)
+    );
+  }
+
+  /**
+   * @param threads The number of workers to keep before idle workers are reused.
+   * @param maxThreads The most workers to run at once; busier than that, tasks are queued.
+   * @param queueLimit The most tasks to queue once all workers are busy (less than 1 for no limit).
+   * @param rejection What to do with tasks that do not fit in the queue.
+   */
+  public JreTimeServicePooled(ExecutorKind kind, int threads, int maxThreads, int queueLimit, RejectionPolicy rejection) {
+    this.rejection = rejection;
+    this.queueLimit = queueLimit < 1 ? Integer.MAX_VALUE : queueLimit;
+    threads = Math.max(1, threads);
+    this.maxThreads = Math.max(threads, maxThreads);
+    ExecutorService exe = null;
+    if (kind == ExecutorKind.VIRTUAL) {
+      exe = newVirtualExecutor();
+      if (exe == null) {
+        X_Log.warn(JreTimeServicePooled.class, "Virtual threads unavailable in this jvm; using a thread pool instead");
+        kind = ExecutorKind.POOL;
+      }
+    }
+    if (kind == ExecutorKind.POOL) {
+      exe = newPool(threads, this.maxThreads, this.queueLimit);
+    }
+    this.kind = kind;
+    this.executor = exe;
+  }
+
+  @Override
+  public void runLater(Runnable runnable) {
+    if (executor == null) {
+      super.runLater(runnable);
+      return;
+    }
+    pending.incrementAndGet();
+    try {
+      executor.execute(()->{
+        try {
+          runnable.run();
+        } catch (Throwable e) {
+          final Thread t = Thread.currentThread();
+          t.getUncaughtExceptionHandler().uncaughtException(t, e);
+        } finally {
+          pending.decrementAndGet();
+          // do not let an interrupt on one task leak into whatever runs next on this thread
+          Thread.interrupted();
+        }
+      });
+    } catch (RejectedExecutionException e) {
+      // the executor was shutdown, or every worker is busy and the queue is full
+      pending.decrementAndGet();
+      reject(runnable);
+    }
+  }
+
+  protected void reject(Runnable runnable) {
+    rejected.incrementAndGet();
+    switch (rejection) {
+      case CALLER_RUNS:
+        runnable.run();
+        return;
+      case NEW_THREAD:
+        super.runLater(runnable);
+        return;
+      case DISCARD:
+        X_Log.warn(JreTimeServicePooled.class, "Discarding task", runnable,
+            "; all", maxThreads, "workers are busy and", queueLimit, "tasks are queued");
+        return;
+      case ABORT:
+      default:
+        throw new RejectedExecutionException("Cannot runLater " + runnable
+            + "; all " + maxThreads + " workers are busy and " + queueLimit + " tasks are queued");
+    }
+  }
+
+  /**
+   * Stop accepting new work, and wait up to the given number of millis for pending work to finish.
+   *
+   * Once shutdown, all further calls to runLater are sent to the {@link RejectionPolicy}.
+   *
+   * @return true if all pending work completed in time.
+   */
+  public boolean shutdown(long waitMillis) {
+    if (executor == null) {
+      return true;
+    }
+    executor.shutdown();
+    try {
+      return executor.awaitTermination(waitMillis, TimeUnit.MILLISECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return false;
+    }
+  }
+
+  public ExecutorKind getExecutorKind() {
+    return kind;
+  }
+
+  public RejectionPolicy getRejectionPolicy() {
+    return rejection;
+  }
+
+  public int getMaxThreads() {
+    return maxThreads;
+  }
+
+  public int getQueueLimit() {
+    return queueLimit;
+  }
+
+  /**
+   * @return The number of tasks which have been queued, but not yet completed.
+   */
+  public int getPendingCount() {
+    return pending.get();
+  }
+
+  /**
+   * @return The number of tasks which have been sent to the {@link RejectionPolicy}
+   */
+  public long getRejectedCount() {
+    return rejected.get();
+  }
+
+  /**
+   * @param threads The number of workers to start before idle workers are reused;
+   * more are started whenever all of them are busy, up to maxThreads.
+   * @param maxThreads The most workers to run at once.
+   * @param queueLimit The most tasks to hold once maxThreads workers are busy.
+   */
+  protected ExecutorService newPool(int threads, int maxThreads, int queueLimit) {
+    final int id = poolId.incrementAndGet();
+    final AtomicInteger threadId = new AtomicInteger();
+    final WorkQueue queue = new WorkQueue(queueLimit);
+    final ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, maxThreads,
+        KEEP_ALIVE_MILLIS, TimeUnit.MILLISECONDS, queue, task -> {
+      final Thread thread = new Thread(task, "X_Time-" + id + "-" + threadId.incrementAndGet());
+      // like the legacy threads, workers keep the jvm alive until their work is done
+      thread.setDaemon(false);
+      return thread;
+    }, (task, exe) -> {
+      // we may have lost a race to start the last worker; queue the task rather than reject it
+      if (exe.isShutdown() || !queue.force(task)) {
+        throw new RejectedExecutionException("Task " + task + " rejected from " + exe);
+      }
+    });
+    queue.pool = pool;
+    pool.allowCoreThreadTimeOut(true);
+    return pool;
+  }
+
+  /**
+   * A plain ThreadPoolExecutor only starts workers past its core size once its queue is full,
+   * so a bounded queue would hold tasks while workers which could run them are never started.
+   * This queue refuses a task whenever no worker is idle and the pool can still grow,
+   * so the pool starts a new worker instead; once the pool is at its maximum, tasks are queued.
+   */
+  private final class WorkQueue extends LinkedBlockingQueue<Runnable> {
+
+    private static final long serialVersionUID = 5316434498734232517L;
+
+    private transient ThreadPoolExecutor pool;
+
+    private WorkQueue(int capacity) {
+      super(capacity);
+    }
+
+    @Override
+    public boolean offer(Runnable task) {
+      final ThreadPoolExecutor exe = pool;
+      if (exe != null) {
+        final int workers = exe.getPoolSize();
+        // pending counts this task, and every task that is queued or running
+        if (pending.get() > workers && workers < exe.getMaximumPoolSize()) {
+          return false;
+        }
+      }
+      return super.offer(task);
+    }
+
+    private boolean force(Runnable task) {
+      return super.offer(task);
+    }
+  }
+
+  protected ExecutorService newVirtualExecutor() {
+    try {
+      // We compile against java 8, so we must use reflection to find jdk 21 virtual threads
+      final Method method = java.util.concurrent.Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+      return (ExecutorService) method.invoke(null);
+    } catch (Exception ignored) {
+      return null;
+    }
+  }
+
+  private static int readInt(String prop, int dflt) {
+    final String value = X_Properties.getProperty(prop);
+    if (value == null || value.isEmpty()) {
+      return dflt;
+    }
+    try {
+      return Integer.parseInt(value.trim());
+    } catch (NumberFormatException e) {
+      X_Log.warn(JreTimeServicePooled.class, "Invalid integer for", prop, ":", value, "; using", dflt);
+      return dflt;
+    }
+  }
+
+  private static <E extends Enum<E>> E readEnum(String prop, Class<E> type, E dflt) {
+    final String value = X_Properties.getProperty(prop);
+    if (value == null || value.isEmpty()) {
+      return dflt;
+    }
+    try {
+      return Enum.valueOf(type, value.trim().toUpperCase());
+    } catch (IllegalArgumentException e) {
+      X_Log.warn(JreTimeServicePooled.class, "Invalid value for", prop, ":", value, "; using", dflt);
+      return dflt;
+    }
+  }
+
+}
@@ -0,0 +1,271 @@
+package xapi.test.log;
+
+import org.junit.Assume;
+import org.junit.Test;
+import xapi.collect.fifo.SimpleFifo;
+import xapi.constants.X_Namespace;
+import xapi.jre.log.AsyncJreLog;
+import xapi.log.X_Log;
+import xapi.log.api.LogLevel;
+import xapi.log.impl.JreLog;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.*;
+
+public class AsyncJreLogTest {
+
+  private static class CapturingLog extends AsyncJreLog {
+    private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    private final PrintStream stream = new PrintStream(bytes, true);
+    private volatile CountDownLatch gate;
+
+    private CapturingLog(int capacity) {
+      super(true, capacity, null, 0, 0);
+    }
+
+    @Override
+    protected PrintStream logStream() {
+      final CountDownLatch wait = gate;
+      if (wait != null) {
+        try {
+          wait.await();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+      return stream;
+    }
+
+    @Override
+    protected PrintStream errorStream() {
+      return logStream();
+    }
+
+    private String[] lines() {
+      return new String(bytes.toByteArray(), StandardCharsets.UTF_8).split("\n");
+    }
+  }
+
+  @Test(timeout = 20_000)
+  public void testEveryMessageIsWrittenInOrderPerThread() throws InterruptedException {
+    final CapturingLog log = new CapturingLog(64);
+    final int threads = 4, messages = 2_000;
+    final List<Thread> running = new ArrayList<>();
+    for (int t = 0; t < threads; t++) {
+      final int id = t;
+      final Thread thread = new Thread(() -> {
+        for (int m = 0; m < messages; m++) {
+          // errors wait for room, so none of these are dropped
+          log.doLog(LogLevel.ERROR, new SimpleFifo<Object>().give("t" + id).give(m));
+        }
+      });
+      thread.start();
+      running.add(thread);
+    }
+    for (Thread thread : running) {
+      thread.join();
+    }
+    assertTrue(log.flush(10_000));
+    final int[] next = new int[threads];
+    for (String line : log.lines()) {
+      final String[] parts = line.split("\t");
+      final int id = Integer.parseInt(parts[0].substring(1));
+      assertEquals(line, next[id]++, Integer.parseInt(parts[1]));
+    }
+    for (int t = 0; t < threads; t++) {
+      assertEquals(messages, next[t]);
+    }
+    assertEquals(0, log.getDropped());
+  }
+
+  @Test(timeout = 20_000)
+  public void testFullBufferDropsAndReports() {
+    final CapturingLog log = new CapturingLog(8);
+    log.gate = new CountDownLatch(1);
+    for (int i = 0; i < 100; i++) {
+      // must return right away, even though the writer is stuck
+      log.doLog(LogLevel.INFO, new SimpleFifo<Object>().give("message").give(i));
+    }
+    assertTrue(log.getDropped() > 0);
+    log.gate.countDown();
+    assertTrue(log.flush(10_000));
+    log.doLog(LogLevel.INFO, new SimpleFifo<Object>().give("after"));
+    assertTrue(log.flush(10_000));
+    final String output = String.join("\n", log.lines());
+    assertTrue(output, output.contains("log messages dropped"));
+    assertTrue(output, output.contains("after"));
+  }
+
+  @Test(timeout = 20_000)
+  public void testMessagesShowValuesAtLogTime() {
+    final CapturingLog log = new CapturingLog(64);
+    log.gate = new CountDownLatch(1);
+    final StringBuilder mutable = new StringBuilder("before");
+    log.doLog(LogLevel.INFO, new SimpleFifo<Object>().give(mutable));
+    mutable.setLength(0);
+    mutable.append("after");
+    log.gate.countDown();
+    assertTrue(log.flush(10_000));
+    assertEquals("before", log.lines()[0].trim());
+  }
+
+  @Test(timeout = 20_000)
+  public void testThrowingToStringOnlyFailsItsCaller() {
+    final CapturingLog log = new CapturingLog(64);
+    final Object broken = new Object() {
+      @Override
+      public String toString() {
+        throw new IllegalStateException("broken");
+      }
+    };
+    try {
+      log.doLog(LogLevel.ERROR, new SimpleFifo<Object>().give(broken));
+      fail("toString() should have thrown");
+    } catch (IllegalStateException expected) {
+    }
+    for (int i = 0; i < 100; i++) {
+      log.doLog(LogLevel.ERROR, new SimpleFifo<Object>().give("still logging").give(i));
+    }
+    assertTrue(log.flush(10_000));
+    assertEquals(100, log.lines().length);
+  }
+
+  @Test(timeout = 20_000)
+  public void testErrorsNeverWaitForeverOnAFullBuffer() {
+    final ByteArrayOutputStream errors = new ByteArrayOutputStream();
+    final PrintStream errorStream = new PrintStream(errors, true);
+    final CapturingLog log = new CapturingLog(8) {
+      @Override
+      protected PrintStream errorStream() {
+        return errorStream;
+      }
+    };
+    log.gate = new CountDownLatch(1);
+    // the writer gets stuck on this one, so nothing leaves the buffer
+    log.doLog(LogLevel.INFO, new SimpleFifo<Object>().give("stuck"));
+    for (int i = 0; i < 20; i++) {
+      log.doLog(LogLevel.ERROR, new SimpleFifo<Object>().give("error").give(i));
+    }
+    // the errors which did not fit were written while the writer was stuck
+    assertTrue(new String(errors.toByteArray(), StandardCharsets.UTF_8).contains("error\t19"));
+    log.gate.countDown();
+    assertTrue(log.flush(10_000));
+  }
+
+  @Test(timeout = 20_000)
+  public void testOutAndErrKeepTheirOrder() {
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    final PrintStream out = new PrintStream(bytes, true);
+    final PrintStream err = new PrintStream(bytes, true);
+    final CountDownLatch gate = new CountDownLatch(1);
+    final AsyncJreLog log = new AsyncJreLog(true, 64, null, 0, 0) {
+      @Override
+      protected PrintStream logStream() {
+        try {
+          // hold the first write until everything is logged, so it all goes in one batch
+          gate.await();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+        return out;
+      }
+
+      @Override
+      protected PrintStream errorStream() {
+        return err;
+      }
+    };
+    log.doLog(LogLevel.INFO, new SimpleFifo<Object>().give("first"));
+    log.doLog(LogLevel.INFO, new SimpleFifo<Object>().give("second"));
+    log.doLog(LogLevel.ERROR, new SimpleFifo<Object>().give("third"));
+    log.doLog(LogLevel.INFO, new SimpleFifo<Object>().give("fourth"));
+    gate.countDown();
+    assertTrue(log.flush(10_000));
+    final String[] lines = new String(bytes.toByteArray(), StandardCharsets.UTF_8).split("\n");
+    assertEquals(4, lines.length);
+    assertEquals("first", lines[0].trim());
+    assertEquals("second", lines[1].trim());
+    assertEquals("third", lines[2].trim());
+    assertEquals("fourth", lines[3].trim());
+  }
+
+  @Test(timeout = 20_000)
+  public void testFileRotation() throws IOException {
+    final File dir = Files.createTempDirectory("xapi-log").toFile();
+    final File file = new File(dir, "test.log");
+    final AsyncJreLog log = new AsyncJreLog(true, 1024, file.getPath(), 1_000, 2);
+    for (int i = 0; i < 100; i++) {
+      log.doLog(LogLevel.INFO, new SimpleFifo<Object>().give("A line of about forty chars, number").give(i));
+      if (i % 10 == 0) {
+        // give each batch a chance to rotate
+        assertTrue(log.flush(10_000));
+      }
+    }
+    assertTrue(log.flush(10_000));
+    assertTrue(file.length() > 0);
+    assertTrue(file.length() <= 1_000);
+    assertTrue(new File(dir, "test.log.1").isFile());
+    assertTrue(new File(dir, "test.log.2").isFile());
+    assertFalse(new File(dir, "test.log.3").exists());
+    final String last = new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+    assertTrue(last, last.contains("number\t99"));
+  }
+
+  @Test(timeout = 60_000)
+  public void benchmarkCallerTime() {
+    Assume.assumeTrue("Run with -D" + X_Namespace.PROPERTY_BENCHMARK + "=true", Boolean.getBoolean(X_Namespace.PROPERTY_BENCHMARK));
+    final PrintStream nowhere = new PrintStream(new OutputStream() {
+      @Override
+      public void write(int b) {
+      }
+
+      @Override
+      public void write(byte[] b, int off, int len) {
+        // pretend to be a slow console
+        for (int i = 0; i < len * 100; i++) {
+          b[off + i % len] ^= 0;
+        }
+      }
+    });
+    final JreLog sync = new JreLog() {
+      @Override
+      protected PrintStream logStream() {
+        return nowhere;
+      }
+    };
+    final AsyncJreLog async = new AsyncJreLog(true, 1 << 16, null, 0, 0) {
+      @Override
+      protected PrintStream logStream() {
+        return nowhere;
+      }
+    };
+    final int messages = 50_000;
+    long syncNanos = 0, asyncNanos = 0;
+    for (int round = 0; round < 3; round++) {
+      syncNanos = time(sync, messages);
+      asyncNanos = time(async, messages);
+      assertTrue(async.flush(30_000));
+    }
+    X_Log.info(AsyncJreLogTest.class, "Caller time per message; sync:", syncNanos / messages,
+        "ns, async:", asyncNanos / messages, "ns, dropped:", async.getDropped());
+  }
+
+  private static long time(JreLog log, int messages) {
+    final long start = System.nanoTime();
+    for (int i = 0; i < messages; i++) {
+      log.doLog(LogLevel.INFO, new SimpleFifo<Object>().give("[INFO]").give("Request served for").give("/some/path"));
+    }
+    return System.nanoTime() - start;
+  }
+
+}
@@ -0,0 +1,184 @@
+package xapi.test.time;
+
+import org.junit.Assume;
+import org.junit.Test;
+import xapi.constants.X_Namespace;
+import xapi.jre.time.JreTimeServicePooled;
+import xapi.jre.time.JreTimeServicePooled.ExecutorKind;
+import xapi.jre.time.JreTimeServicePooled.RejectionPolicy;
+import xapi.log.X_Log;
+import xapi.time.impl.TimeServiceDefault;
+import xapi.time.service.TimeService;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Compares the legacy thread-per-task {@link TimeServiceDefault#runLater(Runnable)}
+ * against the pooled {@link JreTimeServicePooled}.
+ */
+public class TimeServiceBenchmark {
+
+  private static final int TASKS = 20_000;
+
+  @Test(timeout = 60_000)
+  public void benchmarkRunLater() throws InterruptedException {
+    Assume.assumeTrue("Run with -D" + X_Namespace.PROPERTY_BENCHMARK + "=true", Boolean.getBoolean(X_Namespace.PROPERTY_BENCHMARK));
+    final TimeServiceDefault legacy = new TimeServiceDefault();
+    final JreTimeServicePooled pooled = new JreTimeServicePooled(ExecutorKind.POOL, 8, 8, 0, RejectionPolicy.ABORT);
+    try {
+      // warm up both code paths
+      runTasks(legacy, 500);
+      runTasks(pooled, 500);
+
+      final double legacyNanos = runTasks(legacy, TASKS);
+      final double pooledNanos = runTasks(pooled, TASKS);
+      X_Log.info(TimeServiceBenchmark.class,
+          "runLater x", TASKS, "\n",
+          "thread per task: ", (legacyNanos / TASKS), "ns/task\n",
+          "pooled:          ", (pooledNanos / TASKS), "ns/task\n",
+          "speedup:         ", (legacyNanos / pooledNanos), "x");
+    } finally {
+      assertTrue(pooled.shutdown(5_000));
+    }
+  }
+
+  @Test(timeout = 20_000)
+  public void testQueueLimitCallerRuns() throws InterruptedException {
+    final JreTimeServicePooled pooled = new JreTimeServicePooled(ExecutorKind.POOL, 1, 1, 1, RejectionPolicy.CALLER_RUNS);
+    final CountDownLatch blocker = new CountDownLatch(1);
+    final CountDownLatch done = new CountDownLatch(3);
+    try {
+      pooled.runLater(() -> {
+        try {
+          blocker.await();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+        done.countDown();
+      });
+      // the only worker is busy, so this waits in the queue
+      pooled.runLater(done::countDown);
+      final Thread caller = Thread.currentThread();
+      final AtomicInteger ranOnCaller = new AtomicInteger();
+      // queue is full; this must run synchronously on our thread
+      pooled.runLater(() -> {
+        if (Thread.currentThread() == caller) {
+          ranOnCaller.incrementAndGet();
+        }
+        done.countDown();
+      });
+      assertEquals(1, ranOnCaller.get());
+      assertEquals(1, pooled.getRejectedCount());
+      blocker.countDown();
+      assertTrue(done.await(5, TimeUnit.SECONDS));
+    } finally {
+      blocker.countDown();
+      assertTrue(pooled.shutdown(5_000));
+    }
+  }
+
+  @Test(timeout = 20_000)
+  public void testBlockingTasksDoNotStarve() throws InterruptedException {
+    // every task waits for all of the others, so they can only finish if they all run at once
+    final int tasks = 16;
+    final JreTimeServicePooled pooled = new JreTimeServicePooled(ExecutorKind.POOL, 2, tasks, 0, RejectionPolicy.ABORT);
+    final CountDownLatch started = new CountDownLatch(tasks);
+    final CountDownLatch done = new CountDownLatch(tasks);
+    final AtomicInteger daemons = new AtomicInteger();
+    try {
+      for (int i = 0; i < tasks; i++) {
+        pooled.runLater(() -> {
+          if (Thread.currentThread().isDaemon()) {
+            daemons.incrementAndGet();
+          }
+          started.countDown();
+          try {
+            if (started.await(10, TimeUnit.SECONDS)) {
+              done.countDown();
+            }
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+          }
+        });
+      }
+      assertTrue("Blocked tasks starved the pool", done.await(15, TimeUnit.SECONDS));
+      // work must not be dropped at jvm exit, as it would be on daemon threads
+      assertEquals(0, daemons.get());
+      assertEquals(0, pooled.getRejectedCount());
+    } finally {
+      assertTrue(pooled.shutdown(5_000));
+    }
+  }
+
+  @Test(timeout = 20_000)
+  public void testWorkersAreCappedAndTheRestQueue() throws InterruptedException {
+    final JreTimeServicePooled pooled = new JreTimeServicePooled(ExecutorKind.POOL, 1, 3, 0, RejectionPolicy.ABORT);
+    final CountDownLatch blocker = new CountDownLatch(1);
+    final CountDownLatch done = new CountDownLatch(10);
+    final Set<Thread> workers = Collections.newSetFromMap(new ConcurrentHashMap<>());
+    try {
+      for (int i = 0; i < 10; i++) {
+        pooled.runLater(() -> {
+          workers.add(Thread.currentThread());
+          try {
+            blocker.await();
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+          }
+          done.countDown();
+        });
+      }
+      assertEquals(10, pooled.getPendingCount());
+      blocker.countDown();
+      assertTrue(done.await(5, TimeUnit.SECONDS));
+      assertEquals(3, workers.size());
+      assertEquals(0, pooled.getRejectedCount());
+    } finally {
+      blocker.countDown();
+      assertTrue(pooled.shutdown(5_000));
+    }
+  }
+
+  @Test(timeout = 20_000)
+  public void testDefaultRejectionNeverThrowsNorRunsOnTheCaller() throws InterruptedException {
+    final JreTimeServicePooled pooled = new JreTimeServicePooled();
+    try {
+      if (System.getProperty(X_Namespace.PROPERTY_TIME_REJECTION) == null) {
+        assertEquals(RejectionPolicy.NEW_THREAD, pooled.getRejectionPolicy());
+      }
+    } finally {
+      pooled.shutdown(1_000);
+    }
+    // once full (or shutdown), work still runs, on a thread of its own
+    final Thread caller = Thread.currentThread();
+    final AtomicInteger ranOnCaller = new AtomicInteger();
+    final CountDownLatch done = new CountDownLatch(1);
+    pooled.runLater(() -> {
+      if (Thread.currentThread() == caller) {
+        ranOnCaller.incrementAndGet();
+      }
+      done.countDown();
+    });
+    assertTrue(done.await(5, TimeUnit.SECONDS));
+    assertEquals(0, ranOnCaller.get());
+    assertEquals(1, pooled.getRejectedCount());
+  }
+
+  private static double runTasks(TimeService service, int count) throws InterruptedException {
+    final CountDownLatch latch = new CountDownLatch(count);
+    final long start = System.nanoTime();
+    for (int i = count; i-->0;) {
+      service.runLater(latch::countDown);
+    }
+    assertTrue("Tasks did not complete", latch.await(30, TimeUnit.SECONDS));
+    return System.nanoTime() - start;
+  }
+}
@@ -0,0 +1,52 @@
+package xapi.collect.api;
+
+/**
+ * A map from int to int which never boxes its keys or values.
+ * <p>
+ * Missing keys read as zero, or as the default given to {@link #getOrDefault(int, int)};
+ * use {@link #containsKey(int)} where a stored zero must be told apart from a missing key.
+ * Iteration is in insertion order.
+ * <p>
+ * Create one with {@code X_Collect.newIntToIntMap()}.
+ */
+public interface IntToInt {
+
+  interface EntryCallback {
+    void in(int key, int value);
+  }
+
+  int get(int key);
+
+  int getOrDefault(int key, int dflt);
+
+  boolean containsKey(int key);
+
+  /**
+   * @return the previous value, or zero if there was none.
+   */
+  int put(int key, int value);
+
+  /**
+   * Adds to the value of a key, treating a missing key as zero.
+   * @return the new value.
+   */
+  int add(int key, int delta);
+
+  /**
+   * @return true if the key was present.
+   */
+  boolean remove(int key);
+
+  int size();
+
+  default boolean isEmpty() {
+    return size() == 0;
+  }
+
+  void clear();
+
+  int[] keyArray();
+
+  void forEach(EntryCallback callback);
+
+}
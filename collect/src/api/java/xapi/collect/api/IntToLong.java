@@ -0,0 +1,52 @@
+package xapi.collect.api;
+
+/**
+ * A map from int to long which never boxes its keys or values.
+ * <p>
+ * Missing keys read as zero, or as the default given to {@link #getOrDefault(int, long)};
+ * use {@link #containsKey(int)} where a stored zero must be told apart from a missing key.
+ * Iteration is in insertion order.
+ * <p>
+ * Create one with {@code X_Collect.newIntToLongMap()}.
+ */
+public interface IntToLong {
+
+  interface EntryCallback {
+    void in(int key, long value);
+  }
+
+  long get(int key);
+
+  long getOrDefault(int key, long dflt);
+
+  boolean containsKey(int key);
+
+  /**
+   * @return the previous value, or zero if there was none.
+   */
+  long put(int key, long value);
+
+  /**
+   * Adds to the value of a key, treating a missing key as zero.
+   * @return the new value.
+   */
+  long add(int key, long delta);
+
+  /**
+   * @return true if the key was present.
+   */
+  boolean remove(int key);
+
+  int size();
+
+  default boolean isEmpty() {
+    return size() == 0;
+  }
+
+  void clear();
+
+  int[] keyArray();
+
+  void forEach(EntryCallback callback);
+
+}
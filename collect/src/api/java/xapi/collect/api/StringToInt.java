@@ -0,0 +1,52 @@
+package xapi.collect.api;
+
+/**
+ * A map from String to int which never boxes its values.
+ * <p>
+ * Missing keys read as zero, or as the default given to {@link #getOrDefault(String, int)};
+ * use {@link #containsKey(String)} where a stored zero must be told apart from a missing key.
+ * Iteration is in insertion order.
+ * <p>
+ * Create one with {@code X_Collect.newStringToIntMap()}.
+ */
+public interface StringToInt {
+
+  interface EntryCallback {
+    void in(String key, int value);
+  }
+
+  int get(String key);
+
+  int getOrDefault(String key, int dflt);
+
+  boolean containsKey(String key);
+
+  /**
+   * @return the previous value, or zero if there was none.
+   */
+  int put(String key, int value);
+
+  /**
+   * Adds to the value of a key, treating a missing key as zero.
+   * @return the new value.
+   */
+  int add(String key, int delta);
+
+  /**
+   * @return true if the key was present.
+   */
+  boolean remove(String key);
+
+  int size();
+
+  default boolean isEmpty() {
+    return size() == 0;
+  }
+
+  void clear();
+
+  String[] keyArray();
+
+  void forEach(EntryCallback callback);
+
+}
@@ -0,0 +1,52 @@
+package xapi.collect.api;
+
+/**
+ * A map from String to long which never boxes its values.
+ * <p>
+ * Missing keys read as zero, or as the default given to {@link #getOrDefault(String, long)};
+ * use {@link #containsKey(String)} where a stored zero must be told apart from a missing key.
+ * Iteration is in insertion order.
+ * <p>
+ * Create one with {@code X_Collect.newStringToLongMap()}.
+ */
+public interface StringToLong {
+
+  interface EntryCallback {
+    void in(String key, long value);
+  }
+
+  long get(String key);
+
+  long getOrDefault(String key, long dflt);
+
+  boolean containsKey(String key);
+
+  /**
+   * @return the previous value, or zero if there was none.
+   */
+  long put(String key, long value);
+
+  /**
+   * Adds to the value of a key, treating a missing key as zero.
+   * @return the new value.
+   */
+  long add(String key, long delta);
+
+  /**
+   * @return true if the key was present.
+   */
+  boolean remove(String key);
+
+  int size();
+
+  default boolean isEmpty() {
+    return size() == 0;
+  }
+
+  void clear();
+
+  String[] keyArray();
+
+  void forEach(EntryCallback callback);
+
+}
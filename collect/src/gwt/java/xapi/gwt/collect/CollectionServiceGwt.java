@@ -4,19 +4,30 @@ import xapi.annotation.inject.SingletonOverride;
 import xapi.collect.api.ClassTo;
 import xapi.collect.api.CollectionOptions;
 import xapi.collect.api.IntTo;
+import xapi.collect.api.IntToDouble;
+import xapi.collect.api.IntToInt;
+import xapi.collect.api.IntToLong;
 import xapi.collect.api.ObjectTo;
 import xapi.collect.api.ObjectTo.Many;
 import xapi.collect.api.StringDictionary;
 import xapi.collect.api.StringTo;
+import xapi.collect.api.StringToInt;
+import xapi.collect.api.StringToLong;
 import xapi.collect.fifo.Fifo;
 import xapi.collect.impl.ClassToManyList;
+import xapi.collect.impl.IntToDoubleMap;
+import xapi.collect.impl.IntToIntMap;
+import xapi.collect.impl.IntToLongMap;
 import xapi.collect.impl.IntToSet;
 import xapi.collect.impl.ObjectToManyList;
 import xapi.collect.impl.StringToAbstract;
+import xapi.collect.impl.StringToIntMap;
+import xapi.collect.impl.StringToLongMap;
 import xapi.collect.impl.StringToManyList;
 import xapi.collect.proxy.api.CollectionProxy;
 import xapi.collect.proxy.impl.MapOf;
 import xapi.collect.service.CollectionService;
+import xapi.except.NotYetImplemented;
 import xapi.fu.X_Fu;
 import xapi.platform.GwtPlatform;
 
@@ -98,6 +109,44 @@ public class CollectionServiceGwt implements CollectionService{
     return new StringToManyList<>(cls, newMap(opts));
   }
 
+  @Override
+  public IntToInt newIntToIntMap(CollectionOptions opts) {
+    checkPrimitiveOptions(opts);
+    // the array backed maps compile to plain js arrays; there are no threads to synchronize
+    return new IntToIntMap();
+  }
+
+  @Override
+  public IntToLong newIntToLongMap(CollectionOptions opts) {
+    checkPrimitiveOptions(opts);
+    return new IntToLongMap();
+  }
+
+  @Override
+  public IntToDouble newIntToDoubleMap(CollectionOptions opts) {
+    checkPrimitiveOptions(opts);
+    return new IntToDoubleMap();
+  }
+
+  @Override
+  public StringToInt newStringToIntMap(CollectionOptions opts) {
+    checkPrimitiveOptions(opts);
+    return new StringToIntMap();
+  }
+
+  @Override
+  public StringToLong newStringToLongMap(CollectionOptions opts) {
+    checkPrimitiveOptions(opts);
+    return new StringToLongMap();
+  }
+
+  protected void checkPrimitiveOptions(CollectionOptions opts) {
+    // same as CollectionServiceDefault, so code which works in gwt also works on the jre
+    if (opts.keyOrdered()) {
+      throw new NotYetImplemented("Key ordered primitive maps");
+    }
+  }
+
   @Override
   public <V> Fifo<V> newFifo() {
     return JsFifo.newFifo();
@@ -283,6 +283,46 @@ public class X_Collect {
     return new StringToManyList<X>(component, map);
   }
 
+  public static IntToInt newIntToIntMap() {
+    return service.newIntToIntMap(MUTABLE_INSERTION_ORDERED);
+  }
+
+  public static IntToInt newIntToIntMap(CollectionOptions opts) {
+    return service.newIntToIntMap(opts);
+  }
+
+  public static IntToLong newIntToLongMap() {
+    return service.newIntToLongMap(MUTABLE_INSERTION_ORDERED);
+  }
+
+  public static IntToLong newIntToLongMap(CollectionOptions opts) {
+    return service.newIntToLongMap(opts);
+  }
+
+  public static IntToDouble newIntToDoubleMap() {
+    return service.newIntToDoubleMap(MUTABLE_INSERTION_ORDERED);
+  }
+
+  public static IntToDouble newIntToDoubleMap(CollectionOptions opts) {
+    return service.newIntToDoubleMap(opts);
+  }
+
+  public static StringToInt newStringToIntMap() {
+    return service.newStringToIntMap(MUTABLE_INSERTION_ORDERED);
+  }
+
+  public static StringToInt newStringToIntMap(CollectionOptions opts) {
+    return service.newStringToIntMap(opts);
+  }
+
+  public static StringToLong newStringToLongMap() {
+    return service.newStringToLongMap(MUTABLE_INSERTION_ORDERED);
+  }
+
+  public static StringToLong newStringToLongMap(CollectionOptions opts) {
+    return service.newStringToLongMap(opts);
+  }
+
   private static final CollectionService service = singleton(CollectionService.class);
 
   public static CollectionService collections() {
@@ -0,0 +1,63 @@
+package xapi.collect.impl;
+
+/**
+ * The int keys of a primitive map; see {@link AbstractPrimitiveMap} for the layout.
+ */
+public abstract class AbstractIntKeyMap extends AbstractPrimitiveMap {
+
+  private static final long serialVersionUID = -3415106393315487307L;
+
+  protected int[] keys = new int[MIN_CAPACITY];
+
+  /**
+   * @return the slot in {@link #table} which holds the key, or ~(the empty slot where it belongs).
+   */
+  protected final int find(final int key, final int hash) {
+    int slot = hash & mask;
+    int entry;
+    while ((entry = table[slot]) != 0) {
+      if (keys[entry - 1] == key) {
+        return slot;
+      }
+      slot = (slot + 1) & mask;
+    }
+    return ~slot;
+  }
+
+  public boolean containsKey(final int key) {
+    return find(key, mix(key)) >= 0;
+  }
+
+  public boolean remove(final int key) {
+    final int slot = find(key, mix(key));
+    if (slot < 0) {
+      return false;
+    }
+    removeSlot(slot);
+    return true;
+  }
+
+  public int[] keyArray() {
+    final int[] result = new int[size()];
+    int i = 0;
+    for (int entry = 0; entry < used; entry++) {
+      if (!isRemoved(entry)) {
+        result[i++] = keys[entry];
+      }
+    }
+    return result;
+  }
+
+  @Override
+  protected void resizeEntries(final int capacity, final int count) {
+    final int[] grown = new int[capacity];
+    System.arraycopy(keys, 0, grown, 0, count);
+    keys = grown;
+  }
+
+  @Override
+  protected void moveEntry(final int from, final int to) {
+    keys[to] = keys[from];
+  }
+
+}
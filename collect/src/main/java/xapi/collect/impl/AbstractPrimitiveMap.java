@@ -0,0 +1,175 @@
+package xapi.collect.impl;
+
+import java.io.Serializable;
+
+/**
+ * The shared layout of our primitive maps, like {@link IntToIntMap} and {@link StringToIntMap}:
+ * keys and values are kept in dense, parallel arrays in the order they were added,
+ * and an open addressing table (linear probing, at most half full) maps hashes to their index in those arrays.
+ * <p>
+ * Removed entries leave a hole in the dense arrays (so iteration stays in insertion order),
+ * and are dropped from the table right away with backward shift deletion, so lookups never probe past them.
+ * The holes are squeezed out the next time the arrays fill up.
+ * <p>
+ * Subclasses own the key and value arrays; they find keys with {@link #table}, {@link #hashes} and {@link #mask},
+ * then call {@link #append(int, int)} to add an entry, or {@link #removeSlot(int)} to remove one.
+ * <p>
+ * Nothing here is thread safe; each map has a Concurrent subclass which synchronizes every method.
+ */
+public abstract class AbstractPrimitiveMap implements Serializable {
+
+  private static final long serialVersionUID = 2861530742237283714L;
+
+  protected static final int MIN_CAPACITY = 8;
+
+  /**
+   * The table of (index of entry + 1), or 0 for an empty slot; twice the size of the entry arrays.
+   */
+  protected int[] table;
+  protected int mask;
+  /**
+   * The hash of each entry, so we never rehash a key to grow, or to shift it during a removal.
+   */
+  protected int[] hashes;
+  /**
+   * Which entries have been removed; null until anything is.
+   */
+  protected boolean[] removed;
+  /**
+   * How many entries have been appended, including those since removed.
+   */
+  protected int used;
+  private int size;
+
+  protected AbstractPrimitiveMap() {
+    allocate(MIN_CAPACITY);
+  }
+
+  public int size() {
+    return size;
+  }
+
+  public void clear() {
+    allocate(MIN_CAPACITY);
+    resizeEntries(MIN_CAPACITY, 0);
+    used = 0;
+    size = 0;
+  }
+
+  /**
+   * Spread the bits of a hash, so keys which differ only in their high bits don't collide in our table.
+   */
+  protected static int mix(int hash) {
+    hash *= 0x9e3779b9;
+    return hash ^ (hash >>> 16);
+  }
+
+  /**
+   * Adds an entry, growing if needed; slot is where {@link #table} had room for it, or -1 if not known.
+   *
+   * @return the index at which the subclass must store the new key and value.
+   */
+  protected final int append(final int hash, int slot) {
+    if (used == hashes.length) {
+      grow();
+      slot = -1;
+    }
+    if (slot == -1) {
+      slot = hash & mask;
+      while (table[slot] != 0) {
+        slot = (slot + 1) & mask;
+      }
+    }
+    final int entry = used++;
+    hashes[entry] = hash;
+    table[slot] = entry + 1;
+    size++;
+    return entry;
+  }
+
+  /**
+   * Removes the entry in the given slot of {@link #table}.
+   *
+   * @return the index of the removed entry, so the subclass can release its key.
+   */
+  protected final int removeSlot(int slot) {
+    final int entry = table[slot] - 1;
+    if (removed == null) {
+      removed = new boolean[hashes.length];
+    }
+    removed[entry] = true;
+    size--;
+    // shift back any entry in the run after us which would no longer be found past the hole we leave
+    int next = slot;
+    while (true) {
+      next = (next + 1) & mask;
+      final int moving = table[next];
+      if (moving == 0) {
+        break;
+      }
+      final int home = hashes[moving - 1] & mask;
+      // can moving's probe from home reach slot? (the distance from home to next covers slot)
+      if (((next - home) & mask) >= ((next - slot) & mask)) {
+        table[slot] = moving;
+        slot = next;
+      }
+    }
+    table[slot] = 0;
+    return entry;
+  }
+
+  protected final boolean isRemoved(final int entry) {
+    return removed != null && removed[entry];
+  }
+
+  /**
+   * Resize the subclass's key and value arrays to the given capacity, keeping the first count entries.
+   */
+  protected abstract void resizeEntries(int capacity, int count);
+
+  /**
+   * Move the key and value of one entry to a lower index, while squeezing out removed entries.
+   */
+  protected abstract void moveEntry(int from, int to);
+
+  private void grow() {
+    int capacity = hashes.length;
+    if (removed != null) {
+      int to = 0;
+      for (int from = 0; from < used; from++) {
+        if (!removed[from]) {
+          if (from != to) {
+            moveEntry(from, to);
+            hashes[to] = hashes[from];
+          }
+          to++;
+        }
+      }
+      used = to;
+      removed = null;
+    }
+    if (used > capacity / 2) {
+      // only grow if squeezing out the removed entries freed less than half of our space
+      capacity *= 2;
+    }
+    final int[] oldHashes = hashes;
+    allocate(capacity);
+    System.arraycopy(oldHashes, 0, hashes, 0, used);
+    resizeEntries(capacity, used);
+    for (int entry = 0; entry < used; entry++) {
+      int slot = hashes[entry] & mask;
+      while (table[slot] != 0) {
+        slot = (slot + 1) & mask;
+      }
+      table[slot] = entry + 1;
+    }
+  }
+
+  private void allocate(final int capacity) {
+    hashes = new int[capacity];
+    table = new int[capacity * 2];
+    mask = table.length - 1;
+    removed = null;
+  }
+
+}
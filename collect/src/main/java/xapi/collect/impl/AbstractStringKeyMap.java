@@ -0,0 +1,71 @@
+package xapi.collect.impl;
+
+/**
+ * The String keys of a primitive map; see {@link AbstractPrimitiveMap} for the layout.
+ * Keys may not be null.
+ */
+public abstract class AbstractStringKeyMap extends AbstractPrimitiveMap {
+
+  private static final long serialVersionUID = 6071558716427954117L;
+
+  protected String[] keys = new String[MIN_CAPACITY];
+
+  /**
+   * @return the slot in {@link #table} which holds the key, or ~(the empty slot where it belongs).
+   */
+  protected final int find(final String key, final int hash) {
+    int slot = hash & mask;
+    int entry;
+    while ((entry = table[slot]) != 0) {
+      final String candidate = keys[entry - 1];
+      // the hash compare saves us most of the equals calls on collision
+      if (hashes[entry - 1] == hash && (candidate == key || candidate.equals(key))) {
+        return slot;
+      }
+      slot = (slot + 1) & mask;
+    }
+    return ~slot;
+  }
+
+  protected static int hash(final String key) {
+    return mix(key.hashCode());
+  }
+
+  public boolean containsKey(final String key) {
+    return find(key, hash(key)) >= 0;
+  }
+
+  public boolean remove(final String key) {
+    final int slot = find(key, hash(key));
+    if (slot < 0) {
+      return false;
+    }
+    // let go of the key, so the hole we leave doesn't hold on to it
+    keys[removeSlot(slot)] = null;
+    return true;
+  }
+
+  public String[] keyArray() {
+    final String[] result = new String[size()];
+    int i = 0;
+    for (int entry = 0; entry < used; entry++) {
+      if (!isRemoved(entry)) {
+        result[i++] = keys[entry];
+      }
+    }
+    return result;
+  }
+
+  @Override
+  protected void resizeEntries(final int capacity, final int count) {
+    final String[] grown = new String[capacity];
+    System.arraycopy(keys, 0, grown, 0, count);
+    keys = grown;
+  }
+
+  @Override
+  protected void moveEntry(final int from, final int to) {
+    keys[to] = keys[from];
+  }
+
+}
@@ -5,10 +5,15 @@ import xapi.collect.api.ClassTo;
 import xapi.collect.api.CollectionOptions;
 import xapi.collect.fifo.Fifo;
 import xapi.collect.api.IntTo;
+import xapi.collect.api.IntToDouble;
+import xapi.collect.api.IntToInt;
+import xapi.collect.api.IntToLong;
 import xapi.collect.api.ObjectTo;
 import xapi.collect.api.ObjectTo.Many;
 import xapi.collect.api.StringDictionary;
 import xapi.collect.api.StringTo;
+import xapi.collect.api.StringToInt;
+import xapi.collect.api.StringToLong;
 import xapi.collect.fifo.SimpleFifo;
 import xapi.collect.proxy.api.CollectionProxy;
 import xapi.collect.proxy.impl.MapOf;
@@ -236,6 +241,42 @@ public class CollectionServiceDefault implements CollectionService{
     return new StringDictionaryDefault<>(cls, new LinkedHashMap<>());
   }
 
+  @Override
+  public IntToInt newIntToIntMap(final CollectionOptions opts) {
+    checkPrimitiveOptions(opts);
+    return opts.concurrent() ? new IntToIntMap.Concurrent() : new IntToIntMap();
+  }
+
+  @Override
+  public IntToLong newIntToLongMap(final CollectionOptions opts) {
+    checkPrimitiveOptions(opts);
+    return opts.concurrent() ? new IntToLongMap.Concurrent() : new IntToLongMap();
+  }
+
+  @Override
+  public IntToDouble newIntToDoubleMap(final CollectionOptions opts) {
+    checkPrimitiveOptions(opts);
+    return opts.concurrent() ? new IntToDoubleMap.Concurrent() : new IntToDoubleMap();
+  }
+
+  @Override
+  public StringToInt newStringToIntMap(final CollectionOptions opts) {
+    checkPrimitiveOptions(opts);
+    return opts.concurrent() ? new StringToIntMap.Concurrent() : new StringToIntMap();
+  }
+
+  @Override
+  public StringToLong newStringToLongMap(final CollectionOptions opts) {
+    checkPrimitiveOptions(opts);
+    return opts.concurrent() ? new StringToLongMap.Concurrent() : new StringToLongMap();
+  }
+
+  protected void checkPrimitiveOptions(final CollectionOptions opts) {
+    if (opts.keyOrdered()) {
+      throw new NotYetImplemented("Key ordered primitive maps");
+    }
+  }
+
   @Override
   public <V> Fifo<V> newFifo() {
     return new SimpleFifo<V>();
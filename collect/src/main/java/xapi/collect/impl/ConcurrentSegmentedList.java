@@ -0,0 +1,449 @@
+package xapi.collect.impl;
+
+import xapi.fu.api.GwtIncompatible;
+
+import java.io.Serializable;
+import java.util.AbstractList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.RandomAccess;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A concurrent list for many writers which mostly append, and many readers.
+ * <p>
+ * Elements live in segments which double in size (16, 32, 64...), so growing never copies anything.
+ * An append reserves its index with one atomic increment, then stores its element in that slot;
+ * appends never wait for each other. The size of the list counts reserved slots, so a reader which
+ * gets to a slot before its writer has filled it waits for that one store (this only happens at the tail).
+ * An append which fails after reserving its slot (say, it runs out of memory) leaves null in that slot,
+ * and a reader gives up with an {@link IllegalStateException} if a slot stays empty for {@link #MAX_WAIT_MILLIS}.
+ * <p>
+ * Reads by index, and {@link #set(int, Object)}, never lock.
+ * Iterators walk the elements which were in the list when they were created, and never throw
+ * {@link java.util.ConcurrentModificationException}: appends, inserts and removes made later are not seen,
+ * but, as with {@link java.util.Vector}, a later {@link #set(int, Object)} of one of those elements is.
+ * {@link Iterator#remove()} removes the element last returned, wherever it has moved to since.
+ * <p>
+ * Every other change (insert, remove, clear) locks this list, stops appends to the current segments,
+ * and copies the result into new ones, much like {@link java.util.concurrent.CopyOnWriteArrayList};
+ * appends which arrive while that happens wait for the lock, then go to the new segments.
+ * Use this list where those changes are rare.
+ * <p>
+ * This is for the jvm; gwt gets its lists from CollectionServiceGwt.
+ *
+ * @param <E> the element type
+ */
+@GwtIncompatible
+public class ConcurrentSegmentedList <E> extends AbstractList<E> implements RandomAccess, Serializable {
+
+  private static final long serialVersionUID = -4018326154593520452L;
+
+  private static final int FIRST_SHIFT = 4;
+  private static final int FIRST_SIZE = 1 << FIRST_SHIFT;
+  // enough segments to hold Integer.MAX_VALUE elements
+  private static final int SEGMENTS = 32 - FIRST_SHIFT;
+  // how long to busy wait on another thread before yielding to it
+  private static final int SPINS = Runtime.getRuntime().availableProcessors() > 1 ? 64 : 0;
+  /**
+   * How long a reader waits for an append to fill the slot it reserved, before deciding that it never will.
+   */
+  public static final long MAX_WAIT_MILLIS = 10_000;
+  // stored in place of null elements, as an empty slot means "not yet written"
+  private static final Object NULL = new Null();
+
+  private static final class Null implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private Object readResolve() {
+      return NULL;
+    }
+  }
+
+  private static final class Store implements Serializable {
+
+    private static final long serialVersionUID = 3592734497244224796L;
+
+    private final AtomicReferenceArray<Object>[] segments;
+    // the number of slots handed out; negative once this store is closed to appends
+    private final AtomicInteger reserved;
+
+    @SuppressWarnings("unchecked")
+    private Store(final int size) {
+      this.segments = new AtomicReferenceArray[SEGMENTS];
+      this.reserved = new AtomicInteger(size);
+    }
+
+    private AtomicReferenceArray<Object> segment(final int segment) {
+      final AtomicReferenceArray<Object> existing = segments[segment];
+      return existing == null ? allocate(segment) : existing;
+    }
+
+    private synchronized AtomicReferenceArray<Object> allocate(final int segment) {
+      // we only take this lock a few times over the life of a store (once per segment);
+      // readers may also come here, if they beat the writer of a new segment to it
+      AtomicReferenceArray<Object> existing = segments[segment];
+      if (existing == null) {
+        existing = new AtomicReferenceArray<>(FIRST_SIZE << segment);
+        segments[segment] = existing;
+      }
+      return existing;
+    }
+
+    private Object get(final int index) {
+      final int position = index + FIRST_SIZE;
+      final int segment = segmentOf(position);
+      final AtomicReferenceArray<Object> slots = segment(segment);
+      final int offset = position - (FIRST_SIZE << segment);
+      Object value;
+      long deadline = 0;
+      for (int spins = 0; (value = slots.get(offset)) == null; spins++) {
+        // the append which reserved this slot has not yet filled it; it is only a few instructions behind us
+        if (spins > SPINS) {
+          // unless it was descheduled, or died without failing its slot
+          final long now = System.nanoTime();
+          if (deadline == 0) {
+            deadline = now + MAX_WAIT_MILLIS * 1_000_000;
+          } else if (now - deadline > 0) {
+            throw new IllegalStateException("The append to index " + index + " never stored its element");
+          }
+        }
+        backOff(spins);
+      }
+      return value == NULL ? null : value;
+    }
+
+    /**
+     * Fill the slots of an append which failed part way, so readers don't wait for them.
+     */
+    private void fail(final int index, final int count) {
+      for (int i = 0; i < count; i++) {
+        final int position = index + i + FIRST_SIZE;
+        final int segment = segmentOf(position);
+        try {
+          segment(segment).compareAndSet(position - (FIRST_SIZE << segment), null, NULL);
+        } catch (final Throwable ignored) {
+          // could not even allocate the segment; readers will give up after MAX_WAIT_MILLIS
+        }
+      }
+    }
+
+    private Object put(final int index, final Object value) {
+      final int position = index + FIRST_SIZE;
+      final int segment = segmentOf(position);
+      return segment(segment).getAndSet(position - (FIRST_SIZE << segment), value == null ? NULL : value);
+    }
+
+    private int size() {
+      return reserved.get();
+    }
+
+    /**
+     * Stop all appends to this store, and wait for those already in flight.
+     * @return the number of elements in this store, which will never change again.
+     */
+    private int close() {
+      final int count = reserved.getAndAdd(Integer.MIN_VALUE);
+      // appends fill their slots in any order, but every slot must be filled before we copy
+      try {
+        for (int i = 0; i < count; i++) {
+          get(i);
+        }
+      } catch (final IllegalStateException e) {
+        reserved.set(count);
+        throw e;
+      }
+      return count;
+    }
+
+    private static void backOff(final int spins) {
+      if (spins > SPINS) {
+        // the other thread may have been descheduled; let it run
+        Thread.yield();
+      }
+    }
+
+    private static int segmentOf(final int position) {
+      return 31 - Integer.numberOfLeadingZeros(position) - FIRST_SHIFT;
+    }
+  }
+
+  private volatile Store store = new Store(0);
+
+  @Override
+  public int size() {
+    return open().size();
+  }
+
+  @Override
+  @SuppressWarnings("unchecked")
+  public E get(final int index) {
+    final Store s = open();
+    final int size = s.size();
+    if (index < 0 || index >= size) {
+      throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+    }
+    return (E) s.get(index);
+  }
+
+  /**
+   * @return the element at the given index, or null if there isn't one (instead of throwing).
+   */
+  @SuppressWarnings("unchecked")
+  public E getOrNull(final int index) {
+    final Store s = open();
+    if (index < 0 || index >= s.size()) {
+      return null;
+    }
+    return (E) s.get(index);
+  }
+
+  @Override
+  public boolean add(final E e) {
+    while (true) {
+      final Store s = store;
+      final int index = s.reserved.getAndIncrement();
+      if (index < 0) {
+        awaitReplacement();
+        continue;
+      }
+      try {
+        s.put(index, e);
+      } catch (final Throwable t) {
+        s.fail(index, 1);
+        throw t;
+      }
+      return true;
+    }
+  }
+
+  @Override
+  public boolean addAll(final Collection<? extends E> c) {
+    final Object[] items = c.toArray();
+    if (items.length == 0) {
+      return false;
+    }
+    while (true) {
+      final Store s = store;
+      final int index = s.reserved.getAndAdd(items.length);
+      if (index < 0) {
+        awaitReplacement();
+        continue;
+      }
+      try {
+        for (int i = 0; i < items.length; i++) {
+          s.put(index + i, items[i]);
+        }
+      } catch (final Throwable t) {
+        s.fail(index, items.length);
+        throw t;
+      }
+      return true;
+    }
+  }
+
+  @Override
+  @SuppressWarnings("unchecked")
+  public E set(final int index, final E element) {
+    while (true) {
+      final Store s = open();
+      final int size = s.size();
+      if (index < 0 || index >= size) {
+        throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+      }
+      // wait for the original append to fill the slot, so it can't overwrite us
+      s.get(index);
+      final Object was = s.put(index, element);
+      if (s.size() >= 0) {
+        // our write was before any close, so whoever closes the store will copy it
+        return (E) (was == NULL ? null : was);
+      }
+      awaitReplacement();
+    }
+  }
+
+  @Override
+  public synchronized void add(final int index, final E element) {
+    final Store s = store;
+    final int count = s.close();
+    if (index < 0 || index > count) {
+      reopen(s, count);
+      throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + count);
+    }
+    final Store replacement = new Store(count + 1);
+    copy(s, 0, replacement, 0, index);
+    replacement.put(index, element);
+    copy(s, index, replacement, index + 1, count - index);
+    store = replacement;
+  }
+
+  @Override
+  @SuppressWarnings("unchecked")
+  public synchronized E remove(final int index) {
+    final Store s = store;
+    final int count = s.close();
+    if (index < 0 || index >= count) {
+      reopen(s, count);
+      throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + count);
+    }
+    final Store replacement = new Store(count - 1);
+    copy(s, 0, replacement, 0, index);
+    copy(s, index + 1, replacement, index, count - index - 1);
+    store = replacement;
+    return (E) s.get(index);
+  }
+
+  /**
+   * Remove the given element (by identity), looking first at the index it is expected at.
+   * @return false if it is no longer in the list.
+   */
+  synchronized boolean removeExact(final int expectedIndex, final Object element) {
+    final Store s = store;
+    final int count = s.close();
+    int index = expectedIndex >= 0 && expectedIndex < count && s.get(expectedIndex) == element ? expectedIndex : -1;
+    for (int i = 0; index == -1 && i < count; i++) {
+      if (s.get(i) == element) {
+        index = i;
+      }
+    }
+    if (index == -1) {
+      reopen(s, count);
+      return false;
+    }
+    final Store replacement = new Store(count - 1);
+    copy(s, 0, replacement, 0, index);
+    copy(s, index + 1, replacement, index, count - index - 1);
+    store = replacement;
+    return true;
+  }
+
+  /**
+   * Remove the first element equal to value, or all of them; all in one change, as seen by other threads.
+   */
+  public synchronized boolean removeMatching(final Object value, final boolean all) {
+    final Store s = store;
+    final int count = s.close();
+    final Store replacement = new Store(0);
+    int kept = 0;
+    boolean removed = false;
+    for (int i = 0; i < count; i++) {
+      final Object item = s.get(i);
+      if ((all || !removed) && (value == null ? item == null : value.equals(item))) {
+        removed = true;
+      } else {
+        replacement.put(kept++, item);
+      }
+    }
+    if (!removed) {
+      reopen(s, count);
+      return false;
+    }
+    replacement.reserved.set(kept);
+    store = replacement;
+    return true;
+  }
+
+  @Override
+  public void clear() {
+    drain();
+  }
+
+  /**
+   * Empty this list, returning everything which was in it; appends are either in the result, or in the list after.
+   */
+  public synchronized Object[] drain() {
+    final Store s = store;
+    final int count = s.close();
+    final Object[] items = new Object[count];
+    for (int i = 0; i < count; i++) {
+      items[i] = s.get(i);
+    }
+    store = new Store(0);
+    return items;
+  }
+
+  /**
+   * Allocate the segments needed to hold the given number of elements.
+   */
+  public void ensureCapacity(final int capacity) {
+    final Store s = store;
+    if (capacity > 0) {
+      for (int segment = Store.segmentOf(capacity - 1 + FIRST_SIZE); segment >= 0; segment--) {
+        s.segment(segment);
+      }
+    }
+  }
+
+  @Override
+  public Iterator<E> iterator() {
+    final Store s = open();
+    final int count = s.size();
+    return new Iterator<E>() {
+      int index;
+      int removed;
+      Object last = NULL;
+
+      @Override
+      public boolean hasNext() {
+        return index < count;
+      }
+
+      @Override
+      @SuppressWarnings("unchecked")
+      public E next() {
+        if (index >= count) {
+          throw new NoSuchElementException();
+        }
+        final E next = (E) s.get(index++);
+        last = next;
+        return next;
+      }
+
+      @Override
+      public void remove() {
+        if (last == NULL) {
+          throw new IllegalStateException();
+        }
+        // unless the list changed since we were created, the element is where our earlier removes shifted it
+        if (removeExact(index - 1 - removed, last)) {
+          removed++;
+        }
+        last = NULL;
+      }
+    };
+  }
+
+  /**
+   * @return the current store, once it is open to appends (which it only isn't while we are locked for a change).
+   */
+  private Store open() {
+    while (true) {
+      final Store s = store;
+      if (s.size() >= 0) {
+        return s;
+      }
+      awaitReplacement();
+    }
+  }
+
+  private void awaitReplacement() {
+    // whoever closed the store holds our lock until its replacement is in place
+    synchronized (this) {
+      assert store.size() >= 0 : "Closed store was not replaced";
+    }
+  }
+
+  private void reopen(final Store s, final int count) {
+    // nothing changed after all; appends which saw the store closed have given up their slot, and will retry
+    s.reserved.set(count);
+  }
+
+  private static void copy(final Store from, final int fromIndex, final Store to, final int toIndex, final int count) {
+    for (int i = 0; i < count; i++) {
+      to.put(toIndex + i, from.get(fromIndex + i));
+    }
+  }
+
+}
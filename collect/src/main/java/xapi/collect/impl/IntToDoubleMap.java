@@ -0,0 +1,154 @@
+package xapi.collect.impl;
+
+import xapi.collect.api.IntToDouble;
+
+/**
+ * An insertion ordered, open addressing IntToDouble; see {@link AbstractPrimitiveMap} for the layout.
+ * <p>
+ * Use {@link Concurrent} to share one between threads.
+ */
+public class IntToDoubleMap extends AbstractIntKeyMap implements IntToDouble {
+
+  private static final long serialVersionUID = -8124847963522755701L;
+
+  protected double[] values = new double[MIN_CAPACITY];
+
+  @Override
+  public double get(final int key) {
+    return getOrDefault(key, 0);
+  }
+
+  @Override
+  public double getOrDefault(final int key, final double dflt) {
+    final int slot = find(key, mix(key));
+    return slot < 0 ? dflt : values[table[slot] - 1];
+  }
+
+  @Override
+  public double put(final int key, final double value) {
+    final int hash = mix(key);
+    final int slot = find(key, hash);
+    if (slot >= 0) {
+      final int entry = table[slot] - 1;
+      final double was = values[entry];
+      values[entry] = value;
+      return was;
+    }
+    final int entry = append(hash, ~slot);
+    keys[entry] = key;
+    values[entry] = value;
+    return 0;
+  }
+
+  @Override
+  public double add(final int key, final double delta) {
+    final int hash = mix(key);
+    final int slot = find(key, hash);
+    if (slot >= 0) {
+      return values[table[slot] - 1] += delta;
+    }
+    final int entry = append(hash, ~slot);
+    keys[entry] = key;
+    values[entry] = delta;
+    return delta;
+  }
+
+  @Override
+  public void forEach(final EntryCallback callback) {
+    for (int entry = 0; entry < used; entry++) {
+      if (!isRemoved(entry)) {
+        callback.in(keys[entry], values[entry]);
+      }
+    }
+  }
+
+  @Override
+  protected void resizeEntries(final int capacity, final int count) {
+    super.resizeEntries(capacity, count);
+    final double[] grown = new double[capacity];
+    System.arraycopy(values, 0, grown, 0, count);
+    values = grown;
+  }
+
+  @Override
+  protected void moveEntry(final int from, final int to) {
+    super.moveEntry(from, to);
+    values[to] = values[from];
+  }
+
+  @Override
+  public String toString() {
+    final StringBuilder b = new StringBuilder("{");
+    forEach((key, value) -> {
+      if (b.length() > 1) {
+        b.append(", ");
+      }
+      b.append(key).append('=').append(value);
+    });
+    return b.append('}').toString();
+  }
+
+  /**
+   * A IntToDoubleMap which synchronizes every method; {@link #forEach(EntryCallback)} holds the lock while calling back.
+   */
+  public static class Concurrent extends IntToDoubleMap {
+
+    private static final long serialVersionUID = 7001737939674823947L;
+
+    @Override
+    public synchronized double get(final int key) {
+      return super.get(key);
+    }
+
+    @Override
+    public synchronized double getOrDefault(final int key, final double dflt) {
+      return super.getOrDefault(key, dflt);
+    }
+
+    @Override
+    public synchronized boolean containsKey(final int key) {
+      return super.containsKey(key);
+    }
+
+    @Override
+    public synchronized double put(final int key, final double value) {
+      return super.put(key, value);
+    }
+
+    @Override
+    public synchronized double add(final int key, final double delta) {
+      return super.add(key, delta);
+    }
+
+    @Override
+    public synchronized boolean remove(final int key) {
+      return super.remove(key);
+    }
+
+    @Override
+    public synchronized int size() {
+      return super.size();
+    }
+
+    @Override
+    public synchronized void clear() {
+      super.clear();
+    }
+
+    @Override
+    public synchronized int[] keyArray() {
+      return super.keyArray();
+    }
+
+    @Override
+    public synchronized void forEach(final EntryCallback callback) {
+      super.forEach(callback);
+    }
+
+    @Override
+    public synchronized String toString() {
+      return super.toString();
+    }
+  }
+
+}
@@ -34,15 +34,15 @@ public class IntToList<E> implements IntTo<E>, Serializable {
         resizerFor(opts));
   }
 
-  private static <E, L extends List<E>> In2<L, Integer> resizerFor(CollectionOptions opts) {
+  static <E, L extends List<E>> In2<L, Integer> resizerFor(CollectionOptions opts) {
     final In2 mapper = opts.concurrent() ?
-        (In2<Vector, Integer>)Vector::ensureCapacity :
+        (In2<ConcurrentSegmentedList, Integer>)ConcurrentSegmentedList::ensureCapacity :
         (In2<ArrayList, Integer>)ArrayList::ensureCapacity;
     return mapper;
   }
 
-  private static <E> List<E> listFor(CollectionOptions opts) {
-    return opts.concurrent() ? new Vector<>() :
+  static <E> List<E> listFor(CollectionOptions opts) {
+    return opts.concurrent() ? new ConcurrentSegmentedList<>() :
         new ArrayList<>(10);
   }
 
@@ -1,7 +1,9 @@
 package xapi.collect.impl;
 
 import xapi.collect.api.CollectionOptions;
+import xapi.except.NotYetImplemented;
 import xapi.fu.Do;
+import xapi.fu.In1;
 import xapi.fu.In2;
 import xapi.fu.Out1;
 import xapi.fu.has.HasLock;
@@ -10,18 +12,38 @@ import java.util.List;
 import java.util.concurrent.locks.ReentrantLock;
 
 /**
+ * A concurrent IntTo, backed by a {@link ConcurrentSegmentedList} unless given some other list:
+ * appends and reads by index never lock, and iteration is over a snapshot.
+ * <p>
  * Created by James X. Nelson (james @wetheinter.net) on 10/31/17.
  */
 public class IntToListConcurrent<T> extends IntToList<T> implements HasLock {
 
     private final ReentrantLock lock = new ReentrantLock();
+    // null if we were handed some other kind of list
+    private final ConcurrentSegmentedList<T> segments;
 
     public <Generic extends T> IntToListConcurrent(Class<Generic> cls) {
         this(cls, CollectionOptions.asMutableList().concurrent(true).build());
     }
 
+    /**
+     * A list for the given options: a {@link ConcurrentSegmentedList} if they are concurrent,
+     * an ArrayList if not (as in {@link IntToList}, which is only safe while one thread at a time uses it).
+     * Options a list cannot honor (forbidsDuplicate and keyOrdered, which want a set or map) are rejected.
+     */
     public <Generic extends T> IntToListConcurrent(Class<Generic> cls, CollectionOptions opts) {
-        super(cls, opts);
+        this(cls, listFor(checkListOptions(opts)), resizerFor(opts));
+    }
+
+    private static CollectionOptions checkListOptions(CollectionOptions opts) {
+        if (opts.forbidsDuplicate()) {
+            throw new NotYetImplemented("Lists which forbid duplicates; use newSet instead");
+        }
+        if (opts.keyOrdered()) {
+            throw new NotYetImplemented("Key ordered lists");
+        }
+        return opts;
     }
 
     public <Generic extends T, L extends List<T>> IntToListConcurrent(
@@ -30,6 +52,42 @@ public class IntToListConcurrent<T> extends IntToList<T> implements HasLock {
         In2<L, Integer> resizer
     ) {
         super(cls, list, resizer);
+        segments = list instanceof ConcurrentSegmentedList ? (ConcurrentSegmentedList<T>) list : null;
+    }
+
+    @Override
+    public T at(int index) {
+        // a single read, so a concurrent remove can't slip in between a size check and a get
+        return segments == null ? super.at(index) : segments.getOrNull(index);
+    }
+
+    @Override
+    public T pop() {
+        if (segments == null) {
+            return super.pop();
+        }
+        synchronized (segments) {
+            // structural changes hold this lock, so we can't be emptied between the check and the remove
+            return segments.isEmpty() ? null : segments.remove(0);
+        }
+    }
+
+    @Override
+    public boolean findRemove(T value, boolean all) {
+        return segments == null ? super.findRemove(value, all) : segments.removeMatching(value, all);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public void removeAll(In1<T> callback) {
+        if (segments == null) {
+            super.removeAll(callback);
+            return;
+        }
+        // each item is either drained, or left in the list; none are lost to a concurrent add
+        for (Object item : segments.drain()) {
+            callback.in((T) item);
+        }
     }
 
     @Override
@@ -0,0 +1,154 @@
+package xapi.collect.impl;
+
+import xapi.collect.api.IntToLong;
+
+/**
+ * An insertion ordered, open addressing IntToLong; see {@link AbstractPrimitiveMap} for the layout.
+ * <p>
+ * Use {@link Concurrent} to share one between threads.
+ */
+public class IntToLongMap extends AbstractIntKeyMap implements IntToLong {
+
+  private static final long serialVersionUID = -3626606606854918714L;
+
+  protected long[] values = new long[MIN_CAPACITY];
+
+  @Override
+  public long get(final int key) {
+    return getOrDefault(key, 0);
+  }
+
+  @Override
+  public long getOrDefault(final int key, final long dflt) {
+    final int slot = find(key, mix(key));
+    return slot < 0 ? dflt : values[table[slot] - 1];
+  }
+
+  @Override
+  public long put(final int key, final long value) {
+    final int hash = mix(key);
+    final int slot = find(key, hash);
+    if (slot >= 0) {
+      final int entry = table[slot] - 1;
+      final long was = values[entry];
+      values[entry] = value;
+      return was;
+    }
+    final int entry = append(hash, ~slot);
+    keys[entry] = key;
+    values[entry] = value;
+    return 0;
+  }
+
+  @Override
+  public long add(final int key, final long delta) {
+    final int hash = mix(key);
+    final int slot = find(key, hash);
+    if (slot >= 0) {
+      return values[table[slot] - 1] += delta;
+    }
+    final int entry = append(hash, ~slot);
+    keys[entry] = key;
+    values[entry] = delta;
+    return delta;
+  }
+
+  @Override
+  public void forEach(final EntryCallback callback) {
+    for (int entry = 0; entry < used; entry++) {
+      if (!isRemoved(entry)) {
+        callback.in(keys[entry], values[entry]);
+      }
+    }
+  }
+
+  @Override
+  protected void resizeEntries(final int capacity, final int count) {
+    super.resizeEntries(capacity, count);
+    final long[] grown = new long[capacity];
+    System.arraycopy(values, 0, grown, 0, count);
+    values = grown;
+  }
+
+  @Override
+  protected void moveEntry(final int from, final int to) {
+    super.moveEntry(from, to);
+    values[to] = values[from];
+  }
+
+  @Override
+  public String toString() {
+    final StringBuilder b = new StringBuilder("{");
+    forEach((key, value) -> {
+      if (b.length() > 1) {
+        b.append(", ");
+      }
+      b.append(key).append('=').append(value);
+    });
+    return b.append('}').toString();
+  }
+
+  /**
+   * A IntToLongMap which synchronizes every method; {@link #forEach(EntryCallback)} holds the lock while calling back.
+   */
+  public static class Concurrent extends IntToLongMap {
+
+    private static final long serialVersionUID = 8573267887210020210L;
+
+    @Override
+    public synchronized long get(final int key) {
+      return super.get(key);
+    }
+
+    @Override
+    public synchronized long getOrDefault(final int key, final long dflt) {
+      return super.getOrDefault(key, dflt);
+    }
+
+    @Override
+    public synchronized boolean containsKey(final int key) {
+      return super.containsKey(key);
+    }
+
+    @Override
+    public synchronized long put(final int key, final long value) {
+      return super.put(key, value);
+    }
+
+    @Override
+    public synchronized long add(final int key, final long delta) {
+      return super.add(key, delta);
+    }
+
+    @Override
+    public synchronized boolean remove(final int key) {
+      return super.remove(key);
+    }
+
+    @Override
+    public synchronized int size() {
+      return super.size();
+    }
+
+    @Override
+    public synchronized void clear() {
+      super.clear();
+    }
+
+    @Override
+    public synchronized int[] keyArray() {
+      return super.keyArray();
+    }
+
+    @Override
+    public synchronized void forEach(final EntryCallback callback) {
+      super.forEach(callback);
+    }
+
+    @Override
+    public synchronized String toString() {
+      return super.toString();
+    }
+  }
+
+}
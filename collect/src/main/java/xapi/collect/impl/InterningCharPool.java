@@ -0,0 +1,290 @@
+package xapi.collect.impl;
+
+import xapi.collect.api.CharPool;
+import xapi.collect.api.IsCompressable;
+import xapi.fu.api.GwtIncompatible;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A {@link CharPool} which actually shares memory: every distinct run of chars it is asked for
+ * is stored once, and every later request for the same chars returns that same array.
+ * <p>
+ * The canonical arrays are held weakly, in a {@link ConcurrentHashMap} keyed on their contents;
+ * once nothing else uses an array, it is collected and forgotten, so a pool shared by many
+ * {@link IsCompressable} structures never holds more than they do.
+ * Lookups compare chars in place, and only copy them when the chars are new to the pool;
+ * the pool never keeps an array it was given, as its owner may change it later.
+ * <p>
+ * Callers must never modify an array they got from this pool.
+ * <p>
+ * We count hits, misses and an estimate of the bytes saved (the size of every array we did not have to keep,
+ * because we returned a shared one instead), so you can tell whether compressing a structure was worth it.
+ * <p>
+ * This is for the jvm; gwt has no weak references, and far less need to share char[]s.
+ */
+@GwtIncompatible
+public class InterningCharPool implements CharPool {
+
+  /**
+   * A canonical array, held weakly; equal to any key with the same chars, or to itself once cleared.
+   */
+  private static final class Interned extends WeakReference<char[]> {
+    private final int hash;
+
+    private Interned(final char[] chars, final int hash, final ReferenceQueue<char[]> queue) {
+      super(chars, queue);
+      this.hash = hash;
+    }
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+
+    @Override
+    public boolean equals(final Object o) {
+      if (o == this) {
+        return true;
+      }
+      final char[] chars = get();
+      if (chars == null) {
+        // we are on our way out of the map; only our own remove() may find us
+        return false;
+      }
+      if (o instanceof Interned) {
+        final Interned other = (Interned) o;
+        return other.hash == hash && Arrays.equals(chars, other.get());
+      }
+      return o instanceof Probe && o.equals(this);
+    }
+  }
+
+  /**
+   * The chars we are looking for, without copying them; only ever used as the argument to a map lookup.
+   */
+  private abstract static class Probe {
+    final int start;
+    final int len;
+    final int hash;
+
+    private Probe(final int start, final int len, final int hash) {
+      this.start = start;
+      this.len = len;
+      this.hash = hash;
+    }
+
+    abstract char charAt(int i);
+
+    abstract char[] copy();
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+
+    @Override
+    public boolean equals(final Object o) {
+      if (!(o instanceof Interned) || ((Interned) o).hash != hash) {
+        return false;
+      }
+      final char[] chars = ((Interned) o).get();
+      if (chars == null || chars.length != len) {
+        return false;
+      }
+      for (int i = 0; i < len; i++) {
+        if (chars[i] != charAt(i)) {
+          return false;
+        }
+      }
+      return true;
+    }
+  }
+
+  private static final class ArrayProbe extends Probe {
+    private final char[] src;
+
+    private ArrayProbe(final char[] src, final int start, final int len) {
+      super(start, len, hash(src, start, len));
+      this.src = src;
+    }
+
+    @Override
+    char charAt(final int i) {
+      return src[start + i];
+    }
+
+    @Override
+    char[] copy() {
+      final char[] copy = new char[len];
+      System.arraycopy(src, start, copy, 0, len);
+      return copy;
+    }
+  }
+
+  private static final class SequenceProbe extends Probe {
+    private final CharSequence src;
+
+    private SequenceProbe(final CharSequence src, final int start, final int len) {
+      super(start, len, hash(src, start, len));
+      this.src = src;
+    }
+
+    @Override
+    char charAt(final int i) {
+      return src.charAt(start + i);
+    }
+
+    @Override
+    char[] copy() {
+      final char[] copy = new char[len];
+      if (src instanceof String) {
+        ((String) src).getChars(start, start + len, copy, 0);
+      } else {
+        for (int i = 0; i < len; i++) {
+          copy[i] = src.charAt(start + i);
+        }
+      }
+      return copy;
+    }
+  }
+
+  private final ConcurrentHashMap<Object, Interned> pool = new ConcurrentHashMap<>();
+  private final ReferenceQueue<char[]> collected = new ReferenceQueue<>();
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+  private final AtomicLong bytesSaved = new AtomicLong();
+
+  @Override
+  public char[] getArray(final char[] src) {
+    if (src.length == 0) {
+      return EMPTY_STRING;
+    }
+    // a miss copies the caller's array, so nothing they do to it later can change what we share
+    return intern(new ArrayProbe(src, 0, src.length));
+  }
+
+  @Override
+  public char[] getArray(final char[] src, final int start, final int len) {
+    assert start + len <= src.length;
+    if (len == 0) {
+      return EMPTY_STRING;
+    }
+    return intern(new ArrayProbe(src, start, len));
+  }
+
+  @Override
+  public char[] getArray(final CharSequence src) {
+    return getArray(src, 0, src.length());
+  }
+
+  @Override
+  public char[] getArray(final CharSequence src, final int start, final int len) {
+    assert start + len <= src.length();
+    if (len == 0) {
+      return EMPTY_STRING;
+    }
+    return intern(new SequenceProbe(src, start, len));
+  }
+
+  /**
+   * @return the number of distinct arrays in this pool which have not yet been collected.
+   */
+  public int size() {
+    purge();
+    return pool.size();
+  }
+
+  /**
+   * @return how many requests were answered with an array already in the pool.
+   */
+  public long getHits() {
+    return hits.get();
+  }
+
+  /**
+   * @return how many requests added a new array to the pool.
+   */
+  public long getMisses() {
+    return misses.get();
+  }
+
+  /**
+   * @return an estimate of the heap we saved, being the size (header included) of every array
+   * for which we returned a shared copy instead.
+   */
+  public long getBytesSaved() {
+    return bytesSaved.get();
+  }
+
+  @Override
+  public String toString() {
+    return "InterningCharPool{size=" + size() + ", hits=" + getHits() + ", misses=" + getMisses()
+        + ", bytesSaved=" + getBytesSaved() + "}";
+  }
+
+  private char[] intern(final Probe probe) {
+    purge();
+    Interned existing = pool.get(probe);
+    char[] chars;
+    if (existing != null && (chars = existing.get()) != null) {
+      return hit(chars);
+    }
+    final char[] canonical = probe.copy();
+    final Interned added = new Interned(canonical, probe.hash, collected);
+    while (true) {
+      existing = pool.putIfAbsent(added, added);
+      if (existing == null) {
+        misses.incrementAndGet();
+        return canonical;
+      }
+      if ((chars = existing.get()) != null) {
+        // another thread added the same chars first
+        return hit(chars);
+      }
+      // the existing array was collected since we looked; it can't equal us anymore, so retry
+      pool.remove(existing, existing);
+    }
+  }
+
+  private char[] hit(final char[] chars) {
+    hits.incrementAndGet();
+    bytesSaved.addAndGet(sizeOf(chars));
+    return chars;
+  }
+
+  private void purge() {
+    Object ref;
+    while ((ref = collected.poll()) != null) {
+      pool.remove(ref, ref);
+    }
+  }
+
+  /**
+   * @return the heap used by a char[] of this length, on a typical 64 bit jvm with compressed oops.
+   */
+  static long sizeOf(final char[] chars) {
+    return (16 + 2L * chars.length + 7) & ~7L;
+  }
+
+  private static int hash(final char[] src, final int start, final int len) {
+    int h = 0;
+    for (int i = start, end = start + len; i < end; i++) {
+      h = 31 * h + src[i];
+    }
+    return h;
+  }
+
+  private static int hash(final CharSequence src, final int start, final int len) {
+    int h = 0;
+    for (int i = start, end = start + len; i < end; i++) {
+      h = 31 * h + src.charAt(i);
+    }
+    return h;
+  }
+
+}
@@ -0,0 +1,154 @@
+package xapi.collect.impl;
+
+import xapi.collect.api.StringToInt;
+
+/**
+ * An insertion ordered, open addressing StringToInt; see {@link AbstractPrimitiveMap} for the layout.
+ * <p>
+ * Use {@link Concurrent} to share one between threads.
+ */
+public class StringToIntMap extends AbstractStringKeyMap implements StringToInt {
+
+  private static final long serialVersionUID = -3204322046393423698L;
+
+  protected int[] values = new int[MIN_CAPACITY];
+
+  @Override
+  public int get(final String key) {
+    return getOrDefault(key, 0);
+  }
+
+  @Override
+  public int getOrDefault(final String key, final int dflt) {
+    final int slot = find(key, hash(key));
+    return slot < 0 ? dflt : values[table[slot] - 1];
+  }
+
+  @Override
+  public int put(final String key, final int value) {
+    final int hash = hash(key);
+    final int slot = find(key, hash);
+    if (slot >= 0) {
+      final int entry = table[slot] - 1;
+      final int was = values[entry];
+      values[entry] = value;
+      return was;
+    }
+    final int entry = append(hash, ~slot);
+    keys[entry] = key;
+    values[entry] = value;
+    return 0;
+  }
+
+  @Override
+  public int add(final String key, final int delta) {
+    final int hash = hash(key);
+    final int slot = find(key, hash);
+    if (slot >= 0) {
+      return values[table[slot] - 1] += delta;
+    }
+    final int entry = append(hash, ~slot);
+    keys[entry] = key;
+    values[entry] = delta;
+    return delta;
+  }
+
+  @Override
+  public void forEach(final EntryCallback callback) {
+    for (int entry = 0; entry < used; entry++) {
+      if (!isRemoved(entry)) {
+        callback.in(keys[entry], values[entry]);
+      }
+    }
+  }
+
+  @Override
+  protected void resizeEntries(final int capacity, final int count) {
+    super.resizeEntries(capacity, count);
+    final int[] grown = new int[capacity];
+    System.arraycopy(values, 0, grown, 0, count);
+    values = grown;
+  }
+
+  @Override
+  protected void moveEntry(final int from, final int to) {
+    super.moveEntry(from, to);
+    values[to] = values[from];
+  }
+
+  @Override
+  public String toString() {
+    final StringBuilder b = new StringBuilder("{");
+    forEach((key, value) -> {
+      if (b.length() > 1) {
+        b.append(", ");
+      }
+      b.append(key).append('=').append(value);
+    });
+    return b.append('}').toString();
+  }
+
+  /**
+   * A StringToIntMap which synchronizes every method; {@link #forEach(EntryCallback)} holds the lock while calling back.
+   */
+  public static class Concurrent extends StringToIntMap {
+
+    private static final long serialVersionUID = 6316665635204570659L;
+
+    @Override
+    public synchronized int get(final String key) {
+      return super.get(key);
+    }
+
+    @Override
+    public synchronized int getOrDefault(final String key, final int dflt) {
+      return super.getOrDefault(key, dflt);
+    }
+
+    @Override
+    public synchronized boolean containsKey(final String key) {
+      return super.containsKey(key);
+    }
+
+    @Override
+    public synchronized int put(final String key, final int value) {
+      return super.put(key, value);
+    }
+
+    @Override
+    public synchronized int add(final String key, final int delta) {
+      return super.add(key, delta);
+    }
+
+    @Override
+    public synchronized boolean remove(final String key) {
+      return super.remove(key);
+    }
+
+    @Override
+    public synchronized int size() {
+      return super.size();
+    }
+
+    @Override
+    public synchronized void clear() {
+      super.clear();
+    }
+
+    @Override
+    public synchronized String[] keyArray() {
+      return super.keyArray();
+    }
+
+    @Override
+    public synchronized void forEach(final EntryCallback callback) {
+      super.forEach(callback);
+    }
+
+    @Override
+    public synchronized String toString() {
+      return super.toString();
+    }
+  }
+
+}
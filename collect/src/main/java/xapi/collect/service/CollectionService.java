@@ -4,9 +4,14 @@ import xapi.collect.api.ClassTo;
 import xapi.collect.api.CollectionOptions;
 import xapi.collect.fifo.Fifo;
 import xapi.collect.api.IntTo;
+import xapi.collect.api.IntToDouble;
+import xapi.collect.api.IntToInt;
+import xapi.collect.api.IntToLong;
 import xapi.collect.api.ObjectTo;
 import xapi.collect.api.StringDictionary;
 import xapi.collect.api.StringTo;
+import xapi.collect.api.StringToInt;
+import xapi.collect.api.StringToLong;
 import xapi.collect.proxy.api.CollectionProxy;
 
 public interface CollectionService {
@@ -36,6 +41,18 @@ public interface CollectionService {
   <V> StringDictionary<V> newDictionary(Class<V> cls);
   <V> StringDictionary<V> newDictionaryInsertionOrdered(Class<V> cls);
 
+  // Primitive maps; these are always insertion ordered.
+
+  IntToInt newIntToIntMap(CollectionOptions opts);
+
+  IntToLong newIntToLongMap(CollectionOptions opts);
+
+  IntToDouble newIntToDoubleMap(CollectionOptions opts);
+
+  StringToInt newStringToIntMap(CollectionOptions opts);
+
+  StringToLong newStringToLongMap(CollectionOptions opts);
+
   <V> Fifo<V> newFifo();
 
   <K, V, Key extends K, Value extends V> CollectionProxy<K,V> newProxy(Class<Key> keyCls, Class<Value> valueCls, CollectionOptions opts);
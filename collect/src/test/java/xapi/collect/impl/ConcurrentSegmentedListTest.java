@@ -0,0 +1,251 @@
+package xapi.collect.impl;
+
+import org.junit.Assume;
+import org.junit.Test;
+import xapi.collect.X_Collect;
+import xapi.collect.api.CollectionOptions;
+import xapi.collect.api.IntTo;
+import xapi.constants.X_Namespace;
+import xapi.except.NotYetImplemented;
+import xapi.log.X_Log;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.Vector;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+public class ConcurrentSegmentedListTest {
+
+  @Test
+  public void testMatchesArrayList() {
+    final ConcurrentSegmentedList<Integer> list = new ConcurrentSegmentedList<>();
+    final List<Integer> expected = new ArrayList<>();
+    final Random random = new Random(3);
+    for (int i = 0; i < 20_000; i++) {
+      final int op = random.nextInt(10);
+      if (op < 6 || expected.isEmpty()) {
+        list.add(i);
+        expected.add(i);
+      } else if (op == 6) {
+        final int index = random.nextInt(expected.size() + 1);
+        list.add(index, i);
+        expected.add(index, i);
+      } else if (op == 7) {
+        final int index = random.nextInt(expected.size());
+        assertEquals(expected.remove(index), list.remove(index));
+      } else if (op == 8) {
+        final int index = random.nextInt(expected.size());
+        assertEquals(expected.set(index, -i), list.set(index, -i));
+      } else {
+        final Integer value = expected.get(random.nextInt(expected.size()));
+        assertTrue(list.removeMatching(value, false));
+        expected.remove(value);
+      }
+    }
+    assertEquals(expected, list);
+    assertEquals(expected.size(), list.size());
+    assertNull(list.getOrNull(expected.size()));
+    assertFalse(list.removeMatching(Integer.MIN_VALUE, true));
+    list.add(1);
+    assertEquals(expected.size() + 1, list.size());
+  }
+
+  @Test
+  public void testIteratorIsASnapshot() {
+    final ConcurrentSegmentedList<String> list = new ConcurrentSegmentedList<>();
+    list.add("a");
+    list.add("b");
+    final Iterator<String> itr = list.iterator();
+    list.add("c");
+    list.remove(0);
+    final List<String> seen = new ArrayList<>();
+    itr.forEachRemaining(seen::add);
+    assertEquals(2, seen.size());
+    assertEquals("a", seen.get(0));
+    assertEquals("b", seen.get(1));
+    assertEquals(2, list.size());
+  }
+
+  @Test
+  public void testIteratorSeesLaterSets() {
+    final ConcurrentSegmentedList<String> list = new ConcurrentSegmentedList<>();
+    list.add("a");
+    final Iterator<String> itr = list.iterator();
+    list.set(0, "b");
+    assertEquals("b", itr.next());
+  }
+
+  @Test
+  public void testIteratorRemove() {
+    final ConcurrentSegmentedList<String> list = new ConcurrentSegmentedList<>();
+    list.addAll(Arrays.asList("a", "b", "c", "d", "e"));
+    final Iterator<String> itr = list.iterator();
+    assertEquals("a", itr.next());
+    assertEquals("b", itr.next());
+    itr.remove();
+    // a change behind the iterator's back moves what it removes next
+    list.add(0, "z");
+    assertEquals("c", itr.next());
+    assertEquals("d", itr.next());
+    itr.remove();
+    list.add("f");
+    assertEquals("e", itr.next());
+    assertFalse(itr.hasNext());
+    assertEquals(Arrays.asList("z", "a", "c", "e", "f"), list);
+    try {
+      itr.remove();
+      itr.remove();
+      fail("Removed twice");
+    } catch (IllegalStateException expected) {
+    }
+    assertEquals(Arrays.asList("z", "a", "c", "f"), list);
+  }
+
+  @Test
+  public void testForEachRemove() {
+    final IntTo<Integer> list = X_Collect.newList(Integer.class, X_Collect.MUTABLE_CONCURRENT);
+    for (int i = 0; i < 10; i++) {
+      list.add(i);
+    }
+    for (Iterator<Integer> itr = list.forEach().iterator(); itr.hasNext(); ) {
+      if (itr.next() % 2 == 0) {
+        itr.remove();
+      }
+    }
+    assertEquals(Arrays.asList(1, 3, 5, 7, 9), Arrays.asList(list.toArray()));
+  }
+
+  @Test
+  public void testOptionsAreHonored() {
+    final IntToListConcurrent<Integer> plain = new IntToListConcurrent<>(Integer.class, CollectionOptions.asMutableList().build());
+    plain.add(1);
+    assertEquals(Integer.valueOf(1), plain.at(0));
+    final IntToListConcurrent<Integer> concurrent = new IntToListConcurrent<>(Integer.class, CollectionOptions.asConcurrent(true).build());
+    concurrent.add(1);
+    assertTrue(concurrent.forEach() instanceof ConcurrentSegmentedList);
+    try {
+      new IntToListConcurrent<>(Integer.class, CollectionOptions.asMutableSet().build());
+      fail("A list can't forbid duplicates");
+    } catch (NotYetImplemented expected) {
+    }
+  }
+
+  @Test
+  public void testConcurrentAppendsKeepEveryItemInOrder() throws Exception {
+    final IntTo<int[]> list = X_Collect.newList(int[].class, X_Collect.MUTABLE_CONCURRENT);
+    assertTrue(list instanceof IntToListConcurrent);
+    final int threads = 8, each = 50_000;
+    runWriters(threads, thread -> {
+      for (int i = 0; i < each; i++) {
+        list.add(new int[]{thread, i});
+        if (i % 1000 == 0) {
+          // readers see only fully written items
+          final int size = list.size();
+          assertNotNull(list.at(size - 1));
+        }
+      }
+    });
+    assertEquals(threads * each, list.size());
+    final int[] next = new int[threads];
+    for (int[] item : list.forEach()) {
+      assertEquals(next[item[0]]++, item[1]);
+    }
+  }
+
+  @Test
+  public void testAppendsRacingRemovesAreNeverLost() throws Exception {
+    final IntToListConcurrent<Integer> list = new IntToListConcurrent<>(Integer.class);
+    final AtomicInteger drained = new AtomicInteger();
+    final int threads = 4, each = 20_000;
+    runWriters(threads + 1, thread -> {
+      if (thread == threads) {
+        // one thread keeps taking things away, in every way we can
+        for (int i = 0; i < 2_000; i++) {
+          if (list.pop() != null) {
+            drained.incrementAndGet();
+          }
+          if (i % 100 == 0) {
+            list.removeAll(item -> drained.incrementAndGet());
+          }
+        }
+      } else {
+        for (int i = 0; i < each; i++) {
+          list.add(i);
+        }
+      }
+    });
+    assertEquals(threads * each, drained.get() + list.size());
+  }
+
+  @Test
+  public void benchmarkAgainstVector() throws Exception {
+    Assume.assumeTrue("Run with -D" + X_Namespace.PROPERTY_BENCHMARK + "=true", Boolean.getBoolean(X_Namespace.PROPERTY_BENCHMARK));
+    final int items = 1_000_000;
+    for (int round = 0; round < 3; round++) {
+      for (int writers : new int[]{1, 4, 16}) {
+        final long vector = time(new IntToList<>(Integer.class, new Vector<>(), Vector::ensureCapacity), writers, items);
+        final long segmented = time(X_Collect.newList(Integer.class, X_Collect.MUTABLE_CONCURRENT), writers, items);
+        if (round == 2) {
+          X_Log.info(ConcurrentSegmentedListTest.class, writers, "writers appending", items, "items, then as many readers: Vector",
+              vector / 1_000_000 + "ms, ConcurrentSegmentedList", segmented / 1_000_000 + "ms");
+        }
+      }
+    }
+  }
+
+  private static long time(IntTo<Integer> list, int threads, int items) throws Exception {
+    final Integer item = 1;
+    final long start = System.nanoTime();
+    runWriters(threads, thread -> {
+      for (int i = thread; i < items; i += threads) {
+        list.add(item);
+      }
+    });
+    runWriters(threads, thread -> {
+      for (int i = thread; i < items; i += threads) {
+        if (list.at(i) != item) {
+          throw new AssertionError("Wrong item at " + i);
+        }
+      }
+    });
+    final long time = System.nanoTime() - start;
+    assertEquals(items, list.size());
+    return time;
+  }
+
+  private interface Writer {
+    void run(int thread) throws Exception;
+  }
+
+  private static void runWriters(int threads, Writer writer) throws Exception {
+    final CountDownLatch start = new CountDownLatch(1);
+    final AtomicReference<Throwable> failure = new AtomicReference<>();
+    final Thread[] running = new Thread[threads];
+    for (int t = 0; t < threads; t++) {
+      final int thread = t;
+      running[t] = new Thread(() -> {
+        try {
+          start.await();
+          writer.run(thread);
+        } catch (Throwable e) {
+          failure.compareAndSet(null, e);
+        }
+      });
+      running[t].start();
+    }
+    start.countDown();
+    for (Thread thread : running) {
+      thread.join();
+    }
+    if (failure.get() != null) {
+      throw new AssertionError(failure.get());
+    }
+  }
+}
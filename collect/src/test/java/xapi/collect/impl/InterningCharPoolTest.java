@@ -0,0 +1,112 @@
+package xapi.collect.impl;
+
+import org.junit.Test;
+import xapi.collect.api.CharPool;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.*;
+
+public class InterningCharPoolTest {
+
+  @Test
+  public void testEqualCharsShareOneArray() {
+    final InterningCharPool pool = new InterningCharPool();
+    final char[] src = "com.foo.client".toCharArray();
+    final char[] first = pool.getArray(src);
+    assertNotSame(src, first);
+    assertArrayEquals(src, first);
+    assertSame(first, pool.getArray(src));
+    assertSame(first, pool.getArray("com.foo.client".toCharArray()));
+    assertSame(first, pool.getArray("com.foo.client"));
+    assertSame(first, pool.getArray(new StringBuilder("xcom.foo.clientx"), 1, 14));
+    assertSame(first, pool.getArray("--com.foo.client".toCharArray(), 2, 14));
+    assertNotSame(first, pool.getArray("com.foo.server"));
+    assertSame(CharPool.EMPTY_STRING, pool.getArray(""));
+    assertSame(CharPool.EMPTY_STRING, pool.getArray(first, 3, 0));
+    assertEquals(2, pool.size());
+    assertEquals(2, pool.getMisses());
+    assertEquals(5, pool.getHits());
+    assertEquals(5 * InterningCharPool.sizeOf(first), pool.getBytesSaved());
+  }
+
+  @Test
+  public void testWholeArraysAreCopiedWhenNew() {
+    final InterningCharPool pool = new InterningCharPool();
+    final char[] src = "lang".toCharArray();
+    final char[] lang = pool.getArray(src);
+    // changing the caller's array must not change what every holder of the interned value sees
+    src[0] = 'L';
+    assertArrayEquals("lang".toCharArray(), lang);
+    assertSame(lang, pool.getArray("lang"));
+  }
+
+  @Test
+  public void testRangesAreCopiedWhenNew() {
+    final InterningCharPool pool = new InterningCharPool();
+    final char[] src = "java.lang.String".toCharArray();
+    final char[] lang = pool.getArray(src, 5, 4);
+    assertNotSame(src, lang);
+    assertArrayEquals("lang".toCharArray(), lang);
+    // changing the source must not change what the pool gave out
+    src[5] = 'L';
+    assertArrayEquals("lang".toCharArray(), pool.getArray("lang"));
+  }
+
+  @Test
+  public void testUnusedArraysAreForgotten() throws InterruptedException {
+    final InterningCharPool pool = new InterningCharPool();
+    final WeakReference<char[]> interned = new WeakReference<>(pool.getArray("transient"));
+    final char[] kept = pool.getArray("kept");
+    for (int i = 0; i < 50 && interned.get() != null; i++) {
+      System.gc();
+      Thread.sleep(10);
+    }
+    assertNull("Pool should not keep arrays alive", interned.get());
+    assertEquals(1, pool.size());
+    // the collected chars can be added again
+    final char[] again = pool.getArray("transient");
+    assertArrayEquals("transient".toCharArray(), again);
+    assertSame(again, pool.getArray("transient"));
+    assertSame(kept, pool.getArray("kept"));
+  }
+
+  @Test
+  public void testConcurrentCallersAgree() throws InterruptedException {
+    final InterningCharPool pool = new InterningCharPool();
+    final int threads = 4, keys = 2_000;
+    final char[][][] results = new char[threads][keys][];
+    final CountDownLatch start = new CountDownLatch(1);
+    final List<Thread> running = new ArrayList<>();
+    for (int t = 0; t < threads; t++) {
+      final char[][] mine = results[t];
+      final Thread thread = new Thread(() -> {
+        try {
+          start.await();
+        } catch (InterruptedException e) {
+          return;
+        }
+        for (int k = 0; k < keys; k++) {
+          mine[k] = pool.getArray("key" + k);
+        }
+      });
+      thread.start();
+      running.add(thread);
+    }
+    start.countDown();
+    for (Thread thread : running) {
+      thread.join();
+    }
+    for (int k = 0; k < keys; k++) {
+      for (int t = 1; t < threads; t++) {
+        assertSame(results[0][k], results[t][k]);
+      }
+    }
+    assertEquals(keys, pool.getMisses());
+    assertEquals(keys * (threads - 1), pool.getHits());
+  }
+
+}
@@ -0,0 +1,146 @@
+package xapi.collect.impl;
+
+import org.junit.Assume;
+import org.junit.Test;
+import xapi.collect.X_Collect;
+import xapi.collect.api.IntToInt;
+import xapi.collect.api.StringToInt;
+import xapi.collect.api.StringToLong;
+import xapi.constants.X_Namespace;
+import xapi.log.X_Log;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class PrimitiveMapTest {
+
+  @Test
+  public void testIntToIntMatchesLinkedHashMap() {
+    final IntToInt map = new IntToIntMap();
+    final Map<Integer, Integer> expected = new LinkedHashMap<>();
+    final Random random = new Random(5);
+    for (int i = 0; i < 200_000; i++) {
+      // a small key range, so we put, add and remove the same keys many times over
+      final int key = random.nextInt(2_000) - 1_000;
+      switch (random.nextInt(4)) {
+        case 0:
+          final Integer was = expected.put(key, i);
+          assertEquals(was == null ? 0 : was, map.put(key, i));
+          break;
+        case 1:
+          assertEquals(expected.merge(key, 3, Integer::sum).intValue(), map.add(key, 3));
+          break;
+        case 2:
+          assertEquals(expected.remove(key) != null, map.remove(key));
+          break;
+        default:
+          assertEquals(expected.containsKey(key), map.containsKey(key));
+          assertEquals(expected.getOrDefault(key, -1).intValue(), map.getOrDefault(key, -1));
+      }
+      assertEquals(expected.size(), map.size());
+    }
+    assertOrder(expected, map);
+  }
+
+  @Test
+  public void testStringToLongMatchesLinkedHashMap() {
+    final StringToLong map = new StringToLongMap();
+    final Map<String, Long> expected = new LinkedHashMap<>();
+    final Random random = new Random(9);
+    for (int i = 0; i < 100_000; i++) {
+      final String key = "key" + random.nextInt(500);
+      if (random.nextInt(3) == 0) {
+        assertEquals(expected.remove(key) != null, map.remove(key));
+      } else {
+        final long delta = random.nextLong();
+        assertEquals(expected.merge(key, delta, Long::sum).longValue(), map.add(key, delta));
+      }
+    }
+    final List<String> keys = new ArrayList<>();
+    map.forEach((key, value) -> {
+      assertEquals(expected.get(key).longValue(), value);
+      keys.add(key);
+    });
+    assertEquals(new ArrayList<>(expected.keySet()), keys);
+    assertArrayEquals(expected.keySet().toArray(), map.keyArray());
+  }
+
+  @Test
+  public void testMissingKeysAndClear() {
+    final StringToInt map = X_Collect.newStringToIntMap();
+    assertEquals(0, map.get("missing"));
+    assertEquals(7, map.getOrDefault("missing", 7));
+    map.put("zero", 0);
+    assertTrue(map.containsKey("zero"));
+    assertEquals(7, map.getOrDefault("zero", 7) + 7);
+    map.clear();
+    assertTrue(map.isEmpty());
+    assertFalse(map.containsKey("zero"));
+    map.put("again", 1);
+    assertEquals("{again=1}", map.toString());
+  }
+
+  @Test
+  public void testConcurrentAdds() throws Exception {
+    final IntToInt map = X_Collect.newIntToIntMap(X_Collect.MUTABLE_CONCURRENT);
+    final Thread[] threads = new Thread[4];
+    for (int t = 0; t < threads.length; t++) {
+      threads[t] = new Thread(() -> {
+        for (int i = 0; i < 100_000; i++) {
+          map.add(i % 1_000, 1);
+        }
+      });
+      threads[t].start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    assertEquals(1_000, map.size());
+    map.forEach((key, value) -> assertEquals(400, value));
+  }
+
+  @Test
+  public void benchmarkAgainstBoxedMap() {
+    Assume.assumeTrue("Run with -D" + X_Namespace.PROPERTY_BENCHMARK + "=true", Boolean.getBoolean(X_Namespace.PROPERTY_BENCHMARK));
+    final int keys = 100_000;
+    final int rounds = 30;
+    long boxed = 0, primitive = 0;
+    for (int warmup = 0; warmup < 3; warmup++) {
+      long start = System.nanoTime();
+      final Map<Integer, Integer> map = new HashMap<>();
+      for (int round = 0; round < rounds; round++) {
+        for (int i = 0; i < keys; i++) {
+          map.merge(i * 7, 1, Integer::sum);
+        }
+      }
+      boxed = System.nanoTime() - start;
+
+      start = System.nanoTime();
+      final IntToInt ints = new IntToIntMap();
+      for (int round = 0; round < rounds; round++) {
+        for (int i = 0; i < keys; i++) {
+          ints.add(i * 7, 1);
+        }
+      }
+      primitive = System.nanoTime() - start;
+      assertEquals(rounds, ints.get(7));
+    }
+    X_Log.info(PrimitiveMapTest.class, "Counting", keys, "keys", rounds, "times; HashMap<Integer, Integer>:",
+        boxed / 1_000_000 + "ms, IntToIntMap:", primitive / 1_000_000 + "ms");
+  }
+
+  private static void assertOrder(Map<Integer, Integer> expected, IntToInt map) {
+    final List<Integer> keys = new ArrayList<>();
+    map.forEach((key, value) -> {
+      assertEquals(expected.get(key).intValue(), value);
+      keys.add(key);
+    });
+    assertEquals(new ArrayList<>(expected.keySet()), keys);
+  }
+}
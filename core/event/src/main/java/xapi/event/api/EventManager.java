@@ -1,59 +1,124 @@
 package xapi.event.api;
 
-import xapi.collect.X_Collect;
-import xapi.collect.api.IntTo;
-import xapi.collect.api.StringTo;
 import xapi.event.impl.EventTypes;
 import xapi.inject.X_Inject;
 import xapi.log.X_Log;
 import xapi.util.api.RemovalHandler;
 
-import static xapi.collect.X_Collect.newStringMultiMap;
-
 import javax.validation.constraints.NotNull;
 import java.io.Serializable;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
 
 /**
+ * Holds the handlers of each {@link IsEventType}, and sends events to them.
+ * <p>
+ * Event types are given a small int id the first time a handler is added for them,
+ * and the handlers of each id are kept in an array which is copied whenever a handler is added or removed.
+ * Adding and removing handlers is synchronized; firing events reads whatever arrays were last published,
+ * without taking any lock, and without allocating anything.
+ * <p>
+ * Each change of handlers also rebuilds a small identity table, from every {@link IsEventType} instance handlers
+ * were added with, straight to its handlers; so firing an event whose {@link IsEvent#getType()} is one of those
+ * instances (as enum types always are) costs no map lookup at all.
+ * Other instances fall back to a lookup by {@link IsEventType#getEventType()}.
+ * <p>
  * Created by James X. Nelson (james @wetheinter.net) on 7/16/16.
  */
 public class EventManager implements Serializable {
 
-    protected final StringTo.Many<EventHandler<?, ?>> handlers;
+    private static final EventHandler<?, ?>[] NO_HANDLERS = new EventHandler<?, ?>[0];
+
     protected final EventService eventService;
 
+    // Both of these (and the arrays in handlers) are replaced, never modified, once they are published.
+    // Writers publish handlers before typeIds, so any id a reader finds is in bounds.
+    private volatile Map<String, Integer> typeIds;
+    private volatile EventHandler<?, ?>[][] handlers;
+    private volatile Dispatch dispatch;
+    // every type instance handlers were added with, and its id; only used while holding our lock
+    private final Map<IsEventType, Integer> registered = new IdentityHashMap<>();
+
+    /**
+     * An open addressing table from {@link IsEventType} instances (by identity) to their published handlers.
+     */
+    private static final class Dispatch implements Serializable {
+        private static final Dispatch EMPTY = new Dispatch(new IsEventType[1], new EventHandler<?, ?>[1][]);
+
+        private final IsEventType[] types;
+        private final EventHandler<?, ?>[][] handles;
+
+        private Dispatch(IsEventType[] types, EventHandler<?, ?>[][] handles) {
+            this.types = types;
+            this.handles = handles;
+        }
+
+        /**
+         * @return The handlers of this type instance, or null if it was not registered.
+         */
+        private EventHandler<?, ?>[] get(IsEventType type) {
+            final int mask = types.length - 1;
+            for (int i = System.identityHashCode(type) & mask; ; i = (i + 1) & mask) {
+                final IsEventType at = types[i];
+                if (at == type) {
+                    return handles[i];
+                }
+                if (at == null) {
+                    return null;
+                }
+            }
+        }
+    }
+
     public EventManager() {
         this(X_Inject.singleton(EventService.class));
     }
 
     public EventManager(EventService service) {
         this.eventService = service;
-        handlers = newStringMultiMap(EventHandler.class, X_Collect.MUTABLE_INSERTION_ORDERED_SET);
+        typeIds = Collections.emptyMap();
+        handlers = new EventHandler<?, ?>[0][];
+        dispatch = Dispatch.EMPTY;
     }
 
     public <Source, E extends IsEvent<Source>> RemovalHandler addHandler(IsEventType type, EventHandler<Source, E> lambda) {
         // method references, by default, do NOT conform to object equality semantics.
         // very bad things will happen if you add a non-serializable lambda and then try to use .removeHandler later.
         final EventHandler<Source, E> handler = eventService.normalizeHandler(lambda);
-        final IntTo<EventHandler<?, ?>> handles = handlers.get(type.getEventType());
-        boolean added = handles.add(handler);
-        if (!added) {
-            X_Log.warn(EventManager.class, "Added duplicate handler?", handler, handles.get(handles.indexOf(handler)));
+        final int id;
+        synchronized (this) {
+            id = typeId(type.getEventType());
+            if (registered.put(type, id) == null) {
+                rebuildDispatch();
+            }
+            final EventHandler<?, ?>[] handles = handlers[id];
+            final int existing = indexOf(handles, handler);
+            if (existing == -1) {
+                final EventHandler<?, ?>[] added = new EventHandler<?, ?>[handles.length + 1];
+                System.arraycopy(handles, 0, added, 0, handles.length);
+                added[handles.length] = handler;
+                publish(id, added);
+            } else {
+                X_Log.warn(EventManager.class, "Added duplicate handler?", handler, handles[existing]);
+            }
         }
-        final RemovalHandler remover = () -> handles.remove(handler);
+        final RemovalHandler remover = () -> remove(id, handler);
         lambda.storeRemover(remover);
         return remover;
     }
 
     public <Source, E extends IsEvent<Source>> boolean removeHandler(IsEventType type, EventHandler<Source, E> lambda) {
-        final IntTo<EventHandler<?, ?>> handles = handlers.get(type.getEventType());
-        if (handles.isEmpty()) {
+        final Integer id = typeIds.get(type.getEventType());
+        if (id == null) {
             return false;
         }
-        boolean removed = handles.removeValue(lambda);
+        boolean removed = remove(id, lambda);
         if (!removed) {
             final EventHandler<Source, E> normalized = eventService.normalizeHandler(lambda);
             if (normalized != lambda) {
-                removed = handles.removeValue(normalized);
+                removed = remove(id, normalized);
             }
             if (!removed) {
                 assert !eventService.isLambda(lambda) : "CANNOT REMOVE A LAMBDA HANDLER CORRECTLY! " + lambda + " is a raw lambda,\n" +
@@ -70,22 +135,111 @@ public class EventManager implements Serializable {
     }
 
     public boolean handlesEvent(IsEventType type) {
-        return handlers.containsKey(type.getEventType());
+        return handlersFor(type.getEventType()).length > 0;
     }
 
     public boolean fireEvent(@NotNull IsEvent<?> event) {
-        IntTo<EventHandler<?, ?>> handles = handlers.get(event.getTypeString());
-        if (handles.isEmpty()) {
-            handles = handlers.get(EventTypes.Unhandled.getEventType());
+        final Dispatch table = dispatch;
+        EventHandler<?, ?>[] handles = table.get(event.getType());
+        if (handles == null) {
+            handles = handlersFor(event.getTypeString());
+        }
+        if (handles.length == 0) {
+            handles = table.get(EventTypes.Unhandled);
+            if (handles == null) {
+                handles = handlersFor(EventTypes.Unhandled.getEventType());
+            }
         }
-        boolean allow = true;
-        for (EventHandler handle : handles.forEach()) {
-            allow = handle.handleEvent(event);
-            if (!allow) {
+        for (EventHandler handle : handles) {
+            if (!handle.handleEvent(event)) {
                 return false;
             }
         }
         return true;
     }
 
+    private EventHandler<?, ?>[] handlersFor(String type) {
+        final Integer id = typeIds.get(type);
+        return id == null ? NO_HANDLERS : handlers[id];
+    }
+
+    /**
+     * Must be called while holding our lock.
+     */
+    private int typeId(String type) {
+        final Integer id = typeIds.get(type);
+        if (id != null) {
+            return id;
+        }
+        final int newId = handlers.length;
+        final EventHandler<?, ?>[][] grown = new EventHandler<?, ?>[newId + 1][];
+        System.arraycopy(handlers, 0, grown, 0, newId);
+        grown[newId] = NO_HANDLERS;
+        handlers = grown;
+
+        final Map<String, Integer> ids = new HashMap<>(typeIds);
+        ids.put(type, newId);
+        typeIds = ids;
+        return newId;
+    }
+
+    private synchronized boolean remove(int id, Object handler) {
+        final EventHandler<?, ?>[] handles = handlers[id];
+        final int index = indexOf(handles, handler);
+        if (index == -1) {
+            return false;
+        }
+        if (handles.length == 1) {
+            publish(id, NO_HANDLERS);
+        } else {
+            final EventHandler<?, ?>[] removed = new EventHandler<?, ?>[handles.length - 1];
+            System.arraycopy(handles, 0, removed, 0, index);
+            System.arraycopy(handles, index + 1, removed, index, removed.length - index);
+            publish(id, removed);
+        }
+        return true;
+    }
+
+    /**
+     * Must be called while holding our lock.
+     * The outer array is copied too, so readers never see an array change after they have read it.
+     */
+    private void publish(int id, EventHandler<?, ?>[] handles) {
+        final EventHandler<?, ?>[][] copy = handlers.clone();
+        copy[id] = handles;
+        handlers = copy;
+        rebuildDispatch();
+    }
+
+    /**
+     * Must be called while holding our lock, after any change to handlers or registered.
+     */
+    private void rebuildDispatch() {
+        int size = 2;
+        while (size < registered.size() * 2) {
+            size <<= 1;
+        }
+        final IsEventType[] types = new IsEventType[size];
+        final EventHandler<?, ?>[][] handles = new EventHandler<?, ?>[size][];
+        final EventHandler<?, ?>[][] current = handlers;
+        for (Map.Entry<IsEventType, Integer> entry : registered.entrySet()) {
+            int i = System.identityHashCode(entry.getKey()) & (size - 1);
+            while (types[i] != null) {
+                i = (i + 1) & (size - 1);
+            }
+            types[i] = entry.getKey();
+            handles[i] = current[entry.getValue()];
+        }
+        dispatch = new Dispatch(types, handles);
+    }
+
+    private static int indexOf(EventHandler<?, ?>[] handles, Object handler) {
+        for (int i = 0; i < handles.length; i++) {
+            if (handler.equals(handles[i])) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
 }
@@ -11,6 +11,9 @@ import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.ObjectOutputStream;
 import java.io.Serializable;
+import java.lang.invoke.SerializedLambda;
+import java.lang.reflect.Method;
+import java.util.Arrays;
 
 /**
  * Created by James X. Nelson (james @wetheinter.net) on 7/16/16.
@@ -20,6 +23,86 @@ import java.io.Serializable;
 @SingletonDefault(implFor = EventService.class)
 public class EventServiceDefault extends AbstractEventService {
 
+    /**
+     * The identity of a serializable lambda: the method it calls, and the values it closed over.
+     * Two lambdas are equal if they call the same method with equal captured values.
+     */
+    static final class LambdaIdentity implements Serializable {
+
+        private final String implClass;
+        private final String implMethodName;
+        private final String implMethodSignature;
+        private final Object[] capturedArgs;
+        private final int hash;
+
+        LambdaIdentity(SerializedLambda lambda) {
+            implClass = lambda.getImplClass();
+            implMethodName = lambda.getImplMethodName();
+            implMethodSignature = lambda.getImplMethodSignature();
+            capturedArgs = new Object[lambda.getCapturedArgCount()];
+            for (int i = 0; i < capturedArgs.length; i++) {
+                capturedArgs[i] = lambda.getCapturedArg(i);
+            }
+            int h = implClass.hashCode();
+            h = 31 * h + implMethodName.hashCode();
+            h = 31 * h + implMethodSignature.hashCode();
+            hash = 31 * h + Arrays.hashCode(capturedArgs);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o)
+                return true;
+            if (!(o instanceof LambdaIdentity))
+                return false;
+
+            final LambdaIdentity that = (LambdaIdentity) o;
+
+            return hash == that.hash
+                && implMethodName.equals(that.implMethodName)
+                && implClass.equals(that.implClass)
+                && implMethodSignature.equals(that.implMethodSignature)
+                && Arrays.equals(capturedArgs, that.capturedArgs);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public String toString() {
+            return implClass + "#" + implMethodName + implMethodSignature + Arrays.toString(capturedArgs);
+        }
+    }
+
+    /**
+     * Reads the identity of a lambda from the {@link SerializedLambda} its writeReplace creates,
+     * which costs a reflective call at registration, and no serialization;
+     * anything which is not a serializable lambda is serialized by {@link #backupExtractIdentifier(EventHandler)}.
+     */
+    @Override
+    protected <Source, Event extends IsEvent<Source>> Serializable extractIdentifier(EventHandler<Source, Event> handler)
+    throws IOException {
+        final Method replace;
+        try {
+            replace = handler.getClass().getDeclaredMethod("writeReplace");
+        } catch (NoSuchMethodException e) {
+            return backupExtractIdentifier(handler);
+        }
+        final Object replaced;
+        try {
+            replace.setAccessible(true);
+            replaced = replace.invoke(handler);
+        } catch (ReflectiveOperationException | SecurityException e) {
+            throw new IOException("Unable to read serialized form of " + handler, e);
+        }
+        if (replaced instanceof SerializedLambda) {
+            return new LambdaIdentity((SerializedLambda) replaced);
+        }
+        return backupExtractIdentifier(handler);
+    }
+
     @Override
     protected <Source, Event extends IsEvent<Source>> Serializable backupExtractIdentifier(EventHandler<Source, Event> handler)
     throws IOException {
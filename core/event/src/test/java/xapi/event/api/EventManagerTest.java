@@ -0,0 +1,165 @@
+package xapi.event.api;
+
+import org.junit.AfterClass;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import xapi.constants.X_Namespace;
+import xapi.event.impl.EventServiceDefault;
+import xapi.event.impl.EventTypes;
+import xapi.log.X_Log;
+import xapi.log.api.LogLevel;
+import xapi.util.api.RemovalHandler;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class EventManagerTest {
+
+    private static final class TestEvent implements IsEvent<String> {
+        private final IsEventType type;
+        private final String source;
+
+        private TestEvent(IsEventType type, String source) {
+            this.type = type;
+            this.source = source;
+        }
+
+        @Override
+        public String getSource() {
+            return source;
+        }
+
+        @Override
+        public IsEventType getType() {
+            return type;
+        }
+    }
+
+    private static LogLevel was;
+
+    private EventManager manager;
+    private List<String> seen;
+
+    @BeforeClass
+    public static void beforeClass() {
+        was = X_Log.logLevel();
+        X_Log.logLevel(LogLevel.INFO);
+    }
+
+    @AfterClass
+    public static void afterClass() {
+        X_Log.logLevel(was);
+    }
+
+    @Before
+    public void before() {
+        manager = new EventManager(new EventServiceDefault());
+        seen = new ArrayList<>();
+    }
+
+    @Test
+    public void testHandlersRunInOrderUntilOneReturnsFalse() {
+        manager.addHandler(EventTypes.Click, (EventHandler<String, TestEvent>) e -> seen.add("first " + e.getSource()));
+        manager.addHandler(EventTypes.Click, (EventHandler<String, TestEvent>) e -> !seen.add("second " + e.getSource()));
+        manager.addHandler(EventTypes.Click, (EventHandler<String, TestEvent>) e -> seen.add("third " + e.getSource()));
+
+        assertFalse(manager.fireEvent(new TestEvent(EventTypes.Click, "a")));
+        assertEquals(2, seen.size());
+        assertEquals("first a", seen.get(0));
+        assertEquals("second a", seen.get(1));
+    }
+
+    @Test
+    public void testUnhandledEventsGoToUnhandledHandlers() {
+        manager.addHandler(EventTypes.Unhandled, (EventHandler<String, TestEvent>) e -> seen.add(e.getSource()));
+        manager.addHandler(EventTypes.Click, (EventHandler<String, TestEvent>) e -> true);
+        assertTrue(manager.fireEvent(new TestEvent(EventTypes.Hover, "hover")));
+        assertTrue(manager.fireEvent(new TestEvent(EventTypes.Click, "click")));
+        assertEquals(1, seen.size());
+        assertEquals("hover", seen.get(0));
+        assertTrue(manager.handlesEvent(EventTypes.Click));
+        assertFalse(manager.handlesEvent(EventTypes.Hover));
+    }
+
+    @Test
+    public void testOtherTypeInstancesWithTheSameNameAreDispatched() {
+        final IsEventType custom = () -> "click";
+        manager.addHandler(EventTypes.Click, (EventHandler<String, TestEvent>) e -> seen.add("enum " + e.getSource()));
+        manager.fireEvent(new TestEvent(custom, "a"));
+        manager.addHandler(custom, (EventHandler<String, TestEvent>) e -> seen.add("custom " + e.getSource()));
+        manager.fireEvent(new TestEvent(EventTypes.Click, "b"));
+        manager.fireEvent(new TestEvent(() -> "click", "c"));
+        assertEquals("[enum a, enum b, custom b, enum c, custom c]", seen.toString());
+    }
+
+    @Test
+    public void testEqualLambdasAreRemovedByValue() {
+        addRecorder("one");
+        addRecorder("two");
+        // a new lambda instance, closing over an equal value, removes the first handler
+        assertTrue(manager.removeHandler(EventTypes.Change, recorder(seen, "one")));
+        assertFalse(manager.removeHandler(EventTypes.Change, recorder(seen, "one")));
+        manager.fireEvent(new TestEvent(EventTypes.Change, "!"));
+        assertEquals(1, seen.size());
+        assertEquals("two!", seen.get(0));
+    }
+
+    @Test
+    public void testRemovalHandler() {
+        final RemovalHandler remover = manager.addHandler(EventTypes.Select, (EventHandler<String, TestEvent>) e -> seen.add(e.getSource()));
+        manager.fireEvent(new TestEvent(EventTypes.Select, "before"));
+        remover.remove();
+        manager.fireEvent(new TestEvent(EventTypes.Select, "after"));
+        assertEquals(1, seen.size());
+        assertFalse(manager.handlesEvent(EventTypes.Select));
+    }
+
+    @Test(timeout = 60_000)
+    public void benchmarkFireEvent() {
+        Assume.assumeTrue("Run with -D" + X_Namespace.PROPERTY_BENCHMARK + "=true", Boolean.getBoolean(X_Namespace.PROPERTY_BENCHMARK));
+        for (int handlers : new int[]{1, 10, 100}) {
+            final EventManager manager = new EventManager(new EventServiceDefault());
+            final int[] calls = new int[1];
+            for (int i = 0; i < handlers; i++) {
+                manager.addHandler(EventTypes.Click, counter(calls, i));
+            }
+            // unrelated types, which must not slow down the type being fired
+            manager.addHandler(EventTypes.Hover, counter(calls, -1));
+            manager.addHandler(EventTypes.Blur, counter(calls, -2));
+
+            final TestEvent event = new TestEvent(EventTypes.Click, "bench");
+            final int events = 2_000_000 / handlers;
+            for (int i = 0; i < events; i++) {
+                manager.fireEvent(event);
+            }
+            calls[0] = 0;
+            final long start = System.nanoTime();
+            for (int i = 0; i < events; i++) {
+                manager.fireEvent(event);
+            }
+            final long nanos = System.nanoTime() - start;
+            assertEquals((long) events * handlers, calls[0]);
+            X_Log.info(EventManagerTest.class, handlers, " handlers: ", (long) (events * 1_000_000_000.0 / nanos),
+                " events/sec, ", (nanos / (events * (long) handlers)), " ns/handler");
+        }
+    }
+
+    private void addRecorder(String prefix) {
+        manager.addHandler(EventTypes.Change, recorder(seen, prefix));
+    }
+
+    private static EventHandler<String, TestEvent> recorder(List<String> seen, String prefix) {
+        return e -> seen.add(prefix + e.getSource());
+    }
+
+    private static EventHandler<String, TestEvent> counter(int[] calls, int id) {
+        return e -> {
+            calls[0]++;
+            return id != Integer.MIN_VALUE;
+        };
+    }
+}
@@ -52,6 +52,17 @@ public interface ResponseLike {
         return this;
     }
 
+    /**
+     * Send part of the body now, instead of when the response is finished;
+     * responses which cannot stream just buffer the chunk in {@link #buildRawResponse()}.
+     *
+     * @return false if the client has gone away, and there is no point writing more.
+     */
+    default boolean writeChunk(CharSequence chunk) {
+        buildRawResponse().append(chunk);
+        return true;
+    }
+
     default String prepareToClose() {
         return null;
     }
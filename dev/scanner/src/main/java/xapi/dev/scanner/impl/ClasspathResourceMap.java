@@ -1,9 +1,11 @@
 package xapi.dev.scanner.impl;
 
 import xapi.bytecode.*;
+import xapi.collect.api.CharPool;
+import xapi.collect.api.IsCompressable;
 import xapi.collect.fifo.Fifo;
 import xapi.collect.fifo.SimpleFifo;
-import xapi.collect.trie.MultithreadedStringTrie;
+import xapi.collect.trie.ConcurrentRadixTrie;
 import xapi.dev.resource.api.ClasspathResource;
 import xapi.dev.resource.impl.SourceCodeResource;
 import xapi.dev.resource.impl.StringDataResource;
@@ -27,7 +29,7 @@ import java.util.Set;
 import java.util.concurrent.ExecutorService;
 import java.util.regex.Pattern;
 
-public class ClasspathResourceMap {
+public class ClasspathResourceMap implements IsCompressable {
 
   private final ResourceTrie<ByteCodeResource> bytecode;
   private final ResourceTrie<SourceCodeResource> sources;
@@ -60,6 +62,16 @@ public class ClasspathResourceMap {
     running = true;
   }
 
+  /**
+   * Share the chars of our resource names with every other structure using the same pool.
+   */
+  @Override
+  public void compress(final CharPool pool) {
+    bytecode.compress(pool);
+    sources.compress(pool);
+    resources.compress(pool);
+  }
+
   public void stop() {
     running = false;
     if (executor.isResolved()) {
@@ -535,40 +547,14 @@ public final MappedIterable<ClassFile> findClassWithAnnotatedMethods(
 
 
 class ResourceTrie <ResourceType extends ClasspathResource>
-extends MultithreadedStringTrie<ResourceType> {
-
-
-  protected class PrioritizedEdge extends Edge {
-    private static final long serialVersionUID = 7917481802519184433L;
-
-    public PrioritizedEdge() {
-    }
-
-    public PrioritizedEdge(final char[] key, final int index, final int end, final ResourceType value) {
-      super(key, index, end);
-      this.value = value;
-    }
-
-    @Override
-    protected void setValue(final ResourceType value) {
-      if (this.value != null) {
-        if (this.value.priority() > value.priority()) {
-          return;
-        }
-      }
-      super.setValue(value);
-    }
-  }
+extends ConcurrentRadixTrie<ResourceType> {
 
   @Override
-  protected Edge newEdge() {
-    return new PrioritizedEdge();
-  }
-
-  @Override
-  protected Edge newEdge(final char[] key, final int index, final int end, final ResourceType value) {
-    return new PrioritizedEdge(key, index, end, value);
+  protected ResourceType merge(final ResourceType existing, final ResourceType value) {
+    if (existing != null && existing.priority() > value.priority()) {
+      return existing;
+    }
+    return value;
   }
 
 }
-
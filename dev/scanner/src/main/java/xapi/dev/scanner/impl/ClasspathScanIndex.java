@@ -0,0 +1,480 @@
+package xapi.dev.scanner.impl;
+
+import xapi.constants.X_Namespace;
+import xapi.log.X_Log;
+import xapi.prop.X_Properties;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.zip.CRC32;
+
+/**
+ * Remembers the entry names of every jar a {@link ClasspathScannerDefault} has scanned,
+ * keyed by the jar's path, size, last modified time and a checksum of the jar's tail (its end record,
+ * and the end of its central directory, which holds the crc of its last entries),
+ * so that jars which have not changed since they were last scanned are never opened just to list them.
+ * <p>
+ * Jars which are new or changed are listed by reading their zip central directory
+ * through a memory mapped {@link FileChannel}, without inflating or even visiting their entries;
+ * zip64 or otherwise unusual jars are listed with {@link JarFile} instead.
+ * <p>
+ * The index is kept in the file named by {@link X_Namespace#PROPERTY_SCAN_INDEX};
+ * by default, a file per project (working directory) in the user's ~/.xapi/scan directory.
+ * An index file which is not owned by the current user, or which others may write, is neither read nor replaced.
+ * It is read once per scan, and written back only when it changed: under a lock, merged with whatever
+ * other builds saved meanwhile, to a temp file which is then moved over the old one.
+ * The format is:
+ * <pre>
+ * int MAGIC, int VERSION, int jars
+ * jars * (utf path, long size, long lastModified, long tailCrc, int entries, int bytes,
+ *   bytes of utf-8 entry names, each followed by a newline)
+ * </pre>
+ * Only the names of jars which are actually scanned are decoded.
+ */
+public class ClasspathScanIndex {
+
+  private static final int MAGIC = 0x5853434e; // XSCN
+  private static final int VERSION = 2;
+  private static final int TAIL_SIZE = 4096;
+
+  private static final int END_OF_CENTRAL_DIRECTORY = 0x06054b50;
+  private static final int CENTRAL_DIRECTORY_HEADER = 0x02014b50;
+  private static final int END_RECORD_SIZE = 22;
+  private static final int MAX_COMMENT_SIZE = 0xffff;
+  private static final int CENTRAL_HEADER_SIZE = 46;
+
+  private static final class Entry {
+    private final long size;
+    private final long lastModified;
+    private final long tailCrc;
+    private final int count;
+    // the names, as utf-8 separated by newlines; decoded the first time they are asked for
+    private final byte[] packed;
+    private String[] names;
+
+    private Entry(final long size, final long lastModified, final long tailCrc, final String[] names) {
+      this.size = size;
+      this.lastModified = lastModified;
+      this.tailCrc = tailCrc;
+      this.count = names.length;
+      this.names = names;
+      final StringBuilder b = new StringBuilder();
+      for (final String name : names) {
+        b.append(name).append('\n');
+      }
+      packed = b.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private Entry(final long size, final long lastModified, final long tailCrc, final int count, final byte[] packed) {
+      this.size = size;
+      this.lastModified = lastModified;
+      this.tailCrc = tailCrc;
+      this.count = count;
+      this.packed = packed;
+    }
+
+    private String[] names() {
+      if (names == null) {
+        final String all = new String(packed, StandardCharsets.UTF_8);
+        final String[] unpacked = new String[count];
+        int start = 0;
+        for (int i = 0; i < count; i++) {
+          final int end = all.indexOf('\n', start);
+          unpacked[i] = all.substring(start, end);
+          start = end + 1;
+        }
+        names = unpacked;
+      }
+      return names;
+    }
+  }
+
+  private final File file;
+  private final Map<String, Entry> jars = new HashMap<String, Entry>();
+  private boolean dirty;
+  private int hits, misses;
+
+  public ClasspathScanIndex(final File file) {
+    this.file = file;
+  }
+
+  /**
+   * @return the index named by {@link X_Namespace#PROPERTY_SCAN_INDEX}, already loaded;
+   * or an index which is never saved, if that property is false.
+   */
+  public static ClasspathScanIndex load() {
+    final String location = X_Properties.getProperty(X_Namespace.PROPERTY_SCAN_INDEX);
+    if ("false".equals(location) || "".equals(location)) {
+      return new ClasspathScanIndex(null);
+    }
+    return load(location == null ? defaultFile() : new File(location));
+  }
+
+  static ClasspathScanIndex load(final File file) {
+    final ClasspathScanIndex index = new ClasspathScanIndex(file);
+    index.read();
+    return index;
+  }
+
+  /**
+   * @return ~/.xapi/scan/{name of the working directory}-{hash of its path}.idx,
+   * so neither other users nor other projects share our index.
+   */
+  static File defaultFile() {
+    File project = new File(System.getProperty("user.dir"));
+    try {
+      project = project.getCanonicalFile();
+    } catch (final IOException ignored) {
+      project = project.getAbsoluteFile();
+    }
+    final String name = project.getName().replaceAll("[^A-Za-z0-9._-]", "_");
+    final String hash = Integer.toHexString(project.getPath().hashCode());
+    return new File(new File(System.getProperty("user.home"), ".xapi" + File.separator + "scan"),
+        (name.isEmpty() ? "root" : name) + "-" + hash + ".idx");
+  }
+
+  /**
+   * @return the names of every entry in the given jar, in the order of its central directory.
+   */
+  public String[] entries(final File jar) throws IOException {
+    final String path = jar.getAbsolutePath();
+    final long size = jar.length();
+    final long lastModified = jar.lastModified();
+    final long tailCrc = tailCrc(jar);
+    synchronized (jars) {
+      final Entry entry = jars.get(path);
+      if (entry != null && entry.size == size && entry.lastModified == lastModified && entry.tailCrc == tailCrc) {
+        hits++;
+        return entry.names();
+      }
+      misses++;
+    }
+    String[] names = readCentralDirectory(jar);
+    if (names == null) {
+      names = readJarFile(jar);
+    }
+    final Entry entry = new Entry(size, lastModified, tailCrc, names);
+    synchronized (jars) {
+      jars.put(path, entry);
+      dirty = true;
+    }
+    return names;
+  }
+
+  /**
+   * Write the index back to its file, if anything changed since it was read;
+   * jars which no longer exist are forgotten.
+   */
+  public void save() {
+    if (file == null) {
+      return;
+    }
+    final Map<String, Entry> snapshot;
+    synchronized (jars) {
+      if (!dirty) {
+        return;
+      }
+      dirty = false;
+      snapshot = new HashMap<String, Entry>(jars);
+    }
+    File temp = null;
+    try {
+      final File dir = file.getAbsoluteFile().getParentFile();
+      if (dir != null && !dir.isDirectory()) {
+        if (!dir.mkdirs()) {
+          throw new IOException("Unable to create " + dir);
+        }
+        restrictToOwner(dir.toPath(), true);
+      }
+      final File lockFile = new File(dir, file.getName() + ".lock");
+      try (FileChannel lockChannel = FileChannel.open(lockFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+           FileLock ignored = lockChannel.lock()) {
+        if (file.exists() && !isTrusted(file.toPath())) {
+          throw new IOException("Refusing to replace " + file + "; it belongs to someone else, or others may write it");
+        }
+        // keep what other builds saved since we read the index; our own entries are newer
+        final Map<String, Entry> merged = new HashMap<String, Entry>();
+        readEntries(file, merged);
+        merged.putAll(snapshot);
+        temp = File.createTempFile(file.getName(), ".tmp", dir);
+        restrictToOwner(temp.toPath(), false);
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+          write(out, merged);
+        }
+        try {
+          Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (final AtomicMoveNotSupportedException e) {
+          Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+      }
+    } catch (final IOException e) {
+      X_Log.warn(getClass(), "Unable to save classpath scan index to", file, e);
+      if (temp != null) {
+        temp.delete();
+      }
+    }
+  }
+
+  public int getHits() {
+    synchronized (jars) {
+      return hits;
+    }
+  }
+
+  public int getMisses() {
+    synchronized (jars) {
+      return misses;
+    }
+  }
+
+  private void read() {
+    if (!readEntries(file, jars)) {
+      // missing, unreadable or an older format; we will replace it
+      jars.clear();
+      dirty = true;
+    }
+  }
+
+  /**
+   * Read the index file into the given map.
+   * @return false if the file does not exist, is not trusted, or could not be read (leaving the map partly filled).
+   */
+  private static boolean readEntries(final File file, final Map<String, Entry> into) {
+    if (!file.isFile()) {
+      return false;
+    }
+    if (!isTrusted(file.toPath())) {
+      X_Log.warn(ClasspathScanIndex.class, "Ignoring classpath scan index", file,
+          "which belongs to someone else, or which others may write");
+      return false;
+    }
+    try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(Files.readAllBytes(file.toPath())))) {
+      if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+        return false;
+      }
+      for (int jar = in.readInt(); jar --> 0; ) {
+        final String path = in.readUTF();
+        final long size = in.readLong();
+        final long lastModified = in.readLong();
+        final long tailCrc = in.readLong();
+        final int count = in.readInt();
+        final byte[] packed = new byte[in.readInt()];
+        in.readFully(packed);
+        into.put(path, new Entry(size, lastModified, tailCrc, count, packed));
+      }
+      return true;
+    } catch (final IOException | RuntimeException e) {
+      X_Log.warn(ClasspathScanIndex.class, "Ignoring unreadable classpath scan index", file, e);
+      return false;
+    }
+  }
+
+  /**
+   * @return true unless the file is owned by another user, or (on posix filesystems) others may write it.
+   */
+  static boolean isTrusted(final Path path) {
+    try {
+      final String owner = Files.getOwner(path).getName();
+      final String user = System.getProperty("user.name");
+      // windows owners are qualified by their domain
+      if (!owner.equals(user) && !owner.endsWith("\\" + user)) {
+        return false;
+      }
+      final PosixFileAttributeView posix = Files.getFileAttributeView(path, PosixFileAttributeView.class);
+      if (posix != null) {
+        final Set<PosixFilePermission> permissions = posix.readAttributes().permissions();
+        return !permissions.contains(PosixFilePermission.GROUP_WRITE) && !permissions.contains(PosixFilePermission.OTHERS_WRITE);
+      }
+      return true;
+    } catch (final IOException | UnsupportedOperationException | SecurityException e) {
+      return false;
+    }
+  }
+
+  private static void restrictToOwner(final Path path, final boolean directory) throws IOException {
+    if (Files.getFileAttributeView(path, PosixFileAttributeView.class) != null) {
+      Files.setPosixFilePermissions(path, directory
+          ? PosixFilePermissions.fromString("rwx------")
+          : EnumSet.of(PosixFilePermission.OWNER_READ, PosixFilePermission.OWNER_WRITE));
+    }
+  }
+
+  /**
+   * @return the crc32 of the last {@link #TAIL_SIZE} bytes of the jar: its end record, and the end of its central directory.
+   */
+  static long tailCrc(final File jar) throws IOException {
+    try (RandomAccessFile in = new RandomAccessFile(jar, "r")) {
+      final long size = in.length();
+      final byte[] tail = new byte[(int) Math.min(size, TAIL_SIZE)];
+      in.seek(size - tail.length);
+      in.readFully(tail);
+      final CRC32 crc = new CRC32();
+      crc.update(tail, 0, tail.length);
+      return crc.getValue();
+    }
+  }
+
+  private static void write(final DataOutputStream out, final Map<String, Entry> jars) throws IOException {
+    final List<Map.Entry<String, Entry>> existing = new ArrayList<Map.Entry<String, Entry>>();
+    for (final Map.Entry<String, Entry> jar : jars.entrySet()) {
+      if (new File(jar.getKey()).isFile()) {
+        existing.add(jar);
+      }
+    }
+    out.writeInt(MAGIC);
+    out.writeInt(VERSION);
+    out.writeInt(existing.size());
+    for (final Map.Entry<String, Entry> jar : existing) {
+      final Entry entry = jar.getValue();
+      out.writeUTF(jar.getKey());
+      out.writeLong(entry.size);
+      out.writeLong(entry.lastModified);
+      out.writeLong(entry.tailCrc);
+      out.writeInt(entry.count);
+      out.writeInt(entry.packed.length);
+      out.write(entry.packed);
+    }
+  }
+
+  /**
+   * @return the entry names from the jar's central directory, or null if it is not a zip we understand
+   * (zip64, or data before the zip, as in self extracting archives).
+   */
+  static String[] readCentralDirectory(final File jar) throws IOException {
+    try (FileInputStream in = new FileInputStream(jar);
+         FileChannel channel = in.getChannel()) {
+      final long size = channel.size();
+      if (size < END_RECORD_SIZE) {
+        return null;
+      }
+      // the end record is the last thing in the file, followed only by a comment of up to 64k
+      final int tailSize = (int) Math.min(size, END_RECORD_SIZE + MAX_COMMENT_SIZE);
+      final MappedByteBuffer tail = channel.map(MapMode.READ_ONLY, size - tailSize, tailSize);
+      tail.order(ByteOrder.LITTLE_ENDIAN);
+      int end = -1;
+      for (int i = tailSize - END_RECORD_SIZE; i >= 0; i--) {
+        if (tail.getInt(i) == END_OF_CENTRAL_DIRECTORY) {
+          end = i;
+          break;
+        }
+      }
+      if (end == -1) {
+        return null;
+      }
+      final int count = tail.getShort(end + 10) & 0xffff;
+      final long directorySize = tail.getInt(end + 12) & 0xffffffffL;
+      final long directoryOffset = tail.getInt(end + 16) & 0xffffffffL;
+      if (count == 0xffff || directoryOffset == 0xffffffffL
+          || directoryOffset + directorySize > size - tailSize + end) {
+        // zip64, or a broken end record
+        return null;
+      }
+      final MappedByteBuffer directory = channel.map(MapMode.READ_ONLY, directoryOffset, directorySize);
+      directory.order(ByteOrder.LITTLE_ENDIAN);
+      final String[] names = new String[count];
+      byte[] bytes = new byte[256];
+      int pos = 0;
+      for (int i = 0; i < count; i++) {
+        if (pos + CENTRAL_HEADER_SIZE > directorySize || directory.getInt(pos) != CENTRAL_DIRECTORY_HEADER) {
+          return null;
+        }
+        final int nameLength = directory.getShort(pos + 28) & 0xffff;
+        final int extraLength = directory.getShort(pos + 30) & 0xffff;
+        final int commentLength = directory.getShort(pos + 32) & 0xffff;
+        if (nameLength > bytes.length) {
+          bytes = new byte[nameLength];
+        }
+        directory.position(pos + CENTRAL_HEADER_SIZE);
+        directory.get(bytes, 0, nameLength);
+        // jar tools write utf-8 names, whether or not they set the utf-8 flag; JarFile assumes the same
+        names[i] = new String(bytes, 0, nameLength, StandardCharsets.UTF_8);
+        pos += CENTRAL_HEADER_SIZE + nameLength + extraLength + commentLength;
+      }
+      return names;
+    }
+  }
+
+  static String[] readJarFile(final File jar) throws IOException {
+    try (JarFile jarFile = new JarFile(jar)) {
+      final List<String> names = new ArrayList<String>();
+      final Enumeration<JarEntry> entries = jarFile.entries();
+      while (entries.hasMoreElements()) {
+        names.add(entries.nextElement().getName());
+      }
+      return names.toArray(new String[names.size()]);
+    }
+  }
+
+  /**
+   * A jar whose entries came from the index; it is only opened while one of its entries is being read,
+   * so that the scanner does not hold (or, on windows, lock) every jar it has indexed.
+   */
+  static final class IndexedJar {
+    private final File file;
+
+    IndexedJar(final File file) {
+      this.file = file;
+    }
+
+    /**
+     * @return a stream over the named entry; closing it closes the jar.
+     */
+    InputStream open(final String name) throws IOException {
+      final JarFile jarFile = new JarFile(file);
+      try {
+        final JarEntry entry = jarFile.getJarEntry(name);
+        if (entry == null) {
+          throw new IOException("No entry " + name + " in " + file + "; was it changed while we were scanning?");
+        }
+        return new FilterInputStream(jarFile.getInputStream(entry)) {
+          @Override
+          public void close() throws IOException {
+            try (JarFile closing = jarFile) {
+              super.close();
+            }
+          }
+        };
+      } catch (IOException | RuntimeException e) {
+        jarFile.close();
+        throw e;
+      }
+    }
+
+    @Override
+    public String toString() {
+      return file.getPath();
+    }
+  }
+}
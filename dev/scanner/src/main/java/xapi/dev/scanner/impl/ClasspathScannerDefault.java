@@ -3,13 +3,16 @@ package xapi.dev.scanner.impl;
 import xapi.annotation.inject.InstanceDefault;
 import xapi.collect.fifo.Fifo;
 import xapi.collect.fifo.SimpleFifo;
+import xapi.collect.impl.InterningCharPool;
 import xapi.dev.resource.impl.FileBackedResource;
 import xapi.dev.resource.impl.JarBackedResource;
 import xapi.dev.resource.impl.SourceCodeResource;
 import xapi.dev.resource.impl.StringDataResource;
 import xapi.dev.scanner.api.ClasspathScanner;
+import xapi.dev.scanner.impl.ClasspathScanIndex.IndexedJar;
 import xapi.util.tools.ThreadsafeUncaughtExceptionHandler;
 import xapi.fu.Do;
+import xapi.log.X_Log;
 import xapi.debug.X_Debug;
 import xapi.constants.X_Namespace;
 import xapi.prop.X_Properties;
@@ -40,6 +43,9 @@ import java.util.regex.Pattern;
 @InstanceDefault(implFor = ClasspathScanner.class)
 public class ClasspathScannerDefault implements ClasspathScanner {
 
+  // shared by every scan, so the maps of repeated scans share their names; held weakly, so it never outlives them
+  private static final InterningCharPool NAMES = new InterningCharPool();
+
   final Set<String> pkgs;
   final Set<Class<? extends Annotation>> annotations;
   final Set<Pattern> resourceMatchers;
@@ -63,14 +69,21 @@ public class ClasspathScannerDefault implements ClasspathScanner {
     private final ClasspathResourceMap map;
     private final int priority;
     private final Iterable<String> pathRoot;
+    private final ClasspathScanIndex index;
     private Thread creatorThread;
 
     public ScanRunner(final URL classpath, final Iterable<String> pkgs,
       final ClasspathResourceMap map, final int priority) {
+      this(classpath, pkgs, map, priority, null);
+    }
+
+    public ScanRunner(final URL classpath, final Iterable<String> pkgs,
+      final ClasspathResourceMap map, final int priority, final ClasspathScanIndex index) {
       this.classpath = classpath;
       this.map = map;
       this.priority = priority;
       this.pathRoot = pkgs;
+      this.index = index;
       creatorThread = Thread.currentThread();
     }
 
@@ -104,6 +117,11 @@ public class ClasspathScannerDefault implements ClasspathScanner {
         }
       }
       try {
+        if (jarFile && index != null && file.isFile()) {
+          // list the jar from our index, and only open it if an entry is read
+          scan(file, index.entries(file));
+          return;
+        }
         if (classpath.getProtocol().equals("jar")) {
           final JarURLConnection conn = ((JarURLConnection) classpath.openConnection());
           final JarFile theJarFile = conn.getJarFile();
@@ -151,7 +169,7 @@ public class ClasspathScannerDefault implements ClasspathScanner {
     }
 
     private final void scan(final JarFile jarFile) {
-      if (activeJars.add(jarFile.getName())) {
+      if (activeJars.add(new File(jarFile.getName()).getAbsolutePath())) {
         final Enumeration<JarEntry> entries = jarFile.entries();
         while (entries.hasMoreElements()) {
           final JarEntry next = entries.nextElement();
@@ -160,6 +178,15 @@ public class ClasspathScannerDefault implements ClasspathScanner {
       }
     }
 
+    private final void scan(final File jar, final String[] entries) {
+      if (activeJars.add(jar.getAbsolutePath())) {
+        final IndexedJar indexed = new IndexedJar(jar);
+        for (final String entry : entries) {
+          addEntry(indexed, entry);
+        }
+      }
+    }
+
     protected void addFile(final File file, final String pathRoot) throws IOException {
       String name = file.getCanonicalPath().substring(pathRoot.length());
       if (name.startsWith(File.separator)) {
@@ -208,6 +235,30 @@ public class ClasspathScannerDefault implements ClasspathScanner {
       }
     }
 
+    protected void addEntry(final IndexedJar jar, final String name) {
+      for (final String pkg : pkgs) {
+        if (name.startsWith(pkg)) {
+          if (name.endsWith(".class")) {
+            if (map.includeBytecode(name)) {
+              map.addBytecode(name, new ByteCodeResource(
+                  new IndexedJarResource(jar, name, priority)));
+            }
+          } else if (name.endsWith(".java")) {
+            if (map.includeSourcecode(name)) {
+              map.addSourcecode(name, new SourceCodeResource(
+                  new IndexedJarResource(jar, name, priority)));
+            }
+          } else {
+            if (map.includeResource(name)) {
+              map.addResource(name, new StringDataResource(
+                  new IndexedJarResource(jar, name, priority)));
+            }
+          }
+          return;
+        }
+      }
+    }
+
   }
 
   @Override
@@ -316,6 +367,7 @@ public class ClasspathScannerDefault implements ClasspathScanner {
     final ClasspathResourceMap map = new ClasspathResourceMap(exe,
       annotations, bytecodeMatchers, resourceMatchers, sourceMatchers);
     map.setClasspath(classPaths.keySet());
+    final ClasspathScanIndex index = ClasspathScanIndex.load();
     final Fifo<Future<?>> jobs = new SimpleFifo<Future<?>>();
     class Finisher implements Callable<ClasspathResourceMap>{
       @Override
@@ -330,14 +382,19 @@ public class ClasspathScannerDefault implements ClasspathScanner {
           }
           LockSupport.parkNanos(250_000);
         }
+        index.save();
         map.stop();
+        final long saved = NAMES.getBytesSaved();
+        map.compress(NAMES);
+        X_Log.debug(ClasspathScannerDefault.class, "Compressed classpath names, saving",
+            NAMES.getBytesSaved() - saved, "bytes;", NAMES);
         return map;
       }
     }
     for (final URL url : classPaths.keySet()) {
       final Fifo<String> packages = classPaths.get(url);
       if (shouldScanUrl(url)) {
-        final ScanRunner scanner = newScanRunner(url, map, executor, packages.forEach(), pos);
+        final ScanRunner scanner = newScanRunner(url, map, executor, packages.forEach(), pos, index);
         jobs.give(executor.submit(scanner));
       }
     }
@@ -358,8 +415,8 @@ public class ClasspathScannerDefault implements ClasspathScanner {
   }
 
   private ScanRunner newScanRunner(final URL classPath, final ClasspathResourceMap map, final ExecutorService executor,
-    final Iterable<String> pkgs, final int priority) {
-    return new ScanRunner(classPath, pkgs, map, priority);
+    final Iterable<String> pkgs, final int priority, final ClasspathScanIndex index) {
+    return new ScanRunner(classPath, pkgs, map, priority, index);
   }
 
   @Override
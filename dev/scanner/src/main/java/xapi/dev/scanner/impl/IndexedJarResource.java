@@ -0,0 +1,44 @@
+package xapi.dev.scanner.impl;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import xapi.dev.resource.api.ClasspathResource;
+import xapi.dev.scanner.impl.ClasspathScanIndex.IndexedJar;
+
+/**
+ * A jar entry found through a {@link ClasspathScanIndex}; the jar is not opened until the entry is read.
+ */
+public class IndexedJarResource implements ClasspathResource {
+
+  private final IndexedJar jar;
+  private final String name;
+  private final int priority;
+
+  IndexedJarResource(IndexedJar jar, String name, int priority) {
+    this.jar = jar;
+    this.name = name;
+    this.priority = priority;
+  }
+
+  @Override
+  public String getResourceName() {
+    return name;
+  }
+
+  @Override
+  public InputStream open() throws IOException {
+    return jar.open(name);
+  }
+
+  @Override
+  public int priority() {
+    return priority;
+  }
+
+  @Override
+  public String toString() {
+    return jar + "!/" + name;
+  }
+
+}
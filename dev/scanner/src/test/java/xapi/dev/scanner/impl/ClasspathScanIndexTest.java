@@ -0,0 +1,148 @@
+package xapi.dev.scanner.impl;
+
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+import xapi.dev.scanner.impl.ClasspathScanIndex.IndexedJar;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.jar.JarOutputStream;
+import java.util.zip.ZipEntry;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ClasspathScanIndexTest {
+
+  private File dir;
+  private File indexFile;
+
+  @Before
+  public void before() throws IOException {
+    dir = Files.createTempDirectory("scanIndex").toFile();
+    indexFile = new File(dir, "index/scan.idx");
+  }
+
+  @Test
+  public void testUnchangedJarIsListedFromTheIndex() throws IOException {
+    final File jar = jar("a.jar", "a/A.class", "a/B.class");
+    final ClasspathScanIndex first = ClasspathScanIndex.load(indexFile);
+    assertArrayEquals(new String[]{"a/A.class", "a/B.class"}, first.entries(jar));
+    assertEquals(1, first.getMisses());
+    first.save();
+
+    final ClasspathScanIndex second = ClasspathScanIndex.load(indexFile);
+    assertArrayEquals(new String[]{"a/A.class", "a/B.class"}, second.entries(jar));
+    assertEquals(1, second.getHits());
+    assertEquals(0, second.getMisses());
+  }
+
+  @Test
+  public void testRewrittenJarWithTheSameSizeAndTimeIsListedAgain() throws IOException {
+    final File jar = jar("same.jar", "a/A.class");
+    final long time = jar.lastModified();
+    final long size = jar.length();
+    final ClasspathScanIndex first = ClasspathScanIndex.load(indexFile);
+    first.entries(jar);
+    first.save();
+
+    jar("same.jar", "b/B.class");
+    assertTrue(jar.setLastModified(time));
+    assertEquals(size, jar.length());
+
+    final ClasspathScanIndex second = ClasspathScanIndex.load(indexFile);
+    assertArrayEquals(new String[]{"b/B.class"}, second.entries(jar));
+    assertEquals(1, second.getMisses());
+  }
+
+  @Test
+  public void testConcurrentSavesKeepEachOthersJars() throws IOException {
+    final File a = jar("a.jar", "a/A.class");
+    final File b = jar("b.jar", "b/B.class");
+    final ClasspathScanIndex one = ClasspathScanIndex.load(indexFile);
+    final ClasspathScanIndex two = ClasspathScanIndex.load(indexFile);
+    one.entries(a);
+    two.entries(b);
+    one.save();
+    two.save();
+
+    final ClasspathScanIndex merged = ClasspathScanIndex.load(indexFile);
+    merged.entries(a);
+    merged.entries(b);
+    assertEquals(2, merged.getHits());
+  }
+
+  @Test
+  public void testIndexOthersMayWriteIsIgnored() throws IOException {
+    final File jar = jar("a.jar", "a/A.class");
+    final ClasspathScanIndex first = ClasspathScanIndex.load(indexFile);
+    first.entries(jar);
+    first.save();
+    Assume.assumeTrue(Files.getFileAttributeView(indexFile.toPath(), PosixFileAttributeView.class) != null);
+    assertTrue(ClasspathScanIndex.isTrusted(indexFile.toPath()));
+
+    Files.setPosixFilePermissions(indexFile.toPath(), PosixFilePermissions.fromString("rw-rw-rw-"));
+    assertFalse(ClasspathScanIndex.isTrusted(indexFile.toPath()));
+    final ClasspathScanIndex second = ClasspathScanIndex.load(indexFile);
+    second.entries(jar);
+    assertEquals(0, second.getHits());
+  }
+
+  @Test
+  public void testJarIsOnlyOpenWhileAnEntryIsRead() throws IOException {
+    final File jar = jar("a.jar", "a/A.class");
+    final IndexedJar indexed = new IndexedJar(jar);
+    try (InputStream in = indexed.open("a/A.class")) {
+      assertEquals("a/A.class", new String(readAll(in), "UTF-8"));
+    }
+    // a jar held open from the first read would still be readable here (and could not be deleted on windows)
+    assertTrue(jar.delete());
+    try {
+      indexed.open("a/A.class").close();
+      fail("Expected a deleted jar to be opened again, and fail");
+    } catch (IOException expected) {
+    }
+  }
+
+  @Test
+  public void testDefaultIndexIsPerUserAndProject() throws IOException {
+    final File file = ClasspathScanIndex.defaultFile();
+    assertTrue(file.getPath(), file.toPath().startsWith(new File(System.getProperty("user.home")).toPath()));
+    final String project = new File(System.getProperty("user.dir")).getCanonicalFile().getName();
+    assertTrue(file.getName(), file.getName().startsWith(project.replaceAll("[^A-Za-z0-9._-]", "_") + "-"));
+  }
+
+  private static byte[] readAll(final InputStream in) throws IOException {
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    final byte[] chunk = new byte[256];
+    int read;
+    while ((read = in.read(chunk)) != -1) {
+      out.write(chunk, 0, read);
+    }
+    return out.toByteArray();
+  }
+
+  private File jar(final String name, final String... entries) throws IOException {
+    final File jar = new File(dir, name);
+    try (JarOutputStream out = new JarOutputStream(new FileOutputStream(jar))) {
+      for (final String entry : entries) {
+        final ZipEntry zipEntry = new ZipEntry(entry);
+        zipEntry.setTime(0);
+        out.putNextEntry(zipEntry);
+        out.write(entry.getBytes("UTF-8"));
+        out.closeEntry();
+      }
+    }
+    return jar;
+  }
+}
@@ -0,0 +1,433 @@
+package xapi.dev.gwtc.impl;
+
+import xapi.constants.X_Namespace;
+import xapi.gwtc.api.CompiledDirectory;
+import xapi.gwtc.api.GwtManifest;
+import xapi.gwtc.api.GwtcXmlBuilder;
+import xapi.log.X_Log;
+import xapi.prop.X_Properties;
+import xapi.string.X_String;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.google.gwt.dev.codeserver.CompileStrategy;
+
+/**
+ * Remembers which inputs produced which {@link CompiledDirectory}, so we can skip compiles that would change nothing.
+ * <p>
+ * A fingerprint is a hash of a {@link GwtManifest}'s settings (program and jvm args, entry points, generated module xml),
+ * plus the contents of every jar and every file in every source folder on its classpath.
+ * Output folders (war, work, gen, deploy, extras, unit cache) are skipped, as the compile itself writes to them,
+ * and their paths are left out of the settings, as generated modules put them in fresh temp dirs.
+ * Contents are only read again when a file's size or last modified time changes,
+ * and folders are only listed again when their last modified time changes.
+ * <p>
+ * The fingerprint of each successful compile, and the directories it produced, are written to
+ * {@link X_Namespace#PROPERTY_GWTC_CACHE_DIR}/moduleName.properties, so a restarted server can reuse the output
+ * of a compile from a previous run, for as long as its war directory still exists.
+ * As that file decides which war directory is served, it is only read if it (and the war directory it names)
+ * belongs to the current user, and nobody else may write it; by default, it lives under ~/.xapi/gwtc.
+ */
+public class GwtcFingerprintCache {
+
+    private static final String KEY_FINGERPRINT = "fingerprint";
+    private static final String KEY_DIRECTORY = "directory";
+    private static final String KEY_STRATEGY = "strategy";
+
+    private static final long SETTLE_MILLIS = 2000;
+
+    private static final class Stamp {
+        private final long size;
+        private final long modified;
+        private final String hash;
+
+        private Stamp(long size, long modified, String hash) {
+            this.size = size;
+            this.modified = modified;
+            this.hash = hash;
+        }
+    }
+
+    private static final class Listing {
+        private final long modified;
+        private final List<Path> dirs;
+        private final List<Path> files;
+
+        private Listing(long modified, List<Path> dirs, List<Path> files) {
+            this.modified = modified;
+            this.dirs = dirs;
+            this.files = files;
+        }
+    }
+
+    private final File cacheDir;
+    private final Map<String, String> fingerprints = new ConcurrentHashMap<>();
+    private final Map<Path, Stamp> contents = new ConcurrentHashMap<>();
+    private final Map<Path, Listing> listings = new ConcurrentHashMap<>();
+
+    public GwtcFingerprintCache() {
+        this(new File(X_Properties.getProperty(X_Namespace.PROPERTY_GWTC_CACHE_DIR,
+            ()->new File(System.getProperty("user.home"), ".xapi" + File.separator + "gwtc").getPath())));
+    }
+
+    public GwtcFingerprintCache(File cacheDir) {
+        this.cacheDir = cacheDir;
+    }
+
+    public String fingerprint(GwtManifest manifest) {
+        // output folders are often fresh temp dirs, so they are named by role, never by path
+        final Map<String, String> outputNames = new LinkedHashMap<>();
+        final Set<Path> outputs = new HashSet<>();
+        output(outputNames, outputs, "war", manifest.getWarDir());
+        output(outputNames, outputs, "compiledWar", manifest.getCompiledWar());
+        output(outputNames, outputs, "work", manifest.getWorkDir());
+        output(outputNames, outputs, "gen", manifest.getGenDir());
+        output(outputNames, outputs, "deploy", manifest.getDeployDir());
+        output(outputNames, outputs, "extras", manifest.getExtrasDir());
+        output(outputNames, outputs, "unitCache", manifest.getUnitCacheDir());
+        // replace longer paths first, so a folder inside another output keeps its own name
+        final List<String> outputPaths = new ArrayList<>(outputNames.keySet());
+        outputPaths.sort((a, b) -> b.length() - a.length());
+
+        final MessageDigest digest = digest();
+        update(digest, manifest.getModuleName());
+        update(digest, manifest.getGwtVersion());
+        update(digest, withoutOutputs(manifest.toProgramArgs(), outputPaths, outputNames));
+        update(digest, withoutOutputs(manifest.toJvmArgs(), outputPaths, outputNames));
+        for (String entryPoint : manifest.getEntryPoints().forEach()) {
+            update(digest, entryPoint);
+        }
+        for (String prop : manifest.getSystemProperties().forEach()) {
+            update(digest, withoutOutputs(prop, outputPaths, outputNames));
+        }
+        for (GwtcXmlBuilder module : manifest.getModules()) {
+            update(digest, module.getFileName());
+            update(digest, withoutOutputs(module.getBuffer().toString(), outputPaths, outputNames));
+        }
+        for (String entry : manifest.toClasspathFullCompile()) {
+            final File file = new File(entry);
+            final Path path = file.getAbsoluteFile().toPath().normalize();
+            if (outputs.contains(path)) {
+                // the gen dir is on the classpath, but its contents are ours
+                update(digest, withoutOutputs(entry, outputPaths, outputNames));
+                continue;
+            }
+            // hash what is in each entry, not where it is, so a moved or regenerated folder with the same
+            // sources still matches; each entry is hashed in order, as classpath order decides which file wins
+            if (file.isDirectory()) {
+                update(digest, "dir");
+                updateDirectory(digest, path, outputs);
+            } else if (file.isFile()) {
+                update(digest, file.getName());
+                try {
+                    update(digest, contentHash(path));
+                } catch (IOException e) {
+                    X_Log.warn(GwtcFingerprintCache.class, "Unable to read classpath entry", path, e);
+                    update(digest, "unreadable");
+                }
+            } else {
+                // missing entries count too, if they show up later
+                update(digest, "missing:" + file.getName());
+            }
+        }
+        return hex(digest.digest());
+    }
+
+    private static void output(Map<String, String> names, Set<Path> outputs, String name, String output) {
+        if (X_String.isEmpty(output)) {
+            return;
+        }
+        final File file = new File(output);
+        final Path path = file.getAbsoluteFile().toPath().normalize();
+        outputs.add(path);
+        names.putIfAbsent(output, "<" + name + ">");
+        names.putIfAbsent(path.toString(), "<" + name + ">");
+        try {
+            names.putIfAbsent(file.getCanonicalPath(), "<" + name + ">");
+        } catch (IOException ignored) {
+            // the absolute path will do
+        }
+    }
+
+    private static String withoutOutputs(String value, List<String> outputPaths, Map<String, String> names) {
+        if (value == null) {
+            return null;
+        }
+        for (String output : outputPaths) {
+            value = value.replace(output, names.get(output));
+        }
+        return value;
+    }
+
+    private void updateDirectory(MessageDigest digest, Path root, Set<Path> outputs) {
+        final List<String> files = new ArrayList<>();
+        listDirectory(root, root, outputs, files);
+        // listings come back in whatever order the file system likes; sort so the same files always hash the same
+        Collections.sort(files);
+        for (String file : files) {
+            update(digest, file);
+        }
+    }
+
+    private void listDirectory(Path root, Path dir, Set<Path> outputs, List<String> into) {
+        final Listing listing;
+        try {
+            listing = listing(dir);
+        } catch (IOException e) {
+            X_Log.warn(GwtcFingerprintCache.class, "Unable to read source folder", dir, e);
+            into.add(root.relativize(dir) + ":unreadable");
+            return;
+        }
+        for (Path child : listing.dirs) {
+            if (!outputs.contains(child)) {
+                listDirectory(root, child, outputs, into);
+            }
+        }
+        for (Path file : listing.files) {
+            String hash;
+            try {
+                hash = contentHash(file);
+            } catch (IOException e) {
+                hash = "unreadable";
+            }
+            into.add(root.relativize(file) + ":" + hash);
+        }
+    }
+
+    /**
+     * The children of a directory only change when its own last modified time does,
+     * so each directory is listed again only when that time changes.
+     */
+    private Listing listing(Path dir) throws IOException {
+        final long modified = Files.getLastModifiedTime(dir).toMillis();
+        final Listing cached = listings.get(dir);
+        if (cached != null && cached.modified == modified) {
+            return cached;
+        }
+        final List<Path> dirs = new ArrayList<>();
+        final List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> children = Files.newDirectoryStream(dir)) {
+            for (Path child : children) {
+                if (Files.isDirectory(child)) {
+                    dirs.add(child);
+                } else {
+                    files.add(child);
+                }
+            }
+        }
+        final Listing listing = new Listing(modified, dirs, files);
+        if (isSettled(modified)) {
+            listings.put(dir, listing);
+        }
+        return listing;
+    }
+
+    /**
+     * Hash a file's contents, reading it again only when its size or last modified time changes.
+     */
+    private String contentHash(Path file) throws IOException {
+        final BasicFileAttributes attrs = Files.readAttributes(file, BasicFileAttributes.class);
+        final long size = attrs.size();
+        final long modified = attrs.lastModifiedTime().toMillis();
+        final Stamp cached = contents.get(file);
+        if (cached != null && cached.size == size && cached.modified == modified) {
+            return cached.hash;
+        }
+        final MessageDigest digest = digest();
+        final byte[] chunk = new byte[64 * 1024];
+        try (InputStream in = Files.newInputStream(file)) {
+            int read;
+            while ((read = in.read(chunk)) != -1) {
+                digest.update(chunk, 0, read);
+            }
+        }
+        final String hash = hex(digest.digest());
+        if (isSettled(modified)) {
+            contents.put(file, new Stamp(size, modified, hash));
+        }
+        return hash;
+    }
+
+    private static boolean isSettled(long modified) {
+        // a write within the file system's timestamp resolution of our read might not change the time;
+        // don't trust a time that recent until we have looked again
+        return System.currentTimeMillis() - modified > SETTLE_MILLIS;
+    }
+
+    /**
+     * @return The output of a previous compile with this exact fingerprint, or null if we must compile.
+     */
+    public CompiledDirectory load(GwtManifest manifest, String fingerprint) {
+        final File file = cacheFile(manifest.getModuleName());
+        if (!file.isFile()) {
+            return null;
+        }
+        if (!isTrusted(file.toPath())) {
+            X_Log.warn(GwtcFingerprintCache.class, "Ignoring compile cache", file,
+                "which belongs to someone else, or which others may write");
+            return null;
+        }
+        final Properties props = new Properties();
+        try (InputStream in = Files.newInputStream(file.toPath())) {
+            props.load(in);
+        } catch (IOException e) {
+            X_Log.warn(GwtcFingerprintCache.class, "Unable to read compile cache", file, e);
+            return null;
+        }
+        if (!fingerprint.equals(props.getProperty(KEY_FINGERPRINT))) {
+            return null;
+        }
+        final CompiledDirectory dir;
+        try {
+            dir = CompiledDirectory.fromString(props.getProperty(KEY_DIRECTORY, ""), CompiledDirectory::new);
+            dir.setStrategy(CompileStrategy.valueOf(props.getProperty(KEY_STRATEGY, CompileStrategy.FULL.name())));
+        } catch (RuntimeException e) {
+            X_Log.warn(GwtcFingerprintCache.class, "Ignoring corrupt compile cache", file, e);
+            return null;
+        }
+        if (X_String.isEmpty(dir.getWarDir()) || !new File(dir.getWarDir()).isDirectory()) {
+            // someone cleaned up the output; we need to compile again
+            return null;
+        }
+        if (!isTrusted(new File(dir.getWarDir()).toPath())) {
+            X_Log.warn(GwtcFingerprintCache.class, "Ignoring compile cache", file, "; its war directory", dir.getWarDir(),
+                "belongs to someone else, or others may write it");
+            return null;
+        }
+        fingerprints.put(manifest.getModuleName(), fingerprint);
+        return dir;
+    }
+
+    public void store(GwtManifest manifest, String fingerprint, CompiledDirectory dir) {
+        final String moduleName = manifest.getModuleName();
+        fingerprints.put(moduleName, fingerprint);
+        final Properties props = new Properties();
+        props.setProperty(KEY_FINGERPRINT, fingerprint);
+        props.setProperty(KEY_DIRECTORY, dir.toString());
+        props.setProperty(KEY_STRATEGY, (dir.getStrategy() == null ? CompileStrategy.FULL : dir.getStrategy()).name());
+        final File file = cacheFile(moduleName);
+        File tmp = null;
+        try {
+            if (!cacheDir.isDirectory()) {
+                if (!cacheDir.mkdirs()) {
+                    throw new IOException("Unable to create " + cacheDir);
+                }
+                restrictToOwner(cacheDir.toPath(), true);
+            }
+            // write a uniquely named file then move it, so neither a crash nor a concurrent server leaves half a file
+            tmp = File.createTempFile(file.getName(), ".tmp", cacheDir);
+            restrictToOwner(tmp.toPath(), false);
+            try (OutputStream out = Files.newOutputStream(tmp.toPath())) {
+                props.store(out, "Gwt compile of " + moduleName);
+            }
+            try {
+                Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException e) {
+            X_Log.warn(GwtcFingerprintCache.class, "Unable to write compile cache", file, e);
+            if (tmp != null) {
+                tmp.delete();
+            }
+        }
+    }
+
+    /**
+     * @return The fingerprint of the last compile of this module that we stored or loaded, or null.
+     */
+    public String getFingerprint(String moduleName) {
+        return fingerprints.get(moduleName);
+    }
+
+    public void invalidate(String moduleName) {
+        fingerprints.remove(moduleName);
+        final File file = cacheFile(moduleName);
+        if (file.exists() && !file.delete()) {
+            X_Log.warn(GwtcFingerprintCache.class, "Unable to delete compile cache", file);
+        }
+    }
+
+    private File cacheFile(String moduleName) {
+        return new File(cacheDir, moduleName.replaceAll("[^A-Za-z0-9._-]", "_") + ".properties");
+    }
+
+    /**
+     * @return true unless the file is owned by another user, or (on posix filesystems) others may write it.
+     */
+    static boolean isTrusted(Path path) {
+        try {
+            final String owner = Files.getOwner(path).getName();
+            final String user = System.getProperty("user.name");
+            // windows owners are qualified by their domain
+            if (!owner.equals(user) && !owner.endsWith("\\" + user)) {
+                return false;
+            }
+            final PosixFileAttributeView posix = Files.getFileAttributeView(path, PosixFileAttributeView.class);
+            if (posix != null) {
+                final Set<PosixFilePermission> permissions = posix.readAttributes().permissions();
+                return !permissions.contains(PosixFilePermission.GROUP_WRITE) && !permissions.contains(PosixFilePermission.OTHERS_WRITE);
+            }
+            return true;
+        } catch (IOException | UnsupportedOperationException | SecurityException e) {
+            return false;
+        }
+    }
+
+    private static void restrictToOwner(Path path, boolean directory) throws IOException {
+        if (Files.getFileAttributeView(path, PosixFileAttributeView.class) != null) {
+            Files.setPosixFilePermissions(path, directory
+                ? PosixFilePermissions.fromString("rwx------")
+                : EnumSet.of(PosixFilePermission.OWNER_READ, PosixFilePermission.OWNER_WRITE));
+        }
+    }
+
+    private static void update(MessageDigest digest, String value) {
+        if (value != null) {
+            digest.update(value.getBytes(StandardCharsets.UTF_8));
+        }
+        // separate values, so "ab","c" never hashes like "a","bc"
+        digest.update((byte) 0);
+    }
+
+    private static String hex(byte[] bytes) {
+        final StringBuilder b = new StringBuilder(bytes.length * 2);
+        for (byte bit : bytes) {
+            b.append(Character.forDigit((bit >> 4) & 0xf, 16)).append(Character.forDigit(bit & 0xf, 16));
+        }
+        return b.toString();
+    }
+
+    private static MessageDigest digest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("Every jre must support SHA-256", e);
+        }
+    }
+}
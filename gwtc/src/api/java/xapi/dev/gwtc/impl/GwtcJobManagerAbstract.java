@@ -59,6 +59,7 @@ public abstract class GwtcJobManagerAbstract implements GwtcJobManager {
     protected final StringTo.Many<In2<CompiledDirectory, Throwable>> callbacks;
     protected final GwtcService service;
     protected final PrimitiveSerializer serializer;
+    protected final GwtcFingerprintCache fingerprints;
 
     public GwtcJobManagerAbstract(GwtcService service) {
         this.runningJobs = X_Collect.newStringMap(GwtcJob.class);
@@ -66,12 +67,17 @@ public abstract class GwtcJobManagerAbstract implements GwtcJobManager {
         this.callbacks = X_Collect.newStringMultiMap(In2.class);
         this.service = service;
         this.serializer = newSerializer();
+        this.fingerprints = newFingerprintCache();
     }
 
     protected PrimitiveSerializer newSerializer() {
         return new PrimitiveSerializerDefault();
     }
 
+    protected GwtcFingerprintCache newFingerprintCache() {
+        return new GwtcFingerprintCache();
+    }
+
     @Override
     public void compileIfNecessary(GwtManifest manifest, In2<CompiledDirectory, Throwable> callback) {
 
@@ -87,6 +93,29 @@ public abstract class GwtcJobManagerAbstract implements GwtcJobManager {
         // where the server doesn't leak into gwt, and gwt doesn't leak into server.
 
         String name = manifest.getModuleName();
+        final String fingerprint = fingerprints.fingerprint(manifest);
+        final GwtcJob running = runningJobs.get(name);
+        if (running == null) {
+            // nothing running; maybe a previous server already compiled exactly this
+            final CompiledDirectory cached = fingerprints.load(manifest, fingerprint);
+            if (cached != null) {
+                X_Log.info(GwtcJobManagerAbstract.class, "Reusing unchanged compilation of ", name, "from", cached.getWarDir(),
+                    "; checked in", diff(start));
+                manifest.setCompileDirectory(cached);
+                statuses.put(name, CompileMessage.Success);
+                callback.in(cached, null);
+                return;
+            }
+        } else if (running.getState() == CompileMessage.Success && fingerprint.equals(fingerprints.getFingerprint(name))) {
+            // nothing changed since this job's last compile; skip asking it to check freshness
+            X_Log.debug(GwtcJobManagerAbstract.class, "Module ", name, "unchanged; checked in", diff(start));
+            running.onDone(callback.doBeforeMe((dir, fail)->{
+                if (dir != null) {
+                    manifest.setCompileDirectory(dir);
+                }
+            }));
+            return;
+        }
         boolean[] isNew = {false};
         GwtcJob existing = runningJobs.getOrCreate(name,
             n-> {
@@ -99,6 +128,9 @@ public abstract class GwtcJobManagerAbstract implements GwtcJobManager {
             X_Log.trace(GwtcJobManagerAbstract.class, "Gwtc job ", (fail == null ? "succeeded" : "failed"), "after waiting", diff(start));
             if (dir != null) {
                 manifest.setCompileDirectory(dir);
+                if (fail == null) {
+                    fingerprints.store(manifest, fingerprint, dir);
+                }
             }
         });
         if (!isNew[0]) {
@@ -185,6 +217,7 @@ public abstract class GwtcJobManagerAbstract implements GwtcJobManager {
     @Override
     public void forceRecompile(GwtManifest manifest, In2<CompiledDirectory, Throwable> callback) {
         String name = manifest.getModuleName();
+        fingerprints.invalidate(name);
         GwtcJob running = runningJobs.remove(name);
         if (running != null) {
             if (running.isRecompiler()) {
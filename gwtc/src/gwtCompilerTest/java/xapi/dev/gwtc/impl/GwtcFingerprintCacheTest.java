@@ -0,0 +1,127 @@
+package xapi.dev.gwtc.impl;
+
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+import xapi.gwtc.api.CompiledDirectory;
+import xapi.gwtc.api.GwtManifest;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFilePermissions;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class GwtcFingerprintCacheTest {
+
+    private File root;
+    private File src;
+    private GwtcFingerprintCache cache;
+
+    @Before
+    public void before() throws IOException {
+        root = Files.createTempDirectory("fingerprint").toFile();
+        src = new File(root, "src");
+        write(new File(src, "com/foo/Foo.java"), "package com.foo; class Foo {}");
+        cache = new GwtcFingerprintCache(new File(root, "cache"));
+    }
+
+    @Test
+    public void testTempDirsDoNotChangeTheFingerprint() throws IOException {
+        final GwtManifest first = manifest("first");
+        final GwtManifest second = manifest("second");
+        assertNotEquals(first.toProgramArgs(), second.toProgramArgs());
+
+        // a fresh cache, as after a restart
+        assertEquals(cache.fingerprint(first), new GwtcFingerprintCache(new File(root, "cache")).fingerprint(second));
+    }
+
+    @Test
+    public void testSourceContentsChangeTheFingerprint() throws IOException {
+        final GwtManifest manifest = manifest("gen");
+        final String before = cache.fingerprint(manifest);
+        assertEquals(before, cache.fingerprint(manifest));
+
+        final File foo = new File(src, "com/foo/Foo.java");
+        final long modified = foo.lastModified();
+        write(foo, "package com.foo; class Foo { int x; }");
+        assertTrue(foo.setLastModified(modified - 10_000));
+        assertNotEquals(before, cache.fingerprint(manifest));
+    }
+
+    @Test
+    public void testNewSourceFilesChangeTheFingerprint() throws IOException {
+        final GwtManifest manifest = manifest("gen");
+        final String before = cache.fingerprint(manifest);
+        write(new File(src, "com/foo/Bar.java"), "package com.foo; class Bar {}");
+        assertNotEquals(before, cache.fingerprint(manifest));
+    }
+
+    @Test
+    public void testGeneratedFilesDoNotChangeTheFingerprint() throws IOException {
+        final GwtManifest manifest = manifest("gen");
+        final String before = cache.fingerprint(manifest);
+        write(new File(manifest.getGenDir(), "com/foo/Generated.java"), "package com.foo; class Generated {}");
+        write(new File(manifest.getWarDir(), "gen/gen.nocache.js"), "compiled");
+        assertEquals(before, cache.fingerprint(manifest));
+    }
+
+    @Test
+    public void testStoredCompileIsReloaded() throws IOException {
+        final GwtManifest manifest = manifest("gen");
+        final String fingerprint = cache.fingerprint(manifest);
+        cache.store(manifest, fingerprint, compiled(manifest));
+
+        final CompiledDirectory loaded = new GwtcFingerprintCache(new File(root, "cache")).load(manifest, fingerprint);
+        assertNotNull(loaded);
+        assertEquals(manifest.getWarDir(), loaded.getWarDir());
+        // nothing but the cache file is left behind
+        assertEquals(1, new File(root, "cache").list().length);
+    }
+
+    @Test
+    public void testCacheOthersMayWriteIsIgnored() throws IOException {
+        final File cacheDir = new File(root, "cache");
+        Assume.assumeTrue(Files.getFileAttributeView(root.toPath(), PosixFileAttributeView.class) != null);
+        final GwtManifest manifest = manifest("gen");
+        final String fingerprint = cache.fingerprint(manifest);
+        cache.store(manifest, fingerprint, compiled(manifest));
+        final File[] files = cacheDir.listFiles();
+        assertEquals(1, files.length);
+
+        Files.setPosixFilePermissions(files[0].toPath(), PosixFilePermissions.fromString("rw-rw-rw-"));
+        assertNull(new GwtcFingerprintCache(cacheDir).load(manifest, fingerprint));
+    }
+
+    private static CompiledDirectory compiled(GwtManifest manifest) {
+        assertTrue(new File(manifest.getWarDir()).mkdirs());
+        return new CompiledDirectory()
+            .setUri("gen")
+            .setWarDir(manifest.getWarDir())
+            .setWorkDir(manifest.getWorkDir())
+            .setGenDir(manifest.getGenDir());
+    }
+
+    private GwtManifest manifest(String name) throws IOException {
+        final File temp = Files.createTempDirectory("gwtc-" + name).toFile();
+        final GwtManifest manifest = new GwtManifest("com.foo.Gen");
+        manifest.addSource(src.getAbsolutePath());
+        manifest.setGenDir(new File(temp, "gen").getAbsolutePath());
+        manifest.setWarDir(new File(temp, "war").getAbsolutePath());
+        manifest.setWorkDir(new File(temp, "work").getAbsolutePath());
+        manifest.setUnitCacheDir(new File(temp, "unitCache").getAbsolutePath());
+        return manifest;
+    }
+
+    private static void write(File file, String contents) throws IOException {
+        assertTrue(file.getParentFile().isDirectory() || file.getParentFile().mkdirs());
+        Files.write(file.toPath(), contents.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,279 @@
+package xapi.test.inject;
+
+import org.junit.AfterClass;
+import org.junit.Assume;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import xapi.annotation.inject.InjectionIndex;
+import xapi.constants.X_Namespace;
+import xapi.inject.impl.JreInjector;
+import xapi.log.X_Log;
+import xapi.log.api.LogLevel;
+import xapi.processor.inject.InjectionAnnotationProcessor;
+
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Compiles some injectable types with {@link InjectionAnnotationProcessor}, and checks that the index it generates
+ * holds what the manifests hold, and that {@link JreInjector} serves it; then compares the cost of injecting
+ * from the index with injecting from the manifests.
+ */
+public class InjectionIndexTest {
+
+  private static final int TYPES = 100;
+  private static final int ITERATIONS = 200_000;
+
+  private static Path classes;
+  private static Path unindexed;
+  private static URLClassLoader loader;
+  private static LogLevel was;
+  // keeps the jit from discarding the instances we create
+  private static int sink;
+
+  @BeforeClass
+  public static void compile() throws IOException {
+    was = X_Log.logLevel();
+    X_Log.logLevel(LogLevel.INFO);
+    final Path root = Files.createTempDirectory("injectionIndex");
+    final Path sources = root.resolve("src/indexed");
+    classes = root.resolve("classes");
+    Files.createDirectories(sources);
+    Files.createDirectories(classes);
+
+    final Map<String, String> files = new LinkedHashMap<>();
+    files.put("Service", "public interface Service { String name(); }");
+    files.put("ServiceDefault", "@SingletonDefault(implFor=Service.class) public class ServiceDefault implements Service {"
+        + " public String name() { return \"default\"; } }");
+    files.put("ServiceLow", "@SingletonOverride(implFor=Service.class, priority=1) public class ServiceLow implements Service {"
+        + " public String name() { return \"low\"; } }");
+    files.put("ServiceHigh", "@SingletonOverride(implFor=Service.class, priority=5) public class ServiceHigh implements Service {"
+        + " public String name() { return \"high\"; } }");
+    files.put("Widget", "public interface Widget { interface Part {} }");
+    files.put("WidgetImpl", "@InstanceDefault(implFor=Widget.class) public class WidgetImpl implements Widget {"
+        + " @InstanceDefault(implFor=Widget.Part.class) public static class PartImpl implements Widget.Part {} }");
+    files.put("Hidden", "public interface Hidden {}");
+    files.put("HiddenImpl", "@InstanceDefault(implFor=Hidden.class) class HiddenImpl implements Hidden {}");
+    for (int i = 0; i < TYPES; i++) {
+      files.put("Type" + i, "public interface Type" + i + " {}");
+      files.put("Type" + i + "Impl", "@InstanceDefault(implFor=Type" + i + ".class) public class Type" + i + "Impl implements Type" + i + " {}");
+    }
+    final List<String> args = new ArrayList<>();
+    args.add("-d");
+    args.add(classes.toString());
+    args.add("-cp");
+    args.add(System.getProperty("java.class.path"));
+    args.add("-processor");
+    args.add(InjectionAnnotationProcessor.class.getName());
+    args.add("-A" + InjectionAnnotationProcessor.OPTION_INDEX_NAME + "=indexed.TestIndex");
+    for (Map.Entry<String, String> file : files.entrySet()) {
+      final Path path = sources.resolve(file.getKey() + ".java");
+      Files.write(path, ("package indexed;\nimport xapi.annotation.inject.*;\n" + file.getValue())
+          .getBytes(StandardCharsets.UTF_8));
+      args.add(path.toString());
+    }
+    final JavaCompiler javac = ToolProvider.getSystemJavaCompiler();
+    assertNotNull("Test needs a jdk", javac);
+    assertEquals(0, javac.run(null, null, null, args.toArray(new String[0])));
+    loader = new URLClassLoader(new URL[]{classes.toUri().toURL()}, InjectionIndexTest.class.getClassLoader());
+
+    // an override built without the index, as by an older build, with a hand written manifest
+    unindexed = root.resolve("unindexed");
+    final Path override = root.resolve("src/override/ServiceTop.java");
+    Files.createDirectories(override.getParent());
+    Files.write(override, ("package indexed;\nimport xapi.annotation.inject.*;\n"
+        + "@SingletonOverride(implFor=Service.class, priority=10) public class ServiceTop implements Service {"
+        + " public String name() { return \"top\"; } }").getBytes(StandardCharsets.UTF_8));
+    final Path manifest = unindexed.resolve("META-INF/singletons/indexed.Service");
+    Files.createDirectories(manifest.getParent());
+    Files.write(manifest, "indexed.ServiceTop".getBytes(StandardCharsets.UTF_8));
+    assertEquals(0, javac.run(null, null, null, "-proc:none", "-d", unindexed.toString(),
+        "-cp", classes + File.pathSeparator + System.getProperty("java.class.path"), override.toString()));
+  }
+
+  @AfterClass
+  public static void afterClass() throws IOException {
+    X_Log.logLevel(was);
+    if (loader != null) {
+      loader.close();
+    }
+  }
+
+  @Test
+  public void testIndexIsListed() throws IOException {
+    final File list = classes.resolve(X_Namespace.DEFAULT_INJECTION_INDEX_LOCATION).toFile();
+    assertTrue(list.isFile());
+    assertEquals("indexed.TestIndex", new String(Files.readAllBytes(list.toPath()), StandardCharsets.UTF_8).trim());
+    // the manifests are still written, for injectors which do not read the index
+    assertTrue(classes.resolve("META-INF/singletons/indexed.Service").toFile().isFile());
+  }
+
+  @Test
+  public void testIndexHoldsResolvedTargets() throws Exception {
+    final InjectionIndex index = (InjectionIndex) loader.loadClass("indexed.TestIndex").newInstance();
+    final Map<String, String> singletons = new LinkedHashMap<>();
+    final Map<String, Integer> instances = new LinkedHashMap<>();
+    index.register(new InjectionIndex.Registry() {
+      @Override
+      public void singleton(String type, String impl, int id) {
+        singletons.put(type, impl);
+        assertEquals(impl, index.create(id).getClass().getName());
+      }
+
+      @Override
+      public void instance(String type, String impl, int id) {
+        instances.put(type, id);
+        assertEquals(impl, index.create(id).getClass().getName());
+      }
+    });
+    assertEquals(1, singletons.size());
+    assertEquals("indexed.ServiceHigh", singletons.get("indexed.Service"));
+    // nested types are keyed by binary name, as Class.getName() returns
+    assertTrue(instances.containsKey("indexed.Widget$Part"));
+    assertTrue(instances.containsKey("indexed.Widget"));
+    // a package-private impl cannot be created by the index; it is left to the manifest
+    assertFalse(instances.containsKey("indexed.Hidden"));
+    assertEquals(TYPES + 2, instances.size());
+    final int widget = instances.get("indexed.Widget");
+    assertNotSame(index.create(widget), index.create(widget));
+  }
+
+  @Test
+  public void testInjectorServesIndex() throws Exception {
+    withLoader(() -> {
+      final JreInjector injector = new JreInjector();
+      final Class service = load("indexed.Service");
+      final Object singleton = injector.provide(service);
+      assertEquals("indexed.ServiceHigh", singleton.getClass().getName());
+      assertSame(singleton, injector.provide(service));
+
+      final Class widget = load("indexed.Widget");
+      final Object one = injector.create(widget);
+      assertEquals("indexed.WidgetImpl", one.getClass().getName());
+      assertNotSame(one, injector.create(widget));
+      assertEquals("indexed.WidgetImpl$PartImpl", injector.create(load("indexed.Widget$Part")).getClass().getName());
+      return null;
+    });
+  }
+
+  @Test
+  public void testPropertyStillOverridesIndex() throws Exception {
+    final String key = "xinject.singletons.indexed.Service";
+    System.setProperty(key, "indexed.ServiceLow");
+    try {
+      withLoader(() -> {
+        final Object singleton = new JreInjector().provide(load("indexed.Service"));
+        assertEquals("indexed.ServiceLow", singleton.getClass().getName());
+        return null;
+      });
+    } finally {
+      System.clearProperty(key);
+    }
+  }
+
+  @Test
+  public void testManifestWithoutIndexStillCompetes() throws Exception {
+    try (URLClassLoader mixed = new URLClassLoader(
+        new URL[]{classes.toUri().toURL(), unindexed.toUri().toURL()}, InjectionIndexTest.class.getClassLoader())
+    ) {
+      withLoader(mixed, () -> {
+        final JreInjector injector = new JreInjector();
+        final Object singleton = injector.provide(load(mixed, "indexed.Service"));
+        assertEquals("indexed.ServiceTop", singleton.getClass().getName());
+        // types only the index knows about are still served from it
+        assertEquals("indexed.WidgetImpl", injector.create(load(mixed, "indexed.Widget")).getClass().getName());
+        return null;
+      });
+    }
+  }
+
+  @Test(timeout = 120_000)
+  public void benchmarkIndexAgainstManifests() throws Exception {
+    Assume.assumeTrue("Run with -D" + X_Namespace.PROPERTY_BENCHMARK + "=true", Boolean.getBoolean(X_Namespace.PROPERTY_BENCHMARK));
+    final Class<?>[] types = new Class<?>[TYPES];
+    for (int i = 0; i < TYPES; i++) {
+      types[i] = load("indexed.Type" + i);
+    }
+    // warm up both paths on fresh injectors, so we time lookups rather than class loading
+    measure(types, true);
+    measure(types, false);
+    final long[] indexed = measure(types, true);
+    final long[] manifests = measure(types, false);
+    X_Log.info(InjectionIndexTest.class, TYPES, "types, then", ITERATIONS, "instances\n",
+        "indexed   first lookups: ", indexed[0] / 1000, "us, ", indexed[1] / ITERATIONS, "ns/instance\n",
+        "manifests first lookups: ", manifests[0] / 1000, "us, ", manifests[1] / ITERATIONS, "ns/instance");
+  }
+
+  @SuppressWarnings("unchecked")
+  private static long[] measure(Class<?>[] types, boolean index) throws Exception {
+    final String before = System.getProperty(X_Namespace.PROPERTY_INJECTION_INDEX);
+    System.setProperty(X_Namespace.PROPERTY_INJECTION_INDEX, Boolean.toString(index));
+    try {
+      return withLoader(() -> {
+        final long start = System.nanoTime();
+        final JreInjector injector = new JreInjector();
+        for (Class type : types) {
+          injector.create(type);
+        }
+        final long lookups = System.nanoTime() - start;
+        final long instancesStart = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+          sink += injector.create((Class) types[i % TYPES]).hashCode() & 1;
+        }
+        return new long[]{lookups, System.nanoTime() - instancesStart};
+      });
+    } finally {
+      if (before == null) {
+        System.clearProperty(X_Namespace.PROPERTY_INJECTION_INDEX);
+      } else {
+        System.setProperty(X_Namespace.PROPERTY_INJECTION_INDEX, before);
+      }
+    }
+  }
+
+  private static Class<?> load(String name) {
+    return load(loader, name);
+  }
+
+  private static Class<?> load(ClassLoader from, String name) {
+    try {
+      return from.loadClass(name);
+    } catch (ClassNotFoundException e) {
+      throw new AssertionError(e);
+    }
+  }
+
+  private static <T> T withLoader(Supplier<T> job) {
+    return withLoader(loader, job);
+  }
+
+  private static <T> T withLoader(ClassLoader with, Supplier<T> job) {
+    final Thread thread = Thread.currentThread();
+    final ClassLoader before = thread.getContextClassLoader();
+    thread.setContextClassLoader(with);
+    try {
+      return job.get();
+    } finally {
+      thread.setContextClassLoader(before);
+    }
+  }
+}
@@ -1,5 +1,6 @@
 package xapi.inject.impl;
 
+import xapi.annotation.inject.InjectionIndex;
 import xapi.collect.api.InitMap;
 import xapi.collect.init.AbstractInitMap;
 import xapi.collect.init.InitMapDefault;
@@ -15,12 +16,20 @@ import xapi.log.api.LogService;
 import xapi.log.impl.JreLog;
 import xapi.util.X_Runtime;
 
+import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import static xapi.constants.X_Namespace.*;
 
@@ -69,13 +78,118 @@ public class JreInjector implements Injector {
 
     private final PlatformChecker checker;
 
+    /**
+     * Every target of every {@link InjectionIndex} on the classpath, by the binary name of the injected type;
+     * filled once, in the constructor, and only read after that.
+     */
+    private final Map<String, List<IndexedTarget>> indexedSingletons = new HashMap<>();
+    private final Map<String, List<IndexedTarget>> indexedInstances = new HashMap<>();
+    /**
+     * The classpath roots (as url prefixes) which hold an index; their manifests say nothing their index doesn't.
+     */
+    private final Set<String> indexedRoots = new HashSet<>();
+    /**
+     * The classpath roots (as url prefixes) which hold manifests, but no index;
+     * only while there are any must an indexed lookup read manifests as well.
+     * Found by their META-INF/singletons and META-INF/instances directories,
+     * so a jar written without directory entries is not seen here; it should be rebuilt with an index.
+     */
+    private final Set<String> unindexedRoots = new HashSet<>();
+
+    private static final class IndexedTarget {
+        private final InjectionIndex index;
+        private final String impl;
+        private final int id;
+
+        private IndexedTarget(InjectionIndex index, String impl, int id) {
+            this.index = index;
+            this.impl = impl;
+            this.id = id;
+        }
+
+        private Object create() {
+            return index.create(id);
+        }
+    }
+
     public JreInjector() {
         checker = createPlatformChecker();
+        loadIndexes();
         if (checker.needsInject()) {
             scanClasspath();
         }
     }
 
+    private final class IndexRegistry implements InjectionIndex.Registry {
+        private InjectionIndex index;
+
+        private void register(InjectionIndex index) {
+            this.index = index;
+            index.register(this);
+        }
+
+        @Override
+        public void singleton(String type, String impl, int id) {
+            indexedSingletons.computeIfAbsent(type, ignored -> new ArrayList<>(1))
+                .add(new IndexedTarget(index, impl, id));
+        }
+
+        @Override
+        public void instance(String type, String impl, int id) {
+            indexedInstances.computeIfAbsent(type, ignored -> new ArrayList<>(1))
+                .add(new IndexedTarget(index, impl, id));
+        }
+    }
+
+    /**
+     * Read every generated {@link InjectionIndex} listed in META-INF/injection-index,
+     * so most lookups need neither a manifest per type nor reflection;
+     * set the system property xapi.inject.index=false to skip this.
+     */
+    private void loadIndexes() {
+        if ("false".equals(System.getProperty(PROPERTY_INJECTION_INDEX))) {
+            return;
+        }
+        final ClassLoader loader = getBestLoader(JreInjector.class.getClassLoader());
+        final IndexRegistry registry = new IndexRegistry();
+        try {
+            final Enumeration<URL> resources = loader.getResources(DEFAULT_INJECTION_INDEX_LOCATION);
+            while (resources.hasMoreElements()) {
+                final URL resource = resources.nextElement();
+                indexedRoots.add(root(resource, DEFAULT_INJECTION_INDEX_LOCATION));
+                try (
+                    BufferedReader lines = new BufferedReader(new InputStreamReader(resource.openStream(), "UTF-8"))
+                ) {
+                    String line;
+                    while ((line = lines.readLine()) != null) {
+                        line = line.trim();
+                        if (line.isEmpty()) {
+                            continue;
+                        }
+                        try {
+                            // we can't use X_Log (or anything else injected) until we are constructed
+                            registry.register((InjectionIndex) Class.forName(line, true, loader).newInstance());
+                        } catch (final Exception | LinkageError e) {
+                            System.err.println("Cannot load injection index " + line + " listed in " + resource + " : " + e);
+                        }
+                    }
+                }
+            }
+            // any other root with manifests may hold overrides its own index would have named
+            for (String fragment : new String[]{singletonUrlFragment.out1(), instanceUrlFragment.out1()}) {
+                final Enumeration<URL> dirs = loader.getResources(fragment);
+                while (dirs.hasMoreElements()) {
+                    final String root = root(dirs.nextElement(), fragment);
+                    if (!indexedRoots.contains(root)) {
+                        unindexedRoots.add(root);
+                    }
+                }
+            }
+        } catch (final IOException e) {
+            System.err.println("Cannot read injection indexes from " + loader + " : " + e);
+        }
+    }
+
     private static final Out1<String> instanceUrlFragment = Lazy.deferred1(() -> {
             final String value = System.getProperty(
                 PROPERTY_INSTANCES,
@@ -100,9 +214,13 @@ public class JreInjector implements Injector {
 
             @Override
             public Out1<?> io(Class<?> clazz) {
-                //First, lookup META-INF/instances for a replacement.
                 final Class<?> cls;
                 try {
+                    final IndexedTarget indexed = indexed(clazz, instanceUrlFragment.out1(), indexedInstances);
+                    if (indexed != null) {
+                        return indexed::create;
+                    }
+                    //Next, lookup META-INF/instances for a replacement.
                     cls = lookup(clazz, instanceUrlFragment.out1(), JreInjector.this, instanceProviders);
                     if (cls == clazz) {
                         if (instanceProviders.containsKey(cls)) {
@@ -153,7 +271,11 @@ public class JreInjector implements Injector {
                     //in case client code already uses ServiceLoader directly (unlikely edge case)
                     Class<?> cls = clazz;
                     try {
-                        //First, lookup META-INF/singletons for a replacement.
+                        final IndexedTarget indexed = indexed(clazz, singletonUrlFragment.out1(), indexedSingletons);
+                        if (indexed != null) {
+                            return Out1.immutable(indexed.create());
+                        }
+                        //Next, lookup META-INF/singletons for a replacement.
                         cls = lookup(clazz, singletonUrlFragment.out1(), JreInjector.this, singletonProviders);
                         if (cls == clazz && singletonProviders.containsKey(cls)) {
                             return singletonProviders.get(cls);
@@ -197,6 +319,54 @@ public class JreInjector implements Injector {
         }
     }
 
+    /**
+     * @return the indexed target for this type, or null if there is none, a system property overrides it,
+     * or a manifest from a classpath root without an index outranks it (so {@link #lookup} should choose).
+     */
+    private IndexedTarget indexed(final Class<?> cls, final String relativeUrl, final Map<String, List<IndexedTarget>> index)
+    throws IOException {
+        final List<IndexedTarget> targets = index.get(cls.getName());
+        if (targets == null || propertyOverride(cls.getName(), relativeUrl) != null) {
+            return null;
+        }
+        if (targets.size() == 1 && unindexedRoots.isEmpty()) {
+            return targets.get(0);
+        }
+        // choose between every jar which indexes this type the same way we choose between manifests;
+        // jars without an index (older builds, hand written manifests) may hold overrides, so they compete too
+        final Map<Class<?>, Integer> candidates = new LinkedHashMap<>();
+        final Map<Class<?>, IndexedTarget> byClass = new HashMap<>();
+        for (IndexedTarget target : targets) {
+            try {
+                final Class<?> impl = Class.forName(target.impl, false, target.index.getClass().getClassLoader());
+                candidates.put(impl, null);
+                byClass.put(impl, target);
+            } catch (final ClassNotFoundException ignored) {
+                // the index outlived a class it names; let the others compete
+            }
+        }
+        if (!unindexedRoots.isEmpty()) {
+            final String resourceName = relativeUrl + cls.getName();
+            final Enumeration<URL> manifests = getBestLoader(cls.getClassLoader()).getResources(resourceName);
+            readManifests(cls, manifests, resourceName, indexedRoots, candidates);
+        }
+        return byClass.get(checker.findBest(candidates));
+    }
+
+    private static String root(final URL resource, final String resourceName) {
+        final String url = resource.toExternalForm();
+        return url.endsWith(resourceName) ? url.substring(0, url.length() - resourceName.length()) : url;
+    }
+
+    private static String propertyOverride(final String name, final String relativeUrl) {
+        final String fromProp = System.getProperty("xinject." +
+            (relativeUrl
+                .replace("META-INF/", "")
+                .replace('/', '.'))
+            + name);
+        return fromProp == null ? System.getProperty("xinject." + name) : fromProp;
+    }
+
     private static Class<?> lookup(
         final Class<?> cls,
         String relativeUrl,
@@ -209,15 +379,7 @@ public class JreInjector implements Injector {
         if (!relativeUrl.endsWith("/")) {
             relativeUrl += "/";
         }
-        String fromProp;
-        fromProp = System.getProperty("xinject." +
-            (relativeUrl
-                .replace("META-INF/", "")
-                .replace('/', '.'))
-            + name);
-        if (fromProp == null) {
-            fromProp = System.getProperty("xinject." + name);
-        }
+        final String fromProp = propertyOverride(name, relativeUrl);
         if (fromProp != null) {
             try {
                 return loader.loadClass(fromProp);
@@ -245,10 +407,32 @@ public class JreInjector implements Injector {
                 return cls;
             }
         }
-        URL resource;
         Map<Class<?>, Integer> candidates = new LinkedHashMap<>();
+        readManifests(cls, resources, relativeUrl + name, Collections.emptySet(), candidates);
+        Class<?> best = injector.checker.findBest(candidates);
+        if (best == null) {
+            // TODO: warn
+            return cls;
+        }
+        return best;
+    }
+
+    /**
+     * Add the implementation named by each manifest to the candidates, skipping manifests under the given roots.
+     */
+    private static void readManifests(
+        final Class<?> cls,
+        final Enumeration<URL> resources,
+        final String resourceName,
+        final Set<String> skipRoots,
+        final Map<Class<?>, Integer> candidates
+    ) throws IOException {
+        URL resource;
         while (resources.hasMoreElements()) {
             resource = resources.nextElement();
+            if (!skipRoots.isEmpty() && skipRoots.contains(root(resource, resourceName))) {
+                continue;
+            }
             final InputStream stream = resource.openStream();
             final byte[] into = new byte[stream.available()];
             stream.read(into);
@@ -289,12 +473,6 @@ public class JreInjector implements Injector {
                 stream.close();
             }
         }
-        Class<?> best = injector.checker.findBest(candidates);
-        if (best == null) {
-            // TODO: warn
-            return cls;
-        }
-        return best;
     }
 
     private static ClassLoader getBestLoader(ClassLoader cl) {
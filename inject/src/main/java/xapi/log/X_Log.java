@@ -124,6 +124,115 @@ public class X_Log {
     if (service.shouldLog(DEBUG))
       log(service, DEBUG,"DEBUG",message);
   }
+
+  // Fixed arity overloads of the above, so that logging at a disabled level allocates nothing;
+  // the varargs versions build their array before we can check the level.
+  public static void error(Object message){
+    LogService service = service();
+    if (service.shouldLog(ERROR))
+      log(service, ERROR,"ERROR",single(message));
+  }
+  public static void error(Object m1, Object m2){
+    LogService service = service();
+    if (service.shouldLog(ERROR))
+      log(service, ERROR,"ERROR",new Object[]{m1, m2});
+  }
+  public static void error(Object m1, Object m2, Object m3){
+    LogService service = service();
+    if (service.shouldLog(ERROR))
+      log(service, ERROR,"ERROR",new Object[]{m1, m2, m3});
+  }
+  public static void error(Object m1, Object m2, Object m3, Object m4){
+    LogService service = service();
+    if (service.shouldLog(ERROR))
+      log(service, ERROR,"ERROR",new Object[]{m1, m2, m3, m4});
+  }
+  public static void warn(Object message){
+    LogService service = service();
+    if (service.shouldLog(WARN))
+      log(service, WARN,"WARN",single(message));
+  }
+  public static void warn(Object m1, Object m2){
+    LogService service = service();
+    if (service.shouldLog(WARN))
+      log(service, WARN,"WARN",new Object[]{m1, m2});
+  }
+  public static void warn(Object m1, Object m2, Object m3){
+    LogService service = service();
+    if (service.shouldLog(WARN))
+      log(service, WARN,"WARN",new Object[]{m1, m2, m3});
+  }
+  public static void warn(Object m1, Object m2, Object m3, Object m4){
+    LogService service = service();
+    if (service.shouldLog(WARN))
+      log(service, WARN,"WARN",new Object[]{m1, m2, m3, m4});
+  }
+  public static void info(Object message){
+    LogService service = service();
+    if (service.shouldLog(INFO))
+      log(service, INFO,"INFO",single(message));
+  }
+  public static void info(Object m1, Object m2){
+    LogService service = service();
+    if (service.shouldLog(INFO))
+      log(service, INFO,"INFO",new Object[]{m1, m2});
+  }
+  public static void info(Object m1, Object m2, Object m3){
+    LogService service = service();
+    if (service.shouldLog(INFO))
+      log(service, INFO,"INFO",new Object[]{m1, m2, m3});
+  }
+  public static void info(Object m1, Object m2, Object m3, Object m4){
+    LogService service = service();
+    if (service.shouldLog(INFO))
+      log(service, INFO,"INFO",new Object[]{m1, m2, m3, m4});
+  }
+  public static void trace(Object message){
+    LogService service = service();
+    if (service.shouldLog(TRACE))
+      log(service, TRACE,"TRACE",single(message));
+  }
+  public static void trace(Object m1, Object m2){
+    LogService service = service();
+    if (service.shouldLog(TRACE))
+      log(service, TRACE,"TRACE",new Object[]{m1, m2});
+  }
+  public static void trace(Object m1, Object m2, Object m3){
+    LogService service = service();
+    if (service.shouldLog(TRACE))
+      log(service, TRACE,"TRACE",new Object[]{m1, m2, m3});
+  }
+  public static void trace(Object m1, Object m2, Object m3, Object m4){
+    LogService service = service();
+    if (service.shouldLog(TRACE))
+      log(service, TRACE,"TRACE",new Object[]{m1, m2, m3, m4});
+  }
+  public static void debug(Object message){
+    LogService service = service();
+    if (service.shouldLog(DEBUG))
+      log(service, DEBUG,"DEBUG",single(message));
+  }
+  public static void debug(Object m1, Object m2){
+    LogService service = service();
+    if (service.shouldLog(DEBUG))
+      log(service, DEBUG,"DEBUG",new Object[]{m1, m2});
+  }
+  public static void debug(Object m1, Object m2, Object m3){
+    LogService service = service();
+    if (service.shouldLog(DEBUG))
+      log(service, DEBUG,"DEBUG",new Object[]{m1, m2, m3});
+  }
+  public static void debug(Object m1, Object m2, Object m3, Object m4){
+    LogService service = service();
+    if (service.shouldLog(DEBUG))
+      log(service, DEBUG,"DEBUG",new Object[]{m1, m2, m3, m4});
+  }
+
+  private static Object[] single(Object message) {
+    // an array passed on its own used to be the varargs array itself; keep logging its elements
+    return message instanceof Object[] ? (Object[]) message : new Object[]{message};
+  }
+
   public static void log(Class<?> caller, LogLevel info, Object ... objects) {
     // TODO adjust log-level based on caller class criteria
     Object o = new SimpleFifo<>(objects);
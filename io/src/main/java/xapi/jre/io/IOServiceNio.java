@@ -0,0 +1,356 @@
+package xapi.jre.io;
+
+import xapi.annotation.inject.InstanceOverride;
+import xapi.annotation.inject.SingletonOverride;
+import xapi.collect.api.StringDictionary;
+import xapi.collect.api.StringTo;
+import xapi.collect.api.StringTo.Many;
+import xapi.fu.Lazy;
+import xapi.io.IOConstants;
+import xapi.io.api.CancelledException;
+import xapi.io.api.IOCallback;
+import xapi.io.api.IOMessage;
+import xapi.io.api.IORequest;
+import xapi.io.api.LineReader;
+import xapi.io.api.StringReader;
+import xapi.io.service.IOService;
+import xapi.jre.io.NioHttpClient.Exchange;
+import xapi.jre.io.NioHttpClient.ResponseHandler;
+import xapi.log.X_Log;
+import xapi.time.X_Time;
+import xapi.util.X_Util;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * An {@link IOService} which sends plain http requests through a shared {@link NioHttpClient},
+ * instead of opening a {@link java.net.HttpURLConnection} and parking a thread for every request.
+ * <p>
+ * All instances share one client, so they share its pool of kept alive connections.
+ * Response bodies are decoded as they arrive, and each line is forwarded right away to a callback
+ * which is also a {@link LineReader} (on the client's io thread, so keep those fast);
+ * {@link IOCallback#onSuccess(Object)} and {@link IOCallback#onError(Throwable)} run through {@link X_Time#runLater(Runnable)}.
+ * As with {@link IOServiceDefault}, a status of 400 or more is reported to onError.
+ * <p>
+ * Anything other than http:// (https, file, jar...) is sent by {@link IOServiceDefault}.
+ */
+@InstanceOverride(implFor=IOService.class)
+@SingletonOverride(implFor=IOService.class)
+public class IOServiceNio extends IOServiceDefault {
+
+  private static final Lazy<NioHttpClient> sharedClient = Lazy.deferred1(NioHttpClient::new);
+
+  public class IORequestNio extends AbstractIORequest {
+
+    private final CountDownLatch finished = new CountDownLatch(1);
+    private final AtomicBoolean completed = new AtomicBoolean();
+    private final IOCallback<IOMessage<String>> callback;
+    private Exchange exchange;
+
+    protected IORequestNio(IOCallback<IOMessage<String>> callback) {
+      this.callback = callback;
+    }
+
+    @Override
+    public void cancel() {
+      super.cancel();
+      if (completed.compareAndSet(false, true)) {
+        if (exchange != null) {
+          exchange.cancel();
+        }
+        setStatus(STATUS_CANCELLED, "Request Cancelled");
+        finished.countDown();
+        X_Time.runLater(()->callback.onError(new CancelledException(this)));
+      }
+    }
+
+    @Override
+    public String response() {
+      try {
+        finished.await();
+      } catch (final InterruptedException e) {
+        cancel();
+        Thread.currentThread().interrupt();
+      }
+      return getValue();
+    }
+
+    /**
+     * @return true if we are the first to complete this request (it was not cancelled, or already complete).
+     */
+    protected boolean complete() {
+      return completed.compareAndSet(false, true);
+    }
+
+    /**
+     * Release anyone waiting on {@link #response()}; call this after the callback has been notified.
+     */
+    protected void finish() {
+      finished.countDown();
+    }
+  }
+
+  protected NioHttpClient client() {
+    return sharedClient.out1();
+  }
+
+  @Override
+  public IORequest<String> get(final String uri, final StringDictionary<String> headers, final IOCallback<IOMessage<String>> callback) {
+    final URI target = plainHttp(uri);
+    if (target == null) {
+      return super.get(uri, headers, callback);
+    }
+    return send(target, IOConstants.METHOD_GET, "GET", headers, null, callback);
+  }
+
+  @Override
+  public IORequest<String> post(final String uri, final String body, final StringDictionary<String> headers,
+      final IOCallback<IOMessage<String>> callback) {
+    final URI target = plainHttp(uri);
+    if (target == null) {
+      return super.post(uri, body, headers, callback);
+    }
+    return send(target, IOConstants.METHOD_POST, "POST", headers,
+        body == null ? new byte[0] : body.getBytes(StandardCharsets.UTF_8), callback);
+  }
+
+  @Override
+  public void put(final String uri, final byte[] body, final StringDictionary<String> headers,
+      final IOCallback<IOMessage<String>> callback) {
+    final URI target = plainHttp(uri);
+    if (target == null) {
+      super.put(uri, body, headers, callback);
+      return;
+    }
+    send(target, IOConstants.METHOD_PUT, "PUT", headers, body == null ? new byte[0] : body, callback);
+  }
+
+  @Override
+  public void delete(final String uri, final StringDictionary<String> headers, final IOCallback<IOMessage<String>> callback) {
+    final URI target = plainHttp(uri);
+    if (target == null) {
+      super.delete(uri, headers, callback);
+      return;
+    }
+    send(target, IOConstants.METHOD_DELETE, "DELETE", headers, null, callback);
+  }
+
+  /**
+   * @return the uri to send through our client, or null if it is not plain http (or not a valid uri).
+   */
+  private URI plainHttp(final String uri) {
+    final String url = normalize(uri);
+    if (!url.startsWith("http://")) {
+      return null;
+    }
+    try {
+      final URI target = new URI(url);
+      return target.getHost() == null ? null : target;
+    } catch (final URISyntaxException e) {
+      // let HttpURLConnection make what it can of it
+      return null;
+    }
+  }
+
+  protected IORequest<String> send(final URI target, final int modifier, final String method,
+      final StringDictionary<String> headers, final byte[] body, final IOCallback<IOMessage<String>> callback) {
+    if (callback.isCancelled()) {
+      return cancelled;
+    }
+    final String url = target.toString();
+    final Map<String, String> sendHeaders = new LinkedHashMap<>();
+    if (headers != null) {
+      headers.forKeys(key -> sendHeaders.put(key, headers.getValue(key)));
+    }
+    final String path = target.getRawPath() == null ? "/" : target.getRawPath();
+    final String query = target.getRawQuery();
+    final IORequestNio request = new IORequestNio(callback);
+    final StringReader lines = new StringReader();
+    if (callback instanceof LineReader) {
+      lines.forwardTo((LineReader) callback);
+    }
+    try {
+      request.exchange = client().send(method, target.getHost(), target.getPort() == -1 ? 80 : target.getPort(),
+          query == null ? path : path + "?" + query, sendHeaders, body,
+          new LineDecoder(lines) {
+            @Override
+            public void onHead(final int status, final String reason, final Many<String> resultHeaders) {
+              request.setStatus(status, reason);
+              request.setResultHeaders(()->resultHeaders);
+              request.start();
+              lines.onStart();
+            }
+
+            @Override
+            public void onComplete() {
+              super.onComplete();
+              // grab body >before< calling onEnd, as it cleans up its memory
+              final String res = lines.toString();
+              lines.onEnd();
+              X_Time.runLater(()->succeed(request, url, modifier, res, callback));
+            }
+
+            @Override
+            public void onError(final Throwable e) {
+              if (request.complete()) {
+                X_Time.runLater(()->{
+                  try {
+                    callback.onError(X_Util.unwrap(e));
+                  } finally {
+                    request.finish();
+                  }
+                });
+              }
+            }
+          });
+    } catch (final Throwable e) {
+      // most likely an unknown host
+      callback.onError(e);
+      return cancelled;
+    }
+    return request;
+  }
+
+  private void succeed(final IORequestNio request, final String url, final int modifier, final String res,
+      final IOCallback<IOMessage<String>> callback) {
+    if (!request.complete()) {
+      // cancelled while we were on our way here
+      return;
+    }
+    try {
+      if (request.getStatusCode() >= 400) {
+        // match HttpURLConnection, which throws for these
+        callback.onError(new IOException("Server returned HTTP response code: " + request.getStatusCode() + " for URL: " + url));
+        return;
+      }
+      request.setValue(res);
+      callback.onSuccess(new IOMessage<String>() {
+        @Override
+        public String body() {
+          return request.getValue();
+        }
+
+        @Override
+        public int modifier() {
+          return modifier;
+        }
+
+        @Override
+        public String url() {
+          return url;
+        }
+
+        @Override
+        public StringTo.Many<String> headers() {
+          return request.headers();
+        }
+
+        @Override
+        public int statusCode() {
+          return request.getStatusCode();
+        }
+
+        @Override
+        public String statusMessage() {
+          return request.getStatusText();
+        }
+      });
+    } catch (final Throwable t) {
+      X_Log.error(IOServiceNio.class, "Error invoking IO callback on", callback, "for request", url, t);
+      callback.onError(X_Util.unwrap(t));
+    } finally {
+      request.finish();
+    }
+  }
+
+  /**
+   * Decodes utf-8 bytes as they arrive, and splits them into lines just as {@link java.io.BufferedReader#readLine()} would.
+   */
+  private abstract static class LineDecoder implements ResponseHandler {
+    private final CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+        .onMalformedInput(CodingErrorAction.REPLACE)
+        .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    private final CharBuffer chars = CharBuffer.allocate(4096);
+    private final StringBuilder line = new StringBuilder();
+    private final LineReader lines;
+    // bytes of a character split across two reads
+    private ByteBuffer partial;
+    private boolean afterCarriageReturn;
+
+    private LineDecoder(final LineReader lines) {
+      this.lines = lines;
+    }
+
+    @Override
+    public void onBody(ByteBuffer bytes) {
+      if (partial != null) {
+        final ByteBuffer joined = ByteBuffer.allocate(partial.remaining() + bytes.remaining());
+        joined.put(partial).put(bytes).flip();
+        bytes = joined;
+        partial = null;
+      }
+      decode(bytes, false);
+      if (bytes.hasRemaining()) {
+        partial = ByteBuffer.allocate(bytes.remaining());
+        partial.put(bytes).flip();
+      }
+    }
+
+    @Override
+    public void onComplete() {
+      decode(partial == null ? ByteBuffer.allocate(0) : partial, true);
+      chars.clear();
+      decoder.flush(chars);
+      chars.flip();
+      split();
+      if (line.length() > 0) {
+        lines.onLine(line.toString());
+        line.setLength(0);
+      }
+    }
+
+    private void decode(final ByteBuffer bytes, final boolean last) {
+      while (true) {
+        chars.clear();
+        decoder.decode(bytes, chars, last);
+        chars.flip();
+        if (!chars.hasRemaining()) {
+          return;
+        }
+        split();
+      }
+    }
+
+    private void split() {
+      while (chars.hasRemaining()) {
+        final char c = chars.get();
+        if (c == '\r') {
+          lines.onLine(line.toString());
+          line.setLength(0);
+          afterCarriageReturn = true;
+        } else if (c == '\n') {
+          if (!afterCarriageReturn) {
+            lines.onLine(line.toString());
+            line.setLength(0);
+          }
+          afterCarriageReturn = false;
+        } else {
+          afterCarriageReturn = false;
+          line.append(c);
+        }
+      }
+    }
+  }
+
+}
@@ -0,0 +1,674 @@
+package xapi.jre.io;
+
+import xapi.collect.X_Collect;
+import xapi.collect.api.StringTo.Many;
+import xapi.constants.X_Namespace;
+import xapi.log.X_Log;
+import xapi.prop.X_Properties;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A small, non-blocking HTTP/1.1 client: a single selector thread drives every connection,
+ * so thousands of requests in flight cost buffers, not threads.
+ * <p>
+ * Connections are kept alive and pooled per host and port; at most
+ * {@link X_Namespace#PROPERTY_IO_CONNECTIONS} are opened to any one host, and requests beyond that wait
+ * for the next free connection. A request sent on a pooled connection which the server had already closed
+ * is retried once on a new connection, if nothing of its response was read and it is a GET.
+ * <p>
+ * Responses are framed by Content-Length, chunked encoding, or the end of the connection,
+ * and their bodies are handed to a {@link ResponseHandler} as they arrive.
+ * Handlers run on the selector thread, so they must never block; hand anything slow to another thread.
+ * <p>
+ * Only plain http is handled here; {@link IOServiceNio} sends https through {@link IOServiceDefault}.
+ */
+public class NioHttpClient {
+
+  /**
+   * Receives one response, on the selector thread; every method is called at most once, except onBody.
+   */
+  public interface ResponseHandler {
+
+    void onHead(int status, String reason, Many<String> headers);
+
+    /**
+     * @param bytes the next bytes of the body (after any chunked encoding is removed);
+     * only valid until this method returns.
+     */
+    void onBody(ByteBuffer bytes);
+
+    void onComplete();
+
+    void onError(Throwable e);
+
+  }
+
+  private static final AtomicInteger clientId = new AtomicInteger();
+  private static final int BUFFER_SIZE = 16 * 1024;
+  private static final byte[] CRLF = {'\r', '\n'};
+
+  /**
+   * One request, from when it is sent until its response is complete (or failed, or cancelled).
+   */
+  public final class Exchange {
+    private final String method;
+    private final String hostKey;
+    private final InetSocketAddress address;
+    private final byte[] bytes;
+    private final ResponseHandler handler;
+    private final long deadline;
+    private Connection connection;
+    private boolean retried;
+    private boolean done;
+
+    private Exchange(String method, String hostKey, InetSocketAddress address, byte[] bytes,
+                     ResponseHandler handler, long deadline) {
+      this.method = method;
+      this.hostKey = hostKey;
+      this.address = address;
+      this.bytes = bytes;
+      this.handler = handler;
+      this.deadline = deadline;
+    }
+
+    /**
+     * Abandon this request; its handler is not told anything more.
+     */
+    public void cancel() {
+      submit(()->{
+        if (done) {
+          return;
+        }
+        done = true;
+        final Host host = hosts.get(hostKey);
+        if (connection == null) {
+          if (host != null) {
+            host.waiting.remove(this);
+          }
+        } else {
+          // we can't know how much of the response is still coming; the connection can't be reused
+          connection.current = null;
+          connection.close();
+          connection = null;
+          dispatch(hostKey, host);
+        }
+      });
+    }
+  }
+
+  private final class Host {
+    private final ArrayDeque<Connection> idle = new ArrayDeque<>();
+    private final ArrayDeque<Exchange> waiting = new ArrayDeque<>();
+    private int open;
+  }
+
+  private enum State {
+    HEAD, FIXED, CHUNK_SIZE, CHUNK_DATA, CHUNK_END, TRAILERS, UNTIL_CLOSE, DONE
+  }
+
+  private final class Connection {
+    private final Host host;
+    private final String hostKey;
+    private final SocketChannel channel;
+    private final SelectionKey key;
+    private final ByteBuffer in = ByteBuffer.allocate(BUFFER_SIZE);
+    private final ByteArrayOutputStream line = new ByteArrayOutputStream(128);
+    private ByteBuffer out;
+    private Exchange current;
+    private boolean reused;
+    private boolean closed;
+
+    // the response being read
+    private State state;
+    private boolean readAnything;
+    private boolean keepAlive;
+    private long remaining;
+    private int status;
+    private String reason;
+    private Many<String> headers;
+    private boolean http11;
+    // the headers which frame the response
+    private String connectionHeader, transferHeader, lengthHeader;
+
+    private Connection(Host host, String hostKey, InetSocketAddress address) throws IOException {
+      this.host = host;
+      this.hostKey = hostKey;
+      channel = SocketChannel.open();
+      try {
+        channel.configureBlocking(false);
+        channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+        final boolean connected = channel.connect(address);
+        key = channel.register(selector, connected ? 0 : SelectionKey.OP_CONNECT, this);
+      } catch (IOException | RuntimeException e) {
+        channel.close();
+        throw e;
+      }
+      host.open++;
+      opened.incrementAndGet();
+    }
+
+    private void start(Exchange exchange) throws IOException {
+      current = exchange;
+      exchange.connection = this;
+      out = ByteBuffer.wrap(exchange.bytes);
+      state = State.HEAD;
+      readAnything = false;
+      line.reset();
+      if (channel.isConnected()) {
+        write();
+      }
+    }
+
+    private void write() throws IOException {
+      channel.write(out);
+      key.interestOps(out.hasRemaining() ? SelectionKey.OP_WRITE : SelectionKey.OP_READ);
+    }
+
+    private void read() throws IOException {
+      final int read = channel.read(in);
+      if (current == null) {
+        // an idle connection is only readable when the server closed it (or misbehaved)
+        close();
+        return;
+      }
+      if (read == -1) {
+        if (state == State.UNTIL_CLOSE) {
+          keepAlive = false;
+          finish();
+        } else if (!readAnything && reused && !current.retried && "GET".equals(current.method)) {
+          // the server closed this pooled connection before we used it; try once more on a fresh one
+          final Exchange retry = current;
+          retry.retried = true;
+          current = null;
+          close();
+          retry.connection = null;
+          host.waiting.addFirst(retry);
+          dispatch(hostKey, host);
+        } else {
+          throw new EOFException("Connection closed before the response was complete");
+        }
+        return;
+      }
+      if (read > 0) {
+        readAnything = true;
+        in.flip();
+        parse();
+        in.compact();
+      }
+    }
+
+    private void parse() throws IOException {
+      while (in.hasRemaining() && current != null) {
+        switch (state) {
+          case HEAD:
+          case TRAILERS:
+          case CHUNK_SIZE:
+          case CHUNK_END:
+            final String text = readLine();
+            if (text == null) {
+              return;
+            }
+            onLine(text);
+            break;
+          case FIXED:
+          case CHUNK_DATA:
+            final int count = (int) Math.min(remaining, in.remaining());
+            body(count);
+            remaining -= count;
+            if (remaining == 0) {
+              if (state == State.FIXED) {
+                finish();
+              } else {
+                state = State.CHUNK_END;
+              }
+            }
+            break;
+          case UNTIL_CLOSE:
+            body(in.remaining());
+            break;
+          default:
+            throw new IOException("Unexpected data after the response was complete");
+        }
+      }
+    }
+
+    private void body(int count) {
+      final ByteBuffer slice = in.slice();
+      slice.limit(count);
+      current.handler.onBody(slice);
+      in.position(in.position() + count);
+    }
+
+    /**
+     * @return the next line (without its line break), or null if it has not all arrived yet.
+     */
+    private String readLine() throws IOException {
+      while (in.hasRemaining()) {
+        final byte b = in.get();
+        if (b == '\n') {
+          final byte[] bytes = line.toByteArray();
+          line.reset();
+          int length = bytes.length;
+          if (length > 0 && bytes[length - 1] == '\r') {
+            length--;
+          }
+          return new String(bytes, 0, length, StandardCharsets.ISO_8859_1);
+        }
+        line.write(b);
+        if (line.size() > BUFFER_SIZE) {
+          throw new IOException("Response header line too long");
+        }
+      }
+      return null;
+    }
+
+    private void onLine(String text) throws IOException {
+      switch (state) {
+        case HEAD:
+          if (status == 0) {
+            statusLine(text);
+          } else if (text.isEmpty()) {
+            endOfHead();
+          } else {
+            final int colon = text.indexOf(':');
+            if (colon > 0) {
+              final String name = text.substring(0, colon).trim();
+              final String value = text.substring(colon + 1).trim();
+              headers.add(name, value);
+              if ("Connection".equalsIgnoreCase(name)) {
+                connectionHeader = value;
+              } else if ("Transfer-Encoding".equalsIgnoreCase(name)) {
+                transferHeader = value;
+              } else if ("Content-Length".equalsIgnoreCase(name)) {
+                lengthHeader = value;
+              }
+            }
+          }
+          break;
+        case CHUNK_SIZE:
+          final int semi = text.indexOf(';');
+          try {
+            remaining = Long.parseLong((semi == -1 ? text : text.substring(0, semi)).trim(), 16);
+          } catch (NumberFormatException e) {
+            throw new IOException("Invalid chunk size: " + text);
+          }
+          state = remaining == 0 ? State.TRAILERS : State.CHUNK_DATA;
+          break;
+        case CHUNK_END:
+          state = State.CHUNK_SIZE;
+          break;
+        case TRAILERS:
+          if (text.isEmpty()) {
+            finish();
+          }
+          break;
+        default:
+          throw new IllegalStateException(String.valueOf(state));
+      }
+    }
+
+    private void statusLine(String text) throws IOException {
+      // HTTP/1.1 200 OK
+      final int first = text.indexOf(' ');
+      if (first == -1 || !text.startsWith("HTTP/")) {
+        throw new IOException("Invalid status line: " + text);
+      }
+      final int second = text.indexOf(' ', first + 1);
+      try {
+        status = Integer.parseInt(second == -1 ? text.substring(first + 1) : text.substring(first + 1, second));
+      } catch (NumberFormatException e) {
+        throw new IOException("Invalid status line: " + text);
+      }
+      reason = second == -1 ? "" : text.substring(second + 1);
+      http11 = !text.startsWith("HTTP/1.0");
+      headers = X_Collect.newStringMultiMap(String.class);
+      connectionHeader = transferHeader = lengthHeader = null;
+    }
+
+    private void endOfHead() {
+      if (status >= 100 && status < 200) {
+        // 100 continue, or some other interim response; the real one follows
+        status = 0;
+        return;
+      }
+      keepAlive = http11 ? !"close".equalsIgnoreCase(connectionHeader) : "keep-alive".equalsIgnoreCase(connectionHeader);
+      if ("HEAD".equals(current.method) || status == 204 || status == 304) {
+        state = State.DONE;
+      } else if (transferHeader != null && transferHeader.toLowerCase().contains("chunked")) {
+        state = State.CHUNK_SIZE;
+      } else if (lengthHeader != null) {
+        remaining = Long.parseLong(lengthHeader);
+        state = remaining == 0 ? State.DONE : State.FIXED;
+      } else {
+        keepAlive = false;
+        state = State.UNTIL_CLOSE;
+      }
+      current.handler.onHead(status, reason, headers);
+      if (state == State.DONE) {
+        finish();
+      }
+    }
+
+    private void finish() {
+      final Exchange done = current;
+      current = null;
+      status = 0;
+      headers = null;
+      state = State.DONE;
+      done.done = true;
+      done.connection = null;
+      if (keepAlive && !in.hasRemaining()) {
+        reused = true;
+        key.interestOps(SelectionKey.OP_READ);
+        host.idle.addLast(this);
+      } else {
+        close();
+      }
+      try {
+        done.handler.onComplete();
+      } catch (Throwable t) {
+        X_Log.error(NioHttpClient.class, "Response handler failed", t);
+      }
+      dispatch(hostKey, host);
+    }
+
+    private void fail(Throwable e) {
+      final Exchange failed = current;
+      current = null;
+      close();
+      if (failed != null && !failed.done) {
+        failed.done = true;
+        try {
+          failed.handler.onError(e);
+        } catch (Throwable t) {
+          X_Log.error(NioHttpClient.class, "Response handler failed", t);
+        }
+      }
+      dispatch(hostKey, host);
+    }
+
+    private void close() {
+      if (closed) {
+        return;
+      }
+      closed = true;
+      host.open--;
+      host.idle.remove(this);
+      key.cancel();
+      try {
+        channel.close();
+      } catch (IOException ignored) {
+      }
+    }
+  }
+
+  private final Selector selector;
+  private final Thread thread;
+  private final ConcurrentLinkedQueue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+  private final Map<String, Host> hosts = new HashMap<>();
+  private final int maxConnections;
+  private final long timeoutMillis;
+  private final AtomicLong opened = new AtomicLong();
+  private volatile boolean running = true;
+
+  public NioHttpClient() {
+    this(
+        Integer.parseInt(X_Properties.getProperty(X_Namespace.PROPERTY_IO_CONNECTIONS, "64")),
+        Long.parseLong(X_Properties.getProperty(X_Namespace.PROPERTY_IO_TIMEOUT, "60000"))
+    );
+  }
+
+  public NioHttpClient(int maxConnectionsPerHost, long timeoutMillis) {
+    this.maxConnections = Math.max(1, maxConnectionsPerHost);
+    this.timeoutMillis = timeoutMillis;
+    try {
+      selector = Selector.open();
+    } catch (IOException e) {
+      throw new IllegalStateException("Unable to open a selector", e);
+    }
+    thread = new Thread(this::loop, "xapi-http-" + clientId.incrementAndGet());
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  /**
+   * Send a request; this never blocks, except to resolve the host name.
+   *
+   * @param headers request headers (Host, and Content-Length if there is a body, are added for you); may be null.
+   * Headers which frame the request on the wire (Host, Content-Length, Transfer-Encoding and Connection) are ignored,
+   * as HttpURLConnection ignores them.
+   * @param body the request body, or null for none.
+   * @throws IllegalArgumentException if a header name or value contains a CR or LF (or the name is not a valid token),
+   * which could otherwise inject headers, or smuggle a second request onto a pooled connection.
+   */
+  public Exchange send(String method, String host, int port, String target,
+                       Map<String, String> headers, byte[] body, ResponseHandler handler) {
+    final String hostKey = host + ":" + port;
+    final Exchange exchange = new Exchange(method, hostKey, new InetSocketAddress(host, port),
+        encode(method, host, port, target, headers, body), handler,
+        timeoutMillis > 0 ? System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis) : 0);
+    submit(()->{
+      Host pool = hosts.get(hostKey);
+      if (pool == null) {
+        pool = new Host();
+        hosts.put(hostKey, pool);
+      }
+      pool.waiting.addLast(exchange);
+      dispatch(hostKey, pool);
+    });
+    return exchange;
+  }
+
+  /**
+   * @return how many connections this client has ever opened; with keep alive working, far fewer than requests.
+   */
+  public long getConnectionsOpened() {
+    return opened.get();
+  }
+
+  /**
+   * Close every connection, and fail every request in flight.
+   */
+  public void shutdown() {
+    running = false;
+    selector.wakeup();
+  }
+
+  private void submit(Runnable task) {
+    tasks.add(task);
+    selector.wakeup();
+  }
+
+  private void dispatch(String hostKey, Host host) {
+    while (!host.waiting.isEmpty()) {
+      Connection connection = host.idle.pollLast();
+      if (connection == null && host.open >= maxConnections) {
+        return;
+      }
+      final Exchange exchange = host.waiting.pollFirst();
+      try {
+        if (connection == null) {
+          connection = new Connection(host, hostKey, exchange.address);
+        }
+        connection.start(exchange);
+      } catch (IOException | RuntimeException e) {
+        if (connection == null) {
+          exchange.done = true;
+          exchange.handler.onError(e);
+        } else {
+          connection.current = exchange;
+          connection.fail(e);
+          // fail() dispatched whatever was left
+          return;
+        }
+      }
+    }
+  }
+
+  private void loop() {
+    long nextTimeoutCheck = System.nanoTime();
+    try {
+      while (running) {
+        selector.select(1000);
+        Runnable task;
+        while ((task = tasks.poll()) != null) {
+          try {
+            task.run();
+          } catch (Throwable t) {
+            X_Log.error(NioHttpClient.class, "Http client task failed", t);
+          }
+        }
+        final Iterator<SelectionKey> selected = selector.selectedKeys().iterator();
+        while (selected.hasNext()) {
+          final SelectionKey key = selected.next();
+          selected.remove();
+          final Connection connection = (Connection) key.attachment();
+          try {
+            if (!key.isValid()) {
+              continue;
+            }
+            if (key.isConnectable()) {
+              connection.channel.finishConnect();
+              connection.write();
+            } else if (key.isWritable()) {
+              connection.write();
+            } else if (key.isReadable()) {
+              connection.read();
+            }
+          } catch (IOException | RuntimeException e) {
+            connection.fail(e);
+          }
+        }
+        final long now = System.nanoTime();
+        if (now - nextTimeoutCheck > 0) {
+          nextTimeoutCheck = now + TimeUnit.SECONDS.toNanos(1);
+          expire(now);
+        }
+      }
+    } catch (IOException | ClosedSelectorException e) {
+      X_Log.error(NioHttpClient.class, "Http client selector failed", e);
+    } finally {
+      closeAll();
+    }
+  }
+
+  private void expire(long now) {
+    for (Entry<String, Host> entry : hosts.entrySet()) {
+      final Host host = entry.getValue();
+      for (Iterator<Exchange> waiting = host.waiting.iterator(); waiting.hasNext(); ) {
+        final Exchange exchange = waiting.next();
+        if (exchange.deadline != 0 && now - exchange.deadline > 0) {
+          waiting.remove();
+          exchange.done = true;
+          exchange.handler.onError(new SocketTimeoutException("Timed out waiting for a connection"));
+        }
+      }
+    }
+    for (SelectionKey key : new ArrayList<>(selector.keys())) {
+      final Connection connection = (Connection) key.attachment();
+      final Exchange exchange = connection.current;
+      if (exchange != null && exchange.deadline != 0 && now - exchange.deadline > 0) {
+        connection.fail(new SocketTimeoutException("Timed out after " + timeoutMillis + "ms"));
+      }
+    }
+  }
+
+  private void closeAll() {
+    final IOException closed = new IOException("Http client shut down");
+    // fail the waiting requests first, so failing the connections doesn't start them
+    for (Host host : hosts.values()) {
+      for (Exchange exchange : host.waiting) {
+        exchange.done = true;
+        exchange.handler.onError(closed);
+      }
+      host.waiting.clear();
+    }
+    for (SelectionKey key : new ArrayList<>(selector.keys())) {
+      ((Connection) key.attachment()).fail(closed);
+    }
+    try {
+      selector.close();
+    } catch (IOException ignored) {
+    }
+  }
+
+  private static byte[] encode(String method, String host, int port, String target,
+                               Map<String, String> headers, byte[] body) {
+    final ByteArrayOutputStream out = new ByteArrayOutputStream(256 + (body == null ? 0 : body.length));
+    final StringBuilder head = new StringBuilder(128);
+    head.append(method).append(' ').append(target.isEmpty() ? "/" : target).append(" HTTP/1.1\r\n");
+    head.append("Host: ").append(host);
+    if (port != 80) {
+      head.append(':').append(port);
+    }
+    head.append("\r\n");
+    if (headers != null) {
+      for (Entry<String, String> header : headers.entrySet()) {
+        final String name = header.getKey();
+        final String value = header.getValue() == null ? "" : header.getValue();
+        checkHeader(name, value);
+        if (isFramingHeader(name)) {
+          continue;
+        }
+        head.append(name).append(": ").append(value).append("\r\n");
+      }
+    }
+    if (body != null) {
+      head.append("Content-Length: ").append(body.length).append("\r\n");
+    }
+    final byte[] bytes = head.toString().getBytes(StandardCharsets.ISO_8859_1);
+    out.write(bytes, 0, bytes.length);
+    out.write(CRLF, 0, CRLF.length);
+    if (body != null) {
+      out.write(body, 0, body.length);
+    }
+    return out.toByteArray();
+  }
+
+  private static void checkHeader(String name, String value) {
+    if (name == null || name.isEmpty()) {
+      throw new IllegalArgumentException("Empty header name");
+    }
+    for (int i = 0; i < name.length(); i++) {
+      final char c = name.charAt(i);
+      if (c <= ' ' || c >= 127 || c == ':') {
+        throw new IllegalArgumentException("Illegal character " + (int) c + " in header name " + name);
+      }
+    }
+    for (int i = 0; i < value.length(); i++) {
+      final char c = value.charAt(i);
+      if (c == '\r' || c == '\n') {
+        throw new IllegalArgumentException("Illegal line break in value of header " + name);
+      }
+    }
+  }
+
+  private static boolean isFramingHeader(String name) {
+    return "Host".equalsIgnoreCase(name)
+        || "Content-Length".equalsIgnoreCase(name)
+        || "Transfer-Encoding".equalsIgnoreCase(name)
+        || "Connection".equalsIgnoreCase(name);
+  }
+}
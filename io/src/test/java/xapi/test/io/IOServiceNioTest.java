@@ -0,0 +1,242 @@
+package xapi.test.io;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import xapi.collect.X_Collect;
+import xapi.collect.api.StringDictionary;
+import xapi.constants.X_Namespace;
+import xapi.io.X_IO;
+import xapi.io.api.DelegatingIOCallback;
+import xapi.io.api.IOMessage;
+import xapi.io.api.IORequest;
+import xapi.io.api.LineReader;
+import xapi.io.service.IOService;
+import xapi.jre.io.IOServiceDefault;
+import xapi.jre.io.IOServiceNio;
+import xapi.jre.io.NioHttpClient;
+import xapi.log.X_Log;
+import xapi.util.api.Pointer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class IOServiceNioTest extends IOServiceTest {
+
+  private static HttpServer server;
+  private static String base;
+
+  @BeforeClass
+  public static void startServer() throws IOException {
+    // otherwise the server waits on delayed acks between writing headers and body
+    System.setProperty("sun.net.httpserver.nodelay", "true");
+    server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 256);
+    server.setExecutor(Executors.newFixedThreadPool(8));
+    server.createContext("/hello", exchange -> respond(exchange, 200, "hello\nworld", -1));
+    server.createContext("/echo", exchange -> {
+      final String body = readBody(exchange);
+      final String header = exchange.getRequestHeaders().getFirst("X-Test");
+      respond(exchange, 200, exchange.getRequestMethod() + ":" + header + ":" + body, -1);
+    });
+    server.createContext("/chunked", exchange -> {
+      final StringBuilder b = new StringBuilder();
+      for (int i = 0; i < 1000; i++) {
+        b.append("line ").append(i).append("\r\n");
+      }
+      // a content length of zero makes the server send a chunked body
+      respond(exchange, 200, b.toString(), 0);
+    });
+    server.createContext("/missing", exchange -> respond(exchange, 404, "nope", -1));
+    server.start();
+    base = "http://127.0.0.1:" + server.getAddress().getPort();
+  }
+
+  @AfterClass
+  public static void stopServer() {
+    server.stop(0);
+    ((java.util.concurrent.ExecutorService)server.getExecutor()).shutdownNow();
+  }
+
+  private static void respond(HttpExchange exchange, int status, String body, int length) throws IOException {
+    final byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+    exchange.sendResponseHeaders(status, length == -1 ? bytes.length : length);
+    try (OutputStream out = exchange.getResponseBody()) {
+      if (length == 0) {
+        // write in small pieces, so the client sees many chunks
+        for (int i = 0; i < bytes.length; i += 100) {
+          out.write(bytes, i, Math.min(100, bytes.length - i));
+          out.flush();
+        }
+      } else {
+        out.write(bytes);
+      }
+    }
+  }
+
+  private static String readBody(HttpExchange exchange) throws IOException {
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    try (InputStream in = exchange.getRequestBody()) {
+      X_IO.drain(out, in);
+    }
+    return new String(out.toByteArray(), StandardCharsets.UTF_8);
+  }
+
+  private NioHttpClient client;
+
+  @Override
+  protected IOService service() {
+    return new IOServiceNio() {
+      @Override
+      protected NioHttpClient client() {
+        if (client == null) {
+          client = new NioHttpClient(4, 10_000);
+        }
+        return client;
+      }
+    };
+  }
+
+  @Test(timeout = 10_000)
+  public void testLocalGet() {
+    final Pointer<IOMessage<String>> result = new Pointer<>();
+    final IORequest<String> request = service().get(base + "/hello", null, new DelegatingIOCallback<>(result::set));
+    Assert.assertEquals("helloworld", request.response());
+    Assert.assertEquals(200, result.get().statusCode());
+    Assert.assertEquals("helloworld", result.get().body());
+    Assert.assertEquals("11", result.get().headers().get("Content-length").at(0));
+  }
+
+  @Test(timeout = 10_000)
+  public void testLocalPostWithHeaders() {
+    final StringDictionary<String> headers = X_Collect.newDictionary();
+    headers.setValue("X-Test", "success");
+    final Pointer<String> result = new Pointer<>();
+    final IORequest<String> request = service().post(base + "/echo", "body=sent", headers,
+        new DelegatingIOCallback<>(msg -> result.set(msg.body())));
+    request.response();
+    Assert.assertEquals("POST:success:body=sent", result.get());
+  }
+
+  @Test(timeout = 10_000)
+  public void testHeadersCannotInjectLines() {
+    for (String[] header : new String[][]{
+        {"X-Test", "ok\r\nX-Injected: yes"},
+        {"X-Test", "ok\nGET /smuggled HTTP/1.1"},
+        {"X-Test\r\nX-Injected", "yes"},
+        {"X Test", "yes"},
+    }) {
+      final StringDictionary<String> headers = X_Collect.newDictionary();
+      headers.setValue(header[0], header[1]);
+      final Pointer<Throwable> failure = new Pointer<>();
+      service().post(base + "/echo", "body=sent", headers,
+          new DelegatingIOCallback<>(msg -> Assert.fail("Sent " + header[0] + ": " + header[1]), failure::set));
+      Assert.assertTrue(String.valueOf(failure.get()), failure.get() instanceof IllegalArgumentException);
+    }
+  }
+
+  @Test(timeout = 10_000)
+  public void testFramingHeadersAreNotDuplicated() {
+    final StringDictionary<String> headers = X_Collect.newDictionary();
+    headers.setValue("X-Test", "success");
+    headers.setValue("content-length", "1");
+    headers.setValue("Host", "elsewhere");
+    final Pointer<String> result = new Pointer<>();
+    final IORequest<String> request = service().post(base + "/echo", "body=sent", headers,
+        new DelegatingIOCallback<>(msg -> result.set(msg.body())));
+    request.response();
+    Assert.assertEquals("POST:success:body=sent", result.get());
+  }
+
+  @Test(timeout = 10_000)
+  public void testChunkedLinesAreStreamed() {
+    final List<String> lines = new ArrayList<>();
+    final Pointer<String> body = new Pointer<>();
+    class Lines extends DelegatingIOCallback<IOMessage<String>> implements LineReader {
+      Lines() {
+        super(msg -> body.set(msg.body()));
+      }
+
+      @Override
+      public void onLine(String line) {
+        lines.add(line);
+      }
+    }
+    service().get(base + "/chunked", null, new Lines()).response();
+    Assert.assertEquals(1000, lines.size());
+    Assert.assertEquals("line 0", lines.get(0));
+    Assert.assertEquals("line 999", lines.get(999));
+    Assert.assertTrue(body.get().startsWith("line 0line 1line 2"));
+  }
+
+  @Test(timeout = 10_000)
+  public void testErrorStatusGoesToOnError() {
+    final Pointer<Throwable> error = new Pointer<>();
+    final Pointer<Boolean> success = new Pointer<>(false);
+    service().get(base + "/missing", null,
+        new DelegatingIOCallback<>(msg -> success.set(true), error::set)).response();
+    Assert.assertFalse(success.get());
+    Assert.assertNotNull(error.get());
+    Assert.assertTrue(error.get().getMessage(), error.get().getMessage().contains("404"));
+  }
+
+  @Test(timeout = 10_000)
+  public void testConnectionsAreReused() {
+    final IOService service = service();
+    for (int i = 0; i < 20; i++) {
+      Assert.assertEquals("helloworld", service.get(base + "/hello", null, new DelegatingIOCallback<>(msg -> {})).response());
+    }
+    Assert.assertEquals(1, client.getConnectionsOpened());
+  }
+
+  @Test(timeout = 120_000)
+  public void benchmarkConcurrentRequests() throws InterruptedException {
+    Assume.assumeTrue("Run with -D" + X_Namespace.PROPERTY_BENCHMARK + "=true", Boolean.getBoolean(X_Namespace.PROPERTY_BENCHMARK));
+    final int requests = 2_000;
+    final IOService nio = service();
+    final IOService blocking = new IOServiceDefault();
+    // warm up both, and the server
+    time(nio, 100);
+    time(blocking, 100);
+    final int threadsBefore = Thread.activeCount();
+    final long nioNanos = time(nio, requests);
+    final int nioThreads = Thread.activeCount() - threadsBefore;
+    final long blockingNanos = time(blocking, requests);
+    X_Log.info(IOServiceNioTest.class, requests, "concurrent requests; nio:", TimeUnit.NANOSECONDS.toMillis(nioNanos),
+        "ms over", client.getConnectionsOpened(), "connections, default:", TimeUnit.NANOSECONDS.toMillis(blockingNanos), "ms");
+    // every request is in flight at once, yet we only ever hold a handful of sockets
+    Assert.assertTrue("Opened " + client.getConnectionsOpened() + " connections", client.getConnectionsOpened() <= 4);
+    Assert.assertTrue("Started " + nioThreads + " threads", nioThreads < 20);
+  }
+
+  private static long time(IOService service, int requests) throws InterruptedException {
+    final CountDownLatch done = new CountDownLatch(requests);
+    final AtomicInteger failed = new AtomicInteger();
+    final long start = System.nanoTime();
+    for (int i = 0; i < requests; i++) {
+      service.get(base + "/hello", null, new DelegatingIOCallback<>(msg -> done.countDown(), e -> {
+        if (failed.incrementAndGet() == 1) {
+          X_Log.error(IOServiceNioTest.class, "Request failed", e);
+        }
+        done.countDown();
+      }));
+    }
+    Assert.assertTrue(done.await(60, TimeUnit.SECONDS));
+    Assert.assertEquals(0, failed.get());
+    return System.nanoTime() - start;
+  }
+
+}
@@ -4,6 +4,7 @@ import xapi.annotation.compile.MagicMethod;
 import xapi.annotation.inject.SingletonOverride;
 import xapi.collect.X_Collect;
 import xapi.collect.api.ClassTo;
+import xapi.collect.api.IntTo;
 import xapi.collect.api.StringDictionary;
 import xapi.dev.source.CharBuffer;
 import xapi.except.NotConfiguredCorrectly;
@@ -11,10 +12,14 @@ import xapi.fu.Out1;
 import xapi.fu.itr.MappedIterable;
 import xapi.io.X_IO;
 import xapi.io.api.DelegatingIOCallback;
+import xapi.io.api.IOMessage;
 import xapi.log.X_Log;
 import xapi.model.X_Model;
 import xapi.model.api.*;
 import xapi.model.impl.AbstractModelService;
+import xapi.model.tools.ClusteringPrimitiveDeserializer;
+import xapi.model.tools.ClusteringPrimitiveSerializer;
+import xapi.model.tools.ClusteringStringPool;
 import xapi.model.tools.ModelSerializerDefault;
 import xapi.model.service.ModelService;
 import xapi.platform.GwtPlatform;
@@ -40,7 +45,15 @@ public class ModelServiceGwt extends AbstractModelService
 
   public static String REGISTER_CREATOR_METHOD = "registerCreator";
 
+  // see xapi.server.model.ModelPersistServlet
+  private static final String HEADER_POOL = "X-Model-Pool";
+  private static final String HEADER_POOL_ACK = "X-Model-Pool-Ack";
+
   private static Class<? extends Model> implClassRef;
+
+  private ClusteringStringPool pool;
+  private String poolId;
+
   public static <M extends Model> String registerCreator(final Class<M> cls, final String type, final Class<? extends M> implClass, final ProvidesValue<M> provider) {
     PROVIDERS.put(cls, provider);
     implClassRef = implClass;
@@ -121,12 +134,64 @@ public class ModelServiceGwt extends AbstractModelService
     final StringDictionary<String> headers = X_Collect.newDictionary();
     headers.setValue("X-Model-Type", model.getType());
     X_Log.warn(ModelServiceGwt.class, this, model);
-    final CharBuffer serialized = serialize(type, model);
+    final ClusteringStringPool pool = usePool(headers);
+    final CharBuffer serialized;
+    if (pool == null) {
+      serialized = serialize(type, model);
+    } else {
+      serialized = new CharBuffer();
+      serialize(type, model, serialized, new ClusteringPrimitiveSerializer(primitiveSerializer(), serialized, pool));
+    }
     X_IO.getIOService().post(url, serialized.toString(), headers, new DelegatingIOCallback<>(
             resp -> {
-      final M deserialized = deserialize(type, new StringCharIterator(resp.body()));
+      final M deserialized = readResponse(typeToClass(type), pool, resp);
       callback.onSuccess(deserialized);
-    }, DelegatingIOCallback.failHandler(callback)));
+    }, failure -> {
+      forgetPool(pool);
+      DelegatingIOCallback.failHandler(callback).onError(failure);
+    }));
+  }
+
+  /**
+   * Return false to send every type name and key in full, on every request;
+   * otherwise, they are pooled with the server (see ClusteringStringPool) and sent once.
+   */
+  protected boolean isStringPooling() {
+    return true;
+  }
+
+  private ClusteringStringPool usePool(final StringDictionary<String> headers) {
+    if (!isStringPooling()) {
+      return null;
+    }
+    if (pool == null) {
+      pool = new ClusteringStringPool();
+      // requests may fail; only reuse strings the server has acknowledged
+      pool.setAutoAcknowledge(false);
+      poolId = System.currentTimeMillis() + "-" + (int)(Math.random() * Integer.MAX_VALUE);
+    }
+    headers.setValue(HEADER_POOL, poolId);
+    headers.setValue(HEADER_POOL_ACK, Integer.toString(pool.getReceivedThrough()));
+    return pool;
+  }
+
+  private void forgetPool(final ClusteringStringPool failed) {
+    // we can't tell whether the server still agrees with our pool, so we start a new one
+    if (failed != null && failed == pool) {
+      pool = null;
+    }
+  }
+
+  private <M extends Model> M readResponse(final Class<M> type, final ClusteringStringPool pool, final IOMessage<String> resp) {
+    final StringCharIterator chars = new StringCharIterator(resp.body());
+    if (pool == null) {
+      return deserialize(type, chars);
+    }
+    final IntTo<String> ack = resp.headers().get(HEADER_POOL_ACK);
+    if (ack != null && ack.size() > 0) {
+      pool.acknowledge(Integer.parseInt(ack.at(0)));
+    }
+    return deserialize(type, chars, new ClusteringPrimitiveDeserializer(primitiveSerializer(), chars, pool));
   }
 
   @Override
@@ -161,11 +226,13 @@ public class ModelServiceGwt extends AbstractModelService
     // THIS DOESN'T TAKE PARENT KEYS INTO ACCOUNT!
     final String id = primitives.serializeInt(modelKey.getKeyType()) + modelKey.getId();
     final String serialized = "/" + ns + "/"+kind+"/"+id;
+    final ClusteringStringPool pool = usePool(headers);
     X_IO.getIOService().get(url+serialized, headers, new DelegatingIOCallback<>(resp -> {
       X_Log.error("Got response! "+resp.body());
-      final M deserialized = deserialize(type, new StringCharIterator(resp.body()));
+      final M deserialized = readResponse(type, pool, resp);
       callback.onSuccess(deserialized);
     }, f-> {
+      forgetPool(pool);
       X_Log.error(ModelServiceGwt.class, "Load of ", type, modelKey, "failed", f);
       if (callback instanceof ErrorHandler) {
         ((ErrorHandler) callback).onError(f);
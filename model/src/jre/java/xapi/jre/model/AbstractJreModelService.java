@@ -1,10 +1,13 @@
 package xapi.jre.model;
 
+import xapi.annotation.model.KeyOnly;
 import xapi.bytecode.impl.BytecodeAdapterService;
 import xapi.collect.X_Collect;
 import xapi.collect.api.ClassTo;
+import xapi.constants.X_Namespace;
 import xapi.collect.api.Dictionary;
 import xapi.collect.api.IntTo;
+import xapi.dev.source.CharBuffer;
 import xapi.except.NotYetImplemented;
 import xapi.fu.*;
 import xapi.fu.data.MapLike;
@@ -16,16 +19,21 @@ import xapi.model.api.ModelManifest.MethodData;
 import xapi.model.impl.AbstractModel;
 import xapi.model.impl.AbstractModelService;
 import xapi.model.impl.ModelUtil;
+import xapi.model.tools.ModelSerializerDefault;
+import xapi.prop.X_Properties;
 import xapi.reflect.X_Reflect;
 import xapi.debug.X_Debug;
 import xapi.util.api.RemovalHandler;
 import xapi.util.api.SuccessHandler;
 
 import javax.inject.Provider;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.lang.reflect.Array;
 import java.lang.reflect.InvocationHandler;
 import java.lang.reflect.Method;
 import java.lang.reflect.Proxy;
+import java.nio.ByteBuffer;
 import java.util.Iterator;
 import java.util.Map.Entry;
 import java.util.Objects;
@@ -134,6 +142,8 @@ public abstract class AbstractJreModelService extends AbstractModelService {
             values.removeValue((String)args[0]);
             return proxy;
           }
+        case "hasProperty":
+          return values.hasKey((String)args[0]);
         case "getType":
           return manifest.getType();
         case "onChange":
@@ -387,6 +397,7 @@ public abstract class AbstractJreModelService extends AbstractModelService {
   private final ClassTo<Out1<Object>> modelFactories;
   private final ClassTo<In2Out1<ModelManifest, MethodData, Object>> defaultValueProvider;
   private final ClassTo<ModelManifest> modelManifests;
+  private final ModelSerializerBinary<Model> binarySerializer = new ModelSerializerBinary<>();
 
   @SuppressWarnings("unchecked")
   protected AbstractJreModelService() {
@@ -418,14 +429,29 @@ public abstract class AbstractJreModelService extends AbstractModelService {
     return model;
   }
 
+  /**
+   * Models are instances of a class generated from their manifest (see {@link ModelClassGenerator}),
+   * with a field per property, unless {@link X_Namespace#PROPERTY_MODEL_GENERATED} is false,
+   * or the interface has methods the generator cannot implement; then, or while a {@link ModelModule}
+   * supplies the manifests, they are proxies handled by a {@link ModelInvocationHandler}.
+   */
   @SuppressWarnings("unchecked")
   protected <M extends Model> Out1<M> createModelFactory(final Class<M> modelClass) {
     // TODO: check for an X_Inject interface definition and prefer that, if possible...
     if (modelClass.isInterface()) {
-      return ()-> (M) Proxy.newProxyInstance(
+      final Out1<M> proxies = ()-> (M) Proxy.newProxyInstance(
               Thread.currentThread().getContextClassLoader(),
               new Class<?>[]{modelClass}, newInvocationHandler(modelClass)
           );
+      if (!useGeneratedModels()) {
+        return proxies;
+      }
+      final Lazy<Out1<M>> generated = Lazy.deferred1(()->{
+        final Out1<M> factory = ModelClassGenerator.generate(this, modelClass, getOrMakeModelManifest(modelClass));
+        return factory == null ? proxies : factory;
+      });
+      // a module's manifest may differ from the one we generate from; those models stay proxies
+      return ()-> getModelModule() == null ? generated.out1().out1() : proxies.out1();
 
     } else {
       // The type is not an interface.  We are boned.
@@ -435,6 +461,10 @@ public abstract class AbstractJreModelService extends AbstractModelService {
   }
 
 
+  protected boolean useGeneratedModels() {
+    return !"false".equals(X_Properties.getProperty(X_Namespace.PROPERTY_MODEL_GENERATED));
+  }
+
   protected InvocationHandler newInvocationHandler(final Class<? extends Model> modelClass) {
     return new ModelInvocationHandler(modelClass);
   }
@@ -476,6 +506,83 @@ public abstract class AbstractJreModelService extends AbstractModelService {
     return modelManifests.get(typeToClass(type));
   }
 
+  /**
+   * @return A binary serializer for the given type, or null if the type has a custom serializer
+   * which only knows the text format.
+   */
+  @SuppressWarnings("unchecked")
+  protected <M extends Model> ModelSerializerBinary<M> getBinarySerializer(final String type) {
+    final ModelSerializer<M> serializer = getSerializer(type);
+    if (serializer instanceof ModelSerializerBinary) {
+      return (ModelSerializerBinary<M>) serializer;
+    }
+    if (serializer.getClass() == ModelSerializerDefault.class) {
+      return (ModelSerializerBinary<M>) binarySerializer;
+    }
+    return null;
+  }
+
+  public boolean supportsBinary(final String type) {
+    return getBinarySerializer(type) != null;
+  }
+
+  public <M extends Model> ByteBuffer serializeBinary(final String type, final M model) {
+    if (model == null) {
+      return null;
+    }
+    return requireBinary(type).modelToBytes(getModelType(model), model, binaryContext(findManifest(type)));
+  }
+
+  public <M extends Model> ByteBuffer serializeBinary(final ModelManifest manifest, final M model) {
+    if (model == null) {
+      return null;
+    }
+    return requireBinary(manifest.getType()).modelToBytes(manifest.getModelType(), model, binaryContext(manifest));
+  }
+
+  public <M extends Model> void serializeBinary(final ModelManifest manifest, final M model, final OutputStream out) throws IOException {
+    requireBinary(manifest.getType()).modelToStream(manifest.getModelType(), model, binaryContext(manifest), out);
+  }
+
+  public <M extends Model> M deserializeBinary(final Class<M> cls, final ByteBuffer bytes) {
+    if (bytes == null) {
+      return null;
+    }
+    final ModelDeserializationContext context = new ModelDeserializationContext(doCreate(cls), this, findManifest(cls));
+    context.setClientToServer(isClientToServer());
+    if (cls.getAnnotation(KeyOnly.class) != null) {
+      context.setKeyOnly(true);
+    }
+    return this.<M>requireBinary(getTypeName(cls)).modelFromBytes(cls, bytes, context);
+  }
+
+  @SuppressWarnings("unchecked")
+  public <M extends Model> M deserializeBinary(final ModelManifest manifest, final ByteBuffer bytes) {
+    if (bytes == null) {
+      return null;
+    }
+    final Class<M> cls = (Class<M>) typeNameToClass.get(manifest.getType());
+    final ModelDeserializationContext context = new ModelDeserializationContext(create(cls), this, manifest);
+    context.setClientToServer(isClientToServer());
+    context.setKeyOnly(manifest.isKeyOnly());
+    return this.<M>requireBinary(manifest.getType()).modelFromBytes(cls, bytes, context);
+  }
+
+  private ModelSerializationContext binaryContext(final ModelManifest manifest) {
+    final ModelSerializationContext context = new ModelSerializationContext(new CharBuffer(), this, manifest);
+    context.setClientToServer(isClientToServer());
+    return context;
+  }
+
+  private <M extends Model> ModelSerializerBinary<M> requireBinary(final String type) {
+    final ModelSerializerBinary<M> serializer = getBinarySerializer(type);
+    if (serializer == null) {
+      throw new UnsupportedOperationException("Model type " + type + " has a custom serializer, " + getSerializer(type)
+          + ", which does not support the binary format");
+    }
+    return serializer;
+  }
+
   protected void rethrow(Throwable e) {
     X_Debug.rethrow(e);
   }
@@ -0,0 +1,455 @@
+package xapi.jre.model;
+
+import xapi.fu.Do;
+import xapi.fu.In2;
+import xapi.fu.In3;
+import xapi.fu.Out1;
+import xapi.fu.data.MapLike;
+import xapi.fu.data.SetLike;
+import xapi.fu.itr.MappedIterable;
+import xapi.fu.java.X_Jdk;
+import xapi.model.api.Model;
+import xapi.model.api.ModelKey;
+import xapi.model.api.ModelManifest;
+import xapi.model.impl.AbstractModel;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+
+/**
+ * The superclass of the model classes {@link ModelClassGenerator} writes for each model interface.
+ * <p>
+ * A generated class has one typed field per property of its {@link ModelManifest}, and implements the interface's
+ * getters and setters by reading and writing those fields directly; this class implements everything else,
+ * in terms of {@link #readIndex(int)} and {@link #writeIndex(int, Object)}, which the generated class implements
+ * with a switch over the index of each property in {@link ModelManifest#getPropertyNames()}.
+ * <p>
+ * Change listeners, and values for keys which are not properties of the manifest, are only allocated when used,
+ * so an instance costs little more than its fields.
+ */
+public abstract class GeneratedModel implements Model {
+
+  /**
+   * Everything instances of one generated class share: the manifest, the index of each property,
+   * and how to fill in default values.
+   */
+  protected static final class Layout {
+
+    private final AbstractJreModelService service;
+    private final ModelManifest manifest;
+    private final String[] names;
+    private final Class<?>[] types;
+    private final Map<String, Integer> indices;
+
+    Layout(AbstractJreModelService service, ModelManifest manifest) {
+      this.service = service;
+      this.manifest = manifest;
+      this.names = manifest.getPropertyNames();
+      this.types = new Class<?>[names.length];
+      this.indices = new HashMap<>();
+      for (int i = 0; i < names.length; i++) {
+        types[i] = manifest.getMethodData(names[i]).getType();
+        indices.put(names[i], i);
+      }
+    }
+
+    ModelManifest getManifest() {
+      return manifest;
+    }
+
+    String[] getNames() {
+      return names;
+    }
+
+    Class<?>[] getTypes() {
+      return types;
+    }
+
+    int indexOf(String name) {
+      final Integer index = indices.get(name);
+      return index == null ? -1 : index;
+    }
+  }
+
+  private final Layout layout;
+  private ModelKey key;
+  // all lazy; most models never have listeners, or values outside of their manifest
+  private MapLike<String, In3<String, Object, Object>> callbacks;
+  private SetLike<In3<String, Object, Object>> globalChange;
+  private Map<String, Object> extras;
+  // one bit per property that has been set (and not removed since), as a field cannot tell zero from unset;
+  // the bits past 64 are only allocated for models that have that many properties
+  private long present;
+  private long[] presentHigh;
+
+  protected GeneratedModel(Layout layout) {
+    this.layout = layout;
+  }
+
+  protected final Layout getLayout() {
+    return layout;
+  }
+
+  /**
+   * @return a new, empty instance of the same generated class; much cheaper than reflection.
+   */
+  protected abstract GeneratedModel newInstance();
+
+  /**
+   * @return the value of the property at this index, boxed; null for an unset reference.
+   */
+  protected abstract Object readIndex(int index);
+
+  /**
+   * Store a value in the property at this index, without firing any change events;
+   * a null value sets a primitive property to zero.
+   *
+   * @return the previous value, boxed.
+   */
+  protected abstract Object writeIndex(int index, Object value);
+
+  /**
+   * Called by generated getters when a reference property is null; fills in the same default values
+   * as the proxy based models did (empty arrays, collections for collection types), storing them for next time.
+   */
+  protected final Object defaultValue(int index) {
+    final Class<?> type = layout.types[index];
+    if (type.isPrimitive()) {
+      return AbstractModel.getPrimitiveValue(type);
+    }
+    return layout.service.getDefaultValueProvider(layout.manifest, this::storeDefault).io(layout.names[index]);
+  }
+
+  private void storeDefault(String name, Object value) {
+    final int index = layout.indexOf(name);
+    if (index == -1) {
+      extras().put(name, value);
+    } else {
+      writeIndex(index, value);
+      markSet(index);
+    }
+  }
+
+  /**
+   * Called by generated setters (and everything else that stores a value), so {@link #hasProperty(String)}
+   * answers like the proxy based models do: a property is present once set, even to zero, until it is removed.
+   */
+  protected final void markSet(int index) {
+    if (index < 64) {
+      present |= 1L << index;
+    } else {
+      if (presentHigh == null) {
+        presentHigh = new long[(layout.names.length - 1) >> 6];
+      }
+      presentHigh[(index >> 6) - 1] |= 1L << index;
+    }
+  }
+
+  /**
+   * Called by generated removers.
+   */
+  protected final void markUnset(int index) {
+    if (index < 64) {
+      present &= ~(1L << index);
+    } else if (presentHigh != null) {
+      presentHigh[(index >> 6) - 1] &= ~(1L << index);
+    }
+  }
+
+  private boolean isSet(int index) {
+    if (index < 64) {
+      return (present & 1L << index) != 0;
+    }
+    return presentHigh != null && (presentHigh[(index >> 6) - 1] & 1L << index) != 0;
+  }
+
+  /**
+   * Generated setters only box their values for {@link #fireIndexChange(int, Object, Object)} when this is true.
+   */
+  protected final boolean hasListeners() {
+    return callbacks != null || globalChange != null;
+  }
+
+  protected final void fireIndexChange(int index, Object was, Object is) {
+    if (!Objects.equals(was, is)) {
+      invokeCallbacks(layout.names[index], was, is);
+    }
+  }
+
+  private void invokeCallbacks(final String key, final Object was, final Object is) {
+    if (callbacks != null) {
+      callbacks.getMaybe(key).readIfPresent(cb -> cb.in(key, was, is));
+    }
+    if (globalChange != null) {
+      for (In3<String, Object, Object> callback : globalChange) {
+        callback.in(key, was, is);
+      }
+    }
+  }
+
+  private Map<String, Object> extras() {
+    if (extras == null) {
+      extras = new LinkedHashMap<>();
+    }
+    return extras;
+  }
+
+  @Override
+  @SuppressWarnings("unchecked")
+  public <T> T getProperty(String key) {
+    final int index = layout.indexOf(key);
+    if (index == -1) {
+      return extras == null ? null : (T) extras.get(key);
+    }
+    final Object value = readIndex(index);
+    return (T) (value == null ? defaultValue(index) : value);
+  }
+
+  @Override
+  @SuppressWarnings("unchecked")
+  public <T> T getProperty(String key, T dflt) {
+    final int index = layout.indexOf(key);
+    Object value = index == -1 ? extras == null ? null : extras.get(key) : readIndex(index);
+    if (value == null) {
+      value = dflt;
+    }
+    if (value == null && index != -1) {
+      value = defaultValue(index);
+    }
+    return (T) value;
+  }
+
+  @Override
+  @SuppressWarnings("unchecked")
+  public <T> T getProperty(String key, Out1<T> dflt) {
+    final int index = layout.indexOf(key);
+    Object value = index == -1 ? extras == null ? null : extras.get(key) : readIndex(index);
+    if (value == null) {
+      value = dflt.out1();
+    }
+    if (value == null && index != -1) {
+      value = defaultValue(index);
+    }
+    return (T) value;
+  }
+
+  /**
+   * Like the proxy based models, a property is present once it has been set (to anything, even zero or null),
+   * until it is removed.
+   */
+  @Override
+  public boolean hasProperty(String key) {
+    final int index = layout.indexOf(key);
+    if (index == -1) {
+      return extras != null && extras.containsKey(key);
+    }
+    return isSet(index);
+  }
+
+  @Override
+  public Class<?> getPropertyType(String key) {
+    return layout.manifest.getMethodData(key).getType();
+  }
+
+  @Override
+  public String[] getPropertyNames() {
+    return layout.names;
+  }
+
+  /**
+   * Entries read their value when asked for it; walking the names boxes nothing.
+   */
+  @Override
+  public MappedIterable<Entry<String, Object>> getProperties() {
+    return () -> new Iterator<Entry<String, Object>>() {
+      int pos;
+
+      @Override
+      public boolean hasNext() {
+        return pos < layout.names.length;
+      }
+
+      @Override
+      public Entry<String, Object> next() {
+        if (pos >= layout.names.length) {
+          throw new NoSuchElementException();
+        }
+        return new PropertyEntry(pos++);
+      }
+    };
+  }
+
+  private final class PropertyEntry implements Entry<String, Object> {
+    private final int index;
+
+    private PropertyEntry(int index) {
+      this.index = index;
+    }
+
+    @Override
+    public String getKey() {
+      return layout.names[index];
+    }
+
+    @Override
+    public Object getValue() {
+      final Object value = readIndex(index);
+      return value == null ? defaultValue(index) : value;
+    }
+
+    @Override
+    public Object setValue(Object value) {
+      final Object was = writeIndex(index, value);
+      markSet(index);
+      fireIndexChange(index, was, value);
+      return was;
+    }
+
+    @Override
+    public String toString() {
+      return getKey() + "=" + getValue();
+    }
+  }
+
+  @Override
+  public Model setProperty(String key, Object value) {
+    final int index = layout.indexOf(key);
+    if (index == -1) {
+      final Object was = extras().put(key, value);
+      if (!Objects.equals(was, value)) {
+        invokeCallbacks(key, was, value);
+      }
+    } else {
+      final Object was = writeIndex(index, value);
+      markSet(index);
+      fireIndexChange(index, was, value);
+    }
+    return this;
+  }
+
+  @Override
+  public Model removeProperty(String key) {
+    final int index = layout.indexOf(key);
+    if (index == -1) {
+      if (extras != null) {
+        extras.remove(key);
+      }
+    } else {
+      writeIndex(index, null);
+      markUnset(index);
+    }
+    return this;
+  }
+
+  @Override
+  public void clear() {
+    for (int i = 0; i < layout.names.length; i++) {
+      writeIndex(i, null);
+    }
+    present = 0;
+    presentHigh = null;
+    extras = null;
+  }
+
+  @Override
+  @SuppressWarnings({"unchecked", "rawtypes"})
+  public synchronized void onChange(String key, In2<Object, Object> callback) {
+    final Object listener = callback;
+    final In3 asIn3 = listener instanceof In2 ? ((In2) listener).ignore1() :
+        listener instanceof In3 ? (In3) listener : null;
+    if (asIn3 == null) {
+      throw new IllegalArgumentException("Illegal onChange method argument " + callback + " not castable to In2; use In2.ignoreAll() instead of null");
+    }
+    if (callbacks == null) {
+      callbacks = X_Jdk.mapHash();
+    }
+    callbacks.computeValue(key, was -> was == null ? asIn3 : was.useAfterMe(asIn3));
+  }
+
+  @Override
+  public void fireChangeEvent(String key, Object was, Object value) {
+    if (was != value) {
+      invokeCallbacks(key, was, value);
+    }
+  }
+
+  @Override
+  public synchronized Do onGlobalChange(In3<String, Object, Object> callback) {
+    if (globalChange == null) {
+      globalChange = X_Jdk.setLinked();
+    }
+    final SetLike<In3<String, Object, Object>> listeners = globalChange;
+    listeners.add(callback);
+    return Do.of(() -> listeners.remove(callback));
+  }
+
+  @Override
+  public ModelKey getKey() {
+    return key;
+  }
+
+  @Override
+  public void setKey(ModelKey key) {
+    this.key = key;
+  }
+
+  @Override
+  public String getType() {
+    return layout.manifest.getType();
+  }
+
+  @Override
+  public int hashCode() {
+    return AbstractModel.hashCodeForModel(this);
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    return AbstractModel.equalsForModel(this, obj);
+  }
+
+  @Override
+  public String toString() {
+    return AbstractModel.toStringForModel(this);
+  }
+
+  // Used by generated code to unbox what callers give to setProperty; null becomes zero, like an unset field.
+
+  protected static boolean toBoolean(Object value) {
+    return value != null && (Boolean) value;
+  }
+
+  protected static char toChar(Object value) {
+    return value == null ? 0 : (Character) value;
+  }
+
+  protected static byte toByte(Object value) {
+    return value == null ? 0 : ((Number) value).byteValue();
+  }
+
+  protected static short toShort(Object value) {
+    return value == null ? 0 : ((Number) value).shortValue();
+  }
+
+  protected static int toInt(Object value) {
+    return value == null ? 0 : ((Number) value).intValue();
+  }
+
+  protected static long toLong(Object value) {
+    return value == null ? 0 : ((Number) value).longValue();
+  }
+
+  protected static float toFloat(Object value) {
+    return value == null ? 0 : ((Number) value).floatValue();
+  }
+
+  protected static double toDouble(Object value) {
+    return value == null ? 0 : ((Number) value).doubleValue();
+  }
+
+}
@@ -0,0 +1,695 @@
+package xapi.jre.model;
+
+import xapi.bytecode.Bytecode;
+import xapi.bytecode.ClassFile;
+import xapi.bytecode.ConstPool;
+import xapi.bytecode.FieldInfo;
+import xapi.bytecode.MethodInfo;
+import xapi.bytecode.api.Opcode;
+import xapi.fu.Out1;
+import xapi.log.X_Log;
+import xapi.model.api.Model;
+import xapi.model.api.ModelManifest;
+import xapi.model.api.ModelManifest.MethodData;
+import xapi.model.api.ModelMethodType;
+import xapi.model.impl.ModelUtil;
+import xapi.source.util.X_Modifier;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Writes a concrete class for a model interface, with one typed field per property of its {@link ModelManifest},
+ * and getters and setters which read and write those fields directly, so the jit can inline them like any other
+ * accessor; see {@link GeneratedModel} for everything the generated class inherits.
+ * <p>
+ * Classes are written with {@link xapi.bytecode} as java 5 class files (so need no stack maps),
+ * and defined in a child of the model interface's classloader.
+ * <p>
+ * Interfaces with methods we do not know how to implement (check-and-set methods, adders, non-public types...)
+ * are left to the {@link java.lang.reflect.Proxy} based models; {@link #generate(AbstractJreModelService, Class, ModelManifest)}
+ * returns null for them.
+ */
+final class ModelClassGenerator {
+
+  private static final String BASE = jvmName(GeneratedModel.class);
+  private static final String LAYOUT_DESC = descriptor(GeneratedModel.Layout.class);
+  private static final String OBJECT_DESC = "Ljava/lang/Object;";
+  private static final String SUFFIX = "$Fields";
+
+  private static final class Loader extends ClassLoader {
+
+    private Loader(ClassLoader parent) {
+      super(parent);
+    }
+
+    @Override
+    protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+      try {
+        return super.loadClass(name, resolve);
+      } catch (ClassNotFoundException e) {
+        // the model's loader may not see us, when models come from a child of the loader which loaded xapi
+        return GeneratedModel.class.getClassLoader().loadClass(name);
+      }
+    }
+
+    private Class<?> define(String name, byte[] bytes) {
+      return defineClass(name, bytes, 0, bytes.length);
+    }
+  }
+
+  /**
+   * Thrown while writing a class, when the interface has a method we leave to the proxy based models.
+   */
+  private static final class Unsupported extends Exception {
+    private Unsupported(String message) {
+      super(message, null, false, false);
+    }
+  }
+
+  private final Class<? extends Model> modelClass;
+  private final ModelManifest manifest;
+  private final GeneratedModel.Layout layout;
+  private final String name;
+  private final ClassFile file;
+  private final ConstPool cp;
+  private final String[] fields;
+  private final Class<?>[] types;
+
+  private ModelClassGenerator(AbstractJreModelService service, Class<? extends Model> modelClass, ModelManifest manifest) {
+    this.modelClass = modelClass;
+    this.manifest = manifest;
+    this.layout = new GeneratedModel.Layout(service, manifest);
+    this.name = modelClass.getName() + SUFFIX;
+    this.file = new ClassFile(false, name, GeneratedModel.class.getName());
+    this.cp = file.getConstPool();
+    this.types = layout.getTypes();
+    this.fields = fieldNames(layout.getNames());
+  }
+
+  /**
+   * @return a factory for instances of a generated class implementing the model interface,
+   * or null if we cannot implement it.
+   */
+  @SuppressWarnings("unchecked")
+  static <M extends Model> Out1<M> generate(AbstractJreModelService service, Class<M> modelClass, ModelManifest manifest) {
+    final ModelClassGenerator generator = new ModelClassGenerator(service, modelClass, manifest);
+    final byte[] bytes;
+    try {
+      bytes = generator.write();
+    } catch (Unsupported e) {
+      X_Log.trace(ModelClassGenerator.class, "Using proxies for", modelClass, ";", e.getMessage());
+      return null;
+    }
+    try {
+      final Class<?> cls = new Loader(modelClass.getClassLoader()).define(generator.name, bytes);
+      final GeneratedModel prototype = (GeneratedModel) cls.getConstructor(GeneratedModel.Layout.class)
+          .newInstance(generator.layout);
+      return () -> (M) prototype.newInstance();
+    } catch (ReflectiveOperationException | LinkageError | SecurityException e) {
+      X_Log.warn(ModelClassGenerator.class, "Unable to define a generated class for", modelClass, "; using proxies", e);
+      return null;
+    }
+  }
+
+  private byte[] write() throws Unsupported {
+    if (!isAccessible(modelClass)) {
+      throw new Unsupported(modelClass + " is not public");
+    }
+    for (Class<?> type : types) {
+      if (!isAccessible(type)) {
+        throw new Unsupported("property type " + type + " is not public");
+      }
+    }
+    file.setAccessFlags(X_Modifier.PUBLIC | X_Modifier.FINAL);
+    file.setInterfaces(new String[]{modelClass.getName()});
+    for (int i = 0; i < fields.length; i++) {
+      final FieldInfo field = new FieldInfo(cp, fields[i], descriptor(types[i]));
+      field.setAccessFlags(X_Modifier.PRIVATE);
+      file.addField(field);
+    }
+    writeConstructor();
+    writeNewInstance();
+    writeReadIndex();
+    writeWriteIndex();
+    for (List<Method> overloads : abstractMethods().values()) {
+      writeMethods(overloads);
+    }
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (DataOutputStream out = new DataOutputStream(bytes)) {
+      file.write(out);
+    } catch (IOException e) {
+      throw new IllegalStateException("Unable to write class " + name, e);
+    }
+    return bytes.toByteArray();
+  }
+
+  private void writeConstructor() {
+    final Bytecode code = new Bytecode(cp, 2, 2);
+    code.addAload(0);
+    code.addAload(1);
+    code.addInvokespecial(BASE, "<init>", "(" + LAYOUT_DESC + ")V");
+    code.addOpcode(Opcode.RETURN);
+    addMethod(X_Modifier.PUBLIC, "<init>", "(" + LAYOUT_DESC + ")V", code);
+  }
+
+  private void writeNewInstance() {
+    final Bytecode code = new Bytecode(cp, 3, 1);
+    code.addNew(name);
+    code.addOpcode(Opcode.DUP);
+    code.addAload(0);
+    code.addInvokevirtual(name, "getLayout", "()" + LAYOUT_DESC);
+    code.addInvokespecial(name, "<init>", "(" + LAYOUT_DESC + ")V");
+    code.addOpcode(Opcode.ARETURN);
+    addMethod(X_Modifier.PROTECTED, "newInstance", "()" + descriptor(GeneratedModel.class), code);
+  }
+
+  private void writeReadIndex() {
+    final Bytecode code = new Bytecode(cp, 3, 2);
+    final int[] cases = tableswitch(code);
+    for (int i = 0; i < fields.length; i++) {
+      cases[i] = code.currentPc();
+      getField(code, i);
+      box(code, types[i]);
+      code.addOpcode(Opcode.ARETURN);
+    }
+    cases[fields.length] = code.currentPc();
+    code.addOpcode(Opcode.ACONST_NULL);
+    code.addOpcode(Opcode.ARETURN);
+    patchTableswitch(code, cases);
+    addMethod(X_Modifier.PROTECTED, "readIndex", "(I)" + OBJECT_DESC, code);
+  }
+
+  private void writeWriteIndex() {
+    final Bytecode code = new Bytecode(cp, 4, 4);
+    final int[] cases = tableswitch(code);
+    for (int i = 0; i < fields.length; i++) {
+      cases[i] = code.currentPc();
+      getField(code, i);
+      box(code, types[i]);
+      code.addAstore(3);
+      code.addAload(0);
+      code.addAload(2);
+      unbox(code, types[i]);
+      code.addPutfield(name, fields[i], descriptor(types[i]));
+      code.addAload(3);
+      code.addOpcode(Opcode.ARETURN);
+    }
+    cases[fields.length] = code.currentPc();
+    code.addOpcode(Opcode.ACONST_NULL);
+    code.addOpcode(Opcode.ARETURN);
+    patchTableswitch(code, cases);
+    addMethod(X_Modifier.PROTECTED, "writeIndex", "(I" + OBJECT_DESC + ")" + OBJECT_DESC, code);
+  }
+
+  /**
+   * @return the abstract methods of the model interface, grouped by name and parameter types;
+   * a group holds more than one method when an interface narrows the return type of another.
+   */
+  private Map<String, List<Method>> abstractMethods() {
+    final Map<String, List<Method>> abstracts = new LinkedHashMap<>();
+    final Map<String, List<Method>> defaults = new LinkedHashMap<>();
+    for (Method method : modelClass.getMethods()) {
+      if (Modifier.isStatic(method.getModifiers()) || method.isBridge()) {
+        // we write our own bridges, to the methods we implement
+        continue;
+      }
+      final String key = method.getName() + Arrays.toString(method.getParameterTypes());
+      (method.isDefault() ? defaults : abstracts).computeIfAbsent(key, k -> new ArrayList<>()).add(method);
+    }
+    // a default method implements any abstract method it overrides
+    abstracts.entrySet().removeIf(group -> {
+      final List<Method> impls = defaults.get(group.getKey());
+      return impls != null && impls.stream().anyMatch(impl -> group.getValue().stream()
+          .allMatch(method -> method.getDeclaringClass().isAssignableFrom(impl.getDeclaringClass())));
+    });
+    return abstracts;
+  }
+
+  private void writeMethods(List<Method> overloads) throws Unsupported {
+    // the method with the narrowest return type does the work; any others bridge to it
+    Method target = overloads.get(0);
+    for (Method method : overloads) {
+      if (target.getReturnType().isAssignableFrom(method.getReturnType())) {
+        target = method;
+      }
+    }
+    final Class<?>[] params = target.getParameterTypes();
+    Method inherited;
+    try {
+      inherited = GeneratedModel.class.getMethod(target.getName(), params);
+    } catch (NoSuchMethodException e) {
+      inherited = null;
+    }
+    if (inherited == null) {
+      writeAccessor(target);
+    } else if (inherited.getReturnType() != target.getReturnType()) {
+      writeBridge(target, inherited);
+    }
+    final Set<Class<?>> written = new HashSet<>();
+    written.add(target.getReturnType());
+    if (inherited != null) {
+      written.add(inherited.getReturnType());
+    }
+    for (Method method : overloads) {
+      if (written.add(method.getReturnType())) {
+        writeBridge(method, target);
+      }
+    }
+  }
+
+  private void writeAccessor(Method method) throws Unsupported {
+    final String methodName = method.getName();
+    if (!manifest.hasSeenMethod(methodName)) {
+      throw new Unsupported("unknown method " + method.toGenericString());
+    }
+    final MethodData data = manifest.getMethodData(methodName);
+    final ModelMethodType methodType = data.getMethodType(methodName);
+    final int index = layout.indexOf(data.getName());
+    final int params = method.getParameterCount();
+    if (index == -1 || methodType == null) {
+      throw new Unsupported("no property for " + method.toGenericString());
+    }
+    switch (methodType) {
+      case GET:
+      case ID:
+        if (params == 0 && method.getReturnType() != void.class) {
+          writeGetter(method, index);
+          return;
+        }
+        break;
+      case SET:
+        if (params == 1) {
+          writeSetter(method, index);
+          return;
+        }
+        break;
+      case REMOVE:
+        if (params == 0) {
+          writeRemover(method, index);
+          return;
+        }
+        break;
+      default:
+    }
+    throw new Unsupported("unsupported " + methodType + " method " + method.toGenericString());
+  }
+
+  private void writeGetter(Method method, int index) throws Unsupported {
+    final Class<?> type = types[index];
+    final Class<?> returns = method.getReturnType();
+    final Bytecode code = new Bytecode(cp, 3, 1);
+    getField(code, index);
+    if (type.isPrimitive()) {
+      if (returns != type) {
+        throw new Unsupported(method.toGenericString() + " does not return " + type);
+      }
+    } else {
+      requireCastable(method, returns, type);
+      // null references get the same default values the proxies gave them
+      code.addOpcode(Opcode.DUP);
+      final int ifNonNull = branch(code, Opcode.IFNONNULL);
+      code.addOpcode(Opcode.POP);
+      code.addAload(0);
+      code.addIconst(index);
+      code.addInvokevirtual(name, "defaultValue", "(I)" + OBJECT_DESC);
+      castFrom(code, Object.class, type);
+      land(code, ifNonNull);
+      castFrom(code, type, returns);
+    }
+    addReturn(code, returns);
+    addMethod(X_Modifier.PUBLIC, method.getName(), descriptor(method), code);
+  }
+
+  private void writeSetter(Method method, int index) throws Unsupported {
+    final Class<?> type = types[index];
+    final Class<?> param = method.getParameterTypes()[0];
+    if (type.isPrimitive() ? param != type : param.isPrimitive()) {
+      throw new Unsupported(method.toGenericString() + " does not accept " + type);
+    }
+    final int old = 1 + size(param);
+    final Bytecode code = new Bytecode(cp, 6, old + size(type));
+    getField(code, index);
+    store(code, type, old);
+    code.addAload(0);
+    load(code, param, 1);
+    castFrom(code, param, type);
+    code.addPutfield(name, fields[index], descriptor(type));
+    code.addAload(0);
+    code.addIconst(index);
+    code.addInvokevirtual(name, "markSet", "(I)V");
+    // only box for change events when someone is listening
+    code.addAload(0);
+    code.addInvokevirtual(name, "hasListeners", "()Z");
+    final int ifEq = branch(code, Opcode.IFEQ);
+    code.addAload(0);
+    code.addIconst(index);
+    load(code, type, old);
+    box(code, type);
+    load(code, param, 1);
+    box(code, param);
+    code.addInvokevirtual(name, "fireIndexChange", "(I" + OBJECT_DESC + OBJECT_DESC + ")V");
+    land(code, ifEq);
+    returnFromMutator(code, method, type, old);
+    addMethod(X_Modifier.PUBLIC, method.getName(), descriptor(method), code);
+  }
+
+  private void writeRemover(Method method, int index) throws Unsupported {
+    final Class<?> type = types[index];
+    // like the proxies, removing a value does not fire a change event
+    final Bytecode code = new Bytecode(cp, 4, 1 + size(type));
+    getField(code, index);
+    store(code, type, 1);
+    code.addAload(0);
+    zero(code, type);
+    code.addPutfield(name, fields[index], descriptor(type));
+    code.addAload(0);
+    code.addIconst(index);
+    code.addInvokevirtual(name, "markUnset", "(I)V");
+    returnFromMutator(code, method, type, 1);
+    addMethod(X_Modifier.PUBLIC, method.getName(), descriptor(method), code);
+  }
+
+  /**
+   * Setters and removers may return nothing, the model (fluent methods), or the previous value.
+   */
+  private void returnFromMutator(Bytecode code, Method method, Class<?> type, int old) throws Unsupported {
+    final Class<?> returns = method.getReturnType();
+    if (returns == void.class) {
+      code.addOpcode(Opcode.RETURN);
+      return;
+    }
+    if (ModelUtil.isFluent(method)) {
+      code.addAload(0);
+      code.addOpcode(Opcode.ARETURN);
+      return;
+    }
+    load(code, type, old);
+    if (returns.isPrimitive() || type.isPrimitive()) {
+      if (returns == type) {
+        addReturn(code, returns);
+        return;
+      }
+      if (returns.isPrimitive() || !returns.isAssignableFrom(wrapper(type))) {
+        throw new Unsupported(method.toGenericString() + " cannot return the previous " + type);
+      }
+      box(code, type);
+    } else {
+      requireCastable(method, returns, type);
+      castFrom(code, type, returns);
+    }
+    code.addOpcode(Opcode.ARETURN);
+  }
+
+  /**
+   * Implement a method by calling another of the same name and parameters, with a wider or narrower return type.
+   */
+  private void writeBridge(Method method, Method target) throws Unsupported {
+    final Class<?> returns = method.getReturnType();
+    final Class<?> targetReturns = target.getReturnType();
+    if (returns.isPrimitive() || targetReturns.isPrimitive()) {
+      throw new Unsupported("incompatible return types for " + method.toGenericString());
+    }
+    int locals = 1;
+    for (Class<?> param : method.getParameterTypes()) {
+      locals += size(param);
+    }
+    final Bytecode code = new Bytecode(cp, locals + 1, locals);
+    code.addAload(0);
+    int slot = 1;
+    for (Class<?> param : method.getParameterTypes()) {
+      load(code, param, slot);
+      slot += size(param);
+    }
+    code.addInvokevirtual(name, target.getName(), descriptor(target));
+    castFrom(code, targetReturns, returns);
+    code.addOpcode(Opcode.ARETURN);
+    addMethod(X_Modifier.PUBLIC | X_Modifier.SYNTHETIC | X_Modifier.BRIDGE, method.getName(), descriptor(method), code);
+  }
+
+  private void addMethod(int access, String methodName, String desc, Bytecode code) {
+    // our branches confuse the simple stack tracking in Bytecode, but no method we write needs more than this
+    code.setMaxStack(Math.max(code.getMaxStack(), 8));
+    final MethodInfo method = new MethodInfo(cp, methodName, desc);
+    method.setAccessFlags(access);
+    method.setCodeAttribute(code.toCodeAttribute());
+    file.addMethod(method);
+  }
+
+  private void getField(Bytecode code, int index) {
+    code.addAload(0);
+    code.addGetfield(name, fields[index], descriptor(types[index]));
+  }
+
+  /**
+   * Start a tableswitch over every property index, on the int in local 1.
+   *
+   * @return an array for the address of each case (and, last, the default), to pass to {@link #patchTableswitch}.
+   */
+  private int[] tableswitch(Bytecode code) {
+    final int[] cases = new int[fields.length + 2];
+    if (fields.length == 0) {
+      // a tableswitch needs at least one case; without any properties, everything is the default
+      cases[1] = -1;
+      return cases;
+    }
+    code.addIload(1);
+    cases[fields.length + 1] = code.currentPc();
+    code.addOpcode(Opcode.TABLESWITCH);
+    while (code.currentPc() % 4 != 0) {
+      code.add(0);
+    }
+    // default, low, high, then one offset per property
+    code.addGap(12 + 4 * fields.length);
+    return cases;
+  }
+
+  private void patchTableswitch(Bytecode code, int[] cases) {
+    final int start = cases[fields.length + 1];
+    if (start == -1) {
+      return;
+    }
+    int pos = (start + 4) & ~3;
+    code.write32bit(pos, cases[fields.length] - start);
+    code.write32bit(pos + 4, 0);
+    code.write32bit(pos + 8, fields.length - 1);
+    pos += 12;
+    for (int i = 0; i < fields.length; i++, pos += 4) {
+      code.write32bit(pos, cases[i] - start);
+    }
+  }
+
+  private static int branch(Bytecode code, int opcode) {
+    final int at = code.currentPc();
+    code.addOpcode(opcode);
+    code.addIndex(0);
+    return at;
+  }
+
+  private static void land(Bytecode code, int branch) {
+    code.write16bit(branch + 1, code.currentPc() - branch);
+  }
+
+  private static void requireCastable(Method method, Class<?> returns, Class<?> type) throws Unsupported {
+    if (returns.isPrimitive() || !(returns.isAssignableFrom(type) || type.isAssignableFrom(returns))) {
+      throw new Unsupported(method.toGenericString() + " does not return " + type);
+    }
+    if (!isAccessible(returns)) {
+      throw new Unsupported(returns + " is not public");
+    }
+  }
+
+  private static void castFrom(Bytecode code, Class<?> from, Class<?> to) {
+    if (!to.isPrimitive() && !to.isAssignableFrom(from)) {
+      code.addCheckcast(jvmName(to));
+    }
+  }
+
+  private static void box(Bytecode code, Class<?> type) {
+    if (type.isPrimitive()) {
+      final Class<?> wrapper = wrapper(type);
+      code.addInvokestatic(jvmName(wrapper), "valueOf", "(" + descriptor(type) + ")" + descriptor(wrapper));
+    }
+  }
+
+  private static void unbox(Bytecode code, Class<?> type) {
+    if (type.isPrimitive()) {
+      final String simple = type.getName();
+      final String method = "to" + Character.toUpperCase(simple.charAt(0)) + simple.substring(1);
+      code.addInvokestatic(BASE, method, "(" + OBJECT_DESC + ")" + descriptor(type));
+    } else if (type != Object.class) {
+      code.addCheckcast(jvmName(type));
+    }
+  }
+
+  private static void zero(Bytecode code, Class<?> type) {
+    if (type == long.class) {
+      code.addLconst(0);
+    } else if (type == float.class) {
+      code.addFconst(0);
+    } else if (type == double.class) {
+      code.addDconst(0);
+    } else if (type.isPrimitive()) {
+      code.addIconst(0);
+    } else {
+      code.addOpcode(Opcode.ACONST_NULL);
+    }
+  }
+
+  private static void load(Bytecode code, Class<?> type, int slot) {
+    if (type == long.class) {
+      code.addLload(slot);
+    } else if (type == float.class) {
+      code.addFload(slot);
+    } else if (type == double.class) {
+      code.addDload(slot);
+    } else if (type.isPrimitive()) {
+      code.addIload(slot);
+    } else {
+      code.addAload(slot);
+    }
+  }
+
+  private static void store(Bytecode code, Class<?> type, int slot) {
+    if (type == long.class) {
+      code.addLstore(slot);
+    } else if (type == float.class) {
+      code.addFstore(slot);
+    } else if (type == double.class) {
+      code.addDstore(slot);
+    } else if (type.isPrimitive()) {
+      code.addIstore(slot);
+    } else {
+      code.addAstore(slot);
+    }
+  }
+
+  private static void addReturn(Bytecode code, Class<?> type) {
+    if (type == void.class) {
+      code.addOpcode(Opcode.RETURN);
+    } else if (type == long.class) {
+      code.addOpcode(Opcode.LRETURN);
+    } else if (type == float.class) {
+      code.addOpcode(Opcode.FRETURN);
+    } else if (type == double.class) {
+      code.addOpcode(Opcode.DRETURN);
+    } else if (type.isPrimitive()) {
+      code.addOpcode(Opcode.IRETURN);
+    } else {
+      code.addOpcode(Opcode.ARETURN);
+    }
+  }
+
+  private static int size(Class<?> type) {
+    return type == long.class || type == double.class ? 2 : 1;
+  }
+
+  private static Class<?> wrapper(Class<?> type) {
+    if (type == boolean.class) {
+      return Boolean.class;
+    } else if (type == char.class) {
+      return Character.class;
+    } else if (type == byte.class) {
+      return Byte.class;
+    } else if (type == short.class) {
+      return Short.class;
+    } else if (type == int.class) {
+      return Integer.class;
+    } else if (type == long.class) {
+      return Long.class;
+    } else if (type == float.class) {
+      return Float.class;
+    } else if (type == double.class) {
+      return Double.class;
+    }
+    return type;
+  }
+
+  /**
+   * A class in another classloader can only use types which are public, all the way out.
+   */
+  private static boolean isAccessible(Class<?> type) {
+    while (type.isArray()) {
+      type = type.getComponentType();
+    }
+    for (Class<?> cls = type; cls != null && !cls.isPrimitive(); cls = cls.getDeclaringClass()) {
+      if (!Modifier.isPublic(cls.getModifiers())) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static String[] fieldNames(String[] properties) {
+    final String[] names = new String[properties.length];
+    final Set<String> used = new HashSet<>();
+    for (int i = 0; i < properties.length; i++) {
+      String field = properties[i];
+      if (!isIdentifier(field) || !used.add(field)) {
+        field = "property$" + i;
+        used.add(field);
+      }
+      names[i] = field;
+    }
+    return names;
+  }
+
+  private static boolean isIdentifier(String name) {
+    if (name.isEmpty() || !Character.isJavaIdentifierStart(name.charAt(0))) {
+      return false;
+    }
+    for (int i = 1; i < name.length(); i++) {
+      if (!Character.isJavaIdentifierPart(name.charAt(i))) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static String jvmName(Class<?> cls) {
+    return cls.getName().replace('.', '/');
+  }
+
+  private static String descriptor(Method method) {
+    final StringBuilder b = new StringBuilder("(");
+    for (Class<?> param : method.getParameterTypes()) {
+      b.append(descriptor(param));
+    }
+    return b.append(')').append(descriptor(method.getReturnType())).toString();
+  }
+
+  private static String descriptor(Class<?> type) {
+    if (type.isArray()) {
+      return jvmName(type);
+    } else if (type == void.class) {
+      return "V";
+    } else if (type == boolean.class) {
+      return "Z";
+    } else if (type == char.class) {
+      return "C";
+    } else if (type == byte.class) {
+      return "B";
+    } else if (type == short.class) {
+      return "S";
+    } else if (type == int.class) {
+      return "I";
+    } else if (type == long.class) {
+      return "J";
+    } else if (type == float.class) {
+      return "F";
+    } else if (type == double.class) {
+      return "D";
+    }
+    return "L" + jvmName(type) + ";";
+  }
+}
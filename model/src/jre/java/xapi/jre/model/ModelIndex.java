@@ -0,0 +1,856 @@
+package xapi.jre.model;
+
+import xapi.fu.In1Out1;
+import xapi.log.X_Log;
+import xapi.model.api.Model;
+import xapi.model.api.ModelQuery.QueryParameter;
+import xapi.model.api.ModelQuery.QueryParameterType;
+import xapi.model.api.ModelQuery.SortOption;
+import xapi.model.api.ModelQuery.SortOrder;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+/**
+ * A persistent, sorted index of the model ids stored in a single model directory
+ * (one namespace + kind + ancestor), plus optional secondary indexes of property values.
+ * <p>
+ * All ids are kept in a sorted set, and each indexed property is kept in a sorted set of (value, id) entries,
+ * so that paged queries ordered by id, or by a single indexed property, can seek straight to their cursor,
+ * rather than listing and sorting a whole directory on every page.  Such a page costs O(log n + k),
+ * where k is the number of index entries walked to fill it, including those rejected by other filters.
+ * Queries with several sort options, or whose equality filter matches no more than {@link #MAX_IN_MEMORY_SORT}
+ * models, instead collect and sort all of their matches in memory, on every page.
+ * <p>
+ * The index is persisted as a sorted log: a snapshot of every live entry, followed by appended put / delete records.
+ * When the log holds too many dead records, or a new property is indexed, we rewrite it as a fresh snapshot.
+ * A torn record at the end of the log (a crash mid-write) is ignored, and the log is rewritten on open.
+ * On open, the index is rebuilt if the ids in the directory differ from the ids in the log,
+ * or if any model file was modified after the log was last written.
+ * <p>
+ * Property values are normalized so they compare sensibly across java types:
+ * integral numbers, characters and dates become longs, floats become doubles,
+ * char sequences and enums become strings.  Any other value is indexed as null.
+ *
+ * @see ModelServiceJreIndexed
+ */
+public class ModelIndex {
+
+  static final String INDEX_FILE = "_xapi.index";
+
+  private static final byte OP_PUT = 1, OP_DELETE = 2, OP_PROPERTIES = 3;
+  private static final byte TAG_NULL = 0, TAG_BOOLEAN = 1, TAG_LONG = 2, TAG_DOUBLE = 3, TAG_STRING = 4;
+
+  /**
+   * When ordering by something other than id, and there is an equality filter whose matches are no more than this,
+   * we sort the matches in memory rather than walking the (potentially much larger) sort index.
+   */
+  private static final int MAX_IN_MEMORY_SORT = 4096;
+
+  /**
+   * A single (value, id) entry in a secondary index.
+   */
+  static final class IndexEntry {
+    final Object value;
+    final String id;
+
+    IndexEntry(Object value, String id) {
+      this.value = value;
+      this.id = id;
+    }
+
+    @Override
+    public String toString() {
+      return id + "=" + value;
+    }
+  }
+
+  /**
+   * Sentinel ids, compared by identity, used to build range bounds which sort
+   * before or after every real id that has the same value.
+   */
+  @SuppressWarnings("StringOperationCanBeSimplified")
+  private static final String FIRST = new String("first"), LAST = new String("last");
+
+  private static final Comparator<IndexEntry> ENTRY_ORDER = (a, b) -> {
+    final int diff = compareValues(a.value, b.value);
+    if (diff != 0) {
+      return diff;
+    }
+    if (a.id == b.id) {
+      return 0;
+    }
+    if (a.id == FIRST || b.id == LAST) {
+      return -1;
+    }
+    if (a.id == LAST || b.id == FIRST) {
+      return 1;
+    }
+    return a.id.compareTo(b.id);
+  };
+
+  private final File directory;
+  private final File logFile;
+  private final NavigableSet<String> ids;
+  private final Map<String, Object[]> values;
+  private final Map<String, NavigableSet<IndexEntry>> secondary;
+  private volatile String[] properties;
+  private DataOutputStream log;
+  private int deadRecords;
+
+  public ModelIndex(File directory, File logFile) {
+    this.directory = directory;
+    this.logFile = logFile;
+    ids = new ConcurrentSkipListSet<>();
+    values = new ConcurrentHashMap<>();
+    secondary = new ConcurrentHashMap<>();
+    properties = new String[0];
+  }
+
+  /**
+   * Load this index from disk, rebuilding it from the model directory if the log is missing, torn or stale.
+   *
+   * @param loader Used to read the model with a given id, whenever we need property values we do not have.
+   */
+  public synchronized ModelIndex open(In1Out1<String, Model> loader) {
+    boolean rewrite = false;
+    // every put and delete appends to the log after touching the directory, so the log is never older than a model
+    final long indexedAt = logFile.lastModified();
+    if (logFile.isFile()) {
+      rewrite = !replay();
+    }
+    final String[] onDisk = directory.list((dir, name) -> new File(dir, name).isFile());
+    if (!matchesDirectory(onDisk, indexedAt)) {
+      // The index missed a write (or this is the first time we've seen this directory); rebuild it.
+      if (logFile.isFile()) {
+        X_Log.info(ModelIndex.class, "Rebuilding stale model index", logFile);
+      }
+      clearEntries();
+      if (onDisk != null) {
+        for (String id : onDisk) {
+          insert(id, readValues(id, loader));
+        }
+      }
+      rewrite = true;
+    }
+    if (rewrite) {
+      compact();
+    }
+    return this;
+  }
+
+  private boolean matchesDirectory(String[] onDisk, long indexedAt) {
+    final int count = onDisk == null ? 0 : onDisk.length;
+    if (count != ids.size()) {
+      return false;
+    }
+    for (int i = 0; i < count; i++) {
+      // same count, and every file is indexed, means the same ids; adding one model and deleting another is caught here
+      if (!ids.contains(onDisk[i]) || new File(directory, onDisk[i]).lastModified() > indexedAt) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  public boolean isIndexed(String property) {
+    return secondary.containsKey(property);
+  }
+
+  /**
+   * Ensure the given property has a secondary index; if it does not, every model in this index is loaded once.
+   */
+  public synchronized void ensureProperty(String property, In1Out1<String, Model> loader) {
+    if (secondary.containsKey(property)) {
+      return;
+    }
+    final String[] props = Arrays.copyOf(properties, properties.length + 1);
+    props[properties.length] = property;
+    final NavigableSet<IndexEntry> index = new ConcurrentSkipListSet<>(ENTRY_ORDER);
+    for (String id : ids) {
+      final Object[] was = values.get(id);
+      final Object[] is = Arrays.copyOf(was, props.length);
+      final Model model = loader.io(id);
+      is[properties.length] = model == null ? null : normalize(model.getProperty(property));
+      values.put(id, is);
+      index.add(new IndexEntry(is[properties.length], id));
+    }
+    secondary.put(property, index);
+    properties = props;
+    compact();
+  }
+
+  public synchronized void put(String id, Model model) {
+    final Object[] vals = valuesOf(model);
+    remove(id);
+    insert(id, vals);
+    append(OP_PUT, id, vals);
+  }
+
+  public synchronized void delete(String id) {
+    if (ids.contains(id)) {
+      remove(id);
+      append(OP_DELETE, id, null);
+    }
+  }
+
+  public int size() {
+    return ids.size();
+  }
+
+  public synchronized void close() {
+    if (log != null) {
+      try {
+        log.close();
+      } catch (IOException e) {
+        X_Log.warn(ModelIndex.class, "Unable to close model index", logFile, e);
+      }
+      log = null;
+    }
+  }
+
+  /**
+   * Select a single page of ids matching the given filters, in the requested sort order.
+   * <p>
+   * When there are no sort options and no range filters, results are ordered by id,
+   * and the cursor is simply the next id (compatible with {@link ModelServiceJre}).
+   * When there are no sort options, but there are range filters, the first range filter is used as an ascending sort.
+   * Otherwise, the cursor encodes the sort values and id of the next result.
+   * <p>
+   * Only pages ordered by id or by a single sort option are read straight from the index;
+   * see the class documentation for which queries are sorted in memory instead.
+   *
+   * @param filters All query filters; every property named must already be indexed.
+   * @param sorts All sort options; every property named must already be indexed.
+   * @param cursor The cursor from a previous page, or null to start from the beginning.
+   * @param pageSize The maximum number of ids to return.
+   * @param page A list to fill with matching ids.
+   * @return The cursor for the next page, or null if there are no more results.
+   */
+  public String select(List<QueryParameter> filters, List<SortOption> sorts, String cursor, int pageSize, List<String> page) {
+    if (sorts.isEmpty()) {
+      for (QueryParameter filter : filters) {
+        switch (filter.getFilterType()) {
+          case GREATER_THAN:
+          case LESS_THAN:
+            sorts = Collections.singletonList(new SortOption(filter.getParameterName(), SortOrder.ASCENDING));
+        }
+        if (!sorts.isEmpty()) {
+          break;
+        }
+      }
+    }
+    final Object[][] criteria = compileFilters(filters);
+    final Iterator<String> candidates;
+    if (sorts.isEmpty()) {
+      candidates = byId(filters, cursor);
+    } else if (sorts.size() == 1 && !preferInMemory(filters)) {
+      candidates = bySortIndex(sorts.get(0), filters, cursor);
+    } else {
+      candidates = inMemory(sorts, filters, cursor);
+    }
+    while (candidates.hasNext()) {
+      final String id = candidates.next();
+      final Object[] vals = values.get(id);
+      if (vals == null || !matches(criteria, vals)) {
+        continue;
+      }
+      if (page.size() == pageSize) {
+        return sorts.isEmpty() ? id : encodeCursor(sorts, vals, id);
+      }
+      page.add(id);
+    }
+    return null;
+  }
+
+  private Iterator<String> byId(List<QueryParameter> filters, String cursor) {
+    // drive by the smallest equality match, if there is one; entries with equal values are already ordered by id.
+    NavigableSet<IndexEntry> best = null;
+    Object bestValue = null;
+    int bestCount = Integer.MAX_VALUE;
+    for (QueryParameter filter : filters) {
+      if (filter.getFilterType() == QueryParameterType.EQUALS) {
+        final Object value = normalize(filter.getFilterValue());
+        final NavigableSet<IndexEntry> matches = equalTo(filter.getParameterName(), value);
+        final int count = countUpTo(matches, MAX_IN_MEMORY_SORT);
+        if (best == null || count < bestCount) {
+          best = matches;
+          bestValue = value;
+          bestCount = count;
+        }
+      }
+    }
+    if (best == null) {
+      return (cursor == null ? ids : ids.tailSet(cursor, true)).iterator();
+    }
+    if (cursor != null) {
+      best = best.tailSet(new IndexEntry(bestValue, cursor), true);
+    }
+    return ids(best.iterator());
+  }
+
+  private Iterator<String> bySortIndex(SortOption sort, List<QueryParameter> filters, String cursor) {
+    // narrow the index to any range or equality filters on the same property
+    IndexEntry low = null, high = null;
+    for (QueryParameter filter : filters) {
+      if (!filter.getParameterName().equals(sort.getPropertyName())) {
+        continue;
+      }
+      final Object value = normalize(filter.getFilterValue());
+      final IndexEntry first = new IndexEntry(value, FIRST), last = new IndexEntry(value, LAST);
+      switch (filter.getFilterType()) {
+        case EQUALS:
+          low = max(low, first);
+          high = min(high, last);
+          break;
+        case GREATER_THAN:
+          low = max(low, last);
+          break;
+        case LESS_THAN:
+          high = min(high, first);
+          break;
+      }
+    }
+    NavigableSet<IndexEntry> index = secondary.get(sort.getPropertyName());
+    if (low != null && high != null) {
+      if (ENTRY_ORDER.compare(low, high) > 0) {
+        return Collections.emptyIterator();
+      }
+      index = index.subSet(low, true, high, true);
+    } else if (low != null) {
+      index = index.tailSet(low, true);
+    } else if (high != null) {
+      index = index.headSet(high, true);
+    }
+    if (sort.getOrder() == SortOrder.DESCENDING) {
+      index = index.descendingSet();
+    }
+    if (cursor != null) {
+      final Object[] position = decodeCursor(cursor, 1);
+      try {
+        index = index.tailSet(new IndexEntry(position[0], (String) position[1]), true);
+      } catch (IllegalArgumentException outOfRange) {
+        // the cursor does not belong to this query
+        return Collections.emptyIterator();
+      }
+    }
+    return ids(index.iterator());
+  }
+
+  private static IndexEntry max(IndexEntry a, IndexEntry b) {
+    return a == null || ENTRY_ORDER.compare(b, a) > 0 ? b : a;
+  }
+
+  private static IndexEntry min(IndexEntry a, IndexEntry b) {
+    return a == null || ENTRY_ORDER.compare(b, a) < 0 ? b : a;
+  }
+
+  private Iterator<String> inMemory(List<SortOption> sorts, List<QueryParameter> filters, String cursor) {
+    final Object[][] criteria = compileFilters(filters);
+    Iterable<String> source = ids;
+    int sourceCount = Integer.MAX_VALUE;
+    for (QueryParameter filter : filters) {
+      if (filter.getFilterType() == QueryParameterType.EQUALS) {
+        final NavigableSet<IndexEntry> matches = equalTo(filter.getParameterName(), normalize(filter.getFilterValue()));
+        final int count = countUpTo(matches, MAX_IN_MEMORY_SORT);
+        if (count < sourceCount) {
+          source = () -> ids(matches.iterator());
+          sourceCount = count;
+        }
+      }
+    }
+    final int[] positions = new int[sorts.size()];
+    final boolean[] descending = new boolean[sorts.size()];
+    for (int i = 0; i < positions.length; i++) {
+      positions[i] = indexOf(sorts.get(i).getPropertyName());
+      descending[i] = sorts.get(i).getOrder() == SortOrder.DESCENDING;
+    }
+    final List<Object[]> rows = new ArrayList<>();
+    for (String id : source) {
+      final Object[] vals = values.get(id);
+      if (vals != null && matches(criteria, vals)) {
+        final Object[] row = new Object[positions.length + 1];
+        for (int i = 0; i < positions.length; i++) {
+          row[i] = vals[positions[i]];
+        }
+        row[positions.length] = id;
+        rows.add(row);
+      }
+    }
+    final Comparator<Object[]> order = (a, b) -> {
+      for (int i = 0; i < positions.length; i++) {
+        final int diff = compareValues(a[i], b[i]);
+        if (diff != 0) {
+          return descending[i] ? -diff : diff;
+        }
+      }
+      final int diff = ((String) a[positions.length]).compareTo((String) b[positions.length]);
+      return descending[positions.length - 1] ? -diff : diff;
+    };
+    rows.sort(order);
+    int start = 0;
+    if (cursor != null) {
+      start = Collections.binarySearch(rows, decodeCursor(cursor, positions.length), order);
+      if (start < 0) {
+        start = -start - 1;
+      }
+    }
+    final Iterator<Object[]> itr = rows.subList(start, rows.size()).iterator();
+    return new Iterator<String>() {
+      @Override
+      public boolean hasNext() {
+        return itr.hasNext();
+      }
+
+      @Override
+      public String next() {
+        return (String) itr.next()[positions.length];
+      }
+    };
+  }
+
+  private boolean preferInMemory(List<QueryParameter> filters) {
+    for (QueryParameter filter : filters) {
+      if (filter.getFilterType() == QueryParameterType.EQUALS) {
+        final Object value = normalize(filter.getFilterValue());
+        if (countUpTo(equalTo(filter.getParameterName(), value), MAX_IN_MEMORY_SORT) <= MAX_IN_MEMORY_SORT) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  /**
+   * @return the size of the given entries, or limit + 1 if there are more than limit;
+   * size() of a skip list view walks every entry in it.
+   */
+  private static int countUpTo(Collection<?> entries, int limit) {
+    int count = 0;
+    for (Iterator<?> itr = entries.iterator(); count <= limit && itr.hasNext(); itr.next()) {
+      count++;
+    }
+    return count;
+  }
+
+  private NavigableSet<IndexEntry> equalTo(String property, Object value) {
+    return secondary.get(property).subSet(new IndexEntry(value, FIRST), true, new IndexEntry(value, LAST), true);
+  }
+
+  private static Iterator<String> ids(Iterator<IndexEntry> entries) {
+    return new Iterator<String>() {
+      @Override
+      public boolean hasNext() {
+        return entries.hasNext();
+      }
+
+      @Override
+      public String next() {
+        return entries.next().id;
+      }
+    };
+  }
+
+  private Object[][] compileFilters(List<QueryParameter> filters) {
+    final Object[][] criteria = new Object[filters.size()][];
+    for (int i = 0; i < criteria.length; i++) {
+      final QueryParameter filter = filters.get(i);
+      final Object value = filter.getFilterType() == QueryParameterType.CONTAINS
+          ? String.valueOf(filter.getFilterValue())
+          : normalize(filter.getFilterValue());
+      criteria[i] = new Object[]{ indexOf(filter.getParameterName()), filter.getFilterType(), value };
+    }
+    return criteria;
+  }
+
+  private static boolean matches(Object[][] criteria, Object[] vals) {
+    for (Object[] criterion : criteria) {
+      final Object actual = vals[(Integer) criterion[0]];
+      final Object expected = criterion[2];
+      switch ((QueryParameterType) criterion[1]) {
+        case EQUALS:
+          if (compareValues(actual, expected) != 0) {
+            return false;
+          }
+          break;
+        case GREATER_THAN:
+          if (actual == null || compareValues(actual, expected) <= 0) {
+            return false;
+          }
+          break;
+        case LESS_THAN:
+          if (actual == null || compareValues(actual, expected) >= 0) {
+            return false;
+          }
+          break;
+        case CONTAINS:
+          if (!(actual instanceof String) || !((String) actual).contains((String) expected)) {
+            return false;
+          }
+          break;
+      }
+    }
+    return true;
+  }
+
+  private int indexOf(String property) {
+    final String[] props = properties;
+    for (int i = 0; i < props.length; i++) {
+      if (props[i].equals(property)) {
+        return i;
+      }
+    }
+    throw new IllegalStateException("Property " + property + " is not indexed in " + logFile);
+  }
+
+  private Object[] valuesOf(Model model) {
+    final String[] props = properties;
+    final Object[] vals = new Object[props.length];
+    for (int i = 0; i < props.length; i++) {
+      vals[i] = normalize(model.getProperty(props[i]));
+    }
+    return vals;
+  }
+
+  private Object[] readValues(String id, In1Out1<String, Model> loader) {
+    if (properties.length == 0) {
+      return new Object[0];
+    }
+    final Model model = loader.io(id);
+    return model == null ? new Object[properties.length] : valuesOf(model);
+  }
+
+  private void insert(String id, Object[] vals) {
+    ids.add(id);
+    values.put(id, vals);
+    final String[] props = properties;
+    for (int i = 0; i < props.length; i++) {
+      secondary.get(props[i]).add(new IndexEntry(vals[i], id));
+    }
+  }
+
+  private void remove(String id) {
+    if (!ids.remove(id)) {
+      return;
+    }
+    final Object[] was = values.remove(id);
+    final String[] props = properties;
+    for (int i = 0; i < props.length; i++) {
+      secondary.get(props[i]).remove(new IndexEntry(was[i], id));
+    }
+    deadRecords++;
+  }
+
+  private void clearEntries() {
+    ids.clear();
+    values.clear();
+    for (NavigableSet<IndexEntry> index : secondary.values()) {
+      index.clear();
+    }
+  }
+
+  /**
+   * @return false if the log was torn, and should be rewritten.
+   */
+  private boolean replay() {
+    try (
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(logFile)))
+    ) {
+      while (true) {
+        final int op = in.read();
+        if (op == -1) {
+          return true;
+        }
+        switch (op) {
+          case OP_PROPERTIES:
+            clearEntries();
+            secondary.clear();
+            final String[] props = new String[in.readInt()];
+            for (int i = 0; i < props.length; i++) {
+              props[i] = in.readUTF();
+              secondary.put(props[i], new ConcurrentSkipListSet<>(ENTRY_ORDER));
+            }
+            properties = props;
+            break;
+          case OP_PUT:
+            final String id = in.readUTF();
+            final Object[] vals = new Object[in.readInt()];
+            for (int i = 0; i < vals.length; i++) {
+              vals[i] = readValue(in);
+            }
+            remove(id);
+            insert(id, Arrays.copyOf(vals, properties.length));
+            break;
+          case OP_DELETE:
+            remove(in.readUTF());
+            break;
+          default:
+            X_Log.warn(ModelIndex.class, "Corrupt model index", logFile, "; unknown op", op);
+            return false;
+        }
+      }
+    } catch (EOFException e) {
+      X_Log.warn(ModelIndex.class, "Model index", logFile, "ended mid-record; will be rewritten");
+      return false;
+    } catch (IOException e) {
+      X_Log.warn(ModelIndex.class, "Unable to read model index", logFile, e);
+      return false;
+    }
+  }
+
+  private void append(byte op, String id, Object[] vals) {
+    try {
+      if (log == null) {
+        log = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(logFile, true)));
+      }
+      log.write(op);
+      log.writeUTF(id);
+      if (vals != null) {
+        log.writeInt(vals.length);
+        for (Object val : vals) {
+          writeValue(log, val);
+        }
+      }
+      log.flush();
+    } catch (IOException e) {
+      X_Log.error(ModelIndex.class, "Unable to append to model index", logFile, e);
+      // make sure we rewrite the index next time we are opened
+      logFile.delete();
+    }
+    if (deadRecords > 64 && deadRecords > ids.size()) {
+      compact();
+    }
+  }
+
+  /**
+   * Rewrite the log as a snapshot of all live entries.
+   */
+  public synchronized void compact() {
+    close();
+    final File tmp = new File(logFile.getParentFile(), logFile.getName() + ".tmp");
+    if (!logFile.getParentFile().isDirectory()) {
+      logFile.getParentFile().mkdirs();
+    }
+    try (
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))
+    ) {
+      final String[] props = properties;
+      out.write(OP_PROPERTIES);
+      out.writeInt(props.length);
+      for (String prop : props) {
+        out.writeUTF(prop);
+      }
+      for (String id : ids) {
+        final Object[] vals = values.get(id);
+        out.write(OP_PUT);
+        out.writeUTF(id);
+        out.writeInt(vals.length);
+        for (Object val : vals) {
+          writeValue(out, val);
+        }
+      }
+    } catch (IOException e) {
+      X_Log.error(ModelIndex.class, "Unable to write model index", tmp, e);
+      tmp.delete();
+      return;
+    }
+    if (!tmp.renameTo(logFile)) {
+      logFile.delete();
+      if (!tmp.renameTo(logFile)) {
+        X_Log.error(ModelIndex.class, "Unable to replace model index", logFile);
+      }
+    }
+    deadRecords = 0;
+  }
+
+  private static void writeValue(DataOutputStream out, Object val) throws IOException {
+    if (val == null) {
+      out.write(TAG_NULL);
+    } else if (val instanceof Boolean) {
+      out.write(TAG_BOOLEAN);
+      out.writeBoolean((Boolean) val);
+    } else if (val instanceof Long) {
+      out.write(TAG_LONG);
+      out.writeLong((Long) val);
+    } else if (val instanceof Double) {
+      out.write(TAG_DOUBLE);
+      out.writeDouble((Double) val);
+    } else {
+      // writeUTF is limited to 64k, so we write our own length-prefixed utf8
+      final byte[] bytes = ((String) val).getBytes(StandardCharsets.UTF_8);
+      out.write(TAG_STRING);
+      out.writeInt(bytes.length);
+      out.write(bytes);
+    }
+  }
+
+  private static Object readValue(DataInputStream in) throws IOException {
+    final int tag = in.read();
+    switch (tag) {
+      case TAG_NULL:
+        return null;
+      case TAG_BOOLEAN:
+        return in.readBoolean();
+      case TAG_LONG:
+        return in.readLong();
+      case TAG_DOUBLE:
+        return in.readDouble();
+      case TAG_STRING:
+        final byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+      case -1:
+        throw new EOFException();
+      default:
+        throw new IOException("Unknown value tag " + tag);
+    }
+  }
+
+  /**
+   * Convert a property or filter value to something we can compare consistently.
+   */
+  public static Object normalize(Object value) {
+    if (value == null || value instanceof String || value instanceof Boolean
+        || value instanceof Long || value instanceof Double) {
+      return value;
+    }
+    if (value instanceof CharSequence) {
+      return value.toString();
+    }
+    if (value instanceof Enum) {
+      return ((Enum<?>) value).name();
+    }
+    if (value instanceof Float) {
+      return ((Float) value).doubleValue();
+    }
+    if (value instanceof Number) {
+      return ((Number) value).longValue();
+    }
+    if (value instanceof Character) {
+      return (long) (Character) value;
+    }
+    if (value instanceof Date) {
+      return ((Date) value).getTime();
+    }
+    return null;
+  }
+
+  /**
+   * Orders null first, then booleans, then numbers, then strings.
+   */
+  static int compareValues(Object a, Object b) {
+    if (a == b) {
+      return 0;
+    }
+    final int rankA = rank(a), rankB = rank(b);
+    if (rankA != rankB) {
+      return rankA - rankB;
+    }
+    switch (rankA) {
+      case 1:
+        return Boolean.compare((Boolean) a, (Boolean) b);
+      case 2:
+        if (a instanceof Long && b instanceof Long) {
+          return Long.compare((Long) a, (Long) b);
+        }
+        return Double.compare(((Number) a).doubleValue(), ((Number) b).doubleValue());
+      case 3:
+        return ((String) a).compareTo((String) b);
+      default:
+        return 0;
+    }
+  }
+
+  private static int rank(Object o) {
+    if (o == null) {
+      return 0;
+    }
+    if (o instanceof Boolean) {
+      return 1;
+    }
+    if (o instanceof Number) {
+      return 2;
+    }
+    return 3;
+  }
+
+  /**
+   * Cursor format: for each sort value, a one char type tag and its text,
+   * followed by the id of the next model.  Strings, and the id, are length-prefixed rather than delimited,
+   * so they may contain any character.
+   */
+  private String encodeCursor(List<SortOption> sorts, Object[] vals, String id) {
+    final StringBuilder b = new StringBuilder();
+    for (SortOption sort : sorts) {
+      encodeValue(b, vals[indexOf(sort.getPropertyName())]);
+    }
+    encodeValue(b, id);
+    return b.toString();
+  }
+
+  private static void encodeValue(StringBuilder b, Object val) {
+    if (val == null) {
+      b.append('n');
+    } else if (val instanceof Boolean) {
+      b.append((Boolean) val ? 't' : 'f');
+    } else if (val instanceof Long) {
+      b.append('l').append(val).append(';');
+    } else if (val instanceof Double) {
+      b.append('d').append(val).append(';');
+    } else {
+      final String s = (String) val;
+      b.append('s').append(s.length()).append(':').append(s);
+    }
+  }
+
+  /**
+   * @return An array of the decoded sort values, followed by the id.
+   */
+  static Object[] decodeCursor(String cursor, int numValues) {
+    final Object[] result = new Object[numValues + 1];
+    int pos = 0;
+    try {
+      for (int i = 0; i <= numValues; i++) {
+        final char tag = cursor.charAt(pos++);
+        switch (tag) {
+          case 'n':
+            result[i] = null;
+            break;
+          case 't':
+          case 'f':
+            result[i] = tag == 't';
+            break;
+          case 'l':
+          case 'd':
+            final int end = cursor.indexOf(';', pos);
+            final String num = cursor.substring(pos, end);
+            result[i] = tag == 'l' ? (Object) Long.parseLong(num) : (Object) Double.parseDouble(num);
+            pos = end + 1;
+            break;
+          case 's':
+            final int colon = cursor.indexOf(':', pos);
+            final int len = Integer.parseInt(cursor.substring(pos, colon));
+            result[i] = cursor.substring(colon + 1, colon + 1 + len);
+            pos = colon + 1 + len;
+            break;
+          default:
+            throw new IllegalArgumentException("Malformed query cursor " + cursor);
+        }
+      }
+    } catch (IndexOutOfBoundsException | NumberFormatException e) {
+      throw new IllegalArgumentException("Malformed query cursor " + cursor, e);
+    }
+    if (pos != cursor.length() || !(result[numValues] instanceof String)) {
+      throw new IllegalArgumentException("Malformed query cursor " + cursor);
+    }
+    return result;
+  }
+
+  @Override
+  public String toString() {
+    return "ModelIndex{" + logFile + ", size=" + ids.size() + ", properties=" + Arrays.toString(properties) + "}";
+  }
+}
@@ -0,0 +1,759 @@
+package xapi.jre.model;
+
+import xapi.fu.In1;
+import xapi.log.X_Log;
+import xapi.model.api.ModelKey;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+/**
+ * An append-only, log-structured store of serialized models for a single namespace.
+ * <p>
+ * Every put or delete is appended as a record to the active segment file.
+ * Writers never touch the disk themselves: they enqueue their record, and a single writer thread
+ * drains everything that is queued, writes it with a single {@link FileChannel} write,
+ * forces it to disk once per batch (according to the {@link FsyncPolicy}), and only then
+ * updates the in-memory key to offset map and reports success.  This is a group commit;
+ * many concurrent saves cost one fsync.
+ * <p>
+ * When the active segment grows past its size limit, we roll to a new segment.
+ * A background compactor rewrites sealed segments which are mostly garbage (overwritten or deleted records),
+ * and hands the result back to the writer thread, which swaps in the new offsets of any record that is still live.
+ * <p>
+ * On startup, all segments are replayed in order to rebuild the key map.
+ * Each record carries a CRC32, so a torn write at the end of a segment (a crash mid-write)
+ * is detected, and the segment is truncated back to its last good record.
+ * <p>
+ * Record format: int length (of everything after this int), byte op, int keyLength, key utf8,
+ * int valueLength (-1 for deletes), value utf8, int crc32 (of op through value).
+ */
+public class ModelLogStore {
+
+  public enum FsyncPolicy {
+    /** Force the log to disk after every batch, before reporting success */
+    COMMIT,
+    /** Force the log to disk at most once per {@link #PERIODIC_FSYNC_MILLIS}; success is reported before the fsync */
+    PERIODIC,
+    /** Leave flushing to the operating system */
+    NEVER
+  }
+
+  static final String SEGMENT_SUFFIX = ".seg";
+  private static final String COMPACT_SUFFIX = ".compact";
+  private static final byte OP_PUT = 1, OP_DELETE = 2;
+  private static final int HEADER_BYTES = 4;
+  private static final int MAX_BATCH = 1024;
+  private static final long PERIODIC_FSYNC_MILLIS = 100;
+  /** Sealed segments with less than this fraction of live bytes are compacted */
+  private static final double COMPACT_THRESHOLD = 0.5;
+
+  /**
+   * A single segment file.  Sealed segments are only ever read, or replaced by compaction.
+   */
+  static final class Segment {
+    final long number;
+    final File file;
+    final AtomicLong size;
+    final AtomicLong liveBytes = new AtomicLong();
+    volatile boolean hasTombstones;
+    /** Bytes of tombstones which the last compaction of this segment had to keep */
+    volatile long keptTombstoneBytes;
+    private volatile FileChannel channel;
+    private volatile boolean retired;
+
+    Segment(long number, File file) throws IOException {
+      this.number = number;
+      this.file = file;
+      this.channel = open();
+      this.size = new AtomicLong(channel.size());
+    }
+
+    private FileChannel open() throws IOException {
+      return FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    }
+
+    /**
+     * An interrupt during any read closes a FileChannel for every thread using it,
+     * so we quietly reopen the channel for segments which have not been retired.
+     */
+    FileChannel channel() throws IOException {
+      final FileChannel current = channel;
+      if (current.isOpen() || retired) {
+        return current;
+      }
+      synchronized (this) {
+        if (!channel.isOpen() && !retired) {
+          channel = open();
+        }
+        return channel;
+      }
+    }
+
+    synchronized void close() {
+      retired = true;
+      try {
+        channel.close();
+      } catch (IOException e) {
+        X_Log.warn(ModelLogStore.class, "Unable to close segment", file, e);
+      }
+    }
+
+    @Override
+    public String toString() {
+      return file.getName() + "{size=" + size + ", live=" + liveBytes + "}";
+    }
+  }
+
+  /**
+   * Where the current value of a key is stored.
+   */
+  static final class Location {
+    final Segment segment;
+    final long recordOffset;
+    final int recordBytes;
+    final long valueOffset;
+    final int valueLength;
+
+    Location(Segment segment, long recordOffset, int recordBytes, long valueOffset, int valueLength) {
+      this.segment = segment;
+      this.recordOffset = recordOffset;
+      this.recordBytes = recordBytes;
+      this.valueOffset = valueOffset;
+      this.valueLength = valueLength;
+    }
+  }
+
+  /**
+   * A unit of work for the writer thread.
+   */
+  private interface Task {}
+
+  private static final Task CLOSE = new Task() {};
+
+  private static final class Write implements Task {
+    final byte op;
+    final String key;
+    final String scope;
+    final String id;
+    final byte[] keyBytes;
+    final byte[] value;
+    final In1<Boolean> onCommit;
+    final In1<Throwable> onError;
+    long recordOffset;
+    int recordBytes;
+
+    Write(byte op, String scope, String id, byte[] value, In1<Boolean> onCommit, In1<Throwable> onError) {
+      this.op = op;
+      this.key = key(scope, id);
+      this.scope = scope;
+      this.id = id;
+      this.keyBytes = key.getBytes(StandardCharsets.UTF_8);
+      this.value = value;
+      this.onCommit = onCommit;
+      this.onError = onError;
+    }
+  }
+
+  private static final class Swap implements Task {
+    final Segment old;
+    final File compacted;
+    final List<Object[]> moved; // {key, old Location, recordOffset, recordBytes, valueOffset, valueLength}
+    final long tombstoneBytes;
+
+    Swap(Segment old, File compacted, List<Object[]> moved, long tombstoneBytes) {
+      this.old = old;
+      this.compacted = compacted;
+      this.moved = moved;
+      this.tombstoneBytes = tombstoneBytes;
+    }
+  }
+
+  private final File directory;
+  private final long maxSegmentBytes;
+  private final FsyncPolicy fsync;
+  private final Map<String, Location> locations = new ConcurrentHashMap<>();
+  private final Map<String, NavigableSet<String>> scopes = new ConcurrentHashMap<>();
+  private final Set<String> reserved = ConcurrentHashMap.newKeySet();
+  /** The next number {@link #reserveId} tries in each scope; kept above every numeric id put in that scope */
+  private final Map<String, AtomicLong> nextIds = new ConcurrentHashMap<>();
+  private final NavigableMap<Long, Segment> segments = new ConcurrentSkipListMap<>();
+  private final BlockingQueue<Task> queue = new LinkedBlockingQueue<>();
+  private final AtomicBoolean compacting = new AtomicBoolean();
+  private final AtomicBoolean running = new AtomicBoolean(true);
+  private final Thread writer;
+  private volatile Segment active;
+  private long lastFsync;
+
+  /**
+   * @param directory The directory holding this namespace's segment files.
+   * @param maxSegmentBytes The size at which we roll over to a new segment file.
+   * @param fsync When to force writes to disk.
+   */
+  public ModelLogStore(File directory, long maxSegmentBytes, FsyncPolicy fsync)
+  throws IOException {
+    this.directory = directory;
+    this.maxSegmentBytes = maxSegmentBytes;
+    this.fsync = fsync;
+    if (!directory.isDirectory() && !directory.mkdirs()) {
+      throw new IOException("Unable to create model log directory " + directory);
+    }
+    recover();
+    writer = new Thread(this::writeLoop, "ModelLogStore " + directory.getName());
+    writer.setDaemon(true);
+    writer.start();
+  }
+
+  /**
+   * Queue a put of the given value.  The callback is invoked on the writer thread, once the value is committed;
+   * it receives true if the put replaced an existing value.
+   */
+  public void put(String scope, String id, String value, In1<Boolean> onCommit, In1<Throwable> onError) {
+    enqueue(new Write(OP_PUT, scope, id, value.getBytes(StandardCharsets.UTF_8), onCommit, onError));
+  }
+
+  /**
+   * Queue a delete of the given key.  The callback receives true if the key existed.
+   */
+  public void delete(String scope, String id, In1<Boolean> onCommit, In1<Throwable> onError) {
+    enqueue(new Write(OP_DELETE, scope, id, null, onCommit, onError));
+  }
+
+  private void enqueue(Write write) {
+    if (!running.get()) {
+      write.onError.in(new IllegalStateException("Model log store " + directory + " is closed"));
+      return;
+    }
+    queue.add(write);
+  }
+
+  /**
+   * @return The current value of the given key, or null if there is none.
+   */
+  public String get(String scope, String id) throws IOException {
+    final String key = key(scope, id);
+    for (int attempt = 0; ; attempt++) {
+      final Location loc = locations.get(key);
+      if (loc == null) {
+        return null;
+      }
+      final ByteBuffer buffer = ByteBuffer.allocate(loc.valueLength);
+      try {
+        readFully(loc.segment.channel(), buffer, loc.valueOffset);
+        return new String(buffer.array(), StandardCharsets.UTF_8);
+      } catch (ClosedByInterruptException e) {
+        throw e;
+      } catch (ClosedChannelException e) {
+        // the segment was compacted out from under us (and the key has a new location),
+        // or another thread was interrupted while reading it (and we will reopen it)
+        if (attempt > 3) {
+          throw e;
+        }
+      }
+    }
+  }
+
+  public boolean contains(String scope, String id) {
+    return locations.containsKey(key(scope, id));
+  }
+
+  /**
+   * @return The ids in the given scope, sorted.
+   */
+  public NavigableSet<String> scope(String scope) {
+    final NavigableSet<String> ids = scopes.get(scope);
+    return ids == null ? Collections.emptyNavigableSet() : ids;
+  }
+
+  /**
+   * @return All scopes known to this store.
+   */
+  public Set<String> scopes() {
+    return scopes.keySet();
+  }
+
+  /**
+   * Reserve an id which is not in use (or pending) in the given scope.
+   * The reservation is released when a put to that id is committed.
+   */
+  public String reserveId(String scope, String prefix) {
+    // the first reservation in a scope finds its largest id; after that, each costs one increment
+    final AtomicLong next = nextIds.computeIfAbsent(scope, s -> {
+      long highest = -1;
+      for (String id : scope(s)) {
+        highest = Math.max(highest, idNumber(id));
+      }
+      return new AtomicLong(highest + 1);
+    });
+    while (true) {
+      final String id = (prefix == null || prefix.isEmpty() ? "" : prefix + "-") + next.getAndIncrement();
+      // ids we did not hand out (say, "name-5" put by its caller) may still collide
+      if (!scope(scope).contains(id) && reserved.add(key(scope, id))) {
+        return id;
+      }
+    }
+  }
+
+  /**
+   * @return The number at the end of an id (after its last '-'), or -1 if it does not end in one.
+   */
+  static long idNumber(String id) {
+    final int start = id.lastIndexOf('-') + 1;
+    final int length = id.length() - start;
+    if (length == 0 || length > 18) {
+      return -1;
+    }
+    for (int i = start; i < id.length(); i++) {
+      final char c = id.charAt(i);
+      if (c < '0' || c > '9') {
+        return -1;
+      }
+    }
+    return Long.parseLong(id.substring(start));
+  }
+
+  public void close() {
+    if (!running.compareAndSet(true, false)) {
+      return;
+    }
+    // never interrupt the writer; an interrupt mid-write would close the active segment's channel
+    queue.add(CLOSE);
+    try {
+      writer.join(10_000);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    for (Segment segment : segments.values()) {
+      try {
+        segment.channel().force(true);
+      } catch (IOException ignored) {
+      }
+      segment.close();
+    }
+  }
+
+  private void recover() throws IOException {
+    final File[] files = directory.listFiles();
+    final List<File> segmentFiles = new ArrayList<>();
+    if (files != null) {
+      for (File file : files) {
+        if (file.getName().endsWith(COMPACT_SUFFIX)) {
+          // a compaction that never got swapped in; the original segment is still authoritative
+          file.delete();
+        } else if (file.getName().endsWith(SEGMENT_SUFFIX)) {
+          segmentFiles.add(file);
+        }
+      }
+    }
+    segmentFiles.sort(Comparator.comparing(File::getName));
+    for (File file : segmentFiles) {
+      final String name = file.getName();
+      final Segment segment = new Segment(Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length())), file);
+      segments.put(segment.number, segment);
+      replay(segment);
+    }
+    if (segments.isEmpty()) {
+      roll();
+    } else {
+      active = segments.lastEntry().getValue();
+    }
+  }
+
+  private void replay(Segment segment) throws IOException {
+    final FileChannel channel = segment.channel();
+    final long size = channel.size();
+    final ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+    long position = 0;
+    while (position < size) {
+      header.clear();
+      if (size - position < HEADER_BYTES) {
+        break;
+      }
+      readFully(channel, header, position);
+      header.flip();
+      final int length = header.getInt();
+      if (length < 13 || position + HEADER_BYTES + length > size) {
+        break;
+      }
+      final ByteBuffer record = ByteBuffer.allocate(length);
+      readFully(channel, record, position + HEADER_BYTES);
+      record.flip();
+      final CRC32 crc = new CRC32();
+      crc.update(record.array(), 0, length - 4);
+      if ((int) crc.getValue() != record.getInt(length - 4)) {
+        break;
+      }
+      final byte op = record.get();
+      final byte[] keyBytes = new byte[record.getInt()];
+      record.get(keyBytes);
+      final int valueLength = record.getInt();
+      final String key = new String(keyBytes, StandardCharsets.UTF_8);
+      final long valueOffset = position + HEADER_BYTES + record.position();
+      final int recordBytes = HEADER_BYTES + length;
+      if (op == OP_PUT) {
+        apply(key, new Location(segment, position, recordBytes, valueOffset, valueLength));
+      } else {
+        segment.hasTombstones = true;
+        apply(key, null);
+      }
+      position += recordBytes;
+    }
+    if (position < size) {
+      X_Log.warn(ModelLogStore.class, "Truncating torn or corrupt model log", segment.file,
+          "from", size, "to", position, "bytes");
+      channel.truncate(position);
+    }
+    segment.size.set(position);
+  }
+
+  /**
+   * Update the key map; must only be called from the writer thread (or during recovery).
+   *
+   * @return true if there was a previous value.
+   */
+  private boolean apply(String key, Location loc) {
+    final Location was = loc == null ? locations.remove(key) : locations.put(key, loc);
+    if (was != null) {
+      was.segment.liveBytes.addAndGet(-was.recordBytes);
+    }
+    final int split = key.lastIndexOf('\0');
+    final String scope = key.substring(0, split), id = key.substring(split + 1);
+    if (loc == null) {
+      final NavigableSet<String> ids = scopes.get(scope);
+      if (ids != null) {
+        ids.remove(id);
+      }
+    } else {
+      loc.segment.liveBytes.addAndGet(loc.recordBytes);
+      scopes.computeIfAbsent(scope, s -> new ConcurrentSkipListSet<>()).add(id);
+      final AtomicLong next = nextIds.get(scope);
+      if (next != null) {
+        final long number = idNumber(id);
+        if (number >= 0) {
+          next.accumulateAndGet(number + 1, Math::max);
+        }
+      }
+    }
+    return was != null;
+  }
+
+  private void roll() throws IOException {
+    final long number = segments.isEmpty() ? 1 : segments.lastKey() + 1;
+    final Segment segment = new Segment(number, new File(directory, String.format("%016d", number) + SEGMENT_SUFFIX));
+    segments.put(number, segment);
+    if (active != null) {
+      active.channel().force(true);
+    }
+    active = segment;
+  }
+
+  private void writeLoop() {
+    final List<Task> batch = new ArrayList<>();
+    boolean closed = false;
+    while (!closed) {
+      try {
+        final Task first = queue.poll(1, TimeUnit.SECONDS);
+        if (first == null) {
+          maybeFsync(true);
+          maybeCompact();
+          continue;
+        }
+        batch.add(first);
+        queue.drainTo(batch, MAX_BATCH);
+      } catch (InterruptedException e) {
+        X_Log.warn(ModelLogStore.class, "Ignoring interrupt of model log writer; use close() instead", directory);
+        continue;
+      }
+      final List<Write> writes = new ArrayList<>(batch.size());
+      for (Task task : batch) {
+        if (task == CLOSE) {
+          closed = true;
+        } else if (task instanceof Swap) {
+          commit(writes);
+          writes.clear();
+          swap((Swap) task);
+        } else {
+          writes.add((Write) task);
+        }
+      }
+      commit(writes);
+      batch.clear();
+      if (closed) {
+        // anything enqueued after CLOSE raced with close(); fail it rather than leave it hanging
+        queue.drainTo(batch);
+        for (Task task : batch) {
+          if (task instanceof Write) {
+            ((Write) task).onError.in(new IllegalStateException("Model log store " + directory + " is closed"));
+          }
+        }
+      } else {
+        maybeCompact();
+      }
+    }
+  }
+
+  private void commit(List<Write> writes) {
+    if (writes.isEmpty()) {
+      return;
+    }
+    int bytes = 0;
+    for (Write write : writes) {
+      write.recordBytes = HEADER_BYTES + 13 + write.keyBytes.length + (write.value == null ? 0 : write.value.length);
+      bytes += write.recordBytes;
+    }
+    final boolean[] existed = new boolean[writes.size()];
+    try {
+      if (active.size.get() > 0 && active.size.get() + bytes > maxSegmentBytes) {
+        roll();
+      }
+      final ByteBuffer buffer = ByteBuffer.allocate(bytes);
+      final CRC32 crc = new CRC32();
+      long position = active.size.get();
+      for (Write write : writes) {
+        final int start = buffer.position();
+        write.recordOffset = position;
+        buffer.putInt(write.recordBytes - HEADER_BYTES);
+        buffer.put(write.op);
+        buffer.putInt(write.keyBytes.length);
+        buffer.put(write.keyBytes);
+        if (write.value == null) {
+          buffer.putInt(-1);
+        } else {
+          buffer.putInt(write.value.length);
+          buffer.put(write.value);
+        }
+        crc.reset();
+        crc.update(buffer.array(), start + HEADER_BYTES, buffer.position() - start - HEADER_BYTES);
+        buffer.putInt((int) crc.getValue());
+        position += write.recordBytes;
+      }
+      buffer.flip();
+      long at = active.size.get();
+      while (buffer.hasRemaining()) {
+        at += active.channel().write(buffer, at);
+      }
+      maybeFsync(false);
+      int i = 0;
+      for (Write write : writes) {
+        if (write.op == OP_PUT) {
+          final long valueOffset = write.recordOffset + HEADER_BYTES + 9 + write.keyBytes.length;
+          existed[i++] = apply(write.key, new Location(active, write.recordOffset, write.recordBytes, valueOffset, write.value.length));
+        } else {
+          active.hasTombstones = true;
+          existed[i++] = apply(write.key, null);
+        }
+        reserved.remove(write.key);
+      }
+      active.size.set(at);
+    } catch (Throwable t) {
+      X_Log.error(ModelLogStore.class, "Unable to write to model log", active.file, t);
+      // drop anything we may have partially written; replay would discard it anyway
+      try {
+        active.channel().truncate(active.size.get());
+      } catch (IOException ignored) {
+      }
+      for (Write write : writes) {
+        reserved.remove(write.key);
+        write.onError.in(t);
+      }
+      return;
+    }
+    for (int i = 0; i < writes.size(); i++) {
+      final Write write = writes.get(i);
+      try {
+        write.onCommit.in(existed[i]);
+      } catch (Throwable t) {
+        X_Log.error(ModelLogStore.class, "Commit callback failed for", write.key, t);
+      }
+    }
+  }
+
+  private void maybeFsync(boolean idle) {
+    if (fsync == FsyncPolicy.NEVER) {
+      return;
+    }
+    final long now = System.currentTimeMillis();
+    if (fsync == FsyncPolicy.COMMIT ? !idle : now - lastFsync >= PERIODIC_FSYNC_MILLIS) {
+      try {
+        active.channel().force(false);
+        lastFsync = now;
+      } catch (IOException e) {
+        X_Log.error(ModelLogStore.class, "Unable to fsync model log", active.file, e);
+      }
+    }
+  }
+
+  private void maybeCompact() {
+    if (compacting.get()) {
+      return;
+    }
+    for (Segment segment : segments.values()) {
+      if (segment == active) {
+        continue;
+      }
+      final long size = segment.size.get();
+      final boolean oldest = segment == segments.firstEntry().getValue();
+      // tombstones kept by the last compaction are as good as live, until no older segment is left to need them;
+      // otherwise, a segment of nothing but tombstones would be rewritten, unchanged, forever
+      final long live = segment.liveBytes.get() + (oldest ? 0 : segment.keptTombstoneBytes);
+      if (size > 0 && live < size * COMPACT_THRESHOLD && compacting.compareAndSet(false, true)) {
+        final Thread compactor = new Thread(() -> compact(segment, oldest), "ModelLogStore compactor " + directory.getName());
+        compactor.setDaemon(true);
+        compactor.start();
+        return;
+      }
+    }
+  }
+
+  /**
+   * Runs on a compactor thread: copy every live record (and any still-needed tombstone) into a new file,
+   * then hand the result to the writer thread to swap in.
+   */
+  private void compact(Segment segment, boolean oldest) {
+    final File out = new File(directory, segment.file.getName() + COMPACT_SUFFIX);
+    try (
+        FileChannel target = FileChannel.open(out.toPath(), StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)
+    ) {
+      final List<Object[]> moved = new ArrayList<>();
+      long tombstones = 0;
+      final ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES + 5);
+      final long size = segment.size.get();
+      long position = 0, written = 0;
+      while (position < size) {
+        header.clear();
+        readFully(segment.channel(), header, position);
+        header.flip();
+        final int length = header.getInt();
+        final byte op = header.get();
+        final int keyLength = header.getInt();
+        final int recordBytes = HEADER_BYTES + length;
+        final ByteBuffer keyBuffer = ByteBuffer.allocate(keyLength);
+        readFully(segment.channel(), keyBuffer, position + HEADER_BYTES + 5);
+        final String key = new String(keyBuffer.array(), StandardCharsets.UTF_8);
+        final Location loc = locations.get(key);
+        final boolean keep;
+        if (op == OP_PUT) {
+          keep = loc != null && loc.segment == segment && loc.recordOffset == position;
+        } else {
+          // tombstones must outlive any older segment which may still hold a put for this key
+          keep = !oldest && loc == null;
+        }
+        if (keep) {
+          final ByteBuffer record = ByteBuffer.allocate(recordBytes);
+          readFully(segment.channel(), record, position);
+          record.flip();
+          while (record.hasRemaining()) {
+            target.write(record, written + record.position());
+          }
+          if (op == OP_PUT) {
+            final long valueOffset = written + HEADER_BYTES + 9 + keyLength;
+            moved.add(new Object[]{key, loc, written, recordBytes, valueOffset, loc.valueLength});
+          } else {
+            tombstones += recordBytes;
+          }
+          written += recordBytes;
+        }
+        position += recordBytes;
+      }
+      target.force(true);
+      queue.add(new Swap(segment, out, moved, tombstones));
+    } catch (Throwable t) {
+      X_Log.error(ModelLogStore.class, "Unable to compact model log", segment.file, t);
+      out.delete();
+      compacting.set(false);
+    }
+  }
+
+  /**
+   * Runs on the writer thread: move the key map over to the compacted segment.
+   */
+  private void swap(Swap swap) {
+    final Segment old = swap.old;
+    try {
+      if (swap.moved.isEmpty() && swap.tombstoneBytes == 0) {
+        // nothing left worth keeping
+        segments.remove(old.number);
+        old.close();
+        swap.compacted.delete();
+        if (!old.file.delete()) {
+          X_Log.warn(ModelLogStore.class, "Unable to delete empty model log", old.file);
+        }
+        return;
+      }
+      java.nio.file.Files.move(swap.compacted.toPath(), old.file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+      final Segment replacement = new Segment(old.number, old.file);
+      replacement.hasTombstones = swap.tombstoneBytes > 0;
+      replacement.keptTombstoneBytes = swap.tombstoneBytes;
+      for (Object[] move : swap.moved) {
+        final String key = (String) move[0];
+        final Location was = (Location) move[1];
+        if (locations.get(key) == was) {
+          final Location loc = new Location(replacement, (Long) move[2], (Integer) move[3], (Long) move[4], (Integer) move[5]);
+          locations.put(key, loc);
+          replacement.liveBytes.addAndGet(loc.recordBytes);
+        }
+      }
+      segments.put(old.number, replacement);
+      old.close();
+      X_Log.debug(ModelLogStore.class, "Compacted", old, "into", replacement);
+    } catch (Throwable t) {
+      X_Log.error(ModelLogStore.class, "Unable to swap in compacted model log", old.file, t);
+      swap.compacted.delete();
+    } finally {
+      compacting.set(false);
+    }
+  }
+
+  private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+    while (buffer.hasRemaining()) {
+      final int read = channel.read(buffer, position + buffer.position());
+      if (read < 0) {
+        throw new java.io.EOFException("Unexpected end of " + channel);
+      }
+    }
+  }
+
+  /**
+   * Scopes never contain a null char, so the last one in a stored key separates scope from id.
+   */
+  private static String key(String scope, String id) {
+    return scope + '\0' + id;
+  }
+
+  /**
+   * Convert a model key into the scope (kind and ancestry) that it will be listed under.
+   */
+  public static String scopeOf(String kind, ModelKey parent) {
+    final StringBuilder b = new StringBuilder(kind);
+    while (parent != null) {
+      b.append('/').append(parent.getKind());
+      if (parent.isComplete()) {
+        b.append('/').append(parent.getId());
+      }
+      parent = parent.getParent();
+    }
+    return b.toString();
+  }
+
+  @Override
+  public String toString() {
+    return "ModelLogStore{" + directory + ", keys=" + locations.size() + ", segments=" + segments.values() + "}";
+  }
+}
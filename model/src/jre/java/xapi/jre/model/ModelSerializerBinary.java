@@ -0,0 +1,533 @@
+package xapi.jre.model;
+
+import xapi.annotation.model.KeyOnly;
+import xapi.collect.api.ClassTo;
+import xapi.dev.source.CharBuffer;
+import xapi.fu.Do;
+import xapi.fu.In1;
+import xapi.model.api.*;
+import xapi.model.tools.ModelSerializerDefault;
+import xapi.source.lex.StringCharIterator;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.lang.reflect.Array;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A binary wire format for models, which writes straight to a {@link ByteBuffer} or {@link OutputStream},
+ * and reads straight from a {@link ByteBuffer}.
+ * <p>
+ * The layout follows the same property order and null / placeholder rules as {@link ModelSerializerDefault},
+ * so a model survives a binary round trip exactly as it survives a text round trip; only the encoding differs:
+ * <ul>
+ *   <li>int / long values (and their boxed types) are zig-zag varints</li>
+ *   <li>float and double values are raw IEEE bytes, big-endian</li>
+ *   <li>strings and keys are a varint of (utf8 byte length + 1), with 0 for null, followed by the utf8 bytes</li>
+ *   <li>enums are a zig-zag varint of the ordinal, with -1 for null</li>
+ *   <li>arrays of primitives or strings are a zig-zag varint length (-1 for null), followed by each item</li>
+ *   <li>embedded sub-models are written recursively</li>
+ * </ul>
+ * Everything else (collections, maps, key-only or list sub-models, enum sets, classes...) is rare enough that
+ * we embed the text format of that one property as a length-prefixed utf8 string.
+ * <p>
+ * Every binary model starts with a zero byte (which the text format never does), followed by a version byte,
+ * so a reader can tell the two formats apart; see {@link #isBinary(ByteBuffer)}.
+ * <p>
+ * Because this class extends {@link ModelSerializerDefault}, it also still speaks the text format,
+ * so it can be registered as the serializer for any type that should be able to negotiate either format.
+ */
+public class ModelSerializerBinary<M extends Model> extends ModelSerializerDefault<M> {
+
+  public static final String CONTENT_TYPE = "application/x-xapi-model";
+
+  private static final byte MAGIC = 0;
+  private static final byte VERSION = 1;
+
+  private static final int STATE_NULL = -2, STATE_NO_KEY = -1, STATE_KEY = 0, STATE_TEXT = 1;
+  private static final byte MODEL_NULL = 0, MODEL_EMBEDDED = 1, MODEL_TEXT = 2;
+
+  public ModelSerializerBinary() {
+  }
+
+  public ModelSerializerBinary(final ClassTo<PrimitiveReader> primitiveReaders) {
+    super(primitiveReaders);
+  }
+
+  /**
+   * @return true if the bytes remaining in the buffer are a binary model (the buffer position is not changed).
+   */
+  public static boolean isBinary(final ByteBuffer buffer) {
+    return buffer.remaining() > 1 && buffer.get(buffer.position()) == MAGIC;
+  }
+
+  public static boolean isBinary(final byte[] bytes) {
+    return bytes.length > 1 && bytes[0] == MAGIC;
+  }
+
+  public ByteBuffer modelToBytes(final Class<? extends Model> modelType, final M model, final ModelSerializationContext ctx) {
+    final BinaryOut out = new BinaryOut(null, 256);
+    out.writeByte(MAGIC);
+    out.writeByte(VERSION);
+    writeBinary(modelType, model, out, ctx);
+    return out.toBuffer();
+  }
+
+  public void modelToStream(final Class<? extends Model> modelType, final M model, final ModelSerializationContext ctx, final OutputStream stream)
+  throws IOException {
+    final BinaryOut out = new BinaryOut(stream, 4096);
+    try {
+      out.writeByte(MAGIC);
+      out.writeByte(VERSION);
+      writeBinary(modelType, model, out, ctx);
+      out.flush();
+    } catch (UncheckedIOException e) {
+      throw e.getCause();
+    }
+  }
+
+  /**
+   * Reads a model from the buffer's position; on return, the position is just past the model.
+   */
+  public M modelFromBytes(final Class<? extends Model> modelType, final ByteBuffer in, final ModelDeserializationContext ctx) {
+    final byte magic = in.get();
+    final byte version = in.get();
+    if (magic != MAGIC || version != VERSION) {
+      throw new IllegalArgumentException("Not a version " + VERSION + " binary model; header was " + magic + "," + version);
+    }
+    return readBinary(modelType, in, ctx);
+  }
+
+  @SuppressWarnings("unchecked")
+  protected void writeBinary(final Class<? extends Model> modelType, final M model, final BinaryOut out, final ModelSerializationContext ctx) {
+    if (model == null) {
+      out.writeVarInt(STATE_NULL);
+      return;
+    }
+    if (model instanceof ModelList) {
+      // model lists have their own, rather involved, header rules; leave them to the text format
+      out.writeVarInt(STATE_TEXT);
+      // modelToString adds its output to the context buffer, which asText points at a fresh one
+      out.writeString(asText(ctx, buffer -> modelToString(modelType, model, ctx, false)));
+      return;
+    }
+    final ModelKey key = model.getKey();
+    if (key == null) {
+      out.writeVarInt(STATE_NO_KEY);
+    } else {
+      out.writeVarInt(STATE_KEY);
+      out.writeString(ctx.getService().keyToString(key));
+    }
+    final ModelSerializationPlan plan = planFor(model, ctx.getManifest());
+    if (plan != null) {
+      final boolean clientToServer = ctx.isClientToServer();
+      for (final ModelSerializationPlan.Property property : plan.getProperties()) {
+        if (property.isEnabled(clientToServer)) {
+          writeValue(out, property.getName(), property.getType(), model.getProperty(property.getName()), false, ctx);
+        } else {
+          writeValue(out, property.getName(), property.getType(), null, true, ctx);
+        }
+      }
+      return;
+    }
+    for (final String name : ctx.getPropertyNames(model)) {
+      final Class<?> propertyType = model.getPropertyType(name);
+      if (preventSerialization(model, name, ctx)) {
+        writeValue(out, name, propertyType, null, true, ctx);
+      } else {
+        writeValue(out, name, propertyType, model.getProperty(name), false, ctx);
+      }
+    }
+  }
+
+  @SuppressWarnings({"unchecked", "rawtypes"})
+  protected void writeValue(final BinaryOut out, final String name, final Class type, final Object value,
+                            final boolean placeholder, final ModelSerializationContext ctx) {
+    if (type == String.class) {
+      out.writeString((String) value);
+    } else if (type.isPrimitive()) {
+      writePrimitive(out, type, value);
+    } else if (type == Integer.class || type == Long.class || type == Short.class || type == Byte.class) {
+      out.writeVarLong(value == null ? 0 : ((Number) value).longValue());
+    } else if (type == Float.class || type == Double.class) {
+      out.writeDouble(value == null ? 0 : ((Number) value).doubleValue());
+    } else if (type == Boolean.class) {
+      out.writeVarInt(value == null ? -1 : (Boolean) value ? 1 : 0);
+    } else if (type.isEnum()) {
+      out.writeVarInt(value == null ? -1 : ((Enum) value).ordinal());
+    } else if (isModelKeyType(type)) {
+      out.writeString(value == null ? null : ctx.getService().keyToString((ModelKey) value));
+    } else if (type.isArray() && isNative(type.getComponentType())) {
+      if (value == null) {
+        out.writeVarInt(-1);
+        return;
+      }
+      final Class<?> component = type.getComponentType();
+      final int length = Array.getLength(value);
+      out.writeVarInt(length);
+      for (int i = 0; i < length; i++) {
+        if (component == String.class) {
+          out.writeString((String) Array.get(value, i));
+        } else {
+          writePrimitive(out, component, Array.get(value, i));
+        }
+      }
+    } else if (!placeholder && isModelType(type)) {
+      writeSubModel(out, name, type, (Model) value, ctx);
+    } else {
+      // no compact encoding for this type; embed its text form
+      final String text = asText(ctx, buffer -> {
+        if (placeholder) {
+          writeNullPlaceholder(buffer, type, ctx.getPrimitives(), ctx);
+        } else {
+          writeObject(buffer, name, type, value, ctx.getPrimitives(), ctx);
+        }
+      });
+      if (isModelType(type)) {
+        out.writeByte(MODEL_TEXT);
+      }
+      out.writeString(text);
+    }
+  }
+
+  @SuppressWarnings({"unchecked", "rawtypes"})
+  protected void writeSubModel(final BinaryOut out, final String name, final Class<?> type, final Model child, final ModelSerializationContext ctx) {
+    if (child == null) {
+      out.writeByte(MODEL_NULL);
+      return;
+    }
+    boolean keyOnly = type.getAnnotation(KeyOnly.class) != null;
+    if (!keyOnly && ctx.getManifest() != null) {
+      keyOnly = ctx.getManifest().isKeyOnly() || ctx.getManifest().isKeyOnly(name);
+    }
+    if (keyOnly || ModelList.class.isAssignableFrom(type)) {
+      // key-only children may need to be auto-saved, and lists have their own header; the text format knows how
+      out.writeByte(MODEL_TEXT);
+      out.writeString(asText(ctx, buffer -> writeObject(buffer, name, type, child, ctx.getPrimitives(), ctx)));
+      return;
+    }
+    out.writeByte(MODEL_EMBEDDED);
+    final Do release = ctx.fixManifest(type);
+    try {
+      writeBinary((Class<? extends Model>) type, (M) child, out, ctx);
+    } finally {
+      release.done();
+    }
+  }
+
+  private static void writePrimitive(final BinaryOut out, final Class<?> type, final Object value) {
+    if (type == double.class) {
+      out.writeDouble(value == null ? 0 : (Double) value);
+    } else if (type == float.class) {
+      out.writeFloat(value == null ? 0 : (Float) value);
+    } else if (type == boolean.class) {
+      out.writeByte(value != null && (Boolean) value ? 1 : 0);
+    } else if (type == char.class) {
+      // matches the text format, which writes '0' for a missing char
+      out.writeVarInt(value == null ? '0' : (Character) value);
+    } else if (type == long.class) {
+      out.writeVarLong(value == null ? 0 : (Long) value);
+    } else {
+      out.writeVarInt(value == null ? 0 : ((Number) value).intValue());
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  protected M readBinary(final Class<? extends Model> modelType, final ByteBuffer in, final ModelDeserializationContext ctx) {
+    final int state = readVarInt(in);
+    if (state == STATE_NULL) {
+      return null;
+    }
+    if (state == STATE_TEXT) {
+      return modelFromString(modelType, new StringCharIterator(readString(in)), ctx, ctx.isKeyOnly());
+    }
+    final ModelKey key = state == STATE_KEY ? ctx.getService().keyFromString(readString(in)) : null;
+    final M model = (M) ctx.getModel();
+    assert model != null : "Null model found in context for " + modelType;
+    model.setKey(key);
+    final ModelSerializationPlan plan = planFor(model, ctx.getManifest());
+    if (plan != null) {
+      final boolean sentClientToServer = !ctx.isClientToServer();
+      for (final ModelSerializationPlan.Property property : plan.getProperties()) {
+        final Object value = readValue(in, property.getName(), property.getType(), ctx);
+        if (property.isEnabled(sentClientToServer)) {
+          model.setProperty(property.getName(), value);
+        }
+      }
+      return model;
+    }
+    for (final String name : ctx.getPropertyNames(model)) {
+      final boolean doNotAttach = preventDeserialization(model, name, ctx);
+      final Object value = readValue(in, name, model.getPropertyType(name), ctx);
+      if (!doNotAttach) {
+        model.setProperty(name, value);
+      }
+    }
+    return model;
+  }
+
+  @SuppressWarnings({"unchecked", "rawtypes"})
+  protected Object readValue(final ByteBuffer in, final String name, final Class type, final ModelDeserializationContext ctx) {
+    if (type == String.class) {
+      return readString(in);
+    } else if (type.isPrimitive()) {
+      return readPrimitive(in, type);
+    } else if (type == Integer.class) {
+      return (int) readVarLong(in);
+    } else if (type == Long.class) {
+      return readVarLong(in);
+    } else if (type == Short.class) {
+      return (short) readVarLong(in);
+    } else if (type == Byte.class) {
+      return (byte) readVarLong(in);
+    } else if (type == Float.class) {
+      return (float) in.getDouble();
+    } else if (type == Double.class) {
+      return in.getDouble();
+    } else if (type == Boolean.class) {
+      final int val = readVarInt(in);
+      return val == -1 ? null : val == 1;
+    } else if (type.isEnum()) {
+      final int ordinal = readVarInt(in);
+      return ordinal == -1 ? null : type.getEnumConstants()[ordinal];
+    } else if (isModelKeyType(type)) {
+      return ctx.getService().keyFromString(readString(in));
+    } else if (type.isArray() && isNative(type.getComponentType())) {
+      final int length = readVarInt(in);
+      if (length == -1) {
+        return null;
+      }
+      final Class<?> component = type.getComponentType();
+      final Object array = Array.newInstance(component, length);
+      for (int i = 0; i < length; i++) {
+        Array.set(array, i, component == String.class ? readString(in) : readPrimitive(in, component));
+      }
+      return array;
+    } else if (isModelType(type)) {
+      final byte marker = in.get();
+      if (marker == MODEL_NULL) {
+        return null;
+      } else if (marker == MODEL_EMBEDDED) {
+        return readBinary(type, in, ctx.createChildContext(type, name));
+      }
+    }
+    return readObject(type, name, new StringCharIterator(readString(in)), ctx.getPrimitives(), ctx);
+  }
+
+  private static Object readPrimitive(final ByteBuffer in, final Class<?> type) {
+    if (type == double.class) {
+      return in.getDouble();
+    } else if (type == float.class) {
+      return in.getFloat();
+    } else if (type == boolean.class) {
+      return in.get() != 0;
+    } else if (type == char.class) {
+      return (char) readVarInt(in);
+    } else if (type == long.class) {
+      return readVarLong(in);
+    } else if (type == short.class) {
+      return (short) readVarInt(in);
+    } else if (type == byte.class) {
+      return (byte) readVarInt(in);
+    }
+    return readVarInt(in);
+  }
+
+  private static boolean isNative(final Class<?> component) {
+    return component.isPrimitive() || component == String.class;
+  }
+
+  /**
+   * Runs a text serializer against a fresh buffer, so any sub-models it writes (which append to the
+   * context buffer) land in our buffer, rather than the root one.
+   */
+  private static String asText(final ModelSerializationContext ctx, final In1<CharBuffer> writer) {
+    final CharBuffer was = ctx.getBuffer();
+    final CharBuffer buffer = new CharBuffer();
+    ctx.setBuffer(buffer);
+    try {
+      writer.in(buffer);
+    } finally {
+      ctx.setBuffer(was);
+    }
+    return buffer.toSource();
+  }
+
+  public static int readVarInt(final ByteBuffer in) {
+    return (int) readVarLong(in);
+  }
+
+  public static long readVarLong(final ByteBuffer in) {
+    long raw = 0;
+    int shift = 0;
+    byte b;
+    do {
+      b = in.get();
+      raw |= (long) (b & 0x7f) << shift;
+      shift += 7;
+    } while ((b & 0x80) != 0);
+    // undo the zig-zag
+    return (raw >>> 1) ^ -(raw & 1);
+  }
+
+  public static String readString(final ByteBuffer in) {
+    final int length = readVarInt(in) - 1;
+    if (length == -1) {
+      return null;
+    }
+    final String result;
+    if (in.hasArray()) {
+      result = new String(in.array(), in.arrayOffset() + in.position(), length, StandardCharsets.UTF_8);
+      in.position(in.position() + length);
+    } else {
+      final byte[] bytes = new byte[length];
+      in.get(bytes);
+      result = new String(bytes, StandardCharsets.UTF_8);
+    }
+    return result;
+  }
+
+  /**
+   * A growable byte array, which (optionally) drains itself into an OutputStream whenever it fills.
+   * Strings are encoded straight into the array, without any intermediate byte[].
+   */
+  public static final class BinaryOut {
+
+    private final OutputStream stream;
+    private byte[] bytes;
+    private int pos;
+
+    public BinaryOut(final OutputStream stream, final int size) {
+      this.stream = stream;
+      this.bytes = new byte[size];
+    }
+
+    private void ensure(final int amount) {
+      if (pos + amount <= bytes.length) {
+        return;
+      }
+      if (stream != null) {
+        flushBuffer();
+        if (amount <= bytes.length) {
+          return;
+        }
+      }
+      final byte[] grown = new byte[Math.max(bytes.length * 2, pos + amount)];
+      System.arraycopy(bytes, 0, grown, 0, pos);
+      bytes = grown;
+    }
+
+    private void flushBuffer() {
+      try {
+        stream.write(bytes, 0, pos);
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+      pos = 0;
+    }
+
+    public void writeByte(final int b) {
+      ensure(1);
+      bytes[pos++] = (byte) b;
+    }
+
+    public void writeVarInt(final int i) {
+      writeVarLong(i);
+    }
+
+    public void writeVarLong(final long l) {
+      ensure(10);
+      long zigzag = (l << 1) ^ (l >> 63);
+      while ((zigzag & ~0x7fL) != 0) {
+        bytes[pos++] = (byte) ((zigzag & 0x7f) | 0x80);
+        zigzag >>>= 7;
+      }
+      bytes[pos++] = (byte) zigzag;
+    }
+
+    public void writeFloat(final float f) {
+      writeInt(Float.floatToRawIntBits(f));
+    }
+
+    public void writeDouble(final double d) {
+      final long bits = Double.doubleToRawLongBits(d);
+      writeInt((int) (bits >>> 32));
+      writeInt((int) bits);
+    }
+
+    private void writeInt(final int i) {
+      ensure(4);
+      bytes[pos++] = (byte) (i >>> 24);
+      bytes[pos++] = (byte) (i >>> 16);
+      bytes[pos++] = (byte) (i >>> 8);
+      bytes[pos++] = (byte) i;
+    }
+
+    public void writeString(final String s) {
+      if (s == null) {
+        writeVarInt(0);
+        return;
+      }
+      final int chars = s.length();
+      int length = 0;
+      for (int i = 0; i < chars; i++) {
+        final char c = s.charAt(i);
+        if (c < 0x80) {
+          length++;
+        } else if (c < 0x800) {
+          length += 2;
+        } else if (Character.isHighSurrogate(c) && i + 1 < chars && Character.isLowSurrogate(s.charAt(i + 1))) {
+          length += 4;
+          i++;
+        } else if (Character.isSurrogate(c)) {
+          length++;
+        } else {
+          length += 3;
+        }
+      }
+      writeVarInt(length + 1);
+      ensure(stream == null ? length : Math.min(length, 4));
+      for (int i = 0; i < chars; i++) {
+        if (stream != null) {
+          ensure(4);
+        }
+        final char c = s.charAt(i);
+        if (c < 0x80) {
+          bytes[pos++] = (byte) c;
+        } else if (c < 0x800) {
+          bytes[pos++] = (byte) (0xc0 | (c >> 6));
+          bytes[pos++] = (byte) (0x80 | (c & 0x3f));
+        } else if (Character.isHighSurrogate(c) && i + 1 < chars && Character.isLowSurrogate(s.charAt(i + 1))) {
+          final int cp = Character.toCodePoint(c, s.charAt(++i));
+          bytes[pos++] = (byte) (0xf0 | (cp >> 18));
+          bytes[pos++] = (byte) (0x80 | ((cp >> 12) & 0x3f));
+          bytes[pos++] = (byte) (0x80 | ((cp >> 6) & 0x3f));
+          bytes[pos++] = (byte) (0x80 | (cp & 0x3f));
+        } else if (Character.isSurrogate(c)) {
+          // an unpaired surrogate; String.getBytes(UTF_8) also writes these as '?'
+          bytes[pos++] = '?';
+        } else {
+          bytes[pos++] = (byte) (0xe0 | (c >> 12));
+          bytes[pos++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+          bytes[pos++] = (byte) (0x80 | (c & 0x3f));
+        }
+      }
+    }
+
+    public void flush() {
+      if (stream != null) {
+        flushBuffer();
+      }
+    }
+
+    public ByteBuffer toBuffer() {
+      return ByteBuffer.wrap(bytes, 0, pos);
+    }
+
+    public int size() {
+      return pos;
+    }
+  }
+}
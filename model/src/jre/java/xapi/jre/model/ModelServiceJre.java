@@ -5,6 +5,8 @@ package xapi.jre.model;
 
 import xapi.annotation.inject.SingletonDefault;
 import xapi.constants.X_Namespace;
+import xapi.fu.In1.In1Unsafe;
+import xapi.fu.In1Out1;
 import xapi.fu.Out1;
 import xapi.fu.has.HasName;
 import xapi.io.X_IO;
@@ -24,8 +26,12 @@ import xapi.util.api.RemovalHandler;
 import xapi.util.api.SuccessHandler;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Comparator;
 
 /**
@@ -48,43 +54,82 @@ public class ModelServiceJre extends AbstractJreModelService implements ModelSer
     ModelKey key = getKey(model, type);
     // make sure to generate id for keys of long type w/o ids
     final File file = keyToFile(key, model, callback);
+    if (isBinaryFormat(type)) {
+      final ByteBuffer bytes;
+      try {
+        bytes = serializeBinary(type, model);
+      } catch (Throwable t) {
+        fail(callback, t);
+        return;
+      }
+      writeModelFile(file, model, callback, out -> out.write(bytes.array(), bytes.arrayOffset() + bytes.position(), bytes.remaining()));
+      return;
+    }
     serialize(type, model, (serialized, error)-> {
       if (error != null) {
         fail(callback, error);
         return;
       }
+      final String source = serialized.toSource();
+      writeModelFile(file, model, callback, out -> {
+        X_IO.drain(out, X_IO.toStreamUtf8(source));
+        X_Log.trace(ModelServiceJre.class, "Saved model source", source);
+        assert deserialize(type, CharIterator.forString(source)).equals(model);
+      });
+    }); // end serialize(...)
+  } // end doPersist()
 
-      final Runnable finish = () -> {
-        try {
-          if (file.exists()) {
-            file.delete();
-          }
-          if (!file.getParentFile().isDirectory()) {
-            final boolean created = file.getParentFile().mkdirs();
-            if (!created) {
-              X_Log.warn(ModelServiceJre.class, "Unable to create directory", file.getParentFile());
-            }
+  private <M extends Model> void writeModelFile(final File file, final M model, final SuccessHandler<M> callback, final In1Unsafe<OutputStream> writer) {
+    final Runnable finish = () -> {
+      try {
+        if (file.exists()) {
+          file.delete();
+        }
+        if (!file.getParentFile().isDirectory()) {
+          final boolean created = file.getParentFile().mkdirs();
+          if (!created) {
+            X_Log.warn(ModelServiceJre.class, "Unable to create directory", file.getParentFile());
           }
-          final FileOutputStream result = new FileOutputStream(file);
-          final String source = serialized.toSource();
-          X_IO.drain(result, X_IO.toStreamUtf8(source));
-          callback.onSuccess(model);
-          X_Log.trace(ModelServiceJre.class, "Saved model to ", file);
-          X_Log.trace(ModelServiceJre.class, "Saved model source", source);
-          assert deserialize(type, CharIterator.forString(source)).equals(model);
-        } catch (final IOException e) {
-          X_Log.error(ModelServiceJre.class, "Unable to save model " + model, e);
-          fail(callback, e);
         }
-      };
-      if (isAsync()) {
-        X_Time.runLater(finish);
-      } else {
-        finish.run();
+        try (
+            final FileOutputStream result = new FileOutputStream(file)
+        ) {
+          writer.inUnsafe(result);
+        }
+        callback.onSuccess(model);
+        X_Log.trace(ModelServiceJre.class, "Saved model to ", file);
+      } catch (final Throwable e) {
+        X_Log.error(ModelServiceJre.class, "Unable to save model " + model, e);
+        fail(callback, e);
       }
+    };
+    if (isAsync()) {
+      X_Time.runLater(finish);
+    } else {
+      finish.run();
+    }
+  }
 
-    }); // end serialize(...)
-  } // end doPersist()
+  /**
+   * @return true if models of the given type should be written in the binary format;
+   * see {@link X_Namespace#PROPERTY_MODEL_FORMAT}.  Both formats are always readable.
+   */
+  protected boolean isBinaryFormat(final String type) {
+    return ModelModule.WIRE_FORMAT_BINARY.equals(X_Properties.getProperty(X_Namespace.PROPERTY_MODEL_FORMAT))
+        && supportsBinary(type);
+  }
+
+  /**
+   * Reads a model file, in whichever format it was written.
+   */
+  protected <M extends Model> M readModelFile(final File file, final In1Out1<CharIterator, M> reader, final In1Out1<ByteBuffer, M> binaryReader)
+  throws IOException {
+    final byte[] bytes = Files.readAllBytes(file.toPath());
+    if (ModelSerializerBinary.isBinary(bytes)) {
+      return binaryReader.io(ByteBuffer.wrap(bytes));
+    }
+    return reader.io(new StringCharIterator(new String(bytes, StandardCharsets.UTF_8)));
+  }
 
   private <M extends Model> File keyToFile(final ModelKey key, M model, final SuccessHandler<M> callback) {
     // no errors serializing, write our file.
@@ -92,12 +137,8 @@ public class ModelServiceJre extends AbstractJreModelService implements ModelSer
     if (f == null) {
       return f;
     }
-    if (key.getNamespace().length() > 0) {
-      f = new File(f, key.getNamespace());
-    }
-    f = new File(f, key.getKind());
     // nest hierarchical keys in a directory structure
-    f = resolveParents(f, key.getParent());
+    f = modelDirectory(f, key.getNamespace(), key.getKind(), key.getParent());
     f.mkdirs();
     if (X_String.isEmpty(key.getId())) {
       // No id; generate one
@@ -143,17 +184,12 @@ public class ModelServiceJre extends AbstractJreModelService implements ModelSer
 
   @SuppressWarnings("unchecked")
   @Override
-  public <M extends Model> void load(final Class<M> modelClass, final ModelKey modelKey, final SuccessHandler<M> callback) {
+  protected <M extends Model> void doLoad(final Class<M> modelClass, final ModelKey modelKey, final SuccessHandler<M> callback) {
     File f = getRoot(callback);
     if (f == null) {
       return;
     }
-    if (modelKey.getNamespace().length() > 0) {
-      f = new File(f, modelKey.getNamespace());
-    }
-    f = new File(f, modelKey.getKind());
-    f = resolveParents(f, modelKey.getParent());
-    // TODO: use nested structure for hierarchical keys
+    f = modelDirectory(f, modelKey.getNamespace(), modelKey.getKind(), modelKey.getParent());
     f = new File(f, modelKey.getId());
     if (!f.exists()) {
       if (callback instanceof ErrorHandler) {
@@ -165,13 +201,14 @@ public class ModelServiceJre extends AbstractJreModelService implements ModelSer
       final Out1<RemovalHandler> scope = captureScope();
       X_Time.runLater(() -> {
         final RemovalHandler handler = scope.out1();
-        String result;
         try {
-          result = X_IO.toStringUtf8(new FileInputStream(file));
           final M model;
           try {
-            model = deserialize(modelClass, new StringCharIterator(result));
+            model = readModelFile(file, chars -> deserialize(modelClass, chars), bytes -> deserializeBinary(modelClass, bytes));
+          } catch (IOException e) {
+            throw e;
           } catch (Throwable t) {
+            final String result = X_IO.toStringUtf8(new FileInputStream(file));
             X_Log.error(ModelServiceJre.class, "Bad model string:\n" + result);
             final String expectedUuid = getModelModule().getUuid();
             throw new ModelDeserializationException(expectedUuid, result, t);
@@ -215,106 +252,124 @@ public class ModelServiceJre extends AbstractJreModelService implements ModelSer
   @Override
   public <M extends Model> void query(final Class<M> modelClass, final ModelQuery<M> query,
       final SuccessHandler<ModelQueryResult<M>> callback) {
+    queryStream(modelClass, query, ModelQuerySink.collect(new ModelQueryResult<>(modelClass), callback));
+  }
+
+  /**
+   * Streams each file of the page to the sink as it is read, rather than reading the whole page into a result.
+   */
+  @Override
+  public <M extends Model> void queryStream(final Class<M> modelClass, final ModelQuery<M> query, final ModelQuerySink<M> sink) {
     if (query.getParameters().isNotEmpty()) {
-      ErrorHandler.delegateTo(callback)
-          .onError(new UnsupportedOperationException("The basic, file-backed "+getClass().getName()+" does not support any complex queries"));
+      sink.onError(new UnsupportedOperationException("The basic, file-backed "+getClass().getName()+" does not support any complex queries"));
       return;
     }
-
-    final ModelQueryResult<M> result = new ModelQueryResult<>(modelClass);
+    final String[] cursor = new String[1];
     final ArrayList<File> files;
     try {
-      files = queryFiles(getTypeName(modelClass), query, result, callback);
+      files = queryFiles(getTypeName(modelClass), query, cursor);
     } catch (Throwable t) {
-      ErrorHandler.delegateTo(callback)
-          .onError(t);
+      sink.onError(t);
       return;
     }
 
+    streamFiles(files, chars -> deserialize(modelClass, chars), bytes -> deserializeBinary(modelClass, bytes), query, cursor[0], sink);
+  }
+
+  /**
+   * Reads and deserializes each file, in order, into the query result,
+   * and then sends the result to the callback.
+   * Files may be in either the text or the binary format.
+   *
+   * The work is done via {@link X_Time#runLater(Runnable)}, with the current model module scope.
+   */
+  protected <M extends Model> void readFiles(
+      final Collection<File> files,
+      final In1Out1<CharIterator, M> reader,
+      final In1Out1<ByteBuffer, M> binaryReader,
+      final ModelQuery<M> query,
+      final ModelQueryResult<M> result,
+      final SuccessHandler<ModelQueryResult<M>> callback
+  ) {
+    streamFiles(files, reader, binaryReader, query, result.getCursor(), ModelQuerySink.collect(result, callback));
+  }
+
+  /**
+   * Reads and deserializes each file, in order, sending each model to the sink before reading the next file.
+   * Files may be in either the text or the binary format.
+   *
+   * The work is done via {@link X_Time#runLater(Runnable)}, with the current model module scope.
+   */
+  protected <M extends Model> void streamFiles(
+      final Collection<File> files,
+      final In1Out1<CharIterator, M> reader,
+      final In1Out1<ByteBuffer, M> binaryReader,
+      final ModelQuery<M> query,
+      final String cursor,
+      final ModelQuerySink<M> sink
+  ) {
     final Out1<RemovalHandler> scope = captureScope();
     X_Time.runLater(() -> {
       final RemovalHandler handler = scope.out1();
       File lastKnown = null;
-      String fileResult = null;
       try {
-        for (final File file : files) {
-          lastKnown = file;
-          fileResult = X_IO.toStringUtf8(new FileInputStream(file));
-          final M model = deserialize(modelClass, new StringCharIterator(fileResult));
-          fileResult = null;
-          result.addModel(model);
+        try {
+          sink.onStart(cursor, files.size());
+          for (final File file : files) {
+            lastKnown = file;
+            sink.onModel(readModelFile(file, reader, binaryReader));
+          }
+        } catch (final Throwable t) {
+          failQuery(t, query, lastKnown, sink);
+          return;
         }
-        callback.onSuccess(result);
-      } catch (final Throwable t) {
-        failQuery(t, query, lastKnown, fileResult, callback);
+        sink.onComplete();
       } finally {
         handler.remove();
       }
     });
   }
 
-  private <M extends Model> void failQuery(Throwable t, final ModelQuery<M> query, final File lastKnown, final String fileResult, final SuccessHandler<ModelQueryResult<M>> callback) {
+  private <M extends Model> void failQuery(Throwable t, final ModelQuery<M> query, final File lastKnown, final ModelQuerySink<M> sink) {
     X_Log.error(ModelServiceJre.class, "Unable to load files for query ", query);
     X_Log.error(ModelServiceJre.class, "Last viewed file:", lastKnown);
-    X_Log.error(ModelServiceJre.class, "Last viewed file contents:", fileResult);
-    ErrorHandler.delegateTo(callback)
-            .onError(new ModelQueryFailureException(query, lastKnown.getPath(), t));
+    sink.onError(new ModelQueryFailureException(query, lastKnown == null ? null : lastKnown.getPath(), t));
   }
 
   @Override
   public <M extends Model> void query(final ModelManifest manifest, final ModelQuery<M> query,
       final SuccessHandler<ModelQueryResult<M>> callback) {
+    queryStream(manifest, query, ModelQuerySink.collect(new ModelQueryResult<>((Class)manifest.getModelType()), callback));
+  }
+
+  @Override
+  public <M extends Model> void queryStream(final ModelManifest manifest, final ModelQuery<M> query, final ModelQuerySink<M> sink) {
     if (query.getParameters().isNotEmpty()) {
-      ErrorHandler.delegateTo(callback)
-          .onError(new UnsupportedOperationException("The basic, file-backed "+getClass().getName()+" does not support any complex queries"));
+      sink.onError(new UnsupportedOperationException("The basic, file-backed "+getClass().getName()+" does not support any complex queries"));
       return;
     }
-
-    final ModelQueryResult<M> result = new ModelQueryResult<>((Class)manifest.getModelType());
+    final String[] cursor = new String[1];
     final ArrayList<File> files;
     try {
-      files = queryFiles(manifest.getType(), query, result, callback);
+      files = queryFiles(manifest.getType(), query, cursor);
     } catch (Throwable t) {
-      ErrorHandler.delegateTo(callback)
-              .onError(t);
+      sink.onError(t);
       return;
     }
 
-    final Out1<RemovalHandler> scope = captureScope();
-    X_Time.runLater(() -> {
-      final RemovalHandler handler = scope.out1();
-      File lastKnown = null;
-      String fileResult = null;
-      try {
-        for (final File file : files) {
-          lastKnown = file;
-          fileResult = X_IO.toStringUtf8(new FileInputStream(file));
-          final M model = deserialize(manifest, new StringCharIterator(fileResult));
-          fileResult = null;
-          result.addModel(model);
-        }
-        callback.onSuccess(result);
-      } catch (final Throwable t) {
-        failQuery(t, query, lastKnown, fileResult, callback);
-      } finally {
-        handler.remove();
-      }
-    });
+    streamFiles(files, chars -> deserialize(manifest, chars), bytes -> deserializeBinary(manifest, bytes), query, cursor[0], sink);
   }
 
-  private <M extends Model> ArrayList<File> queryFiles(final String typeName, final ModelQuery<M> query, final ModelQueryResult<M> result, final SuccessHandler<ModelQueryResult<M>> callback) {
+  /**
+   * @param cursor Receives the cursor of the next page, if there are more files than fit in this page.
+   */
+  private <M extends Model> ArrayList<File> queryFiles(final String typeName, final ModelQuery<M> query, final String[] cursor) throws IOException {
       ArrayList<File> files;
 
       // The only query we will support is a parameterless "get all" query
-      File f = getRoot(callback);
-      if (query.getNamespace().length() > 0) {
-        f = new File(f, query.getNamespace());
-      }
-
-      f = new File(f, typeName);
+      File f = getFilesystemRoot();
       // use ancestor to create proper model hierarchy.
-      ModelKey parent = query.getAncestor();
-      f = resolveParents(f, parent);
+      f = modelDirectory(f, query.getNamespace(), typeName, query.getAncestor());
 
       File[] allFiles;
       if (query.getCursor() == null) {
@@ -340,12 +395,24 @@ public class ModelServiceJre extends AbstractJreModelService implements ModelSer
         files.add(allFiles[i]);
       }
       if (size < allFiles.length) {
-        result.setCursor(allFiles[size].getName());
+        cursor[0] = allFiles[size].getName();
       }
       return files;
   }
 
-  private File resolveParents(File f, ModelKey parent) {
+  /**
+   * @return The directory in which models of the given namespace, kind and (optional) parent key are stored.
+   */
+  protected File modelDirectory(File root, String namespace, String kind, ModelKey parent) {
+    File f = root;
+    if (namespace != null && namespace.length() > 0) {
+      f = new File(f, namespace);
+    }
+    f = new File(f, kind);
+    return resolveParents(f, parent);
+  }
+
+  protected File resolveParents(File f, ModelKey parent) {
     while (parent != null) {
       f = new File(f, parent.getKind());
       if (parent.isComplete()) {
@@ -423,21 +490,18 @@ public class ModelServiceJre extends AbstractJreModelService implements ModelSer
       @Override
       public void run() {
         final RemovalHandler handler = scope.out1();
-        String fileResult;
         try {
           for (final File file : files) {
             final Class<? extends Model> type = typeNameToClass.get(file.getParentFile().getName());
+            final In1Out1<CharIterator, Model> reader = chars -> deserialize(type, chars);
+            final In1Out1<ByteBuffer, Model> binaryReader = bytes -> deserializeBinary(type, bytes);
             if (file.isFile()) {
-              fileResult = X_IO.toStringUtf8(new FileInputStream(file));
-              final Model model = deserialize(type, new StringCharIterator(fileResult));
-              result.addModel(model);
+              result.addModel(readModelFile(file, reader, binaryReader));
             } else {
               final File[] kids = file.listFiles();
               if (kids != null) {
                 for (File kid : kids) {
-                  fileResult = X_IO.toStringUtf8(new FileInputStream(kid));
-                  final Model model = deserialize(type, new StringCharIterator(fileResult));
-                  result.addModel(model);
+                  result.addModel(readModelFile(kid, reader, binaryReader));
                 }
 
               }
@@ -486,7 +550,7 @@ public class ModelServiceJre extends AbstractJreModelService implements ModelSer
    * @return
    * @throws IOException
    */
-  private File getFilesystemRoot() throws IOException {
+  protected File getFilesystemRoot() throws IOException {
     if (root == null) {
       String modelDir = X_Properties.getProperty(X_Namespace.PROPERTY_MODEL_DIR);
       if (modelDir == null) {
@@ -514,12 +578,8 @@ public class ModelServiceJre extends AbstractJreModelService implements ModelSer
     if (X_String.isEmpty(key.getId())) {
       throw new IllegalArgumentException("Key must have an ID to be deleted: " + key);
     }
-    if (!key.getNamespace().isEmpty()) {
-      f = new File(f, key.getNamespace());
-    }
-    f = new File(f, key.getKind());
     // nest hierarchical keys in a directory structure
-    f = resolveParents(f, key.getParent());
+    f = modelDirectory(f, key.getNamespace(), key.getKind(), key.getParent());
     f = new File(f, key.getId());
     if (!f.exists()) {
       callback.onSuccess(null);
@@ -528,6 +588,7 @@ public class ModelServiceJre extends AbstractJreModelService implements ModelSer
     final boolean success;
     try {
       success = f.delete();
+      uncacheModel(key);
     } catch (Exception e) {
       if (callback instanceof ErrorHandler) {
         ErrorHandler.delegateTo(callback).onError(e);
@@ -544,6 +605,7 @@ public class ModelServiceJre extends AbstractJreModelService implements ModelSer
   public void setRootDir(final File rootDir) {
     // TODO: validate that we're not leaveing any state behind? ....kinda don't care, tbh.
     this.root = rootDir;
+    clearModelCache();
   }
 
 }
@@ -0,0 +1,211 @@
+package xapi.jre.model;
+
+import xapi.fu.In1Out1;
+import xapi.log.X_Log;
+import xapi.model.api.*;
+import xapi.model.api.ModelQuery.QueryParameter;
+import xapi.model.api.ModelQuery.SortOption;
+import xapi.platform.JrePlatform;
+import xapi.source.lex.CharIterator;
+import xapi.util.api.ErrorHandler;
+import xapi.util.api.SuccessHandler;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A file-backed model service which stores models exactly like {@link ModelServiceJre},
+ * but keeps a persistent {@link ModelIndex} of the ids in each model directory,
+ * and of any properties used in query filters or sort options.
+ * <p>
+ * Unlike {@link ModelServiceJre}, this service supports equals / greater than / less than / contains filters,
+ * and sort options, on any property whose values are strings, numbers, booleans, chars, enums or dates.
+ * Paged queries ordered by id or by a single property seek directly into the index,
+ * rather than listing and sorting the whole directory; see {@link ModelIndex} for the queries sorted in memory.
+ * <p>
+ * Indexes are stored in a sibling directory of the model root (root + ".index"), so they never
+ * show up as a model kind.  Secondary indexes are created the first time a query uses a property,
+ * which requires reading every model of that kind once; after that, they are maintained by {@link #doPersist}
+ * and {@link #delete}, and reloaded from disk on startup.
+ * <p>
+ * To use this service, register it as your {@link xapi.model.service.ModelService} singleton,
+ * via META-INF/singletons/xapi.model.service.ModelService.
+ */
+@JrePlatform
+public class ModelServiceJreIndexed extends ModelServiceJre {
+
+  private final ConcurrentHashMap<File, ModelIndex> indexes = new ConcurrentHashMap<>();
+
+  @Override
+  protected <M extends Model> void doPersist(final String type, final M model, final SuccessHandler<M> callback) {
+    if (model.getKey() == null) {
+      model.setKey(newKey(null, type));
+    }
+    // load the index before we touch the directory, so it does not mistake our own write for one it missed
+    final ModelIndex index = existingIndex(model.getKey(), type);
+    super.doPersist(type, model, SuccessHandler.handler(saved -> {
+      if (index != null) {
+        index.put(saved.getKey().getId(), saved);
+      }
+      callback.onSuccess(saved);
+    }, ErrorHandler.delegateTo(callback)));
+  }
+
+  @Override
+  public void delete(final ModelKey key, final SuccessHandler<Boolean> callback) {
+    final ModelIndex index = existingIndex(key, key.getKind());
+    super.delete(key, SuccessHandler.handler(success -> {
+      if (Boolean.TRUE.equals(success)) {
+        if (index != null) {
+          index.delete(key.getId());
+        }
+      }
+      callback.onSuccess(success);
+    }, ErrorHandler.delegateTo(callback)));
+  }
+
+  @Override
+  public <M extends Model> void query(final Class<M> modelClass, final ModelQuery<M> query,
+                                      final SuccessHandler<ModelQueryResult<M>> callback) {
+    final In1Out1<CharIterator, M> reader = chars -> deserialize(modelClass, chars);
+    final In1Out1<ByteBuffer, M> binaryReader = bytes -> deserializeBinary(modelClass, bytes);
+    indexedQuery(getTypeName(modelClass), query, new ModelQueryResult<>(modelClass), reader, binaryReader, callback);
+  }
+
+  @Override
+  @SuppressWarnings("unchecked")
+  public <M extends Model> void query(final ModelManifest manifest, final ModelQuery<M> query,
+                                      final SuccessHandler<ModelQueryResult<M>> callback) {
+    final In1Out1<CharIterator, M> reader = chars -> deserialize(manifest, chars);
+    final In1Out1<ByteBuffer, M> binaryReader = bytes -> deserializeBinary(manifest, bytes);
+    final ModelQueryResult<M> result = new ModelQueryResult<>((Class<M>) manifest.getModelType());
+    indexedQuery(manifest.getType(), query, result, reader, binaryReader, callback);
+  }
+
+  @Override
+  public <M extends Model> void queryStream(final Class<M> modelClass, final ModelQuery<M> query, final ModelQuerySink<M> sink) {
+    final In1Out1<CharIterator, M> reader = chars -> deserialize(modelClass, chars);
+    final In1Out1<ByteBuffer, M> binaryReader = bytes -> deserializeBinary(modelClass, bytes);
+    indexedStream(getTypeName(modelClass), query, reader, binaryReader, sink);
+  }
+
+  @Override
+  public <M extends Model> void queryStream(final ModelManifest manifest, final ModelQuery<M> query, final ModelQuerySink<M> sink) {
+    final In1Out1<CharIterator, M> reader = chars -> deserialize(manifest, chars);
+    final In1Out1<ByteBuffer, M> binaryReader = bytes -> deserializeBinary(manifest, bytes);
+    indexedStream(manifest.getType(), query, reader, binaryReader, sink);
+  }
+
+  protected <M extends Model> void indexedQuery(
+      final String typeName,
+      final ModelQuery<M> query,
+      final ModelQueryResult<M> result,
+      final In1Out1<CharIterator, M> reader,
+      final In1Out1<ByteBuffer, M> binaryReader,
+      final SuccessHandler<ModelQueryResult<M>> callback
+  ) {
+    indexedStream(typeName, query, reader, binaryReader, ModelQuerySink.collect(result, callback));
+  }
+
+  /**
+   * Selects the ids of one page from the index, then streams the model of each id to the sink.
+   */
+  protected <M extends Model> void indexedStream(
+      final String typeName,
+      final ModelQuery<M> query,
+      final In1Out1<CharIterator, M> reader,
+      final In1Out1<ByteBuffer, M> binaryReader,
+      final ModelQuerySink<M> sink
+  ) {
+    final List<File> files;
+    final String cursor;
+    try {
+      final File root = getFilesystemRoot();
+      final File dir = modelDirectory(root, query.getNamespace(), typeName, query.getAncestor());
+      final In1Out1<String, Model> loader = id -> readModel(new File(dir, id), reader, binaryReader);
+      final ModelIndex index = indexFor(dir, loader);
+
+      final List<QueryParameter> filters = new ArrayList<>();
+      for (QueryParameter filter : query.getParameters()) {
+        index.ensureProperty(filter.getParameterName(), loader);
+        filters.add(filter);
+      }
+      final List<SortOption> sorts = new ArrayList<>();
+      for (SortOption sort : query.getSortOptions()) {
+        index.ensureProperty(sort.getPropertyName(), loader);
+        sorts.add(sort);
+      }
+
+      final List<String> ids = new ArrayList<>(Math.min(query.getPageSize(), index.size()));
+      cursor = index.select(filters, sorts, query.getCursor(), query.getPageSize(), ids);
+      files = new ArrayList<>(ids.size());
+      for (String id : ids) {
+        files.add(new File(dir, id));
+      }
+    } catch (Throwable t) {
+      sink.onError(t);
+      return;
+    }
+    streamFiles(files, reader, binaryReader, query, cursor, sink);
+  }
+
+  /**
+   * @return The index for the given model directory, loading (or building) it if necessary.
+   */
+  protected ModelIndex indexFor(File dir, In1Out1<String, Model> loader) throws IOException {
+    final File logFile = indexFile(dir);
+    return indexes.computeIfAbsent(dir, d -> new ModelIndex(d, logFile).open(loader));
+  }
+
+  /**
+   * @return The index for the directory of the given key, only if it is already loaded or persisted.
+   * There is no point building an index for a directory no one has queried.
+   */
+  private ModelIndex existingIndex(ModelKey key, String type) {
+    try {
+      final File dir = modelDirectory(getFilesystemRoot(), key.getNamespace(), key.getKind(), key.getParent());
+      final ModelIndex loaded = indexes.get(dir);
+      if (loaded != null || !indexFile(dir).isFile()) {
+        return loaded;
+      }
+      final Class<? extends Model> cls = typeToClass(type);
+      return indexFor(dir, id -> readModel(new File(dir, id), chars -> deserialize(type, chars), bytes -> deserializeBinary(cls, bytes)));
+    } catch (IOException e) {
+      X_Log.error(ModelServiceJreIndexed.class, "Unable to update model index for", key, e);
+      return null;
+    }
+  }
+
+  protected File indexFile(File dir) throws IOException {
+    final File root = getFilesystemRoot();
+    final File indexRoot = new File(root.getParentFile(), root.getName() + ".index");
+    final String relative = root.toURI().relativize(dir.toURI()).getPath();
+    return new File(new File(indexRoot, relative), ModelIndex.INDEX_FILE);
+  }
+
+  private <M extends Model> M readModel(File file, In1Out1<CharIterator, M> reader, In1Out1<ByteBuffer, M> binaryReader) {
+    if (!file.isFile()) {
+      return null;
+    }
+    try {
+      return readModelFile(file, reader, binaryReader);
+    } catch (IOException e) {
+      X_Log.warn(ModelServiceJreIndexed.class, "Unable to read model for indexing", file, e);
+      return null;
+    }
+  }
+
+  @Override
+  public void setRootDir(final File rootDir) {
+    for (ModelIndex index : indexes.values()) {
+      index.close();
+    }
+    indexes.clear();
+    super.setRootDir(rootDir);
+  }
+
+}
@@ -0,0 +1,363 @@
+package xapi.jre.model;
+
+import xapi.constants.X_Namespace;
+import xapi.fu.In1Out1;
+import xapi.fu.Out1;
+import xapi.fu.has.HasName;
+import xapi.jre.model.ModelLogStore.FsyncPolicy;
+import xapi.log.X_Log;
+import xapi.model.api.*;
+import xapi.model.service.ModelServiceWithRootDir;
+import xapi.platform.JrePlatform;
+import xapi.prop.X_Properties;
+import xapi.source.lex.CharIterator;
+import xapi.source.lex.StringCharIterator;
+import xapi.string.X_String;
+import xapi.time.X_Time;
+import xapi.util.api.ErrorHandler;
+import xapi.util.api.RemovalHandler;
+import xapi.util.api.SuccessHandler;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NavigableSet;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A model service backed by an append-only, log-structured {@link ModelLogStore} per namespace.
+ * <p>
+ * Rather than one file per model (as in {@link ModelServiceJre}), every save or delete is appended
+ * to the namespace's active segment file, and many concurrent saves are committed with a single write and fsync.
+ * Models are located through an in-memory map of key to file offset, which is rebuilt on startup by replaying the segments;
+ * any torn write left by a crash is detected by checksum and truncated away.
+ * Sealed segments which are mostly dead records are compacted in the background.
+ * <p>
+ * Like {@link ModelServiceJre}, this only supports parameterless queries, paged in id order;
+ * unlike it, a page is found with a seek into a sorted set of ids, instead of a listing of a directory.
+ * <p>
+ * The root directory is read from {@link X_Namespace#PROPERTY_MODEL_DIR}, and must not be shared with {@link ModelServiceJre}.
+ * Segment size and fsync policy are read from {@link X_Namespace#PROPERTY_MODEL_LOG_SEGMENT_SIZE}
+ * and {@link X_Namespace#PROPERTY_MODEL_LOG_FSYNC}.
+ * <p>
+ * To use this service, register it as your {@link xapi.model.service.ModelService} singleton,
+ * via META-INF/singletons/xapi.model.service.ModelService.
+ */
+@JrePlatform
+public class ModelServiceJreLog extends AbstractJreModelService implements ModelServiceWithRootDir {
+
+  private static final String DEFAULT_NAMESPACE = "_default";
+  private static final long DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+
+  private final ConcurrentHashMap<String, ModelLogStore> stores = new ConcurrentHashMap<>();
+  private File root;
+
+  @Override
+  protected <M extends Model> void doPersist(final String type, final M model, final SuccessHandler<M> callback) {
+    ModelKey key = model.getKey();
+    if (key == null) {
+      key = newKey(null, type);
+      model.setKey(key);
+    }
+    final ModelLogStore store;
+    final String scope = ModelLogStore.scopeOf(key.getKind(), key.getParent());
+    try {
+      store = storeFor(key.getNamespace());
+    } catch (Throwable t) {
+      ErrorHandler.delegateTo(callback).onError(t);
+      return;
+    }
+    if (X_String.isEmpty(key.getId())) {
+      final String prefix = model instanceof HasName ? ((HasName) model).getName() : null;
+      key.setId(store.reserveId(scope, prefix));
+    }
+    final String id = key.getId();
+    serialize(type, model, (serialized, error) -> {
+      if (error != null) {
+        ErrorHandler.delegateTo(callback).onError(error);
+        return;
+      }
+      final Out1<RemovalHandler> modelScope = captureScope();
+      store.put(scope, id, serialized.toSource(),
+          existed -> inScope(modelScope, () -> callback.onSuccess(model)),
+          failure -> inScope(modelScope, () -> ErrorHandler.delegateTo(callback).onError(failure))
+      );
+    });
+  }
+
+  @Override
+  protected boolean isAsync() {
+    return true;
+  }
+
+  @Override
+  @SuppressWarnings("unchecked")
+  protected <M extends Model> void doLoad(final Class<M> modelClass, final ModelKey modelKey, final SuccessHandler<M> callback) {
+    final Out1<RemovalHandler> scope = captureScope();
+    X_Time.runLater(() -> {
+      final RemovalHandler handler = scope.out1();
+      String source = null;
+      try {
+        source = storeFor(modelKey.getNamespace())
+            .get(ModelLogStore.scopeOf(modelKey.getKind(), modelKey.getParent()), modelKey.getId());
+        if (source == null) {
+          ErrorHandler.delegateTo(callback).onError(new ModelNotFoundException(modelKey));
+          return;
+        }
+        final M model;
+        try {
+          model = deserialize(modelClass, new StringCharIterator(source));
+        } catch (Throwable t) {
+          X_Log.error(ModelServiceJreLog.class, "Bad model string:\n" + source);
+          throw new ModelDeserializationException(getModelModule().getUuid(), source, t);
+        }
+        // use the key object user passed to us
+        model.setKey(modelKey);
+        callback.onSuccess(model);
+      } catch (final Throwable e) {
+        X_Log.info(ModelServiceJreLog.class, "Unable to load model " + modelKey, e);
+        ErrorHandler.delegateTo(callback).onError(new ModelNotFoundException(modelKey, e));
+      } finally {
+        handler.remove();
+      }
+    });
+  }
+
+  @Override
+  public <M extends Model> void query(final Class<M> modelClass, final ModelQuery<M> query,
+                                      final SuccessHandler<ModelQueryResult<M>> callback) {
+    scopeQuery(getTypeName(modelClass), query, new ModelQueryResult<>(modelClass),
+        chars -> deserialize(modelClass, chars), callback);
+  }
+
+  @Override
+  @SuppressWarnings("unchecked")
+  public <M extends Model> void query(final ModelManifest manifest, final ModelQuery<M> query,
+                                      final SuccessHandler<ModelQueryResult<M>> callback) {
+    scopeQuery(manifest.getType(), query, new ModelQueryResult<>((Class<M>) manifest.getModelType()),
+        chars -> deserialize(manifest, chars), callback);
+  }
+
+  protected <M extends Model> void scopeQuery(
+      final String typeName,
+      final ModelQuery<M> query,
+      final ModelQueryResult<M> result,
+      final In1Out1<CharIterator, M> reader,
+      final SuccessHandler<ModelQueryResult<M>> callback
+  ) {
+    if (query.getParameters().isNotEmpty()) {
+      ErrorHandler.delegateTo(callback)
+          .onError(new UnsupportedOperationException("The log-structured "+getClass().getName()+" does not support any complex queries"));
+      return;
+    }
+    final ModelLogStore store;
+    final String scope = ModelLogStore.scopeOf(typeName, query.getAncestor());
+    final List<String> ids = new ArrayList<>();
+    try {
+      store = storeFor(query.getNamespace());
+      NavigableSet<String> page = store.scope(scope);
+      if (query.getCursor() != null) {
+        page = page.tailSet(query.getCursor(), true);
+      }
+      for (String id : page) {
+        if (ids.size() == query.getPageSize()) {
+          result.setCursor(id);
+          break;
+        }
+        ids.add(id);
+      }
+    } catch (Throwable t) {
+      ErrorHandler.delegateTo(callback).onError(t);
+      return;
+    }
+
+    final Out1<RemovalHandler> modelScope = captureScope();
+    X_Time.runLater(() -> {
+      final RemovalHandler handler = modelScope.out1();
+      String lastKnown = null;
+      try {
+        for (String id : ids) {
+          lastKnown = id;
+          final String source = store.get(scope, id);
+          if (source != null) {
+            // deleted since we read the page; skip it
+            result.addModel(reader.io(new StringCharIterator(source)));
+          }
+        }
+        callback.onSuccess(result);
+      } catch (Throwable t) {
+        X_Log.error(ModelServiceJreLog.class, "Unable to load models for query ", query, "last id:", lastKnown);
+        ErrorHandler.delegateTo(callback).onError(new ModelQueryFailureException(query, lastKnown, t));
+      } finally {
+        handler.remove();
+      }
+    });
+  }
+
+  /**
+   * Lists every root-level model in the namespace, ordered by kind, then id.
+   * The cursor is the kind and id of the next model, separated by a slash.
+   */
+  @Override
+  public void query(final ModelQuery<Model> query, final SuccessHandler<ModelQueryResult<Model>> callback) {
+    if (query.getParameters().isNotEmpty()) {
+      ErrorHandler.delegateTo(callback)
+          .onError(new UnsupportedOperationException("The log-structured "+getClass().getName()+" does not support any complex queries"));
+      return;
+    }
+    final ModelQueryResult<Model> result = new ModelQueryResult<>(null);
+    final List<String[]> keys = new ArrayList<>();
+    final ModelLogStore store;
+    try {
+      store = storeFor(query.getNamespace());
+      final String cursor = query.getCursor();
+      final String cursorKind = cursor == null ? null : cursor.substring(0, cursor.indexOf('/'));
+      final String cursorId = cursor == null ? null : cursor.substring(cursor.indexOf('/') + 1);
+      final TreeSet<String> kinds = new TreeSet<>();
+      for (String scope : store.scopes()) {
+        if (scope.indexOf('/') == -1 && (cursorKind == null || scope.compareTo(cursorKind) >= 0)) {
+          kinds.add(scope);
+        }
+      }
+      search:
+      for (String kind : kinds) {
+        NavigableSet<String> ids = store.scope(kind);
+        if (kind.equals(cursorKind)) {
+          ids = ids.tailSet(cursorId, true);
+        }
+        for (String id : ids) {
+          if (keys.size() >= query.getLimit()) {
+            result.setCursor(kind + "/" + id);
+            break search;
+          }
+          keys.add(new String[]{kind, id});
+        }
+      }
+    } catch (Throwable t) {
+      ErrorHandler.delegateTo(callback).onError(t);
+      return;
+    }
+
+    final Out1<RemovalHandler> scope = captureScope();
+    X_Time.runLater(() -> {
+      final RemovalHandler handler = scope.out1();
+      try {
+        for (String[] key : keys) {
+          final String source = store.get(key[0], key[1]);
+          if (source != null) {
+            result.addModel(deserialize(key[0], new StringCharIterator(source)));
+          }
+        }
+        callback.onSuccess(result);
+      } catch (final Throwable e) {
+        X_Log.error(ModelServiceJreLog.class, "Unable to load models for query "+query, e);
+        ErrorHandler.delegateTo(callback).onError(e);
+      } finally {
+        handler.remove();
+      }
+    });
+  }
+
+  @Override
+  public void delete(final ModelKey key, final SuccessHandler<Boolean> callback) {
+    if (X_String.isEmpty(key.getId())) {
+      throw new IllegalArgumentException("Key must have an ID to be deleted: " + key);
+    }
+    final ModelLogStore store;
+    try {
+      store = storeFor(key.getNamespace());
+    } catch (Throwable t) {
+      ErrorHandler.delegateTo(callback).onError(t);
+      return;
+    }
+    final String scope = ModelLogStore.scopeOf(key.getKind(), key.getParent());
+    if (!store.contains(scope, key.getId())) {
+      // matches ModelServiceJre; null means there was nothing to delete
+      callback.onSuccess(null);
+      return;
+    }
+    final Out1<RemovalHandler> modelScope = captureScope();
+    store.delete(scope, key.getId(),
+        existed -> {
+          uncacheModel(key);
+          inScope(modelScope, () -> callback.onSuccess(existed));
+        },
+        failure -> inScope(modelScope, () -> ErrorHandler.delegateTo(callback).onError(failure))
+    );
+  }
+
+  /**
+   * Store callbacks run on the store's writer thread, which must never block on user code;
+   * hop back onto the X_Time executor, with the model module scope of the original request.
+   */
+  private void inScope(Out1<RemovalHandler> scope, Runnable task) {
+    X_Time.runLater(() -> {
+      final RemovalHandler handler = scope.out1();
+      try {
+        task.run();
+      } finally {
+        handler.remove();
+      }
+    });
+  }
+
+  protected ModelLogStore storeFor(String namespace) throws IOException {
+    final File root = getFilesystemRoot();
+    final String name = X_String.isEmpty(namespace) ? DEFAULT_NAMESPACE : namespace;
+    try {
+      return stores.computeIfAbsent(name, ns -> {
+        try {
+          return new ModelLogStore(new File(root, ns), segmentSize(), fsyncPolicy());
+        } catch (IOException e) {
+          throw new UncheckedIOException(e);
+        }
+      });
+    } catch (UncheckedIOException e) {
+      throw e.getCause();
+    }
+  }
+
+  protected long segmentSize() {
+    final String size = X_Properties.getProperty(X_Namespace.PROPERTY_MODEL_LOG_SEGMENT_SIZE);
+    return size == null ? DEFAULT_SEGMENT_SIZE : Long.parseLong(size.trim());
+  }
+
+  protected FsyncPolicy fsyncPolicy() {
+    final String policy = X_Properties.getProperty(X_Namespace.PROPERTY_MODEL_LOG_FSYNC);
+    return policy == null ? FsyncPolicy.COMMIT : FsyncPolicy.valueOf(policy.trim().toUpperCase());
+  }
+
+  protected synchronized File getFilesystemRoot() throws IOException {
+    if (root == null) {
+      String modelDir = X_Properties.getProperty(X_Namespace.PROPERTY_MODEL_DIR);
+      if (modelDir == null) {
+        File temp = File.createTempFile("ephemeral", "models");
+        root = new File(temp.getParentFile(), "models.log");
+        temp.delete();
+      } else {
+        root = new File(modelDir.replace("$USER_HOME", System.getProperty("user.home"))).getCanonicalFile();
+      }
+      root.mkdirs();
+      X_Log.info(ModelServiceJreLog.class, "Initialized log-structured model service to ", "file://" + root);
+    }
+    return root;
+  }
+
+  /**
+   * Closes all open stores (committing anything pending), and switches to the given root.
+   * Pass null to just close the stores.
+   */
+  @Override
+  public synchronized void setRootDir(final File rootDir) {
+    for (ModelLogStore store : stores.values()) {
+      store.close();
+    }
+    stores.clear();
+    this.root = rootDir;
+    clearModelCache();
+  }
+
+}
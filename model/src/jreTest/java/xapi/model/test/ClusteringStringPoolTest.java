@@ -0,0 +1,215 @@
+package xapi.model.test;
+
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import xapi.dev.source.CharBuffer;
+import xapi.jre.model.ModelServiceJre;
+import xapi.log.X_Log;
+import xapi.log.api.LogLevel;
+import xapi.model.api.Model;
+import xapi.model.api.ModelKey;
+import xapi.model.content.ModelContent;
+import xapi.model.content.ModelRating;
+import xapi.model.tools.ClusteringPrimitiveDeserializer;
+import xapi.model.tools.ClusteringPrimitiveSerializer;
+import xapi.model.tools.ClusteringStringPool;
+import xapi.model.user.ModelUser;
+import xapi.source.lex.StringCharIterator;
+import xapi.util.api.SuccessHandler;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Sends models between two ends of a pretend connection, each with its own {@link ClusteringStringPool},
+ * and compares the bytes sent against sending each model on its own.
+ */
+public class ClusteringStringPoolTest {
+
+    private static LogLevel was;
+
+    private ModelServiceJre service;
+    private ClusteringStringPool client;
+    private ClusteringStringPool server;
+
+    @BeforeClass
+    public static void beforeClass() {
+        was = X_Log.logLevel();
+        X_Log.logLevel(LogLevel.INFO);
+    }
+
+    @AfterClass
+    public static void afterClass() {
+        X_Log.logLevel(was);
+    }
+
+    @Before
+    public void before() {
+        service = new ModelServiceJre() {
+            @Override
+            public <M extends Model> void load(Class<M> modelClass, ModelKey modelKey, SuccessHandler<M> callback) {
+                // key-only sub-models are loaded in the background; we only care about what was sent
+            }
+        };
+        client = new ClusteringStringPool();
+        server = new ClusteringStringPool();
+    }
+
+    @Test
+    public void testRepeatedStringsAreSentOnce() {
+        final ModelUser user = newUser("repeat");
+        final String first = send(client, user);
+        final String second = send(client, user);
+        assertTrue("Second message (" + second.length() + ") should be smaller than the first (" + first.length() + ")",
+            second.length() < first.length());
+        assertFalse(second.contains(user.getType()));
+
+        assertEquals(service.serialize(ModelUser.class, user).toString(),
+            service.serialize(ModelUser.class, (ModelUser) receive(server, first)).toString());
+        assertEquals(service.serialize(ModelUser.class, user).toString(),
+            service.serialize(ModelUser.class, (ModelUser) receive(server, second)).toString());
+    }
+
+    @Test
+    public void testWellKnownStringsAreNeverSent() {
+        final CharBuffer message = new CharBuffer();
+        final ClusteringPrimitiveSerializer primitives = new ClusteringPrimitiveSerializer(service.primitiveSerializer(), message, client);
+        message.append(primitives.serializeClass(String.class));
+        message.append(primitives.serializeString("java.lang.Integer"));
+        assertFalse(message.toSource().contains("java"));
+        assertEquals(0, client.getOutgoingSize());
+
+        final StringCharIterator chars = new StringCharIterator(message.toSource());
+        final ClusteringPrimitiveDeserializer reader = new ClusteringPrimitiveDeserializer(service.primitiveSerializer(), chars, server);
+        assertSame(String.class, reader.deserializeClass(chars));
+        assertEquals("java.lang.Integer", reader.deserializeString(chars));
+    }
+
+    @Test
+    public void testLeastRecentlyUsedStringsAreDropped() {
+        client.setMaxSize(3);
+        for (int i = 0; i < 10; i++) {
+            final ModelUser user = newUser("user" + i);
+            assertEquals("User user" + i, ((ModelUser) receive(server, send(client, user))).getDisplayName());
+        }
+        // drops are sent at the start of the next message
+        receive(server, send(client, newUser("last")));
+        assertTrue(client.getOutgoingSize() <= 5);
+        assertEquals(client.getOutgoingSize(), server.getIncomingSize());
+
+        // strings which were dropped are defined again if they are needed
+        final ModelUser again = (ModelUser) receive(server, send(client, newUser("user0")));
+        assertEquals("User user0", again.getDisplayName());
+    }
+
+    @Test
+    public void testUnacknowledgedStringsAreRedefined() {
+        client.setAutoAcknowledge(false);
+        final ModelUser user = newUser("lossy");
+        final String lost = send(client, user);
+        // the server never sees the first message; the second must still be readable
+        final String second = send(client, user);
+        assertEquals(lost.length(), second.length());
+        assertEquals("User lossy", ((ModelUser) receive(server, second)).getDisplayName());
+
+        client.acknowledge(server.getReceivedThrough());
+        final String third = send(client, user);
+        assertTrue(third.length() < second.length());
+        assertEquals("User lossy", ((ModelUser) receive(server, third)).getDisplayName());
+    }
+
+    @Test
+    public void testReceiverOutOfSyncFails() {
+        final ModelUser user = newUser("sync");
+        send(client, user);
+        final String second = send(client, user);
+        try {
+            receive(server, second);
+            fail("Expected an unknown id");
+        } catch (IllegalStateException expected) {
+        }
+    }
+
+    @Test
+    public void testReceivedThroughIsContiguous() {
+        client.setAutoAcknowledge(false);
+        final String first = send(client, newUser("a"));
+        final String second = send(client, newUser("b"));
+        receive(server, second);
+        final int afterSecond = server.getReceivedThrough();
+        receive(server, first);
+        assertTrue(server.getReceivedThrough() > afterSecond);
+    }
+
+    @Test(timeout = 60_000)
+    public void benchmarkStreamOfModels() {
+        // a small forum: a handful of users, writing and rating posts about a few topics
+        final List<ModelUser> users = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            users.add(newUser("member" + i));
+        }
+        final List<Model> stream = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            final ModelContent post = service.create(ModelContent.class);
+            post.setKey(service.newKey("forum", post.getType(), "post" + i));
+            post.setText("Post number " + i);
+            post.setTime(1_600_000_000_000.0 + i);
+            post.setAuthor(users.get(i % users.size()));
+            final ModelRating[] ratings = new ModelRating[i % 3];
+            for (int r = 0; r < ratings.length; r++) {
+                ratings[r] = service.create(ModelRating.class);
+                ratings[r].setRating(r);
+                ratings[r].setAuthor(users.get((i + r + 1) % users.size()));
+            }
+            post.setUpvotes(ratings);
+            stream.add(post);
+            if (i % 10 == 0) {
+                stream.add(users.get(i % users.size()));
+            }
+        }
+
+        long plain = 0, pooled = 0;
+        for (Model model : stream) {
+            plain += bytes(service.primitiveSerializer().serializeClass(service.typeToClass(model.getType()))
+                + service.serialize(service.typeToClass(model.getType()), model));
+            final String message = send(client, model);
+            pooled += bytes(message);
+            assertEquals(model.getKey(), receive(server, message).getKey());
+        }
+        X_Log.info(ClusteringStringPoolTest.class, stream.size(), " models; without pooling: ", plain,
+            " bytes, pooled: ", pooled, " bytes (", (100 * pooled / plain), "%)");
+        assertTrue(pooled < plain);
+    }
+
+    private String send(ClusteringStringPool pool, Model model) {
+        final CharBuffer message = new CharBuffer();
+        final ClusteringPrimitiveSerializer primitives = new ClusteringPrimitiveSerializer(service.primitiveSerializer(), message, pool);
+        message.append(primitives.serializeClass(service.typeToClass(model.getType())));
+        service.serialize(model.getType(), model, message, primitives);
+        return message.toSource();
+    }
+
+    private Model receive(ClusteringStringPool pool, String message) {
+        final StringCharIterator chars = new StringCharIterator(message);
+        final ClusteringPrimitiveDeserializer primitives = new ClusteringPrimitiveDeserializer(service.primitiveSerializer(), chars, pool);
+        final Class<Model> type = primitives.deserializeClass(chars);
+        return service.deserialize(type, chars, primitives);
+    }
+
+    private ModelUser newUser(String id) {
+        final ModelUser user = service.create(ModelUser.class);
+        user.setKey(service.newKey("forum", user.getType(), id));
+        user.setId(id);
+        user.setDisplayName("User " + id);
+        return user;
+    }
+
+    private static long bytes(String message) {
+        return message.getBytes(StandardCharsets.UTF_8).length;
+    }
+}
@@ -0,0 +1,370 @@
+package xapi.model.test;
+
+import org.junit.AfterClass;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import xapi.collect.api.IntTo;
+import xapi.constants.X_Namespace;
+import xapi.jre.model.GeneratedModel;
+import xapi.jre.model.ModelServiceJre;
+import xapi.log.X_Log;
+import xapi.log.api.LogLevel;
+import xapi.model.api.Model;
+import xapi.model.api.ModelKey;
+import xapi.model.content.ModelContent;
+import xapi.model.content.ModelRating;
+import xapi.model.user.ModelUser;
+import xapi.source.lex.StringCharIterator;
+import xapi.util.api.SuccessHandler;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map.Entry;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that models generated with a field per property behave like the proxy based models they replace,
+ * and compares the speed and size of each.
+ */
+public class GeneratedModelTest {
+
+  public interface ModelEverything extends Model {
+    int getCount();
+    ModelEverything setCount(int count);
+
+    long getTotal();
+    void setTotal(long total);
+
+    boolean isEnabled();
+    ModelEverything setEnabled(boolean enabled);
+
+    char getInitial();
+    ModelEverything setInitial(char initial);
+
+    float getRatio();
+    ModelEverything setRatio(float ratio);
+
+    double getScore();
+    double setScore(double score);
+
+    String getName();
+    String setName(String name);
+    ModelEverything removeName();
+
+    String[] getTags();
+    ModelEverything setTags(String[] tags);
+
+    IntTo<String> getAliases();
+    ModelEverything setAliases(IntTo<String> aliases);
+
+    default String describe() {
+      return getName() + " x" + getCount();
+    }
+  }
+
+  public interface ModelNarrower extends ModelEverything {
+    @Override
+    ModelNarrower setCount(int count);
+  }
+
+  private static final int ITERATIONS = 2_000_000;
+
+  private static LogLevel was;
+
+  private ModelServiceJre generated;
+  private ModelServiceJre proxied;
+
+  @BeforeClass
+  public static void beforeClass() {
+    was = X_Log.logLevel();
+    X_Log.logLevel(LogLevel.INFO);
+  }
+
+  @AfterClass
+  public static void afterClass() {
+    X_Log.logLevel(was);
+  }
+
+  @Before
+  public void before() {
+    generated = newService(true);
+    proxied = newService(false);
+  }
+
+  private static ModelServiceJre newService(boolean generate) {
+    return new ModelServiceJre() {
+      @Override
+      protected boolean useGeneratedModels() {
+        return generate;
+      }
+
+      @Override
+      public <M extends Model> void load(Class<M> modelClass, ModelKey modelKey, SuccessHandler<M> callback) {
+      }
+    };
+  }
+
+  @Test
+  public void testModelsAreGenerated() {
+    final ModelUser user = generated.create(ModelUser.class);
+    assertTrue(user instanceof GeneratedModel);
+    assertFalse(Proxy.isProxyClass(user.getClass()));
+    assertTrue(Proxy.isProxyClass(proxied.create(ModelUser.class).getClass()));
+    assertSame(user.getClass(), generated.create(ModelUser.class).getClass());
+    assertTrue(generated.create(ModelRating.class) instanceof GeneratedModel);
+  }
+
+  @Test
+  public void testGettersAndSetters() {
+    final ModelEverything model = generated.create(ModelEverything.class);
+    assertEquals(0, model.getCount());
+    assertEquals(0, model.getTotal());
+    assertFalse(model.isEnabled());
+    assertEquals(0, model.getInitial());
+    assertNull(model.getName());
+    // arrays and collections default to empty values, which are kept
+    assertEquals(0, model.getTags().length);
+    assertSame(model.getTags(), model.getTags());
+    assertNotNull(model.getAliases());
+    assertSame(model.getAliases(), model.getAliases());
+
+    assertSame(model, model.setCount(3).setEnabled(true).setInitial('x').setRatio(0.5f));
+    model.setTotal(Long.MAX_VALUE);
+    assertEquals(0, model.setScore(1.5), 0);
+    assertEquals(1.5, model.setScore(2.5), 0);
+    assertNull(model.setName("one"));
+    assertEquals("one", model.setName("two"));
+
+    assertEquals(3, model.getCount());
+    assertEquals(Long.MAX_VALUE, model.getTotal());
+    assertTrue(model.isEnabled());
+    assertEquals('x', model.getInitial());
+    assertEquals(0.5f, model.getRatio(), 0);
+    assertEquals(2.5, model.getScore(), 0);
+    assertEquals("two", model.getName());
+    assertEquals("two x3", model.describe());
+
+    assertSame(model, model.removeName());
+    assertNull(model.getName());
+    assertFalse(model.hasProperty("name"));
+    assertTrue(model.hasProperty("count"));
+  }
+
+  @Test
+  public void testPropertiesMatchTypedAccess() {
+    final ModelEverything model = generated.create(ModelEverything.class);
+    model.setProperty("count", 7);
+    model.setProperty("total", 8L);
+    model.setProperty("enabled", true);
+    model.setProperty("name", "named");
+    assertEquals(7, model.getCount());
+    assertEquals(8L, model.getTotal());
+    assertTrue(model.isEnabled());
+    assertEquals("named", model.getName());
+    assertEquals(Integer.valueOf(7), model.getProperty("count"));
+    assertEquals(Double.valueOf(0), model.getProperty("score"));
+
+    // null clears a primitive back to zero
+    model.setProperty("count", null);
+    assertEquals(0, model.getCount());
+
+    // keys which are not properties are still kept
+    model.setProperty("extra", "value");
+    assertEquals("value", model.getProperty("extra"));
+    assertTrue(model.hasProperty("extra"));
+    model.removeProperty("extra");
+    assertNull(model.getProperty("extra"));
+
+    final List<String> names = new ArrayList<>();
+    for (Entry<String, Object> property : model.getProperties()) {
+      names.add(property.getKey());
+      assertEquals(model.getProperty(property.getKey()), property.getValue());
+    }
+    assertArrayEquals(model.getPropertyNames(), names.toArray());
+
+    model.clear();
+    assertFalse(model.isEnabled());
+    assertNull(model.getName());
+  }
+
+  @Test
+  public void testZeroValuesArePresentLikeTheProxies() {
+    for (ModelServiceJre service : new ModelServiceJre[]{generated, proxied}) {
+      final ModelEverything model = service.create(ModelEverything.class);
+      assertFalse(model.hasProperty("count"));
+      model.setCount(0).setEnabled(false);
+      model.setProperty("total", 0L);
+      assertTrue(model.hasProperty("count"));
+      assertTrue(model.hasProperty("enabled"));
+      assertTrue(model.hasProperty("total"));
+      assertFalse(model.hasProperty("score"));
+
+      model.removeProperty("count");
+      assertFalse(model.hasProperty("count"));
+      model.clear();
+      assertFalse(model.hasProperty("enabled"));
+      assertFalse(model.hasProperty("total"));
+    }
+  }
+
+  @Test
+  public void testChangeEvents() {
+    final ModelEverything model = generated.create(ModelEverything.class);
+    final List<String> changes = new ArrayList<>();
+    model.onChange("count", (from, to) -> changes.add("count " + from + "->" + to));
+    model.onGlobalChange((key, from, to) -> changes.add(key + " " + from + "->" + to));
+    model.setCount(1);
+    model.setCount(1);
+    model.setName("a");
+    model.setProperty("count", 2);
+    assertEquals(5, changes.size());
+    assertEquals("count 0->1", changes.get(0));
+    assertEquals("count 0->1", changes.get(1));
+    assertEquals("name null->a", changes.get(2));
+    assertEquals("count 1->2", changes.get(4));
+  }
+
+  @Test
+  public void testCovariantOverride() {
+    final ModelNarrower model = generated.create(ModelNarrower.class);
+    assertTrue(model instanceof GeneratedModel);
+    final ModelEverything wider = model;
+    assertSame(model, wider.setCount(4));
+    assertEquals(4, model.getCount());
+  }
+
+  @Test
+  public void testEqualToProxies() {
+    final ModelUser fromFields = fill(generated.create(ModelUser.class));
+    final ModelUser fromProxy = fill(proxied.create(ModelUser.class));
+    assertEquals(fromProxy.toString(), fromFields.toString());
+    assertEquals(fromProxy.hashCode(), fromFields.hashCode());
+    assertEquals(fromFields, fromProxy);
+    assertEquals(fromProxy, fromFields);
+
+    final String serialized = serialize(generated, ModelUser.class, fromFields);
+    assertEquals(serialize(proxied, ModelUser.class, fromProxy), serialized);
+    final ModelUser read = generated.deserialize(ModelUser.class, new StringCharIterator(serialized));
+    assertTrue(read instanceof GeneratedModel);
+    assertEquals("First", read.getFirstName());
+    assertEquals(fromFields.getKey(), read.getKey());
+
+    final ModelContent content = generated.create(ModelContent.class);
+    content.setText("text");
+    content.setTime(1.5);
+    content.setAuthor(fromFields);
+    final ModelContent proxyContent = proxied.create(ModelContent.class);
+    proxyContent.setText("text");
+    proxyContent.setTime(1.5);
+    proxyContent.setAuthor(fromProxy);
+    final String contentText = serialize(generated, ModelContent.class, content);
+    assertEquals(serialize(proxied, ModelContent.class, proxyContent), contentText);
+    final ModelContent copy = generated.deserialize(ModelContent.class, new StringCharIterator(contentText));
+    assertEquals("text", copy.getText());
+    assertEquals(1.5, copy.getTime(), 0);
+    assertEquals(fromFields.getKey(), copy.getAuthor().getKey());
+  }
+
+  @Test
+  public void testPropertyCanTurnOffGeneration() {
+    final String before = System.getProperty(X_Namespace.PROPERTY_MODEL_GENERATED);
+    System.setProperty(X_Namespace.PROPERTY_MODEL_GENERATED, "false");
+    try {
+      assertTrue(Proxy.isProxyClass(new ModelServiceJre().create(ModelUser.class).getClass()));
+    } finally {
+      if (before == null) {
+        System.clearProperty(X_Namespace.PROPERTY_MODEL_GENERATED);
+      } else {
+        System.setProperty(X_Namespace.PROPERTY_MODEL_GENERATED, before);
+      }
+    }
+  }
+
+  @Test(timeout = 120_000)
+  public void benchmarkPropertyAccess() {
+    Assume.assumeTrue("Run with -D" + X_Namespace.PROPERTY_BENCHMARK + "=true", Boolean.getBoolean(X_Namespace.PROPERTY_BENCHMARK));
+    final ModelUser fields = fill(generated.create(ModelUser.class));
+    final ModelUser proxy = fill(proxied.create(ModelUser.class));
+    for (int i = 0; i < ITERATIONS / 10; i++) {
+      access(fields, i);
+      access(proxy, i);
+      generated.create(ModelUser.class);
+      proxied.create(ModelUser.class);
+    }
+    final Result accessFields = measure(i -> access(fields, i));
+    final Result accessProxy = measure(i -> access(proxy, i));
+    final Result createFields = measure(i -> fill(generated.create(ModelUser.class)));
+    final Result createProxy = measure(i -> fill(proxied.create(ModelUser.class)));
+    X_Log.info(GeneratedModelTest.class, "ModelUser x", ITERATIONS, "\n",
+        "get+set, generated: ", accessFields, "\n",
+        "get+set, proxy:     ", accessProxy, "\n",
+        "create+fill, generated: ", createFields, "\n",
+        "create+fill, proxy:     ", createProxy);
+  }
+
+  private static int access(ModelUser user, int i) {
+    user.setFirstName((i & 1) == 0 ? "First" : "Second");
+    return user.getFirstName().length() + user.getLastName().length();
+  }
+
+  private ModelUser fill(ModelUser user) {
+    user.setKey(generated.newKey("", user.getType(), "id"));
+    user.setId("id");
+    user.setEmail("id@example.com");
+    user.setFirstName("First");
+    user.setLastName("Last");
+    user.setDisplayName("First Last");
+    return user;
+  }
+
+  private static <M extends Model> String serialize(ModelServiceJre service, Class<M> type, M model) {
+    return service.serialize(type, model).toSource();
+  }
+
+  private interface Job {
+    void run(int i);
+  }
+
+  private static Result measure(Job job) {
+    final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    final boolean canCount = threads instanceof com.sun.management.ThreadMXBean
+        && ((com.sun.management.ThreadMXBean) threads).isThreadAllocatedMemorySupported();
+    final long thread = Thread.currentThread().getId();
+    final long bytesBefore = canCount ? ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(thread) : 0;
+    final long start = System.nanoTime();
+    for (int i = 0; i < ITERATIONS; i++) {
+      job.run(i);
+    }
+    final long nanos = System.nanoTime() - start;
+    final long bytes = canCount ? ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(thread) - bytesBefore : -1;
+    return new Result(nanos, bytes);
+  }
+
+  private static final class Result {
+    private final long nanos;
+    private final long bytes;
+
+    private Result(long nanos, long bytes) {
+      this.nanos = nanos;
+      this.bytes = bytes;
+    }
+
+    @Override
+    public String toString() {
+      return (long) (ITERATIONS * 1_000_000_000.0 / nanos) + " ops/sec, "
+          + (bytes < 0 ? "?" : Long.toString(bytes / ITERATIONS)) + " bytes/op";
+    }
+  }
+}
@@ -0,0 +1,144 @@
+package xapi.model.test;
+
+import org.junit.Before;
+import org.junit.Test;
+import xapi.jre.model.ModelServiceJre;
+import xapi.model.api.Model;
+import xapi.model.content.ModelText;
+import xapi.model.impl.ModelCacheDefault;
+import xapi.model.impl.ModelCacheDefault.Stats;
+import xapi.model.user.ModelUser;
+import xapi.util.api.SuccessHandler;
+
+import static org.junit.Assert.*;
+
+public class ModelCacheDefaultTest {
+
+    private ModelServiceJre service;
+    private ModelCacheDefault cache;
+    private long now;
+
+    @Before
+    public void before() {
+        service = new ModelServiceJre();
+        now = 1_000;
+        cache = new ModelCacheDefault() {
+            @Override
+            protected long now() {
+                return now;
+            }
+        };
+    }
+
+    @Test
+    public void testEvictsLeastRecentlyUsed() {
+        cache.setMaxEntries(2);
+        final ModelText a = text("a", "a");
+        final ModelText b = text("b", "b");
+        final ModelText c = text("c", "c");
+        cache(a);
+        cache(b);
+        // touch a, so b becomes the eldest
+        assertSame(a, cache.getModel(a.getKey()));
+        cache(c);
+
+        assertSame(a, cache.getModel(a.getKey()));
+        assertNull(cache.getModel(b.getKey()));
+        assertSame(c, cache.getModel(c.getKey()));
+        assertEquals(1, cache.getStats().getEvictions());
+        assertEquals(2, cache.getStats().getEntries());
+    }
+
+    @Test
+    public void testEvictsByEstimatedBytes() {
+        final ModelText small = text("small", "x");
+        cache(small);
+        final long oneModel = cache.getStats().getEstimatedBytes();
+        assertTrue(oneModel > 0);
+
+        final long limit = oneModel * 5 / 2;
+        cache.setMaxBytes(limit);
+        // about twice the size of small; both won't fit, so small must go to make room
+        final ModelText big = text("big", new String(new char[(int) oneModel / 2]));
+        cache(big);
+        assertNull(cache.getModel(small.getKey()));
+        assertSame(big, cache.getModel(big.getKey()));
+        assertTrue(cache.getStats().getEstimatedBytes() <= limit);
+    }
+
+    @Test
+    public void testReplacingAModelKeepsByteCountAccurate() {
+        final ModelText text = text("same", "value");
+        cache(text);
+        final long once = cache.getStats().getEstimatedBytes();
+        cache(text);
+        assertEquals(once, cache.getStats().getEstimatedBytes());
+        assertEquals(1, cache.getStats().getEntries());
+
+        cache.deleteModel(text, ignored -> {});
+        assertEquals(0, cache.getStats().getEstimatedBytes());
+        assertEquals(0, cache.getStats().getEntries());
+    }
+
+    @Test
+    public void testTimeToLivePerKind() {
+        final ModelText text = text("ttl", "expires");
+        final ModelUser user = service.create(ModelUser.class);
+        user.setKey(service.newKey("", user.getType(), "forever"));
+        cache.setTimeToLive(text.getType(), 100);
+        cache(text);
+        cache(user);
+
+        now += 99;
+        assertSame(text, cache.getModel(text.getKey()));
+        now += 1;
+        assertNull(cache.getModel(text.getKey()));
+        assertSame(user, cache.getModel(user.getKey()));
+        assertEquals(1, cache.getStats().getExpirations());
+    }
+
+    @Test
+    public void testDefaultTimeToLive() {
+        cache.setTimeToLive("*", 10);
+        final ModelText text = text("any", "expires");
+        cache(text);
+        now += 10;
+        assertNull(cache.getModel(text.getKey()));
+    }
+
+    @Test
+    public void testHitRate() {
+        final ModelText text = text("hits", "hits");
+        cache(text);
+        cache.getModel(text.getKey());
+        cache.getModel(text.getKey());
+        cache.getModel(text.getKey());
+        cache.getModel(service.newKey("", text.getType(), "missing"));
+        final Stats stats = cache.getStats();
+        assertEquals(3, stats.getHits());
+        assertEquals(1, stats.getMisses());
+        assertEquals(0.75, stats.getHitRate(), 0.0001);
+    }
+
+    @Test
+    public void testReadThroughAnswersFromCache() {
+        final ModelText text = text("cached", "cached");
+        cache(text);
+        final ModelText[] loaded = new ModelText[1];
+        cache.loadModel(ModelText.class, text.getKey(), SuccessHandler.handler(m -> loaded[0] = m, failure -> {
+            throw new AssertionError(failure);
+        }));
+        assertSame(text, loaded[0]);
+    }
+
+    private ModelText text(String id, String value) {
+        final ModelText text = service.create(ModelText.class);
+        text.setKey(service.newKey("", text.getType(), id));
+        text.setText(value);
+        return text;
+    }
+
+    private void cache(Model model) {
+        cache.cacheModel(model, ignored -> {});
+    }
+}
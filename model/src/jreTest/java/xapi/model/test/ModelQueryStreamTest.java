@@ -0,0 +1,253 @@
+package xapi.model.test;
+
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+import xapi.constants.X_Namespace;
+import xapi.jre.model.ModelServiceJre;
+import xapi.jre.model.ModelServiceJreIndexed;
+import xapi.log.X_Log;
+import xapi.model.api.ModelQuery;
+import xapi.model.api.ModelQueryFailureException;
+import xapi.model.api.ModelQueryResult;
+import xapi.model.api.ModelQuerySink;
+import xapi.model.api.PrimitiveSerializer;
+import xapi.model.content.ModelText;
+import xapi.model.service.ModelService;
+import xapi.util.api.Pointer;
+import xapi.util.api.SuccessHandler;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that streaming a query delivers the same models, and the same bytes, as buffering the whole result,
+ * and compares how soon the first model arrives with how long the whole page takes.
+ */
+public class ModelQueryStreamTest {
+
+    private static final int MODELS = 200;
+
+    private File root;
+    private ModelServiceJreIndexed service;
+
+    @Before
+    public void before() throws IOException {
+        root = Files.createTempDirectory("streamedModels").toFile();
+        service = new ModelServiceJreIndexed();
+        service.setRootDir(root);
+        for (int i = 0; i < MODELS; i++) {
+            final ModelText text = service.create(ModelText.class);
+            text.setKey(service.newKey("", text.getType(), "text" + (i < 10 ? "00" : i < 100 ? "0" : "") + i));
+            text.setText(i % 2 == 0 ? "even" : "odd");
+            text.setTime(i);
+            service.persist(text, SuccessHandler.noop());
+        }
+    }
+
+    @After
+    public void after() {
+        service.setRootDir(null);
+    }
+
+    @Test
+    public void testStreamMatchesBufferedResult() throws InterruptedException {
+        final ModelQuery<ModelText> query = new ModelQuery<ModelText>()
+            .addEqualsFilter("text", "odd")
+            .setPageSize(5);
+        final ModelQueryResult<ModelText> buffered = query(service, query);
+
+        final Recorder recorder = new Recorder(service, ModelText.class);
+        service.queryStream(ModelText.class, query, recorder);
+        recorder.await();
+
+        assertEquals("start 5 models 5 complete", recorder.events());
+        assertEquals(buffered.getCursor(), recorder.cursor);
+        assertEquals(buffered.serialize(service, service.primitiveSerializer()), recorder.out.toString());
+    }
+
+    @Test
+    public void testUnindexedStreamMatchesBufferedResult() throws InterruptedException {
+        final ModelServiceJre plain = new ModelServiceJre();
+        plain.setRootDir(root);
+        try {
+            final ModelQuery<ModelText> query = new ModelQuery<ModelText>().setPageSize(7);
+            final ModelQueryResult<ModelText> buffered = query(plain, query);
+
+            final Recorder recorder = new Recorder(plain, ModelText.class);
+            plain.queryStream(ModelText.class, query, recorder);
+            recorder.await();
+
+            assertEquals("start 7 models 7 complete", recorder.events());
+            assertEquals(buffered.serialize(plain, plain.primitiveSerializer()), recorder.out.toString());
+        } finally {
+            plain.setRootDir(null);
+        }
+    }
+
+    @Test
+    public void testReplayMatchesStream() throws InterruptedException {
+        // services which can only buffer send their results through replayTo, which the sink cannot tell apart
+        final ModelQuery<ModelText> query = new ModelQuery<ModelText>()
+            .addEqualsFilter("text", "even")
+            .setPageSize(4);
+        final ModelQueryResult<ModelText> buffered = query(service, query);
+        final Recorder recorder = new Recorder(service, ModelText.class);
+        ModelQuerySink.replayTo(recorder).onSuccess(buffered);
+        recorder.await();
+
+        assertEquals("start 4 models 4 complete", recorder.events());
+        assertEquals(buffered.serialize(service, service.primitiveSerializer()), recorder.out.toString());
+    }
+
+    @Test
+    public void testSinkErrorStopsTheQuery() throws InterruptedException {
+        final ModelQuery<ModelText> query = new ModelQuery<ModelText>().setPageSize(10);
+        final Recorder recorder = new Recorder(service, ModelText.class) {
+            @Override
+            public void onModel(ModelText model) {
+                super.onModel(model);
+                if (models == 3) {
+                    throw new IllegalStateException("client went away");
+                }
+            }
+        };
+        service.queryStream(ModelText.class, query, recorder);
+        recorder.await();
+
+        assertEquals("start 10 models 3 error", recorder.events());
+        assertTrue(recorder.error instanceof ModelQueryFailureException);
+        assertTrue(recorder.error.getCause() instanceof IllegalStateException);
+    }
+
+    @Test
+    public void testCollectBuildsAResult() {
+        final ModelQueryResult<ModelText> result = new ModelQueryResult<>(ModelText.class);
+        final Pointer<ModelQueryResult<ModelText>> done = new Pointer<>();
+        final ModelQuerySink<ModelText> sink = ModelQuerySink.collect(result, done::set);
+        sink.onStart("next", 1);
+        final ModelText text = service.create(ModelText.class);
+        sink.onModel(text);
+        assertNull(done.get());
+        sink.onComplete();
+        assertSame(result, done.get());
+        assertEquals("next", result.getCursor());
+        assertEquals(1, result.getSize());
+    }
+
+    @Test(timeout = 120_000)
+    public void benchmarkTimeToFirstModel() throws InterruptedException {
+        Assume.assumeTrue("Run with -D" + X_Namespace.PROPERTY_BENCHMARK + "=true", Boolean.getBoolean(X_Namespace.PROPERTY_BENCHMARK));
+        final ModelQuery<ModelText> query = new ModelQuery<ModelText>().setPageSize(MODELS);
+        for (int i = 0; i < 10; i++) {
+            query(service, query);
+        }
+        long firstNanos = 0, allNanos = 0, bufferedNanos = 0;
+        final int runs = 20;
+        for (int i = 0; i < runs; i++) {
+            final long start = System.nanoTime();
+            final Recorder recorder = new Recorder(service, ModelText.class);
+            service.queryStream(ModelText.class, query, recorder);
+            recorder.await();
+            firstNanos += recorder.firstModelAt - start;
+            allNanos += recorder.completedAt - start;
+
+            final long bufferedStart = System.nanoTime();
+            query(service, query);
+            bufferedNanos += System.nanoTime() - bufferedStart;
+        }
+        X_Log.info(ModelQueryStreamTest.class, "Query of", MODELS, "models, average of", runs, "runs\n",
+            "streamed, first model: ", firstNanos / runs / 1000, "us\n",
+            "streamed, all models:  ", allNanos / runs / 1000, "us\n",
+            "buffered, whole page:  ", bufferedNanos / runs / 1000, "us");
+    }
+
+    private static ModelQueryResult<ModelText> query(ModelService service, ModelQuery<ModelText> query) {
+        final Pointer<ModelQueryResult<ModelText>> result = new Pointer<>();
+        final CountDownLatch latch = new CountDownLatch(1);
+        service.query(ModelText.class, query, res -> {
+            result.set(res);
+            latch.countDown();
+        });
+        try {
+            assertTrue("Query timed out", latch.await(5, TimeUnit.SECONDS));
+        } catch (InterruptedException e) {
+            throw new AssertionError(e);
+        }
+        return result.get();
+    }
+
+    /**
+     * Writes what it receives the way a server would, and records the order of its calls.
+     */
+    private static class Recorder implements ModelQuerySink<ModelText> {
+
+        private final ModelService service;
+        private final PrimitiveSerializer primitives;
+        private final Class<ModelText> type;
+        private final CountDownLatch done = new CountDownLatch(1);
+        private final List<String> events = new ArrayList<>();
+        private final StringBuilder out = new StringBuilder();
+        private String cursor;
+        private Throwable error;
+        int models;
+        private long firstModelAt;
+        private long completedAt;
+
+        private Recorder(ModelService service, Class<ModelText> type) {
+            this.service = service;
+            this.primitives = service.primitiveSerializer();
+            this.type = type;
+        }
+
+        @Override
+        public void onStart(String cursor, int size) {
+            this.cursor = cursor;
+            events.add("start " + size);
+            ModelQueryResult.writeHeader(out, primitives, cursor, size);
+        }
+
+        @Override
+        public void onModel(ModelText model) {
+            if (models++ == 0) {
+                firstModelAt = System.nanoTime();
+            }
+            ModelQueryResult.writeModel(out, service, primitives, type, model);
+        }
+
+        @Override
+        public void onComplete() {
+            completedAt = System.nanoTime();
+            events.add("models " + models);
+            events.add("complete");
+            done.countDown();
+        }
+
+        @Override
+        public void onError(Throwable error) {
+            this.error = error;
+            events.add("models " + models);
+            events.add("error");
+            done.countDown();
+        }
+
+        void await() throws InterruptedException {
+            assertTrue("Query timed out", done.await(5, TimeUnit.SECONDS));
+        }
+
+        String events() {
+            return String.join(" ", events);
+        }
+    }
+}
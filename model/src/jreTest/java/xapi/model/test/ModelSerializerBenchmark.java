@@ -0,0 +1,245 @@
+package xapi.model.test;
+
+import org.junit.AfterClass;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import xapi.constants.X_Namespace;
+import xapi.dev.source.CharBuffer;
+import xapi.jre.model.ModelServiceJre;
+import xapi.log.X_Log;
+import xapi.log.api.LogLevel;
+import xapi.model.api.Model;
+import xapi.model.api.ModelDeserializationContext;
+import xapi.model.api.ModelKey;
+import xapi.model.api.ModelManifest;
+import xapi.model.api.ModelSerializationContext;
+import xapi.model.api.ModelSerializationPlan;
+import xapi.model.content.ModelContent;
+import xapi.model.content.ModelRating;
+import xapi.model.test.api.ModelTestDirections;
+import xapi.model.tools.ModelSerializerDefault;
+import xapi.model.user.ModelUser;
+import xapi.source.lex.StringCharIterator;
+import xapi.util.api.SuccessHandler;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Compares {@link ModelSerializerDefault} using cached {@link ModelSerializationPlan}s
+ * against the same serializer walking the manifest for every property of every model,
+ * for a typical {@link ModelUser} and a {@link ModelContent} graph.
+ * <p>
+ * Reports ops/sec and bytes allocated per model (where the jvm can measure allocation).
+ */
+public class ModelSerializerBenchmark {
+
+  private static final int WARMUP = 2_000;
+  private static final int ITERATIONS = 20_000;
+
+  private static LogLevel was;
+
+  private ModelServiceJre service;
+  private ModelSerializerDefault<Model> planned;
+  private ModelSerializerDefault<Model> unplanned;
+
+  @BeforeClass
+  public static void beforeClass() {
+    // debug logging (which other tests may have turned on) would swamp the serializer
+    was = X_Log.logLevel();
+    X_Log.logLevel(LogLevel.INFO);
+  }
+
+  @AfterClass
+  public static void afterClass() {
+    X_Log.logLevel(was);
+  }
+
+  @Before
+  public void before() {
+    service = new ModelServiceJre() {
+      @Override
+      public <M extends Model> void load(Class<M> modelClass, ModelKey modelKey, SuccessHandler<M> callback) {
+        // key-only sub-models are loaded in the background; we only want to measure the serializer
+      }
+    };
+    planned = new ModelSerializerDefault<>();
+    unplanned = new ModelSerializerDefault<Model>() {
+      @Override
+      protected ModelSerializationPlan planFor(Model model, ModelManifest manifest) {
+        return null;
+      }
+    };
+  }
+
+  @Test
+  public void testPlanMatchesUnplannedOutput() {
+    for (boolean clientToServer : new boolean[]{true, false}) {
+      assertParity(ModelUser.class, newUser("parity"), clientToServer);
+      assertParity(ModelContent.class, newContent(), clientToServer);
+
+      final ModelTestDirections directions = service.create(ModelTestDirections.class);
+      directions.setClientToServer("c2s");
+      directions.setServerToClient("s2c");
+      directions.setBothEnabled("both");
+      directions.setBothDisabled("neither");
+      assertParity(ModelTestDirections.class, directions, clientToServer);
+    }
+  }
+
+  @Test
+  public void testPlanIsCachedOnManifest() {
+    final ModelUser user = newUser("cached");
+    final ModelManifest manifest = service.findManifest(ModelUser.class);
+    write(planned, ModelUser.class, user, false);
+    final ModelSerializationPlan plan = manifest.getSerializationPlan(ModelSerializerDefault.class);
+    assertNotNull(plan);
+    write(planned, ModelUser.class, user, false);
+    assertSame(plan, manifest.getSerializationPlan(ModelSerializerDefault.class));
+  }
+
+  @Test
+  public void testPlansAreCachedPerSerializerClass() {
+    // a subclass which builds a different plan, as the binary serializer may
+    final ModelSerializerDefault<Model> trimmed = new ModelSerializerDefault<Model>() {
+      @Override
+      protected ModelSerializationPlan createPlan(Model model, ModelManifest manifest) {
+        return new ModelSerializationPlan(manifest, new ModelSerializationPlan.Property[0]);
+      }
+    };
+    final ModelUser user = newUser("shared");
+    final String full = write(planned, ModelUser.class, user, false);
+    final String trimmedText = write(trimmed, ModelUser.class, user, false);
+    assertNotEquals("Subclass used the default serializer's plan", full, trimmedText);
+    assertEquals(full, write(planned, ModelUser.class, user, false));
+    assertEquals(trimmedText, write(trimmed, ModelUser.class, user, false));
+  }
+
+  @Test(timeout = 120_000)
+  public void benchmarkModelUser() {
+    benchmark("ModelUser", ModelUser.class, newUser("benchmark"));
+  }
+
+  @Test(timeout = 120_000)
+  public void benchmarkModelContent() {
+    benchmark("ModelContent", ModelContent.class, newContent());
+  }
+
+  private <M extends Model> void benchmark(String name, Class<M> type, M model) {
+    Assume.assumeTrue("Run with -D" + X_Namespace.PROPERTY_BENCHMARK + "=true", Boolean.getBoolean(X_Namespace.PROPERTY_BENCHMARK));
+    final String text = write(planned, type, model, false);
+    for (int i = 0; i < WARMUP; i++) {
+      write(unplanned, type, model, false);
+      write(planned, type, model, false);
+      read(unplanned, type, text, false);
+      read(planned, type, text, false);
+    }
+    final Result writeUnplanned = measure(() -> write(unplanned, type, model, false));
+    final Result writePlanned = measure(() -> write(planned, type, model, false));
+    final Result readUnplanned = measure(() -> read(unplanned, type, text, false));
+    final Result readPlanned = measure(() -> read(planned, type, text, false));
+    X_Log.info(ModelSerializerBenchmark.class,
+        name, " x", ITERATIONS, " (", text.length(), " chars)\n",
+        "write, unplanned: ", writeUnplanned, "\n",
+        "write, planned:   ", writePlanned, "\n",
+        "read, unplanned:  ", readUnplanned, "\n",
+        "read, planned:    ", readPlanned);
+  }
+
+  private <M extends Model> void assertParity(Class<M> type, M model, boolean clientToServer) {
+    final String expected = write(unplanned, type, model, clientToServer);
+    assertEquals(expected, write(planned, type, model, clientToServer));
+    final Model fromUnplanned = read(unplanned, type, expected, clientToServer);
+    final Model fromPlanned = read(planned, type, expected, clientToServer);
+    // compare what each reader attached, by writing both back out the same way
+    assertEquals(write(unplanned, type, fromUnplanned, !clientToServer), write(unplanned, type, fromPlanned, !clientToServer));
+  }
+
+  @SuppressWarnings("unchecked")
+  private String write(ModelSerializerDefault<Model> serializer, Class<? extends Model> type, Model model, boolean clientToServer) {
+    final ModelSerializationContext ctx = new ModelSerializationContext(new CharBuffer(), service, service.findManifest(type));
+    ctx.setClientToServer(clientToServer);
+    return serializer.modelToString(type, model, ctx, false).toSource();
+  }
+
+  private Model read(ModelSerializerDefault<Model> serializer, Class<? extends Model> type, String text, boolean clientToServer) {
+    final ModelDeserializationContext ctx = new ModelDeserializationContext(service.create(type), service, service.findManifest(type));
+    ctx.setClientToServer(clientToServer);
+    return serializer.modelFromString(type, new StringCharIterator(text), ctx, false);
+  }
+
+  private ModelUser newUser(String id) {
+    final ModelUser user = service.create(ModelUser.class);
+    user.setKey(service.newKey("", user.getType(), id));
+    user.setId(id);
+    user.setEmail(id + "@example.com");
+    user.setFirstName("First");
+    user.setLastName("Last");
+    user.setDisplayName("First Last");
+    user.setImage("/images/" + id + ".png");
+    return user;
+  }
+
+  private ModelContent newContent() {
+    final ModelContent content = service.create(ModelContent.class);
+    content.setKey(service.newKey("", content.getType(), "root"));
+    content.setText("The root of a small conversation");
+    content.setTime(1_600_000_000_000.0);
+    content.setPermaLink("/content/root");
+    content.setAuthor(newUser("author"));
+    final ModelRating[] upvotes = new ModelRating[3];
+    for (int i = 0; i < upvotes.length; i++) {
+      upvotes[i] = service.create(ModelRating.class);
+      upvotes[i].setRating(i + 0.5);
+      upvotes[i].setAuthor(newUser("voter" + i));
+    }
+    content.setUpvotes(upvotes);
+    for (int i = 0; i < 5; i++) {
+      final ModelContent child = service.create(ModelContent.class);
+      child.setKey(service.newKey("", child.getType(), "child" + i));
+      child.setText("Reply number " + i);
+      child.setTime(1_600_000_000_000.0 + i);
+      child.setAuthor(newUser("replier" + i));
+      content.children().add(child);
+    }
+    return content;
+  }
+
+  private static Result measure(Runnable job) {
+    final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    final boolean canCount = threads instanceof com.sun.management.ThreadMXBean
+        && ((com.sun.management.ThreadMXBean) threads).isThreadAllocatedMemorySupported();
+    final long thread = Thread.currentThread().getId();
+    final long bytesBefore = canCount ? ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(thread) : 0;
+    final long start = System.nanoTime();
+    for (int i = 0; i < ITERATIONS; i++) {
+      job.run();
+    }
+    final long nanos = System.nanoTime() - start;
+    final long bytes = canCount ? ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(thread) - bytesBefore : -1;
+    return new Result(nanos, bytes);
+  }
+
+  private static final class Result {
+    private final long nanos;
+    private final long bytes;
+
+    private Result(long nanos, long bytes) {
+      this.nanos = nanos;
+      this.bytes = bytes;
+    }
+
+    @Override
+    public String toString() {
+      return (long) (ITERATIONS * 1_000_000_000.0 / nanos) + " ops/sec, "
+          + (bytes < 0 ? "?" : Long.toString(bytes / ITERATIONS)) + " bytes/op";
+    }
+  }
+}
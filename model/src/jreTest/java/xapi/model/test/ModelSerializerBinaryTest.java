@@ -0,0 +1,189 @@
+package xapi.model.test;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import xapi.annotation.model.SerializationStrategy;
+import xapi.jre.model.ModelSerializerBinary;
+import xapi.jre.model.ModelServiceJre;
+import xapi.model.api.Model;
+import xapi.model.api.ModelKey;
+import xapi.model.content.ModelContent;
+import xapi.model.content.ModelText;
+import xapi.model.test.api.TestModelEnumMap;
+import xapi.model.user.ModelUser;
+import xapi.util.api.Pointer;
+import xapi.util.api.SuccessHandler;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.EnumMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class ModelSerializerBinaryTest {
+
+    private File root;
+    private boolean binary;
+    private ModelServiceJre service;
+
+    @Before
+    public void before() throws IOException {
+        root = Files.createTempDirectory("binaryModels").toFile();
+        binary = true;
+        service = new ModelServiceJre() {
+            @Override
+            protected boolean isBinaryFormat(String type) {
+                return binary && supportsBinary(type);
+            }
+        };
+        service.setRootDir(root);
+    }
+
+    @After
+    public void after() {
+        service.setRootDir(null);
+    }
+
+    @Test
+    public void testSimpleRoundTrip() {
+        final ModelText text = service.create(ModelText.class);
+        text.setKey(service.newKey("ns", text.getType(), "id"));
+        text.setText("Hello é世😀 World");
+        text.setTime(System.currentTimeMillis() + 0.5);
+
+        final ModelText asModel = roundTrip(ModelText.class, text);
+        assertEquals(text.getKey(), asModel.getKey());
+        assertEquals(text.getText(), asModel.getText());
+        assertEquals(text.getTime(), asModel.getTime(), 0);
+        assertEquals(service.serialize(ModelText.class, text).toString(), service.serialize(ModelText.class, asModel).toString());
+    }
+
+    @Test
+    public void testNullsRoundTrip() {
+        final ModelText text = service.create(ModelText.class);
+        final ModelText asModel = roundTrip(ModelText.class, text);
+        assertNull(asModel.getKey());
+        assertNull(asModel.getText());
+        assertEquals(service.serialize(ModelText.class, text).toString(), service.serialize(ModelText.class, asModel).toString());
+    }
+
+    @Test
+    public void testComplexRoundTrip() {
+        final ModelContent content = service.create(ModelContent.class);
+        content.setText("Hi there,");
+        content.setTime(System.currentTimeMillis());
+        content.setPermaLink("/content/1");
+        final ModelUser author = service.create(ModelUser.class);
+        author.setKey(service.newKey("", author.getType(), "author"));
+        content.setAuthor(author);
+        final ModelContent related = service.create(ModelContent.class);
+        related.setText("Hello!");
+        content.related().add(related);
+        final ModelContent child = service.create(ModelContent.class);
+        child.setText("child");
+        content.children().add(child);
+
+        final ModelContent asModel = roundTrip(ModelContent.class, content);
+        assertEquals(author.getKey(), asModel.getAuthor().getKey());
+        assertEquals("child", asModel.children().iterator().next().getText());
+        assertEquals(service.serialize(ModelContent.class, content).toString(), service.serialize(ModelContent.class, asModel).toString());
+    }
+
+    @Test
+    public void testEnumMapFallsBackToText() {
+        final TestModelEnumMap hasMap = service.create(TestModelEnumMap.class);
+        assertEquals(hasMap, roundTrip(TestModelEnumMap.class, hasMap));
+
+        final EnumMap<SerializationStrategy, Integer> theMap = new EnumMap<>(SerializationStrategy.class);
+        theMap.put(SerializationStrategy.Custom, 123);
+        hasMap.setItems(theMap);
+        assertEquals(hasMap, roundTrip(TestModelEnumMap.class, hasMap));
+    }
+
+    @Test
+    public void testBinaryIsSmallerThanText() {
+        final ModelText text = service.create(ModelText.class);
+        text.setKey(service.newKey("", text.getType(), "sized"));
+        text.setText("some text");
+        text.setTime(1234567890123.0);
+        final int textSize = service.serialize(ModelText.class, text).toString().getBytes(StandardCharsets.UTF_8).length;
+        final int binarySize = service.serializeBinary(text.getType(), text).remaining();
+        assertTrue("Binary (" + binarySize + ") should be smaller than text (" + textSize + ")", binarySize < textSize);
+    }
+
+    @Test
+    public void testPersistReadsEitherFormat() throws Exception {
+        final ModelText asBinary = save("bin", "binary", true);
+        final ModelText asText = save("txt", "text", false);
+        assertTrue(ModelSerializerBinary.isBinary(Files.readAllBytes(fileOf(asBinary).toPath())));
+        assertFalse(ModelSerializerBinary.isBinary(Files.readAllBytes(fileOf(asText).toPath())));
+
+        // the configured format only affects writes; both files must load in either mode
+        for (boolean mode : new boolean[]{true, false}) {
+            binary = mode;
+            assertEquals("binary", load(asBinary.getKey()).getText());
+            assertEquals("text", load(asText.getKey()).getText());
+        }
+    }
+
+    private <M extends Model> M roundTrip(Class<M> cls, M model) {
+        final ByteBuffer bytes = service.serializeBinary(model.getType(), model);
+        assertTrue(ModelSerializerBinary.isBinary(bytes));
+        return service.deserializeBinary(cls, bytes);
+    }
+
+    private ModelText save(String id, String value, boolean asBinary) {
+        binary = asBinary;
+        final ModelText text = service.create(ModelText.class);
+        text.setKey(service.newKey("", text.getType(), id));
+        text.setText(value);
+        final Pointer<ModelText> saved = new Pointer<>();
+        service.persist(text, SuccessHandler.handler(saved::set, failure -> {
+            throw new AssertionError(failure);
+        }));
+        assertNotNull(saved.get());
+        return saved.get();
+    }
+
+    private ModelText load(ModelKey key) throws InterruptedException {
+        final Pointer<Object> loaded = new Pointer<>();
+        final CountDownLatch latch = new CountDownLatch(1);
+        service.load(ModelText.class, key, SuccessHandler.handler(model -> {
+            loaded.set(model);
+            latch.countDown();
+        }, failure -> {
+            loaded.set(failure);
+            latch.countDown();
+        }));
+        assertTrue("Load timed out", latch.await(5, TimeUnit.SECONDS));
+        if (loaded.get() instanceof Throwable) {
+            throw new AssertionError((Throwable) loaded.get());
+        }
+        return (ModelText) loaded.get();
+    }
+
+    private File fileOf(ModelText text) {
+        final File file = find(root, text.getKey().getId());
+        assertNotNull("No file for " + text.getKey(), file);
+        return file;
+    }
+
+    private static File find(File dir, String name) {
+        final File[] children = dir.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                final File found = child.isDirectory() ? find(child, name) : name.equals(child.getName()) ? child : null;
+                if (found != null) {
+                    return found;
+                }
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,173 @@
+package xapi.model.test;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import xapi.fu.In1;
+import xapi.jre.model.ModelServiceJre;
+import xapi.model.api.Model;
+import xapi.model.api.ModelKey;
+import xapi.model.content.ModelText;
+import xapi.util.api.ErrorHandler;
+import xapi.util.api.Pointer;
+import xapi.util.api.SuccessHandler;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+
+public class ModelServiceCacheTest {
+
+    private File root;
+    private CountingService service;
+
+    private static class CountingService extends ModelServiceJre {
+        private final AtomicInteger reads = new AtomicInteger();
+        // runs between reading storage and calling back, to simulate a write racing a slow read
+        private volatile Runnable duringRead;
+
+        @Override
+        protected <M extends Model> void doLoad(Class<M> modelClass, ModelKey modelKey, SuccessHandler<M> callback) {
+            reads.incrementAndGet();
+            final Runnable during = duringRead;
+            duringRead = null;
+            super.doLoad(modelClass, modelKey, during == null ? callback : SuccessHandler.handler(loaded -> {
+                during.run();
+                callback.onSuccess(loaded);
+            }, (ErrorHandler<Throwable>) callback));
+        }
+    }
+
+    @Before
+    public void before() throws IOException {
+        root = Files.createTempDirectory("cachedModels").toFile();
+        service = newService();
+    }
+
+    @After
+    public void after() {
+        service.setRootDir(null);
+    }
+
+    private CountingService newService() {
+        final CountingService srv = new CountingService();
+        srv.setRootDir(root);
+        return srv;
+    }
+
+    @Test
+    public void testSecondLoadSkipsStorage() {
+        final ModelKey key = save("stored", "stored");
+        // a fresh service has nothing cached
+        service = newService();
+
+        final ModelText first = load(key);
+        assertEquals("stored", first.getText());
+        assertEquals(1, service.reads.get());
+
+        final ModelText second = load(key);
+        assertEquals("stored", second.getText());
+        assertEquals(1, service.reads.get());
+    }
+
+    @Test
+    public void testCallersDoNotShareCachedInstances() {
+        final ModelKey key = save("shared", "shared");
+        final ModelText first = load(key);
+        final ModelText second = load(key);
+        assertNotSame(first, second);
+        first.setText("unsaved edit");
+        assertEquals("shared", second.getText());
+        assertEquals("shared", load(key).getText());
+        assertEquals(1, service.reads.get());
+    }
+
+    @Test
+    public void testReadRacingAPersistIsNotCached() {
+        final ModelKey key = save("raced", "before");
+        service.duringRead = () -> save("raced", "after");
+        assertEquals("before", load(key).getText());
+        assertEquals("after", load(key).getText());
+        assertEquals(2, service.reads.get());
+    }
+
+    @Test
+    public void testPersistEvicts() {
+        final ModelKey key = save("written", "written");
+        final ModelText first = load(key);
+        first.setText("rewritten");
+        save("written", "rewritten");
+        final ModelText second = load(key);
+        assertNotSame(first, second);
+        assertEquals("rewritten", second.getText());
+        assertEquals(2, service.reads.get());
+    }
+
+    @Test
+    public void testDeleteEvicts() {
+        final ModelKey key = save("deleted", "deleted");
+        assertEquals(Boolean.TRUE, this.<Boolean>await(cb -> service.delete(key, cb)));
+        assertFalse(loads(key));
+        assertEquals(1, service.reads.get());
+    }
+
+    @Test
+    public void testChangingRootDirClearsCache() {
+        final ModelKey key = save("moved", "moved");
+        load(key);
+        load(key);
+        assertEquals(1, service.reads.get());
+        service.setRootDir(root);
+        load(key);
+        assertEquals(2, service.reads.get());
+    }
+
+    private ModelKey save(String id, String value) {
+        final ModelText text = service.create(ModelText.class);
+        text.setKey(service.newKey("", text.getType(), id));
+        text.setText(value);
+        return this.<ModelText>await(cb -> service.persist(text, cb)).getKey();
+    }
+
+    private ModelText load(ModelKey key) {
+        return await(cb -> service.load(ModelText.class, key, cb));
+    }
+
+    private boolean loads(ModelKey key) {
+        try {
+            load(key);
+            return true;
+        } catch (AssertionError e) {
+            return false;
+        }
+    }
+
+    private <T> T await(In1<SuccessHandler<T>> call) {
+        final Pointer<Object> result = new Pointer<>();
+        final CountDownLatch latch = new CountDownLatch(1);
+        call.in(SuccessHandler.handler(res -> {
+            result.set(res);
+            latch.countDown();
+        }, (ErrorHandler<Throwable>) failure -> {
+            result.set(failure);
+            latch.countDown();
+        }));
+        try {
+            assertTrue("Call timed out", latch.await(5, TimeUnit.SECONDS));
+        } catch (InterruptedException e) {
+            throw new AssertionError(e);
+        }
+        if (result.get() instanceof Throwable) {
+            throw new AssertionError((Throwable) result.get());
+        }
+        return (T) result.get();
+    }
+}
@@ -0,0 +1,207 @@
+package xapi.model.test;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import xapi.jre.model.ModelServiceJre;
+import xapi.jre.model.ModelServiceJreIndexed;
+import xapi.model.api.ModelQuery;
+import xapi.model.api.ModelQueryResult;
+import xapi.model.content.ModelText;
+import xapi.util.api.Pointer;
+import xapi.util.api.SuccessHandler;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ModelServiceJreIndexedTest {
+
+    private File root;
+    private ModelServiceJreIndexed service;
+
+    @Before
+    public void before() throws IOException {
+        root = Files.createTempDirectory("indexedModels").toFile();
+        service = newService();
+        for (int i = 0; i < 20; i++) {
+            final ModelText text = service.create(ModelText.class);
+            text.setKey(service.newKey("", text.getType(), "text" + (i < 10 ? "0" : "") + i));
+            text.setText(i % 2 == 0 ? "even" : "odd");
+            text.setTime(i);
+            service.persist(text, SuccessHandler.noop());
+        }
+    }
+
+    @After
+    public void after() {
+        service.setRootDir(null);
+    }
+
+    private ModelServiceJreIndexed newService() {
+        final ModelServiceJreIndexed srv = new ModelServiceJreIndexed();
+        srv.setRootDir(root);
+        return srv;
+    }
+
+    @Test
+    public void testEqualsFilter_PagesById() {
+        final ModelQuery<ModelText> query = new ModelQuery<ModelText>()
+            .addEqualsFilter("text", "odd")
+            .setPageSize(3);
+        ModelQueryResult<ModelText> result = query(query);
+        assertEquals(ids("text01", "text03", "text05"), idsOf(result));
+
+        result = query(query.setCursor(result.getCursor()));
+        assertEquals(ids("text07", "text09", "text11"), idsOf(result));
+    }
+
+    @Test
+    public void testRangeFilterAndDescendingSort() {
+        final ModelQuery<ModelText> query = new ModelQuery<ModelText>()
+            .addGreaterThanFilter("time", 4)
+            .addLessThanFilter("time", 10.5)
+            .addSortDescending("time")
+            .setPageSize(4);
+        ModelQueryResult<ModelText> result = query(query);
+        assertEquals(ids("text10", "text09", "text08", "text07"), idsOf(result));
+
+        result = query(query.setCursor(result.getCursor()));
+        assertEquals(ids("text06", "text05"), idsOf(result));
+        assertNull(result.getCursor());
+    }
+
+    @Test
+    public void testIndexIsMaintainedAndReloaded() {
+        final ModelText text = service.create(ModelText.class);
+        text.setKey(service.newKey("", text.getType(), "text03"));
+        text.setText("changed");
+        text.setTime(3);
+        service.persist(text, SuccessHandler.noop());
+        service.delete(service.newKey("", text.getType(), "text05"), SuccessHandler.noop());
+
+        final ModelQuery<ModelText> query = new ModelQuery<ModelText>()
+            .addEqualsFilter("text", "odd")
+            .addSortAscending("time")
+            .setPageSize(3);
+        assertEquals(ids("text01", "text07", "text09"), idsOf(query(query)));
+
+        // a new service must load the persisted index, and see the same results
+        service.setRootDir(null);
+        service = newService();
+        assertEquals(ids("text01", "text07", "text09"), idsOf(query(query)));
+        assertEquals(ids("text03"), idsOf(query(new ModelQuery<ModelText>().addEqualsFilter("text", "changed"))));
+    }
+
+    @Test
+    public void testIndexNoticesChangesItMissed() {
+        final ModelQuery<ModelText> odd = new ModelQuery<ModelText>()
+            .addEqualsFilter("text", "odd")
+            .addSortAscending("time")
+            .setPageSize(20);
+        assertEquals(10, idsOf(query(odd)).size());
+        service.setRootDir(null);
+
+        // a service without the index adds one model and deletes another, so the number of files does not change
+        final ModelServiceJre plain = new ModelServiceJre();
+        plain.setRootDir(root);
+        final ModelText added = plain.create(ModelText.class);
+        added.setKey(plain.newKey("", added.getType(), "text99"));
+        added.setText("odd");
+        added.setTime(99);
+        plain.persist(added, SuccessHandler.noop());
+        plain.delete(plain.newKey("", added.getType(), "text01"), SuccessHandler.noop());
+        // ...and rewrites a model in place, as if well after the index was last written
+        final ModelText changed = plain.create(ModelText.class);
+        changed.setKey(plain.newKey("", changed.getType(), "text03"));
+        changed.setText("even");
+        changed.setTime(3);
+        plain.persist(changed, SuccessHandler.noop());
+        final File file = find(root, "text03");
+        assertTrue(file.setLastModified(System.currentTimeMillis() + 10_000));
+        plain.setRootDir(null);
+
+        service = newService();
+        final List<String> ids = idsOf(query(odd));
+        assertEquals(ids("text05", "text07", "text09", "text11", "text13", "text15", "text17", "text19", "text99"), ids);
+    }
+
+    @Test
+    public void testCursorsAllowAnyCharacter() {
+        for (int i = 0; i < 4; i++) {
+            final ModelText text = service.create(ModelText.class);
+            text.setKey(service.newKey("", text.getType(), "nul" + i));
+            // \0 used to separate the sort values of a cursor from its id
+            text.setText("\0a:\0" + i);
+            text.setTime(100 + i);
+            service.persist(text, SuccessHandler.noop());
+        }
+        final ModelQuery<ModelText> query = new ModelQuery<ModelText>()
+            .addGreaterThanFilter("time", 99)
+            .addSortAscending("text")
+            .setPageSize(3);
+        ModelQueryResult<ModelText> result = query(query);
+        assertEquals(ids("nul0", "nul1", "nul2"), idsOf(result));
+        result = query(query.setCursor(result.getCursor()));
+        assertEquals(ids("nul3"), idsOf(result));
+        assertNull(result.getCursor());
+    }
+
+    private ModelQueryResult<ModelText> query(ModelQuery<ModelText> query) {
+        final Pointer<ModelQueryResult<ModelText>> result = new Pointer<>();
+        synchronized (result) {
+            service.query(ModelText.class, query, res -> {
+                synchronized (result) {
+                    result.set(res);
+                    result.notifyAll();
+                }
+            });
+            final long deadline = System.currentTimeMillis() + 5000;
+            while (result.get() == null) {
+                assertTrue("Query timed out", System.currentTimeMillis() < deadline);
+                try {
+                    result.wait(100);
+                } catch (InterruptedException e) {
+                    throw new AssertionError(e);
+                }
+            }
+        }
+        return result.get();
+    }
+
+    private static File find(File dir, String name) {
+        for (File file : dir.listFiles()) {
+            if (file.isDirectory()) {
+                final File found = find(file, name);
+                if (found != null) {
+                    return found;
+                }
+            } else if (file.getName().equals(name)) {
+                return file;
+            }
+        }
+        return null;
+    }
+
+    private static List<String> ids(String... ids) {
+        final List<String> list = new ArrayList<>();
+        for (String id : ids) {
+            list.add(id);
+        }
+        return list;
+    }
+
+    private static List<String> idsOf(ModelQueryResult<ModelText> result) {
+        final List<String> list = new ArrayList<>();
+        for (ModelText text : result.getModels()) {
+            list.add(text.getKey().getId());
+        }
+        return list;
+    }
+}
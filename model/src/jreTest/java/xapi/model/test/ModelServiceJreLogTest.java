@@ -0,0 +1,317 @@
+package xapi.model.test;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import xapi.fu.In1;
+import xapi.jre.model.ModelLogStore;
+import xapi.jre.model.ModelLogStore.FsyncPolicy;
+import xapi.jre.model.ModelServiceJreLog;
+import xapi.model.api.ModelKey;
+import xapi.model.api.ModelQuery;
+import xapi.model.api.ModelQueryResult;
+import xapi.model.content.ModelText;
+import xapi.util.api.ErrorHandler;
+import xapi.util.api.Pointer;
+import xapi.util.api.SuccessHandler;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class ModelServiceJreLogTest {
+
+    private File root;
+    private ModelServiceJreLog service;
+    private long segmentSize = 64 * 1024 * 1024;
+    private String type;
+
+    @Before
+    public void before() throws IOException {
+        root = Files.createTempDirectory("logModels").toFile();
+        service = newService();
+        type = service.create(ModelText.class).getType();
+    }
+
+    @After
+    public void after() {
+        service.setRootDir(null);
+    }
+
+    private ModelServiceJreLog newService() {
+        final ModelServiceJreLog srv = new ModelServiceJreLog() {
+            @Override
+            protected long segmentSize() {
+                return segmentSize;
+            }
+        };
+        srv.setRootDir(root);
+        return srv;
+    }
+
+    @Test
+    public void testPersistLoadQueryDelete() {
+        for (int i = 0; i < 10; i++) {
+            save("text" + i, "value" + i);
+        }
+        assertEquals("value3", load("text3").getText());
+
+        final ModelQuery<ModelText> query = new ModelQuery<ModelText>().setPageSize(4);
+        ModelQueryResult<ModelText> result = query(query);
+        assertEquals(ids("text0", "text1", "text2", "text3"), idsOf(result));
+        result = query(query.setCursor(result.getCursor()));
+        assertEquals(ids("text4", "text5", "text6", "text7"), idsOf(result));
+
+        assertEquals(Boolean.TRUE, this.<Boolean>await(cb -> service.delete(key("text5"), cb)));
+        assertNull(this.<Boolean>await(cb -> service.delete(key("text5"), cb)));
+        assertEquals(ids("text4", "text6", "text7", "text8"), idsOf(query(query)));
+    }
+
+    @Test
+    public void testRecoveryTruncatesTornWrite() throws IOException {
+        for (int i = 0; i < 5; i++) {
+            save("text" + i, "value" + i);
+        }
+        save("text2", "changed");
+        service.setRootDir(null);
+
+        // simulate a crash halfway through writing a record
+        final File segment = segments()[0];
+        try (FileOutputStream out = new FileOutputStream(segment, true)) {
+            out.write(new byte[]{0, 0, 0, 100, 1, 0, 0});
+        }
+        final long torn = segment.length();
+
+        service = newService();
+        assertEquals("changed", load("text2").getText());
+        assertEquals("value4", load("text4").getText());
+        assertEquals(5, idsOf(query(new ModelQuery<>())).size());
+        assertTrue("Torn record should have been truncated", segment.length() < torn);
+
+        // and the log must still be appendable after recovery
+        save("text5", "value5");
+        service.setRootDir(null);
+        service = newService();
+        assertEquals("value5", load("text5").getText());
+    }
+
+    @Test
+    public void testCompactionReclaimsOverwrittenRecords() throws Exception {
+        service.setRootDir(null);
+        segmentSize = 4096;
+        service = newService();
+        for (int i = 0; i < 400; i++) {
+            save("text" + (i % 4), "value" + i);
+        }
+        final long deadline = System.currentTimeMillis() + 10_000;
+        while (totalSize() > 4 * segmentSize) {
+            assertTrue("Compaction never reclaimed space: " + totalSize(), System.currentTimeMillis() < deadline);
+            Thread.sleep(100);
+        }
+        assertEquals("value399", load("text3").getText());
+
+        service.setRootDir(null);
+        service = newService();
+        for (int i = 0; i < 4; i++) {
+            assertEquals("value" + (396 + i), load("text" + i).getText());
+        }
+    }
+
+    @Test
+    public void testTombstoneOnlySegmentIsNotRecompacted() throws Exception {
+        final File dir = new File(root, "tombstones");
+        // each put of a 40 byte value is 61 bytes, and each delete 21 bytes, so:
+        // segment 1 holds three puts, segment 2 nine deletes, and segment 3 is active
+        ModelLogStore store = new ModelLogStore(dir, 200, FsyncPolicy.NEVER);
+        try {
+            for (int i = 0; i < 3; i++) {
+                final int id = i;
+                this.<Boolean>await(cb -> store.put("s", "k" + id, "0123456789012345678901234567890123456789", cb::onSuccess, ((ErrorHandler<Throwable>) cb)::onError));
+            }
+            // delete one of the puts, so segment 1 stays mostly live, then some ids which were never put
+            for (int i = 0; i < 10; i++) {
+                final String id = i == 0 ? "k0" : "x" + i;
+                this.<Boolean>await(cb -> store.delete("s", id, cb::onSuccess, ((ErrorHandler<Throwable>) cb)::onError));
+            }
+            final File[] files = dir.listFiles((d, name) -> name.endsWith(".seg"));
+            assertNotNull(files);
+            java.util.Arrays.sort(files);
+            assertEquals(3, files.length);
+            final File tombstones = files[1];
+            final Object original = fileKey(tombstones);
+
+            // the deletes must outlive the puts in segment 1, so compaction keeps them all, once
+            long deadline = System.currentTimeMillis() + 10_000;
+            while (original.equals(fileKey(tombstones))) {
+                assertTrue("Tombstone segment was never compacted", System.currentTimeMillis() < deadline);
+                Thread.sleep(50);
+            }
+            final Object compacted = fileKey(tombstones);
+            // the writer looks for work to compact every idle second
+            Thread.sleep(3_000);
+            assertEquals("Tombstone-only segment was compacted again", compacted, fileKey(tombstones));
+        } finally {
+            store.close();
+        }
+
+        final ModelLogStore reopened = new ModelLogStore(dir, 200, FsyncPolicy.NEVER);
+        try {
+            assertNull(reopened.get("s", "k0"));
+            assertEquals("[k1, k2]", reopened.scope("s").toString());
+        } finally {
+            reopened.close();
+        }
+    }
+
+    @Test
+    public void testReservedIdsSkipLiveIdsAfterDeletes() throws Exception {
+        final ModelLogStore store = new ModelLogStore(new File(root, "reserve"), segmentSize, FsyncPolicy.NEVER);
+        try {
+            for (int i = 0; i < 5; i++) {
+                final String id = store.reserveId("s", null);
+                assertEquals(String.valueOf(i), id);
+                this.<Boolean>await(cb -> store.put("s", id, "value", cb::onSuccess, ((ErrorHandler<Throwable>) cb)::onError));
+            }
+            this.<Boolean>await(cb -> store.delete("s", "1", cb::onSuccess, ((ErrorHandler<Throwable>) cb)::onError));
+            this.<Boolean>await(cb -> store.put("s", "name-9", "value", cb::onSuccess, ((ErrorHandler<Throwable>) cb)::onError));
+            // never reuses a freed number, nor collides with a numbered id put by its caller
+            assertEquals("10", store.reserveId("s", null));
+            assertEquals("name-11", store.reserveId("s", "name"));
+        } finally {
+            store.close();
+        }
+
+        final ModelLogStore reopened = new ModelLogStore(new File(root, "reserve"), segmentSize, FsyncPolicy.NEVER);
+        try {
+            // a reopened scope starts above its largest id
+            assertEquals("10", reopened.reserveId("s", null));
+        } finally {
+            reopened.close();
+        }
+    }
+
+    @Test
+    public void testConcurrentWritersAreGroupCommitted() throws Exception {
+        final int threads = 8, perThread = 50;
+        final CountDownLatch done = new CountDownLatch(threads * perThread);
+        final List<Throwable> failures = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            final int thread = t;
+            new Thread(() -> {
+                for (int i = 0; i < perThread; i++) {
+                    final ModelText text = service.create(ModelText.class);
+                    text.setKey(key("t" + thread + "-" + i));
+                    text.setText("value");
+                    service.persist(text, SuccessHandler.handler(saved -> done.countDown(), failure -> {
+                        synchronized (failures) {
+                            failures.add(failure);
+                        }
+                        done.countDown();
+                    }));
+                }
+            }).start();
+        }
+        assertTrue("Writes timed out", done.await(20, TimeUnit.SECONDS));
+        assertEquals(new ArrayList<>(), failures);
+
+        service.setRootDir(null);
+        service = newService();
+        assertEquals(threads * perThread, idsOf(query(new ModelQuery<ModelText>().setPageSize(1000))).size());
+    }
+
+    private File[] segments() {
+        final File[] files = new File(root, "_default").listFiles((dir, name) -> name.endsWith(".seg"));
+        assertNotNull(files);
+        return files;
+    }
+
+    /**
+     * Identifies one version of a file; compaction replaces a segment with a new file, though its inode may be reused.
+     */
+    private static Object fileKey(File file) throws IOException {
+        final BasicFileAttributes attributes = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+        return attributes.fileKey() + "@" + attributes.lastModifiedTime().toMillis();
+    }
+
+    private long totalSize() {
+        long size = 0;
+        for (File file : segments()) {
+            size += file.length();
+        }
+        return size;
+    }
+
+    private ModelKey key(String id) {
+        return service.newKey("", type, id);
+    }
+
+    private void save(String id, String value) {
+        final ModelText text = service.create(ModelText.class);
+        text.setKey(key(id));
+        text.setText(value);
+        this.<ModelText>await(cb -> service.persist(text, cb));
+    }
+
+    private ModelText load(String id) {
+        return await(cb -> service.load(ModelText.class, key(id), cb));
+    }
+
+    private ModelQueryResult<ModelText> query(ModelQuery<ModelText> query) {
+        return await(cb -> service.query(ModelText.class, query, cb));
+    }
+
+    private <T> T await(In1<SuccessHandler<T>> call) {
+        final Pointer<Object> result = new Pointer<>();
+        final Object nothing = new Object();
+        synchronized (result) {
+            call.in(SuccessHandler.handler(res -> {
+                synchronized (result) {
+                    result.set(res == null ? nothing : res);
+                    result.notifyAll();
+                }
+            }, (ErrorHandler<Throwable>) failure -> {
+                synchronized (result) {
+                    result.set(failure);
+                    result.notifyAll();
+                }
+            }));
+            final long deadline = System.currentTimeMillis() + 5000;
+            while (result.get() == null) {
+                assertTrue("Call timed out", System.currentTimeMillis() < deadline);
+                try {
+                    result.wait(100);
+                } catch (InterruptedException e) {
+                    throw new AssertionError(e);
+                }
+            }
+        }
+        if (result.get() instanceof Throwable) {
+            throw new AssertionError((Throwable) result.get());
+        }
+        return result.get() == nothing ? null : (T) result.get();
+    }
+
+    private static List<String> ids(String... ids) {
+        final List<String> list = new ArrayList<>();
+        for (String id : ids) {
+            list.add(id);
+        }
+        return list;
+    }
+
+    private static List<String> idsOf(ModelQueryResult<ModelText> result) {
+        final List<String> list = new ArrayList<>();
+        for (ModelText text : result.getModels()) {
+            list.add(text.getKey().getId());
+        }
+        return list;
+    }
+}
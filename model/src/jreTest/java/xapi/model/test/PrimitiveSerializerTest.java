@@ -0,0 +1,245 @@
+package xapi.model.test;
+
+import org.junit.AfterClass;
+import org.junit.Assume;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import xapi.constants.X_Namespace;
+import xapi.dev.source.CharBuffer;
+import xapi.log.X_Log;
+import xapi.log.api.LogLevel;
+import xapi.model.api.PrimitiveSerializer;
+import xapi.model.tools.PrimitiveSerializerDefault;
+import xapi.source.lex.StringCharIterator;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that the {@link Appendable} and char[] methods of {@link PrimitiveSerializerDefault} write exactly
+ * what the String methods return, and compares what each of them allocates.
+ */
+public class PrimitiveSerializerTest {
+
+  private static final int ITERATIONS = 1_000_000;
+
+  private static final int[] INTS = {
+      0, 1, -1, 2, -2, 31, 32, -32, 33, 1023, 1024, -1024, 65_536, 1 << 30,
+      Integer.MAX_VALUE, Integer.MIN_VALUE, Integer.MIN_VALUE + 1,
+  };
+
+  private static final long[] LONGS = {
+      0, 1, -1, 31, 32, -33, Integer.MAX_VALUE, Integer.MIN_VALUE, 1L << 40, -(1L << 50),
+      Long.MAX_VALUE, Long.MIN_VALUE, Long.MIN_VALUE + 1,
+  };
+
+  private static LogLevel was;
+  // keeps the jit from discarding the work we measure
+  private static int sink;
+
+  private final PrimitiveSerializer primitives = new PrimitiveSerializerDefault();
+
+  @BeforeClass
+  public static void beforeClass() {
+    was = X_Log.logLevel();
+    X_Log.logLevel(LogLevel.INFO);
+  }
+
+  @AfterClass
+  public static void afterClass() {
+    X_Log.logLevel(was);
+  }
+
+  @Test
+  public void testEncodingIsUnchanged() {
+    // digits are least significant first, and the last digit carries the sign
+    assertEquals("E", primitives.serializeInt(0));
+    assertEquals("T", primitives.serializeInt(1));
+    assertEquals("1", primitives.serializeInt(-1));
+    assertEquals("eT", primitives.serializeInt(32));
+    assertEquals("e1", primitives.serializeInt(-32));
+    assertEquals("\0", primitives.serializeInt(Integer.MIN_VALUE));
+    assertEquals("\0", primitives.serializeLong(Long.MIN_VALUE));
+    assertEquals("Oone", primitives.serializeString("one"));
+  }
+
+  @Test
+  public void testIntsMatchStrings() {
+    final Random random = new Random(22);
+    for (int i = 0; i < 10_000; i++) {
+      assertInt(i < INTS.length ? INTS[i] : random.nextInt());
+    }
+  }
+
+  @Test
+  public void testLongsMatchStrings() {
+    final Random random = new Random(22);
+    for (int i = 0; i < 10_000; i++) {
+      assertLong(i < LONGS.length ? LONGS[i] : random.nextLong());
+    }
+  }
+
+  @Test
+  public void testOtherPrimitivesMatchStrings() {
+    for (double d : new double[]{0, -0.0, 1.5, Double.NaN, Double.MAX_VALUE, Double.NEGATIVE_INFINITY}) {
+      final StringBuilder out = new StringBuilder();
+      primitives.serializeDouble(d, out);
+      assertEquals(primitives.serializeDouble(d), out.toString());
+      assertEquals(Double.doubleToLongBits(d), Double.doubleToLongBits(primitives.deserializeDouble(new StringCharIterator(out.toString()))));
+    }
+    for (float f : new float[]{0, 1.5f, Float.MIN_VALUE, Float.NaN}) {
+      final StringBuilder out = new StringBuilder();
+      primitives.serializeFloat(f, out);
+      assertEquals(primitives.serializeFloat(f), out.toString());
+    }
+    final StringBuilder out = new StringBuilder();
+    primitives.serializeBoolean(true, out);
+    primitives.serializeBoolean(false, out);
+    primitives.serializeChar('x', out);
+    primitives.serializeClass(String.class, out);
+    primitives.serializeClass(null, out);
+    assertEquals(primitives.serializeBoolean(true) + primitives.serializeBoolean(false) + primitives.serializeChar('x')
+        + primitives.serializeClass(String.class) + primitives.serializeClass(null), out.toString());
+
+    final boolean[] bools = {true, false, true, true, false, false, true};
+    final boolean[] read = primitives.deserializeBooleanArray(new StringCharIterator(primitives.serializeBooleanArray(bools)));
+    assertEquals(bools.length, read.length);
+    assertTrue(read[0] && !read[1]);
+  }
+
+  @Test
+  public void testStringsRoundTrip() {
+    final CharBuffer out = new CharBuffer();
+    final String[] values = {"", "a", null, "a somewhat longer string, with punctuation!", "☃ unicode"};
+    final StringBuilder expected = new StringBuilder();
+    for (String value : values) {
+      primitives.serializeString(value, out);
+      expected.append(primitives.serializeString(value));
+    }
+    final String text = out.toSource();
+    assertEquals(expected.toString(), text);
+    final StringCharIterator chars = new StringCharIterator(text);
+    for (String value : values) {
+      assertEquals(value, primitives.deserializeString(chars));
+    }
+    assertFalse(chars.hasNext());
+  }
+
+  @Test
+  public void testDecodeFromRange() {
+    final String one = primitives.serializeString("one");
+    final String two = primitives.serializeInt(-12345);
+    // a frame somewhere in the middle of a larger buffer, which we never copy into a String of its own
+    final StringBuilder buffer = new StringBuilder("ignored").append(one).append(two);
+    final int start = "ignored".length();
+    buffer.append("trailing");
+    final StringCharIterator chars = new StringCharIterator(buffer, start, start + one.length() + two.length());
+    assertEquals("one", primitives.deserializeString(chars));
+    assertEquals(-12345, primitives.deserializeInt(chars));
+    assertFalse(chars.hasNext());
+
+    assertFalse(new StringCharIterator(buffer, 2, 2).hasNext());
+    assertNull(primitives.deserializeString(new StringCharIterator(primitives.serializeString(null))));
+  }
+
+  @Test(timeout = 120_000)
+  public void benchmarkAllocation() {
+    Assume.assumeTrue("Run with -D" + X_Namespace.PROPERTY_BENCHMARK + "=true", Boolean.getBoolean(X_Namespace.PROPERTY_BENCHMARK));
+    final CharBuffer out = new CharBuffer();
+    final char[] chars = new char[PrimitiveSerializer.MAX_LONG_CHARS];
+    for (int i = 0; i < ITERATIONS / 10; i++) {
+      primitives.serializeInt(i, out);
+      primitives.serializeInt(i, chars, 0);
+      primitives.serializeInt(i);
+      if (i % 1000 == 0) {
+        out.clear();
+      }
+    }
+    final Result asString = measure(i -> primitives.serializeInt(i).length());
+    final Result asChars = measure(i -> primitives.serializeInt(i, chars, 0));
+    final Result appended = measure(i -> {
+      primitives.serializeInt(i, out);
+      if ((i & 1023) == 0) {
+        out.clear();
+      }
+      return 0;
+    });
+    final Result stringAsString = measure(i -> primitives.serializeString("value").length());
+    final Result stringAppended = measure(i -> {
+      primitives.serializeString("value", out);
+      if ((i & 1023) == 0) {
+        out.clear();
+      }
+      return 0;
+    });
+    X_Log.info(PrimitiveSerializerTest.class, "x", ITERATIONS, "\n",
+        "serializeInt -> String:     ", asString, "\n",
+        "serializeInt -> char[]:     ", asChars, "\n",
+        "serializeInt -> CharBuffer: ", appended, "\n",
+        "serializeString -> String:     ", stringAsString, "\n",
+        "serializeString -> CharBuffer: ", stringAppended);
+  }
+
+  private void assertInt(int value) {
+    final String expected = primitives.serializeInt(value);
+    final StringBuilder out = new StringBuilder();
+    primitives.serializeInt(value, out);
+    assertEquals(expected, out.toString());
+    final char[] chars = new char[PrimitiveSerializer.MAX_INT_CHARS + 1];
+    chars[0] = '!';
+    final int end = primitives.serializeInt(value, chars, 1);
+    assertEquals(expected, new String(chars, 1, end - 1));
+    assertEquals(value, primitives.deserializeInt(new StringCharIterator(expected)));
+  }
+
+  private void assertLong(long value) {
+    final String expected = primitives.serializeLong(value);
+    final StringBuilder out = new StringBuilder();
+    primitives.serializeLong(value, out);
+    assertEquals(expected, out.toString());
+    final char[] chars = new char[PrimitiveSerializer.MAX_LONG_CHARS];
+    assertEquals(expected, new String(chars, 0, primitives.serializeLong(value, chars, 0)));
+    assertEquals(value, primitives.deserializeLong(new StringCharIterator(expected)));
+  }
+
+  private interface Job {
+    int run(int i);
+  }
+
+  private static Result measure(Job job) {
+    final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    final boolean canCount = threads instanceof com.sun.management.ThreadMXBean
+        && ((com.sun.management.ThreadMXBean) threads).isThreadAllocatedMemorySupported();
+    final long thread = Thread.currentThread().getId();
+    final long bytesBefore = canCount ? ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(thread) : 0;
+    final long start = System.nanoTime();
+    for (int i = 0; i < ITERATIONS; i++) {
+      sink += job.run(i);
+    }
+    final long nanos = System.nanoTime() - start;
+    final long bytes = canCount ? ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(thread) - bytesBefore : -1;
+    return new Result(nanos, bytes);
+  }
+
+  private static final class Result {
+    private final long nanos;
+    private final long bytes;
+
+    private Result(long nanos, long bytes) {
+      this.nanos = nanos;
+      this.bytes = bytes;
+    }
+
+    @Override
+    public String toString() {
+      return (long) (ITERATIONS * 1_000_000_000.0 / nanos) + " ops/sec, "
+          + (bytes < 0 ? "?" : Long.toString(bytes / ITERATIONS)) + " bytes/op";
+    }
+  }
+}
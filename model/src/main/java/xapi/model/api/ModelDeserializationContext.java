@@ -108,6 +108,8 @@ public class ModelDeserializationContext {
     // Always resolve the child's manifest; even if the parent has none, the child should not be "manifest-less"
     final ModelManifest childType = svc.findManifest(componentType);
     ctx = new ModelDeserializationContext(svc.create(propertyType), svc, childType);
+    // children are read from the same source, so must decode it the same way
+    ctx.setPrimitives(getPrimitives());
     // Propagate hints consistently
     ctx.setKeyOnly(hints.isKeyOnly());
     ctx.setClientToServer(hints.isClientToServer());
@@ -319,6 +319,8 @@ public class ModelManifest {
 
   private String[] properties;
   private final Class<? extends Model> modelType;
+  // replaced, never mutated, so readers need no lock; keyed by serializer class, as each may build a different plan
+  private volatile Map<Class<?>, ModelSerializationPlan> serializationPlans = new HashMap<>();
 
   public static String serialize(final ModelManifest manifest) {
     return serialize(new CharBuffer(), manifest, X_Model.getService().primitiveSerializer()).toSource();
@@ -434,6 +436,8 @@ public class ModelManifest {
       methodsByMethodNames.put(methodName, data);
     }
     methodsByPropertyNames.put(data.getName(), data);
+    // any cached plan was built for the old set of properties
+    serializationPlans = new HashMap<>();
 
     return data;
   }
@@ -548,6 +552,20 @@ public class ModelManifest {
     return keyOnly;
   }
 
+  /**
+   * @return the plan a serializer of the given class built for this manifest, if any; see {@link ModelSerializationPlan}.
+   * Serializer subclasses may build different plans, so each class has its own.
+   */
+  public ModelSerializationPlan getSerializationPlan(final Class<?> serializerType) {
+    return serializationPlans.get(serializerType);
+  }
+
+  public void setSerializationPlan(final Class<?> serializerType, final ModelSerializationPlan serializationPlan) {
+    final Map<Class<?>, ModelSerializationPlan> plans = new HashMap<>(serializationPlans);
+    plans.put(serializerType, serializationPlan);
+    serializationPlans = plans;
+  }
+
   @Override
   public boolean equals(final Object obj) {
     if (obj instanceof ModelManifest) {
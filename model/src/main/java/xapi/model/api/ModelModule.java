@@ -53,8 +53,14 @@ public class ModelModule implements Serializable {
 
   private static final long serialVersionUID = 977462783892289984L;
 
+  /** The char-based format of {@link xapi.model.tools.ModelSerializerDefault}, which every module supports */
+  public static final String WIRE_FORMAT_TEXT = "text";
+  /** The compact binary format of xapi.jre.model.ModelSerializerBinary */
+  public static final String WIRE_FORMAT_BINARY = "binary";
+
   private final StringTo<ModelManifest> manifests;
   private final IntTo<String> strongNames;
+  private final IntTo<String> wireFormats;
   private String uuid;
   private String moduleName;
   private transient String serialized;
@@ -62,6 +68,7 @@ public class ModelModule implements Serializable {
   public ModelModule() {
     manifests = X_Collect.newStringMap(ModelManifest.class);
     strongNames = X_Collect.newList(String.class);
+    wireFormats = X_Collect.newList(String.class);
   }
 
   public ModelModule addManifest(final ModelManifest manifest) {
@@ -82,6 +89,21 @@ public class ModelModule implements Serializable {
     return strongNames.toArray();
   }
 
+  /**
+   * Declare that peers of this module may exchange models in the given wire format.
+   * This is server-side configuration; it is not part of the serialized module.
+   */
+  public ModelModule addWireFormat(final String format) {
+    if (!supportsWireFormat(format)) {
+      wireFormats.add(format);
+    }
+    return this;
+  }
+
+  public boolean supportsWireFormat(final String format) {
+    return format == null || WIRE_FORMAT_TEXT.equals(format) || wireFormats.contains(format);
+  }
+
   public SizedIterable<ModelManifest> getManifests() {
     return manifests.forEachValue();
   }
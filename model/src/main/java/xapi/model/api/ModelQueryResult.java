@@ -67,21 +67,36 @@ public class ModelQueryResult <M extends Model> {
 
   public String serialize(final ModelService service, final PrimitiveSerializer primitives) {
     final StringBuilder b = new StringBuilder();
-    b.append(primitives.serializeString(getCursor()));
-    b.append(primitives.serializeInt(getSize()));
+    writeHeader(b, primitives, getCursor(), getSize());
+    for (final M model : models.forEach()) {
+      writeModel(b, service, primitives, modelClass, model);
+    }
+    return b.toString();
+  }
+
+  /**
+   * Writes what {@link #serialize(ModelService, PrimitiveSerializer)} writes before the models,
+   * so a stream of models can be sent in the same format, without collecting them first.
+   */
+  public static void writeHeader(final Appendable out, final PrimitiveSerializer primitives, final String cursor, final int size) {
+    primitives.serializeString(cursor, out);
+    primitives.serializeInt(size, out);
+  }
+
+  /**
+   * Writes one model of a result; when the model type was unknown ({@link Model}), its type name goes first.
+   */
+  @SuppressWarnings("unchecked")
+  public static <M extends Model> void writeModel(final Appendable out, final ModelService service, final PrimitiveSerializer primitives,
+                                                  final Class<M> modelClass, final M model) {
     if (modelClass == Model.class) {
       // Model type was unknown, we need to serialize all type names
-      for (final M model : models.forEach()) {
-        b.append(primitives.serializeString(model.getType()));
-        b.append(service.serialize(service.typeToClass(model.getType()), model));
-      }
+      primitives.serializeString(model.getType(), out);
+      PrimitiveSerializer.append(out, service.serialize(service.<M>typeToClass(model.getType()), model).toSource());
     } else {
       // Model type was known, just serialize the models.
-      for (final M model : models.forEach()) {
-        b.append(service.serialize(modelClass, model));
-      }
+      PrimitiveSerializer.append(out, service.serialize(modelClass, model).toSource());
     }
-    return b.toString();
   }
 
   @Override
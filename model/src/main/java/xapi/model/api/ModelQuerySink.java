@@ -0,0 +1,76 @@
+package xapi.model.api;
+
+import xapi.model.service.ModelService;
+import xapi.util.api.ErrorHandler;
+import xapi.util.api.SuccessHandler;
+
+/**
+ * Receives the results of a query one model at a time, as the model service reads them,
+ * instead of as one {@link ModelQueryResult}; see {@link ModelService#queryStream(Class, ModelQuery, ModelQuerySink)}.
+ * <p>
+ * A service calls {@link #onStart(String, int)} once, then {@link #onModel(Model)} for each model, in order,
+ * then {@link #onComplete()}; or {@link #onError(Throwable)} at any point, after which nothing else is called.
+ * <p>
+ * Services only read the next model once onModel returns, so a sink applies backpressure by taking its time
+ * (say, writing to a slow client), and a stream of any size holds about one model in memory.
+ * An exception thrown from onStart or onModel stops the query, and is passed to onError.
+ */
+public interface ModelQuerySink <M extends Model> {
+
+  /**
+   * @param cursor The cursor to continue the query from, or null if this is the last page.
+   * @param size The number of models which will follow.
+   */
+  void onStart(String cursor, int size);
+
+  void onModel(M model);
+
+  void onComplete();
+
+  void onError(Throwable error);
+
+  /**
+   * @return a sink which adds each model to the result, and sends the result to the callback when complete.
+   */
+  static <M extends Model> ModelQuerySink<M> collect(final ModelQueryResult<M> result, final SuccessHandler<ModelQueryResult<M>> callback) {
+    return new ModelQuerySink<M>() {
+      @Override
+      public void onStart(String cursor, int size) {
+        result.setCursor(cursor);
+      }
+
+      @Override
+      public void onModel(M model) {
+        result.addModel(model);
+      }
+
+      @Override
+      public void onComplete() {
+        callback.onSuccess(result);
+      }
+
+      @Override
+      public void onError(Throwable error) {
+        ErrorHandler.delegateTo(callback).onError(error);
+      }
+    };
+  }
+
+  /**
+   * @return a callback which sends a whole result through the sink; for services which can only buffer their results.
+   */
+  static <M extends Model> SuccessHandler<ModelQueryResult<M>> replayTo(final ModelQuerySink<M> sink) {
+    return SuccessHandler.handler(result -> {
+      try {
+        sink.onStart(result.getCursor(), result.getSize());
+        for (M model : result.getModels()) {
+          sink.onModel(model);
+        }
+      } catch (Throwable t) {
+        sink.onError(t);
+        return;
+      }
+      sink.onComplete();
+    }, (ErrorHandler<Throwable>) sink::onError);
+  }
+}
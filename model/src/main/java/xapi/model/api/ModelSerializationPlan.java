@@ -0,0 +1,123 @@
+package xapi.model.api;
+
+/**
+ * Everything a serializer needs to know about the properties of one {@link ModelManifest},
+ * resolved once per serializer class and cached on the manifest (see {@link ModelManifest#getSerializationPlan(Class)}).
+ * <p>
+ * Without a plan, every model written or read repeats the same work for every property:
+ * looking up its type, its client/server visibility and key-only settings in the manifest's maps,
+ * and walking a long chain of isAssignableFrom checks to decide how to encode it.
+ * With a plan, that is a walk over a flat array of {@link Property}s, switching on a precomputed {@link Kind}.
+ * <p>
+ * Plans are built by the serializer (which knows which types it considers models, keys, enums, etc.),
+ * so this class only holds the results.
+ */
+public class ModelSerializationPlan {
+
+  /**
+   * How a property is encoded; anything not listed here is {@link #OTHER},
+   * which the serializer handles through its general-purpose (slower) path.
+   */
+  public enum Kind {
+    STRING, DOUBLE, FLOAT, BOOLEAN, CHAR, LONG, INT,
+    BOXED_INTEGRAL, BOXED_DECIMAL, BOXED_BOOLEAN,
+    ENUM, KEY, MODEL, MODEL_LIST, OTHER
+  }
+
+  public static final class Property {
+    private final String name;
+    private final Class<?> type;
+    private final Kind kind;
+    private final boolean clientToServer;
+    private final boolean serverToClient;
+    private final boolean keyOnly;
+    private final Class<? extends Model> componentType;
+    private final Object[] enumConstants;
+
+    public Property(
+        final String name,
+        final Class<?> type,
+        final Kind kind,
+        final boolean clientToServer,
+        final boolean serverToClient,
+        final boolean keyOnly,
+        final Class<? extends Model> componentType,
+        final Object[] enumConstants
+    ) {
+      this.name = name;
+      this.type = type;
+      this.kind = kind;
+      this.clientToServer = clientToServer;
+      this.serverToClient = serverToClient;
+      this.keyOnly = keyOnly;
+      this.componentType = componentType;
+      this.enumConstants = enumConstants;
+    }
+
+    public String getName() {
+      return name;
+    }
+
+    public Class<?> getType() {
+      return type;
+    }
+
+    public Kind getKind() {
+      return kind;
+    }
+
+    /**
+     * @return true if this property is sent in the given direction;
+     * a writer checks its own direction, while a reader checks the opposite one.
+     */
+    public boolean isEnabled(final boolean clientToServer) {
+      return clientToServer ? this.clientToServer : serverToClient;
+    }
+
+    /**
+     * @return true if a model stored in this property is serialized as its key only.
+     */
+    public boolean isKeyOnly() {
+      return keyOnly;
+    }
+
+    /**
+     * @return for {@link Kind#MODEL_LIST}, the type of model in the list; otherwise null.
+     */
+    public Class<? extends Model> getComponentType() {
+      return componentType;
+    }
+
+    /**
+     * @return for {@link Kind#ENUM}, the enum's values, indexed by ordinal; otherwise null.
+     */
+    public Object[] getEnumConstants() {
+      return enumConstants;
+    }
+
+    @Override
+    public String toString() {
+      return name + ":" + kind;
+    }
+  }
+
+  private final ModelManifest manifest;
+  private final Property[] properties;
+
+  public ModelSerializationPlan(final ModelManifest manifest, final Property[] properties) {
+    this.manifest = manifest;
+    this.properties = properties;
+  }
+
+  public ModelManifest getManifest() {
+    return manifest;
+  }
+
+  /**
+   * @return the properties, in {@link ModelManifest#getPropertyNames()} order.
+   * Do not modify the returned array.
+   */
+  public Property[] getProperties() {
+    return properties;
+  }
+}
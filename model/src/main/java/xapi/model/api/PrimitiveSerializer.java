@@ -3,8 +3,11 @@
  */
 package xapi.model.api;
 
+import xapi.debug.X_Debug;
 import xapi.source.lex.CharIterator;
 
+import java.io.IOException;
+
 /**
  * @author James X. Nelson (james@wetheinter.net, @james)
  *
@@ -37,4 +40,81 @@ public interface PrimitiveSerializer {
 
   <C> Class<C> loadClass(String cls);
 
+  /**
+   * The most chars {@link #serializeInt(int, char[], int)} will write for one int.
+   */
+  int MAX_INT_CHARS = 7;
+
+  /**
+   * The most chars {@link #serializeLong(long, char[], int)} will write for one long.
+   */
+  int MAX_LONG_CHARS = 13;
+
+  // The methods below write into a buffer supplied by the caller, instead of returning a new String per value.
+  // They default to appending the String methods' results, so every serializer supports them;
+  // PrimitiveSerializerDefault overrides them to write its digits without allocating anything.
+
+  default void serializeBoolean(boolean z, Appendable out) {
+    append(out, serializeBoolean(z));
+  }
+
+  default void serializeChar(char c, Appendable out) {
+    append(out, serializeChar(c));
+  }
+
+  default void serializeInt(int i, Appendable out) {
+    append(out, serializeInt(i));
+  }
+
+  default void serializeLong(long l, Appendable out) {
+    append(out, serializeLong(l));
+  }
+
+  default void serializeFloat(float f, Appendable out) {
+    append(out, serializeFloat(f));
+  }
+
+  default void serializeDouble(double d, Appendable out) {
+    append(out, serializeDouble(d));
+  }
+
+  default void serializeString(String s, Appendable out) {
+    append(out, serializeString(s));
+  }
+
+  default void serializeClass(Class<?> c, Appendable out) {
+    append(out, serializeClass(c));
+  }
+
+  /**
+   * Write an int into the array at the given position, which must have room for {@link #MAX_INT_CHARS}.
+   *
+   * @return the position after the last char written.
+   */
+  default int serializeInt(int i, char[] into, int pos) {
+    return copy(serializeInt(i), into, pos);
+  }
+
+  /**
+   * Write a long into the array at the given position, which must have room for {@link #MAX_LONG_CHARS}.
+   *
+   * @return the position after the last char written.
+   */
+  default int serializeLong(long l, char[] into, int pos) {
+    return copy(serializeLong(l), into, pos);
+  }
+
+  static void append(Appendable out, CharSequence chars) {
+    try {
+      out.append(chars);
+    } catch (IOException e) {
+      throw X_Debug.rethrow(e);
+    }
+  }
+
+  static int copy(String chars, char[] into, int pos) {
+    chars.getChars(0, chars.length(), into, pos);
+    return pos + chars.length();
+  }
+
 }
@@ -1,6 +1,5 @@
 package xapi.model.impl;
 
-import xapi.annotation.inject.SingletonDefault;
 import xapi.collect.X_Collect;
 import xapi.collect.api.StringTo;
 import xapi.model.X_Model;
@@ -11,7 +10,13 @@ import xapi.util.api.SuccessHandler;
 
 import java.util.concurrent.atomic.AtomicInteger;
 
-@SingletonDefault(implFor=ModelCache.class)
+/**
+ * An unbounded cache, which keeps every model it is given until it is deleted.
+ *
+ * @deprecated long-running processes will eventually run out of memory; use {@link ModelCacheDefault},
+ * (the default ModelCache), which is bounded and can expire models.
+ */
+@Deprecated
 public class AbstractModelCache implements ModelCache{
 
   StringTo<Model> models;
@@ -13,6 +13,7 @@ import xapi.fu.*;
 import xapi.inject.X_Inject;
 import xapi.log.X_Log;
 import xapi.model.api.*;
+import xapi.model.service.ModelCache;
 import xapi.model.service.ModelService;
 import xapi.model.tools.ModelSerializerDefault;
 import xapi.model.tools.PrimitiveSerializerDefault;
@@ -21,6 +22,7 @@ import xapi.source.lex.StringCharIterator;
 import xapi.string.X_String;
 import xapi.time.X_Time;
 import xapi.time.api.Moment;
+import xapi.util.api.ErrorHandler;
 import xapi.util.api.SuccessHandler;
 
 import java.util.Objects;
@@ -32,6 +34,10 @@ public abstract class AbstractModelService implements ModelService
   protected final StringTo<ModelSerializer> serializers = X_Collect.newStringMap(ModelSerializer.class);
   protected final ClassTo<String> classToTypeName = X_Collect.newClassMap(String.class);
   protected final StringTo<Class<? extends Model>> typeNameToClass = X_Collect.newStringMap(Class.class.cast(Class.class));
+  // each service has its own cache, as two services may read the same keys from different storage
+  private volatile ModelCache modelCache = new ModelCacheDefault();
+  // bumped (by key hash) on every eviction; a load which raced one must not cache what it read
+  private final int[] generations = new int[64];
 
   @Override
   @MagicMethod(doNotVisit=true, documentation="This magic method re-routes to the same provider as X_Inject.instance()")
@@ -57,7 +63,110 @@ public abstract class AbstractModelService implements ModelService
   @Override
   public <M extends Model> void persist(final M model, final SuccessHandler<M> callback) {
     assert Objects.nonNull(model) : "Cannot persist a null model";
-    doPersist(model.getType(), model, callback);
+    // the cached copy is stale once stored; the next load reads (and caches) what storage kept.
+    // evicting bumps the key's generation, so a load which read storage before the write can't cache what it read
+    doPersist(model.getType(), model, beforeSuccess(callback, saved -> {
+      if (saved != null && saved.getKey() != null) {
+        uncacheModel(saved.getKey());
+      }
+    }));
+  }
+
+  /**
+   * Loads through {@link #getModelCache()}: a cached model is copied without touching storage;
+   * otherwise {@link #doLoad} reads it from storage, and a copy is cached for the next load.
+   * Every caller gets its own instance, so one caller's unsaved edits are never seen by another.
+   */
+  @Override
+  public <M extends Model> void load(final Class<M> modelClass, final ModelKey modelKey, final SuccessHandler<M> callback) {
+    final ModelCache cache = getModelCache();
+    if (cache == null) {
+      doLoad(modelClass, modelKey, callback);
+      return;
+    }
+    final Model cached = cache.getModel(modelKey);
+    if (modelClass.isInstance(cached)) {
+      callback.onSuccess(copyModel(modelClass, (M) cached));
+      return;
+    }
+    final int generation = generation(modelKey);
+    doLoad(modelClass, modelKey, beforeSuccess(callback, loaded -> {
+      if (loaded != null) {
+        final M copy = copyModel(modelClass, loaded);
+        synchronized (generations) {
+          // check and put under the same lock that writes bump under, so an eviction can't slip in between
+          if (generation == generations[stripe(modelKey)]) {
+            cache.cacheModel(copy, SuccessHandler.noop());
+          }
+        }
+      }
+    }));
+  }
+
+  /**
+   * @return a copy of the given model, which shares no mutable state with it.
+   */
+  protected <M extends Model> M copyModel(final Class<M> modelClass, final M model) {
+    return deserialize(modelClass, new StringCharIterator(serialize(modelClass, model).toSource()));
+  }
+
+  /**
+   * Read a model from storage; {@link #load} calls this whenever the model is not cached.
+   */
+  protected <M extends Model> void doLoad(final Class<M> modelClass, final ModelKey modelKey, final SuccessHandler<M> callback) {
+    throw new UnsupportedOperationException(getClass().getName() + " cannot load " + modelKey);
+  }
+
+  /**
+   * @return the cache {@link #load} reads through, and {@link #persist} and deletes evict from; or null to always use storage.
+   * The cache holds private copies; {@link #load} never hands a cached instance out.
+   */
+  protected ModelCache getModelCache() {
+    return modelCache;
+  }
+
+  /**
+   * Forget every cached model; call this whenever the underlying storage changes.
+   */
+  protected void clearModelCache() {
+    synchronized (generations) {
+      for (int i = 0; i < generations.length; i++) {
+        generations[i]++;
+      }
+      modelCache = new ModelCacheDefault();
+    }
+  }
+
+  /**
+   * Forget the cached model of the given key, if any; call this when it is deleted.
+   */
+  protected void uncacheModel(final ModelKey key) {
+    synchronized (generations) {
+      generations[stripe(key)]++;
+      final ModelCache cache = getModelCache();
+      if (cache != null) {
+        cache.removeModel(key);
+      }
+    }
+  }
+
+  private int generation(final ModelKey key) {
+    synchronized (generations) {
+      return generations[stripe(key)];
+    }
+  }
+
+  private int stripe(final ModelKey key) {
+    return (key.hashCode() & 0x7fffffff) % generations.length;
+  }
+
+  private static <M> SuccessHandler<M> beforeSuccess(final SuccessHandler<M> callback, final In1<M> first) {
+    final SuccessHandler<M> wrapped = result -> {
+      first.in(result);
+      callback.onSuccess(result);
+    };
+    // keep the caller's error handling; services treat callbacks without an ErrorHandler differently
+    return callback instanceof ErrorHandler ? SuccessHandler.handler(wrapped, (ErrorHandler<Throwable>) callback) : wrapped;
   }
 
   protected abstract <M extends Model> void doPersist(String type, M model, SuccessHandler<M> callback);
@@ -142,6 +251,23 @@ public abstract class AbstractModelService implements ModelService
     return serializer.modelFromString(cls, model, context, isKeyOnly);
   }
 
+  /**
+   * Deserialize a model using the given primitives; for example, a
+   * {@link xapi.model.tools.ClusteringPrimitiveDeserializer} reading strings pooled across a connection.
+   */
+  public <M extends Model> M deserialize(final Class<M> cls, final CharIterator model, final PrimitiveSerializer primitives) {
+    if (model == null) {
+      return null;
+    }
+    final ModelDeserializationContext context = new ModelDeserializationContext(doCreate(cls), this, findManifest(cls));
+    context.setPrimitives(primitives);
+    context.setClientToServer(isClientToServer());
+    final boolean isKeyOnly = cls.getAnnotation(KeyOnly.class) != null;
+    context.setKeyOnly(isKeyOnly);
+    final ModelSerializer<M> serializer = getSerializer(getTypeName(cls));
+    return serializer.modelFromString(cls, model, context, isKeyOnly);
+  }
+
   /**
    * By default, all JRE environments will be considered server to client, and client
    * implementations of the model service will override this method to return true
@@ -152,11 +278,20 @@ public abstract class AbstractModelService implements ModelService
 
   @Override
   public <M extends Model> M deserialize(final ModelManifest manifest, final CharIterator model) {
+    return deserialize(manifest, model, primitiveSerializer());
+  }
+
+  /**
+   * Deserialize a model using the given primitives; for example, a
+   * {@link xapi.model.tools.ClusteringPrimitiveDeserializer} reading strings pooled across a connection.
+   */
+  public <M extends Model> M deserialize(final ModelManifest manifest, final CharIterator model, final PrimitiveSerializer primitives) {
     if (model == null) {
       return null;
     }
     final Class<M> cls = (Class<M>) typeNameToClass.get(manifest.getType());
     final ModelDeserializationContext context = new ModelDeserializationContext(create(cls), this, manifest);
+    context.setPrimitives(primitives);
     context.setClientToServer(isClientToServer());
     context.setKeyOnly(manifest.isKeyOnly());
     final ModelSerializer<M> serializer = getSerializer(manifest.getType());
@@ -237,13 +372,22 @@ public abstract class AbstractModelService implements ModelService
     }
 
   protected <M extends Model> CharBuffer serialize(final String type, final M model) {
+    return serialize(type, model, new CharBuffer(), primitiveSerializer());
+  }
+
+  /**
+   * Serialize a model onto the end of the given buffer, using the given primitives; for example, a
+   * {@link xapi.model.tools.ClusteringPrimitiveSerializer} pooling strings across a connection.
+   *
+   * @return the buffer holding just the model, which has been added to the end of the given buffer.
+   */
+  public <M extends Model> CharBuffer serialize(final String type, final M model, final CharBuffer buffer, final PrimitiveSerializer primitives) {
     if (model == null) {
       return null;
     }
 
-    final CharBuffer buffer = new CharBuffer();
-
     final ModelSerializationContext context = new ModelSerializationContext(buffer, this, findManifest(type));
+    context.setPrimitives(primitives);
     context.setClientToServer(isClientToServer());
     return getSerializer(type).modelToString(getModelType(model), model, context, false);
   }
@@ -271,12 +415,22 @@ public abstract class AbstractModelService implements ModelService
 
   @Override
   public <M extends Model> CharBuffer serialize(final ModelManifest manifest, final M model) {
+    return serialize(manifest, model, new CharBuffer(), primitiveSerializer());
+  }
+
+  /**
+   * Serialize a model onto the end of the given buffer, using the given primitives; for example, a
+   * {@link xapi.model.tools.ClusteringPrimitiveSerializer} pooling strings across a connection.
+   *
+   * @return the buffer holding just the model, which has been added to the end of the given buffer.
+   */
+  public <M extends Model> CharBuffer serialize(final ModelManifest manifest, final M model, final CharBuffer buffer, final PrimitiveSerializer primitives) {
     if (model == null) {
       return null;
     }
 
-    final CharBuffer buffer = new CharBuffer();
     final ModelSerializationContext context = new ModelSerializationContext(buffer, this, manifest);
+    context.setPrimitives(primitives);
     context.setClientToServer(isClientToServer());
     final ModelSerializer<Model> serializer = getSerializer(manifest.getType());
     return serializer.modelToString(manifest.getModelType(), model, context, false);
@@ -390,6 +544,7 @@ public abstract class AbstractModelService implements ModelService
 
   @Override
   public void flushCaches() {
+    clearModelCache();
     this.classToTypeName.clear();
     this.typeNameToClass.clear();
     this.serializers.clear();
@@ -0,0 +1,328 @@
+package xapi.model.impl;
+
+import xapi.annotation.inject.SingletonDefault;
+import xapi.constants.X_Namespace;
+import xapi.model.X_Model;
+import xapi.model.api.Model;
+import xapi.model.api.ModelKey;
+import xapi.model.api.ModelList;
+import xapi.model.service.ModelCache;
+import xapi.prop.X_Properties;
+import xapi.util.api.SuccessHandler;
+
+import java.lang.reflect.Array;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The default {@link ModelCache}: a least-recently-used cache, bounded by both a number of entries
+ * and an estimate of the bytes held by the cached models, with an optional time-to-live per model kind.
+ * <p>
+ * Limits are read from {@link X_Namespace#PROPERTY_MODEL_CACHE_MAX_ENTRIES},
+ * {@link X_Namespace#PROPERTY_MODEL_CACHE_MAX_BYTES} and {@link X_Namespace#PROPERTY_MODEL_CACHE_TTL},
+ * and can be changed at runtime with the setters here.
+ * <p>
+ * Hit, miss, eviction and expiration counts are kept so the limits can be sized against real traffic;
+ * see {@link #getStats()}.
+ */
+@SingletonDefault(implFor=ModelCache.class)
+public class ModelCacheDefault implements ModelCache {
+
+  public static final int DEFAULT_MAX_ENTRIES = 10_000;
+  public static final long DEFAULT_MAX_BYTES = 64L * 1024 * 1024;
+
+  private static final String ANY_KIND = "*";
+  private static final int MAX_ESTIMATE_DEPTH = 3;
+
+  /**
+   * A point in time snapshot of a cache's counters.
+   */
+  public static final class Stats {
+    private final long hits, misses, evictions, expirations;
+    private final int entries;
+    private final long estimatedBytes;
+
+    Stats(long hits, long misses, long evictions, long expirations, int entries, long estimatedBytes) {
+      this.hits = hits;
+      this.misses = misses;
+      this.evictions = evictions;
+      this.expirations = expirations;
+      this.entries = entries;
+      this.estimatedBytes = estimatedBytes;
+    }
+
+    public long getHits() {
+      return hits;
+    }
+
+    public long getMisses() {
+      return misses;
+    }
+
+    /**
+     * @return the number of models removed to stay within the entry or byte limits.
+     */
+    public long getEvictions() {
+      return evictions;
+    }
+
+    /**
+     * @return the number of models removed because their time to live had passed.
+     */
+    public long getExpirations() {
+      return expirations;
+    }
+
+    public int getEntries() {
+      return entries;
+    }
+
+    public long getEstimatedBytes() {
+      return estimatedBytes;
+    }
+
+    public double getHitRate() {
+      final long lookups = hits + misses;
+      return lookups == 0 ? 0 : (double) hits / lookups;
+    }
+
+    @Override
+    public String toString() {
+      return "ModelCache{entries=" + entries + ", bytes=" + estimatedBytes
+          + ", hits=" + hits + ", misses=" + misses + ", hitRate=" + getHitRate()
+          + ", evictions=" + evictions + ", expirations=" + expirations + "}";
+    }
+  }
+
+  private static final class Entry {
+    private final Model model;
+    private final long bytes;
+    private final long expires;
+
+    private Entry(Model model, long bytes, long expires) {
+      this.model = model;
+      this.bytes = bytes;
+      this.expires = expires;
+    }
+  }
+
+  // access ordered, so iteration starts from the least recently used entry
+  private final LinkedHashMap<String, Entry> models = new LinkedHashMap<>(64, 0.75f, true);
+  private final Map<String, Long> ttls = new HashMap<>();
+  private final AtomicInteger idNames = new AtomicInteger(0);
+
+  private int maxEntries;
+  private long maxBytes;
+  private long bytes;
+  private long hits, misses, evictions, expirations;
+
+  public ModelCacheDefault() {
+    maxEntries = Integer.parseInt(X_Properties.getProperty(
+        X_Namespace.PROPERTY_MODEL_CACHE_MAX_ENTRIES, Integer.toString(DEFAULT_MAX_ENTRIES)));
+    maxBytes = Long.parseLong(X_Properties.getProperty(
+        X_Namespace.PROPERTY_MODEL_CACHE_MAX_BYTES, Long.toString(DEFAULT_MAX_BYTES)));
+    final String ttl = X_Properties.getProperty(X_Namespace.PROPERTY_MODEL_CACHE_TTL);
+    if (ttl != null) {
+      for (String pair : ttl.split(",")) {
+        final int split = pair.indexOf('=');
+        if (split != -1) {
+          ttls.put(pair.substring(0, split).trim(), Long.parseLong(pair.substring(split + 1).trim()));
+        }
+      }
+    }
+  }
+
+  @Override
+  public synchronized Model getModel(String key) {
+    final Entry entry = models.get(key);
+    if (entry == null) {
+      misses++;
+      return null;
+    }
+    if (entry.expires != 0 && entry.expires <= now()) {
+      remove(key);
+      expirations++;
+      misses++;
+      return null;
+    }
+    hits++;
+    return entry.model;
+  }
+
+  @Override
+  public void cacheModel(Model model, SuccessHandler<Model> callback) {
+    put(model);
+    callback.onSuccess(model);
+  }
+
+  @Override
+  public void saveModel(Model model, SuccessHandler<Model> callback) {
+    put(model);
+    callback.onSuccess(model);
+  }
+
+  @Override
+  public void deleteModel(Model model, SuccessHandler<Model> callback) {
+    if (model != null && model.getKey() != null) {
+      synchronized (this) {
+        remove(model.getKey().toString());
+      }
+    }
+    callback.onSuccess(model);
+  }
+
+  @Override
+  public synchronized void removeModel(ModelKey key) {
+    if (key != null) {
+      remove(X_Model.keyToString(key));
+    }
+  }
+
+  @Override
+  public ModelKey ensureKey(String type, Model mod) {
+    if (mod == null) {
+      return null;
+    }
+    return mod.getOrComputeKey(()->
+        X_Model.newKey("", type, "local-" + idNames.incrementAndGet())
+     );
+  }
+
+  public synchronized Stats getStats() {
+    return new Stats(hits, misses, evictions, expirations, models.size(), bytes);
+  }
+
+  public synchronized void clear() {
+    models.clear();
+    bytes = 0;
+  }
+
+  /**
+   * @param maxEntries the most models to hold; 0 for no limit.
+   */
+  public synchronized void setMaxEntries(int maxEntries) {
+    this.maxEntries = maxEntries;
+    evict();
+  }
+
+  /**
+   * @param maxBytes the most estimated bytes of models to hold; 0 for no limit.
+   */
+  public synchronized void setMaxBytes(long maxBytes) {
+    this.maxBytes = maxBytes;
+    evict();
+  }
+
+  /**
+   * @param kind a model kind, or * to set the ttl of every kind without its own.
+   * @param millis how long models of the kind stay cached; 0 to keep them until evicted.
+   * Only affects models cached after this call.
+   */
+  public synchronized void setTimeToLive(String kind, long millis) {
+    ttls.put(kind, millis);
+  }
+
+  protected void put(Model model) {
+    if (model == null) {
+      return;
+    }
+    final ModelKey key = model.getKey();
+    // estimate outside the lock; it walks the whole model
+    final long size = estimateSize(model);
+    synchronized (this) {
+      Long ttl = ttls.get(key.getKind());
+      if (ttl == null) {
+        ttl = ttls.get(ANY_KIND);
+      }
+      final Entry entry = new Entry(model, size, ttl == null || ttl <= 0 ? 0 : now() + ttl);
+      final Entry was = models.put(key.toString(), entry);
+      if (was != null) {
+        bytes -= was.bytes;
+      }
+      bytes += size;
+      evict();
+    }
+  }
+
+  private void remove(String key) {
+    final Entry was = models.remove(key);
+    if (was != null) {
+      bytes -= was.bytes;
+    }
+  }
+
+  private void evict() {
+    final Iterator<Entry> eldest = models.values().iterator();
+    while (eldest.hasNext() && ((maxEntries > 0 && models.size() > maxEntries) || (maxBytes > 0 && bytes > maxBytes))) {
+      bytes -= eldest.next().bytes;
+      eldest.remove();
+      evictions++;
+    }
+  }
+
+  protected long now() {
+    return System.currentTimeMillis();
+  }
+
+  /**
+   * A rough guess at the heap held by a model: its own overhead and property slots,
+   * plus the strings, boxes, arrays and (a few levels of) child models in its properties.
+   * Models shared by several cached entries are counted once per entry.
+   */
+  protected long estimateSize(Model model) {
+    return estimateSize(model, 0);
+  }
+
+  private long estimateSize(Object value, int depth) {
+    if (value == null) {
+      return 0;
+    }
+    if (value instanceof String) {
+      return 40 + 2L * ((String) value).length();
+    }
+    if (value instanceof Number || value instanceof Boolean || value instanceof Character) {
+      return 16;
+    }
+    if (value instanceof Enum || value instanceof Class) {
+      // shared constants
+      return 0;
+    }
+    if (value instanceof ModelKey) {
+      return 64;
+    }
+    if (depth >= MAX_ESTIMATE_DEPTH) {
+      return 64;
+    }
+    if (value instanceof ModelList) {
+      long size = 64;
+      for (Object item : (ModelList<?>) value) {
+        size += 8 + estimateSize(item, depth + 1);
+      }
+      return size;
+    }
+    if (value instanceof Model) {
+      final Model model = (Model) value;
+      final String[] names = model.getPropertyNames();
+      long size = 64 + 32L * names.length;
+      for (String name : names) {
+        size += estimateSize(model.getProperty(name), depth + 1);
+      }
+      return size;
+    }
+    if (value.getClass().isArray()) {
+      final int length = Array.getLength(value);
+      long size = 16 + 8L * length;
+      if (!value.getClass().getComponentType().isPrimitive()) {
+        for (int i = 0; i < length; i++) {
+          size += estimateSize(Array.get(value, i), depth + 1);
+        }
+      }
+      return size;
+    }
+    // collections, maps, etc; we can't see inside without knowing their type
+    return 64;
+  }
+}
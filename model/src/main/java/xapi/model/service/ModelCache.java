@@ -2,6 +2,8 @@ package xapi.model.service;
 
 import xapi.model.api.Model;
 import xapi.model.api.ModelKey;
+import xapi.model.X_Model;
+import xapi.util.api.ErrorHandler;
 import xapi.util.api.SuccessHandler;
 
 import static xapi.model.X_Model.keyToString;
@@ -18,4 +20,31 @@ public interface ModelCache {
   void deleteModel(Model model, SuccessHandler<Model> callback);
 
   ModelKey ensureKey(String type, Model mod);
+
+  /**
+   * Forget the model with the given key, if it is cached.
+   */
+  default void removeModel(ModelKey key) {
+    final Model cached = getModel(key);
+    if (cached != null) {
+      deleteModel(cached, SuccessHandler.noop());
+    }
+  }
+
+  /**
+   * A read-through load: answers from the cache if it can,
+   * otherwise loads the model from the {@link xapi.model.service.ModelService} and caches it.
+   */
+  @SuppressWarnings("unchecked")
+  default <M extends Model> void loadModel(Class<M> modelClass, ModelKey key, SuccessHandler<M> callback) {
+    final Model cached = getModel(key);
+    if (cached != null) {
+      callback.onSuccess((M) cached);
+      return;
+    }
+    X_Model.load(modelClass, key, SuccessHandler.handler(
+        loaded -> cacheModel(loaded, ignored -> callback.onSuccess(loaded)),
+        ErrorHandler.delegateTo(callback)
+    ));
+  }
 }
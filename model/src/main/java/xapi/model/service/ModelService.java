@@ -9,6 +9,7 @@ import xapi.model.api.ModelKey;
 import xapi.model.api.ModelManifest;
 import xapi.model.api.ModelQuery;
 import xapi.model.api.ModelQueryResult;
+import xapi.model.api.ModelQuerySink;
 import xapi.model.api.PrimitiveSerializer;
 import xapi.model.impl.ModelSerializationHints;
 import xapi.source.lex.CharIterator;
@@ -30,6 +31,24 @@ public interface ModelService {
 
     void query(ModelQuery<Model> query, SuccessHandler<ModelQueryResult<Model>> callback);
 
+    /**
+     * Send the results of a query to the sink as each model is read, rather than once the whole page is read.
+     * <p>
+     * By default, this collects the page with {@link #query(Class, ModelQuery, SuccessHandler)} and replays it;
+     * services which read models one at a time override it to stream them.
+     */
+    default <M extends Model> void queryStream(Class<M> modelClass, ModelQuery<M> query, ModelQuerySink<M> sink) {
+        query(modelClass, query, ModelQuerySink.replayTo(sink));
+    }
+
+    default <M extends Model> void queryStream(ModelManifest manifest, ModelQuery<M> query, ModelQuerySink<M> sink) {
+        query(manifest, query, ModelQuerySink.replayTo(sink));
+    }
+
+    default void queryStream(ModelQuery<Model> query, ModelQuerySink<Model> sink) {
+        query(query, ModelQuerySink.replayTo(sink));
+    }
+
     <M extends Model> CharBuffer serialize(final Class<M> cls, final M model);
 
     ModelManifest findManifest(Class<?> type);
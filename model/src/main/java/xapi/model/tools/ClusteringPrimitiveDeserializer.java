@@ -15,9 +15,11 @@ import xapi.source.lex.CharIterator;
 public class ClusteringPrimitiveDeserializer extends DelegatingPrimitiveSerializer {
 
   private final IntTo<String> values;
+  private final ClusteringStringPool pool;
 
   public ClusteringPrimitiveDeserializer(final PrimitiveSerializer primitives, final CharIterator in) {
     super(primitives);
+    pool = null;
     values = X_Collect.newList(String.class, X_Collect.MUTABLE_CONCURRENT);
     int size = primitives.deserializeInt(in);
     while (size --> 0) {
@@ -25,6 +27,25 @@ public class ClusteringPrimitiveDeserializer extends DelegatingPrimitiveSerializ
     }
   }
 
+  /**
+   * Deserialize one message of a connection, whose strings are pooled across messages;
+   * reads the message's header (the strings our peer has dropped or defined) into the pool.
+   */
+  public ClusteringPrimitiveDeserializer(final PrimitiveSerializer primitives, final CharIterator in, final ClusteringStringPool pool) {
+    super(primitives);
+    this.pool = pool;
+    values = null;
+    int drops = primitives.deserializeInt(in);
+    while (drops --> 0) {
+      pool.drop(primitives.deserializeInt(in));
+    }
+    int size = primitives.deserializeInt(in);
+    while (size --> 0) {
+      final int id = primitives.deserializeInt(in);
+      pool.received(id, primitives.deserializeString(in));
+    }
+  }
+
   @Override
   public String serializeClass(final Class<?> c) {
     // This class should only be used for deserializing.
@@ -43,7 +64,7 @@ public class ClusteringPrimitiveDeserializer extends DelegatingPrimitiveSerializ
     if (pos == -1) {
       return null;
     }
-    return values.at(pos);
+    return pool == null ? values.at(pos) : pool.lookup(pos);
   }
 
   @Override
@@ -52,7 +73,7 @@ public class ClusteringPrimitiveDeserializer extends DelegatingPrimitiveSerializ
     if (pos == -1) {
       return null;
     }
-    final String value = values.at(pos);
+    final String value = pool == null ? values.at(pos) : pool.lookup(pos);
     return loadClass(value);
   }
 
@@ -4,7 +4,7 @@
 package xapi.model.tools;
 
 import xapi.collect.X_Collect;
-import xapi.collect.api.StringTo;
+import xapi.collect.api.StringToInt;
 import xapi.dev.source.CharBuffer;
 import xapi.model.api.PrimitiveSerializer;
 import xapi.source.lex.CharIterator;
@@ -16,23 +16,45 @@ import xapi.source.lex.CharIterator;
 public class ClusteringPrimitiveSerializer extends DelegatingPrimitiveSerializer {
 
   private final CharBuffer out;
-  private final StringTo<Integer> strings;
+  private final StringToInt strings;
   private final CharBuffer size;
+  private final ClusteringStringPool pool;
+  private int defined;
 
   public ClusteringPrimitiveSerializer(final PrimitiveSerializer primitives, final CharBuffer out) {
     super(primitives);
     this.size = new CharBuffer();
     this.out = new CharBuffer();
+    this.pool = null;
     // our final result will contain the total size of pooled strings
     out.addToEnd(this.size);
     // then is followed by the structural content of the serialized message.
     out.addToEnd(this.out);
-    strings = X_Collect.newStringMap(Integer.class, X_Collect.MUTABLE_CONCURRENT);
-    // TODO: in order to reduce data on the wire, we should have a set of hardcoded "well known types"
-    // with negative int ids that are never included in the string pool.  We should also support
-    // "connection clustering", where a client connection can send ACK messages for all types added to pool,
-    // so we can prime our string map with "strings already known and retained by client".
-    // (clients can also send DEL messages when they want to forget some LRU value)
+    strings = X_Collect.newStringToIntMap(X_Collect.MUTABLE_CONCURRENT);
+  }
+
+  /**
+   * Serialize one message of a connection, whose strings are pooled across messages;
+   * see {@link ClusteringStringPool} for the format.
+   * Strings our peer already knows are written as their id, and only new strings are defined.
+   */
+  public ClusteringPrimitiveSerializer(final PrimitiveSerializer primitives, final CharBuffer out, final ClusteringStringPool pool) {
+    super(primitives);
+    this.size = new CharBuffer();
+    this.out = new CharBuffer();
+    this.pool = pool;
+    final int[] drops = pool.beginMessage();
+    primitives.serializeInt(drops.length, out);
+    for (int drop : drops) {
+      primitives.serializeInt(drop, out);
+    }
+    // then the number of strings defined by this message
+    primitives.serializeInt(0, size);
+    out.addToEnd(this.size);
+    // and their ids and values.
+    out.addToEnd(this.out);
+    // the strings used in this message; these never need to be defined twice
+    strings = X_Collect.newStringToIntMap();
   }
 
   @Override
@@ -53,16 +75,59 @@ public class ClusteringPrimitiveSerializer extends DelegatingPrimitiveSerializer
     if (s == null) {
       return super.serializeInt(-1);
     }
-    Integer position = strings.get(s);
-    if (position == null) {
+    return super.serializeInt(idOf(s));
+  }
+
+  /**
+   * Writes the id of the string straight into the caller's buffer; any definition goes into our own.
+   */
+  @Override
+  public void serializeString(final String s, final Appendable into) {
+    super.serializeInt(s == null ? -1 : idOf(s), into);
+  }
+
+  private int idOf(final String s) {
+    if (pool != null) {
+      return pooledId(s);
+    }
+    int position = strings.getOrDefault(s, -1);
+    if (position == -1) {
       position = strings.size();
       strings.put(s, position);
-      out.append(super.serializeString(s));
+      primitives.serializeString(s, out);
       size.clear();
-      size.append(serializeInt(position+1));
+      super.serializeInt(position + 1, size);
+    }
+    return position;
+  }
+
+  private int pooledId(final String s) {
+    final int wellKnown = pool.wellKnownId(s);
+    if (wellKnown != 0) {
+      return wellKnown;
+    }
+    int id = strings.getOrDefault(s, -1);
+    if (id == -1) {
+      id = pool.outgoingId(s);
+      if (id == -1) {
+        id = pool.assignId(s);
+        define(id, s);
+      } else if (!pool.isAcknowledged(id)) {
+        // our peer may not have received the message which defined this string
+        define(id, s);
+      }
+      strings.put(s, id);
     }
-    return super.serializeInt(position);
+    return id;
   }
+
+  private void define(final int id, final String s) {
+    super.serializeInt(id, out);
+    primitives.serializeString(s, out);
+    size.clear();
+    super.serializeInt(++defined, size);
+  }
+
   @Override
   public String serializeClass(final Class<?> c) {
     // Null handling remains the same
@@ -72,4 +137,9 @@ public class ClusteringPrimitiveSerializer extends DelegatingPrimitiveSerializer
     return serializeString(c.getName());
   }
 
+  @Override
+  public void serializeClass(final Class<?> c, final Appendable into) {
+    serializeString(c == null ? null : c.getName(), into);
+  }
+
 }
@@ -0,0 +1,231 @@
+package xapi.model.tools;
+
+import xapi.constants.X_Namespace;
+import xapi.prop.X_Properties;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The strings one end of a connection has sent to, and received from, its peer, so that type names
+ * and keys sent in one model message can be sent as small integer ids in every message after it.
+ * <p>
+ * Each end of a connection keeps its own pool; what one end records as outgoing, its peer records as incoming.
+ * Messages written through {@link ClusteringPrimitiveSerializer#ClusteringPrimitiveSerializer(xapi.model.api.PrimitiveSerializer, xapi.dev.source.CharBuffer, ClusteringStringPool)}
+ * start with a small header, read by the matching {@link ClusteringPrimitiveDeserializer} constructor:
+ * <pre>
+ * [number of ids to drop] [id]...
+ * [number of ids to define] ([id] [string])...
+ * </pre>
+ * followed by the message, where pooled strings are written as their id.
+ * <p>
+ * Ids:<ul>
+ * <li>-1 is null.</li>
+ * <li>-2 and below are {@link #WELL_KNOWN} strings (and any extra well known strings given to the constructor),
+ * which are never sent at all; both ends must agree on them.</li>
+ * <li>0 and up are assigned by the sender, in order, and never reused (until the pool is {@link #reset()}).</li>
+ * </ul>
+ * The sender remembers at most {@link X_Namespace#PROPERTY_MODEL_STRING_POOL_SIZE} strings; when it has more,
+ * the least recently used are dropped at the start of the next message, and that message tells the receiver
+ * to drop them as well.
+ * <p>
+ * By default, a string is considered known to the receiver as soon as it has been written once,
+ * which is correct for a connection that delivers messages in order, like a socket.
+ * For transports which may lose messages (like http), call {@link #setAutoAcknowledge(boolean)} with false,
+ * and pass the receiver's {@link #getReceivedThrough()} back to {@link #acknowledge(int)};
+ * until then, each message that uses a string will (re)define it.
+ * <p>
+ * Drops are applied as soon as they are read, so receivers must read a pool's messages in the order they were written.
+ * A receiver that is asked for an id it does not know throws {@link IllegalStateException};
+ * both ends should then discard their pools and start over.
+ */
+public class ClusteringStringPool {
+
+  /**
+   * Strings every pool knows without sending them; the string at index i has the id -2 - i.
+   * This is part of the wire format: only ever append to this list.
+   */
+  public static final String[] WELL_KNOWN = {
+      "java.lang.String", "java.lang.Object", "java.lang.Class", "java.lang.Enum",
+      "java.lang.Integer", "java.lang.Long", "java.lang.Double", "java.lang.Float",
+      "java.lang.Boolean", "java.lang.Short", "java.lang.Byte", "java.lang.Character",
+      "int", "long", "double", "float", "boolean", "short", "byte", "char", "void",
+      "[Ljava.lang.String;", "[I", "[J", "[D", "[Z",
+      "java.util.List", "java.util.Map", "java.util.Set", "java.math.BigDecimal", "java.math.BigInteger",
+      "xapi.model.api.Model", "xapi.model.api.ModelKey", "xapi.model.api.ModelList",
+      "xapi.collect.api.IntTo", "xapi.collect.api.StringTo", "xapi.collect.api.ClassTo", "xapi.collect.api.ObjectTo",
+  };
+
+  public static final int DEFAULT_MAX_SIZE = 1024;
+
+  private static final int[] NO_DROPS = new int[0];
+
+  private final String[] wellKnown;
+  private final Map<String, Integer> wellKnownIds;
+
+  // access ordered, so iteration starts from the least recently used string
+  private final LinkedHashMap<String, Integer> outgoing = new LinkedHashMap<>(64, 0.75f, true);
+  private int nextId;
+  private int maxSize;
+  private boolean autoAcknowledge = true;
+  private int acknowledged = -1;
+
+  private final Map<Integer, String> incoming = new HashMap<>();
+  private final Set<Integer> receivedAhead = new HashSet<>();
+  private int receivedThrough = -1;
+
+  public ClusteringStringPool() {
+    this(Integer.parseInt(X_Properties.getProperty(
+        X_Namespace.PROPERTY_MODEL_STRING_POOL_SIZE, Integer.toString(DEFAULT_MAX_SIZE))));
+  }
+
+  /**
+   * @param maxSize the most strings to remember for our peer; 0 for no limit.
+   * @param wellKnown extra strings, after {@link #WELL_KNOWN}, which both ends know without sending them.
+   */
+  public ClusteringStringPool(final int maxSize, final String ... wellKnown) {
+    this.maxSize = maxSize;
+    this.wellKnown = new String[WELL_KNOWN.length + wellKnown.length];
+    System.arraycopy(WELL_KNOWN, 0, this.wellKnown, 0, WELL_KNOWN.length);
+    System.arraycopy(wellKnown, 0, this.wellKnown, WELL_KNOWN.length, wellKnown.length);
+    wellKnownIds = new HashMap<>();
+    for (int i = 0; i < this.wellKnown.length; i++) {
+      wellKnownIds.put(this.wellKnown[i], -2 - i);
+    }
+  }
+
+  public synchronized void setMaxSize(final int maxSize) {
+    this.maxSize = maxSize;
+  }
+
+  public synchronized void setAutoAcknowledge(final boolean autoAcknowledge) {
+    this.autoAcknowledge = autoAcknowledge;
+  }
+
+  /**
+   * Record that our peer has received every string we sent, up to and including the given id;
+   * the value to send is our peer's {@link #getReceivedThrough()}.
+   */
+  public synchronized void acknowledge(final int receivedThrough) {
+    if (receivedThrough > acknowledged) {
+      acknowledged = receivedThrough;
+    }
+  }
+
+  /**
+   * @return the highest id for which we have received every id up to and including it;
+   * -1 if we have received none.
+   */
+  public synchronized int getReceivedThrough() {
+    return receivedThrough;
+  }
+
+  public synchronized int getOutgoingSize() {
+    return outgoing.size();
+  }
+
+  public synchronized int getIncomingSize() {
+    return incoming.size();
+  }
+
+  /**
+   * Forget everything we have sent and received, and start assigning ids from 0 again;
+   * both ends of a connection must reset together. Well known strings are kept.
+   */
+  public synchronized void reset() {
+    outgoing.clear();
+    nextId = 0;
+    acknowledged = -1;
+    incoming.clear();
+    receivedAhead.clear();
+    receivedThrough = -1;
+  }
+
+  /**
+   * @return 0 if the string is not well known; otherwise, its (negative) id.
+   */
+  int wellKnownId(final String value) {
+    final Integer id = wellKnownIds.get(value);
+    return id == null ? 0 : id;
+  }
+
+  /**
+   * Start writing a message; drops the least recently used strings if we are over our limit.
+   *
+   * @return the ids our peer must drop before reading the message.
+   */
+  synchronized int[] beginMessage() {
+    if (maxSize <= 0 || outgoing.size() <= maxSize) {
+      return NO_DROPS;
+    }
+    final int[] drops = new int[outgoing.size() - maxSize];
+    final Iterator<Integer> eldest = outgoing.values().iterator();
+    for (int i = 0; i < drops.length; i++) {
+      drops[i] = eldest.next();
+      eldest.remove();
+    }
+    return drops;
+  }
+
+  /**
+   * @return the id we have already given this string, or -1.
+   */
+  synchronized int outgoingId(final String value) {
+    final Integer id = outgoing.get(value);
+    return id == null ? -1 : id;
+  }
+
+  synchronized int assignId(final String value) {
+    final int id = nextId++;
+    outgoing.put(value, id);
+    return id;
+  }
+
+  /**
+   * @return true if our peer is known to have received the given id,
+   * so it can be sent without defining it.
+   */
+  synchronized boolean isAcknowledged(final int id) {
+    return autoAcknowledge || id <= acknowledged;
+  }
+
+  synchronized void received(final int id, final String value) {
+    incoming.put(id, value);
+    markReceived(id);
+  }
+
+  synchronized void drop(final int id) {
+    incoming.remove(id);
+    // a drop also means our peer sent the id; we may have missed the message which defined it
+    markReceived(id);
+  }
+
+  synchronized String lookup(final int id) {
+    if (id < -1) {
+      final int index = -2 - id;
+      if (index < wellKnown.length) {
+        return wellKnown[index];
+      }
+    } else {
+      final String value = incoming.get(id);
+      if (value != null) {
+        return value;
+      }
+    }
+    throw new IllegalStateException("Unknown pooled string id " + id + "; the string pools of this connection are out of sync");
+  }
+
+  private void markReceived(final int id) {
+    if (id <= receivedThrough) {
+      return;
+    }
+    receivedAhead.add(id);
+    while (receivedAhead.remove(receivedThrough + 1)) {
+      receivedThrough++;
+    }
+  }
+}
@@ -199,4 +199,71 @@ public class DelegatingPrimitiveSerializer implements PrimitiveSerializer {
     return primitives.loadClass(cls);
   }
 
+  /**
+   * @see xapi.model.api.PrimitiveSerializer#serializeBoolean(boolean, java.lang.Appendable)
+   */
+  @Override
+  public void serializeBoolean(final boolean z, final Appendable out) {
+    primitives.serializeBoolean(z, out);
+  }
+
+  /**
+   * @see xapi.model.api.PrimitiveSerializer#serializeChar(char, java.lang.Appendable)
+   */
+  @Override
+  public void serializeChar(final char c, final Appendable out) {
+    primitives.serializeChar(c, out);
+  }
+
+  /**
+   * @see xapi.model.api.PrimitiveSerializer#serializeInt(int, java.lang.Appendable)
+   */
+  @Override
+  public void serializeInt(final int i, final Appendable out) {
+    primitives.serializeInt(i, out);
+  }
+
+  /**
+   * @see xapi.model.api.PrimitiveSerializer#serializeLong(long, java.lang.Appendable)
+   */
+  @Override
+  public void serializeLong(final long l, final Appendable out) {
+    primitives.serializeLong(l, out);
+  }
+
+  /**
+   * @see xapi.model.api.PrimitiveSerializer#serializeFloat(float, java.lang.Appendable)
+   */
+  @Override
+  public void serializeFloat(final float f, final Appendable out) {
+    primitives.serializeFloat(f, out);
+  }
+
+  /**
+   * @see xapi.model.api.PrimitiveSerializer#serializeDouble(double, java.lang.Appendable)
+   */
+  @Override
+  public void serializeDouble(final double d, final Appendable out) {
+    primitives.serializeDouble(d, out);
+  }
+
+  /**
+   * @see xapi.model.api.PrimitiveSerializer#serializeInt(int, char[], int)
+   */
+  @Override
+  public int serializeInt(final int i, final char[] into, final int pos) {
+    return primitives.serializeInt(i, into, pos);
+  }
+
+  /**
+   * @see xapi.model.api.PrimitiveSerializer#serializeLong(long, char[], int)
+   */
+  @Override
+  public int serializeLong(final long l, final char[] into, final int pos) {
+    return primitives.serializeLong(l, into, pos);
+  }
+
+  // Strings and classes are left to the defaults, which call serializeString(String) and serializeClass(Class),
+  // so subclasses which only override those still see every string.
+
 }
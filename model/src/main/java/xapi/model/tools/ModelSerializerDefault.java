@@ -26,6 +26,8 @@ import xapi.inject.X_Inject;
 import xapi.log.X_Log;
 import xapi.model.X_Model;
 import xapi.model.api.*;
+import xapi.model.api.ModelSerializationPlan.Kind;
+import xapi.model.api.ModelSerializationPlan.Property;
 import xapi.model.impl.ModelSerializationHints;
 import xapi.model.service.ModelService;
 import xapi.prop.X_Properties;
@@ -110,11 +112,11 @@ public class ModelSerializerDefault<M extends Model> implements ModelSerializer<
     public static CharBuffer serialize(final CharBuffer into, final ModelModule module, final PrimitiveSerializer primitives) {
         // Append the uuid, as a string (using a leading size for deserialization purposes)
         final String uuid = toUuid(module);
-        into.append(primitives.serializeString(uuid));
+        primitives.serializeString(uuid, into);
         final String[] strongNames = module.getStrongNames();
-        into.append(primitives.serializeInt(strongNames.length));
+        primitives.serializeInt(strongNames.length, into);
         for (final String strongName : strongNames) {
-            into.append(primitives.serializeString(strongName));
+            primitives.serializeString(strongName, into);
         }
         into.append(calculateSerialization(module, primitives));
 
@@ -148,13 +150,13 @@ public class ModelSerializerDefault<M extends Model> implements ModelSerializer<
             // We will build our policy in our own buffer, so we can safely use it to calculate our strong hash later
             final CharBuffer policy = new CharBuffer();
 
-            policy.append(primitives.serializeString(module.getModuleName()));
+            primitives.serializeString(module.getModuleName(), policy);
 
             final ClusteringPrimitiveSerializer clusterPrim = new ClusteringPrimitiveSerializer(primitives, policy);
             // Directly append the policy to the result (the string is not wrapped),
             // however, we do append the size of the manifests so we know when to stop deserializing
             final SizedIterable<ModelManifest> all = module.getManifests();
-            policy.append(clusterPrim.serializeInt(all.size()));
+            clusterPrim.serializeInt(all.size(), policy);
             for (final ModelManifest manifest : all) {
                 // TODO: collect up reused strings like classnames, and append them into a "classpool",
                 // to reduce the total size of the policy
@@ -231,6 +233,12 @@ public class ModelSerializerDefault<M extends Model> implements ModelSerializer<
                 return;
             }
 
+            final ModelSerializationPlan plan = planFor(model, ctx.getManifest());
+            if (plan != null) {
+                writeProperties(model, plan, out, primitives, ctx);
+                return;
+            }
+
             for (final String key : ctx.getPropertyNames(model)) {
                 if (preventSerialization(model, key, ctx)) {
                     X_Log.debug(ModelSerializerDefault.class,
@@ -255,40 +263,191 @@ public class ModelSerializerDefault<M extends Model> implements ModelSerializer<
     }
 
 
+    /**
+     * @return the cached plan this class of serializer built for models of the manifest's type, building it on first use;
+     * or null if there is no manifest for this model, in which case callers must use the
+     * general-purpose, property-by-property path.
+     * <p>
+     * The plan precomputes the answers {@link #preventSerialization} and {@link #preventDeserialization}
+     * would give from the manifest; subclasses which override those to depend on the model instance
+     * should override this method to return null.
+     */
+    protected ModelSerializationPlan planFor(final Model model, final ModelManifest manifest) {
+        if (manifest == null || !manifest.getModelType().isInstance(model)) {
+            return null;
+        }
+        // subclasses may build different plans, so plans are cached per serializer class
+        ModelSerializationPlan plan = manifest.getSerializationPlan(getClass());
+        if (plan == null) {
+            // racing threads may both build a plan; they are identical, so the last one in wins.
+            plan = createPlan(model, manifest);
+            manifest.setSerializationPlan(getClass(), plan);
+        }
+        return plan;
+    }
+
+    @SuppressWarnings("unchecked")
+    protected ModelSerializationPlan createPlan(final Model model, final ModelManifest manifest) {
+        final String[] names = manifest.getPropertyNames();
+        final Property[] properties = new Property[names.length];
+        for (int i = 0; i < names.length; i++) {
+            final String name = names[i];
+            final Class<?> type = model.getPropertyType(name);
+            final Kind kind = kindOf(type);
+            Class<? extends Model> componentType = null;
+            if (kind == Kind.MODEL_LIST) {
+                final Class<?>[] typeParams = manifest.getMethodData(name).getTypeParams();
+                if (typeParams != null && typeParams.length > 0) {
+                    componentType = (Class<? extends Model>) typeParams[0];
+                }
+            }
+            properties[i] = new Property(
+                name, type, kind,
+                manifest.isClientToServerEnabled(name),
+                manifest.isServerToClientEnabled(name),
+                manifest.isKeyOnly() || manifest.isKeyOnly(name) || type.getAnnotation(KeyOnly.class) != null,
+                componentType,
+                kind == Kind.ENUM ? getEnumConstants(type) : null
+            );
+        }
+        if (X_Log.logLevel().isLoggable(DEBUG)) {
+            X_Log.debug(ModelSerializerDefault.class, "Created serialization plan for ", manifest.getType(), ": ", properties);
+        }
+        return new ModelSerializationPlan(manifest, properties);
+    }
+
+    /**
+     * Decides how a property type is encoded; the order of checks mirrors {@link #writeObject}.
+     */
+    protected Kind kindOf(final Class<?> type) {
+        if (type.isArray()) {
+            return Kind.OTHER;
+        } else if (type == String.class) {
+            return Kind.STRING;
+        } else if (type.isPrimitive()) {
+            if (type == double.class) {
+                return Kind.DOUBLE;
+            } else if (type == float.class) {
+                return Kind.FLOAT;
+            } else if (type == boolean.class) {
+                return Kind.BOOLEAN;
+            } else if (type == char.class) {
+                return Kind.CHAR;
+            } else if (type == long.class) {
+                return Kind.LONG;
+            }
+            return Kind.INT;
+        } else if (type == Integer.class || type == Long.class || type == Short.class || type == Byte.class) {
+            return Kind.BOXED_INTEGRAL;
+        } else if (type == Float.class || type == Double.class || type == BigDecimal.class) {
+            return Kind.BOXED_DECIMAL;
+        } else if (type == Boolean.class) {
+            return Kind.BOXED_BOOLEAN;
+        } else if (isModelType(type)) {
+            return ModelList.class.isAssignableFrom(type) ? Kind.MODEL_LIST : Kind.MODEL;
+        } else if (isModelKeyType(type)) {
+            return Kind.KEY;
+        } else if (type.isEnum() && isSupportedEnumType(type)) {
+            return Kind.ENUM;
+        }
+        return Kind.OTHER;
+    }
+
+    /**
+     * Hook for environments without reflection; the values of the enum, indexed by ordinal.
+     */
+    protected Object[] getEnumConstants(final Class<?> enumType) {
+        return enumType.getEnumConstants();
+    }
+
+    protected void writeProperties(final M model, final ModelSerializationPlan plan, final CharBuffer out, final PrimitiveSerializer primitives, final ModelSerializationContext ctx) {
+        final boolean clientToServer = ctx.isClientToServer();
+        for (final Property property : plan.getProperties()) {
+            if (property.isEnabled(clientToServer)) {
+                writeProperty(out, property, model.getProperty(property.getName()), primitives, ctx);
+            } else {
+                writeNullPlaceholder(out, property.getType(), primitives, ctx);
+            }
+        }
+    }
+
+    protected void writeProperty(final CharBuffer out, final Property property, final Object value, final PrimitiveSerializer primitives, final ModelSerializationContext ctx) {
+        switch (property.getKind()) {
+            case STRING:
+                writeString(out, (String) value, primitives);
+                return;
+            case DOUBLE:
+                primitives.serializeDouble(value == null ? 0 : ((Number) value).doubleValue(), out);
+                return;
+            case FLOAT:
+                primitives.serializeFloat(value == null ? 0 : ((Number) value).floatValue(), out);
+                return;
+            case BOOLEAN:
+                primitives.serializeBoolean(value != null && (Boolean) value, out);
+                return;
+            case CHAR:
+                primitives.serializeChar(value == null ? '0' : (Character) value, out);
+                return;
+            case LONG:
+                primitives.serializeLong(value == null ? 0 : ((Number) value).longValue(), out);
+                return;
+            case INT:
+                primitives.serializeInt(value == null ? 0 : ((Number) value).intValue(), out);
+                return;
+            case BOXED_INTEGRAL:
+                primitives.serializeLong(value == null ? 0 : ((Number) value).longValue(), out);
+                return;
+            case BOXED_DECIMAL:
+                primitives.serializeDouble(value == null ? 0 : ((Number) value).doubleValue(), out);
+                return;
+            case BOXED_BOOLEAN:
+                primitives.serializeInt(value == null ? -1 : (Boolean) value ? 1 : 0, out);
+                return;
+            case ENUM:
+                primitives.serializeInt(value == null ? -1 : ((Enum) value).ordinal(), out);
+                return;
+            case KEY:
+                writeString(out, X_Model.keyToString((ModelKey) value), primitives);
+                return;
+            default:
+                writeObject(out, property.getName(), property.getType(), value, primitives, ctx);
+        }
+    }
+
     /**
      * Writes a "null" placeholder for a property to preserve field alignment across directions.
      * Note: for boxed numeric types, we serialize 0 (there is no generic null marker).
      */
     protected void writeNullPlaceholder(final CharBuffer out, final Class<?> valueType, final PrimitiveSerializer primitives, final ModelSerializationContext ctx) {
         if (valueType.isArray()) {
-            out.append(primitives.serializeInt(-1)); // null array
+            primitives.serializeInt(-1, out); // null array
         } else if (valueType == String.class) {
-            out.append(primitives.serializeInt(-1)); // null string
+            primitives.serializeInt(-1, out); // null string
         } else if (valueType.isPrimitive()) {
             // write default primitive value
             if (valueType == double.class) {
-                out.append(primitives.serializeDouble(0.0));
+                primitives.serializeDouble(0.0, out);
             } else if (valueType == float.class) {
-                out.append(primitives.serializeFloat(0.0f));
+                primitives.serializeFloat(0.0f, out);
             } else if (valueType == boolean.class) {
-                out.append(primitives.serializeBoolean(false));
+                primitives.serializeBoolean(false, out);
             } else if (valueType == char.class) {
-                out.append(primitives.serializeChar('\0'));
+                primitives.serializeChar('\0', out);
             } else if (valueType == long.class) {
-                out.append(primitives.serializeLong(0L));
+                primitives.serializeLong(0L, out);
             } else {
-                out.append(primitives.serializeInt(0)); // all int-like
+                primitives.serializeInt(0, out); // all int-like
             }
         } else if (Number.class.isAssignableFrom(valueType)) {
             // Best-effort: encode zero (readers for wrappers don't support null markers)
             if (valueType == Float.class || valueType == Double.class || valueType == java.math.BigDecimal.class) {
-                out.append(primitives.serializeDouble(0.0));
+                primitives.serializeDouble(0.0, out);
             } else {
-                out.append(primitives.serializeLong(0L));
+                primitives.serializeLong(0L, out);
             }
         } else if (isModelType(valueType)) {
             // model null marker
-            out.append(primitives.serializeInt(-2));
+            primitives.serializeInt(-2, out);
             if (ModelList.class.isAssignableFrom(valueType)) {
                 // For ModelList header: still need to emit type and size to keep alignment
                 // We don't know the component type here; prefer declared type from manifest if available
@@ -302,37 +461,37 @@ public class ModelSerializerDefault<M extends Model> implements ModelSerializer<
                     listType = Object.class;
                 }
                 // State 0, class, size 0
-                out.append(primitives.serializeClass(listType));
-                out.append(primitives.serializeInt(0));
+                primitives.serializeClass(listType, out);
+                primitives.serializeInt(0, out);
             }
         } else if (isModelKeyType(valueType)) {
             // keys are encoded as strings; write null string
-            out.append(primitives.serializeInt(-1));
+            primitives.serializeInt(-1, out);
         } else if (isCollectionProxy(valueType)) {
             // write null iterable
-            out.append(primitives.serializeInt(-1));
+            primitives.serializeInt(-1, out);
         } else if (isStringMapType(valueType)) {
             // string map encodes value type first; emit void.class to denote null
-            out.append(primitives.serializeClass(void.class));
+            primitives.serializeClass(void.class, out);
         } else if (valueType.isEnum()) {
             // enums: -1 stands for null
-            out.append(primitives.serializeInt(-1));
+            primitives.serializeInt(-1, out);
         } else if (java.util.EnumSet.class.isAssignableFrom(valueType)) {
-            out.append(primitives.serializeInt(-1)); // null enum set
-            out.append(primitives.serializeClass(void.class)); // placeholder enum type
+            primitives.serializeInt(-1, out); // null enum set
+            primitives.serializeClass(void.class, out); // placeholder enum type
         } else if (java.util.EnumMap.class.isAssignableFrom(valueType)) {
-            out.append(primitives.serializeInt(-1)); // null enum map
+            primitives.serializeInt(-1, out); // null enum map
         } else if (valueType == Class.class) {
             // Class value; write void.class as placeholder
-            out.append(primitives.serializeClass(void.class));
+            primitives.serializeClass(void.class, out);
         } else if (xapi.time.api.Duration.class.isAssignableFrom(valueType)) {
-            out.append(primitives.serializeLong(0L)); // zero duration
+            primitives.serializeLong(0L, out); // zero duration
         } else if (valueType == Boolean.class) {
             // Class value; write void.class as placeholder
-            out.append(primitives.serializeInt(-1));
+            primitives.serializeInt(-1, out);
         } else {
             // As a last resort, serialize a null string placeholder
-            out.append(primitives.serializeInt(-1));
+            primitives.serializeInt(-1, out);
         }
     }
 
@@ -344,7 +503,7 @@ public class ModelSerializerDefault<M extends Model> implements ModelSerializer<
                 X_Log.debug(ModelSerializerDefault.class, "writeKey: model=null -> -2");
             }
 
-            out.append(primitives.serializeInt(-2));
+            primitives.serializeInt(-2, out);
             return;
         }
         final ModelKey modelKey = model.getKey();
@@ -353,15 +512,15 @@ public class ModelSerializerDefault<M extends Model> implements ModelSerializer<
                 X_Log.debug(ModelSerializerDefault.class, "writeKey: key=null -> -1");
             }
 
-            out.append(primitives.serializeInt(-1));
+            primitives.serializeInt(-1, out);
         } else {
             final String keyString = ctx.getService().keyToString(modelKey);
             if (X_Log.logLevel().isLoggable(DEBUG)) {
                 X_Log.debug(ModelSerializerDefault.class, "writeKey: key len=", keyString.length(), " -> 0 + string");
             }
 
-            out.append(primitives.serializeInt(0));
-            out.append(primitives.serializeString(keyString));
+            primitives.serializeInt(0, out);
+            primitives.serializeString(keyString, out);
         }
     }
 
@@ -438,15 +597,14 @@ public class ModelSerializerDefault<M extends Model> implements ModelSerializer<
             if (X_Log.logLevel().isLoggable(DEBUG)) {
                 X_Log.debug(ModelSerializerDefault.class, "writeArray: ", propName, " -> null (-1)");
             }
-            out.append(primitives.serializeInt(-1));
+            primitives.serializeInt(-1, out);
             return;
         }
         final int len = Array.getLength(array);
         if (X_Log.logLevel().isLoggable(DEBUG)) {
             X_Log.debug(ModelSerializerDefault.class, "writeArray: ", propName, " len=", len, " childType=", propertyType.getComponentType());
         }
-        final String length = primitives.serializeInt(len);
-        out.append(length);
+        primitives.serializeInt(len, out);
         final Class<?> childType = propertyType.getComponentType();
         if (childType.isPrimitive()) {
             // For primitives, we will have to serialize those ourselves here, using array reflection
@@ -458,24 +616,24 @@ public class ModelSerializerDefault<M extends Model> implements ModelSerializer<
                 // as all the small int types can just as easily be coerced to int; their size check will already have been done.
                 if (childType == double.class) {
                     for (int i = 0; i < len; i++) {
-                        out.append(primitives.serializeDouble(Array.getDouble(array, i)));
+                        primitives.serializeDouble(Array.getDouble(array, i), out);
                     }
                 } else if (childType == float.class) {
                     for (int i = 0; i < len; i++) {
-                        out.append(primitives.serializeFloat(Array.getFloat(array, i)));
+                        primitives.serializeFloat(Array.getFloat(array, i), out);
                     }
                 } else if (childType == long.class) {
                     for (int i = 0; i < len; i++) {
-                        out.append(primitives.serializeLong(Array.getLong(array, i)));
+                        primitives.serializeLong(Array.getLong(array, i), out);
                     }
                 } else if (childType == char.class) {
                     for (int i = 0; i < len; i++) {
-                        out.append(primitives.serializeChar(Array.getChar(array, i)));
+                        primitives.serializeChar(Array.getChar(array, i), out);
                     }
                 } else {
                     // all int types
                     for (int i = 0; i < len; i++) {
-                        out.append(primitives.serializeInt(Array.getInt(array, i)));
+                        primitives.serializeInt(Array.getInt(array, i), out);
                     }
                 }
             }
@@ -495,7 +653,7 @@ public class ModelSerializerDefault<M extends Model> implements ModelSerializer<
         } else if (childType == Boolean.class) {
             for (int i = 0; i < len; i++) {
                 final Boolean val = (Boolean) Array.get(array, i);
-                out.append(primitives.serializeInt(val == null ? -1 : val ? 1 : 0));
+                primitives.serializeInt(val == null ? -1 : val ? 1 : 0, out);
             }
         } else if (isSupportedEnumType(childType)) {
             // We are going to assume a homogenous array type...
@@ -504,9 +662,9 @@ public class ModelSerializerDefault<M extends Model> implements ModelSerializer<
                 final Enum asEnum = (Enum) Array.get(array, i);
                 if (asEnum == null) {
                     // Null enum is going to be -1, an impossible ordinal
-                    out.append(primitives.serializeInt(-1));
+                    primitives.serializeInt(-1, out);
                 } else {
-                    out.append(primitives.serializeInt(asEnum.ordinal()));
+                    primitives.serializeInt(asEnum.ordinal(), out);
                 }
             }
         } else if (childType.isArray()) {
@@ -518,17 +676,17 @@ public class ModelSerializerDefault<M extends Model> implements ModelSerializer<
             for (int i = 0; i < len; i++) {
                 IsEnumerable item = (IsEnumerable) Array.get(array, i);
                 if (item == null) {
-                    out.append(primitives.serializeClass(childType));
-                    out.append(primitives.serializeInt(-1));
+                    primitives.serializeClass(childType, out);
+                    primitives.serializeInt(-1, out);
                 } else {
-                    out.append(primitives.serializeClass(item.getClass()));
-                    out.append(primitives.serializeInt(item.ordinal()));
+                    primitives.serializeClass(item.getClass(), out);
+                    primitives.serializeInt(item.ordinal(), out);
                 }
             }
         } else if (Duration.class.isAssignableFrom(childType)) {
             for (int i = 0; i < len; i++) {
                 Duration item = (Duration) Array.get(array, i);
-                out.append(primitives.serializeLong(item.getSeconds()));
+                primitives.serializeLong(item.getSeconds(), out);
             }
         } else {
             throw new UnsupportedOperationException("Unable to serialize unsupported array type " + childType);
@@ -541,7 +699,7 @@ public class ModelSerializerDefault<M extends Model> implements ModelSerializer<
                 X_Log.debug(ModelSerializerDefault.class, "writeCollectionProxy: ", propName, " -> null (-1)");
             }
 
-            out.append(primitives.serializeInt(-1));
+            primitives.serializeInt(-1, out);
             return;
         }
         final Class keyType = collection.keyType();
@@ -553,13 +711,12 @@ public class ModelSerializerDefault<M extends Model> implements ModelSerializer<
         }
 
         if (len == 0 && writeNullForEmpty()) {
-            out.append(primitives.serializeInt(-1));
+            primitives.serializeInt(-1, out);
             return;
         }
-        final String length = primitives.serializeInt(len);
-        out.append(length);
-        out.append(primitives.serializeClass(keyType));
-        out.append(primitives.serializeClass(valueType));
+        primitives.serializeInt(len, out);
+        primitives.serializeClass(keyType, out);
+        primitives.serializeClass(valueType, out);
         if (len == 0) {
             return;
         }
@@ -578,16 +735,16 @@ public class ModelSerializerDefault<M extends Model> implements ModelSerializer<
                 }
             })) {
                 // It is a dense array.  We can write out the values
-                out.append(primitives.serializeBoolean(true));
+                primitives.serializeBoolean(true, out);
                 collection.readWhileTrue((key, value) -> {
                     writeObject(out, String.valueOf(key), valueType, value, primitives, ctx);
                     return true;
                 });
             } else {
                 // it is a sparse array. write out w/ nulls
-                out.append(primitives.serializeBoolean(false));
+                primitives.serializeBoolean(false, out);
                 collection.readWhileTrue((key, value) -> {
-                            out.append(primitives.serializeInt((Integer) key));
+                            primitives.serializeInt((Integer) key, out);
                             writeObject(out, propName, valueType, value, primitives, ctx);
                             return true;
                         }
@@ -595,20 +752,20 @@ public class ModelSerializerDefault<M extends Model> implements ModelSerializer<
             }
         } else if (keyType == Class.class) {
             collection.readWhileTrue((key, value) -> {
-                out.append(primitives.serializeClass((Class) key));
+                primitives.serializeClass((Class) key, out);
                 writeObject(out, propName, valueType, value, primitives, ctx);
                 return true;
             });
         } else if (keyType == String.class) {
             collection.readWhileTrue((key, value) -> {
-                out.append(primitives.serializeString((String) key));
+                primitives.serializeString((String) key, out);
                 writeObject(out, propName, valueType, value, primitives, ctx);
                 return true;
             });
         } else if (keyType == Duration.class) {
             collection.readWhileTrue((key, value) -> {
                 final long time = ((Duration) key).getSeconds();
-                out.append(primitives.serializeLong(time));
+                primitives.serializeLong(time, out);
                 writeObject(out, propName, valueType, value, primitives, ctx);
                 return true;
             });
@@ -622,14 +779,14 @@ public class ModelSerializerDefault<M extends Model> implements ModelSerializer<
         } else if (IsEnumerable.class.isAssignableFrom(keyType)) {
             collection.readWhileTrue((key, value) -> {
                 IsEnumerable k = (IsEnumerable) key;
-                out.append(primitives.serializeClass(k.getClass()));
-                out.append(primitives.serializeInt(k.ordinal()));
+                primitives.serializeClass(k.getClass(), out);
+                primitives.serializeInt(k.ordinal(), out);
                 writeObject(out, propName, valueType, value, primitives, ctx);
                 return true;
             });
         } else if (keyType.isEnum()) {
             collection.readWhileTrue((key, value) -> {
-                out.append(primitives.serializeString(((Enum) key).name()));
+                primitives.serializeString(((Enum) key).name(), out);
                 writeObject(out, propName, valueType, value, primitives, ctx);
                 return true;
             });
@@ -644,7 +801,7 @@ public class ModelSerializerDefault<M extends Model> implements ModelSerializer<
                 X_Log.debug(ModelSerializerDefault.class, "writeSizedIterable: ", propName, " -> null (-1)");
             }
 
-            out.append(primitives.serializeInt(-1));
+            primitives.serializeInt(-1, out);
             return;
         }
         int len = collection.size();
@@ -653,17 +810,16 @@ public class ModelSerializerDefault<M extends Model> implements ModelSerializer<
         }
 
         if (len == 0 && writeNullForEmpty()) {
-            out.append(primitives.serializeInt(-1));
+            primitives.serializeInt(-1, out);
             return;
         }
-        final String length = primitives.serializeInt(len);
-        out.append(length);
+        primitives.serializeInt(len, out);
         if (len == 0) {
             return;
         }
         for (final Object o : collection) {
             if (o == null) {
-                out.append(primitives.serializeInt(-1));
+                primitives.serializeInt(-1, out);
             } else {
                 final Class<?> itemType = getItemType(collection, o);
                 writeObject(out, propName, itemType, o, primitives, ctx);
@@ -691,7 +847,7 @@ public class ModelSerializerDefault<M extends Model> implements ModelSerializer<
                 X_Log.debug(ModelSerializerDefault.class, "writeStringMap: -> void.class/null");
             }
 
-            out.append(primitives.serializeClass(void.class));
+            primitives.serializeClass(void.class, out);
             return;
         }
         final Class valueType = collection.valueType();
@@ -699,15 +855,14 @@ public class ModelSerializerDefault<M extends Model> implements ModelSerializer<
             X_Log.debug(ModelSerializerDefault.class, "writeStringMap: valueType=", valueType, " size=", collection.size());
         }
 
-        out.append(primitives.serializeClass(valueType));
+        primitives.serializeClass(valueType, out);
         int len = collection.size();
-        final String length = primitives.serializeInt(len);
-        out.append(length);
+        primitives.serializeInt(len, out);
         if (len == 0) {
             return;
         }
         collection.forBoth((key, value) -> {
-            out.append(primitives.serializeString(key));
+            primitives.serializeString(key, out);
             writeObject(out, key, valueType, value, primitives, ctx);
         });
     }
@@ -973,48 +1128,48 @@ public class ModelSerializerDefault<M extends Model> implements ModelSerializer<
                 if (asDouble == null) {
                     asDouble = 0.;
                 }
-                out.append(primitives.serializeDouble(asDouble.doubleValue()));
+                primitives.serializeDouble(asDouble.doubleValue(), out);
             } else if (valueType == float.class) {
                 Float asFloat = (Float) value;
                 if (asFloat == null) {
                     asFloat = 0f;
                 }
-                out.append(primitives.serializeFloat(asFloat.floatValue()));
+                primitives.serializeFloat(asFloat.floatValue(), out);
             } else if (valueType == boolean.class) {
                 Boolean asBoolean = (Boolean) value;
                 if (asBoolean == null) {
                     asBoolean = false;
                 }
-                out.append(primitives.serializeBoolean(asBoolean.booleanValue()));
+                primitives.serializeBoolean(asBoolean.booleanValue(), out);
             } else if (valueType == char.class) {
                 Character asCharacter = (Character) value;
                 if (asCharacter == null) {
                     asCharacter = '0';
                 }
-                out.append(primitives.serializeChar(asCharacter.charValue()));
+                primitives.serializeChar(asCharacter.charValue(), out);
             } else if (valueType == long.class) {
                 Long asLong = (Long) value;
                 if (asLong == null) {
                     asLong = 0L;
                 }
-                out.append(primitives.serializeLong(asLong.longValue()));
+                primitives.serializeLong(asLong.longValue(), out);
             } else {
                 Number asNumber = (Number) value;
                 if (asNumber == null) {
                     asNumber = 0;
                 }
                 // all int types
-                out.append(primitives.serializeInt(asNumber.intValue()));
+                primitives.serializeInt(asNumber.intValue(), out);
             }
         } else if (Number.class.isAssignableFrom(valueType)) {
             Number nonNullNumber = value == null ? 0 : (Number) value;
             if (valueType == Float.class || valueType == Double.class || valueType == BigDecimal.class) {
-                out.append(primitives.serializeDouble(nonNullNumber.doubleValue()));
+                primitives.serializeDouble(nonNullNumber.doubleValue(), out);
             } else {
-                out.append(primitives.serializeLong(nonNullNumber.longValue()));
+                primitives.serializeLong(nonNullNumber.longValue(), out);
             }
         } else if (Boolean.class.isAssignableFrom(valueType)) {
-            out.append(primitives.serializeInt(value == null ? -1 : (Boolean)value ? 1 : 0));
+            primitives.serializeInt(value == null ? -1 : (Boolean)value ? 1 : 0, out);
         } else if (isModelType(valueType)) {
             writeModel(out, propName, valueType, (Model) value, primitives, ctx);
         } else if (isModelKeyType(valueType)) {
@@ -1027,40 +1182,40 @@ public class ModelSerializerDefault<M extends Model> implements ModelSerializer<
         } else if (isSizedIterable(valueType)) {
             writeSizedIterable(out, propName, (SizedIterable) value, primitives, ctx);
         } else if (valueType == Class.class) {
-            out.append(primitives.serializeClass((Class) value));
+            primitives.serializeClass((Class) value, out);
         } else if (Duration.class.isAssignableFrom(valueType)) {
             Long asLong = ((Duration) value).getSeconds();
             if (asLong == null) {
                 asLong = 0L;
             }
-            out.append(primitives.serializeLong(asLong.longValue()));
+            primitives.serializeLong(asLong.longValue(), out);
         } else if (isSupportedEnumType(valueType)) {
             if (value == null) {
-                out.append(primitives.serializeInt(-1));
+                primitives.serializeInt(-1, out);
             } else {
                 final Enum asEnum = (Enum) value;
-                out.append(primitives.serializeInt(asEnum.ordinal()));
+                primitives.serializeInt(asEnum.ordinal(), out);
             }
         } else if (EnumSet.class.isAssignableFrom(valueType)) {
             if (value == null) {
-                out.append(primitives.serializeInt(-1));
+                primitives.serializeInt(-1, out);
                 return;
             }
             EnumSet<? extends Enum<?>> item = (EnumSet<? extends Enum<?>>) value;
             int size = item.size();
             int cnt = 0;
-            out.append(primitives.serializeInt(size));
+            primitives.serializeInt(size, out);
             for (Enum<? extends Enum<?>> i : item) {
                 if (cnt == 0) {
                     // the "enum type" is the supertype of each instance of the enum type
-                    out.append(primitives.serializeClass(i.getDeclaringClass()));
+                    primitives.serializeClass(i.getDeclaringClass(), out);
                 }
                 cnt++;
                 serializeEnum(out, primitives, i);
             }
         } else if (EnumMap.class.isAssignableFrom(valueType)) {
             if (value == null) {
-                out.append(primitives.serializeInt(-1));
+                primitives.serializeInt(-1, out);
                 return;
             }
             EnumMap<? extends Enum<?>, ?> item = (EnumMap) value;
@@ -1068,31 +1223,31 @@ public class ModelSerializerDefault<M extends Model> implements ModelSerializer<
             if (size == 0) {
                 // we can't serialize the enum map's type w/o any items to look at.
                 // convert to null.
-                out.append(primitives.serializeInt(-1));
+                primitives.serializeInt(-1, out);
                 return;
             }
             int cnt = 0;
-            out.append(primitives.serializeInt(size));
+            primitives.serializeInt(size, out);
             for (Map.Entry<? extends Enum<?>, ?> e : item.entrySet()) {
                 Enum itemType = e.getKey();
                 if (cnt == 0) {
                     // the "enum type" is the declaring class of each instance of the enum type
-                    out.append(primitives.serializeClass(itemType.getDeclaringClass()));
+                    primitives.serializeClass(itemType.getDeclaringClass(), out);
                 }
                 Object itemValue = e.getValue();
                 serializeEnum(out, primitives, itemType);
-                out.append(primitives.serializeClass(itemValue.getClass()));
+                primitives.serializeClass(itemValue.getClass(), out);
                 String fakeName = propName + "_" + cnt++;
                 writeObject(out, fakeName, itemValue.getClass(), itemValue, primitives, ctx);
             }
         } else if (IsEnumerable.class.isAssignableFrom(valueType)) {
             IsEnumerable item = (IsEnumerable) value;
             if (item == null) {
-                out.append(primitives.serializeClass(valueType));
-                out.append(primitives.serializeInt(-1));
+                primitives.serializeClass(valueType, out);
+                primitives.serializeInt(-1, out);
             } else {
-                out.append(primitives.serializeClass(item.getClass()));
-                out.append(primitives.serializeInt(item.ordinal()));
+                primitives.serializeClass(item.getClass(), out);
+                primitives.serializeInt(item.ordinal(), out);
             }
         } else {
             throw new IllegalStateException("Unserializable field type: " + propName + " (" + valueType + ")");
@@ -1101,9 +1256,9 @@ public class ModelSerializerDefault<M extends Model> implements ModelSerializer<
 
     protected void writeString(final CharBuffer out, final String string, final PrimitiveSerializer primitives) {
         if (string == null) {
-            out.append(primitives.serializeInt(-1));
+            primitives.serializeInt(-1, out);
         } else {
-            out.append(primitives.serializeInt(string.length()));
+            primitives.serializeInt(string.length(), out);
             out.append(string);
         }
     }
@@ -1117,7 +1272,7 @@ public class ModelSerializerDefault<M extends Model> implements ModelSerializer<
                 X_Log.debug(ModelSerializerDefault.class, "writeModel: ", propName, " -> null (-2)");
             }
 
-            out.append(primitives.serializeInt(-2));
+            primitives.serializeInt(-2, out);
             return;
         }
         final KeyOnly keyOnlyAnno = propertyType.getAnnotation(KeyOnly.class);
@@ -1276,10 +1431,10 @@ public class ModelSerializerDefault<M extends Model> implements ModelSerializer<
 
     private static void writeModelListHeader(final CharBuffer out, final PrimitiveSerializer primitives, final ModelList list) {
         final ObjectTo<ModelKey, Model> vals = list.getModels();
-        out.append(primitives.serializeInt(0)); // set the model state to 0
+        primitives.serializeInt(0, out); // set the model state to 0
         // when doing an autoSave on a ModelList, write the type of the list, then the amount, then the child keys.
-        out.append(primitives.serializeClass(list.getModelType()));
-        out.append(primitives.serializeInt(vals == null ? 0 : vals.size()));
+        primitives.serializeClass(list.getModelType(), out);
+        primitives.serializeInt(vals == null ? 0 : vals.size(), out);
     }
 
     protected <Mod extends Model> ModelSerializer<Mod> newSerializer(final Class<Mod> propertyType, final ModelSerializationContext ctx) {
@@ -1363,6 +1518,23 @@ public class ModelSerializerDefault<M extends Model> implements ModelSerializer<
             ));
             return model;
         }
+        final ModelSerializationPlan plan = planFor(model, ctx.getManifest());
+        if (plan != null) {
+            // a reader accepts what the other side was allowed to send
+            final boolean sentClientToServer = !ctx.isClientToServer();
+            for (final Property property : plan.getProperties()) {
+                try {
+                    readProperty(model, property, src, !property.isEnabled(sentClientToServer), ctx);
+                } catch (Throwable t) {
+                    Log.loggerFor(ModelSerializerDefault.class, this)
+                            .log(ModelSerializerDefault.class, Log.LogLevel.ERROR, "Unable to read property ",
+                                    property.getName(), " into model " + model + "\n\nFull key list:", plan.getManifest().getPropertyNames(),
+                                    "\nRemaining source:\n", src.consumeAll());
+                    throw t;
+                }
+            }
+            return model;
+        }
         final String[] propNames = ctx.getPropertyNames(model);
         for (final String propertyName : propNames) {
             final boolean doNotAttach = preventDeserialization(model, propertyName, ctx);
@@ -1394,6 +1566,81 @@ public class ModelSerializerDefault<M extends Model> implements ModelSerializer<
         }
     }
 
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    protected void readProperty(final Model model, final Property property, final CharIterator src, final boolean doNotAttach, final ModelDeserializationContext ctx) {
+        final Class type = property.getType();
+        final PrimitiveSerializer primitives = ctx.getPrimitives();
+        final Object value;
+        switch (property.getKind()) {
+            case STRING:
+                value = readString(src, primitives);
+                break;
+            case DOUBLE:
+            case FLOAT:
+            case BOOLEAN:
+            case CHAR:
+            case LONG:
+            case INT:
+                value = readPrimitive(type, src, primitives);
+                break;
+            case BOXED_INTEGRAL:
+                final long asLong = primitives.deserializeLong(src);
+                if (type == Integer.class) {
+                    value = (int) asLong;
+                } else if (type == Long.class) {
+                    value = asLong;
+                } else if (type == Short.class) {
+                    value = (short) asLong;
+                } else {
+                    value = (byte) asLong;
+                }
+                break;
+            case BOXED_DECIMAL:
+                final double asDouble = primitives.deserializeDouble(src);
+                if (type == Double.class) {
+                    value = asDouble;
+                } else if (type == Float.class) {
+                    value = (float) asDouble;
+                } else {
+                    value = BigDecimal.valueOf(asDouble);
+                }
+                break;
+            case BOXED_BOOLEAN:
+                final int asInt = primitives.deserializeInt(src);
+                value = asInt == -1 ? null : asInt == 1;
+                break;
+            case ENUM:
+                final int ordinal = primitives.deserializeInt(src);
+                value = ordinal == -1 ? null : property.getEnumConstants()[ordinal];
+                break;
+            case KEY:
+                value = X_Model.keyFromString(readString(src, primitives));
+                break;
+            case MODEL:
+                value = modelFromString(type, src, ctx.createChildContext(type, property.getName()), ctx.isKeyOnly() || property.isKeyOnly());
+                break;
+            case MODEL_LIST:
+                final Class<? extends Model> componentType = property.getComponentType();
+                if (componentType == null) {
+                    value = readObject(type, property.getName(), src, primitives, ctx);
+                } else {
+                    final ModelDeserializationContext context = ctx.createChildContext(type, componentType, property.getName());
+                    ((ModelList) context.getModel()).setModelType(componentType);
+                    value = modelFromString(type, src, context, ctx.isKeyOnly() || property.isKeyOnly());
+                }
+                break;
+            default:
+                if (type.isArray()) {
+                    value = readArray(type.getComponentType(), property.getName(), src, primitives, ctx);
+                } else {
+                    value = readObject(type, property.getName(), src, primitives, ctx);
+                }
+        }
+        if (!doNotAttach) {
+            model.setProperty(property.getName(), value);
+        }
+    }
+
     /**
      * @param componentType
      * @param propName
@@ -1458,7 +1705,7 @@ public class ModelSerializerDefault<M extends Model> implements ModelSerializer<
         if (len == -1) {
             return null;
         }
-        return String.valueOf(src.consume(len));
+        return src.consumeString(len);
     }
 
     protected long readLong(final CharIterator src, final PrimitiveSerializer primitives) {
@@ -1634,8 +1881,7 @@ public class ModelSerializerDefault<M extends Model> implements ModelSerializer<
     }
 
     protected void serializeEnum(final CharBuffer out, final PrimitiveSerializer primitives, final Enum<? extends Enum<?>> i) {
-        final String serialized = primitives.serializeInt(i.ordinal());
-        out.append(serialized);
+        primitives.serializeInt(i.ordinal(), out);
     }
 
     protected Enum deserializeEnum(final Class<? extends Enum<?>> enumType, final PrimitiveSerializer primitives, final CharIterator src) {
@@ -14,6 +14,7 @@ import xapi.debug.X_Debug;
 import xapi.util.X_Runtime;
 
 import java.io.File;
+import java.io.IOException;
 import java.time.Duration;
 import java.util.Arrays;
 
@@ -258,41 +259,6 @@ public class PrimitiveSerializerDefault implements PrimitiveSerializer {
     1, 2, 4, 8, 16, 32, 64, 128, 256
   };
 
-  /**
-   * This is a class that we will use so that we can determine the size of characters needed to
-   * represent a number, while also collecting up the character we want for each position,
-   * so that we can allocate a char[] of the correct size, without having to examine a number twice.
-   * <p>
-   * As we examine the base 32 length of a number, we collect the chars needed in this single-linked list.
-   *
-   * @author James X. Nelson (james@wetheinter.net, @james)
-   *
-   */
-  protected static class CharacterBuffer {
-    // The next buffer, if any
-    protected CharacterBuffer next;
-    // The index of the current slot; the head node will contain the total count so we can alloc a char[]
-    protected int slot;
-    // The char of the current node
-    protected char c;
-
-      public String serialize() {
-          if (c == NEG_ONE) {
-              return Character.toString(NEG_ONE);
-          }
-          // The very first buffer will have its slot set to size, since we know it will always exist and be in slot 0
-          final char[] data = new char[slot];
-          CharacterBuffer buffer = this;
-          // Reset the sizing slot to an index of zero for our loop
-          buffer.slot = 0;
-          for (;buffer != null; buffer = buffer.next) {
-              // Assemble the char[] computed as a linked list
-              data[buffer.slot] = buffer.c;
-          }
-          return String.valueOf(data);
-      }
-  }
-
   /**
    * Consume characters from the supplied {@link CharIterator} to reassemble a serialized int value.
    * <p>
@@ -369,8 +335,8 @@ public class PrimitiveSerializerDefault implements PrimitiveSerializer {
    */
   @Override
   public String serializeInt(final int i) {
-    CharacterBuffer buffer = computeSerialization(i);
-    return buffer.serialize();
+    final char[] chars = new char[MAX_INT_CHARS];
+    return String.valueOf(chars, 0, serializeInt(i, chars, 0));
   }
 
   /**
@@ -378,120 +344,142 @@ public class PrimitiveSerializerDefault implements PrimitiveSerializer {
    */
   @Override
   public String serializeLong(final long l) {
-    CharacterBuffer buffer = computeSerialization(l);
-    return buffer.serialize();
+    final char[] chars = new char[MAX_LONG_CHARS];
+    return String.valueOf(chars, 0, serializeLong(l, chars, 0));
   }
 
   /**
-   * Computes a linked list of serialization results for the supplied integer.
-   * <p>
-   * See {@link #CONTINUATION_NUM_SECTION} for a detailed description of the serialization policy.
+   * Writes the digits of an int straight into the array; the digits come out least significant first,
+   * so we never need to know how many there will be before we start.
    */
-  protected CharacterBuffer computeSerialization(int i) {
-    boolean negative;
-    final CharacterBuffer head = new CharacterBuffer();
-    CharacterBuffer tail = head;
-    if (i < 0) {
-      negative = true;
-      if (i == Integer.MIN_VALUE) {
-        // MIN_VALUE actually falls outside of our dual-32 bit address space;
-        // If you try to count up to MAX_VALUE and then invert the result, it will overflow
-        head.c = NEG_ONE;
-        head.slot ++;
-        return head;
-      } else {
-        i = -i;
-      }
-      assert i >= 0;
-    } else {
-      negative = false;
+  @Override
+  public int serializeInt(int i, final char[] into, int pos) {
+    if (i == Integer.MIN_VALUE) {
+      // MIN_VALUE actually falls outside of our dual-32 bit address space
+      into[pos] = NEG_ONE;
+      return pos + 1;
     }
-    for ( int pos = head.slot + 1; ; pos++ ) {
-      final int chunk = i%32;
-      i = i/32;
+    final boolean negative = i < 0;
+    if (negative) {
+      i = -i;
+    }
+    for (;;) {
+      final int chunk = i % 32;
+      i = i / 32;
       if (i == 0) {
-        return terminate(negative, head, tail, chunk);
+        into[pos++] = negative ? NEGATIVE_NUM_ENDING[chunk] : POSITIVE_NUM_ENDING[chunk];
+        return pos;
       }
-      tail = pushItem(pos, chunk, head, tail);
+      into[pos++] = CONTINUATION_NUM_SECTION[chunk];
     }
   }
 
-  private CharacterBuffer pushItem(final int slot, final int value, final CharacterBuffer head, CharacterBuffer tail) {
-    tail.c = value == -1 ? NEG_ONE : CONTINUATION_NUM_SECTION[value];
-    head.slot ++;
-    final CharacterBuffer next = new CharacterBuffer();
-    next.slot = slot;
-    tail.next = next;
-    return next;
+  /**
+   * Writes the digits of a long straight into the array; see {@link #serializeInt(int, char[], int)}.
+   */
+  @Override
+  public int serializeLong(long l, final char[] into, int pos) {
+    if (l == Long.MIN_VALUE) {
+      into[pos] = NEG_ONE;
+      return pos + 1;
+    }
+    final boolean negative = l < 0;
+    if (negative) {
+      l = -l;
+    }
+    for (;;) {
+      final int chunk = (int) (l % 32L);
+      l = l / 32L;
+      if (l == 0) {
+        into[pos++] = negative ? NEGATIVE_NUM_ENDING[chunk] : POSITIVE_NUM_ENDING[chunk];
+        return pos;
+      }
+      into[pos++] = CONTINUATION_NUM_SECTION[chunk];
+    }
   }
 
   /**
-   * Computes a linked list of serialization results for the supplied long.
-   * <p>
-   * See {@link #CONTINUATION_NUM_SECTION} for a detailed description of the serialization policy.
+   * Appends the digits of an int one at a time, so nothing is allocated per number.
    */
-  private CharacterBuffer computeSerialization(long i) {
-    boolean negative;
-    final CharacterBuffer head = new CharacterBuffer();
-    CharacterBuffer tail = head;
-    if (i < 0) {
-      negative = true;
-      if (i == Long.MIN_VALUE) {
-          // MIN_VALUE actually falls outside of our dual-32 bit address space;
-          // If you try to count up to MAX_VALUE and then invert the result, it will overflow
-        head.c = NEG_ONE;
-        head.slot++;
-        return head;
-      } else {
+  @Override
+  public void serializeInt(int i, final Appendable out) {
+    try {
+      if (i == Integer.MIN_VALUE) {
+        out.append(NEG_ONE);
+        return;
+      }
+      final boolean negative = i < 0;
+      if (negative) {
         i = -i;
       }
-      assert i >= 0;
-    } else {
-      negative = false;
-    }
-    for ( int pos = head.slot + 1 ; ; pos++ ) {
-      final int chunk = (int)(i%32L);
-      i = i/32L;
-      if (i == 0) {
-        return terminate(negative, head, tail, chunk);
+      for (;;) {
+        final int chunk = i % 32;
+        i = i / 32;
+        if (i == 0) {
+          out.append(negative ? NEGATIVE_NUM_ENDING[chunk] : POSITIVE_NUM_ENDING[chunk]);
+          return;
+        }
+        out.append(CONTINUATION_NUM_SECTION[chunk]);
       }
-      tail = pushItem(pos, chunk, head, tail);
+    } catch (IOException e) {
+      throw X_Debug.rethrow(e);
     }
   }
 
-    private CharacterBuffer terminate(boolean negative, CharacterBuffer head, CharacterBuffer tail, int chunk) {
-        head.slot ++;
-        if (negative) {
-            tail.c = NEGATIVE_NUM_ENDING[chunk];
-        } else {
-            tail.c = POSITIVE_NUM_ENDING[chunk];
+  /**
+   * Appends the digits of a long one at a time, so nothing is allocated per number.
+   */
+  @Override
+  public void serializeLong(long l, final Appendable out) {
+    try {
+      if (l == Long.MIN_VALUE) {
+        out.append(NEG_ONE);
+        return;
+      }
+      final boolean negative = l < 0;
+      if (negative) {
+        l = -l;
+      }
+      for (;;) {
+        final int chunk = (int) (l % 32L);
+        l = l / 32L;
+        if (l == 0) {
+          out.append(negative ? NEGATIVE_NUM_ENDING[chunk] : POSITIVE_NUM_ENDING[chunk]);
+          return;
         }
-        return head;
+        out.append(CONTINUATION_NUM_SECTION[chunk]);
+      }
+    } catch (IOException e) {
+      throw X_Debug.rethrow(e);
     }
+  }
 
-    @Override
+  @Override
   public String serializeBoolean(final boolean z) {
     return z ? "1" : "0";
   }
 
+  @Override
+  public void serializeBoolean(final boolean z, final Appendable out) {
+    try {
+      out.append(z ? '1' : '0');
+    } catch (IOException e) {
+      throw X_Debug.rethrow(e);
+    }
+  }
+
   @Override
   public String serializeBooleanArray(final boolean ... z) {
     final int size = z.length / 5 + 1;
     // We will write a full large int using as many base 32 values as we need.
-    CharacterBuffer sizeChunk = computeSerialization(z.length);
-    final int offset = sizeChunk.slot;
-    final char[] buffer = new char[size + offset];
-    sizeChunk.slot = 0;
-    while (sizeChunk != null) {
-      buffer[sizeChunk.slot] = sizeChunk.c;
-      sizeChunk = sizeChunk.next;
-    }
+    final char[] buffer = new char[size + MAX_INT_CHARS];
+    final int offset = serializeInt(z.length, buffer, 0);
     for (int i = 0; i < size; i++) {
       final int value = boolsToBase32(z, i);
       assert value < 32;
       buffer[i+offset] = POSITIVE_NUM_ENDING[value%32];
     }
-    return String.valueOf(buffer);
+    return String.valueOf(buffer, 0, size + offset);
   }
 
   private int boolsToBase32(final boolean[] z, int pos) {
@@ -551,6 +539,21 @@ public class PrimitiveSerializerDefault implements PrimitiveSerializer {
     return serializeLong(Double.doubleToLongBits(d));
   }
 
+  @Override
+  public void serializeChar(final char c, final Appendable out) {
+    serializeInt(c, out);
+  }
+
+  @Override
+  public void serializeFloat(final float f, final Appendable out) {
+    serializeInt(Float.floatToIntBits(f), out);
+  }
+
+  @Override
+  public void serializeDouble(final double d, final Appendable out) {
+    serializeLong(Double.doubleToLongBits(d), out);
+  }
+
   @Override
   public boolean deserializeBoolean(final CharIterator z) {
     return z.next() == '1';
@@ -640,7 +643,7 @@ function DoubleToIEEE(f)
     if (size == 0) {
       return "";
     }
-    return s.consume(size).toString();
+    return s.consumeString(size);
   }
 
   @Override
@@ -648,7 +651,25 @@ function DoubleToIEEE(f)
     if (s == null) {
       return serializeInt(-1);
     }
-    return serializeInt(s.length()) + s;
+    final int length = s.length();
+    final char[] chars = new char[MAX_INT_CHARS + length];
+    final int start = serializeInt(length, chars, 0);
+    s.getChars(0, length, chars, start);
+    return String.valueOf(chars, 0, start + length);
+  }
+
+  @Override
+  public void serializeString(final String s, final Appendable out) {
+    if (s == null) {
+      serializeInt(-1, out);
+      return;
+    }
+    serializeInt(s.length(), out);
+    try {
+      out.append(s);
+    } catch (IOException e) {
+      throw X_Debug.rethrow(e);
+    }
   }
 
   /**
@@ -662,6 +683,11 @@ function DoubleToIEEE(f)
   /**
    * @see xapi.model.api.PrimitiveSerializer#deserializeClass(xapi.source.lex.CharIterator)
    */
+  @Override
+  public void serializeClass(final Class<?> c, final Appendable out) {
+    serializeString(c == null ? null : c.getName(), out);
+  }
+
   @Override
   @SuppressWarnings("unchecked")
   public Class<?> deserializeClass(final CharIterator c) {
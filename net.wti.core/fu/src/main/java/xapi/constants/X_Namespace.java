@@ -47,6 +47,11 @@ public class X_Namespace {
    * Default folder for location of instance object mapping;
    */
   public static final String DEFAULT_INSTANCES_LOCATION = META_INF+"/instances";
+  /**
+   * META-INF/injection-index
+   * Lists the injection index class generated for each jar; see xapi.annotation.inject.InjectionIndex.
+   */
+  public static final String DEFAULT_INJECTION_INDEX_LOCATION = META_INF+"/injection-index";
   /**
    * assets/wti/singeltons
    * Default android folder for location of singleton object mapping;
@@ -81,6 +86,34 @@ public class X_Namespace {
    */
   public static final String PROPERTY_LOG_LEVEL = "xapi.log.level";
 
+  /**
+   * "xapi.log.async" Whether the jre logger formats and writes messages on a background thread;
+   * defaults to true. Set to false to write every message on the thread which logged it.
+   */
+  public static final String PROPERTY_LOG_ASYNC = "xapi.log.async";
+
+  /**
+   * "xapi.log.buffer" How many messages the jre logger will hold for its background thread;
+   * defaults to 8192 (rounded up to a power of two).
+   * When it is full, messages below ERROR are dropped (and counted) rather than block the caller.
+   */
+  public static final String PROPERTY_LOG_BUFFER = "xapi.log.buffer";
+
+  /**
+   * "xapi.log.file" A file for the jre logger to write to, instead of the console; unset by default.
+   */
+  public static final String PROPERTY_LOG_FILE = "xapi.log.file";
+
+  /**
+   * "xapi.log.file.size" The size in bytes at which xapi.log.file is rotated; defaults to 10MB.
+   */
+  public static final String PROPERTY_LOG_FILE_SIZE = "xapi.log.file.size";
+
+  /**
+   * "xapi.log.file.count" How many rotated log files to keep (as file.1, file.2...); defaults to 5.
+   */
+  public static final String PROPERTY_LOG_FILE_COUNT = "xapi.log.file.count";
+
   /**
    * "xapi.model.root" Root class to use for model generation.
    * In gwt, defaults to xapi.gwt.model.ModelGwt.
@@ -92,6 +125,53 @@ public class X_Namespace {
    * defaults to /tmp/models
    */
   public static final String PROPERTY_MODEL_DIR = "xapiModelDir";
+  /**
+   * "xapi.model.format" The format ModelServiceJre uses for model files: text (default) or binary.
+   * Either format can always be read, so this can be changed without migrating existing files.
+   */
+  public static final String PROPERTY_MODEL_FORMAT = "xapi.model.format";
+  /**
+   * "xapi.model.wire.formats" Comma separated wire formats (beyond text) that servers will negotiate
+   * with clients of every ModelModule they load; currently, only binary.
+   */
+  public static final String PROPERTY_MODEL_WIRE_FORMATS = "xapi.model.wire.formats";
+  /**
+   * "xapi.model.log.fsync" When the log-structured model service forces writes to disk.
+   * Choices are: commit (default; once per group commit, before success is reported),
+   * periodic (at most every 100ms, after success is reported) or never.
+   */
+  public static final String PROPERTY_MODEL_LOG_FSYNC = "xapi.model.log.fsync";
+  /**
+   * "xapi.model.log.segment.size" The size, in bytes, at which the log-structured model service
+   * rolls to a new segment file; defaults to 64MB.
+   */
+  public static final String PROPERTY_MODEL_LOG_SEGMENT_SIZE = "xapi.model.log.segment.size";
+  /**
+   * "xapi.model.cache.max.entries" The most models the default ModelCache will hold before evicting
+   * the least recently used; defaults to 10000.  Send 0 for no limit.
+   */
+  public static final String PROPERTY_MODEL_CACHE_MAX_ENTRIES = "xapi.model.cache.max.entries";
+  /**
+   * "xapi.model.cache.max.bytes" The most (estimated) bytes of models the default ModelCache will hold
+   * before evicting the least recently used; defaults to 64MB.  Send 0 for no limit.
+   */
+  public static final String PROPERTY_MODEL_CACHE_MAX_BYTES = "xapi.model.cache.max.bytes";
+  /**
+   * "xapi.model.cache.ttl" How long, in milliseconds, the default ModelCache keeps models of each kind;
+   * comma separated kind=millis pairs, where a kind of * sets the default, like "user=60000,*=600000".
+   * Kinds without a ttl (the default) are kept until evicted.
+   */
+  public static final String PROPERTY_MODEL_CACHE_TTL = "xapi.model.cache.ttl";
+  /**
+   * "xapi.model.pool.size" The most strings a connection's ClusteringStringPool will remember
+   * for its peer before telling it to drop the least recently used; defaults to 1024.
+   */
+  public static final String PROPERTY_MODEL_STRING_POOL_SIZE = "xapi.model.pool.size";
+  /**
+   * "xapi.model.generated" Whether the jre model service implements model interfaces with generated classes
+   * (one field per property) instead of java.lang.reflect.Proxy; defaults to true.
+   */
+  public static final String PROPERTY_MODEL_GENERATED = "xapi.model.generated";
   /**
    * "xapi.model.strategy" The strategy to use for model generation;
    * passed to whatever xapi.dev.model.ModelGenerator is injected.
@@ -112,6 +192,12 @@ public class X_Namespace {
    */
   public static final String PROPERTY_INSTANCES = "xapi.instances";
 
+  /**
+   * "xapi.inject.index" System property; send false to ignore generated injection indexes,
+   * and look up every injection target in META-INF/singletons and META-INF/instances instead.
+   */
+  public static final String PROPERTY_INJECTION_INDEX = "xapi.inject.index";
+
   /**
    * "xapi.multithreaded"
    * System property for enabling or disabling the use of mutlithreading.
@@ -120,6 +206,46 @@ public class X_Namespace {
    */
   public static final String PROPERTY_MULTITHREADED = "xapi.multithreaded";
 
+  /**
+   * "xapi.time.executor"
+   * System property for selecting how X_Time.runLater executes work on the jre.
+   * One of "pool" (default; reusable worker threads, with more started whenever all are busy),
+   * "virtual" (one virtual thread per task, on jdk 21+; falls back to pool),
+   * or "thread" (legacy behavior; a brand new Thread per task).
+   */
+  public static final String PROPERTY_TIME_EXECUTOR = "xapi.time.executor";
+
+  /**
+   * "xapi.time.threads"
+   * System property for the number of X_Time.runLater pool workers started before idle workers are reused.
+   * Default is twice the number of available processors (minimum of four);
+   * more are started when all are busy, up to xapi.time.max.threads.
+   */
+  public static final String PROPERTY_TIME_THREADS = "xapi.time.threads";
+
+  /**
+   * "xapi.time.max.threads"
+   * System property for the most X_Time.runLater pool workers which may run at once (default 256).
+   * Once that many are busy, further tasks wait in a queue bounded by xapi.time.queue.limit.
+   */
+  public static final String PROPERTY_TIME_MAX_THREADS = "xapi.time.max.threads";
+
+  /**
+   * "xapi.time.queue.limit"
+   * System property for the maximum number of X_Time.runLater tasks
+   * which may wait for a worker once every pool worker is busy, before the rejection policy is applied.
+   */
+  public static final String PROPERTY_TIME_QUEUE_LIMIT = "xapi.time.queue.limit";
+
+  /**
+   * "xapi.time.rejection"
+   * System property for what to do when X_Time.runLater exceeds xapi.time.queue.limit.
+   * One of "new_thread" (default; the legacy behavior, so callers never see an error),
+   * "caller_runs", "abort" or "discard".
+   * Avoid caller_runs if runLater is ever called from an event loop.
+   */
+  public static final String PROPERTY_TIME_REJECTION = "xapi.time.rejection";
+
   /**
    * "xapi.server"
    * System property for telling a runtime environment if it is a server or not.
@@ -133,6 +259,20 @@ public class X_Namespace {
    */
   public static final String PROPERTY_SERVER_PORT = "xapi.server.port";
 
+  /**
+   * "xapi.io.connections"
+   * The most connections the jre IOService keeps open to any one host; defaults to 64.
+   * Requests beyond that wait for a pooled connection to come free.
+   */
+  public static final String PROPERTY_IO_CONNECTIONS = "xapi.io.connections";
+
+  /**
+   * "xapi.io.timeout"
+   * Milliseconds the jre IOService gives a request, from being sent until its response is complete;
+   * defaults to 60000. Zero disables the timeout.
+   */
+  public static final String PROPERTY_IO_TIMEOUT = "xapi.io.timeout";
+
   /**
    * "xapi.server.host"
    * System property for telling server what hostname it is.
@@ -140,6 +280,53 @@ public class X_Namespace {
    */
   public static final String PROPERTY_SERVER_HOST = "xapi.server.host";
 
+  /**
+   * "xapi.server.static.cache"
+   * Bytes of static files the server holds in memory (including gzipped copies); defaults to 32MB.
+   */
+  public static final String PROPERTY_SERVER_STATIC_CACHE = "xapi.server.static.cache";
+
+  /**
+   * "xapi.server.static.max"
+   * Static files larger than this many bytes are always sent from disk; defaults to 1MB.
+   */
+  public static final String PROPERTY_SERVER_STATIC_MAX = "xapi.server.static.max";
+
+  /**
+   * "xapi.server.static.recheck"
+   * Milliseconds the server trusts a cached static file before checking whether it changed;
+   * defaults to 2000, or 0 in dev mode.
+   */
+  public static final String PROPERTY_SERVER_STATIC_RECHECK = "xapi.server.static.recheck";
+
+  /**
+   * "xapi.server.socket.loops"
+   * Number of selector threads a socket server spreads its connections across;
+   * defaults to the number of available processors.
+   */
+  public static final String PROPERTY_SERVER_SOCKET_LOOPS = "xapi.server.socket.loops";
+
+  /**
+   * "xapi.server.socket.write.limit"
+   * Bytes of replies a socket server queues for one connection before it stops reading that connection's requests;
+   * defaults to 1MB. Reading resumes once the queue drains below half of this limit.
+   */
+  public static final String PROPERTY_SERVER_SOCKET_WRITE_LIMIT = "xapi.server.socket.write.limit";
+
+  /**
+   * "xapi.server.socket.max.frame"
+   * Largest frame, in bytes, either end of a socket connection will read; a peer claiming a larger frame is
+   * disconnected. Defaults to 4MB. Buffers for large frames grow as their bytes arrive, up to this size.
+   */
+  public static final String PROPERTY_SERVER_SOCKET_MAX_FRAME = "xapi.server.socket.max.frame";
+
+  /**
+   * "xapi.gwtc.cache"
+   * Folder where the fingerprint of each successful gwt compile is remembered, so unchanged modules are not recompiled;
+   * defaults to ~/.xapi/gwtc. Only files owned by the current user, which nobody else may write, are trusted.
+   */
+  public static final String PROPERTY_GWTC_CACHE_DIR = "xapi.gwtc.cache";
+
   /**
    * "xapi.inject.packages"
    * Comma-separated list of classpath prefixes to scan for runtime injection.
@@ -147,6 +334,15 @@ public class X_Namespace {
    * Package names only; periods will be translated to / for resource lookup.
    */
   public static final String PROPERTY_RUNTIME_SCANPATH = "xapi.inject.packages";
+  /**
+   * "xapi.scan.index"
+   * File where classpath scanners remember the entries of each jar they have scanned,
+   * so unchanged jars need not be opened again; defaults to a file per project in ~/.xapi/scan.
+   * The index is ignored if it is owned by another user, or if others may write it.
+   *
+   * Set to false to disable the index.
+   */
+  public static final String PROPERTY_SCAN_INDEX = "xapi.scan.index";
   /**
    * "xapi.test" System property for enabling X_Runtime.isTest() to return true.
    * Set to anything other than false to have isTest() return true.
@@ -154,6 +350,13 @@ public class X_Namespace {
    */
   public static final String PROPERTY_TEST = "xapi.test";
 
+  /**
+   * "xapi.benchmark"
+   * Set to true to run the timing benchmarks which sit alongside the unit tests;
+   * they are skipped otherwise, so they never slow down, or flake, a regular build.
+   */
+  public static final String PROPERTY_BENCHMARK = "xapi.benchmark";
+
   /**
    * "xapi.injector.cache"
    * Location to write injection metadata, if runtime injection is allowed
@@ -48,8 +48,24 @@ public class StringStack <T> {
 
   @Override
   public final String toString() {
-    return prefix.out1() +
-        (next == null ? toString(value) : toString(value) + next);
+    final StringBuilder into = new StringBuilder();
+    appendTo(into);
+    return into.toString();
+  }
+
+  /**
+   * Appends this node and every node after it to the given builder;
+   * walks the chain in a loop, rather than building a string for the tail of every node.
+   */
+  public final void appendTo(StringBuilder into) {
+    for (StringStack<T> node = this; node != null; node = node.next) {
+      into.append(node.prefix.out1());
+      node.appendValue(into, node.value);
+    }
+  }
+
+  protected void appendValue(StringBuilder into, T item) {
+    into.append(toString(item));
   }
 
   protected String toString(T item) {
@@ -14,9 +14,18 @@ import xapi.fu.Out1;
  * @author James X. Nelson (james@wetheinter.net, @james)
  */
 @SuppressWarnings({"rawtypes", "unchecked"})
-public class CharBuffer implements Coercible {
+public class CharBuffer implements Coercible, Appendable {
 
   protected static final class CharBufferStack extends StringStack<CharBuffer> {
+    @Override
+    protected void appendValue(StringBuilder into, CharBuffer item) {
+      if (item != null && item.getClass() == CharBuffer.class) {
+        // plain buffers can render straight into our builder; subclasses may have their own toSource()
+        item.appendSource(into);
+      } else {
+        super.appendValue(into, item);
+      }
+    }
   }
 
   volatile StringBuilder target;
@@ -84,6 +93,27 @@ public class CharBuffer implements Coercible {
     return this;
   }
 
+  @Override
+  public CharBuffer append(final CharSequence chars) {
+    onAppend();
+    target.append(chars);
+    return this;
+  }
+
+  @Override
+  public CharBuffer append(final CharSequence chars, final int start, final int end) {
+    onAppend();
+    target.append(chars, start, end);
+    return this;
+  }
+
+  @Override
+  public CharBuffer append(final char c) {
+    onAppend();
+    target.append(c);
+    return this;
+  }
+
 
   public void addToBeginning(final CharBuffer buffer) {
     assert notContained(buffer) : "Infinite recursion! On [" + buffer + "] in " + this;
@@ -177,14 +207,23 @@ public class CharBuffer implements Coercible {
 
   public String toSource() {
     final StringBuilder body = new StringBuilder();
-    body.append(head);
-    body.append(target.toString());
+    head.appendTo(body);
+    body.append(target);
     if (body.length() == 0) {
       return defaultSource.out1();
     }
     return body.toString();
   }
 
+  private void appendSource(final StringBuilder into) {
+    final int start = into.length();
+    head.appendTo(into);
+    into.append(target);
+    if (into.length() == start) {
+      into.append(defaultSource.out1());
+    }
+  }
+
   public byte[] toBytes() {
     return toSource().getBytes();
   }
@@ -16,6 +16,14 @@ public interface CharIterator {
   CharSequence consume(int size);
   CharSequence consumeAll();
 
+  /**
+   * Consume the next size chars as a String; iterators over a String or a range of a larger buffer
+   * can copy the chars out directly, rather than through a CharSequence of their own.
+   */
+  default String consumeString(int size) {
+    return consume(size).toString();
+  }
+
   default CharSequence readLine() {
     StringBuilder b = new StringBuilder();
 
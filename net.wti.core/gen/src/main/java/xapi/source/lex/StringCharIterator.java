@@ -10,6 +10,18 @@ public class StringCharIterator implements CharIterator {
         this.length = content.length();
     }
 
+    /**
+     * Iterate over the chars of content from start up to end, without copying them into a String first.
+     */
+    public StringCharIterator(final CharSequence content, final int start, final int end) {
+        if (start < 0 || end < start || end > content.length()) {
+            throw new IndexOutOfBoundsException("Invalid range [" + start + ", " + end + ") of " + content.length() + " chars");
+        }
+        this.content = content;
+        this.length = end;
+        this.current = start;
+    }
+
     @Override
     public char next() {
         return content.charAt(current++);
@@ -42,6 +54,24 @@ public class StringCharIterator implements CharIterator {
 
     @Override
     public CharSequence consume(final int size) {
+        final int was = advance(size);
+        return content.subSequence(was, current);
+    }
+
+    @Override
+    public String consumeString(final int size) {
+        final int was = advance(size);
+        if (content instanceof String) {
+            return ((String) content).substring(was, current);
+        }
+        final char[] chars = new char[size];
+        for (int i = 0; i < size; i++) {
+            chars[i] = content.charAt(was + i);
+        }
+        return String.valueOf(chars);
+    }
+
+    private int advance(final int size) {
         final int was = current;
         // Defensive checks to surface stream misalignment early and clearly
         if (size < 0) {
@@ -61,7 +91,7 @@ public class StringCharIterator implements CharIterator {
             );
         }
         current = next;
-        return content.subSequence(was, current);
+        return was;
     }
 
     private String safeRemainderPreview(int max) {
@@ -76,7 +106,7 @@ public class StringCharIterator implements CharIterator {
 
     @Override
     public CharSequence consumeAll() {
-        return consume(content.length() - current);
+        return consume(length - current);
     }
 
 }
@@ -0,0 +1,258 @@
+package xapi.source.write;
+
+import xapi.fu.In1Out1;
+import xapi.fu.data.MapLike;
+
+import java.util.ArrayList;
+import java.util.Map;
+
+///
+/// A template of $named slots, parsed once, which renders straight into a StringBuilder you supply.
+///
+/// Unlike [Template], you do not list the keys up front; any `$name`, `$nested.name.path`
+/// or `${nested.name.path}` in the template is a slot, and its value comes from a [Resolver]
+/// when you render. The template is held as a single char[], with literal text kept as
+/// slices of it, so rendering copies characters and never builds intermediate Strings.
+///
+/// A slot whose value resolves to null is rendered as it was written (`$name`),
+/// so text which merely contains a $ passes through unharmed.
+///
+/// Usage:
+/// ```
+///
+/// assert
+/// CompiledTemplate.compile("Hello, $user.name!")
+/// .apply(key -> key.equals("user") ? userMap : null)
+/// .equals("Hello, World!");
+/// ```
+public final class CompiledTemplate {
+
+  /**
+   * Supplies the values of a template's slots.
+   */
+  public interface Resolver {
+
+    /**
+     * @return The value of a top level key (user, in $user.name), or null if there is none.
+     */
+    Object resolve(String key);
+
+    /**
+     * @return The value of a property of a value we already resolved (name, in $user.name), or null.
+     * Override this to understand your own types; by default, we look into maps, and call functions.
+     */
+    default Object resolve(Object from, String property) {
+      if (from instanceof Map) {
+        return ((Map<?, ?>) from).get(property);
+      }
+      if (from instanceof MapLike) {
+        return ((MapLike<String, ?>) from).get(property);
+      }
+      if (from instanceof In1Out1) {
+        return ((In1Out1<String, ?>) from).io(property);
+      }
+      return null;
+    }
+
+    /**
+     * Writes a resolved (non-null) value into the output.
+     * Override this to escape values for wherever the output is going; see {@link CompiledTemplate#appendHtml}.
+     */
+    default void write(StringBuilder out, Object value) {
+      if (value instanceof CharSequence) {
+        out.append((CharSequence) value);
+      } else {
+        out.append(value);
+      }
+    }
+  }
+
+  private static final String[] NO_KEYS = new String[0];
+
+  private final String source;
+  private final char[] chars;
+  /**
+   * start and end of each literal slice of chars; there is always one more literal than there are slots.
+   */
+  private final int[] literals;
+  /**
+   * start and end of the text of each slot, so an unresolved slot renders as it was written.
+   */
+  private final int[] slots;
+  private final String[][] paths;
+  private final String[] keys;
+
+  private CompiledTemplate(String source, int[] literals, int[] slots, String[][] paths) {
+    this.source = source;
+    this.chars = source.toCharArray();
+    this.literals = literals;
+    this.slots = slots;
+    this.paths = paths;
+    final ArrayList<String> unique = new ArrayList<>();
+    for (String[] path : paths) {
+      if (!unique.contains(path[0])) {
+        unique.add(path[0]);
+      }
+    }
+    this.keys = unique.isEmpty() ? NO_KEYS : unique.toArray(new String[unique.size()]);
+  }
+
+  public static CompiledTemplate compile(String template) {
+    final ArrayList<int[]> found = new ArrayList<>();
+    final ArrayList<String[]> paths = new ArrayList<>();
+    final int length = template.length();
+    int literalStart = 0;
+    int at = template.indexOf('$');
+    final ArrayList<int[]> literals = new ArrayList<>();
+    while (at != -1 && at < length - 1) {
+      final boolean braced = template.charAt(at + 1) == '{';
+      int end = scanPath(template, braced ? at + 2 : at + 1);
+      if (end == -1 || (braced && (end == length || template.charAt(end) != '}'))) {
+        // just a $, not a slot
+        at = template.indexOf('$', at + 1);
+        continue;
+      }
+      final String path = template.substring(braced ? at + 2 : at + 1, end);
+      if (braced) {
+        end++;
+      }
+      literals.add(new int[]{literalStart, at});
+      found.add(new int[]{at, end});
+      paths.add(path.split("[.]"));
+      literalStart = end;
+      at = template.indexOf('$', end);
+    }
+    literals.add(new int[]{literalStart, length});
+
+    final int[] literalArray = new int[literals.size() * 2];
+    for (int i = 0; i < literals.size(); i++) {
+      literalArray[i * 2] = literals.get(i)[0];
+      literalArray[i * 2 + 1] = literals.get(i)[1];
+    }
+    final int[] slotArray = new int[found.size() * 2];
+    for (int i = 0; i < found.size(); i++) {
+      slotArray[i * 2] = found.get(i)[0];
+      slotArray[i * 2 + 1] = found.get(i)[1];
+    }
+    return new CompiledTemplate(template, literalArray, slotArray, paths.toArray(new String[paths.size()][]));
+  }
+
+  /**
+   * @return The index after a dotted name starting at the given index,
+   * or -1 if there is no name there.
+   */
+  private static int scanPath(String template, int start) {
+    final int length = template.length();
+    if (start >= length || !isNameStart(template.charAt(start))) {
+      return -1;
+    }
+    int end = start + 1;
+    while (end < length) {
+      final char c = template.charAt(end);
+      if (isNameStart(c) || Character.isDigit(c)) {
+        end++;
+      } else if (c == '.' && end + 1 < length && isNameStart(template.charAt(end + 1))) {
+        // a trailing . (end of a sentence) is not part of the path
+        end += 2;
+      } else {
+        break;
+      }
+    }
+    return end;
+  }
+
+  private static boolean isNameStart(char c) {
+    // no Character.isJavaIdentifierStart in gwt; and $ must never be part of a name
+    return c == '_' || Character.isLetter(c);
+  }
+
+  /**
+   * Renders this template into the supplied buffer; reuse one buffer across renders to avoid all garbage
+   * other than the toString() of any non-CharSequence values.
+   */
+  public StringBuilder render(StringBuilder out, Resolver resolver) {
+    final int slotCount = paths.length;
+    for (int i = 0; i < slotCount; i++) {
+      final int start = literals[i * 2];
+      out.append(chars, start, literals[i * 2 + 1] - start);
+      final Object value = resolve(paths[i], resolver);
+      if (value == null) {
+        final int slot = slots[i * 2];
+        out.append(chars, slot, slots[i * 2 + 1] - slot);
+      } else {
+        resolver.write(out, value);
+      }
+    }
+    final int start = literals[slotCount * 2];
+    out.append(chars, start, literals[slotCount * 2 + 1] - start);
+    return out;
+  }
+
+  /**
+   * Appends text with the characters that are special in html (and in quoted attributes) escaped.
+   */
+  public static StringBuilder appendHtml(StringBuilder out, CharSequence text) {
+    final int length = text.length();
+    for (int i = 0; i < length; i++) {
+      final char c = text.charAt(i);
+      switch (c) {
+        case '&':
+          out.append("&amp;");
+          break;
+        case '<':
+          out.append("&lt;");
+          break;
+        case '>':
+          out.append("&gt;");
+          break;
+        case '"':
+          out.append("&quot;");
+          break;
+        case '\'':
+          out.append("&#39;");
+          break;
+        default:
+          out.append(c);
+      }
+    }
+    return out;
+  }
+
+  public String apply(Resolver resolver) {
+    if (paths.length == 0) {
+      return source;
+    }
+    return render(new StringBuilder(chars.length + 16 * paths.length), resolver).toString();
+  }
+
+  private static Object resolve(String[] path, Resolver resolver) {
+    Object value = resolver.resolve(path[0]);
+    for (int i = 1; value != null && i < path.length; i++) {
+      value = resolver.resolve(value, path[i]);
+    }
+    return value;
+  }
+
+  /**
+   * @return true if there is anything to replace in this template.
+   */
+  public boolean hasSlots() {
+    return paths.length > 0;
+  }
+
+  /**
+   * @return The distinct top level keys of this template (user, for $user.name), in the order they appear.
+   */
+  public String[] getKeys() {
+    return keys.clone();
+  }
+
+  public String getSource() {
+    return source;
+  }
+
+  @Override
+  public String toString() {
+    return source;
+  }
+}
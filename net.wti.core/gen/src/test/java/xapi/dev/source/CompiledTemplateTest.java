@@ -0,0 +1,159 @@
+package xapi.dev.source;
+
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Test;
+import xapi.constants.X_Namespace;
+import xapi.fu.log.Log;
+import xapi.source.write.CompiledTemplate;
+import xapi.source.write.CompiledTemplate.Resolver;
+import xapi.source.write.Template;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.HashMap;
+import java.util.Map;
+
+public class CompiledTemplateTest {
+
+  private static Resolver resolver(Map<String, Object> values) {
+    return values::get;
+  }
+
+  private static Map<String, Object> user(String name, String id) {
+    final Map<String, Object> user = new HashMap<>();
+    user.put("name", name);
+    user.put("id", id);
+    return user;
+  }
+
+  @Test
+  public void testSimpleKeys() {
+    final Map<String, Object> values = new HashMap<>();
+    values.put("greeting", "Hello");
+    values.put("count", 3);
+    final CompiledTemplate template = CompiledTemplate.compile("$greeting, you have $count messages");
+    Assert.assertEquals("Hello, you have 3 messages", template.apply(resolver(values)));
+    Assert.assertArrayEquals(new String[]{"greeting", "count"}, template.getKeys());
+  }
+
+  @Test
+  public void testNestedPaths() {
+    final Map<String, Object> values = new HashMap<>();
+    values.put("user", user("World", "42"));
+    final CompiledTemplate template = CompiledTemplate.compile("Hello, $user.name (${user.id})!");
+    Assert.assertEquals("Hello, World (42)!", template.apply(resolver(values)));
+    Assert.assertArrayEquals(new String[]{"user"}, template.getKeys());
+  }
+
+  @Test
+  public void testTrailingDotIsNotPartOfThePath() {
+    final Map<String, Object> values = new HashMap<>();
+    values.put("user", user("World", "42"));
+    Assert.assertEquals("Bye, World.", CompiledTemplate.compile("Bye, $user.name.").apply(resolver(values)));
+  }
+
+  @Test
+  public void testUnresolvedSlotsAreLeftAlone() {
+    final Map<String, Object> values = new HashMap<>();
+    values.put("user", user("World", "42"));
+    final String source = "$missing $user.missing $ $$ $1 ${unclosed $('.jquery') cost: 5$";
+    Assert.assertEquals(source, CompiledTemplate.compile(source).apply(resolver(values)));
+    Assert.assertFalse(CompiledTemplate.compile("no slots, $5").hasSlots());
+  }
+
+  @Test
+  public void testResolverCanEscapeValues() {
+    final Map<String, Object> values = new HashMap<>();
+    values.put("user", user("<script>alert('x')</script>", "\"&\""));
+    final Resolver html = new Resolver() {
+      @Override
+      public Object resolve(String key) {
+        return values.get(key);
+      }
+
+      @Override
+      public void write(StringBuilder out, Object value) {
+        CompiledTemplate.appendHtml(out, String.valueOf(value));
+      }
+    };
+    Assert.assertEquals("<b>&lt;script&gt;alert(&#39;x&#39;)&lt;/script&gt;</b> <i id=\"&quot;&amp;&quot;\"></i> $missing",
+        CompiledTemplate.compile("<b>$user.name</b> <i id=\"$user.id\"></i> $missing").apply(html));
+  }
+
+  @Test
+  public void testRenderIntoReusedBuffer() {
+    final Map<String, Object> values = new HashMap<>();
+    values.put("a", "1");
+    final CompiledTemplate template = CompiledTemplate.compile("<$a>");
+    final StringBuilder out = new StringBuilder();
+    template.render(out, resolver(values));
+    values.put("a", "2");
+    template.render(out, resolver(values));
+    Assert.assertEquals("<1><2>", out.toString());
+  }
+
+  @Test
+  public void benchmarkRendering() {
+    Assume.assumeTrue("Run with -D" + X_Namespace.PROPERTY_BENCHMARK + "=true", Boolean.getBoolean(X_Namespace.PROPERTY_BENCHMARK));
+    final String source = "<html><head><link href=\"$static/app.css\"/></head>" +
+        "<body data-user=\"$user.id\"><h1>Welcome back, $user.name</h1>" +
+        "<script src=\"$static/app.nocache.js\"></script><script>window.api='$api';</script></body></html>";
+    final Map<String, Object> values = new HashMap<>();
+    values.put("static", "/static/v123");
+    values.put("api", "/api/v1");
+    values.put("user", user("James", "1234"));
+    final Resolver resolver = resolver(values);
+    final Object[] positional = {"/static/v123", "/api/v1", "James", "1234"};
+    final String[] keys = {"$static", "$api", "$user.name", "$user.id"};
+
+    final CompiledTemplate compiled = CompiledTemplate.compile(source);
+    final String expected = new Template(source, keys).apply(positional);
+    Assert.assertEquals(expected, compiled.apply(resolver));
+
+    final int renders = 200_000;
+    final StringBuilder out = new StringBuilder();
+    int size = 0;
+    for (int warm = 0; warm < 3; warm++) {
+      for (int i = 0; i < renders / 10; i++) {
+        size += new Template(source, keys).apply(positional).length();
+        out.setLength(0);
+        size += compiled.render(out, resolver).length();
+      }
+    }
+
+    // what a server did before: build a template per request, then apply it
+    long bytes = allocated();
+    long start = System.nanoTime();
+    for (int i = 0; i < renders; i++) {
+      size += new Template(source, keys).apply(positional).length();
+    }
+    final long templateNanos = System.nanoTime() - start;
+    final long templateBytes = allocated() - bytes;
+
+    bytes = allocated();
+    start = System.nanoTime();
+    for (int i = 0; i < renders; i++) {
+      out.setLength(0);
+      size += compiled.render(out, resolver).length();
+    }
+    final long compiledNanos = System.nanoTime() - start;
+    final long compiledBytes = allocated() - bytes;
+
+    Log.tryLog(CompiledTemplateTest.class, this, "Rendered " + renders + " times; Template: " + templateNanos / renders + "ns and "
+        + templateBytes / renders + " bytes per render, CompiledTemplate: " + compiledNanos / renders + "ns and "
+        + compiledBytes / renders + " bytes per render (" + size + ")");
+    Assert.assertTrue("Compiled template slower than Template", compiledNanos < templateNanos);
+    if (templateBytes > 0) {
+      Assert.assertTrue("Compiled template made more garbage than Template", compiledBytes * 10 < templateBytes);
+    }
+  }
+
+  private static long allocated() {
+    final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    if (threads instanceof com.sun.management.ThreadMXBean) {
+      return ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+    return 0;
+  }
+}
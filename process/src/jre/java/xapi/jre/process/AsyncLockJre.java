@@ -0,0 +1,335 @@
+package xapi.jre.process;
+
+import xapi.fu.In1;
+import xapi.log.X_Log;
+import xapi.process.api.AsyncCondition;
+import xapi.process.api.AsyncLock;
+import xapi.time.X_Time;
+import xapi.util.api.ErrorHandler;
+import xapi.util.api.Pair;
+import xapi.util.api.RemovalHandler;
+import xapi.util.api.SuccessHandler;
+import xapi.util.impl.PairBuilder;
+
+import java.util.Queue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * An {@link AsyncLock} which never blocks a thread.
+ * <p>
+ * When the lock is free, {@link #lock(SuccessHandler)} calls back right away, on the caller's thread;
+ * otherwise the callback waits in a lock-free queue, and when the lock is released, the next callback in the queue
+ * is run on the scheduler (by default, {@link X_Time#runLater(Runnable)}), holding the lock.
+ * Whoever holds the lock must call {@link #unlock()} when done, from any thread; the lock is not owned by a thread,
+ * and is not reentrant.
+ * <p>
+ * A fair lock hands itself straight to the longest waiting callback, and {@link #tryLock()} fails while anyone waits;
+ * an unfair lock is released, and the next waiter scheduled to compete for it, so tryLock, or a new lock() call,
+ * can take it ahead of the queue; the lock is not left idle while the scheduler gets around to the waiter,
+ * which gives more throughput under contention, at the risk of leaving a waiter queued for longer.
+ */
+public class AsyncLockJre implements AsyncLock {
+
+  private static final class Deadlines {
+    // one daemon thread checks the deadlines of every condition
+    private static final ScheduledThreadPoolExecutor EXECUTOR = new ScheduledThreadPoolExecutor(1, task -> {
+      final Thread thread = new Thread(task, "xapi-async-lock-deadlines");
+      thread.setDaemon(true);
+      return thread;
+    });
+    static {
+      EXECUTOR.setRemoveOnCancelPolicy(true);
+    }
+  }
+
+  private final boolean fair;
+  private final In1<Runnable> scheduler;
+  private static final int FREE = 0;
+  private static final int HELD = 1;
+  /** Being passed to the next waiter (or released); nobody may unlock it until that waiter runs. */
+  private static final int HANDING_OFF = 2;
+
+  private final AtomicInteger state = new AtomicInteger(FREE);
+  private final AtomicBoolean waking = new AtomicBoolean();
+  private final Queue<Waiter> waiters = new ConcurrentLinkedQueue<>();
+
+  public AsyncLockJre() {
+    this(true);
+  }
+
+  public AsyncLockJre(boolean fair) {
+    this(fair, X_Time::runLater);
+  }
+
+  public AsyncLockJre(boolean fair, In1<Runnable> scheduler) {
+    this.fair = fair;
+    this.scheduler = scheduler;
+  }
+
+  public boolean isFair() {
+    return fair;
+  }
+
+  public boolean isLocked() {
+    return state.get() != FREE;
+  }
+
+  public boolean hasWaiters() {
+    return !waiters.isEmpty();
+  }
+
+  @Override
+  public AsyncCondition newCondition() {
+    return new ConditionJre();
+  }
+
+  @Override
+  public boolean tryLock() {
+    return (!fair || waiters.isEmpty()) && state.compareAndSet(FREE, HELD);
+  }
+
+  @Override
+  public RemovalHandler lock(SuccessHandler<AsyncLock> onLocked) {
+    if (tryLock()) {
+      call(onLocked);
+      return RemovalHandler.DoNothing;
+    }
+    final Waiter waiter = new Waiter(onLocked);
+    waiters.add(waiter);
+    // the holder may have released the lock before it could see us in the queue
+    if (state.compareAndSet(FREE, HANDING_OFF)) {
+      resumeNext();
+    }
+    return waiter;
+  }
+
+  @Override
+  public void unlock() {
+    // release with a CAS, so of two racing unlocks, only one can hand the lock on;
+    // a fair lock is never free while it passes to the next waiter, so the other unlock fails until that waiter runs
+    if (!state.compareAndSet(HELD, fair ? HANDING_OFF : FREE)) {
+      throw new IllegalMonitorStateException("AsyncLock is not locked");
+    }
+    if (fair) {
+      resumeNext();
+    } else {
+      wakeLater();
+    }
+  }
+
+  /**
+   * Unfair locks do not hold the lock for the next waiter while it is scheduled;
+   * the waiter competes for it when it runs, and anyone else may take it in the meantime.
+   */
+  private void wakeLater() {
+    while (!waiters.isEmpty() && waking.compareAndSet(false, true)) {
+      try {
+        scheduler.in(this::wake);
+        return;
+      } catch (RuntimeException e) {
+        // the scheduler refused us (X_Time may be saturated); nobody else will wake the queue,
+        // so fail the next waiter, rather than leave it stranded, and try again for the rest
+        waking.set(false);
+        Waiter next;
+        while ((next = waiters.poll()) != null) {
+          if (next.claim()) {
+            fail(next.onLocked, e);
+            break;
+          }
+        }
+      }
+    }
+  }
+
+  private void wake() {
+    waking.set(false);
+    if (waiters.isEmpty() || !state.compareAndSet(FREE, HELD)) {
+      // whoever holds the lock will wake the next waiter when they unlock
+      return;
+    }
+    Waiter next;
+    while ((next = waiters.poll()) != null) {
+      if (next.claim()) {
+        next.run();
+        return;
+      }
+    }
+    state.set(FREE);
+    wakeLater();
+  }
+
+  /**
+   * Called while {@link #HANDING_OFF}: hand the lock to the next live waiter, or release it.
+   */
+  private void resumeNext() {
+    for (;;) {
+      Waiter next;
+      while ((next = waiters.poll()) != null) {
+        if (next.claim()) {
+          try {
+            scheduler.in(next::resume);
+            return;
+          } catch (RuntimeException e) {
+            // the scheduler refused the waiter (X_Time may be saturated); we still hold the lock,
+            // so fail this waiter and pass the lock to the next one, instead of leaving it handing off forever
+            fail(next.onLocked, e);
+          }
+        }
+      }
+      state.set(FREE);
+      // someone may have queued after our last poll, but before we released; if so, take the lock back for them
+      if (waiters.isEmpty() || !state.compareAndSet(FREE, HANDING_OFF)) {
+        return;
+      }
+    }
+  }
+
+  private void call(SuccessHandler<AsyncLock> onLocked) {
+    try {
+      onLocked.onSuccess(this);
+    } catch (Throwable e) {
+      fail(onLocked, e);
+    }
+  }
+
+  @SuppressWarnings({"unchecked", "rawtypes"})
+  private static void fail(Object handler, Throwable e) {
+    if (handler instanceof ErrorHandler) {
+      try {
+        ((ErrorHandler) handler).onError(e);
+      } catch (Throwable ignored) {}
+    } else if (!(e instanceof CancellationException)) {
+      X_Log.warn(AsyncLockJre.class, "Error occurred while performing lock callback on", handler, e);
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "AsyncLockJre{" + (isLocked() ? "locked" : "unlocked") + (fair ? ", fair" : "") + '}';
+  }
+
+  /**
+   * A queued lock() call; whoever claims it first, between the lock and {@link #remove()}, decides its fate.
+   */
+  private final class Waiter extends AtomicBoolean implements Runnable, RemovalHandler {
+
+    private final SuccessHandler<AsyncLock> onLocked;
+
+    private Waiter(SuccessHandler<AsyncLock> onLocked) {
+      this.onLocked = onLocked;
+    }
+
+    private boolean claim() {
+      return compareAndSet(false, true);
+    }
+
+    @Override
+    public void run() {
+      call(onLocked);
+    }
+
+    private void resume() {
+      state.set(HELD);
+      run();
+    }
+
+    @Override
+    public void remove() {
+      if (claim()) {
+        waiters.remove(this);
+        fail(onLocked, new CancellationException("Lock request cancelled"));
+      }
+    }
+  }
+
+  /**
+   * Callbacks wait here until signalled; a signalled callback then waits for the lock, and runs holding it.
+   * Awaiting does not release the lock; whoever holds it unlocks as usual.
+   */
+  private final class ConditionJre implements AsyncCondition {
+
+    private final Queue<Awaiting> awaiting = new ConcurrentLinkedQueue<>();
+
+    @Override
+    public RemovalHandler await(SuccessHandler<Pair<AsyncLock, AsyncCondition>> onAcquire) {
+      final Awaiting waiter = new Awaiting(onAcquire);
+      awaiting.add(waiter);
+      return waiter;
+    }
+
+    @Override
+    public RemovalHandler awaitWithDeadline(SuccessHandler<Pair<AsyncLock, AsyncCondition>> onAcquire, float millisToWait) {
+      final Awaiting waiter = new Awaiting(onAcquire);
+      awaiting.add(waiter);
+      waiter.deadline = Deadlines.EXECUTOR.schedule(() -> {
+        if (waiter.claim()) {
+          awaiting.remove(waiter);
+          scheduler.in(() -> fail(onAcquire, new TimeoutException("Not signalled within " + millisToWait + "ms")));
+        }
+      }, (long) (millisToWait * 1000), TimeUnit.MICROSECONDS);
+      return waiter;
+    }
+
+    @Override
+    public boolean signal() {
+      Awaiting next;
+      while ((next = awaiting.poll()) != null) {
+        if (next.claim()) {
+          if (next.deadline != null) {
+            next.deadline.cancel(false);
+          }
+          final SuccessHandler<Pair<AsyncLock, AsyncCondition>> onAcquire = next.onAcquire;
+          lock(new SuccessHandler<AsyncLock>() {
+            @Override
+            public void onSuccess(AsyncLock lock) {
+              try {
+                onAcquire.onSuccess(PairBuilder.pairOf(lock, ConditionJre.this));
+              } catch (Throwable e) {
+                fail(onAcquire, e);
+              }
+            }
+
+            @Override
+            public String toString() {
+              return String.valueOf(onAcquire);
+            }
+          });
+          return true;
+        }
+      }
+      return false;
+    }
+
+    private final class Awaiting extends AtomicBoolean implements RemovalHandler {
+
+      private final SuccessHandler<Pair<AsyncLock, AsyncCondition>> onAcquire;
+      private volatile ScheduledFuture<?> deadline;
+
+      private Awaiting(SuccessHandler<Pair<AsyncLock, AsyncCondition>> onAcquire) {
+        this.onAcquire = onAcquire;
+      }
+
+      private boolean claim() {
+        return compareAndSet(false, true);
+      }
+
+      @Override
+      public void remove() {
+        if (claim()) {
+          if (deadline != null) {
+            deadline.cancel(false);
+          }
+          awaiting.remove(this);
+          fail(onAcquire, new CancellationException("Await cancelled"));
+        }
+      }
+    }
+  }
+}
@@ -1,13 +1,11 @@
 package xapi.jre.process;
 
 import xapi.annotation.inject.SingletonDefault;
-import xapi.except.NotYetImplemented;
 import xapi.fu.Do;
 import xapi.fu.Lazy;
 import xapi.fu.Mutable;
 import xapi.log.X_Log;
 import xapi.platform.JrePlatform;
-import xapi.process.api.AsyncCondition;
 import xapi.process.api.AsyncLock;
 import xapi.process.api.ConcurrentEnvironment;
 import xapi.process.impl.ConcurrencyServiceAbstract;
@@ -15,15 +13,11 @@ import xapi.process.service.ConcurrencyService;
 import xapi.scope.X_Scope;
 import xapi.scope.api.Scope;
 import xapi.constants.X_Namespace;
-import xapi.util.api.ErrorHandler;
-import xapi.util.api.RemovalHandler;
-import xapi.util.api.SuccessHandler;
 
 import java.lang.Thread.UncaughtExceptionHandler;
 import java.util.Queue;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.locks.LockSupport;
-import java.util.concurrent.locks.ReentrantLock;
 
 import static xapi.fu.Lazy.deferred1;
 
@@ -176,51 +170,12 @@ public class ConcurrencyServiceJre extends ConcurrencyServiceAbstract{
 
   @Override
   public AsyncLock newLock() {
-    return new LockWrapper();
+    return newLock(true);
   }
 
-}
-
-class LockWrapper implements AsyncLock {
-
-  private final ReentrantLock lock = new ReentrantLock();
-
   @Override
-  public AsyncCondition newCondition() {
-    throw new NotYetImplemented("AsyncCondition not yet implemented");
+  public AsyncLock newLock(boolean fair) {
+    return new AsyncLockJre(fair);
   }
 
-  @Override
-  public boolean tryLock() {
-    return lock.tryLock();
-  }
-
-  @SuppressWarnings({ "unchecked", "rawtypes" })
-  @Override
-  public RemovalHandler lock(SuccessHandler<AsyncLock> onLocked) {
-    // TODO actually push the callback onto a deferred stack,
-    // and return without blocking.
-    try {
-      lock.lock();
-      onLocked.onSuccess(this);
-    } catch (Throwable e){
-      if (onLocked instanceof ErrorHandler) {
-        try {
-          ((ErrorHandler)onLocked).onError(e);
-        } catch (Throwable ignored) {}
-      } else {
-        X_Log.warn("Error occured while performing lock callback on "+onLocked,
-          onLocked);
-      }
-    }
-    return RemovalHandler.DoNothing;
-  }
-
-  @Override
-  public void unlock() {
-    lock.unlock();
-  }
-
-
-
 }
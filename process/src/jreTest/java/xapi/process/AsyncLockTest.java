@@ -0,0 +1,338 @@
+package xapi.process;
+
+import org.junit.Assume;
+import org.junit.Test;
+import xapi.constants.X_Namespace;
+import xapi.jre.process.AsyncLockJre;
+import xapi.log.X_Log;
+import xapi.process.api.AsyncCondition;
+import xapi.process.api.AsyncLock;
+import xapi.util.api.ErrorHandler;
+import xapi.util.api.RemovalHandler;
+import xapi.util.api.SuccessHandler;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class AsyncLockTest {
+
+  private static final int THREADS = 4;
+  private static final int ITERATIONS = 100_000;
+
+  // runs resumed callbacks only when the test says so, so we can check the order of everything
+  private final ConcurrentLinkedQueue<Runnable> scheduled = new ConcurrentLinkedQueue<>();
+
+  private AsyncLockJre newLock(boolean fair) {
+    return new AsyncLockJre(fair, scheduled::add);
+  }
+
+  private void runScheduled() {
+    Runnable task;
+    while ((task = scheduled.poll()) != null) {
+      task.run();
+    }
+  }
+
+  @Test
+  public void testUncontendedLockCallsBackRightAway() {
+    final AsyncLockJre lock = newLock(true);
+    final List<String> calls = new ArrayList<>();
+    lock.lock(l -> {
+      calls.add("locked");
+      assertFalse(lock.tryLock());
+      l.unlock();
+    });
+    assertEquals("[locked]", calls.toString());
+    assertFalse(lock.isLocked());
+    assertTrue(scheduled.isEmpty());
+  }
+
+  @Test
+  public void testWaitersResumeInOrderOnTheScheduler() {
+    final AsyncLockJre lock = newLock(true);
+    final List<Integer> calls = new ArrayList<>();
+    assertTrue(lock.tryLock());
+    for (int i = 0; i < 3; i++) {
+      final int id = i;
+      lock.lock(l -> {
+        assertTrue(lock.isLocked());
+        calls.add(id);
+        l.unlock();
+      });
+    }
+    // nobody runs, and nothing blocks, until the holder unlocks
+    assertTrue(calls.isEmpty());
+    assertTrue(scheduled.isEmpty());
+    // a fair lock does not let tryLock jump the queue
+    assertFalse(lock.tryLock());
+
+    lock.unlock();
+    assertTrue("Lock is handed straight to the next waiter", lock.isLocked());
+    runScheduled();
+    assertEquals("[0, 1, 2]", calls.toString());
+    assertFalse(lock.isLocked());
+    assertFalse(lock.hasWaiters());
+  }
+
+  @Test
+  public void testUnfairLockCanBeTakenAheadOfTheQueue() {
+    final AsyncLockJre lock = newLock(false);
+    final List<String> calls = new ArrayList<>();
+    assertTrue(lock.tryLock());
+    lock.lock(l -> {
+      calls.add("waiter");
+      l.unlock();
+    });
+    lock.unlock();
+    // released, with the waiter scheduled to compete for it; in the meantime, anyone may take it
+    assertFalse(lock.isLocked());
+    lock.lock(l -> {
+      calls.add("barged");
+      l.unlock();
+    });
+    runScheduled();
+    assertEquals("[barged, waiter]", calls.toString());
+    assertFalse(lock.isLocked());
+    assertFalse(lock.hasWaiters());
+  }
+
+  @Test
+  public void testCancelledWaiterIsSkipped() {
+    final AsyncLockJre lock = newLock(true);
+    final AtomicReference<Throwable> error = new AtomicReference<>();
+    final List<String> calls = new ArrayList<>();
+    assertTrue(lock.tryLock());
+    final RemovalHandler cancel = lock.lock(SuccessHandler.handler(l -> calls.add("cancelled"), error::set));
+    lock.lock(l -> {
+      calls.add("kept");
+      l.unlock();
+    });
+    cancel.remove();
+    assertTrue(error.get() instanceof CancellationException);
+    lock.unlock();
+    runScheduled();
+    assertEquals("[kept]", calls.toString());
+    assertFalse(lock.isLocked());
+  }
+
+  @Test
+  public void testRejectedHandOffFailsTheWaiterAndFreesTheLock() {
+    for (boolean fair : new boolean[]{true, false}) {
+      final AsyncLockJre lock = new AsyncLockJre(fair, task -> {
+        throw new RejectedExecutionException("saturated");
+      });
+      final List<Throwable> errors = new ArrayList<>();
+      final List<String> calls = new ArrayList<>();
+      assertTrue(lock.tryLock());
+      lock.lock(SuccessHandler.handler(l -> calls.add("first"), errors::add));
+      lock.lock(SuccessHandler.handler(l -> calls.add("second"), errors::add));
+
+      lock.unlock();
+      assertTrue(calls.isEmpty());
+      assertEquals(2, errors.size());
+      assertTrue(errors.get(0) instanceof RejectedExecutionException);
+      assertTrue(errors.get(1) instanceof RejectedExecutionException);
+      assertFalse(lock.isLocked());
+      assertFalse(lock.hasWaiters());
+
+      // the lock still works once the scheduler is no longer needed
+      lock.lock(l -> {
+        calls.add("after");
+        l.unlock();
+      });
+      assertEquals("[after]", calls.toString());
+      assertFalse(lock.isLocked());
+    }
+  }
+
+  @Test(expected = IllegalMonitorStateException.class)
+  public void testUnlockWithoutLockFails() {
+    newLock(true).unlock();
+  }
+
+  @Test(timeout = 60_000)
+  public void testRacingUnlocksHandOffOnce() throws Exception {
+    for (boolean fair : new boolean[]{true, false}) {
+      for (int i = 0; i < 2_000; i++) {
+        scheduled.clear();
+        final AsyncLockJre lock = newLock(fair);
+        assertTrue(lock.tryLock());
+        final AtomicInteger resumed = new AtomicInteger();
+        lock.lock(l -> resumed.incrementAndGet());
+        lock.lock(l -> resumed.incrementAndGet());
+        final CyclicBarrier start = new CyclicBarrier(2);
+        final AtomicInteger failed = new AtomicInteger();
+        final Runnable unlock = () -> {
+          try {
+            start.await();
+            lock.unlock();
+          } catch (IllegalMonitorStateException e) {
+            failed.incrementAndGet();
+          } catch (Exception e) {
+            throw new AssertionError(e);
+          }
+        };
+        final Thread other = new Thread(unlock);
+        other.start();
+        unlock.run();
+        other.join();
+        // the unlock which lost the race must fail, rather than release the lock a second time
+        assertEquals(1, failed.get());
+        runScheduled();
+        assertEquals(1, resumed.get());
+        assertTrue(lock.isLocked());
+      }
+    }
+  }
+
+  @Test
+  public void testConditionRunsSignalledHandlersHoldingTheLock() {
+    final AsyncLockJre lock = newLock(true);
+    final AsyncCondition ready = lock.newCondition();
+    final List<String> calls = new ArrayList<>();
+    assertFalse(ready.signal());
+    for (int i = 0; i < 3; i++) {
+      final int id = i;
+      ready.await(pair -> {
+        assertTrue(lock.isLocked());
+        assertTrue(pair.get1() == ready);
+        calls.add("woke " + id);
+        pair.get0().unlock();
+      });
+    }
+    lock.lock(l -> {
+      calls.add("signalling");
+      assertTrue(ready.signal());
+      assertTrue(ready.signal());
+      // signalled handlers wait for us to unlock
+      assertTrue(calls.size() == 1);
+      l.unlock();
+    });
+    runScheduled();
+    assertEquals("[signalling, woke 0, woke 1]", calls.toString());
+    while (ready.signal()) {
+    }
+    assertEquals("[signalling, woke 0, woke 1, woke 2]", calls.toString());
+    assertFalse(lock.isLocked());
+  }
+
+  @Test(timeout = 10_000)
+  public void testConditionDeadline() throws InterruptedException {
+    final AsyncLockJre lock = new AsyncLockJre();
+    final AsyncCondition never = lock.newCondition();
+    final CountDownLatch timedOut = new CountDownLatch(1);
+    final AtomicReference<Throwable> error = new AtomicReference<>();
+    never.awaitWithDeadline(SuccessHandler.handler(pair -> fail("Should not be signalled"), (ErrorHandler<Throwable>) e -> {
+      error.set(e);
+      timedOut.countDown();
+    }), 20);
+    assertTrue(timedOut.await(5, TimeUnit.SECONDS));
+    assertTrue(error.get() instanceof TimeoutException);
+    assertFalse("A timed out handler is no longer waiting", never.signal());
+  }
+
+  @Test(timeout = 60_000)
+  public void testMutualExclusionUnderContention() throws InterruptedException {
+    for (boolean fair : new boolean[]{true, false}) {
+      final AsyncLockJre lock = new AsyncLockJre(fair);
+      final int[] count = {0};
+      final AtomicInteger inside = new AtomicInteger();
+      final AtomicInteger overlaps = new AtomicInteger();
+      final CountDownLatch done = new CountDownLatch(THREADS * ITERATIONS / 10);
+      final List<Thread> threads = new ArrayList<>();
+      for (int t = 0; t < THREADS; t++) {
+        threads.add(new Thread(() -> {
+          for (int i = 0; i < ITERATIONS / 10; i++) {
+            lock.lock(l -> {
+              if (inside.incrementAndGet() != 1) {
+                overlaps.incrementAndGet();
+              }
+              count[0]++;
+              inside.decrementAndGet();
+              l.unlock();
+              done.countDown();
+            });
+          }
+        }));
+      }
+      threads.forEach(Thread::start);
+      assertTrue("Lock requests were lost", done.await(30, TimeUnit.SECONDS));
+      assertEquals(0, overlaps.get());
+      lock.lock(l -> {
+        assertEquals(THREADS * ITERATIONS / 10, count[0]);
+        l.unlock();
+      });
+    }
+  }
+
+  @Test(timeout = 120_000)
+  public void benchmarkContendedLocking() throws InterruptedException {
+    Assume.assumeTrue("Run with -D" + X_Namespace.PROPERTY_BENCHMARK + "=true", Boolean.getBoolean(X_Namespace.PROPERTY_BENCHMARK));
+    run(new AsyncLockJre(true), THREADS);
+    run(new AsyncLockJre(false), THREADS);
+    runBlocking(THREADS);
+    final long fair = run(new AsyncLockJre(true), THREADS);
+    final long unfair = run(new AsyncLockJre(false), THREADS);
+    final long blocking = runBlocking(THREADS);
+    X_Log.info(AsyncLockTest.class, THREADS, "threads x", ITERATIONS, "locks\n",
+        "AsyncLockJre, fair:   ", fair / 1_000_000, "ms\n",
+        "AsyncLockJre, unfair: ", unfair / 1_000_000, "ms\n",
+        "ReentrantLock (parks):", blocking / 1_000_000, "ms");
+  }
+
+  private static long run(AsyncLock lock, int threads) throws InterruptedException {
+    final CountDownLatch done = new CountDownLatch(threads * ITERATIONS);
+    final int[] count = {0};
+    final long start = System.nanoTime();
+    for (int t = 0; t < threads; t++) {
+      new Thread(() -> {
+        for (int i = 0; i < ITERATIONS; i++) {
+          lock.lock(l -> {
+            count[0]++;
+            l.unlock();
+            done.countDown();
+          });
+        }
+      }).start();
+    }
+    assertTrue(done.await(60, TimeUnit.SECONDS));
+    return System.nanoTime() - start;
+  }
+
+  private static long runBlocking(int threads) throws InterruptedException {
+    final ReentrantLock lock = new ReentrantLock();
+    final CountDownLatch done = new CountDownLatch(threads * ITERATIONS);
+    final int[] count = {0};
+    final long start = System.nanoTime();
+    for (int t = 0; t < threads; t++) {
+      new Thread(() -> {
+        for (int i = 0; i < ITERATIONS; i++) {
+          lock.lock();
+          try {
+            count[0]++;
+          } finally {
+            lock.unlock();
+          }
+          done.countDown();
+        }
+      }).start();
+    }
+    assertTrue(done.await(60, TimeUnit.SECONDS));
+    return System.nanoTime() - start;
+  }
+}
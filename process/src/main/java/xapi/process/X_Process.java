@@ -111,6 +111,10 @@ public class X_Process {
     return service.out1().newLock();
   }
 
+  public static AsyncLock newLock(boolean fair) {
+    return service.out1().newLock(fair);
+  }
+
   public static <T> void runWhenReadyUnsafe(Lazy<T> io, In1Unsafe<T> callback) {
     runWhenReady(io, callback);
   }
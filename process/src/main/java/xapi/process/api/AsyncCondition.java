@@ -51,12 +51,10 @@ public interface AsyncCondition {
     , float millisToWait);
 
   /**
-   * Signals one waiting success handler, and returns true,
-   * -if the pool of waiting conditions was empty BEFORE calling onAcquire.onSuccess-
+   * Signals one waiting success handler, which is called once it holds the lock.
    *
-   * @return - True is the waiting pool on SuccessHandlers had, at most one item
-   * in it when signal() is called.  This can allow a flushing method to safely
-   * call while(signal()); to drain a condition.
+   * @return - True if a waiting handler was signalled, false if none were waiting.
+   * This can allow a flushing method to safely call while(signal()); to drain a condition.
    */
   boolean signal();
 }
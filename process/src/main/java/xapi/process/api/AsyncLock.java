@@ -7,19 +7,26 @@ import xapi.util.api.SuccessHandler;
 public interface AsyncLock {
 
   /**
-   * always throws {@link NotYetImplemented}.
+   * @return a condition whose signalled handlers run holding this lock;
+   * single-threaded environments throw {@link NotYetImplemented}.
    */
   AsyncCondition newCondition();
 
   /**
    * In a single-threaded environment, tryLock always returns true.
    *
-   * In a threadsafe environment, only returns true if the current thread
-   * owns the lock.
+   * In a threadsafe environment, only returns true if the lock was free,
+   * and is now held by the caller, who must {@link #unlock()} it.
    *
    */
   boolean tryLock();
 
+  /**
+   * Calls onLocked holding the lock; right away if it is free, otherwise once it is released,
+   * without blocking the calling thread.  onLocked must {@link #unlock()} when it is done.
+   *
+   * @return A removal handler to cancel the request, if it has not yet been called back.
+   */
   RemovalHandler lock(SuccessHandler<AsyncLock> onLocked);
 
   /**
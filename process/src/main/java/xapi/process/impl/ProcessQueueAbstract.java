@@ -1,9 +1,5 @@
 package xapi.process.impl;
 
-import xapi.process.X_Process;
-import xapi.process.api.AsyncLock;
-import xapi.util.api.SuccessHandler;
-
 import java.lang.reflect.Array;
 import java.util.AbstractQueue;
 import java.util.Iterator;
@@ -13,7 +9,6 @@ public abstract class ProcessQueueAbstract<T> extends AbstractQueue<T> {
 
   private final int size;
   private final T[] all;
-  private final AsyncLock lock;
   private int writeIndex;
   private int readIndex;
 
@@ -21,7 +16,6 @@ public abstract class ProcessQueueAbstract<T> extends AbstractQueue<T> {
     this.size = knownSize;
     Class<T> cls = typeClass();
     all = (T[]) Array.newInstance(cls, knownSize);
-    lock = X_Process.newLock();
   }
 
   /**
@@ -33,53 +27,26 @@ public abstract class ProcessQueueAbstract<T> extends AbstractQueue<T> {
    */
   protected abstract Class<T> typeClass();
 
+  /**
+   * Puts the element before returning, so it is visible to the next {@link #poll()} on any thread.
+   */
   @Override
-  public boolean offer(final T e) {
-    if (lock.tryLock()) {
-      // just do it
-      try {
-        doPut(e);
-      } finally {
-        lock.unlock();
-      }
-    } else {
-      lock.lock(
-          new SuccessHandler<AsyncLock>() {
-            @Override
-            public void onSuccess(AsyncLock t) {
-              try {
-                doPut(e);
-              } finally {
-                t.unlock();
-              }
-            }
-          }
-      );
-    }
-    return true;
-  }
-
-  private void doPut(T e) {
+  public synchronized boolean offer(final T e) {
     if (writeIndex < size) {
       all[writeIndex++] = e;
-    } else {
-
     }
-  }
-
-  void unlock() {
-    lock.unlock();
+    return true;
   }
 
   @Override
-  public T poll() {
+  public synchronized T poll() {
     if (readIndex == size)
       throw new NoSuchElementException();
     return all[readIndex++];
   }
 
   @Override
-  public T peek() {
+  public synchronized T peek() {
     return all[readIndex];
   }
 
@@ -89,7 +56,7 @@ public abstract class ProcessQueueAbstract<T> extends AbstractQueue<T> {
   }
 
   @Override
-  public int size() {
+  public synchronized int size() {
     return writeIndex - readIndex;
   }
 
@@ -206,6 +206,15 @@ public interface ConcurrencyService {
    */
   AsyncLock newLock();
 
+  /**
+   * @param fair - Whether queued lock requests must be served in order, or a new request may take
+   * a just-released lock ahead of them; single-threaded environments may ignore this.
+   * @return A lock suitable for the environment in which you are running.
+   */
+  default AsyncLock newLock(boolean fair) {
+    return newLock();
+  }
+
     boolean isInProcess();
 
     void runInClassloader(ClassLoader loader, Do cmd);
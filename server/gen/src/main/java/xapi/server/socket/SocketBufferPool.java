@@ -0,0 +1,76 @@
+package xapi.server.socket;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A pool of equally sized direct buffers, shared by every connection of a socket server.
+ * <p>
+ * Direct buffers are expensive to allocate and are only freed by the garbage collector,
+ * so connections borrow one while they have bytes to read or write, and give it back when they are done.
+ * At most {@link #getMaxPooled()} idle buffers are kept; buffers released beyond that are left for the collector.
+ */
+public class SocketBufferPool {
+
+    public static final int DEFAULT_BUFFER_SIZE = 16 * 1024;
+
+    private final ConcurrentLinkedQueue<ByteBuffer> idle = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger idleCount = new AtomicInteger();
+    private final AtomicInteger allocated = new AtomicInteger();
+    private final int bufferSize;
+    private final int maxPooled;
+
+    public SocketBufferPool() {
+        this(DEFAULT_BUFFER_SIZE, 1024);
+    }
+
+    public SocketBufferPool(int bufferSize, int maxPooled) {
+        this.bufferSize = bufferSize;
+        this.maxPooled = maxPooled;
+    }
+
+    /**
+     * @return a cleared buffer of {@link #getBufferSize()} bytes; give it back with {@link #release(ByteBuffer)}.
+     */
+    public ByteBuffer acquire() {
+        final ByteBuffer buffer = idle.poll();
+        if (buffer == null) {
+            allocated.incrementAndGet();
+            return ByteBuffer.allocateDirect(bufferSize);
+        }
+        idleCount.decrementAndGet();
+        return buffer;
+    }
+
+    /**
+     * Return a buffer to the pool; buffers which did not come from {@link #acquire()} are ignored.
+     * The caller must not touch the buffer again.
+     */
+    public void release(ByteBuffer buffer) {
+        if (buffer == null || !buffer.isDirect() || buffer.capacity() != bufferSize) {
+            return;
+        }
+        if (idleCount.incrementAndGet() > maxPooled) {
+            idleCount.decrementAndGet();
+            return;
+        }
+        buffer.clear();
+        idle.add(buffer);
+    }
+
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    public int getMaxPooled() {
+        return maxPooled;
+    }
+
+    /**
+     * @return how many buffers this pool has ever allocated; with pooling working, far fewer than messages sent.
+     */
+    public int getAllocated() {
+        return allocated.get();
+    }
+}
@@ -0,0 +1,125 @@
+package xapi.server.socket;
+
+import xapi.log.X_Log;
+
+import java.io.IOException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * One selector, and the one thread which drives it.
+ * <p>
+ * Every channel registered with a loop is only ever read, written and closed on that loop's thread;
+ * other threads hand it work with {@link #submit(Runnable)}. Nothing run on a loop may block.
+ */
+public class SocketEventLoop {
+
+    /**
+     * Something registered with a loop, which is told when its channel is ready.
+     */
+    public interface Selectable {
+
+        void selected(SelectionKey key) throws IOException;
+
+        /**
+         * Called on the loop thread when selected() throws, or when the loop shuts down.
+         */
+        void failed(Throwable e);
+    }
+
+    private final Selector selector;
+    private final Thread thread;
+    private final ConcurrentLinkedQueue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    private volatile boolean running = true;
+
+    public SocketEventLoop(String name) throws IOException {
+        selector = Selector.open();
+        thread = new Thread(this::loop, name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Run a task on this loop's thread; from the loop thread itself, the task runs after the current select.
+     */
+    public void submit(Runnable task) {
+        tasks.add(task);
+        selector.wakeup();
+    }
+
+    /**
+     * Register a channel with this loop; the channel will be put in non-blocking mode.
+     * Must be called on the loop thread (see {@link #submit(Runnable)}).
+     */
+    public SelectionKey register(SelectableChannel channel, int ops, Selectable attachment) throws IOException {
+        assert inLoop() : "Must register channels from the loop thread";
+        channel.configureBlocking(false);
+        return channel.register(selector, ops, attachment);
+    }
+
+    public boolean inLoop() {
+        return Thread.currentThread() == thread;
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * Stop selecting, and fail everything still registered with this loop.
+     */
+    public void shutdown() {
+        running = false;
+        selector.wakeup();
+    }
+
+    private void loop() {
+        try {
+            while (running) {
+                selector.select(1000);
+                Runnable task;
+                while ((task = tasks.poll()) != null) {
+                    try {
+                        task.run();
+                    } catch (Throwable t) {
+                        X_Log.error(SocketEventLoop.class, "Socket task failed", t);
+                    }
+                }
+                final Iterator<SelectionKey> selected = selector.selectedKeys().iterator();
+                while (selected.hasNext()) {
+                    final SelectionKey key = selected.next();
+                    selected.remove();
+                    final Selectable target = (Selectable) key.attachment();
+                    try {
+                        if (key.isValid()) {
+                            target.selected(key);
+                        }
+                    } catch (IOException | RuntimeException e) {
+                        target.failed(e);
+                    }
+                }
+            }
+        } catch (IOException | ClosedSelectorException e) {
+            X_Log.error(SocketEventLoop.class, "Socket selector failed", e);
+        } finally {
+            closeAll();
+        }
+    }
+
+    private void closeAll() {
+        final IOException closed = new IOException("Socket loop shut down");
+        for (SelectionKey key : new ArrayList<>(selector.keys())) {
+            ((Selectable) key.attachment()).failed(closed);
+        }
+        try {
+            selector.close();
+        } catch (IOException ignored) {
+        }
+        tasks.clear();
+    }
+}
@@ -1,25 +1,245 @@
 package xapi.server.socket;
 
-import xapi.fu.itr.Chain;
-import xapi.fu.In1.In1Unsafe;
+import xapi.constants.X_Namespace;
 import xapi.fu.In1Out1;
-import xapi.fu.Lazy;
+import xapi.model.tools.ClusteringStringPool;
+import xapi.prop.X_Properties;
 
+import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
 
 /**
- * Created by James X. Nelson (james @wetheinter.net) on 10/16/16.
+ * The state of one socket connection: bytes read but not yet handled, frames waiting to be written,
+ * and the strings pooled with the other end of the connection.
+ * <p>
+ * Every message is one frame:
+ * <pre>
+ * [int length of the rest of the frame] [int correlation id] [byte op] [utf-8 body]
+ * </pre>
+ * A reply carries the id of its request, so a connection may have any number of requests in flight,
+ * and their replies may arrive in any order.
+ * <p>
+ * Both directions use buffers from a shared {@link SocketBufferPool}; a connection with nothing to read or write
+ * holds no buffers at all. Frames larger than a pooled buffer are read into a buffer of their own,
+ * which doubles in size only as the frame's bytes actually arrive, and written across as many pooled buffers
+ * as they need. A frame claiming to be larger than {@link X_Namespace#PROPERTY_SERVER_SOCKET_MAX_FRAME}
+ * fails the connection.
+ * <p>
+ * Bodies that use the string pool must be written in the order they were encoded;
+ * {@link #send(int, byte, In1Out1)} encodes and queues each frame under one lock, so they always are.
  */
 public class SocketMessageQueue {
 
-    private final Lazy<ByteBuffer> buffer = Lazy.deferred1(()->ByteBuffer.allocate(1024));
+    /**
+     * Receives each complete frame, in the order they arrived.
+     */
+    public interface FrameHandler {
+        void onFrame(int id, byte op, String body) throws IOException;
+    }
+
+    /** A model, which the server sends straight back. */
+    public static final byte OP_ECHO = 1;
+    /** A model to persist; the reply is the persisted model. */
+    public static final byte OP_PERSIST = 2;
+    /** A model class and key; the reply is the model, or none. */
+    public static final byte OP_LOAD = 3;
+    /** A model class (or none, for any type) and query; the reply is the query result. */
+    public static final byte OP_QUERY = 4;
+    /** A key; the reply is whether anything was deleted. */
+    public static final byte OP_DELETE = 5;
+    /** A successful reply, whose body depends on the op of the request. */
+    public static final byte OP_REPLY = 16;
+    /** A failed request; the body is the error message (without any pooled strings). */
+    public static final byte OP_ERROR = 17;
+
+    /** The bytes before the body, other than the length itself: the id, and the op. */
+    public static final int HEADER_SIZE = 5;
+    /** Frames claiming to be larger than this (by default) are a corrupt stream, not a message. */
+    public static final int DEFAULT_MAX_FRAME_SIZE = 4 * 1024 * 1024;
+
+    private final SocketBufferPool buffers;
+    private final int maxFrameSize;
+    private final ClusteringStringPool pool = new ClusteringStringPool();
+
+    // only touched by the thread that reads this connection
+    private ByteBuffer in;
 
-    private Chain<ByteBuffer> buffers;
-    private In1Out1<ByteBuffer, Boolean> listener;
+    // guarded by this
+    private final ArrayDeque<ByteBuffer> out = new ArrayDeque<>();
+    private long queued;
+    private boolean closed;
 
-    public void useBuffer(In1Unsafe<ByteBuffer> callback) {
-        synchronized (buffer) {
-            callback.in(buffer.out1());
+    public SocketMessageQueue(SocketBufferPool buffers) {
+        this(buffers, Integer.parseInt(X_Properties.getProperty(X_Namespace.PROPERTY_SERVER_SOCKET_MAX_FRAME,
+            Integer.toString(DEFAULT_MAX_FRAME_SIZE))));
+    }
+
+    public SocketMessageQueue(SocketBufferPool buffers, int maxFrameSize) {
+        this.buffers = buffers;
+        this.maxFrameSize = Math.max(HEADER_SIZE, maxFrameSize);
+    }
+
+    public int getMaxFrameSize() {
+        return maxFrameSize;
+    }
+
+    public ClusteringStringPool getPool() {
+        return pool;
+    }
+
+    /**
+     * Read whatever the channel has for us; call {@link #drainFrames(FrameHandler)} after each read.
+     *
+     * @return the number of bytes read; -1 at the end of the stream.
+     */
+    public int read(ReadableByteChannel channel) throws IOException {
+        if (in == null) {
+            in = buffers.acquire();
+        }
+        return channel.read(in);
+    }
+
+    /**
+     * Sends each complete frame we have read to the handler, and keeps any partial frame for the next read.
+     */
+    public void drainFrames(FrameHandler handler) throws IOException {
+        if (in == null) {
+            return;
+        }
+        in.flip();
+        while (in.remaining() >= 4) {
+            final int length = in.getInt(in.position());
+            if (length < HEADER_SIZE || length > maxFrameSize) {
+                throw new IOException("Corrupt frame of length " + length);
+            }
+            if (in.remaining() < 4 + length) {
+                break;
+            }
+            in.getInt();
+            final int id = in.getInt();
+            final byte op = in.get();
+            final byte[] body = new byte[length - HEADER_SIZE];
+            in.get(body);
+            handler.onFrame(id, op, new String(body, StandardCharsets.UTF_8));
+        }
+        if (!in.hasRemaining()) {
+            // nothing partial; give the buffer back, and take a pooled one for the next read
+            buffers.release(in);
+            in = null;
+            return;
+        }
+        in.compact();
+        if (!in.hasRemaining()) {
+            // the pending frame is bigger than our buffer, and has filled it; read the rest into one of its own.
+            // only grow as bytes arrive, so a peer can't make us reserve a whole frame by just claiming its length
+            final int needed = 4 + in.getInt(0);
+            final ByteBuffer bigger = ByteBuffer.allocate((int) Math.min(needed, 2L * in.capacity()));
+            in.flip();
+            bigger.put(in);
+            buffers.release(in);
+            in = bigger;
+        }
+    }
+
+    /**
+     * @return the capacity of the buffer holding any partial frame; 0 if there is none.
+     */
+    public int getReadCapacity() {
+        return in == null ? 0 : in.capacity();
+    }
+
+    /**
+     * Encode a body with our string pool, and queue it as one frame; the encoder is called under our lock,
+     * so bodies are queued in exactly the order their strings were pooled.
+     *
+     * @return the number of bytes now waiting to be written.
+     */
+    public synchronized long send(int id, byte op, In1Out1<ClusteringStringPool, String> encoder) {
+        return enqueue(id, op, encoder.io(pool));
+    }
+
+    /**
+     * Queue a frame whose body does not use our string pool.
+     *
+     * @return the number of bytes now waiting to be written.
+     */
+    public synchronized long enqueue(int id, byte op, CharSequence body) {
+        if (closed) {
+            // a reply which finished after its connection closed has nowhere to go
+            return 0;
+        }
+        final byte[] bytes = body.toString().getBytes(StandardCharsets.UTF_8);
+        ByteBuffer tail = out.peekLast();
+        if (tail == null || tail.remaining() < 4 + HEADER_SIZE) {
+            tail = buffers.acquire();
+            out.addLast(tail);
+        }
+        tail.putInt(HEADER_SIZE + bytes.length);
+        tail.putInt(id);
+        tail.put(op);
+        int written = 0;
+        while (written < bytes.length) {
+            if (!tail.hasRemaining()) {
+                tail = buffers.acquire();
+                out.addLast(tail);
+            }
+            final int chunk = Math.min(tail.remaining(), bytes.length - written);
+            tail.put(bytes, written, chunk);
+            written += chunk;
+        }
+        queued += 4 + HEADER_SIZE + bytes.length;
+        return queued;
+    }
+
+    /**
+     * Write as much of our queue as the channel will take.
+     *
+     * @return true if everything queued has been written.
+     */
+    public synchronized boolean flush(WritableByteChannel channel) throws IOException {
+        ByteBuffer head;
+        while ((head = out.peekFirst()) != null) {
+            head.flip();
+            try {
+                channel.write(head);
+            } finally {
+                queued -= head.position();
+                head.compact();
+            }
+            if (head.position() > 0) {
+                // the channel is full; the rest waits for the next flush
+                return false;
+            }
+            out.pollFirst();
+            buffers.release(head);
+        }
+        return true;
+    }
+
+    /**
+     * @return the number of bytes queued, but not yet written.
+     */
+    public synchronized long getQueuedBytes() {
+        return queued;
+    }
+
+    /**
+     * Give every buffer back to the pool; call once the connection is closed.
+     */
+    public synchronized void close() {
+        closed = true;
+        for (ByteBuffer buffer : out) {
+            buffers.release(buffer);
+        }
+        out.clear();
+        queued = 0;
+        if (in != null) {
+            buffers.release(in);
+            in = null;
         }
     }
 }
@@ -0,0 +1,89 @@
+package xapi.server.socket;
+
+import xapi.dev.source.CharBuffer;
+import xapi.model.api.Model;
+import xapi.model.api.ModelQueryResult;
+import xapi.model.api.PrimitiveSerializer;
+import xapi.model.impl.AbstractModelService;
+import xapi.model.service.ModelService;
+import xapi.model.tools.ClusteringPrimitiveDeserializer;
+import xapi.model.tools.ClusteringPrimitiveSerializer;
+import xapi.model.tools.ClusteringStringPool;
+import xapi.source.lex.CharIterator;
+
+/**
+ * Reads and writes the bodies of {@link SocketMessageQueue} frames, for both ends of a connection.
+ * <p>
+ * Each body is one message of the connection's {@link ClusteringStringPool}, so type names, keys
+ * and property names are only sent in full the first time a connection uses them.
+ */
+public class SocketModelCodec {
+
+    private final ModelService modelService;
+
+    public SocketModelCodec(ModelService modelService) {
+        this.modelService = modelService;
+    }
+
+    public ModelService getModelService() {
+        return modelService;
+    }
+
+    /**
+     * Start a message of the given pool; append to out after calling this, and write pooled values with the result.
+     */
+    public ClusteringPrimitiveSerializer serializer(ClusteringStringPool pool, CharBuffer out) {
+        return new ClusteringPrimitiveSerializer(service().primitiveSerializer(), out, pool);
+    }
+
+    /**
+     * Start reading a message of the given pool; reads the message's header into the pool.
+     */
+    public ClusteringPrimitiveDeserializer deserializer(ClusteringStringPool pool, CharIterator in) {
+        return new ClusteringPrimitiveDeserializer(service().primitiveSerializer(), in, pool);
+    }
+
+    /**
+     * Write a model, and its type; a null model is written as a null type.
+     */
+    public void writeModel(CharBuffer out, PrimitiveSerializer primitives, Model model) {
+        if (model == null) {
+            out.append(primitives.serializeClass(null));
+            return;
+        }
+        final Class<Model> modelClass = modelService.typeToClass(model.getType());
+        out.append(primitives.serializeClass(modelClass));
+        service().serialize(model.getType(), model, out, primitives);
+    }
+
+    public <M extends Model> M readModel(CharIterator in, PrimitiveSerializer primitives) {
+        final Class<M> cls = primitives.deserializeClass(in);
+        if (cls == null) {
+            return null;
+        }
+        return service().deserialize(cls, in, primitives);
+    }
+
+    public void writeResult(CharBuffer out, PrimitiveSerializer primitives, ModelQueryResult<?> result) {
+        out.append(primitives.serializeString(result.getCursor()));
+        out.append(primitives.serializeInt(result.getSize()));
+        for (Model model : result.getModels()) {
+            writeModel(out, primitives, model);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    public <M extends Model> ModelQueryResult<M> readResult(Class<M> modelClass, CharIterator in, PrimitiveSerializer primitives) {
+        final ModelQueryResult<M> result = new ModelQueryResult<>(modelClass == null ? (Class<M>) Model.class : modelClass);
+        result.setCursor(primitives.deserializeString(in));
+        int size = primitives.deserializeInt(in);
+        while (size --> 0) {
+            result.addModel(readModel(in, primitives));
+        }
+        return result;
+    }
+
+    protected AbstractModelService service() {
+        return (AbstractModelService) modelService;
+    }
+}
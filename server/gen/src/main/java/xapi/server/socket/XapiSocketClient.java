@@ -0,0 +1,272 @@
+package xapi.server.socket;
+
+import xapi.dev.source.CharBuffer;
+import xapi.fu.In1Out1;
+import xapi.log.X_Log;
+import xapi.model.api.Model;
+import xapi.model.api.ModelKey;
+import xapi.model.api.ModelQuery;
+import xapi.model.api.ModelQueryResult;
+import xapi.model.api.PrimitiveSerializer;
+import xapi.model.service.ModelService;
+import xapi.model.tools.ClusteringStringPool;
+import xapi.source.lex.CharIterator;
+import xapi.source.lex.StringCharIterator;
+import xapi.util.api.ErrorHandler;
+import xapi.util.api.SuccessHandler;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Sends {@link ModelService} calls to an {@link XapiSocketServer} over a single connection.
+ * <p>
+ * Calls are pipelined: each is sent as soon as it is made, with its own correlation id,
+ * and its callback runs when the reply with that id arrives, whatever order the server finishes them in.
+ * At most {@link #getMaxInFlight()} calls may wait for a reply; callers beyond that block until one finishes,
+ * which is how a busy server slows its clients down.
+ * <p>
+ * Callbacks run on this client's reader thread, in the order replies arrive; do not block in them.
+ */
+public class XapiSocketClient implements Closeable {
+
+    public static final int DEFAULT_MAX_IN_FLIGHT = 1024;
+
+    private interface Reply {
+        void onReply(CharIterator body, PrimitiveSerializer primitives);
+    }
+
+    private static final class Pending {
+        private final Reply reply;
+        private final SuccessHandler<?> callback;
+
+        private Pending(Reply reply, SuccessHandler<?> callback) {
+            this.reply = reply;
+            this.callback = callback;
+        }
+    }
+
+    private static final AtomicInteger clientId = new AtomicInteger();
+
+    private final SocketChannel channel;
+    private final SocketModelCodec codec;
+    private final SocketMessageQueue queue;
+    private final ConcurrentHashMap<Integer, Pending> pending = new ConcurrentHashMap<>();
+    private final AtomicInteger ids = new AtomicInteger();
+    private final AtomicBoolean flushing = new AtomicBoolean();
+    private final Semaphore inFlight;
+    private final int maxInFlight;
+    private final Thread reader;
+    private volatile IOException closed;
+
+    public XapiSocketClient(InetSocketAddress address, ModelService modelService) throws IOException {
+        this(address, modelService, new SocketBufferPool(SocketBufferPool.DEFAULT_BUFFER_SIZE, 16), DEFAULT_MAX_IN_FLIGHT);
+    }
+
+    public XapiSocketClient(InetSocketAddress address, ModelService modelService, SocketBufferPool buffers, int maxInFlight) throws IOException {
+        this.codec = new SocketModelCodec(modelService);
+        this.queue = new SocketMessageQueue(buffers);
+        this.maxInFlight = Math.max(1, maxInFlight);
+        this.inFlight = new Semaphore(this.maxInFlight);
+        channel = SocketChannel.open(address);
+        channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+        reader = new Thread(this::read, "xapi-socket-client-" + clientId.incrementAndGet());
+        reader.setDaemon(true);
+        reader.start();
+    }
+
+    /**
+     * Send a model, which the server sends straight back; useful to measure the transport itself.
+     */
+    public <M extends Model> void echo(M model, SuccessHandler<M> callback) {
+        send(SocketMessageQueue.OP_ECHO, (out, primitives) -> codec.writeModel(out, primitives, model),
+            (body, primitives) -> callback.onSuccess(codec.readModel(body, primitives)), callback);
+    }
+
+    public <M extends Model> void persist(M model, SuccessHandler<M> callback) {
+        send(SocketMessageQueue.OP_PERSIST, (out, primitives) -> codec.writeModel(out, primitives, model),
+            (body, primitives) -> callback.onSuccess(codec.readModel(body, primitives)), callback);
+    }
+
+    /**
+     * Load a model; the callback receives null if the server has no such model.
+     */
+    public <M extends Model> void load(Class<M> modelClass, ModelKey key, SuccessHandler<M> callback) {
+        final String keyString = codec.getModelService().keyToString(key);
+        send(SocketMessageQueue.OP_LOAD, (out, primitives) -> {
+                out.append(primitives.serializeClass(modelClass));
+                out.append(primitives.serializeString(keyString));
+            },
+            (body, primitives) -> callback.onSuccess(codec.readModel(body, primitives)), callback);
+    }
+
+    public <M extends Model> void query(Class<M> modelClass, ModelQuery<M> query, SuccessHandler<ModelQueryResult<M>> callback) {
+        final ModelService service = codec.getModelService();
+        send(SocketMessageQueue.OP_QUERY, (out, primitives) -> {
+                out.append(primitives.serializeClass(modelClass));
+                out.append(query.serialize(service, primitives));
+            },
+            (body, primitives) -> callback.onSuccess(codec.readResult(modelClass, body, primitives)), callback);
+    }
+
+    /**
+     * Query models of any type.
+     */
+    public void query(ModelQuery<Model> query, SuccessHandler<ModelQueryResult<Model>> callback) {
+        query(null, query, callback);
+    }
+
+    public void delete(ModelKey key, SuccessHandler<Boolean> callback) {
+        final String keyString = codec.getModelService().keyToString(key);
+        send(SocketMessageQueue.OP_DELETE, (out, primitives) -> out.append(primitives.serializeString(keyString)),
+            (body, primitives) -> callback.onSuccess(primitives.deserializeBoolean(body)), callback);
+    }
+
+    /**
+     * @return how many calls are waiting for a reply.
+     */
+    public int getInFlight() {
+        return maxInFlight - inFlight.availablePermits();
+    }
+
+    public int getMaxInFlight() {
+        return maxInFlight;
+    }
+
+    /**
+     * Close the connection; every call still waiting for a reply fails.
+     */
+    @Override
+    public void close() {
+        fail(new IOException("Socket client closed"));
+    }
+
+    private interface Body {
+        void write(CharBuffer out, PrimitiveSerializer primitives);
+    }
+
+    private void send(byte op, Body body, Reply reply, SuccessHandler<?> callback) {
+        try {
+            inFlight.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            failed(callback, e);
+            return;
+        }
+        if (closed != null) {
+            inFlight.release();
+            failed(callback, closed);
+            return;
+        }
+        final int id = ids.incrementAndGet();
+        pending.put(id, new Pending(reply, callback));
+        if (closed != null) {
+            // we closed while registering the call; fail it here, unless fail() already did
+            if (pending.remove(id) != null) {
+                inFlight.release();
+                failed(callback, closed);
+            }
+            return;
+        }
+        final In1Out1<ClusteringStringPool, String> encoder = pool -> {
+            final CharBuffer out = new CharBuffer();
+            body.write(out, codec.serializer(pool, out));
+            return out.toSource();
+        };
+        try {
+            queue.send(id, op, encoder);
+            flush();
+        } catch (IOException | RuntimeException e) {
+            fail(e instanceof IOException ? (IOException) e : new IOException("Unable to send to server", e));
+        }
+    }
+
+    private void flush() throws IOException {
+        // whichever caller gets here first writes everything queued so far, so busy clients send in batches
+        while (queue.getQueuedBytes() > 0 && flushing.compareAndSet(false, true)) {
+            try {
+                queue.flush(channel);
+            } finally {
+                flushing.set(false);
+            }
+        }
+    }
+
+    private void read() {
+        try {
+            while (closed == null) {
+                if (queue.read(channel) == -1) {
+                    throw new IOException("Connection closed by server");
+                }
+                queue.drainFrames(this::onFrame);
+            }
+        } catch (IOException | RuntimeException e) {
+            fail(e instanceof IOException ? (IOException) e : new IOException("Unable to read from server", e));
+        } finally {
+            // only the reader touches the read buffer, so only the reader may give it back
+            queue.close();
+        }
+    }
+
+    private void onFrame(int id, byte op, String body) {
+        final Pending call = pending.remove(id);
+        if (call != null) {
+            inFlight.release();
+        }
+        final StringCharIterator chars = new StringCharIterator(body);
+        if (op == SocketMessageQueue.OP_ERROR) {
+            if (call != null) {
+                failed(call.callback, new IOException("Server failed request " + id + ": " + body));
+            }
+            return;
+        }
+        // every reply is read into the pool, even one nobody is waiting for, to keep the pool in step with the server
+        final PrimitiveSerializer primitives = codec.deserializer(queue.getPool(), chars);
+        if (call == null) {
+            X_Log.warn(XapiSocketClient.class, "Received a reply to unknown request", id);
+            return;
+        }
+        try {
+            call.reply.onReply(chars, primitives);
+        } catch (Throwable t) {
+            X_Log.error(XapiSocketClient.class, "Callback failed for request", id, t);
+        }
+    }
+
+    private void fail(IOException e) {
+        synchronized (pending) {
+            if (closed != null) {
+                return;
+            }
+            closed = e;
+        }
+        try {
+            channel.close();
+        } catch (IOException ignored) {
+        }
+        for (Integer id : new ArrayList<>(pending.keySet())) {
+            final Pending call = pending.remove(id);
+            if (call != null) {
+                inFlight.release();
+                failed(call.callback, e);
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void failed(SuccessHandler<?> callback, Throwable e) {
+        if (callback instanceof ErrorHandler) {
+            ((ErrorHandler<Throwable>) callback).onError(e);
+        } else {
+            X_Log.error(XapiSocketClient.class, "Socket request failed", e);
+        }
+    }
+}
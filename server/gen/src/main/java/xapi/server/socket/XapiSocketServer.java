@@ -1,320 +1,408 @@
 package xapi.server.socket;
 
-import xapi.collect.X_Collect;
-import xapi.collect.api.CollectionOptions;
+import xapi.constants.X_Namespace;
 import xapi.dev.source.CharBuffer;
-import xapi.fu.In1Out1.In1Out1Unsafe;
-import xapi.fu.data.MapLike;
+import xapi.fu.In1;
 import xapi.fu.Mutable;
-import xapi.fu.Out1.Out1Unsafe;
 import xapi.fu.Rethrowable;
 import xapi.inject.X_Inject;
 import xapi.log.X_Log;
 import xapi.log.api.LogLevel;
 import xapi.model.X_Model;
 import xapi.model.api.Model;
+import xapi.model.api.ModelKey;
+import xapi.model.api.ModelQuery;
+import xapi.model.api.ModelQueryResult;
+import xapi.model.api.PrimitiveSerializer;
 import xapi.model.service.ModelService;
 import xapi.model.user.ModelUser;
-import xapi.process.X_Process;
+import xapi.prop.X_Properties;
 import xapi.server.X_Server;
-import xapi.source.lex.CharIterator;
 import xapi.source.lex.StringCharIterator;
-import xapi.debug.X_Debug;
+import xapi.util.api.ErrorHandler;
+import xapi.util.api.SuccessHandler;
 
 import java.io.IOException;
-import java.io.UncheckedIOException;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
-import java.net.Socket;
-import java.net.SocketAddress;
+import java.net.StandardSocketOptions;
 import java.net.UnknownHostException;
-import java.nio.ByteBuffer;
-import java.nio.channels.AsynchronousChannelGroup;
-import java.nio.channels.AsynchronousSocketChannel;
-import java.nio.channels.CompletionHandler;
 import java.nio.channels.SelectionKey;
-import java.nio.channels.Selector;
 import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
-import java.util.Iterator;
-import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
-import java.util.concurrent.locks.LockSupport;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
- * A (currently toy) implementation of pure socket-based {@link xapi.model.api.Model} passing.
+ * Serves {@link ModelService} calls, and their {@link xapi.model.api.Model}s, over plain sockets;
+ * see {@link XapiSocketClient} for the other end.
+ * <p>
+ * A fixed number of {@link SocketEventLoop}s ({@link X_Namespace#PROPERTY_SERVER_SOCKET_LOOPS}) share the connections,
+ * each of which stays on the loop that accepted it. Requests are framed by {@link SocketMessageQueue},
+ * and each carries a correlation id, so one connection may have many requests in flight;
+ * replies are sent whenever the model service finishes them, on whatever thread it calls back on.
+ * <p>
+ * When more than {@link X_Namespace#PROPERTY_SERVER_SOCKET_WRITE_LIMIT} bytes of replies are waiting for a client
+ * to read them, we stop reading that client's requests until it catches up.
  * <p>
  * Created by James X. Nelson (james @wetheinter.net) on 10/16/16.
  */
 public class XapiSocketServer implements Rethrowable {
 
     private final ModelService modelService;
-    private Selector selector;
+    private final SocketModelCodec codec;
+    private final SocketBufferPool buffers = new SocketBufferPool();
     private final Mutable<Integer> port = new Mutable<>();
-    private MapLike<SocketChannel, SocketMessageQueue> connections =
-        X_Collect.newMap(SocketChannel.class, SocketMessageQueue.class,
-            CollectionOptions.asConcurrent(true).build()).asMap();
+    private final Set<Connection> connections = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger nextLoop = new AtomicInteger();
+    private final AtomicLong pauses = new AtomicLong();
+    private final int loopCount;
+    private final long writeLimit;
+    private SocketEventLoop[] loops;
+    private ServerSocketChannel serverChannel;
 
     public XapiSocketServer() {
         this(X_Inject.singleton(ModelService.class));
     }
 
     public XapiSocketServer(ModelService modelService) {
-        this.modelService = modelService;
+        this(modelService,
+            Integer.parseInt(X_Properties.getProperty(X_Namespace.PROPERTY_SERVER_SOCKET_LOOPS,
+                Integer.toString(Runtime.getRuntime().availableProcessors()))),
+            Long.parseLong(X_Properties.getProperty(X_Namespace.PROPERTY_SERVER_SOCKET_WRITE_LIMIT, "1048576"))
+        );
     }
 
-    public void startServer() throws IOException {
-
-        this.selector = Selector.open();
-
-        ServerSocketChannel serverChannel = ServerSocketChannel.open();
-
-        serverChannel.configureBlocking(false);
-
-        // retrieve server socket and bind to port
+    public XapiSocketServer(ModelService modelService, int loops, long writeLimit) {
+        this.modelService = modelService;
+        this.codec = new SocketModelCodec(modelService);
+        this.loopCount = Math.max(1, loops);
+        this.writeLimit = Math.max(1, writeLimit);
+    }
 
+    /**
+     * Bind to a free port, and start serving; returns as soon as the server is accepting connections.
+     */
+    public synchronized void start() throws IOException {
+        if (loops != null) {
+            throw new IllegalStateException("Socket server already started on port " + getPort());
+        }
+        loops = new SocketEventLoop[loopCount];
+        for (int i = 0; i < loopCount; i++) {
+            loops[i] = new SocketEventLoop("xapi-socket-" + i);
+        }
+        serverChannel = ServerSocketChannel.open();
         X_Server.usePort(
             this.port.useBeforeMeUnsafe(randomPort ->
-                serverChannel.socket().bind(new InetSocketAddress(hostName(), randomPort))
+                serverChannel.socket().bind(new InetSocketAddress(hostName(), randomPort), 1024)
             ));
-        X_Log.trace(getClass(), "Port bound to: " + this.port.out1());
-        serverChannel.register(this.selector, SelectionKey.OP_ACCEPT);
-
-        X_Log.trace(getClass(), "Server started...");
-
-        while (this.selector.isOpen()) {
-
-            // wait for events
-
-            int found = this.selector.select();
-
-            if (found == 0) {
-                return;
-            }
-
-            //work on selected keys
-
-            final Iterator<SelectionKey> keys = this.selector.selectedKeys().iterator();
-
-            while (keys.hasNext()) {
-                SelectionKey key = keys.next();
-                // this is necessary to prevent the same key from coming up
-                // again the next time around.
-                keys.remove();
-                if (!key.isValid()) {
-                    X_Log.warn(getClass(), "Invalid key: ", key);
-                    continue;
-                }
-
-                if (key.isAcceptable()) {
-                    this.accept(key);
-                } else if (key.isReadable()) {
-                    this.read(key);
-                } else {
-                    X_Log.warn(getClass(), "Unhandled key: ", key);
-                }
-
+        // the first loop accepts connections, and hands each to the next loop in turn
+        final CountDownLatch registered = new CountDownLatch(1);
+        final Mutable<IOException> failure = new Mutable<>();
+        loops[0].submit(() -> {
+            try {
+                loops[0].register(serverChannel, SelectionKey.OP_ACCEPT, new Acceptor());
+            } catch (IOException e) {
+                failure.in(e);
+            } finally {
+                registered.countDown();
             }
-
+        });
+        try {
+            registered.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw rethrow(e);
         }
-
+        if (failure.out1() != null) {
+            shutdown();
+            throw failure.out1();
+        }
+        X_Log.trace(getClass(), "Socket server started on port", getPort(), "with", loopCount, "loops");
     }
 
-    public In1Out1Unsafe<Model, Out1Unsafe<Model>> createClient() {
-        In1Out1Unsafe<Model, Out1Unsafe<Model>> function;
-        function = model -> {
-
-            InetSocketAddress hostAddress = new InetSocketAddress(hostName(), getPort());
-            Mutable<InetSocketAddress> clientAddress = new Mutable<>();
-            X_Server.usePort(port->
-                clientAddress.in(new InetSocketAddress(hostName(), port))
-            );
-
-            final AsynchronousChannelGroup group = AsynchronousChannelGroup.withThreadPool(Executors.newCachedThreadPool());
-            AsynchronousSocketChannel connection = AsynchronousSocketChannel.open(group);
-            final AsynchronousSocketChannel channel = connection.bind(clientAddress.out1());
-
-            final Class<Model> modelClass = modelService.typeToClass(model.getType());
-
-            final String typeMessage = modelService.primitiveSerializer().serializeClass(modelClass);
-            final CharBuffer modelMessage = modelService.serialize(modelClass, model);
-            byte[] message = (typeMessage + modelMessage).getBytes();
-            ByteBuffer buffer = ByteBuffer.wrap(message);
-
-            final Future<Void> future = channel.connect(hostAddress);
-            Mutable<Integer> reply = new Mutable<>();
-            X_Process.resolve(future, v->
-                channel.write(buffer, null, new CompletionHandler<Integer, Object>() {
-                    @Override
-                    public void completed(Integer result, Object attachment) {
-                        System.out.println(result + " : " + attachment);
-                        reply.in(result);
-                        synchronized (reply) {
-                            reply.notifyAll();
-                        }
-                    }
+    /**
+     * @return a new connection to this server, which pipelines the calls sent through it.
+     */
+    public XapiSocketClient createClient() throws IOException {
+        return createClient(XapiSocketClient.DEFAULT_MAX_IN_FLIGHT);
+    }
 
-                    @Override
-                    public void failed(Throwable exc, Object attachment) {
-                        X_Log.error(getClass(), "Send failure:", exc);
-                    }
-                }),
-                X_Debug::rethrow
-            );
-            return () -> {
-                // listen for a reply.
-                if (reply.out1() == null) {
-                    synchronized (reply) {
-                        reply.wait();
-                    }
-                }
-                final ByteBuffer dst = ByteBuffer.allocate(reply.out1());
-                final Future<Integer> serverReply = channel.read(dst);
-                Mutable<Integer> serverSize = new Mutable<>();
-                 X_Process.resolve(serverReply, i->{
-                     synchronized (dst) {
-                         serverSize.in(i);
-                         dst.notify();
-                     }
-                 }, X_Debug::rethrow);
-                if (serverSize.out1() == null) {
-                    synchronized (dst) {
-                        dst.wait();
-                    }
-                }
-                StringCharIterator chars = new StringCharIterator(
-                    new String(dst.array())
-                );
-                final Class<Model> cls = modelService.primitiveSerializer().deserializeClass(chars);
-                return modelService.deserialize(cls, chars);
-            };
-        };
-        return function.<Model>mapIn(modelIn->{
-            while (selector == null || !selector.isOpen()) {
-                LockSupport.parkNanos(100_000);
-            }
-            return modelIn;
-        }).unsafeIn1Out1();
+    /**
+     * @param maxInFlight how many calls the client may send before it waits for replies.
+     */
+    public XapiSocketClient createClient(int maxInFlight) throws IOException {
+        return new XapiSocketClient(new InetSocketAddress(hostName(), getPort()), modelService,
+            new SocketBufferPool(SocketBufferPool.DEFAULT_BUFFER_SIZE, 16), maxInFlight);
     }
 
     public int getPort() {
         return port.out1();
     }
 
-    //accept a connection made to this channel's socket
-
-    private void accept(SelectionKey key) throws IOException {
-
-        ServerSocketChannel serverChannel = (ServerSocketChannel) key.channel();
-        SocketChannel channel = serverChannel.accept();
-        channel.configureBlocking(false);
+    /**
+     * @return how many times a connection's requests went unread, because it had too many replies waiting.
+     */
+    public long getBackpressurePauses() {
+        return pauses.get();
+    }
 
-        Socket socket = channel.socket();
-        SocketAddress remoteAddr = socket.getRemoteSocketAddress();
-        X_Log.trace(getClass(), "Connected to: ", remoteAddr);
+    public int getConnectionCount() {
+        return connections.size();
+    }
 
-        // register channel with selector for further IO
-        connections.put(channel, new SocketMessageQueue());
+    public SocketBufferPool getBuffers() {
+        return buffers;
+    }
 
-        channel.register(this.selector, SelectionKey.OP_READ);
+    /**
+     * Stop accepting, and close every connection.
+     */
+    public synchronized void shutdown() {
+        if (serverChannel != null) {
+            try {
+                serverChannel.close();
+            } catch (IOException ignored) {
+            }
+        }
+        if (loops != null) {
+            for (SocketEventLoop loop : loops) {
+                loop.shutdown();
+            }
+        }
+    }
 
+    protected InetAddress hostName() {
+        try {
+            return InetAddress.getLocalHost();
+        } catch (UnknownHostException e) {
+            throw rethrow(e);
+        }
     }
 
-    //read from the socket channel
+    private final class Acceptor implements SocketEventLoop.Selectable {
+
+        @Override
+        public void selected(SelectionKey key) throws IOException {
+            SocketChannel channel;
+            while ((channel = serverChannel.accept()) != null) {
+                channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                final SocketEventLoop loop = loops[Math.floorMod(nextLoop.getAndIncrement(), loops.length)];
+                final Connection connection = new Connection(channel, loop);
+                connections.add(connection);
+                loop.submit(connection::register);
+                X_Log.trace(XapiSocketServer.class, "Connected to: ", channel.getRemoteAddress());
+            }
+        }
 
-    private void read(SelectionKey key) throws IOException {
+        @Override
+        public void failed(Throwable e) {
+            if (serverChannel.isOpen()) {
+                X_Log.error(XapiSocketServer.class, "Socket server stopped accepting connections", e);
+            }
+            try {
+                serverChannel.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
 
-        SocketChannel channel = (SocketChannel) key.channel();
+    /**
+     * One client; read and written only on its loop, but replied to from any thread.
+     */
+    private final class Connection implements SocketEventLoop.Selectable {
+
+        private final SocketChannel channel;
+        private final SocketEventLoop loop;
+        private final SocketMessageQueue queue;
+        private final AtomicBoolean flushScheduled = new AtomicBoolean();
+        private final Runnable flush = this::flush;
+        private SelectionKey key;
+        private boolean paused;
+
+        private Connection(SocketChannel channel, SocketEventLoop loop) {
+            this.channel = channel;
+            this.loop = loop;
+            this.queue = new SocketMessageQueue(buffers);
+        }
 
-        final SocketMessageQueue queue = connections.get(channel);
+        private void register() {
+            try {
+                key = loop.register(channel, SelectionKey.OP_READ, this);
+            } catch (IOException | RuntimeException e) {
+                failed(e);
+            }
+        }
 
-        queue.useBuffer(buffer->{
+        @Override
+        public void selected(SelectionKey key) throws IOException {
+            if (key.isWritable()) {
+                flush();
+            }
+            if (key.isValid() && key.isReadable()) {
+                if (queue.read(channel) == -1) {
+                    X_Log.trace(XapiSocketServer.class, "Connection closed by client: ", channel.getRemoteAddress());
+                    close();
+                    return;
+                }
+                queue.drainFrames(this::onFrame);
+            }
+        }
 
-            int numRead = -1;
+        private void onFrame(int id, byte op, String body) {
+            // decode now, on the loop, so we read the pool in the order our client wrote it;
+            // the model service may then finish the requests in any order.
+            try {
+                final StringCharIterator chars = new StringCharIterator(body);
+                final PrimitiveSerializer primitives = codec.deserializer(queue.getPool(), chars);
+                switch (op) {
+                    case SocketMessageQueue.OP_ECHO:
+                        replyModel(id, codec.readModel(chars, primitives));
+                        break;
+                    case SocketMessageQueue.OP_PERSIST:
+                        modelService.persist(codec.readModel(chars, primitives),
+                            callback(id, model -> replyModel(id, model)));
+                        break;
+                    case SocketMessageQueue.OP_LOAD: {
+                        final Class<Model> modelClass = primitives.deserializeClass(chars);
+                        final ModelKey key = modelService.keyFromString(primitives.deserializeString(chars));
+                        modelService.load(modelClass, key, callback(id, model -> replyModel(id, model)));
+                        break;
+                    }
+                    case SocketMessageQueue.OP_QUERY: {
+                        final Class<Model> modelClass = primitives.deserializeClass(chars);
+                        final ModelQuery<Model> query = ModelQuery.deserialize(modelService, primitives, chars);
+                        final SuccessHandler<ModelQueryResult<Model>> callback = callback(id, result ->
+                            reply(id, (out, pooled) -> codec.writeResult(out, pooled, result)));
+                        if (modelClass == null) {
+                            modelService.query(query, callback);
+                        } else {
+                            modelService.query(modelClass, query, callback);
+                        }
+                        break;
+                    }
+                    case SocketMessageQueue.OP_DELETE: {
+                        final ModelKey key = modelService.keyFromString(primitives.deserializeString(chars));
+                        modelService.delete(key, callback(id, deleted ->
+                            reply(id, (out, pooled) -> out.append(pooled.serializeBoolean(Boolean.TRUE.equals(deleted))))));
+                        break;
+                    }
+                    default:
+                        replyError(id, "Unknown op " + op);
+                }
+            } catch (Throwable t) {
+                X_Log.error(XapiSocketServer.class, "Failed to handle request", id, "op", op, t);
+                replyError(id, String.valueOf(t));
+            }
+        }
 
-            numRead = channel.read(buffer);
+        private <T> SuccessHandler<T> callback(int id, In1<T> success) {
+            return SuccessHandler.handler(success::in, (ErrorHandler<Throwable>) e -> {
+                X_Log.warn(XapiSocketServer.class, "Request", id, "failed", e);
+                replyError(id, String.valueOf(e));
+            });
+        }
 
-            if (numRead == -1) {
-                connections.remove(channel);
+        private void replyModel(int id, Model model) {
+            reply(id, (out, primitives) -> codec.writeModel(out, primitives, model));
+        }
 
-                Socket socket = channel.socket();
-                SocketAddress remoteAddr = socket.getRemoteSocketAddress();
+        private void reply(int id, ReplyBody body) {
+            queue.send(id, SocketMessageQueue.OP_REPLY, pool -> {
+                final CharBuffer out = new CharBuffer();
+                body.write(out, codec.serializer(pool, out));
+                return out.toSource();
+            });
+            scheduleFlush();
+        }
 
-                X_Log.trace(getClass(), "Connection closed by client: ", remoteAddr);
+        private void replyError(int id, String message) {
+            queue.enqueue(id, SocketMessageQueue.OP_ERROR, message);
+            scheduleFlush();
+        }
 
-                channel.close();
-                key.cancel();
-                buffer.clear();
+        /**
+         * Write on the loop, after it handles everything it selected; replies made while reading
+         * a batch of requests then go out together.
+         */
+        private void scheduleFlush() {
+            if (flushScheduled.compareAndSet(false, true)) {
+                loop.submit(flush);
             }
-            buffer.flip();
-            final String chars = new String(buffer.array());
-            final StringCharIterator itr = CharIterator.forString(chars);
-            System.out.println(itr.consumeAll());
-            final Class<? extends Model> cls = modelService.primitiveSerializer().deserializeClass(itr);
-            final Model model = modelService.deserialize(cls, itr);
-            System.out.println("Received: " + model);
-        });
-
-
-
+        }
 
-    }
+        private void flush() {
+            flushScheduled.set(false);
+            if (key == null || !key.isValid()) {
+                return;
+            }
+            final boolean done;
+            try {
+                done = queue.flush(channel);
+            } catch (IOException | RuntimeException e) {
+                failed(e);
+                return;
+            }
+            final long queued = queue.getQueuedBytes();
+            if (!paused && queued > writeLimit) {
+                // our client is not keeping up with its replies; stop taking new requests until it does
+                paused = true;
+                pauses.incrementAndGet();
+            } else if (paused && queued <= writeLimit / 2) {
+                paused = false;
+            }
+            key.interestOps((paused ? 0 : SelectionKey.OP_READ) | (done ? 0 : SelectionKey.OP_WRITE));
+        }
 
-    protected InetAddress hostName() {
-        try {
-            return InetAddress.getLocalHost();
-        } catch (UnknownHostException e) {
-            throw rethrow(e);
+        @Override
+        public void failed(Throwable e) {
+            if (channel.isOpen()) {
+                X_Log.trace(XapiSocketServer.class, "Closing connection after error", e);
+            }
+            close();
         }
-    }
 
-    private void shutdown() {
-        try {
-            if (selector != null) {
-                selector.close();
+        private void close() {
+            connections.remove(this);
+            if (key != null) {
+                key.cancel();
             }
-        } catch (IOException e) {
-            throw new UncheckedIOException(e);
+            try {
+                channel.close();
+            } catch (IOException ignored) {
+            }
+            queue.close();
         }
     }
 
-    public static void main(String... args) throws IOException {
+    private interface ReplyBody {
+        void write(CharBuffer out, PrimitiveSerializer primitives);
+    }
+
+    public static void main(String... args) throws Exception {
 
         X_Log.logLevel(LogLevel.INFO);
         final XapiSocketServer server = new XapiSocketServer();
-        Thread serverEnv = new Thread(() -> {
-            try {
-                server.startServer();
-
-                while (server.selector.isOpen()) {
-                    LockSupport.parkNanos(100_000);
-                }
-                System.out.println("Server done...");
-            } catch (IOException e) {
-                throw new UncheckedIOException(e);
-            }
-        }, "server");
-        serverEnv.start();
+        server.start();
 
-
-        Thread clientEnv = new Thread(() -> {
-            final In1Out1Unsafe<Model, Out1Unsafe<Model>> client = server.createClient();
+        final CountDownLatch done = new CountDownLatch(1);
+        try (XapiSocketClient client = server.createClient()) {
             final ModelUser user = X_Model.create(ModelUser.class)
                 .setId("myId")
                 .setDisplayName("My name")
                 .setFirstName("My name");
-            Model reply = client.io(user).out1();
-
-            System.out.println("My reply: " + reply);
-
+            client.echo(user, reply -> {
+                System.out.println("My reply: " + reply);
+                done.countDown();
+            });
+            done.await(10, TimeUnit.SECONDS);
+        } finally {
             server.shutdown();
-        });
-        clientEnv.setDaemon(true);
-        clientEnv.start();
-
-        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
-            System.out.println("Socket open? " + server.selector.isOpen());
-        }));
-
+        }
     }
 }
@@ -0,0 +1,87 @@
+package xapi.test.server;
+
+import org.junit.Test;
+import xapi.server.socket.SocketBufferPool;
+import xapi.server.socket.SocketMessageQueue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class SocketMessageQueueTest {
+
+    private static final int BUFFER_SIZE = 1024;
+
+    private final SocketBufferPool buffers = new SocketBufferPool(BUFFER_SIZE, 4);
+    private final List<String> received = new ArrayList<>();
+
+    @Test
+    public void testLargeFramesArriveWhole() throws IOException {
+        final String big = repeat('x', 5000);
+        final SocketMessageQueue reader = new SocketMessageQueue(buffers, 8192);
+        readAll(reader, frames("small", big, "after"));
+        assertEquals(3, received.size());
+        assertEquals("small", received.get(0));
+        assertEquals(big, received.get(1));
+        assertEquals("after", received.get(2));
+    }
+
+    @Test
+    public void testClaimedLengthDoesNotReserveMemory() throws IOException {
+        final SocketMessageQueue reader = new SocketMessageQueue(buffers, 8 * 1024 * 1024);
+        final ByteBuffer claim = ByteBuffer.allocate(4 + 100);
+        claim.putInt(4 * 1024 * 1024);
+        readAll(reader, claim.array());
+        assertTrue(received.isEmpty());
+        assertEquals(BUFFER_SIZE, reader.getReadCapacity());
+
+        // two buffers of bytes only doubles the buffer once
+        readAll(reader, new byte[BUFFER_SIZE + 100]);
+        assertEquals(2 * BUFFER_SIZE, reader.getReadCapacity());
+    }
+
+    @Test
+    public void testOversizedFramesAreRejected() throws IOException {
+        final SocketMessageQueue reader = new SocketMessageQueue(buffers, 100);
+        try {
+            readAll(reader, frames(repeat('y', 200)));
+            fail("Expected a frame over the maximum to be rejected");
+        } catch (IOException expected) {
+            assertTrue(received.isEmpty());
+        }
+    }
+
+    private void readAll(SocketMessageQueue reader, byte[] bytes) throws IOException {
+        final ReadableByteChannel channel = Channels.newChannel(new ByteArrayInputStream(bytes));
+        while (reader.read(channel) > 0) {
+            reader.drainFrames((id, op, body) -> received.add(body));
+        }
+    }
+
+    private byte[] frames(String... bodies) throws IOException {
+        final SocketMessageQueue writer = new SocketMessageQueue(buffers);
+        for (int i = 0; i < bodies.length; i++) {
+            writer.enqueue(i, SocketMessageQueue.OP_ECHO, bodies[i]);
+        }
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertTrue(writer.flush(Channels.newChannel(out)));
+        return out.toByteArray();
+    }
+
+    private static String repeat(char c, int times) {
+        final StringBuilder b = new StringBuilder(times);
+        for (int i = 0; i < times; i++) {
+            b.append(c);
+        }
+        return b.toString();
+    }
+}
@@ -0,0 +1,314 @@
+package xapi.test.server;
+
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+import xapi.constants.X_Namespace;
+import xapi.jre.model.AbstractJreModelService;
+import xapi.log.X_Log;
+import xapi.model.api.Model;
+import xapi.model.api.ModelKey;
+import xapi.model.api.ModelQuery;
+import xapi.model.api.ModelQueryResult;
+import xapi.model.user.ModelUser;
+import xapi.server.socket.XapiSocketClient;
+import xapi.server.socket.XapiSocketServer;
+import xapi.util.api.ErrorHandler;
+import xapi.util.api.SuccessHandler;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Sends model calls to an {@link XapiSocketServer} over loopback, many at a time on each connection.
+ */
+public class SocketServerLoadTest {
+
+    /**
+     * Keeps models in memory, so we measure the transport rather than the disk.
+     */
+    static class InMemoryModelService extends AbstractJreModelService {
+
+        private final Map<String, Model> models = new ConcurrentHashMap<>();
+        private final AtomicInteger ids = new AtomicInteger();
+
+        @Override
+        protected boolean isAsync() {
+            return false;
+        }
+
+        @Override
+        protected <M extends Model> void doPersist(String type, M model, SuccessHandler<M> callback) {
+            if (model.getKey() == null) {
+                model.setKey(newKey("", type, Integer.toString(ids.incrementAndGet())));
+            }
+            models.put(keyToString(model.getKey()), model);
+            callback.onSuccess(model);
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public <M extends Model> void load(Class<M> modelClass, ModelKey key, SuccessHandler<M> callback) {
+            if ("explode".equals(key.getId())) {
+                throw new IllegalStateException("Unable to load " + key);
+            }
+            callback.onSuccess((M) models.get(keyToString(key)));
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public <M extends Model> void query(Class<M> modelClass, ModelQuery<M> query, SuccessHandler<ModelQueryResult<M>> callback) {
+            final ModelQueryResult<M> result = new ModelQueryResult<>(modelClass);
+            final String kind = getTypeName(modelClass);
+            for (Model model : models.values()) {
+                if (kind.equals(model.getKey().getKind()) && result.getSize() < query.getPageSize()) {
+                    result.addModel((M) model);
+                }
+            }
+            callback.onSuccess(result);
+        }
+
+        @Override
+        public void query(ModelQuery<Model> query, SuccessHandler<ModelQueryResult<Model>> callback) {
+            final ModelQueryResult<Model> result = new ModelQueryResult<>(Model.class);
+            for (Model model : models.values()) {
+                if (result.getSize() < query.getPageSize()) {
+                    result.addModel(model);
+                }
+            }
+            callback.onSuccess(result);
+        }
+
+        @Override
+        public void delete(ModelKey key, SuccessHandler<Boolean> callback) {
+            callback.onSuccess(models.remove(keyToString(key)) != null);
+        }
+    }
+
+    /**
+     * Collects every callback, so we can wait for all of them.
+     */
+    private static class Results<T> implements SuccessHandler<T>, ErrorHandler<Throwable> {
+        private final List<T> values = new ArrayList<>();
+        private final AtomicReference<Throwable> error = new AtomicReference<>();
+        private final CountDownLatch latch;
+
+        Results(int expected) {
+            latch = new CountDownLatch(expected);
+        }
+
+        @Override
+        public void onSuccess(T t) {
+            synchronized (values) {
+                values.add(t);
+            }
+            latch.countDown();
+        }
+
+        @Override
+        public void onError(Throwable e) {
+            error.set(e);
+            latch.countDown();
+        }
+
+        private List<T> await() throws InterruptedException {
+            assertTrue("Timed out waiting for replies", latch.await(60, TimeUnit.SECONDS));
+            if (error.get() != null) {
+                throw new AssertionError("Request failed", error.get());
+            }
+            return values;
+        }
+    }
+
+    private InMemoryModelService service;
+    private XapiSocketServer server;
+
+    @Before
+    public void startServer() throws IOException {
+        service = new InMemoryModelService();
+        server = new XapiSocketServer(service, 2, 1024 * 1024);
+        server.start();
+    }
+
+    @After
+    public void stopServer() {
+        server.shutdown();
+    }
+
+    private ModelUser user(String id) {
+        return service.create(ModelUser.class)
+            .setId(id)
+            .setFirstName("First " + id)
+            .setDisplayName("User " + id);
+    }
+
+    @Test
+    public void testPipelinedCrud() throws Exception {
+        final int count = 200;
+        try (XapiSocketClient client = server.createClient()) {
+            final Results<ModelUser> persisted = new Results<>(count);
+            for (int i = 0; i < count; i++) {
+                client.persist(user("u" + i), persisted);
+            }
+            final List<ModelUser> saved = persisted.await();
+            assertEquals(count, saved.size());
+
+            final Results<ModelUser> loaded = new Results<>(count + 1);
+            for (ModelUser user : saved) {
+                client.load(ModelUser.class, user.getKey(), loaded);
+            }
+            client.load(ModelUser.class, service.newKey("", saved.get(0).getType(), "missing"), loaded);
+            final List<ModelUser> found = loaded.await();
+            assertEquals(count + 1, found.size());
+            int missing = 0;
+            for (ModelUser user : found) {
+                if (user == null) {
+                    missing++;
+                } else {
+                    assertEquals(user.getFirstName().replace("First", "User"), user.getDisplayName());
+                }
+            }
+            assertEquals(1, missing);
+
+            final Results<ModelQueryResult<ModelUser>> queried = new Results<>(1);
+            client.query(ModelUser.class, new ModelQuery<ModelUser>().setPageSize(count * 2), queried);
+            assertEquals(count, queried.await().get(0).getSize());
+
+            final Results<Boolean> deleted = new Results<>(2);
+            client.delete(saved.get(0).getKey(), deleted);
+            client.delete(saved.get(0).getKey(), deleted);
+            assertEquals(Arrays.asList(true, false), deleted.await());
+        }
+    }
+
+    @Test
+    public void testBackpressureStillDeliversEveryReply() throws Exception {
+        server.shutdown();
+        // a tiny write limit pauses reading as soon as any reply has to wait for our client
+        server = new XapiSocketServer(service, 1, 64);
+        server.start();
+        final int count = 2_000;
+        final char[] big = new char[8 * 1024];
+        Arrays.fill(big, 'x');
+        final ModelUser user = user("echo").setLastName(new String(big));
+        final AtomicInteger received = new AtomicInteger();
+        try (XapiSocketClient client = server.createClient()) {
+            final Results<ModelUser> echoed = new Results<ModelUser>(count) {
+                @Override
+                public void onSuccess(ModelUser reply) {
+                    if (received.getAndIncrement() == 0) {
+                        // a slow client; while we sleep, the server's replies back up
+                        try {
+                            Thread.sleep(500);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                    }
+                    super.onSuccess(reply);
+                }
+            };
+            for (int i = 0; i < count; i++) {
+                client.echo(user, echoed);
+            }
+            final List<ModelUser> replies = echoed.await();
+            assertEquals(count, replies.size());
+            for (ModelUser reply : replies) {
+                assertNotNull(reply);
+                assertEquals(big.length, reply.getLastName().length());
+            }
+        }
+        assertTrue("Expected the server to pause reading", server.getBackpressurePauses() > 0);
+    }
+
+    @Test
+    public void testFailedRequestDoesNotStopTheConnection() throws Exception {
+        try (XapiSocketClient client = server.createClient()) {
+            final ModelUser user = user("survivor");
+            final Results<ModelUser> failed = new Results<>(1);
+            client.load(ModelUser.class, service.newKey("", user.getType(), "explode"), failed);
+            try {
+                failed.await();
+                throw new IllegalStateException("Expected the load to fail");
+            } catch (AssertionError expected) {
+                assertTrue(String.valueOf(expected.getCause()), expected.getCause().getMessage().contains("Unable to load"));
+            }
+            final Results<ModelUser> echoed = new Results<>(1);
+            client.echo(user, echoed);
+            assertEquals("User survivor", echoed.await().get(0).getDisplayName());
+        }
+    }
+
+    @Test
+    public void loadTestPipelinedEcho() throws Exception {
+        Assume.assumeTrue("Run with -D" + X_Namespace.PROPERTY_BENCHMARK + "=true", Boolean.getBoolean(X_Namespace.PROPERTY_BENCHMARK));
+        final int clients = 4;
+        final int perClient = 25_000;
+        final ModelUser user = user("load");
+        final XapiSocketClient[] connections = new XapiSocketClient[clients];
+        for (int i = 0; i < clients; i++) {
+            // enough in flight to keep the server busy, without the latency of a deep queue
+            connections[i] = server.createClient(64);
+        }
+        try {
+            // warm up
+            runLoad(connections, user, perClient / 10);
+            final long start = System.nanoTime();
+            final long[] latencies = runLoad(connections, user, perClient);
+            final long elapsed = System.nanoTime() - start;
+            Arrays.sort(latencies);
+            final long total = latencies.length;
+            X_Log.info(SocketServerLoadTest.class, clients, "connections,", total, "echoes in",
+                TimeUnit.NANOSECONDS.toMillis(elapsed), "ms:", total * TimeUnit.SECONDS.toNanos(1) / elapsed, "msgs/sec;",
+                "p50", TimeUnit.NANOSECONDS.toMicros(latencies[(int) (total / 2)]), "us,",
+                "p99", TimeUnit.NANOSECONDS.toMicros(latencies[(int) (total * 99 / 100)]), "us;",
+                server.getBuffers().getAllocated(), "direct buffers allocated,",
+                server.getBackpressurePauses(), "backpressure pauses");
+            assertEquals(clients * perClient, total);
+        } finally {
+            for (XapiSocketClient connection : connections) {
+                connection.close();
+            }
+        }
+    }
+
+    private long[] runLoad(XapiSocketClient[] connections, ModelUser user, int perClient) throws InterruptedException {
+        final long[] latencies = new long[connections.length * perClient];
+        final AtomicInteger failures = new AtomicInteger();
+        final CountDownLatch done = new CountDownLatch(latencies.length);
+        final Thread[] senders = new Thread[connections.length];
+        for (int c = 0; c < connections.length; c++) {
+            final XapiSocketClient client = connections[c];
+            final int offset = c * perClient;
+            senders[c] = new Thread(() -> {
+                for (int i = 0; i < perClient; i++) {
+                    final int slot = offset + i;
+                    final long sent = System.nanoTime();
+                    client.echo(user, SuccessHandler.handler(reply -> {
+                        latencies[slot] = System.nanoTime() - sent;
+                        done.countDown();
+                    }, (ErrorHandler<Throwable>) e -> {
+                        failures.incrementAndGet();
+                        done.countDown();
+                    }));
+                }
+            });
+            senders[c].start();
+        }
+        assertTrue("Timed out waiting for echoes", done.await(120, TimeUnit.SECONDS));
+        assertEquals(0, failures.get());
+        return latencies;
+    }
+}
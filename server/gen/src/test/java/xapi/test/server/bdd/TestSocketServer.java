@@ -60,6 +60,7 @@ class TestSocketServer extends AbstractModel implements WebApp, Rethrowable, Xap
     private String source;
     private boolean devMode;
     private String contentRoot;
+    private String cacheControl;
     private String protocol;
     private String instanceId = "test";
 
@@ -254,6 +255,17 @@ class TestSocketServer extends AbstractModel implements WebApp, Rethrowable, Xap
         return contentRoot;
     }
 
+    @Override
+    public String getCacheControl() {
+        return cacheControl;
+    }
+
+    @Override
+    public WebApp setCacheControl(String cacheControl) {
+        this.cacheControl = cacheControl;
+        return this;
+    }
+
     @Override
     public String getInstanceId() {
         return instanceId;
@@ -183,6 +183,9 @@ public interface Route extends Model {
                             } while (!pathEquals(next, yours));
                             myInd++;
                             yourInd--;
+                        } else {
+                            // a trailing ** matches everything that is left
+                            return score;
                         }
                         // need to properly test...  repo/** matching repo/net
                     } else {
@@ -0,0 +1,336 @@
+package xapi.server.api;
+
+import xapi.except.NotConfiguredCorrectly;
+import xapi.fu.In2;
+import xapi.scope.request.RequestScope;
+import xapi.scope.spi.RequestLike;
+import xapi.scope.spi.ResponseLike;
+import xapi.server.api.Route.RouteType;
+import xapi.source.write.CompiledTemplate;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * An immutable dispatch table, compiled once from a {@link WebApp}'s routes,
+ * which finds every route that matches a url, best match first,
+ * in the same order as scoring every route with {@link Route#matches(String)}
+ * (ties go to the route that was added first).
+ * <p>
+ * Routes without a * are found with a single hash lookup.
+ * Routes with a * hang off a trie of path segments, at the node for the segments before their first *,
+ * so a request only scores the wildcard routes along its own path.
+ * <p>
+ * Each route is snapshotted into an {@link Entry}, so serving a request never reads the route's (model) properties;
+ * if you edit a route in place, compile a new table.
+ */
+public final class RouteTable {
+
+    private static final Entry[] NONE = new Entry[0];
+
+    /**
+     * A typed, immutable copy of one {@link Route}, with its path pre-split and its glob segments precompiled
+     * (and its payload, for template routes).
+     */
+    public static final class Entry {
+        private final Route route;
+        private final int index;
+        private final String path;
+        private final RouteType type;
+        private final String payload;
+        private final boolean valid;
+        private final String[] parts;
+        private final Pattern[] patterns;
+        private final CompiledTemplate template;
+
+        private Entry(Route route, int index) {
+            this.route = route;
+            this.index = index;
+            this.path = route.getPath();
+            this.type = route.getRouteType();
+            this.payload = route.getPayload();
+            this.valid = type != null && (payload != null || type == RouteType.Template);
+            this.template = type == RouteType.Template && payload != null ? CompiledTemplate.compile(payload) : null;
+            if (path.contains("*")) {
+                parts = path.split("/");
+                patterns = new Pattern[parts.length];
+                for (int i = 0; i < parts.length; i++) {
+                    if (parts[i].contains("*")) {
+                        patterns[i] = Pattern.compile(parts[i].replaceAll("[*]", ".*"));
+                    }
+                }
+            } else {
+                parts = null;
+                patterns = null;
+            }
+        }
+
+        public Route getRoute() {
+            return route;
+        }
+
+        public String getPath() {
+            return path;
+        }
+
+        public RouteType getType() {
+            return type;
+        }
+
+        public String getPayload() {
+            return payload;
+        }
+
+        public boolean isBlocking() {
+            return type != null && type.isBlocking();
+        }
+
+        public boolean isWildcard() {
+            return parts != null;
+        }
+
+        /**
+         * Same as {@link Route#serve(String, RequestScope, In2)}, without reading any route properties.
+         */
+        @SuppressWarnings("unchecked")
+        public <Req extends RequestLike, Resp extends ResponseLike> void serve(String path, RequestScope<Req, Resp> request, In2<RequestScope<Req, Resp>, Throwable> callback) {
+            if (!valid) {
+                // let the route log and report what is missing
+                route.serve(path, request, callback);
+                return;
+            }
+            XapiServer server = request.get(XapiServer.class);
+            switch (type) {
+                case Text:
+                    server.writeText(request, payload, callback);
+                    return;
+                case Gwt:
+                    server.writeGwtJs(request, payload, callback);
+                    return;
+                case Callback:
+                    server.writeCallback(request, payload, callback);
+                    return;
+                case File:
+                    server.writeFile(request, payload, callback);
+                    return;
+                case Directory:
+                    server.writeDirectory(request, payload, callback);
+                    return;
+                case Template:
+                    if (template == null) {
+                        server.writeTemplate(request, payload, callback);
+                    } else {
+                        server.writeTemplate(request, template, callback);
+                    }
+                    return;
+                case Service:
+                    server.writeService(path, request, payload, callback);
+                    return;
+            }
+            callback.in(request, new NotConfiguredCorrectly("Type not handled: " + type));
+        }
+
+        /**
+         * Same score as {@link Route#matches(String)}, using our precompiled segments.
+         */
+        public double score(String url, String[] yourParts) {
+            if (url.equals(path)) {
+                return 1.;
+            }
+            if (parts == null) {
+                return 0.;
+            }
+            final String[] myParts = parts;
+            double score = 0.8;
+            int myInd = 0, yourInd = 0;
+            while (myInd < myParts.length) {
+                String mine = myParts[myInd];
+                if (patterns[myInd] != null) {
+                    if (mine.equals("**")) {
+                        score = score / 8.;
+                        if (yourInd >= yourParts.length) {
+                            return score;
+                        }
+                        if (myInd != myParts.length-1) {
+                            String yours;
+                            do {
+                                if (yourInd == yourParts.length) {
+                                    return 0; // failed on text trailing the **
+                                }
+                                yours = yourParts[yourInd++];
+                            } while (!segmentEquals(myInd + 1, yours));
+                            myInd++;
+                            yourInd--;
+                        } else {
+                            // a trailing ** matches everything that is left
+                            return score;
+                        }
+                    } else {
+                        if (yourInd >= yourParts.length) {
+                            return 0.;
+                        }
+                        if (!patterns[myInd].matcher(yourParts[yourInd]).matches()) {
+                            return 0.;
+                        }
+                        score = score / 2.;
+                        myInd++;
+                        yourInd++;
+                    }
+                } else {
+                    if (yourParts.length <= yourInd) {
+                        if (myInd == myParts.length-1) {
+                            return score / 10.;
+                        } else {
+                            return 0.;
+                        }
+                    }
+                    if (!mine.equals(yourParts[yourInd])) {
+                        return 0.;
+                    }
+                    myInd++;
+                    yourInd++;
+                }
+            }
+            return score;
+        }
+
+        private boolean segmentEquals(int myInd, String yours) {
+            final Pattern pattern = patterns[myInd];
+            return pattern == null ? parts[myInd].equals(yours) : pattern.matcher(yours).matches();
+        }
+
+        @Override
+        public String toString() {
+            return type + " " + path + " -> " + payload;
+        }
+    }
+
+    private static final class Node {
+        private final Map<String, Node> children = new HashMap<>();
+        private Entry[] wildcards = NONE;
+
+        private Node child(String segment) {
+            return children.computeIfAbsent(segment, s -> new Node());
+        }
+    }
+
+    private final Map<String, Entry[]> exact;
+    private final Node root;
+    private final Route[] routes;
+
+    private RouteTable(Map<String, Entry[]> exact, Node root, Route[] routes) {
+        this.exact = exact;
+        this.root = root;
+        this.routes = routes;
+    }
+
+    public static RouteTable compile(Iterable<Route> routes) {
+        final Map<String, Entry[]> exact = new HashMap<>();
+        final Node root = new Node();
+        final List<Route> sources = new ArrayList<>();
+        int index = 0;
+        for (Route route : routes) {
+            sources.add(route);
+            final Entry entry = new Entry(route, index++);
+            if (entry.isWildcard()) {
+                Node node = root;
+                for (String part : entry.parts) {
+                    if (part.contains("*")) {
+                        break;
+                    }
+                    node = node.child(part);
+                }
+                node.wildcards = append(node.wildcards, entry);
+            } else {
+                exact.put(entry.path, append(exact.getOrDefault(entry.path, NONE), entry));
+            }
+        }
+        return new RouteTable(exact, root, sources.toArray(new Route[0]));
+    }
+
+    private static Entry[] append(Entry[] entries, Entry entry) {
+        final Entry[] result = new Entry[entries.length + 1];
+        System.arraycopy(entries, 0, result, 0, entries.length);
+        result[entries.length] = entry;
+        return result;
+    }
+
+    /**
+     * @return The number of routes this table was compiled from.
+     */
+    public int size() {
+        return routes.length;
+    }
+
+    /**
+     * @return true if the given routes are the very routes, in the same order, that this table was compiled from;
+     * false once any route is added, removed, replaced or moved.
+     * Routes edited in place are not noticed; compile a new table for those.
+     */
+    public boolean isCompiledFrom(Iterable<Route> routes) {
+        int index = 0;
+        for (Route route : routes) {
+            if (index == this.routes.length || this.routes[index++] != route) {
+                return false;
+            }
+        }
+        return index == this.routes.length;
+    }
+
+    /**
+     * @return Every route which matches the given url, best match first.
+     */
+    public Entry[] match(String url) {
+        final Entry[] exactMatches = exact.getOrDefault(url, NONE);
+        final String[] yourParts = url.split("/");
+        List<Entry> found = null;
+        List<Integer> keys = null;
+        Node node = root;
+        int depth = 0;
+        while (node != null) {
+            for (Entry candidate : node.wildcards) {
+                final double match = candidate.score(url, yourParts);
+                if (match > 0) {
+                    if (found == null) {
+                        found = new ArrayList<>();
+                        keys = new ArrayList<>();
+                    }
+                    // rank by the same int key we used to, so near-equal scores still tie the same way
+                    final int key = -(int)((Integer.MAX_VALUE) * match);
+                    int at = found.size();
+                    while (at > 0 && (keys.get(at - 1) > key
+                        || (keys.get(at - 1) == key && found.get(at - 1).index > candidate.index))) {
+                        at--;
+                    }
+                    found.add(at, candidate);
+                    keys.add(at, key);
+                }
+            }
+            node = depth < yourParts.length ? node.children.get(yourParts[depth++]) : null;
+        }
+        if (found == null) {
+            return exactMatches;
+        }
+        // exact matches score 1; merge them in ahead of any wildcard that is not also an exact match
+        final Entry[] result = new Entry[exactMatches.length + found.size()];
+        int e = 0, w = 0, r = 0;
+        final int best = -Integer.MAX_VALUE;
+        while (e < exactMatches.length && w < found.size()) {
+            if (keys.get(w) == best && found.get(w).index < exactMatches[e].index) {
+                result[r++] = found.get(w++);
+            } else {
+                result[r++] = exactMatches[e++];
+            }
+        }
+        while (e < exactMatches.length) {
+            result[r++] = exactMatches[e++];
+        }
+        while (w < found.size()) {
+            result[r++] = found.get(w++);
+        }
+        return result;
+    }
+}
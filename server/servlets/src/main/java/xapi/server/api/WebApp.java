@@ -116,6 +116,29 @@ public interface WebApp extends Model {
 
     String getContentRoot();
 
+    /**
+     * @return The Cache-Control header to send with static files from the content root.
+     * When null, files are sent with no-cache, so browsers revalidate them (cheaply, via ETag).
+     */
+    String getCacheControl();
+
+    WebApp setCacheControl(String cacheControl);
+
+    /**
+     * @return The Cache-Control header for the static file at the given path.
+     * Gwt's .nocache. files must always be revalidated, and its .cache. files never change.
+     */
+    default String cacheControl(String path) {
+        if (path.contains(".nocache.")) {
+            return "no-cache";
+        }
+        if (path.contains(".cache.")) {
+            return "public, max-age=31536000, immutable";
+        }
+        final String cacheControl = getCacheControl();
+        return isEmptyTrimmed(cacheControl) ? "no-cache" : cacheControl;
+    }
+
     String getInstanceId();
 
     /**
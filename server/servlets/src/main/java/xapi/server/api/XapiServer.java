@@ -7,6 +7,7 @@ import xapi.scope.request.RequestScope;
 import xapi.scope.request.SessionScope;
 import xapi.scope.spi.RequestContext;
 import xapi.scope.spi.RequestLike;
+import xapi.source.write.CompiledTemplate;
 
 import java.util.concurrent.locks.LockSupport;
 
@@ -35,6 +36,14 @@ public interface XapiServer <Request extends RequestScope> {
 
     void writeTemplate(Request request, String payload, In2<Request, Throwable>  callback);
 
+    /**
+     * Render a template which was compiled ahead of time (once per route).
+     * Servers which can render templates without reparsing them should override this.
+     */
+    default void writeTemplate(Request request, CompiledTemplate template, In2<Request, Throwable>  callback) {
+        writeTemplate(request, template.getSource(), callback);
+    }
+
     void writeGwtJs(Request request, String payload, In2<Request, Throwable>  callback);
 
     void writeCallback(Request request, String payload, In2<Request, Throwable>  callback);
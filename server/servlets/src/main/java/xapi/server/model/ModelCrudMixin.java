@@ -5,6 +5,7 @@ import xapi.fu.In1Out1;
 import xapi.fu.In2.In2Unsafe;
 import xapi.fu.Mutable;
 import xapi.fu.Out1;
+import xapi.jre.model.AbstractJreModelService;
 import xapi.jre.model.ModelServiceJre;
 import xapi.log.X_Log;
 import xapi.model.X_Model;
@@ -18,7 +19,10 @@ import xapi.util.api.RemovalHandler;
 import xapi.util.api.SuccessHandler;
 
 import java.io.InputStream;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static xapi.time.X_Time.print;
 
@@ -135,12 +139,142 @@ public interface ModelCrudMixin {
         }
     }
 
+    /**
+     * Run a query, writing the serialized result in chunks as the model service reads each model,
+     * instead of waiting for the whole page; the bytes written are the same as {@link ModelQueryResult#serialize}.
+     * <p>
+     * The first chunk is the result's header (cursor and size); each following chunk is one model.
+     * Chunks are written on the model service's thread, which reads the next model only once a write returns,
+     * so a slow client slows the query down rather than filling the heap.
+     * We give up if no model arrives for 35s.
+     */
+    default void performQueryStream(final ModelService service, final PrimitiveSerializer primitives,
+                                    final String kind, final CharIterator queryString,
+                                    final In1Unsafe<CharSequence> chunks,
+                                    final In1Unsafe<ModelQuery> success,
+                                    final In1Unsafe<Throwable> failure
+    ) {
+        final ModelQuery query = ModelQuery.deserialize(service, primitives, queryString);
+        final Class modelClass = "".equals(kind) ? Model.class : service.typeToClass(kind);
+        final Mutable<Boolean> wait = new Mutable<>();
+        final AtomicInteger progress = new AtomicInteger();
+        // set once by whichever ends the response first: completion, an error, or our timeout
+        final AtomicBoolean finished = new AtomicBoolean();
+        final StringBuilder chunk = new StringBuilder();
+        final ModelQuerySink<Model> sink = new ModelQuerySink<Model>() {
+            @Override
+            public void onStart(String cursor, int size) {
+                ModelQueryResult.writeHeader(chunk, primitives, cursor, size);
+                send();
+            }
+
+            @Override
+            @SuppressWarnings("unchecked")
+            public void onModel(Model model) {
+                ModelQueryResult.writeModel(chunk, service, primitives, modelClass, model);
+                send();
+            }
+
+            private void send() {
+                // chunks are only written under this lock, so once we time out, nothing more reaches the response
+                synchronized (chunk) {
+                    if (finished.get()) {
+                        // throwing stops the query, rather than reading models nobody will receive
+                        throw new CancellationException("Query " + query + " timed out");
+                    }
+                    chunks.in(chunk);
+                    chunk.setLength(0);
+                    progress.incrementAndGet();
+                }
+            }
+
+            @Override
+            public void onComplete() {
+                if (!finished.compareAndSet(false, true)) {
+                    return;
+                }
+                try {
+                    success.in(query);
+                    wait.set(true);
+                } catch (final Exception e) {
+                    X_Log.error(ModelCrudMixin.class, "Query streamed successfully", query,
+                        "but user's callback produced error ", e);
+                } finally {
+                    wait.setIfNull(Out1.FALSE);
+                }
+            }
+
+            @Override
+            public void onError(Throwable error) {
+                if (!finished.compareAndSet(false, true)) {
+                    // we already timed out, and failed the response
+                    return;
+                }
+                X_Log.error(ModelCrudMixin.class, "Error streaming query", query, error);
+                failure.in(error);
+                wait.setIfNull(Out1.FALSE);
+            }
+        };
+
+        if (modelClass == Model.class) {
+            service.queryStream(query, sink);
+        } else {
+            service.queryStream(modelClass, query, sink);
+        }
+
+        int seen = -1;
+        while (wait.block(35_000) == null) {
+            final int now = progress.get();
+            if (now == seen) {
+                final boolean timedOut;
+                synchronized (chunk) {
+                    timedOut = finished.compareAndSet(false, true);
+                }
+                if (timedOut) {
+                    failure.in(new TimeoutException("Waited 35s for the next model of " + query));
+                    return;
+                }
+                // the query finished just now; its own callback answers the response
+            }
+            seen = now;
+        }
+    }
+
+    /**
+     * @return true if the client asked for the given wire format, and both our model service
+     * and the client's ModelModule support it.
+     */
+    default boolean isBinaryFormat(String moduleName, String requestedFormat) {
+        if (!ModelModule.WIRE_FORMAT_BINARY.equalsIgnoreCase(X_String.firstNotEmpty(requestedFormat, ""))) {
+            return false;
+        }
+        if (!(getService() instanceof AbstractJreModelService)) {
+            return false;
+        }
+        final ModelModule module = ModelModuleLoader.get().loadModule(findManifest(moduleName), moduleName);
+        return module.supportsWireFormat(ModelModule.WIRE_FORMAT_BINARY);
+    }
+
     default void performPost(String moduleName, String type,
                              Out1<String> loader,
                              In2Unsafe<ModelManifest, Model> success,
                              In1Unsafe<Throwable> failure) {
-
+        // read the body before we take the module lock
         final String asString = loader.out1();
+        performPost(moduleName, type, manifest -> X_Model.deserialize(manifest, asString), () -> asString, success, failure);
+    }
+
+    /**
+     * Persist a model, using the supplied decoder to read it in the client's wire format.
+     *
+     * @param describe Describes the request body in error messages.
+     */
+    default void performPost(String moduleName, String type,
+                             In1Out1<ModelManifest, Model> decoder,
+                             Out1<String> describe,
+                             In2Unsafe<ModelManifest, Model> success,
+                             In1Unsafe<Throwable> failure) {
+
         final ModelModule module = ModelModuleLoader.get().loadModule(findManifest(moduleName), moduleName);
         final RemovalHandler handler = ModelServiceJre.registerModule(module);
         try {
@@ -152,7 +286,7 @@ public interface ModelCrudMixin {
             final ModelManifest manifest = meta;
             final Model model;
             try {
-                model = X_Model.deserialize(meta, asString);
+                model = decoder.io(meta);
             } catch (final Throwable e) {
                 String moduleText, manifestText;
                 try {
@@ -165,7 +299,7 @@ public interface ModelCrudMixin {
                 } catch (final Throwable e1) {
                     manifestText = String.valueOf(meta);
                 }
-                X_Log.error(ModelCrudMixin.class, "Error trying to deserialize model; ",e,"source: ","|"+asString+"|"
+                X_Log.error(ModelCrudMixin.class, "Error trying to deserialize model; ",e,"source: ","|"+describe.out1()+"|"
                     , "\nManifest: ","|"+manifestText+"|"
                     , "\nModule: ","|"+moduleText+"|");
                 failure.in(e);
@@ -193,7 +327,7 @@ public interface ModelCrudMixin {
 
             final Boolean result = wait.block(12_500);
             if (result == null) {
-                failure.in(new TimeoutException("Waited 12.5s to save model " + asString));
+                failure.in(new TimeoutException("Waited 12.5s to save model " + describe.out1()));
             }
         } finally {
             handler.remove();
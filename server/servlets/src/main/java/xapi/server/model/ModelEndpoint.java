@@ -86,15 +86,18 @@ public class ModelEndpoint <Req extends RequestScope<?, ?>> implements CrudEndpo
             kind = primitives.deserializeString(new StringCharIterator(kind));
             final CharIterator ident = new StringCharIterator(keySections[keySections.length-1]);
 
-            performQuery(service, primitives, kind, ident, (query, result)->{
-                final String serialized = result.serialize(service, primitives);
-                resp.buildRawResponse().append(serialized);
+            performQueryStream(service, primitives, kind, ident, chunk->{
+                if (!resp.writeChunk(chunk)) {
+                    // stops the query; no sense reading models nobody will receive
+                    throw new IllegalStateException("Client closed the response to " + uri);
+                }
+            }, query->{
                 succeeded.useThenSet(was->{
                     if (was == null) {
                         // first one in notifies caller
                         callback.in(scope, null);
                     } else {
-                        X_Log.warn(ModelEndpoint.class, "Model load succeeded,\n", result.getModelList(),
+                        X_Log.warn(ModelEndpoint.class, "Model query succeeded,\n", query,
                             "\nbut request already " + (was ? "completed once (check for incorrect recursion)" : "timed out / failed (check logs)"));
                     }
                 }, true);
@@ -4,6 +4,7 @@
 package xapi.server.model;
 
 import xapi.collect.X_Collect;
+import xapi.constants.X_Namespace;
 import xapi.collect.api.StringTo;
 import xapi.fu.In1Out1;
 import xapi.fu.In1Out1.In1Out1Unsafe;
@@ -13,6 +14,7 @@ import xapi.model.X_Model;
 import xapi.model.api.ModelModule;
 import xapi.model.service.ModelService;
 import xapi.model.tools.ModelSerializerDefault;
+import xapi.prop.X_Properties;
 import xapi.source.lex.CharIterator;
 import xapi.source.lex.StringCharIterator;
 import xapi.time.X_Time;
@@ -35,7 +37,16 @@ public class ModelModuleLoader {
           ){
             final CharIterator policy = new StringCharIterator(X_IO.toStringUtf8(512, stream));
             final ModelService modelService = X_Model.getService();
-            return  ModelSerializerDefault.deserialize(policy, modelService.primitiveSerializer());
+            final ModelModule module = ModelSerializerDefault.deserialize(policy, modelService.primitiveSerializer());
+            final String formats = X_Properties.getProperty(X_Namespace.PROPERTY_MODEL_WIRE_FORMATS);
+            if (formats != null) {
+              for (String format : formats.split(",")) {
+                if (!format.trim().isEmpty()) {
+                  module.addWireFormat(format.trim());
+                }
+              }
+            }
+            return module;
           } catch (final Throwable e) {
             throw X_Debug.rethrow(e);
           }
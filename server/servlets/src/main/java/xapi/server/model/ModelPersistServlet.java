@@ -3,15 +3,25 @@
  */
 package xapi.server.model;
 
+import xapi.dev.source.CharBuffer;
 import xapi.fu.In1Out1;
 import xapi.fu.In1Out1.In1Out1Unsafe;
 import xapi.fu.In2Out1;
 import xapi.fu.Out1;
 import xapi.io.X_IO;
+import xapi.jre.model.AbstractJreModelService;
+import xapi.jre.model.ModelSerializerBinary;
 import xapi.log.X_Log;
 import xapi.model.X_Model;
+import xapi.model.api.Model;
+import xapi.model.api.ModelManifest;
+import xapi.model.api.ModelModule;
 import xapi.model.api.PrimitiveSerializer;
+import xapi.model.impl.AbstractModelService;
 import xapi.model.service.ModelService;
+import xapi.model.tools.ClusteringPrimitiveDeserializer;
+import xapi.model.tools.ClusteringPrimitiveSerializer;
+import xapi.model.tools.ClusteringStringPool;
 import xapi.source.lex.CharIterator;
 import xapi.source.lex.StringCharIterator;
 import xapi.prop.X_Properties;
@@ -26,7 +36,12 @@ import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.net.URLDecoder;
+import java.nio.ByteBuffer;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 /**
  * @author James X. Nelson (james@wetheinter.net, @james)
@@ -35,7 +50,34 @@ import java.net.URLDecoder;
 public class ModelPersistServlet extends HttpServlet implements ModelCrudMixin {
 
   private static final long serialVersionUID = -8873779568305155795L;
+  /**
+   * Clients send "binary" in this header to receive models in {@link ModelSerializerBinary} format.
+   * Clients may also post binary models, with a content type of {@link ModelSerializerBinary#CONTENT_TYPE}.
+   * Both only work when the client's ModelModule supports the binary wire format.
+   */
+  public static final String HEADER_FORMAT = "X-Model-Format";
+  /**
+   * Clients send an id of their choosing in this header to pool strings (type names and keys) across requests;
+   * the text bodies of such requests and responses are written through a {@link ClusteringStringPool}.
+   * Pools belong to the client's http session: the id only tells apart the pools of one session,
+   * so a client cannot reach another session's pool by sending its id.
+   */
+  public static final String HEADER_POOL = "X-Model-Pool";
+  /**
+   * Sent by both sides of a pooled exchange: the highest pooled string id received from the other side
+   * (see {@link ClusteringStringPool#getReceivedThrough()}).
+   */
+  public static final String HEADER_POOL_ACK = "X-Model-Pool-Ack";
+  private static final int MAX_POOLS = 1024;
+
   protected ServletContext context;
+  private final Map<String, ClusteringStringPool> pools = new LinkedHashMap<String, ClusteringStringPool>(16, 0.75f, true) {
+    @Override
+    protected boolean removeEldestEntry(final Map.Entry<String, ClusteringStringPool> eldest) {
+      // a client whose pool we forget will fail its next request, and start a new pool
+      return size() > MAX_POOLS;
+    }
+  };
 
   /**
    * @see javax.servlet.GenericServlet#init(javax.servlet.ServletConfig)
@@ -80,19 +122,45 @@ public class ModelPersistServlet extends HttpServlet implements ModelCrudMixin {
       kind = primitives.deserializeString(new StringCharIterator(kind));
       final CharIterator ident = new StringCharIterator(keySections[keySections.length-1]);
 
-      performQuery(service, primitives, kind, ident, (query, result)->{
-        final String serialized = result.serialize(service, primitives);
-        X_IO.drain(resp.getOutputStream(), X_IO.toStream(serialized, encoding));
-      }, failure->{
+      // models are written as they are read, so the client gets the first one without waiting for the whole page
+      final Writer out = new OutputStreamWriter(resp.getOutputStream(), encoding);
+      performQueryStream(service, primitives, kind, ident, chunk->{
+        // flush every model, or it waits in the writer's buffer until the page is done
+        out.append(chunk);
+        out.flush();
+      }, query->
+        out.flush()
+      , failure->{
         X_Log.error(ModelPersistServlet.class, "Failed to query", uri, failure);
-        resp.sendError(500, "Unable to query " + uri + ": " + failure);
+        if (resp.isCommitted()) {
+          // too late for an error status; the client will see a truncated result
+          out.close();
+        } else {
+          resp.sendError(500, "Unable to query " + uri + ": " + failure);
+        }
       });
 
       return;
     }
     final String type = req.getHeader("X-Model-Type");
+    final boolean binary = isBinaryFormat(moduleName, req.getHeader(HEADER_FORMAT));
+    final ClusteringStringPool pool;
+    try {
+      pool = binary ? null : poolFor(req);
+    } catch (final NumberFormatException e) {
+      resp.sendError(400, "Invalid " + HEADER_POOL_ACK + ": " + req.getHeader(HEADER_POOL_ACK));
+      return;
+    }
 
     performGet(moduleName, uri, type, (manifest, model) -> {
+      if (binary) {
+        writeBinary(resp, manifest, model);
+        return;
+      }
+      if (pool != null) {
+        writePooled(resp, pool, manifest, model, encoding);
+        return;
+      }
       final String serialized = X_Model.serialize(manifest, model);
       final OutputStream out = resp.getOutputStream();
       X_IO.drain(out, X_IO.toStream(serialized, encoding));
@@ -106,9 +174,53 @@ public class ModelPersistServlet extends HttpServlet implements ModelCrudMixin {
   @Override
   protected void doPost(final HttpServletRequest req, final HttpServletResponse resp) throws ServletException, IOException {
     final String encoding = X_String.firstNotEmpty(req.getCharacterEncoding(), "UTF-8");
-    Out1<String> loader = In2Out1.unsafe(X_IO::toStringEncoded).supply1(req.getInputStream()).supply(encoding).lazy();
     final String type = req.getHeader("X-Model-Type");
     final String moduleName = req.getHeader("X-Gwt-Module");
+    final String contentType = req.getContentType();
+    if (contentType != null && contentType.startsWith(ModelSerializerBinary.CONTENT_TYPE)
+        && isBinaryFormat(moduleName, ModelModule.WIRE_FORMAT_BINARY)) {
+      final byte[] body = X_IO.toByteArray(req.getInputStream());
+      final AbstractJreModelService service = (AbstractJreModelService) getService();
+      ModelCrudMixin.super.performPost(moduleName, type,
+          manifest -> service.deserializeBinary(manifest, ByteBuffer.wrap(body)),
+          () -> body.length + " bytes of " + ModelSerializerBinary.CONTENT_TYPE,
+          (manifest, model) -> writeBinary(resp, manifest, model),
+          failure -> {
+            X_Log.error(ModelPersistServlet.class, "Failed to save binary", type, failure);
+            resp.sendError(500, "Unable to save " + type + ": " + failure);
+          });
+      return;
+    }
+    Out1<String> loader = In2Out1.unsafe(X_IO::toStringEncoded).supply1(req.getInputStream()).supply(encoding).lazy();
+    final ClusteringStringPool pool;
+    try {
+      pool = poolFor(req);
+    } catch (final NumberFormatException e) {
+      resp.sendError(400, "Invalid " + HEADER_POOL_ACK + ": " + req.getHeader(HEADER_POOL_ACK));
+      return;
+    }
+    if (pool != null) {
+      final String body = loader.out1();
+      final AbstractModelService service = (AbstractModelService) getService();
+      ModelCrudMixin.super.performPost(moduleName, type,
+          manifest -> {
+            final CharIterator chars = new StringCharIterator(body);
+            try {
+              return service.deserialize(manifest, chars, new ClusteringPrimitiveDeserializer(service.primitiveSerializer(), chars, pool));
+            } catch (final IllegalStateException e) {
+              // out of sync with the client; it must start a new pool
+              forgetPool(poolKey(req));
+              throw e;
+            }
+          },
+          () -> body,
+          (manifest, model) -> writePooled(resp, pool, manifest, model, "UTF-8"),
+          failure -> {
+            X_Log.error(ModelPersistServlet.class, "Failed to save pooled", type, failure);
+            resp.sendError(500, "Unable to save " + type + ": " + failure);
+          });
+      return;
+    }
 
     ModelCrudMixin.super.performPost(moduleName, type, loader, (manifest, model)->{
       final String serialized = X_Model.serialize(manifest, model);
@@ -118,4 +230,68 @@ public class ModelPersistServlet extends HttpServlet implements ModelCrudMixin {
       resp.sendError(500, "Unable to save " + loader.out1() + failure);
     });
   }
+
+  /**
+   * @return the string pool named by the request's {@link #HEADER_POOL} in the request's session,
+   * after recording its acknowledgement; or null if the client did not ask to pool strings, or our model service can't.
+   * @throws NumberFormatException if the request's {@link #HEADER_POOL_ACK} is not a number.
+   */
+  protected ClusteringStringPool poolFor(final HttpServletRequest req) {
+    if (!(getService() instanceof AbstractModelService)) {
+      return null;
+    }
+    final String key = poolKey(req);
+    if (key == null) {
+      return null;
+    }
+    final String ack = req.getHeader(HEADER_POOL_ACK);
+    final int acknowledged = X_String.isEmpty(ack) ? -1 : Integer.parseInt(ack.trim());
+    final ClusteringStringPool pool;
+    synchronized (pools) {
+      pool = pools.computeIfAbsent(key, ignored -> newPool());
+    }
+    if (acknowledged != -1) {
+      pool.acknowledge(acknowledged);
+    }
+    return pool;
+  }
+
+  /**
+   * @return the key of the request's pool: the server-issued session id plus the client's {@link #HEADER_POOL};
+   * or null if the client did not ask to pool strings.
+   */
+  protected String poolKey(final HttpServletRequest req) {
+    final String id = req.getHeader(HEADER_POOL);
+    if (X_String.isEmpty(id)) {
+      return null;
+    }
+    return req.getSession(true).getId() + "/" + id;
+  }
+
+  protected ClusteringStringPool newPool() {
+    final ClusteringStringPool pool = new ClusteringStringPool();
+    // http responses can be lost; only reuse strings the client has acknowledged
+    pool.setAutoAcknowledge(false);
+    return pool;
+  }
+
+  protected void forgetPool(final String id) {
+    synchronized (pools) {
+      pools.remove(id);
+    }
+  }
+
+  protected void writePooled(final HttpServletResponse resp, final ClusteringStringPool pool, final ModelManifest manifest, final Model model, final String encoding) throws IOException {
+    final AbstractModelService service = (AbstractModelService) getService();
+    final CharBuffer out = new CharBuffer();
+    final ClusteringPrimitiveSerializer primitives = new ClusteringPrimitiveSerializer(service.primitiveSerializer(), out, pool);
+    service.serialize(manifest, model, out, primitives);
+    resp.setHeader(HEADER_POOL_ACK, Integer.toString(pool.getReceivedThrough()));
+    X_IO.drain(resp.getOutputStream(), X_IO.toStream(out.toSource(), encoding));
+  }
+
+  protected void writeBinary(final HttpServletResponse resp, final ModelManifest manifest, final Model model) throws IOException {
+    resp.setContentType(ModelSerializerBinary.CONTENT_TYPE);
+    ((AbstractJreModelService) getService()).serializeBinary(manifest, model, resp.getOutputStream());
+  }
 }
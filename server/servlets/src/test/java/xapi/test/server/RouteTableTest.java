@@ -0,0 +1,179 @@
+package xapi.test.server;
+
+import org.junit.Assume;
+import org.junit.Test;
+import xapi.constants.X_Namespace;
+import xapi.log.X_Log;
+import xapi.model.X_Model;
+import xapi.server.api.Route;
+import xapi.server.api.Route.RouteType;
+import xapi.server.api.RouteTable;
+import xapi.server.api.RouteTable.Entry;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class RouteTableTest {
+
+    private static Route route(String path) {
+        final Route route = X_Model.create(Route.class);
+        route.setPath(path);
+        route.setRouteType(RouteType.Text);
+        route.setPayload(path);
+        return route;
+    }
+
+    /**
+     * The order that scoring every route would have given us.
+     */
+    private static Route[] linear(List<Route> routes, String url) {
+        final TreeMap<Integer, List<Route>> scores = new TreeMap<>();
+        for (Route route : routes) {
+            final double match = route.matches(url);
+            if (match > 0) {
+                scores.computeIfAbsent(-(int)((Integer.MAX_VALUE) * match), k -> new ArrayList<>()).add(route);
+            }
+        }
+        final List<Route> result = new ArrayList<>();
+        scores.values().forEach(result::addAll);
+        return result.toArray(new Route[0]);
+    }
+
+    private static Route[] routes(Entry[] entries) {
+        final Route[] result = new Route[entries.length];
+        for (int i = 0; i < entries.length; i++) {
+            result[i] = entries[i].getRoute();
+        }
+        return result;
+    }
+
+    @Test
+    public void testExactBeatsWildcard() {
+        final Route any = route("/hello/*");
+        final Route world = route("/hello/world");
+        final Route deep = route("/hello/**");
+        final List<Route> routes = new ArrayList<>();
+        routes.add(any);
+        routes.add(world);
+        routes.add(deep);
+        final RouteTable table = RouteTable.compile(routes);
+
+        assertArrayEquals(new Route[]{world, any, deep}, routes(table.match("/hello/world")));
+        assertArrayEquals(new Route[]{any, deep}, routes(table.match("/hello/there")));
+        assertArrayEquals(new Route[]{deep}, routes(table.match("/hello")));
+        assertEquals(0, table.match("/goodbye").length);
+        assertEquals(RouteType.Text, table.match("/hello/world")[0].getType());
+        assertEquals("/hello/world", table.match("/hello/world")[0].getPayload());
+    }
+
+    @Test
+    public void testSameOrderAsScoring() {
+        final List<Route> routes = new ArrayList<>();
+        final String[] patterns = {
+            "/a", "/a/b", "/a/*", "/a/*/c", "/a/b/*", "/a/**", "/a/**/c", "/*.js",
+            "/a/b*", "/*/b", "/**", "/a/b/c", "a/b", "/a/*", "/x/*/y/*", "/x/**/z"
+        };
+        for (String pattern : patterns) {
+            routes.add(route(pattern));
+        }
+        final RouteTable table = RouteTable.compile(routes);
+        final String[] urls = {
+            "/a", "/a/b", "/a/c", "/a/b/c", "/a/q/c", "/a/b/c/d", "/app.js", "/a/bee", "/q/b",
+            "a/b", "/x/1/y/2", "/x/1/2/z", "/x", "", "/", "/a/", "/nope"
+        };
+        for (String url : urls) {
+            assertArrayEquals(url, linear(routes, url), routes(table.match(url)));
+        }
+    }
+
+    @Test
+    public void testReplacedOrMovedRoutesAreNoticed() {
+        final List<Route> routes = new ArrayList<>();
+        routes.add(route("/a"));
+        routes.add(route("/b"));
+        final RouteTable table = RouteTable.compile(routes);
+        assertTrue(table.isCompiledFrom(routes));
+
+        final List<Route> replaced = new ArrayList<>(routes);
+        replaced.set(1, route("/b"));
+        assertFalse(table.isCompiledFrom(replaced));
+
+        final List<Route> moved = new ArrayList<>(routes);
+        moved.add(moved.remove(0));
+        assertFalse(table.isCompiledFrom(moved));
+
+        final List<Route> added = new ArrayList<>(routes);
+        added.add(route("/c"));
+        assertFalse(table.isCompiledFrom(added));
+        assertFalse(table.isCompiledFrom(routes.subList(0, 1)));
+    }
+
+    @Test
+    public void benchmarkHundredsOfRoutes() {
+        Assume.assumeTrue("Run with -D" + X_Namespace.PROPERTY_BENCHMARK + "=true", Boolean.getBoolean(X_Namespace.PROPERTY_BENCHMARK));
+        final Random random = new Random(42);
+        final List<Route> routes = new ArrayList<>();
+        final List<String> urls = new ArrayList<>();
+        for (int app = 0; app < 40; app++) {
+            for (int page = 0; page < 10; page++) {
+                routes.add(route("/app" + app + "/page" + page));
+                urls.add("/app" + app + "/page" + page);
+            }
+            routes.add(route("/app" + app + "/static/*"));
+            routes.add(route("/app" + app + "/api/**"));
+            urls.add("/app" + app + "/static/file" + app + ".css");
+            urls.add("/app" + app + "/api/v1/users/" + app);
+        }
+        routes.add(route("/**"));
+        urls.add("/nowhere/at/all");
+        final String[] requests = new String[2_000];
+        for (int i = 0; i < requests.length; i++) {
+            requests[i] = urls.get(random.nextInt(urls.size()));
+        }
+        final RouteTable table = RouteTable.compile(routes);
+        for (String url : urls) {
+            assertArrayEquals(url, linear(routes, url), routes(table.match(url)));
+        }
+
+        // warm up, then measure; linear scoring is slow enough that a tenth of the requests will do
+        int found = 0;
+        for (int i = 0; i < 10; i++) {
+            found += matchAll(table, requests);
+        }
+        final String[] fewer = new String[requests.length / 10];
+        System.arraycopy(requests, 0, fewer, 0, fewer.length);
+        long start = System.nanoTime();
+        found += scoreAll(routes, fewer);
+        final long linearNanos = (System.nanoTime() - start) / fewer.length;
+        start = System.nanoTime();
+        found += matchAll(table, requests);
+        final long tableNanos = (System.nanoTime() - start) / requests.length;
+
+        X_Log.info(RouteTableTest.class, routes.size(), "routes; linear:", linearNanos, "ns per request, table:",
+            tableNanos, "ns per request (", TimeUnit.SECONDS.toNanos(1) / Math.max(1, tableNanos), "requests/s)", found);
+    }
+
+    private static int scoreAll(List<Route> routes, String[] requests) {
+        int found = 0;
+        for (String request : requests) {
+            found += linear(routes, request).length;
+        }
+        return found;
+    }
+
+    private static int matchAll(RouteTable table, String[] requests) {
+        int found = 0;
+        for (String request : requests) {
+            found += table.match(request).length;
+        }
+        return found;
+    }
+}
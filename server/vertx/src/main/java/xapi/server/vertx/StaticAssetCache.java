@@ -0,0 +1,383 @@
+package xapi.server.vertx;
+
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.http.impl.MimeMapping;
+import xapi.fu.Out1;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Everything {@link XapiVertxServer} needs to serve a static file, computed once per file rather than once per request.
+ * <p>
+ * Each file gets a strong ETag, from a hash of its contents.
+ * Small files are held in memory as {@link Buffer}s, in an LRU cache bounded by total bytes,
+ * along with a gzipped copy if they are text and worth compressing.
+ * Precompressed siblings on disk (file.br, file.gz) are preferred, when they are at least as new as the file
+ * (they are looked for whenever the file is loaded);
+ * they are the only way to serve brotli, as the jre has no brotli encoder.
+ * <p>
+ * Files are only looked at again (one stat) once recheckMillis has passed since they were last checked.
+ * <p>
+ * {@link #get(File)} reads, hashes and compresses a new or changed file, so must not be called on an event loop;
+ * {@link #getIfFresh(File)} never reads a file, so an event loop can try it first.
+ */
+public class StaticAssetCache {
+
+    public static final String GZIP = "gzip";
+    public static final String BROTLI = "br";
+
+    /**
+     * One encoding of an {@link Asset}; either the bytes to send, or the file to send.
+     */
+    public static final class Variant {
+        private final String encoding;
+        private final String etag;
+        private final Buffer body;
+        private final File file;
+
+        private Variant(String encoding, String etag, Buffer body, File file) {
+            this.encoding = encoding;
+            this.etag = etag;
+            this.body = body;
+            this.file = file;
+        }
+
+        /**
+         * @return The Content-Encoding of this variant, or null for the file as-is.
+         */
+        public String getEncoding() {
+            return encoding;
+        }
+
+        public String getEtag() {
+            return etag;
+        }
+
+        /**
+         * @return The bytes to send, or null if this variant should be sent from {@link #getFile()}.
+         */
+        public Buffer getBody() {
+            return body;
+        }
+
+        public File getFile() {
+            return file;
+        }
+    }
+
+    public static final class Asset {
+        private final File file;
+        private final long modified;
+        private final long length;
+        private final String hash;
+        private final String contentType;
+        private final Buffer identity;
+        private final Buffer gzip;
+        private final File gzipFile;
+        private final File brotliFile;
+        private volatile long checked;
+
+        private Asset(File file, long modified, long length, String hash, String contentType,
+                      Buffer identity, Buffer gzip, File gzipFile, File brotliFile, long checked) {
+            this.file = file;
+            this.modified = modified;
+            this.length = length;
+            this.hash = hash;
+            this.contentType = contentType;
+            this.identity = identity;
+            this.gzip = gzip;
+            this.gzipFile = gzipFile;
+            this.brotliFile = brotliFile;
+            this.checked = checked;
+        }
+
+        public String getContentType() {
+            return contentType;
+        }
+
+        public long getLastModified() {
+            return modified;
+        }
+
+        /**
+         * @return true if there is more than one encoding of this file, so responses should Vary on Accept-Encoding
+         */
+        public boolean hasEncodings() {
+            return gzip != null || gzipFile != null || brotliFile != null;
+        }
+
+        /**
+         * @param acceptEncoding The request's Accept-Encoding header, or null.
+         * @return The best variant of this file that the request accepts.
+         */
+        public Variant select(String acceptEncoding) {
+            if (acceptEncoding != null) {
+                if (brotliFile != null && accepts(acceptEncoding, BROTLI)) {
+                    return new Variant(BROTLI, etag(BROTLI), null, brotliFile);
+                }
+                if ((gzip != null || gzipFile != null) && accepts(acceptEncoding, GZIP)) {
+                    return new Variant(GZIP, etag(GZIP), gzip, gzip == null ? gzipFile : null);
+                }
+            }
+            return new Variant(null, etag(null), identity, identity == null ? file : null);
+        }
+
+        private String etag(String encoding) {
+            // each encoding is a different representation, so must have a different strong etag
+            return encoding == null ? "\"" + hash + "\"" : "\"" + hash + "-" + encoding + "\"";
+        }
+
+        private long weight() {
+            return (identity == null ? 0 : identity.length()) + (gzip == null ? 0 : gzip.length());
+        }
+    }
+
+    private final long maxBytes;
+    private final long maxFileSize;
+    private final long recheckMillis;
+    private final Map<String, File> resolved = new ConcurrentHashMap<>();
+    private final LinkedHashMap<String, Asset> assets = new LinkedHashMap<>(64, 0.75f, true);
+    private long bytes;
+
+    /**
+     * @param maxBytes The most bytes of file contents to hold in memory.
+     * @param maxFileSize Files larger than this are never held in memory; they are sent straight from disk.
+     * @param recheckMillis How long to trust a cached file before checking whether it has changed.
+     */
+    public StaticAssetCache(long maxBytes, long maxFileSize, long recheckMillis) {
+        this.maxBytes = maxBytes;
+        this.maxFileSize = Math.min(maxFileSize, maxBytes);
+        this.recheckMillis = recheckMillis;
+    }
+
+    /**
+     * Resolve a route payload to a file only once; only a file which exists is remembered.
+     */
+    public File resolve(String key, Out1<File> resolver) {
+        File file = resolved.get(key);
+        if (file == null) {
+            file = resolver.out1();
+            if (file != null && file.exists()) {
+                resolved.put(key, file);
+            }
+        }
+        return file;
+    }
+
+    /**
+     * @return The cached asset for the given file if it has not changed (costing at most one stat),
+     * or null if it must be loaded with {@link #get(File)}.
+     */
+    public Asset getIfFresh(File file) {
+        final Asset cached;
+        synchronized (assets) {
+            cached = assets.get(file.getPath());
+        }
+        if (cached == null) {
+            return null;
+        }
+        final long now = System.currentTimeMillis();
+        if (now - cached.checked < recheckMillis) {
+            return cached;
+        }
+        if (cached.modified == file.lastModified() && cached.length == file.length()) {
+            cached.checked = now;
+            return cached;
+        }
+        return null;
+    }
+
+    /**
+     * @return The cached asset for the given (existing, non-directory) file, loading it if it is new or has changed.
+     * Loading reads the whole file; call this from a worker thread, not an event loop.
+     */
+    public Asset get(File file) throws IOException {
+        final Asset cached = getIfFresh(file);
+        if (cached != null) {
+            return cached;
+        }
+        final String key = file.getPath();
+        final long now = System.currentTimeMillis();
+        final Asset loaded;
+        try {
+            loaded = load(file, now);
+        } catch (IOException e) {
+            // most likely deleted; don't keep serving the old copy
+            invalidate(file);
+            throw e;
+        }
+        synchronized (assets) {
+            final Asset was = assets.put(key, loaded);
+            if (was != null) {
+                bytes -= was.weight();
+            }
+            bytes += loaded.weight();
+            final Iterator<Asset> itr = assets.values().iterator();
+            while (bytes > maxBytes && itr.hasNext()) {
+                final Asset eldest = itr.next();
+                if (eldest == loaded) {
+                    break;
+                }
+                bytes -= eldest.weight();
+                itr.remove();
+            }
+        }
+        return loaded;
+    }
+
+    public void invalidate(File file) {
+        synchronized (assets) {
+            final Asset was = assets.remove(file.getPath());
+            if (was != null) {
+                bytes -= was.weight();
+            }
+        }
+        resolved.values().remove(file);
+    }
+
+    public long getCachedBytes() {
+        synchronized (assets) {
+            return bytes;
+        }
+    }
+
+    protected Asset load(File file, long now) throws IOException {
+        // read the stats first, so a write during our read makes us look again next time
+        final long modified = file.lastModified();
+        final long length = file.length();
+        final String contentType = MimeMapping.getMimeTypeForFilename(file.getName());
+        final MessageDigest digest = digest();
+        Buffer identity = null, gzip = null;
+        if (length <= maxFileSize) {
+            final byte[] contents = Files.readAllBytes(file.toPath());
+            digest.update(contents);
+            identity = Buffer.buffer(contents);
+            if (contents.length > 256 && isCompressible(contentType)) {
+                final byte[] zipped = gzip(contents);
+                // not worth a Vary header and a second copy if it barely shrinks
+                if (zipped.length < contents.length * 0.9) {
+                    gzip = Buffer.buffer(zipped);
+                }
+            }
+        } else {
+            final byte[] chunk = new byte[64 * 1024];
+            try (InputStream in = Files.newInputStream(file.toPath())) {
+                int read;
+                while ((read = in.read(chunk)) != -1) {
+                    digest.update(chunk, 0, read);
+                }
+            }
+        }
+        final String hash = Base64.getUrlEncoder().withoutPadding().encodeToString(shorten(digest.digest()));
+        return new Asset(file, modified, length, hash, contentType, identity, gzip,
+            gzip == null ? sibling(file, ".gz", modified) : null,
+            sibling(file, ".br", modified),
+            now);
+    }
+
+    protected boolean isCompressible(String contentType) {
+        if (contentType == null) {
+            return false;
+        }
+        return contentType.startsWith("text/")
+            || contentType.endsWith("javascript")
+            || contentType.endsWith("json")
+            || contentType.endsWith("xml");
+    }
+
+    private static File sibling(File file, String suffix, long modified) {
+        final File sibling = new File(file.getPath() + suffix);
+        return sibling.isFile() && sibling.lastModified() >= modified ? sibling : null;
+    }
+
+    private static byte[] gzip(byte[] contents) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream(contents.length / 3);
+        try (GZIPOutputStream zip = new GZIPOutputStream(out)) {
+            zip.write(contents);
+        }
+        return out.toByteArray();
+    }
+
+    private static byte[] shorten(byte[] hash) {
+        // 128 bits is plenty to tell versions of one file apart
+        final byte[] result = new byte[16];
+        System.arraycopy(hash, 0, result, 0, result.length);
+        return result;
+    }
+
+    private static MessageDigest digest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("Every jre must support SHA-256", e);
+        }
+    }
+
+    /**
+     * @return true if an If-None-Match header matches the given etag
+     * (using weak comparison, as If-None-Match requires).
+     */
+    public static boolean matches(String ifNoneMatch, String etag) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        for (String candidate : ifNoneMatch.split(",")) {
+            candidate = candidate.trim();
+            if (candidate.equals("*")) {
+                return true;
+            }
+            if (candidate.startsWith("W/")) {
+                candidate = candidate.substring(2);
+            }
+            if (candidate.equals(etag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return true if an Accept-Encoding header allows the given encoding (with a non-zero quality).
+     */
+    public static boolean accepts(String acceptEncoding, String encoding) {
+        boolean wildcard = false;
+        for (String item : acceptEncoding.split(",")) {
+            final int semi = item.indexOf(';');
+            final String name = (semi == -1 ? item : item.substring(0, semi)).trim();
+            final boolean allowed = semi == -1 || !isZero(item.substring(semi + 1));
+            if (name.equalsIgnoreCase(encoding)) {
+                return allowed;
+            }
+            if (name.equals("*")) {
+                wildcard = allowed;
+            }
+        }
+        return wildcard;
+    }
+
+    private static boolean isZero(String params) {
+        for (String param : params.split(";")) {
+            param = param.trim();
+            if (param.startsWith("q=")) {
+                try {
+                    return Double.parseDouble(param.substring(2).trim()) <= 0;
+                } catch (NumberFormatException e) {
+                    return false;
+                }
+            }
+        }
+        return false;
+    }
+}
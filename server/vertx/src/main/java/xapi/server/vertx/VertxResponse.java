@@ -1,5 +1,6 @@
 package xapi.server.vertx;
 
+import io.vertx.core.Context;
 import io.vertx.core.http.HttpServerResponse;
 import xapi.fu.*;
 import xapi.fu.data.ListLike;
@@ -17,6 +18,7 @@ public class VertxResponse extends AbstractResponse implements Destroyable {
 
     private HttpServerResponse response;
     private In2<String, Boolean> rerouter;
+    private boolean streaming;
 
     public VertxResponse(HttpServerResponse response) {
         this.response = response;
@@ -32,6 +34,10 @@ public class VertxResponse extends AbstractResponse implements Destroyable {
             X_Log.trace(VertxResponse.class, "Discarded response [[", discarded, "]] because user closed request");
             return "";
         }
+        if (streaming) {
+            // status and headers went out with the first chunk
+            return clearResponseBody();
+        }
         response.setStatusCode(getStatusCode());
         final MapLike<String, ListLike<String>> headers = getHeaders();
         final String body = clearResponseBody();
@@ -56,6 +62,48 @@ public class VertxResponse extends AbstractResponse implements Destroyable {
         return body;
     }
 
+    /**
+     * The first chunk switches the response to chunked encoding and sends the status and headers;
+     * anything already buffered in the body goes out ahead of it.
+     * <p>
+     * When called off the event loop, we wait for vert.x to drain its write queue before returning,
+     * so a slow client pushes back on whoever is producing the chunks.
+     */
+    @Override
+    public boolean writeChunk(CharSequence chunk) {
+        if (response.closed() || response.ended()) {
+            return false;
+        }
+        if (!streaming) {
+            streaming = true;
+            response.setChunked(true);
+            response.setStatusCode(getStatusCode());
+            for (Out2<String, ListLike<String>> header : getHeaders().forEachItem()) {
+                String name = header.out1();
+                if ("Content-Length".equalsIgnoreCase(name)) {
+                    continue;
+                }
+                for (String value : header.out2()) {
+                    response.putHeader(name, value);
+                }
+            }
+            final String buffered = clearResponseBody();
+            if (!X_String.isEmpty(buffered)) {
+                response.write(buffered);
+            }
+        }
+        response.write(chunk.toString());
+        if (response.writeQueueFull() && !Context.isOnEventLoopThread()) {
+            final Mutable<Boolean> drained = new Mutable<>();
+            response.drainHandler(ignored -> drained.set(true));
+            if (response.writeQueueFull() && drained.block(30_000) == null) {
+                // a client which reads nothing for 30s is as good as gone
+                return false;
+            }
+        }
+        return true;
+    }
+
     @Override
     protected void afterFinished() {
         if (isClosed()) {
@@ -99,7 +147,9 @@ public class VertxResponse extends AbstractResponse implements Destroyable {
     public ResponseLike finish() {
         super.finish();
         if (!response.ended() && !response.closed()) {
-            response.setStatusCode(getStatusCode());
+            if (!streaming) {
+                response.setStatusCode(getStatusCode());
+            }
             if (!calledPrepareToClose) {
                 String body = prepareToClose();
                 response.end(body);
@@ -149,6 +199,7 @@ public class VertxResponse extends AbstractResponse implements Destroyable {
     @Override
     public void reset() {
         calledPrepareToClose = false;
+        streaming = false;
         super.reset();
     }
 }
@@ -20,11 +20,8 @@ import io.vertx.ext.web.sstore.ClusteredSessionStore;
 import io.vertx.ext.web.sstore.LocalSessionStore;
 import io.vertx.ext.web.sstore.SessionStore;
 import xapi.annotation.model.IsModel;
-import xapi.collect.X_Collect;
-import xapi.collect.api.ClassTo;
 import xapi.collect.api.IntTo;
-import xapi.collect.api.IntTo.Many;
-import xapi.collect.api.StringTo;
+import xapi.constants.X_Namespace;
 import xapi.dev.gwtc.api.GwtcJob;
 import xapi.dev.gwtc.api.GwtcJobManager;
 import xapi.dev.gwtc.api.GwtcService;
@@ -40,7 +37,6 @@ import xapi.fu.data.MapLike;
 import xapi.fu.itr.Chain;
 import xapi.fu.itr.ChainBuilder;
 import xapi.fu.itr.SizedIterator;
-import xapi.fu.itr.MappedIterable;
 import xapi.gwtc.api.CompiledDirectory;
 import xapi.gwtc.api.GwtManifest;
 import xapi.inject.X_Inject;
@@ -57,6 +53,7 @@ import xapi.process.X_Process;
 import xapi.scope.X_Scope;
 import xapi.scope.api.HasRequestContext;
 import xapi.scope.api.Scope;
+import xapi.scope.request.RequestScope;
 import xapi.scope.request.SessionScope;
 import xapi.scope.service.ScopeService;
 import xapi.scope.spi.RequestContext;
@@ -64,10 +61,12 @@ import xapi.server.X_Server;
 import xapi.server.api.*;
 import xapi.server.api.Route.RouteType;
 import xapi.server.model.ModelSession;
+import xapi.server.vertx.StaticAssetCache.Asset;
+import xapi.server.vertx.StaticAssetCache.Variant;
 import xapi.server.vertx.scope.RequestScopeVertx;
 import xapi.server.vertx.scope.ScopeServiceVertx;
 import xapi.server.vertx.scope.SessionScopeVertx;
-import xapi.source.template.MappedTemplate;
+import xapi.source.write.CompiledTemplate;
 import xapi.time.X_Time;
 import xapi.time.api.Moment;
 import xapi.prop.X_Properties;
@@ -77,6 +76,7 @@ import xapi.util.api.ErrorHandler;
 import xapi.util.api.SuccessHandler;
 
 import java.io.File;
+import java.io.IOException;
 import java.io.InputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
@@ -84,10 +84,12 @@ import java.nio.file.Paths;
 import java.security.SecureRandom;
 import java.time.Duration;
 import java.time.temporal.ChronoUnit;
-import java.util.Iterator;
+import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.LockSupport;
 
@@ -110,6 +112,8 @@ public class XapiVertxServer extends AbstractXapiServer<RequestScopeVertx> {
     // This is only used in non-clustered mode, and would benefit from a persistent source
     // to ensure uniqueness and monotonicity across server starts.
     private static AtomicLong ts = new AtomicLong(System.nanoTime()/1024);
+    private static final int MAX_TEMPLATE_BUFFER = 64 * 1024;
+    private static final ThreadLocal<StringBuilder> TEMPLATE_BUFFER = ThreadLocal.withInitial(()->new StringBuilder(1024));
     private final WebApp webApp;
     private final PrimitiveSerializer primitives;
     private Vertx vertx;
@@ -126,6 +130,10 @@ public class XapiVertxServer extends AbstractXapiServer<RequestScopeVertx> {
     private final Lazy<Out1<String>> iidFactory;
     private Do onRelease;
     private Router router;
+    private final Lazy<StaticAssetCache> assets;
+    private volatile RouteTable routeTable;
+    private final Map<String, CompiledTemplate> templates = new ConcurrentHashMap<>();
+    private final Map<Class<?>, String> templateKeys = new ConcurrentHashMap<>();
 
     public XapiVertxServer(WebApp webApp) {
         this.webApp = webApp;
@@ -139,6 +147,7 @@ public class XapiVertxServer extends AbstractXapiServer<RequestScopeVertx> {
         iid = Lazy.deferBoth(webApp::getOrMakeInstanceId, iidFactory);
         random = Lazy.deferBoth(SecureRandom::new, ()->iid.out1().getBytes());
         onRelease = webApp.isDestroyable() ? webApp::destroy : Do.NOTHING;
+        assets = Lazy.deferred1(this::createAssetCache);
     }
 
     protected Out1<Out1<String>> initializeIidFactory(WebApp webApp) {
@@ -524,6 +533,9 @@ public class XapiVertxServer extends AbstractXapiServer<RequestScopeVertx> {
                 // for features that vertx either doesn't support, or is not (currently) worth the effort to delegate to.
                 initializeEndpoints(scope);
 
+                // whatever routes vertx did not take are matched by us; compile them once, up front
+                recompileRoutes();
+
                 router.route().handler(this::onRequest);
 
                 router.route().failureHandler(rc->{
@@ -729,43 +741,41 @@ public class XapiVertxServer extends AbstractXapiServer<RequestScopeVertx> {
         RequestScopeVertx request, In2<RequestScopeVertx, Throwable> callback
     ) {
             try {
-
-                final String path = request.getPath();
-                final WebApp app = getWebApp();
-
-                // TODO: compile routes into a trie which supports * and **
-                // AKA: Finish PathTrie class...
-                Iterator<Route> itr = app.getRoute().forEach().iterator();
-
-                final Many<Route> routeScore = X_Collect.newIntMultiMap(Route.class, X_Collect.MUTABLE_KEY_ORDERED);
-
-                while ( itr.hasNext() ) {
-                    Route route = itr.next();
-                    double match = route.matches(path);
-                    assert match <= 1 : "Do not return match score greater than 1; you sent " + match;
-                    if (match > 0) {
-                        int normalized = -(int)((Integer.MAX_VALUE) * match);
-                        routeScore.add(normalized, route);
-                    }
-                }
-                final Iterator<Route> routes = routeScore
-                    .flatten(X_Fu::<MappedIterable<Route>>identity)
-                    .iterator();
-                serveRoutes(request, routes, callback);
+                final RouteTable.Entry[] routes = getRouteTable().match(request.getPath());
+                serveRoutes(request, routes, 0, callback);
             } catch (Throwable t) {
                 callback.in(request, t);
                 throw t;
             }
     }
 
+    /**
+     * @return The compiled form of our {@link WebApp#getRoute()}.
+     * Adding, removing, replacing or reordering routes gets a new table on the next request;
+     * if you edit a route in place, call {@link #recompileRoutes()}.
+     */
+    protected RouteTable getRouteTable() {
+        RouteTable table = routeTable;
+        if (table == null || !table.isCompiledFrom(webApp.getRoute().forEach())) {
+            table = recompileRoutes();
+        }
+        return table;
+    }
+
+    public RouteTable recompileRoutes() {
+        final RouteTable table = RouteTable.compile(webApp.getRoute().forEach());
+        routeTable = table;
+        return table;
+    }
+
     private void serveRoutes(
         RequestScopeVertx request,
-        Iterator<Route> routes,
+        RouteTable.Entry[] routes,
+        int index,
         In2<RequestScopeVertx, Throwable> callback
     ) {
-        if (routes.hasNext()) {
-            final Route next = routes.next();
-            serveRoute(next, request, routes, callback);
+        if (index < routes.length) {
+            serveRoute(routes[index], request, routes, index + 1, callback);
         } else {
             // Failed to route this request
             callback.in(request, new NoSuchItem(request.getRequest().getPath()));
@@ -773,48 +783,78 @@ public class XapiVertxServer extends AbstractXapiServer<RequestScopeVertx> {
     }
 
     private void serveRoute(
-        Route next,
+        RouteTable.Entry next,
         RequestScopeVertx request,
-        Iterator<Route> routes,
+        RouteTable.Entry[] routes,
+        int index,
         In2<RequestScopeVertx, Throwable> callback
     ) {
-        final Do restore = request.captureScope();
-        X_Time.runLater(()->{
-            restore.done();
-            final XapiServer was = request.setLocal(XapiServer.class, this);
-            // we'll cleanup server reference later...
-            next.serve(request.getPath(), request, (s, t)->{
-                if (t == null) {
-                    // success
-                    callback.in(request, null);
-                } else {
-                    if (routes.hasNext()){
-                        // There are still backup routes to try...
-                        serveRoutes(request, routes, (scope, previousT) -> {
-                            // Spy on the final result; if we ultimately failed, get loud
-                            if (previousT == null) {
-                                callback.in(scope, null);
-                                request.removeLocal(XapiServer.class);
-                            } else {
-                                X_Log.warn(XapiVertxServer.class, "Route reported error", next, t);
-                                callback.in(scope, MultiException.mergedThrowable("Multiple routes matched and failed",
-                                    t, previousT));
-                            }
-                        });
-                    } else {
-                        // Final route failed... get loud immediately.
-                        // TODO: "catch routes"
-                        if (t instanceof JobCanceledException) {
-                            X_Log.trace(XapiVertxServer.class, "Request canceled for ", request.getPath());
+        if (next.isBlocking()) {
+            // only blocking routes are worth a trip to another thread
+            final Do restore = request.captureScope();
+            X_Time.runLater(()->{
+                restore.done();
+                attemptRoute(next, request, routes, index, callback);
+            });
+        } else {
+            attemptRoute(next, request, routes, index, callback);
+        }
+    }
+
+    private void attemptRoute(
+        RouteTable.Entry next,
+        RequestScopeVertx request,
+        RouteTable.Entry[] routes,
+        int index,
+        In2<RequestScopeVertx, Throwable> callback
+    ) {
+        final XapiServer was = request.setLocal(XapiServer.class, this);
+        // a route which throws instead of calling back must still fall through to the next route,
+        // but a route which calls back and then throws must not be answered twice
+        final AtomicBoolean answered = new AtomicBoolean();
+        // we'll cleanup server reference later...
+        final In2<RequestScope<VertxRequest, VertxResponse>, Throwable> onServed = (s, t)->{
+            if (!answered.compareAndSet(false, true)) {
+                if (t != null) {
+                    X_Log.warn(XapiVertxServer.class, "Route failed after it finished", next, t);
+                }
+                return;
+            }
+            if (t == null) {
+                // success
+                callback.in(request, null);
+            } else {
+                if (index < routes.length){
+                    // There are still backup routes to try...
+                    serveRoutes(request, routes, index, (scope, previousT) -> {
+                        // Spy on the final result; if we ultimately failed, get loud
+                        if (previousT == null) {
+                            callback.in(scope, null);
+                            request.removeLocal(XapiServer.class);
                         } else {
                             X_Log.warn(XapiVertxServer.class, "Route reported error", next, t);
+                            callback.in(scope, MultiException.mergedThrowable("Multiple routes matched and failed",
+                                t, previousT));
                         }
-                        callback.in(request, t);
-                        request.removeLocal(XapiServer.class);
+                    });
+                } else {
+                    // Final route failed... get loud immediately.
+                    // TODO: "catch routes"
+                    if (t instanceof JobCanceledException) {
+                        X_Log.trace(XapiVertxServer.class, "Request canceled for ", request.getPath());
+                    } else {
+                        X_Log.warn(XapiVertxServer.class, "Route reported error", next, t);
                     }
+                    callback.in(request, t);
+                    request.removeLocal(XapiServer.class);
                 }
-            });
-        });
+            }
+        };
+        try {
+            next.serve(request.getPath(), request, onServed);
+        } catch (Throwable thrown) {
+            onServed.in(request, thrown);
+        }
     }
 
     @Override
@@ -834,40 +874,96 @@ public class XapiVertxServer extends AbstractXapiServer<RequestScopeVertx> {
     public void writeTemplate(
         RequestScopeVertx request, String payload, In2<RequestScopeVertx, Throwable> callback
     ) {
+        if (payload.trim().startsWith("<")) {
+            // TODO: We have a xapi template to parse and run...
+            writeText(request, payload, callback);
+            return;
+        }
+        final CompiledTemplate template;
         try {
+            template = templates.computeIfAbsent(payload, CompiledTemplate::compile);
+        } catch (Throwable t) {
+            callback.in(request, t);
+            return;
+        }
+        writeTemplate(request, template, callback);
+    }
 
-            if (payload.trim().startsWith("<")) {
-                // We have a xapi template to parse and run...
-            } else if (payload.contains("$")) {
-                // Swap out any $named variables, if any, from our scope
-                final ClassTo<Object> vars = X_Collect.newClassMap(Object.class);
-                request.loadMap(vars.asMap());
+    @Override
+    public void writeTemplate(
+        RequestScopeVertx request, CompiledTemplate template, In2<RequestScopeVertx, Throwable> callback
+    ) {
+        if (!template.hasSlots()) {
+            writeText(request, template.getSource(), callback);
+            return;
+        }
+        final StringBuilder out = TEMPLATE_BUFFER.get();
+        try {
+            template.render(out, templateResolver(request));
+            request.getResponse().buildRawResponse().append(out);
+        } catch (Throwable t) {
+            callback.in(request, t);
+            return;
+        } finally {
+            out.setLength(0);
+            if (out.capacity() > MAX_TEMPLATE_BUFFER) {
+                // don't let one huge page pin memory on every thread
+                out.trimToSize();
+            }
+        }
+        callback.in(request, null);
+    }
 
-                MappedTemplate t = new MappedTemplate(payload);
+    protected CompiledTemplate.Resolver templateResolver(RequestScopeVertx request) {
+        return new CompiledTemplate.Resolver() {
+            @Override
+            public Object resolve(String key) {
+                return resolveTemplateKey(request, key);
+            }
 
+            @Override
+            public Object resolve(Object from, String property) {
+                if (from instanceof Model) {
+                    return ((Model) from).getProperty(property);
+                }
+                return CompiledTemplate.Resolver.super.resolve(from, property);
+            }
 
-                StringTo<Object> replaceables = X_Collect.newStringMap(Object.class);
+            @Override
+            public void write(StringBuilder out, Object value) {
+                writeTemplateValue(out, value);
+            }
+        };
+    }
 
-                for (Class<?> key : vars.keys()) {
-                    String name = computeTemplateKey(key);
-                    if (name != null) {
-                        if (payload.contains("$" + name)) {
-                            // Payload has a potential match for this value
-                        }
-                        if (payload.contains("${" + name)) {
-                            // Payload might have a nested value for this type... computation of nesting will be nasty.
-                            // consider outsourcing this to a dependency...
-                        }
-                    }
-                }
+    /**
+     * Values like $path and $host come straight from the request, so they are html escaped by default;
+     * override this if your templates do not produce html, or need to insert trusted markup.
+     */
+    protected void writeTemplateValue(StringBuilder out, Object value) {
+        CompiledTemplate.appendHtml(out, value instanceof CharSequence ? (CharSequence) value : String.valueOf(value));
+    }
 
-            } else {
+    /**
+     * @return The value of a top level $key in a template;
+     * $path, $host and $user are built in, and anything else is looked up by model type in the request's scope.
+     * Values are escaped when written, by {@link #writeTemplateValue(StringBuilder, Object)}.
+     */
+    protected Object resolveTemplateKey(RequestScopeVertx request, String key) {
+        switch (key) {
+            case "path":
+                return request.getPath();
+            case "host":
+                return request.getHost();
+            case "user":
+                return request.getSession().getUser();
+        }
+        for (Class<?> cls : request.getLocalKeys()) {
+            if (key.equals(templateKeys.computeIfAbsent(cls, this::computeTemplateKey))) {
+                return request.getLocal(cls);
             }
-        } catch (Throwable t) {
-            callback.in(request, t);
         }
-
-       writeText(request, payload, callback);
+        return null;
     }
 
     private String computeTemplateKey(Class<?> key) {
@@ -880,51 +976,112 @@ public class XapiVertxServer extends AbstractXapiServer<RequestScopeVertx> {
             // Turn the simplename into a model type
             return X_String.firstCharToLowercase(key.getSimpleName().replace("Model", ""));
         }
-        return null;
+        return "";
     }
 
     protected void writeFileSystem(
         boolean allowDirListing, RequestScopeVertx request, String payload, In2<RequestScopeVertx, Throwable> callback
     ) {
         final HttpServerResponse response = request.getRequest().getResponse();
-        File toServe = new File(webApp.getContentRoot());
-        if (!toServe.exists()) {
-            throw new IllegalStateException("Content root " + toServe + " does not exist!");
-        }
-        toServe = new File(webApp.getContentRoot(), payload);
-        if (!toServe.exists()) {
-            boolean allowAbsolute = webApp.allowAbsolute(request.getPath());
-            toServe = new File(!allowAbsolute && payload.startsWith("/") ? payload.substring(1) : payload);
+        final boolean allowAbsolute = webApp.allowAbsolute(request.getPath());
+        // only the first request for each payload needs to go looking on disk
+        final File finalPath = getAssetCache().resolve((allowAbsolute ? "/" : "") + payload, ()->{
+            File toServe = new File(webApp.getContentRoot());
             if (!toServe.exists()) {
-                throw new IllegalStateException("Content file " + (allowAbsolute ? toServe : new File(webApp.getContentRoot(), payload)) + " does not exist!");
+                throw new IllegalStateException("Content root " + toServe + " does not exist!");
             }
-        }
-        final File finalPath = toServe;
+            toServe = new File(webApp.getContentRoot(), payload);
+            if (!toServe.exists()) {
+                toServe = new File(!allowAbsolute && payload.startsWith("/") ? payload.substring(1) : payload);
+                if (!toServe.exists()) {
+                    throw new IllegalStateException("Content file " + (allowAbsolute ? toServe : new File(webApp.getContentRoot(), payload)) + " does not exist!");
+                }
+            }
+            return toServe;
+        });
         request.getResponse().onFinish(resp-> {
                 resp.prepareToClose();
-                if (finalPath.isDirectory()) {
-                    if (allowDirListing) {
-                        response.setChunked(true);
-                        response.write("<html><body>");
-                        for (File file : Objects.requireNonNull(finalPath.listFiles())) {
-                            response.write("<a href=\"" +
-                                request.getPath() + (request.getPath().endsWith("/") ? "" : "/") + file.getName() +
-                             "\">" + file.getName() + " </a><br/>");
-
-                        }
-                        response.end("</body></html>");
-                    } else {
-                        X_Log.error(XapiVertxServer.class, "Disallowed viewing of ", finalPath);
-                        response.setStatusCode(503).end("Not allowed to view " + finalPath.toString());
+                if (allowDirListing && finalPath.isDirectory()) {
+                    final StringBuilder listing = new StringBuilder("<html><body>");
+                    final String prefix = request.getPath() + (request.getPath().endsWith("/") ? "" : "/");
+                    for (File file : Objects.requireNonNull(finalPath.listFiles())) {
+                        listing.append("<a href=\"").append(prefix).append(file.getName())
+                            .append("\">").append(file.getName()).append(" </a><br/>");
                     }
+                    response.end(listing.append("</body></html>").toString());
                 } else {
-                    response.sendFile(finalPath.getAbsolutePath());
+                    writeAsset(request.getRequest(), response, finalPath);
                 }
             }
         );
         callback.in(request, null);
     }
 
+    protected void writeAsset(VertxRequest request, HttpServerResponse response, File file) {
+        final Asset fresh = getAssetCache().getIfFresh(file);
+        if (fresh != null) {
+            writeAsset(request, response, file, fresh);
+            return;
+        }
+        // reading, hashing and compressing a file would stall every connection on this event loop
+        X_Time.runLater(()->{
+            final Asset asset;
+            try {
+                asset = getAssetCache().get(file);
+            } catch (IOException e) {
+                if (file.isDirectory()) {
+                    X_Log.error(XapiVertxServer.class, "Disallowed viewing of ", file);
+                    response.setStatusCode(503).end("Not allowed to view " + file.toString());
+                } else {
+                    X_Log.warn(XapiVertxServer.class, "Unable to read static file", file, e);
+                    response.setStatusCode(404).end();
+                }
+                return;
+            }
+            writeAsset(request, response, file, asset);
+        });
+    }
+
+    protected void writeAsset(VertxRequest request, HttpServerResponse response, File file, Asset asset) {
+        final HttpServerRequest req = request.getHttpRequest();
+        final Variant variant = asset.select(req.getHeader("Accept-Encoding"));
+        response.putHeader("ETag", variant.getEtag());
+        response.putHeader("Cache-Control", webApp.cacheControl(file.getName()));
+        if (asset.hasEncodings()) {
+            response.putHeader("Vary", "Accept-Encoding");
+        }
+        if (StaticAssetCache.matches(req.getHeader("If-None-Match"), variant.getEtag())) {
+            response.setStatusCode(304).end();
+            return;
+        }
+        if (asset.getContentType() != null) {
+            // set this ourselves, so a precompressed file.br is not sent as application/octet-stream
+            response.putHeader("Content-Type", asset.getContentType());
+        }
+        if (variant.getEncoding() != null) {
+            response.putHeader("Content-Encoding", variant.getEncoding());
+        }
+        if (variant.getBody() == null) {
+            response.sendFile(variant.getFile().getAbsolutePath());
+        } else if (req.method() == HttpMethod.HEAD) {
+            response.putHeader("Content-Length", Integer.toString(variant.getBody().length())).end();
+        } else {
+            response.end(variant.getBody());
+        }
+    }
+
+    protected StaticAssetCache getAssetCache() {
+        return assets.out1();
+    }
+
+    protected StaticAssetCache createAssetCache() {
+        return new StaticAssetCache(
+            Long.parseLong(X_Properties.getProperty(X_Namespace.PROPERTY_SERVER_STATIC_CACHE, "33554432")),
+            Long.parseLong(X_Properties.getProperty(X_Namespace.PROPERTY_SERVER_STATIC_MAX, "1048576")),
+            Long.parseLong(X_Properties.getProperty(X_Namespace.PROPERTY_SERVER_STATIC_RECHECK, webApp.isDevMode() ? "0" : "2000"))
+        );
+    }
+
     @Override
     public void writeFile(
         RequestScopeVertx request, String payload, In2<RequestScopeVertx, Throwable> callback
@@ -958,7 +1115,7 @@ public class XapiVertxServer extends AbstractXapiServer<RequestScopeVertx> {
         String path = req.getPath();
 
         final GwtcService service = module.getOrCreateService();
-        // request was for the nocache file; compile every time (for now)
+        // request was for the nocache file; the job manager only recompiles if any of its inputs changed
         assert !resp.getHttpResponse().headWritten() : "Head already written!";
 
         final In2<CompiledDirectory, Throwable> writeResponse = (result, err)->{
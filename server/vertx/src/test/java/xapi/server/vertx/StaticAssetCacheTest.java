@@ -0,0 +1,213 @@
+package xapi.server.vertx;
+
+import org.junit.Before;
+import org.junit.Test;
+import xapi.server.vertx.StaticAssetCache.Asset;
+import xapi.server.vertx.StaticAssetCache.Variant;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class StaticAssetCacheTest {
+
+    private File dir;
+
+    @Before
+    public void before() throws IOException {
+        dir = Files.createTempDirectory("assets").toFile();
+    }
+
+    @Test
+    public void testUnchangedFileIsNotReloaded() throws IOException {
+        final StaticAssetCache cache = new StaticAssetCache(1 << 20, 1 << 16, 0);
+        final File file = write("page.html", "<html>hello</html>");
+        assertNull(cache.getIfFresh(file));
+
+        final Asset asset = cache.get(file);
+        assertEquals("text/html", asset.getContentType());
+        assertSame(asset, cache.getIfFresh(file));
+        assertSame(asset, cache.get(file));
+    }
+
+    @Test
+    public void testChangedFileIsReloadedWithANewEtag() throws IOException {
+        final StaticAssetCache cache = new StaticAssetCache(1 << 20, 1 << 16, 0);
+        final File file = write("page.html", "<html>hello</html>");
+        final Asset before = cache.get(file);
+        final String etag = before.select(null).getEtag();
+
+        write("page.html", "<html>goodbye</html>");
+        assertTrue(file.setLastModified(before.getLastModified() + 2000));
+        assertNull(cache.getIfFresh(file));
+        final Asset after = cache.get(file);
+        assertNotSame(before, after);
+        assertNotEquals(etag, after.select(null).getEtag());
+        assertEquals("<html>goodbye</html>", after.select(null).getBody().toString());
+    }
+
+    @Test
+    public void testDeletedFileIsDropped() throws IOException {
+        final StaticAssetCache cache = new StaticAssetCache(1 << 20, 1 << 16, 0);
+        final File file = write("gone.txt", "gone");
+        cache.get(file);
+        assertTrue(file.delete());
+        try {
+            cache.get(file);
+        } catch (IOException expected) {
+            assertEquals(0, cache.getCachedBytes());
+            return;
+        }
+        throw new AssertionError("Expected a deleted file to fail to load");
+    }
+
+    @Test
+    public void testCacheIsBoundedByBytes() throws IOException {
+        final StaticAssetCache cache = new StaticAssetCache(250, 200, 60_000);
+        final File a = write("a.bin", repeat('a', 100));
+        final File b = write("b.bin", repeat('b', 100));
+        final File c = write("c.bin", repeat('c', 100));
+        cache.get(a);
+        cache.get(b);
+        assertEquals(200, cache.getCachedBytes());
+
+        // touching a makes b the eldest
+        cache.get(a);
+        cache.get(c);
+        assertEquals(200, cache.getCachedBytes());
+        assertNotNull(cache.getIfFresh(a));
+        assertNull(cache.getIfFresh(b));
+        assertNotNull(cache.getIfFresh(c));
+    }
+
+    @Test
+    public void testLargeFilesAreSentFromDisk() throws IOException {
+        final StaticAssetCache cache = new StaticAssetCache(1 << 20, 64, 60_000);
+        final File file = write("big.js", repeat('x', 1000));
+        final Variant variant = cache.get(file).select("gzip");
+        assertNull(variant.getEncoding());
+        assertNull(variant.getBody());
+        assertEquals(file, variant.getFile());
+        assertNotNull(variant.getEtag());
+        assertEquals(0, cache.getCachedBytes());
+    }
+
+    @Test
+    public void testGzipIsOnlyServedWhenAccepted() throws IOException {
+        final StaticAssetCache cache = new StaticAssetCache(1 << 20, 1 << 16, 60_000);
+        final String text = repeat('z', 1000);
+        final Asset asset = cache.get(write("app.js", text));
+        assertTrue(asset.hasEncodings());
+
+        final Variant plain = asset.select(null);
+        assertNull(plain.getEncoding());
+        assertEquals(text, plain.getBody().toString());
+        assertNull(asset.select("gzip;q=0, deflate").getEncoding());
+        assertNull(asset.select("identity").getEncoding());
+
+        final Variant zipped = asset.select("deflate, gzip");
+        assertEquals(StaticAssetCache.GZIP, zipped.getEncoding());
+        assertNotEquals(plain.getEtag(), zipped.getEtag());
+        assertEquals(text, gunzip(zipped.getBody().getBytes()));
+        assertEquals(StaticAssetCache.GZIP, asset.select("*").getEncoding());
+    }
+
+    @Test
+    public void testSmallOrBinaryFilesAreNotCompressed() throws IOException {
+        final StaticAssetCache cache = new StaticAssetCache(1 << 20, 1 << 16, 60_000);
+        assertFalse(cache.get(write("tiny.js", "var x;")).hasEncodings());
+        assertFalse(cache.get(write("image.png", repeat('p', 1000))).hasEncodings());
+    }
+
+    @Test
+    public void testPrecompressedSiblingsArePreferred() throws IOException {
+        final StaticAssetCache cache = new StaticAssetCache(1 << 20, 1 << 16, 60_000);
+        final File file = write("lib.wasm", repeat('w', 1000));
+        final File br = write("lib.wasm.br", "brotli");
+        final File gz = write("lib.wasm.gz", "gzip");
+        assertTrue(br.setLastModified(file.lastModified()));
+        assertTrue(gz.setLastModified(file.lastModified()));
+        final Asset asset = cache.get(file);
+
+        final Variant brotli = asset.select("gzip, br");
+        assertEquals(StaticAssetCache.BROTLI, brotli.getEncoding());
+        assertEquals(br, brotli.getFile());
+        final Variant gzip = asset.select("gzip");
+        assertEquals(StaticAssetCache.GZIP, gzip.getEncoding());
+        assertEquals(gz, gzip.getFile());
+        assertNull(gzip.getBody());
+    }
+
+    @Test
+    public void testStalePrecompressedSiblingsAreIgnored() throws IOException {
+        final StaticAssetCache cache = new StaticAssetCache(1 << 20, 1 << 16, 60_000);
+        final File file = write("lib.wasm", repeat('w', 1000));
+        final File gz = write("lib.wasm.gz", "old");
+        assertTrue(gz.setLastModified(file.lastModified() - 2000));
+        assertFalse(cache.get(file).hasEncodings());
+    }
+
+    @Test
+    public void testIfNoneMatch() {
+        final String etag = "\"abc\"";
+        assertFalse(StaticAssetCache.matches(null, etag));
+        assertTrue(StaticAssetCache.matches("\"abc\"", etag));
+        assertTrue(StaticAssetCache.matches("W/\"abc\"", etag));
+        assertTrue(StaticAssetCache.matches("\"xyz\", \"abc\"", etag));
+        assertTrue(StaticAssetCache.matches("*", etag));
+        assertFalse(StaticAssetCache.matches("\"abc-gzip\"", etag));
+        assertFalse(StaticAssetCache.matches("abc", etag));
+    }
+
+    @Test
+    public void testAcceptEncoding() {
+        assertTrue(StaticAssetCache.accepts("gzip", "gzip"));
+        assertTrue(StaticAssetCache.accepts("deflate, GZIP;q=0.5", "gzip"));
+        assertFalse(StaticAssetCache.accepts("gzip;q=0", "gzip"));
+        assertFalse(StaticAssetCache.accepts("gzip; q=0.0", "gzip"));
+        assertFalse(StaticAssetCache.accepts("deflate", "gzip"));
+        assertTrue(StaticAssetCache.accepts("*", "br"));
+        assertFalse(StaticAssetCache.accepts("*, br;q=0", "br"));
+        assertFalse(StaticAssetCache.accepts("*;q=0", "br"));
+    }
+
+    private File write(String name, String contents) throws IOException {
+        final File file = new File(dir, name);
+        Files.write(file.toPath(), contents.getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+
+    private static String repeat(char c, int times) {
+        final StringBuilder b = new StringBuilder(times);
+        for (int i = 0; i < times; i++) {
+            b.append(c);
+        }
+        return b.toString();
+    }
+
+    private static String gunzip(byte[] zipped) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(zipped))) {
+            final byte[] chunk = new byte[1024];
+            int read;
+            while ((read = in.read(chunk)) != -1) {
+                out.write(chunk, 0, read);
+            }
+        }
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+}
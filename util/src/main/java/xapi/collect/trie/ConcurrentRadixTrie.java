@@ -0,0 +1,690 @@
+package xapi.collect.trie;
+
+import xapi.annotation.gwt.GwtIncompatible;
+import xapi.collect.api.CharPool;
+import xapi.collect.api.IsCompressable;
+import xapi.collect.prefixed.PrefixedMap;
+import xapi.fu.itr.MappedIterable;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+
+/**
+ * A concurrent, adaptive radix trie (in the style of ART), keyed on the chars of strings.
+ * <p>
+ * Each node holds the compressed path below the char which led to it, and a reference to an immutable
+ * set of children, laid out according to how many there are:
+ * <ul>
+ * <li>up to 16 children: sorted parallel arrays of keys and nodes, of exactly the needed size (ART's node4 / node16);</li>
+ * <li>17 to 48 children: a 256 byte index from char to slot (ART's node48);</li>
+ * <li>more than 48 children: 256 direct slots (ART's node256).</li>
+ * </ul>
+ * Children with chars above 255 can't use the indexed layouts, so a node with any of those stays sorted (binary searched).
+ * <p>
+ * Readers never lock, never retry, and never write; each step down the trie is a single volatile read
+ * of a consistent set of children. Writers build a new set of children (or value) and install it with a CAS,
+ * retrying only if another writer changed the same node first. Splitting a node's compressed path
+ * freezes the node, so writers racing on it start over from the root, then swaps a copy into its parent.
+ * <p>
+ * Unlike {@link MultithreadedStringTrie}, lookups are allocation free, and a node with many children
+ * is searched in one step instead of a walk through nested lesser / greater edges.
+ * Iteration over {@link #findPrefixed(String)} is in key order, and weakly consistent.
+ * <p>
+ * Null values are allowed, and read the same as missing keys.
+ *
+ * @param <E> the value type
+ */
+@GwtIncompatible
+public class ConcurrentRadixTrie <E> implements PrefixedMap<E>, IsCompressable {
+
+  private static final char[] EMPTY_KEY = new char[0];
+  private static final Node[] NO_NODES = new Node[0];
+  private static final int MAX_SORTED = 16;
+  private static final int MAX_INDEXED = 48;
+  private static final int INDEXABLE = 256;
+
+  @SuppressWarnings("rawtypes")
+  private static final AtomicReferenceFieldUpdater<Node, Children> CHILDREN =
+      AtomicReferenceFieldUpdater.newUpdater(Node.class, Children.class, "children");
+
+  protected static final class Node <E> {
+    // the chars of our key after the char which led to us;
+    // only ever replaced by an equal array, when we are compressed
+    volatile char[] prefix;
+    volatile Children<E> children;
+
+    Node(final char[] prefix, final Children<E> children) {
+      this.prefix = prefix;
+      this.children = children;
+    }
+
+    @SuppressWarnings("unchecked")
+    boolean cas(final Children<E> expect, final Children<E> update) {
+      return CHILDREN.compareAndSet(this, expect, update);
+    }
+
+    @Override
+    public String toString() {
+      return new String(prefix) + children;
+    }
+  }
+
+  /**
+   * The value of a node and its children; immutable, so that a reader holding one sees a consistent node.
+   */
+  protected abstract static class Children <E> {
+    final E value;
+    // set on a copy which replaces a node's children while we split the node;
+    // writers that see it start over from the root
+    final boolean frozen;
+
+    Children(final E value, final boolean frozen) {
+      this.value = value;
+      this.frozen = frozen;
+    }
+
+    abstract Node<E> find(char k);
+
+    abstract int size();
+
+    /**
+     * @return the first slot at or after the given one which holds a child, or -1;
+     * slots are visited in ascending char order. Start from 0.
+     */
+    abstract int nextSlot(int from);
+
+    abstract char keyAt(int slot);
+
+    abstract Node<E> nodeAt(int slot);
+
+    abstract Children<E> copy(E value, boolean frozen);
+
+    /**
+     * @return children with the given child added, or replacing the existing child for k.
+     */
+    abstract Children<E> with(char k, Node<E> child);
+
+    @Override
+    public String toString() {
+      final StringBuilder b = new StringBuilder();
+      if (value != null) {
+        b.append('=').append(value);
+      }
+      b.append('{');
+      for (int slot = nextSlot(0); slot != -1; slot = nextSlot(slot + 1)) {
+        b.append(' ').append(keyAt(slot)).append(':').append(nodeAt(slot));
+      }
+      return b.append('}').toString();
+    }
+  }
+
+  /**
+   * Sorted keys with their nodes, binary searched; used for up to {@link #MAX_SORTED} children,
+   * or any number of children if a key does not fit in our indexed layouts.
+   * A node with no children (a leaf) has empty arrays.
+   */
+  static final class Sorted <E> extends Children<E> {
+    final char[] keys;
+    final Node<E>[] nodes;
+
+    Sorted(final E value, final boolean frozen, final char[] keys, final Node<E>[] nodes) {
+      super(value, frozen);
+      this.keys = keys;
+      this.nodes = nodes;
+    }
+
+    @Override
+    Node<E> find(final char k) {
+      final char[] keys = this.keys;
+      if (keys.length <= 4) {
+        for (int i = 0; i < keys.length; i++) {
+          if (keys[i] == k) {
+            return nodes[i];
+          }
+        }
+        return null;
+      }
+      final int i = indexOf(keys, k);
+      return i < 0 ? null : nodes[i];
+    }
+
+    @Override
+    int size() {
+      return keys.length;
+    }
+
+    @Override
+    int nextSlot(final int from) {
+      return from < keys.length ? from : -1;
+    }
+
+    @Override
+    char keyAt(final int slot) {
+      return keys[slot];
+    }
+
+    @Override
+    Node<E> nodeAt(final int slot) {
+      return nodes[slot];
+    }
+
+    @Override
+    Children<E> copy(final E value, final boolean frozen) {
+      return new Sorted<>(value, frozen, keys, nodes);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    Children<E> with(final char k, final Node<E> child) {
+      final int at = indexOf(keys, k);
+      if (at >= 0) {
+        final Node<E>[] replaced = nodes.clone();
+        replaced[at] = child;
+        return new Sorted<>(value, false, keys, replaced);
+      }
+      final int size = keys.length;
+      if (size == MAX_SORTED && k < INDEXABLE && keys[size - 1] < INDEXABLE) {
+        return Indexed.from(value, this, k, child);
+      }
+      final int insert = -at - 1;
+      final char[] newKeys = new char[size + 1];
+      final Node<E>[] newNodes = new Node[size + 1];
+      System.arraycopy(keys, 0, newKeys, 0, insert);
+      System.arraycopy(nodes, 0, newNodes, 0, insert);
+      newKeys[insert] = k;
+      newNodes[insert] = child;
+      System.arraycopy(keys, insert, newKeys, insert + 1, size - insert);
+      System.arraycopy(nodes, insert, newNodes, insert + 1, size - insert);
+      return new Sorted<>(value, false, newKeys, newNodes);
+    }
+
+    private static int indexOf(final char[] keys, final char k) {
+      int lo = 0, hi = keys.length - 1;
+      while (lo <= hi) {
+        final int mid = (lo + hi) >>> 1;
+        final char at = keys[mid];
+        if (at < k) {
+          lo = mid + 1;
+        } else if (at > k) {
+          hi = mid - 1;
+        } else {
+          return mid;
+        }
+      }
+      return -(lo + 1);
+    }
+
+    @SuppressWarnings("unchecked")
+    static <E> Sorted<E> from(final E value, final Children<E> from, final char k, final Node<E> child) {
+      final int size = from.size();
+      final char[] keys = new char[size + 1];
+      final Node<E>[] nodes = new Node[size + 1];
+      // k is above every indexable char, so it always goes last
+      int to = 0;
+      for (int slot = from.nextSlot(0); slot != -1; slot = from.nextSlot(slot + 1)) {
+        keys[to] = from.keyAt(slot);
+        nodes[to++] = from.nodeAt(slot);
+      }
+      keys[to] = k;
+      nodes[to] = child;
+      return new Sorted<>(value, false, keys, nodes);
+    }
+  }
+
+  /**
+   * Up to {@link #MAX_INDEXED} children, with chars below {@link #INDEXABLE},
+   * found through a table of (slot + 1) per char; 0 is empty.
+   */
+  static final class Indexed <E> extends Children<E> {
+    final byte[] index;
+    final Node<E>[] nodes;
+
+    Indexed(final E value, final boolean frozen, final byte[] index, final Node<E>[] nodes) {
+      super(value, frozen);
+      this.index = index;
+      this.nodes = nodes;
+    }
+
+    @Override
+    Node<E> find(final char k) {
+      if (k >= INDEXABLE) {
+        return null;
+      }
+      final int slot = index[k];
+      return slot == 0 ? null : nodes[slot - 1];
+    }
+
+    @Override
+    int size() {
+      return nodes.length;
+    }
+
+    @Override
+    int nextSlot(int from) {
+      for (; from < INDEXABLE; from++) {
+        if (index[from] != 0) {
+          return from;
+        }
+      }
+      return -1;
+    }
+
+    @Override
+    char keyAt(final int slot) {
+      return (char) slot;
+    }
+
+    @Override
+    Node<E> nodeAt(final int slot) {
+      return nodes[index[slot] - 1];
+    }
+
+    @Override
+    Children<E> copy(final E value, final boolean frozen) {
+      return new Indexed<>(value, frozen, index, nodes);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    Children<E> with(final char k, final Node<E> child) {
+      if (k >= INDEXABLE) {
+        return Sorted.from(value, this, k, child);
+      }
+      final int slot = index[k];
+      if (slot != 0) {
+        final Node<E>[] replaced = nodes.clone();
+        replaced[slot - 1] = child;
+        return new Indexed<>(value, false, index, replaced);
+      }
+      if (nodes.length == MAX_INDEXED) {
+        return Direct.from(value, this, k, child);
+      }
+      final byte[] newIndex = index.clone();
+      final Node<E>[] newNodes = new Node[nodes.length + 1];
+      System.arraycopy(nodes, 0, newNodes, 0, nodes.length);
+      newNodes[nodes.length] = child;
+      newIndex[k] = (byte) newNodes.length;
+      return new Indexed<>(value, false, newIndex, newNodes);
+    }
+
+    @SuppressWarnings("unchecked")
+    static <E> Indexed<E> from(final E value, final Sorted<E> from, final char k, final Node<E> child) {
+      final byte[] index = new byte[INDEXABLE];
+      final Node<E>[] nodes = new Node[from.keys.length + 1];
+      for (int i = 0; i < from.keys.length; i++) {
+        nodes[i] = from.nodes[i];
+        index[from.keys[i]] = (byte) (i + 1);
+      }
+      nodes[from.keys.length] = child;
+      index[k] = (byte) nodes.length;
+      return new Indexed<>(value, false, index, nodes);
+    }
+  }
+
+  /**
+   * More than {@link #MAX_INDEXED} children, all with chars below {@link #INDEXABLE}, in one slot per char.
+   */
+  static final class Direct <E> extends Children<E> {
+    final Node<E>[] nodes;
+    final int size;
+
+    Direct(final E value, final boolean frozen, final Node<E>[] nodes, final int size) {
+      super(value, frozen);
+      this.nodes = nodes;
+      this.size = size;
+    }
+
+    @Override
+    Node<E> find(final char k) {
+      return k < INDEXABLE ? nodes[k] : null;
+    }
+
+    @Override
+    int size() {
+      return size;
+    }
+
+    @Override
+    int nextSlot(int from) {
+      for (; from < INDEXABLE; from++) {
+        if (nodes[from] != null) {
+          return from;
+        }
+      }
+      return -1;
+    }
+
+    @Override
+    char keyAt(final int slot) {
+      return (char) slot;
+    }
+
+    @Override
+    Node<E> nodeAt(final int slot) {
+      return nodes[slot];
+    }
+
+    @Override
+    Children<E> copy(final E value, final boolean frozen) {
+      return new Direct<>(value, frozen, nodes, size);
+    }
+
+    @Override
+    Children<E> with(final char k, final Node<E> child) {
+      if (k >= INDEXABLE) {
+        return Sorted.from(value, this, k, child);
+      }
+      final Node<E>[] newNodes = nodes.clone();
+      final boolean added = newNodes[k] == null;
+      newNodes[k] = child;
+      return new Direct<>(value, false, newNodes, added ? size + 1 : size);
+    }
+
+    @SuppressWarnings("unchecked")
+    static <E> Direct<E> from(final E value, final Indexed<E> from, final char k, final Node<E> child) {
+      final Node<E>[] nodes = new Node[INDEXABLE];
+      for (int c = 0; c < INDEXABLE; c++) {
+        final int slot = from.index[c];
+        if (slot != 0) {
+          nodes[c] = from.nodes[slot - 1];
+        }
+      }
+      nodes[k] = child;
+      return new Direct<>(value, false, nodes, from.nodes.length + 1);
+    }
+  }
+
+  private final Node<E> root = new Node<>(EMPTY_KEY, leaf(null));
+
+  @Override
+  public E get(final String key) {
+    return get((CharSequence) (key == null ? "" : key));
+  }
+
+  /**
+   * Finds the value of a key without copying or allocating anything.
+   */
+  public E get(final CharSequence key) {
+    final int end = key.length();
+    Node<E> node = root;
+    int pos = 0;
+    while (true) {
+      final char[] prefix = node.prefix;
+      if (end - pos < prefix.length) {
+        return null;
+      }
+      for (int i = 0; i < prefix.length; i++) {
+        if (key.charAt(pos + i) != prefix[i]) {
+          return null;
+        }
+      }
+      pos += prefix.length;
+      final Children<E> children = node.children;
+      if (pos == end) {
+        return children.value;
+      }
+      node = children.find(key.charAt(pos++));
+      if (node == null) {
+        return null;
+      }
+    }
+  }
+
+  @Override
+  public void put(final String key, final E value) {
+    final String k = key == null ? "" : key;
+    //noinspection StatementWithEmptyBody
+    while (!tryPut(k, value)) {
+      // another writer split a node we needed; start over
+    }
+  }
+
+  /**
+   * Called with the value already stored for a key (or null) and the value being put;
+   * the result is what gets stored. Override to keep existing values in some cases.
+   * As puts may be retried when they race with other writers, this may be called more than once per put.
+   */
+  protected E merge(final E existing, final E value) {
+    return value;
+  }
+
+  private boolean tryPut(final String key, final E value) {
+    final int end = key.length();
+    Node<E> parent = null;
+    char parentKey = 0;
+    Node<E> node = root;
+    int pos = 0;
+    while (true) {
+      final char[] prefix = node.prefix;
+      int matched = 0;
+      while (matched < prefix.length && pos + matched < end && key.charAt(pos + matched) == prefix[matched]) {
+        matched++;
+      }
+      if (matched < prefix.length) {
+        // root has no prefix, so we always have a parent here
+        return split(parent, parentKey, node, matched, key, pos + matched, value);
+      }
+      pos += prefix.length;
+      while (true) {
+        final Children<E> children = node.children;
+        if (children.frozen) {
+          Thread.yield();
+          return false;
+        }
+        if (pos == end) {
+          if (node.cas(children, children.copy(merge(children.value, value), false))) {
+            return true;
+          }
+          continue;
+        }
+        final char k = key.charAt(pos);
+        final Node<E> child = children.find(k);
+        if (child == null) {
+          final Node<E> leaf = new Node<>(chars(key, pos + 1, end), leaf(merge(null, value)));
+          if (node.cas(children, children.with(k, leaf))) {
+            return true;
+          }
+          continue;
+        }
+        parent = node;
+        parentKey = k;
+        node = child;
+        pos++;
+        break;
+      }
+    }
+  }
+
+  /**
+   * Splits node's prefix at matched chars, with a new parent holding the shared chars,
+   * and either the value being put, or a new leaf for the rest of the key.
+   */
+  private boolean split(final Node<E> parent, final char parentKey, final Node<E> node, final int matched,
+                        final String key, final int pos, final E value) {
+    // freeze the node, so nobody changes it after we copy it
+    final Children<E> children = node.children;
+    if (children.frozen) {
+      Thread.yield();
+      return false;
+    }
+    final Children<E> frozen = children.copy(children.value, true);
+    if (!node.cas(children, frozen)) {
+      return false;
+    }
+
+    final char[] prefix = node.prefix;
+    final Node<E> moved = new Node<>(copyOf(prefix, matched + 1, prefix.length), children);
+    Children<E> split = ConcurrentRadixTrie.<E>leaf(null).with(prefix[matched], moved);
+    if (pos == key.length()) {
+      split = split.copy(merge(null, value), false);
+    } else {
+      split = split.with(key.charAt(pos), new Node<>(chars(key, pos + 1, key.length()), leaf(merge(null, value))));
+    }
+    final Node<E> replacement = new Node<>(copyOf(prefix, 0, matched), split);
+
+    while (true) {
+      final Children<E> siblings = parent.children;
+      if (siblings.frozen || siblings.find(parentKey) != node) {
+        // our parent is being split; put the node back as it was, and start over
+        node.cas(frozen, children);
+        Thread.yield();
+        return false;
+      }
+      if (parent.cas(siblings, siblings.with(parentKey, replacement))) {
+        return true;
+      }
+    }
+  }
+
+  @Override
+  public MappedIterable<E> findPrefixed(final String prefix) {
+    final String p = prefix == null ? "" : prefix;
+    return ()->new Itr(p);
+  }
+
+  /**
+   * Replace the compressed path of every node with the equal array from the given pool,
+   * so that tries sharing the pool share their chars.
+   * <p>
+   * Safe to run alongside reads and writes, as the chars never change;
+   * nodes added (or split) while we run may keep their own arrays.
+   */
+  @Override
+  public void compress(final CharPool pool) {
+    final ArrayList<Node<E>> todo = new ArrayList<>();
+    todo.add(root);
+    while (!todo.isEmpty()) {
+      final Node<E> node = todo.remove(todo.size() - 1);
+      final char[] prefix = node.prefix;
+      if (prefix.length > 0) {
+        node.prefix = pool.getArray(prefix);
+      }
+      final Children<E> children = node.children;
+      for (int slot = children.nextSlot(0); slot != -1; slot = children.nextSlot(slot + 1)) {
+        todo.add(children.nodeAt(slot));
+      }
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "ConcurrentRadixTrie" + root.children;
+  }
+
+  /**
+   * Walks the values below a prefix, depth first, in key order.
+   */
+  private final class Itr implements Iterator<E> {
+
+    // a stack of the children we are walking, and the next child to visit in each
+    private Children<E>[] stack;
+    private int[] next;
+    private int depth = -1;
+    private E value;
+
+    @SuppressWarnings("unchecked")
+    private Itr(final String prefix) {
+      stack = new Children[8];
+      next = new int[8];
+      final Node<E> start = seek(prefix);
+      if (start != null) {
+        push(start.children);
+      }
+    }
+
+    private Node<E> seek(final String key) {
+      final int end = key.length();
+      Node<E> node = root;
+      int pos = 0;
+      while (true) {
+        final char[] prefix = node.prefix;
+        for (int i = 0; i < prefix.length && pos + i < end; i++) {
+          if (key.charAt(pos + i) != prefix[i]) {
+            return null;
+          }
+        }
+        pos += prefix.length;
+        if (pos >= end) {
+          return node;
+        }
+        node = node.children.find(key.charAt(pos++));
+        if (node == null) {
+          return null;
+        }
+      }
+    }
+
+    private void push(final Children<E> children) {
+      if (++depth == stack.length) {
+        stack = Arrays.copyOf(stack, depth * 2);
+        next = Arrays.copyOf(next, depth * 2);
+      }
+      stack[depth] = children;
+      // -1 means we have not yet returned this node's own value; after that, the next slot to look at
+      next[depth] = -1;
+    }
+
+    @Override
+    public boolean hasNext() {
+      if (value != null) {
+        return true;
+      }
+      while (depth >= 0) {
+        final Children<E> top = stack[depth];
+        final int at = next[depth];
+        if (at == -1) {
+          next[depth] = 0;
+          if (top.value != null) {
+            value = top.value;
+            return true;
+          }
+        } else {
+          final int slot = top.nextSlot(at);
+          if (slot == -1) {
+            stack[depth--] = null;
+          } else {
+            next[depth] = slot + 1;
+            push(top.nodeAt(slot).children);
+          }
+        }
+      }
+      return false;
+    }
+
+    @Override
+    public E next() {
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+      final E result = value;
+      value = null;
+      return result;
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  private static <E> Children<E> leaf(final E value) {
+    return new Sorted<>(value, false, EMPTY_KEY, NO_NODES);
+  }
+
+  private static char[] chars(final String key, final int from, final int to) {
+    if (from == to) {
+      return EMPTY_KEY;
+    }
+    final char[] chars = new char[to - from];
+    key.getChars(from, to, chars, 0);
+    return chars;
+  }
+
+  private static char[] copyOf(final char[] chars, final int from, final int to) {
+    if (from == to) {
+      return EMPTY_KEY;
+    }
+    final char[] copy = new char[to - from];
+    System.arraycopy(chars, from, copy, 0, copy.length);
+    return copy;
+  }
+}
@@ -2,11 +2,13 @@ package xapi.collect.trie;
 
 
 import java.io.Serializable;
+import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.concurrent.locks.Lock;
 
 import static xapi.collect.api.CharPool.EMPTY_STRING;
 import xapi.collect.api.CharPool;
+import xapi.collect.api.IsCompressable;
 import xapi.collect.prefixed.PrefixedMap;
 import xapi.fu.itr.MappedIterable;
 import xapi.source.lex.Chars;
@@ -33,14 +35,14 @@ import xapi.source.lex.Chars;
  * Production Trie versions will be suitable for tasks like type-ahead,
  * with O(log(m)) lookup, where m = string length instead of n = collection size.
  * <p>
- * The in-progress upgrade to this class will include array-based deep node
- * support, so nodes with more than two branches can do faster lookup.
+ * For array-based nodes, where nodes with more than two branches are searched in one step,
+ * see {@link ConcurrentRadixTrie}, which the classpath scanner now uses instead.
  * <p>
  * @author "James X. Nelson (james@wetheinter.net)"
  *
  * @param <E>
  */
-public class MultithreadedStringTrie<E> implements PrefixedMap<E> {
+public class MultithreadedStringTrie<E> implements PrefixedMap<E>, IsCompressable {
 
   private static final char[] emptyString = new char[0];
 
@@ -710,8 +712,40 @@ public class MultithreadedStringTrie<E> implements PrefixedMap<E> {
     return ()->new Itr(prefix);
   }
 
+  /**
+   * Replace the key of every edge with the equal array from the given pool,
+   * so that tries (and anything else) sharing the pool share their key fragments.
+   * <p>
+   * Keys are swapped under the lock of their parent edge, the same lock puts hold to split them,
+   * so a compress may run alongside puts and gets; edges added while we run may keep their own keys.
+   */
+  @Override
   public void compress(CharPool pool) {
-    // Intern references to strings into a pool which can be safely shared across many instances.
+    if (pool == this) {
+      // a CharPoolTrie would be putting into itself while we walk it
+      return;
+    }
+    final ArrayList<Edge> todo = new ArrayList<Edge>();
+    todo.add(root);
+    while (!todo.isEmpty()) {
+      final Edge parent = todo.remove(todo.size() - 1);
+      synchronized (parent) {
+        compress(parent.lesser, pool, todo);
+        compress(parent.greater, pool, todo);
+      }
+    }
+  }
+
+  private void compress(Edge child, CharPool pool, ArrayList<Edge> todo) {
+    if (child == null) {
+      return;
+    }
+    final char[] key = child.key;
+    if (key.length > 0) {
+      // deep nodes are recognized by their empty keys, so we leave those alone
+      child.key = pool.getArray(key);
+    }
+    todo.add(child);
   }
 
   protected E returnValue(Edge e, Chars keys, int pos, int end) {
@@ -0,0 +1,280 @@
+package xapi.collect.trie;
+
+import org.junit.jupiter.api.Test;
+import xapi.collect.impl.InterningCharPool;
+import xapi.collect.prefixed.PrefixedMap;
+import xapi.constants.X_Namespace;
+import xapi.log.X_Log;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+public class ConcurrentRadixTrieTest {
+
+  @Test
+  public void testMatchesTreeMap() {
+    final ConcurrentRadixTrie<String> trie = new ConcurrentRadixTrie<>();
+    final TreeMap<String, String> expected = new TreeMap<>();
+    final Random random = new Random(42);
+    for (int i = 0; i < 20_000; i++) {
+      final String key = randomKey(random);
+      trie.put(key, key + i);
+      expected.put(key, key + i);
+    }
+    for (Map.Entry<String, String> entry : expected.entrySet()) {
+      assertEquals(entry.getValue(), trie.get(entry.getKey()));
+    }
+    for (int i = 0; i < 20_000; i++) {
+      final String key = randomKey(random);
+      assertEquals(expected.get(key), trie.get(key));
+    }
+  }
+
+  @Test
+  public void testKeysWhichArePrefixesOfEachOther() {
+    final ConcurrentRadixTrie<String> trie = new ConcurrentRadixTrie<>();
+    trie.put("xapi.collect.trie", "long");
+    trie.put("xapi", "short");
+    trie.put("xapi.collect", "middle");
+    trie.put("", "empty");
+    trie.put("xapi.coll", "split");
+    assertEquals("empty", trie.get(""));
+    assertEquals("short", trie.get("xapi"));
+    assertEquals("split", trie.get("xapi.coll"));
+    assertEquals("middle", trie.get("xapi.collect"));
+    assertEquals("long", trie.get("xapi.collect.trie"));
+    assertNull(trie.get("xapi.col"));
+    assertNull(trie.get("xapi.collect.trie.more"));
+  }
+
+  @Test
+  public void testFindPrefixedIsInKeyOrder() {
+    final ConcurrentRadixTrie<String> trie = new ConcurrentRadixTrie<>();
+    final TreeMap<String, String> expected = new TreeMap<>();
+    final Random random = new Random(7);
+    for (int i = 0; i < 5_000; i++) {
+      final String key = randomKey(random);
+      trie.put(key, key);
+      expected.put(key, key);
+    }
+    for (String prefix : new String[]{"", "a", "ab", "abc", "b.", "zzzzz", "cĀ"}) {
+      final List<String> found = new ArrayList<>();
+      trie.findPrefixed(prefix).forEach(found::add);
+      final List<String> wanted = new ArrayList<>(expected.subMap(prefix, prefix + Character.MAX_VALUE).values());
+      assertEquals("Prefix " + prefix, wanted, found);
+    }
+  }
+
+  @Test
+  public void testEveryNodeLayout() {
+    final ConcurrentRadixTrie<Integer> trie = new ConcurrentRadixTrie<>();
+    // grows one node through sorted, indexed and direct children, then into sorted again for a wide char
+    for (int c = 0; c < 256; c++) {
+      trie.put("k" + (char) c, c);
+      for (int check = 0; check <= c; check++) {
+        assertEquals(Integer.valueOf(check), trie.get("k" + (char) check));
+      }
+    }
+    trie.put("k中", 0x4e2d);
+    for (int c = 0; c < 256; c++) {
+      assertEquals(Integer.valueOf(c), trie.get("k" + (char) c));
+    }
+    assertEquals(Integer.valueOf(0x4e2d), trie.get("k中"));
+    final List<Integer> found = new ArrayList<>();
+    trie.findPrefixed("k").forEach(found::add);
+    assertEquals(257, found.size());
+    assertEquals(Integer.valueOf(0x4e2d), found.get(256));
+  }
+
+  @Test
+  public void testMerge() {
+    final ConcurrentRadixTrie<Integer> trie = new ConcurrentRadixTrie<Integer>() {
+      @Override
+      protected Integer merge(Integer existing, Integer value) {
+        return existing == null || value > existing ? value : existing;
+      }
+    };
+    trie.put("priority", 2);
+    trie.put("priority", 1);
+    assertEquals(Integer.valueOf(2), trie.get("priority"));
+    trie.put("priority", 3);
+    assertEquals(Integer.valueOf(3), trie.get("priority"));
+  }
+
+  @Test
+  public void testConcurrentPuts() throws Exception {
+    final ConcurrentRadixTrie<String> trie = new ConcurrentRadixTrie<>();
+    final List<String> keys = classNames(40_000, new Random(1));
+    final int threads = 8;
+    runThreads(threads, t -> {
+      for (int i = t; i < keys.size(); i += threads) {
+        trie.put(keys.get(i), keys.get(i));
+        // read back something another thread may be writing near
+        trie.get(keys.get((i * 31) % keys.size()));
+      }
+    });
+    for (String key : keys) {
+      assertEquals(key, trie.get(key));
+    }
+    final int[] count = new int[1];
+    trie.findPrefixed("").forEach(ignored -> count[0]++);
+    assertEquals(new java.util.HashSet<>(keys).size(), count[0]);
+  }
+
+  @Test
+  public void testCompressSharesKeysAcrossTries() {
+    final List<String> names = classNames(20_000, new Random(11));
+    final ConcurrentRadixTrie<String> radix = new ConcurrentRadixTrie<>();
+    final ConcurrentRadixTrie<String> otherRadix = new ConcurrentRadixTrie<>();
+    final MultithreadedStringTrie<String> edges = new MultithreadedStringTrie<>();
+    for (String name : names) {
+      radix.put(name, name);
+      otherRadix.put(name, name);
+      edges.put(name, name);
+    }
+    final InterningCharPool pool = new InterningCharPool();
+    radix.compress(pool);
+    final long misses = pool.getMisses();
+    otherRadix.compress(pool);
+    // the second trie has exactly the same nodes, so it adds nothing to the pool
+    assertEquals(misses, pool.getMisses());
+    edges.compress(pool);
+    for (String name : names) {
+      assertEquals(name, radix.get(name));
+      assertEquals(name, otherRadix.get(name));
+      assertEquals(name, edges.get(name));
+    }
+    assertTrue(pool.getBytesSaved() > 0);
+    X_Log.info(ConcurrentRadixTrieTest.class, "Compressed three tries of", names.size(), "class names:", pool);
+  }
+
+  @Test
+  public void benchmarkAgainstOtherMaps() throws Exception {
+    assumeTrue(Boolean.getBoolean(X_Namespace.PROPERTY_BENCHMARK), "Run with -D" + X_Namespace.PROPERTY_BENCHMARK + "=true");
+    final List<String> keys = classNames(200_000, new Random(3));
+    final int threads = Math.max(2, Math.min(8, Runtime.getRuntime().availableProcessors()));
+    for (int round = 0; round < 3; round++) {
+      final boolean report = round == 2;
+      bench("ConcurrentRadixTrie", new ConcurrentRadixTrie<>(), keys, threads, report);
+      bench("MultithreadedStringTrie", new MultithreadedStringTrie<>(), keys, threads, report);
+      final ConcurrentSkipListMap<String, String> skipList = new ConcurrentSkipListMap<>();
+      bench("ConcurrentSkipListMap", new PrefixedMap<String>() {
+        @Override
+        public String get(String key) {
+          return skipList.get(key);
+        }
+
+        @Override
+        public void put(String key, String value) {
+          skipList.put(key, value);
+        }
+
+        @Override
+        public xapi.fu.itr.MappedIterable<String> findPrefixed(String name) {
+          return skipList.subMap(name, name + Character.MAX_VALUE).values()::iterator;
+        }
+      }, keys, threads, report);
+    }
+  }
+
+  private void bench(String name, PrefixedMap<String> map, List<String> keys, int threads, boolean report) throws Exception {
+    long start = System.nanoTime();
+    runThreads(threads, t -> {
+      for (int i = t; i < keys.size(); i += threads) {
+        map.put(keys.get(i), keys.get(i));
+      }
+    });
+    final long put = System.nanoTime() - start;
+
+    start = System.nanoTime();
+    runThreads(threads, t -> {
+      for (int i = 0; i < keys.size(); i++) {
+        if (map.get(keys.get((i + t * 7919) % keys.size())) == null) {
+          throw new AssertionError("Missing " + keys.get(i));
+        }
+      }
+    });
+    final long get = System.nanoTime() - start;
+
+    start = System.nanoTime();
+    int found = 0;
+    for (String prefix : new String[]{"com.", "org.apache.", "xapi.collect.", "net.wetheinter.xapi."}) {
+      for (String ignored : map.findPrefixed(prefix)) {
+        found++;
+      }
+    }
+    final long prefixed = System.nanoTime() - start;
+    assertTrue(found > 0);
+    if (report) {
+      X_Log.info(ConcurrentRadixTrieTest.class, name, ": ", threads, " threads; put ", (keys.size() * 1000L / (put / 1000)),
+          " keys/ms, get ", ((long) keys.size() * threads * 1000L / (get / 1000)), " keys/ms, prefix scan of ", found,
+          " values in ", (prefixed / 1000), "us");
+    }
+  }
+
+  private interface Job {
+    void run(int thread) throws Exception;
+  }
+
+  private static void runThreads(int threads, Job job) throws Exception {
+    final CountDownLatch start = new CountDownLatch(1);
+    final AtomicReference<Throwable> failure = new AtomicReference<>();
+    final List<Thread> running = new ArrayList<>();
+    for (int t = 0; t < threads; t++) {
+      final int thread = t;
+      final Thread worker = new Thread(() -> {
+        try {
+          start.await();
+          job.run(thread);
+        } catch (Throwable e) {
+          failure.compareAndSet(null, e);
+        }
+      });
+      worker.start();
+      running.add(worker);
+    }
+    start.countDown();
+    for (Thread worker : running) {
+      worker.join();
+    }
+    if (failure.get() != null) {
+      throw new AssertionError(failure.get());
+    }
+  }
+
+  private static String randomKey(Random random) {
+    final StringBuilder b = new StringBuilder();
+    for (int i = random.nextInt(8); i --> 0;) {
+      // a small alphabet, so keys share lots of prefixes; and the odd wide char
+      b.append(random.nextInt(50) == 0 ? 'Ā' : (char) ('a' + random.nextInt(4)));
+      if (random.nextInt(6) == 0) {
+        b.append('.');
+      }
+    }
+    return b.toString();
+  }
+
+  private static List<String> classNames(int count, Random random) {
+    final String[] roots = {"com.", "org.apache.", "org.junit.", "xapi.collect.", "xapi.dev.scanner.", "net.wetheinter.xapi.", "java.util."};
+    final String[] parts = {"api", "impl", "util", "service", "client", "server", "shared", "model", "io", "concurrent"};
+    final List<String> names = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) {
+      final StringBuilder b = new StringBuilder(roots[random.nextInt(roots.length)]);
+      for (int depth = 1 + random.nextInt(3); depth --> 0;) {
+        b.append(parts[random.nextInt(parts.length)]).append('.');
+      }
+      b.append("Type").append(i);
+      names.add(b.toString());
+    }
+    return names;
+  }
+}